@@ -0,0 +1,95 @@
+package com.jivesoftware.os.amza.api;
+
+import com.jivesoftware.os.amza.api.partition.Consistency;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.KeyValueStream;
+import com.jivesoftware.os.amza.api.stream.KeyValueTimestampStream;
+import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
+import com.jivesoftware.os.amza.api.stream.TxKeyValueStream;
+import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
+import com.jivesoftware.os.amza.api.take.Highwaters;
+import com.jivesoftware.os.amza.api.take.TakeResult;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A future based convenience wrapper over {@link PartitionClient}. Each call returns immediately and the calling thread is never parked while
+ * replicas are solved. Streams are invoked on a client thread before the returned future completes, and the future completes
+ * exceptionally wherever the equivalent {@link PartitionClient} call would have thrown.
+ * <p>
+ * This is not non-blocking I/O: the replica calls still go over the blocking HTTP transport, so every in-flight replica call and every merge
+ * of a response body occupies one of the client's caller threads for its duration. It spares the calling thread, not threads overall, and
+ * the caller thread pool has to be sized for the concurrency the async calls are expected to reach.
+ *
+ * @see PartitionClient
+ */
+public interface AsyncPartitionClient {
+
+    CompletableFuture<Void> commitAsync(Consistency consistency,
+        byte[] prefix,
+        ClientUpdates updates,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog);
+
+    CompletableFuture<Boolean> getAsync(Consistency consistency,
+        byte[] prefix,
+        UnprefixedWALKeys keys,
+        KeyValueTimestampStream valuesStream,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog);
+
+    CompletableFuture<Boolean> getRawAsync(Consistency consistency,
+        byte[] prefix,
+        UnprefixedWALKeys keys,
+        KeyValueStream valuesStream,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog);
+
+    /**
+     * @param ranges the ranges (from key/prefix is nullable and inclusive, to key/prefix is nullable and exclusive)
+     */
+    CompletableFuture<Boolean> scanAsync(Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        KeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog);
+
+    CompletableFuture<Boolean> scanKeysAsync(Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        KeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog);
+
+    CompletableFuture<TakeResult> takeFromTransactionIdAsync(List<RingMember> membersInOrder,
+        Map<RingMember, Long> memberTxIds,
+        int limit,
+        Highwaters highwaters,
+        TxKeyValueStream stream,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog);
+
+    CompletableFuture<TakeResult> takePrefixFromTransactionIdAsync(List<RingMember> membersInOrder,
+        byte[] prefix,
+        Map<RingMember, Long> memberTxIds,
+        int limit,
+        Highwaters highwaters,
+        TxKeyValueStream stream,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog);
+}
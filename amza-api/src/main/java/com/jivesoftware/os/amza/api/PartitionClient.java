@@ -2,16 +2,20 @@ package com.jivesoftware.os.amza.api;
 
 import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.scan.ScanCursor;
 import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyValueTimestampStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueTimestampStream;
 import com.jivesoftware.os.amza.api.stream.OffsetUnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
 import com.jivesoftware.os.amza.api.stream.TxKeyValueStream;
+import com.jivesoftware.os.amza.api.stream.TxKeyValueStream.TxResult;
 import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.take.Highwaters;
 import com.jivesoftware.os.amza.api.take.TakeResult;
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -84,6 +88,42 @@ public interface PartitionClient {
         long abandonSolutionAfterNMillis,
         Optional<List<String>> solutionLog) throws Exception;
 
+    /**
+     * Scans at most {@code pageSize} rows, tombstones included, so large scans can be split into bounded requests and resumed after a
+     * failure. Stopping the stream early also ends the page.
+     *
+     * @param cursor null for the first page, otherwise the cursor returned by the previous page
+     * @return the cursor to pass for the next page, or null once the ranges are exhausted
+     */
+    ScanCursor scanPage(Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        ScanCursor cursor,
+        int pageSize,
+        KeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception;
+
+    /**
+     * Scans a secondary index declared in the partition's properties. Rows are streamed ordered by index key and then by row key, and a
+     * row appears once for each of its index keys in range.
+     *
+     * @param fromIndexKey nullable (inclusive)
+     * @param toIndexKey nullable (exclusive)
+     */
+    boolean scanIndex(Consistency consistency,
+        boolean compressed,
+        String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey,
+        IndexedKeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception;
+
     interface KeyValueFilter extends Serializable {
         boolean filter(byte[] prefix, byte[] key, byte[] value, long timestamp, boolean tombstoned, long version, KeyValueStream stream) throws Exception;
     }
@@ -127,4 +167,50 @@ public interface PartitionClient {
         long abandonSolutionAfterNMillis,
         Optional<List<String>> solutionLog) throws Exception;
 
+    /**
+     * Follows the partition from memberTxIds, streaming rows as they are committed. Rows arrive in batches of up to limit, and an idle
+     * subscription takes again every heartbeatIntervalMillis. This default polls the take methods, while clients backed by a replica have
+     * the replica push each commit instead.
+     *
+     * @param prefix nullable, otherwise only rows with this prefix are streamed
+     * @return the cursor to resume from, once the stream stops accepting rows or the subscription has lasted sessionMillis
+     */
+    default TakeResult subscribe(List<RingMember> membersInOrder,
+        byte[] prefix,
+        Map<RingMember, Long> memberTxIds,
+        int limit,
+        long heartbeatIntervalMillis,
+        long sessionMillis,
+        Highwaters highwaters,
+        TxKeyValueStream stream,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+
+        Map<RingMember, Long> cursor = new HashMap<>(memberTxIds);
+        boolean[] stopped = { false };
+        TxKeyValueStream stopping = (rowTxId, rowPrefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+            TxResult result = stream.stream(rowTxId, rowPrefix, key, value, valueTimestamp, valueTombstoned, valueVersion);
+            if (!result.wantsMore()) {
+                stopped[0] = true;
+            }
+            return result;
+        };
+        long end = System.currentTimeMillis() + sessionMillis;
+        while (true) {
+            TakeResult takeResult = prefix == null
+                ? takeFromTransactionId(membersInOrder, cursor, limit, highwaters, stopping,
+                    additionalSolverAfterNMillis, abandonSolutionAfterNMillis, solutionLog)
+                : takePrefixFromTransactionId(membersInOrder, prefix, cursor, limit, highwaters, stopping,
+                    additionalSolverAfterNMillis, abandonSolutionAfterNMillis, solutionLog);
+            long lastTxId = cursor.merge(takeResult.tookFrom, takeResult.lastTxId, Math::max);
+            long now = System.currentTimeMillis();
+            if (stopped[0] || now >= end) {
+                return new TakeResult(takeResult.tookFrom, lastTxId, takeResult.tookToEnd);
+            }
+            if (takeResult.tookToEnd != null) {
+                Thread.sleep(Math.min(heartbeatIntervalMillis, end - now));
+            }
+        }
+    }
 }
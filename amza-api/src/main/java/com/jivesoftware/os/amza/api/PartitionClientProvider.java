@@ -1,7 +1,10 @@
 package com.jivesoftware.os.amza.api;
 
+import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
+import java.util.List;
+import java.util.Optional;
 
 /**
  *
@@ -16,4 +19,19 @@ public interface PartitionClientProvider {
         PartitionProperties partitionProperties) throws Exception;
 
     RingPartitionProperties getProperties(PartitionName partitionName) throws Exception;
+
+    /**
+     * Commits updates to many partitions. Implementations that can route should group the commits by ring host and await the quorums
+     * concurrently; this default simply commits each partition in turn.
+     */
+    default void commitMany(Consistency consistency,
+        List<PartitionCommit> commits,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+        for (PartitionCommit commit : commits) {
+            getPartition(commit.partitionName).commit(consistency, commit.prefix, commit.updates,
+                additionalSolverAfterNMillis, abandonSolutionAfterNMillis, solutionLog);
+        }
+    }
 }
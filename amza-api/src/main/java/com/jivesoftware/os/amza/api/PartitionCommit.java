@@ -0,0 +1,55 @@
+package com.jivesoftware.os.amza.api;
+
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+
+/**
+ * The updates for one partition within a {@link PartitionClientProvider#commitMany} batch.
+ */
+public class PartitionCommit {
+
+    public final PartitionName partitionName;
+    public final byte[] prefix;
+    public final ClientUpdates updates;
+
+    public PartitionCommit(PartitionName partitionName, byte[] prefix, ClientUpdates updates) {
+        this.partitionName = partitionName;
+        this.prefix = prefix;
+        this.updates = updates;
+    }
+
+    /**
+     * The per partition outcome of a batched commit as reported by the server, in request order.
+     */
+    public enum Status {
+        committed((byte) 0),
+        failed_to_achieve_quorum((byte) 1),
+        not_committed((byte) 2);
+
+        private final byte serializedForm;
+
+        Status(byte serializedForm) {
+            this.serializedForm = serializedForm;
+        }
+
+        public byte toByte() {
+            return serializedForm;
+        }
+
+        public static Status fromByte(byte b) {
+            for (Status status : values()) {
+                if (status.serializedForm == b) {
+                    return status;
+                }
+            }
+            return not_committed;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionCommit{"
+            + "partitionName=" + partitionName
+            + '}';
+    }
+}
@@ -4,8 +4,10 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.jivesoftware.os.amza.api.stream.RowType;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -38,6 +40,10 @@ public class PartitionProperties {
     public Map<String, String> indexProperties;
     public int updatesBetweenLeaps = -1;
     public int maxLeaps = -1;
+    public boolean cacheHydratedValues = false;
+    public List<SecondaryIndexDefinition> secondaryIndexes;
+    public long writeRowsPerSecond = -1; // <= 0 is unlimited
+    public long ringWriteRowsPerSecond = -1; // <= 0 is unlimited, shared by every partition in the ring
 
     public PartitionProperties() {
     }
@@ -89,12 +95,23 @@ public class PartitionProperties {
 
     @JsonIgnore
     public PartitionProperties copy() {
-        return new PartitionProperties(durability, tombstoneTimestampAgeInMillis, tombstoneTimestampIntervalMillis, tombstoneVersionAgeInMillis,
-            tombstoneVersionIntervalMillis, ttlTimestampAgeInMillis, ttlTimestampIntervalMillis, ttlVersionAgeInMillis, ttlVersionIntervalMillis,
-            forceCompactionOnStartup, consistency, requireConsistency, replicated, disabled, rowType, indexClassName, maxValueSizeInIndex,
+        PartitionProperties copy = new PartitionProperties(durability, tombstoneTimestampAgeInMillis, tombstoneTimestampIntervalMillis,
+            tombstoneVersionAgeInMillis, tombstoneVersionIntervalMillis, ttlTimestampAgeInMillis, ttlTimestampIntervalMillis, ttlVersionAgeInMillis,
+            ttlVersionIntervalMillis, forceCompactionOnStartup, consistency, requireConsistency, replicated, disabled, rowType, indexClassName,
+            maxValueSizeInIndex,
             indexProperties == null ? null : Maps.newHashMap(indexProperties),
             updatesBetweenLeaps,
             maxLeaps);
+        copy.cacheHydratedValues = cacheHydratedValues;
+        copy.writeRowsPerSecond = writeRowsPerSecond;
+        copy.ringWriteRowsPerSecond = ringWriteRowsPerSecond;
+        if (secondaryIndexes != null) {
+            copy.secondaryIndexes = Lists.newArrayListWithCapacity(secondaryIndexes.size());
+            for (SecondaryIndexDefinition secondaryIndex : secondaryIndexes) {
+                copy.secondaryIndexes.add(secondaryIndex.copy());
+            }
+        }
+        return copy;
     }
 
     @Override
@@ -153,6 +170,15 @@ public class PartitionProperties {
         if (maxLeaps != that.maxLeaps) {
             return false;
         }
+        if (cacheHydratedValues != that.cacheHydratedValues) {
+            return false;
+        }
+        if (writeRowsPerSecond != that.writeRowsPerSecond) {
+            return false;
+        }
+        if (ringWriteRowsPerSecond != that.ringWriteRowsPerSecond) {
+            return false;
+        }
         if (durability != that.durability) {
             return false;
         }
@@ -165,6 +191,9 @@ public class PartitionProperties {
         if (indexClassName != null ? !indexClassName.equals(that.indexClassName) : that.indexClassName != null) {
             return false;
         }
+        if (secondaryIndexes != null ? !secondaryIndexes.equals(that.secondaryIndexes) : that.secondaryIndexes != null) {
+            return false;
+        }
         return indexProperties != null ? indexProperties.equals(that.indexProperties) : that.indexProperties == null;
 
     }
@@ -197,6 +226,10 @@ public class PartitionProperties {
             + ", indexProperties=" + indexProperties
             + ", updatesBetweenLeaps=" + updatesBetweenLeaps
             + ", maxLeaps=" + maxLeaps
+            + ", cacheHydratedValues=" + cacheHydratedValues
+            + ", secondaryIndexes=" + secondaryIndexes
+            + ", writeRowsPerSecond=" + writeRowsPerSecond
+            + ", ringWriteRowsPerSecond=" + ringWriteRowsPerSecond
             + '}';
     }
 }
@@ -0,0 +1,98 @@
+package com.jivesoftware.os.amza.api.partition;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import java.util.Objects;
+
+/**
+ * Declares a secondary index over the values of a partition. Each index key is extracted from a row's value by one of the built in
+ * extractors, or by a {@link com.jivesoftware.os.amza.api.wal.SecondaryIndexExtractor} named by extractorClassName.
+ */
+@JsonInclude(Include.NON_NULL)
+public class SecondaryIndexDefinition {
+
+    public enum Extractor {
+        /**
+         * The whole value is the index key.
+         */
+        value,
+        /**
+         * The index key is length bytes of the value starting at offset, or the rest of the value when length is negative. Values too short
+         * to hold the slice are not indexed.
+         */
+        slice,
+        /**
+         * The value is split on delimiter and the index key is the given field, or every field when field is negative.
+         */
+        delimited
+    }
+
+    public String name;
+    public Extractor extractor = Extractor.value;
+    public int offset = 0;
+    public int length = -1;
+    public byte delimiter = ',';
+    public int field = -1;
+    public String extractorClassName;
+
+    public SecondaryIndexDefinition() {
+    }
+
+    public SecondaryIndexDefinition(String name,
+        Extractor extractor,
+        int offset,
+        int length,
+        byte delimiter,
+        int field,
+        String extractorClassName) {
+        this.name = name;
+        this.extractor = extractor;
+        this.offset = offset;
+        this.length = length;
+        this.delimiter = delimiter;
+        this.field = field;
+        this.extractorClassName = extractorClassName;
+    }
+
+    @JsonIgnore
+    public SecondaryIndexDefinition copy() {
+        return new SecondaryIndexDefinition(name, extractor, offset, length, delimiter, field, extractorClassName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SecondaryIndexDefinition that = (SecondaryIndexDefinition) o;
+        return offset == that.offset
+            && length == that.length
+            && delimiter == that.delimiter
+            && field == that.field
+            && Objects.equals(name, that.name)
+            && extractor == that.extractor
+            && Objects.equals(extractorClassName, that.extractorClassName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, extractor, offset, length, delimiter, field, extractorClassName);
+    }
+
+    @Override
+    public String toString() {
+        return "SecondaryIndexDefinition{"
+            + "name='" + name + '\''
+            + ", extractor=" + extractor
+            + ", offset=" + offset
+            + ", length=" + length
+            + ", delimiter=" + delimiter
+            + ", field=" + field
+            + ", extractorClassName='" + extractorClassName + '\''
+            + '}';
+    }
+}
@@ -3,6 +3,7 @@ package com.jivesoftware.os.amza.api.scan;
 import com.jivesoftware.os.amza.api.stream.MergeTxKeyPointerStream;
 import com.jivesoftware.os.amza.api.stream.TxKeyPointers;
 import com.jivesoftware.os.amza.api.stream.WALKeyPointerStream;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
 
 /**
  *
@@ -14,6 +15,11 @@ public interface CompactableWALIndex {
 
     CompactionWALIndex startCompaction(boolean hasActive, int stripe) throws Exception;
 
+    /**
+     * Sets the secondary indexes maintained by subsequent merges, including merges into compactions started afterward.
+     */
+    void updatedSecondaryIndexes(SecondaryIndexes secondaryIndexes);
+
     boolean getPointer(byte[] prefix, byte[] key, WALKeyPointerStream stream) throws Exception;
 
     boolean exists() throws Exception;
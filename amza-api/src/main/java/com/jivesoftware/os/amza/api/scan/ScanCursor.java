@@ -0,0 +1,96 @@
+package com.jivesoftware.os.amza.api.scan;
+
+import com.google.common.io.BaseEncoding;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
+import java.util.Arrays;
+
+/**
+ * Continuation token for a paged scan: the index of the range being scanned and the last row handed to the stream. A scan resumes just
+ * after that row, so the token stays valid across replicas, leader changes and merges of the underlying delta and index.
+ */
+public class ScanCursor {
+
+    private static final byte VERSION = 0;
+
+    public final int rangeIndex;
+    public final byte[] prefix;
+    public final byte[] key;
+
+    public ScanCursor(int rangeIndex, byte[] prefix, byte[] key) {
+        this.rangeIndex = rangeIndex;
+        this.prefix = prefix;
+        this.key = key;
+    }
+
+    /**
+     * @return the given ranges minus the ranges already completed, with the current range starting just after this cursor's row
+     */
+    public PrefixedKeyRanges resume(PrefixedKeyRanges ranges) {
+        byte[] fromKey = successor(key);
+        return stream -> {
+            int[] index = { 0 };
+            return ranges.consume((fromPrefix1, fromKey1, toPrefix, toKey) -> {
+                int i = index[0]++;
+                if (i < rangeIndex) {
+                    return true;
+                } else if (i == rangeIndex) {
+                    return stream.stream(prefix, fromKey, toPrefix, toKey);
+                } else {
+                    return stream.stream(fromPrefix1, fromKey1, toPrefix, toKey);
+                }
+            });
+        };
+    }
+
+    /**
+     * @return the smallest key that sorts after the given key
+     */
+    static byte[] successor(byte[] key) {
+        return Arrays.copyOf(key, key.length + 1);
+    }
+
+    public byte[] toBytes() {
+        int prefixLength = prefix != null ? prefix.length : 0;
+        byte[] asBytes = new byte[1 + 4 + 4 + prefixLength + 4 + key.length];
+        asBytes[0] = VERSION;
+        UIO.intBytes(rangeIndex, asBytes, 1);
+        UIO.intBytes(prefix != null ? prefixLength : -1, asBytes, 1 + 4);
+        if (prefix != null) {
+            System.arraycopy(prefix, 0, asBytes, 1 + 4 + 4, prefixLength);
+        }
+        UIO.intBytes(key.length, asBytes, 1 + 4 + 4 + prefixLength);
+        System.arraycopy(key, 0, asBytes, 1 + 4 + 4 + prefixLength + 4, key.length);
+        return asBytes;
+    }
+
+    public static ScanCursor fromBytes(byte[] bytes) {
+        if (bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Unsupported scan cursor version:" + bytes[0]);
+        }
+        int rangeIndex = UIO.bytesInt(bytes, 1);
+        int prefixLength = UIO.bytesInt(bytes, 1 + 4);
+        byte[] prefix = prefixLength == -1 ? null : Arrays.copyOfRange(bytes, 1 + 4 + 4, 1 + 4 + 4 + prefixLength);
+        int keyOffset = 1 + 4 + 4 + Math.max(prefixLength, 0);
+        int keyLength = UIO.bytesInt(bytes, keyOffset);
+        byte[] key = Arrays.copyOfRange(bytes, keyOffset + 4, keyOffset + 4 + keyLength);
+        return new ScanCursor(rangeIndex, prefix, key);
+    }
+
+    public String toBase64() {
+        return BaseEncoding.base64Url().encode(toBytes());
+    }
+
+    public static ScanCursor fromBase64(String base64) {
+        return fromBytes(BaseEncoding.base64Url().decode(base64));
+    }
+
+    @Override
+    public String toString() {
+        return "ScanCursor{"
+            + "rangeIndex=" + rangeIndex
+            + ", prefix=" + Arrays.toString(prefix)
+            + ", key=" + Arrays.toString(key)
+            + '}';
+    }
+}
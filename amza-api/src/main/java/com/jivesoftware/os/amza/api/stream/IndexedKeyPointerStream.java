@@ -0,0 +1,17 @@
+package com.jivesoftware.os.amza.api.stream;
+
+/**
+ *
+ */
+public interface IndexedKeyPointerStream {
+
+    boolean stream(byte[] indexKey,
+        byte[] prefix,
+        byte[] key,
+        long timestamp,
+        boolean tombstoned,
+        long version,
+        long fp,
+        boolean hasValue,
+        byte[] value) throws Exception;
+}
@@ -0,0 +1,15 @@
+package com.jivesoftware.os.amza.api.stream;
+
+/**
+ *
+ */
+public interface IndexedKeyValueStream {
+
+    boolean stream(byte[] indexKey,
+        byte[] prefix,
+        byte[] key,
+        byte[] value,
+        long valueTimestamp,
+        boolean valueTombstoned,
+        long valueVersion) throws Exception;
+}
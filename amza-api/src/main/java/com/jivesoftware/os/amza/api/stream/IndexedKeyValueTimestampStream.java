@@ -0,0 +1,9 @@
+package com.jivesoftware.os.amza.api.stream;
+
+/**
+ *
+ */
+public interface IndexedKeyValueTimestampStream {
+
+    boolean stream(byte[] indexKey, byte[] prefix, byte[] key, byte[] value, long timestamp, long version) throws Exception;
+}
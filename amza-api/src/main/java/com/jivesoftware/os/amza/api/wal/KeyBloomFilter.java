@@ -0,0 +1,248 @@
+package com.jivesoftware.os.amza.api.wal;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Remembers every composed key put into an index so that lookups for keys the index has never held can skip the index. The filter grows by
+ * adding segments of doubling capacity and halving false positive probability, so it needs no up front key count and its overall false
+ * positive probability stays below the configured one.
+ * <p>
+ * A filter is only trustworthy if it has seen every key in its index. The persisted copy is deleted before the first new key is added after
+ * a save, so an index that goes down before the next save finds no file and rebuilds its filter from a scan of its keys.
+ */
+public class KeyBloomFilter {
+
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
+    public static final int DEFAULT_INITIAL_CAPACITY = 16_384;
+    public static final double DEFAULT_FPP = 0.01d;
+
+    private static final byte VERSION = 0;
+    private static final double MIN_SEGMENT_FPP = 1e-9d;
+    private static final Funnel<byte[]> FUNNEL = Funnels.byteArrayFunnel();
+
+    private final File file;
+    private final int initialCapacity;
+    private final double fpp;
+    private final List<Segment> segments;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean persisted;
+
+    private final AtomicLong positives = new AtomicLong();
+    private final AtomicLong negatives = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    public KeyBloomFilter(File file, int initialCapacity, double fpp) {
+        this(file, initialCapacity, fpp, Lists.newArrayList());
+    }
+
+    private KeyBloomFilter(File file, int initialCapacity, double fpp, List<Segment> segments) {
+        this.file = file;
+        this.initialCapacity = initialCapacity;
+        this.fpp = fpp;
+        this.segments = segments;
+    }
+
+    /**
+     * @return false if there was no usable persisted filter, in which case the caller must put every key in the index
+     */
+    public boolean load() {
+        lock.writeLock().lock();
+        try {
+            segments.clear();
+            persisted = false;
+            if (!file.exists()) {
+                return false;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                byte version = in.readByte();
+                if (version != VERSION) {
+                    LOG.warn("Ignoring bloom filter {} with unsupported version:{}", file, version);
+                    return false;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long capacity = in.readLong();
+                    long keys = in.readLong();
+                    segments.add(new Segment(BloomFilter.readFrom(in, FUNNEL), capacity, keys));
+                }
+                persisted = true;
+                return true;
+            } catch (IOException | RuntimeException x) {
+                LOG.warn("Ignoring unreadable bloom filter {}", new Object[] { file }, x);
+                segments.clear();
+                return false;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return false if the key was definitely never put
+     */
+    public boolean mightContain(byte[] pk) {
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.filter.mightContain(pk)) {
+                    positives.incrementAndGet();
+                    return true;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        negatives.incrementAndGet();
+        LOG.inc("bloom>negative");
+        return false;
+    }
+
+    /**
+     * Records that a key this filter might contain was not in the index.
+     */
+    public void falsePositive() {
+        falsePositives.incrementAndGet();
+        LOG.inc("bloom>falsePositive");
+    }
+
+    public void put(byte[] pk) throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.filter.mightContain(pk)) {
+                    return;
+                }
+            }
+            if (persisted) {
+                Files.deleteIfExists(file.toPath());
+                persisted = false;
+            }
+            Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (last == null || last.keys >= last.capacity) {
+                int index = segments.size();
+                long capacity = (long) initialCapacity << Math.min(index, 30);
+                double segmentFpp = Math.max(fpp / (1L << Math.min(index + 1, 62)), MIN_SEGMENT_FPP);
+                last = new Segment(BloomFilter.create(FUNNEL, (int) Math.min(capacity, Integer.MAX_VALUE), segmentFpp), capacity, 0);
+                segments.add(last);
+            }
+            last.filter.put(pk);
+            last.keys++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Persists the filter if it has changed since it was loaded or last saved.
+     */
+    public void save() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (persisted) {
+                return;
+            }
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Failed to mkdirs for " + parent);
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+                out.writeByte(VERSION);
+                out.writeInt(segments.size());
+                for (Segment segment : segments) {
+                    out.writeLong(segment.capacity);
+                    out.writeLong(segment.keys);
+                    segment.filter.writeTo(out);
+                }
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            persisted = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Hands this filter's keys over to a filter persisted at the given location, deleting this filter's persisted copy.
+     */
+    public KeyBloomFilter moveTo(File toFile) throws IOException {
+        lock.writeLock().lock();
+        try {
+            delete();
+            return new KeyBloomFilter(toFile, initialCapacity, fpp, Lists.newArrayList(segments));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void delete() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Files.deleteIfExists(file.toPath());
+            persisted = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long getKeys() {
+        lock.readLock().lock();
+        try {
+            long keys = 0;
+            for (Segment segment : segments) {
+                keys += segment.keys;
+            }
+            return keys;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getPositives() {
+        return positives.get();
+    }
+
+    public long getNegatives() {
+        return negatives.get();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    private static class Segment {
+
+        private final BloomFilter<byte[]> filter;
+        private final long capacity;
+        private long keys;
+
+        private Segment(BloomFilter<byte[]> filter, long capacity, long keys) {
+            this.filter = filter;
+            this.capacity = capacity;
+            this.keys = keys;
+        }
+    }
+}
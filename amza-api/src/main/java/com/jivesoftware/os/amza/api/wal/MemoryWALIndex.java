@@ -18,6 +18,7 @@ package com.jivesoftware.os.amza.api.wal;
 import com.google.common.primitives.UnsignedBytes;
 import com.jivesoftware.os.amza.api.CompareTimestampVersions;
 import com.jivesoftware.os.amza.api.scan.CompactionWALIndex;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyPointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValuePointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyValues;
@@ -44,6 +45,8 @@ public class MemoryWALIndex implements WALIndex {
     private final ConcurrentSkipListMap<byte[], WALPointer> index = new ConcurrentSkipListMap<>(KeyUtil::compare);
     private final ConcurrentSkipListMap<byte[], ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<Long>>> prefixFpIndex = new ConcurrentSkipListMap<>(
         UnsignedBytes.lexicographicalComparator());
+    private final ConcurrentSkipListMap<byte[], WALPointer> secondaryIndex = new ConcurrentSkipListMap<>(KeyUtil::compare);
+    private volatile SecondaryIndexes secondaryIndexes = SecondaryIndexes.NONE;
 
     public MemoryWALIndex(String providerName, int maxValueSizeInIndex, int currentStripe) {
         this.providerName = providerName;
@@ -280,6 +283,12 @@ public class MemoryWALIndex implements WALIndex {
                 return existingPointer;
             }
         });
+        if (mode[0] != WALMergeKeyPointerStream.ignored) {
+            secondaryIndexes.entries(prefix, key, value, tombstoned, entryKey -> {
+                secondaryIndex.put(entryKey, compute);
+                return true;
+            });
+        }
         if (prefix != null) {
             ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<Long>> prefixMap = prefixFpIndex.computeIfAbsent(prefix, bytes -> new ConcurrentSkipListMap<>());
             ConcurrentLinkedQueue<Long> queue = prefixMap.computeIfAbsent(txId, _txId -> new ConcurrentLinkedQueue<>());
@@ -296,6 +305,7 @@ public class MemoryWALIndex implements WALIndex {
     public CompactionWALIndex startCompaction(boolean hasActive, int compactionStripe) throws Exception {
 
         final MemoryWALIndex rowsIndex = new MemoryWALIndex(providerName, maxValueSizeInIndex, compactionStripe);
+        rowsIndex.secondaryIndexes = secondaryIndexes;
         return new CompactionWALIndex() {
 
             @Override
@@ -307,11 +317,13 @@ public class MemoryWALIndex implements WALIndex {
             public void commit(boolean fsync, Callable<Void> commit) throws Exception {
                 index.clear();
                 prefixFpIndex.clear();
+                secondaryIndex.clear();
                 if (commit != null) {
                     commit.call();
                 }
                 index.putAll(rowsIndex.index);
                 prefixFpIndex.putAll(rowsIndex.prefixFpIndex);
+                secondaryIndex.putAll(rowsIndex.secondaryIndex);
                 currentStripe = compactionStripe;
             }
 
@@ -322,12 +334,42 @@ public class MemoryWALIndex implements WALIndex {
 
     }
 
+    @Override
+    public boolean secondaryIndexScan(String indexName, byte[] fromIndexKey, byte[] toIndexKey, IndexedKeyPointerStream stream) throws Exception {
+        byte[] fromEntryKey = SecondaryIndexes.fromEntryKey(indexName, fromIndexKey);
+        byte[] toEntryKey = SecondaryIndexes.toEntryKey(indexName, toIndexKey);
+        if (KeyUtil.compare(fromEntryKey, toEntryKey) >= 0) {
+            return true;
+        }
+        for (Entry<byte[], WALPointer> e : secondaryIndex.subMap(fromEntryKey, toEntryKey).entrySet()) {
+            WALPointer entryPointer = e.getValue();
+            if (!SecondaryIndexes.decode(e.getKey(), (indexKey, prefix, key) -> {
+                WALPointer pointer = index.get(WALKey.compose(prefix, key));
+                if (pointer == null || !SecondaryIndexes.isCurrent(entryPointer.getTimestampId(), entryPointer.getVersion(),
+                    pointer.getTimestampId(), pointer.getTombstoned(), pointer.getVersion(), pointer.getFp(), pointer.getHasValue())) {
+                    return true;
+                }
+                return stream.stream(indexKey, prefix, key, pointer.getTimestampId(), pointer.getTombstoned(), pointer.getVersion(), pointer.getFp(),
+                    pointer.getHasValue(), pointer.getValue());
+            })) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public void updatedProperties(Map<String, String> properties) {
     }
 
+    @Override
+    public void updatedSecondaryIndexes(SecondaryIndexes secondaryIndexes) {
+        this.secondaryIndexes = secondaryIndexes;
+    }
+
     @Override
     public void delete() throws Exception {
         index.clear();
+        secondaryIndex.clear();
     }
 }
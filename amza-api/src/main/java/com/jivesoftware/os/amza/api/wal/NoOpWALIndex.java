@@ -1,6 +1,7 @@
 package com.jivesoftware.os.amza.api.wal;
 
 import com.jivesoftware.os.amza.api.scan.CompactionWALIndex;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyPointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValuePointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyValues;
@@ -143,10 +144,19 @@ public class NoOpWALIndex implements WALIndex {
         return true;
     }
 
+    @Override
+    public boolean secondaryIndexScan(String indexName, byte[] fromIndexKey, byte[] toIndexKey, IndexedKeyPointerStream stream) throws Exception {
+        return true;
+    }
+
     @Override
     public void updatedProperties(Map<String, String> properties) {
     }
 
+    @Override
+    public void updatedSecondaryIndexes(SecondaryIndexes secondaryIndexes) {
+    }
+
     @Override
     public void delete() throws Exception {
     }
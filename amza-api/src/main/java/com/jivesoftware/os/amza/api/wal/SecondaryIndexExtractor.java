@@ -0,0 +1,17 @@
+package com.jivesoftware.os.amza.api.wal;
+
+/**
+ * Produces the secondary index keys for a row. Implementations named by a secondary index definition need a public no-arg constructor.
+ */
+public interface SecondaryIndexExtractor {
+
+    /**
+     * @param value never null
+     */
+    boolean extract(byte[] prefix, byte[] key, byte[] value, IndexKeyStream stream) throws Exception;
+
+    interface IndexKeyStream {
+
+        boolean stream(byte[] indexKey) throws Exception;
+    }
+}
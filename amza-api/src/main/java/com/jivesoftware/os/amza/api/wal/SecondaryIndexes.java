@@ -0,0 +1,218 @@
+package com.jivesoftware.os.amza.api.wal;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.partition.SecondaryIndexDefinition;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The secondary indexes declared for a partition, and the layout of their entries within a WAL index.
+ * <p>
+ * An entry is keyed by the index name as prefix and by the escaped index key followed by the row's composed key, so entries sort by index
+ * key and then by row key. The escaping doubles each zero byte as 0x00 0xFF and terminates with 0x00 0x00, which keeps escaped keys in the
+ * same order as the raw keys and lets the row key be split off again. Entries are written with the row's timestamp and version and are never
+ * removed when the row changes; readers must check them against the row's current pointer, and compaction drops the stale ones.
+ */
+public class SecondaryIndexes {
+
+    public static final SecondaryIndexes NONE = new SecondaryIndexes(Collections.emptyList());
+
+    private static final byte[] TERMINATOR = { 0, 0 };
+
+    private final List<SecondaryIndexDefinition> definitions;
+    private final byte[][] names;
+    private final SecondaryIndexExtractor[] extractors;
+
+    public interface EntryStream {
+
+        boolean stream(byte[] entryKey) throws Exception;
+    }
+
+    public interface EntryKeyStream {
+
+        boolean stream(byte[] indexKey, byte[] prefix, byte[] key) throws Exception;
+    }
+
+    public static SecondaryIndexes of(List<SecondaryIndexDefinition> definitions) {
+        return definitions == null || definitions.isEmpty() ? NONE : new SecondaryIndexes(definitions);
+    }
+
+    private SecondaryIndexes(List<SecondaryIndexDefinition> definitions) {
+        this.definitions = Lists.newArrayList(definitions);
+        this.names = new byte[definitions.size()][];
+        this.extractors = new SecondaryIndexExtractor[definitions.size()];
+        for (int i = 0; i < names.length; i++) {
+            SecondaryIndexDefinition definition = definitions.get(i);
+            if (definition.name == null || definition.name.isEmpty()) {
+                throw new IllegalArgumentException("Secondary index requires a name: " + definition);
+            }
+            names[i] = definition.name.getBytes(StandardCharsets.UTF_8);
+            extractors[i] = extractor(definition);
+        }
+    }
+
+    public boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    public boolean contains(String name) {
+        for (SecondaryIndexDefinition definition : definitions) {
+            if (definition.name.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<SecondaryIndexDefinition> getDefinitions() {
+        return Collections.unmodifiableList(definitions);
+    }
+
+    /**
+     * Streams the entry key of every index key extracted from the row. Tombstones and null values have no entries.
+     */
+    public boolean entries(byte[] prefix, byte[] key, byte[] value, boolean tombstoned, EntryStream stream) throws Exception {
+        if (tombstoned || value == null || names.length == 0) {
+            return true;
+        }
+        byte[] pk = WALKey.compose(prefix, key);
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = names[i];
+            if (!extractors[i].extract(prefix, key, value, indexKey -> stream.stream(entryKey(name, indexKey, pk)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param fromIndexKey nullable (inclusive)
+     */
+    public static byte[] fromEntryKey(String name, byte[] fromIndexKey) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        return WALKey.compose(nameBytes, fromIndexKey == null ? new byte[0] : escape(fromIndexKey, 0));
+    }
+
+    /**
+     * @param toIndexKey nullable (exclusive)
+     */
+    public static byte[] toEntryKey(String name, byte[] toIndexKey) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (toIndexKey == null) {
+            return WALKey.prefixUpperExclusive(WALKey.compose(nameBytes, new byte[0]));
+        }
+        return WALKey.compose(nameBytes, escape(toIndexKey, 0));
+    }
+
+    public static boolean decode(byte[] entryKey, EntryKeyStream stream) throws Exception {
+        byte[] escaped = WALKey.rawKeyKey(entryKey);
+        byte[] indexKey = new byte[escaped.length];
+        int length = 0;
+        int i = 0;
+        while (true) {
+            byte b = escaped[i++];
+            if (b == 0) {
+                if (escaped[i++] == 0) {
+                    break;
+                }
+            }
+            indexKey[length++] = b;
+        }
+        byte[] pk = Arrays.copyOfRange(escaped, i, escaped.length);
+        return stream.stream(Arrays.copyOf(indexKey, length), WALKey.rawKeyPrefix(pk), WALKey.rawKeyKey(pk));
+    }
+
+    /**
+     * @return true if an entry written with the given timestamp and version still describes the row's current pointer
+     */
+    public static boolean isCurrent(long entryTimestamp,
+        long entryVersion,
+        long pointerTimestamp,
+        boolean pointerTombstoned,
+        long pointerVersion,
+        long pointerFp,
+        boolean pointerHasValue) {
+        return (pointerFp != -1 || pointerHasValue)
+            && !pointerTombstoned
+            && pointerTimestamp == entryTimestamp
+            && pointerVersion == entryVersion;
+    }
+
+    public static byte[] entryKey(String name, byte[] indexKey, byte[] prefix, byte[] key) {
+        return entryKey(name.getBytes(StandardCharsets.UTF_8), indexKey, WALKey.compose(prefix, key));
+    }
+
+    private static byte[] entryKey(byte[] name, byte[] indexKey, byte[] pk) {
+        byte[] escaped = escape(indexKey, pk.length);
+        System.arraycopy(pk, 0, escaped, escaped.length - pk.length, pk.length);
+        return WALKey.compose(name, escaped);
+    }
+
+    private static byte[] escape(byte[] indexKey, int trailing) {
+        int zeros = 0;
+        for (byte b : indexKey) {
+            if (b == 0) {
+                zeros++;
+            }
+        }
+        byte[] escaped = new byte[indexKey.length + zeros + TERMINATOR.length + trailing];
+        int i = 0;
+        for (byte b : indexKey) {
+            escaped[i++] = b;
+            if (b == 0) {
+                escaped[i++] = (byte) 0xFF;
+            }
+        }
+        System.arraycopy(TERMINATOR, 0, escaped, i, TERMINATOR.length);
+        return escaped;
+    }
+
+    private static SecondaryIndexExtractor extractor(SecondaryIndexDefinition definition) {
+        if (definition.extractorClassName != null) {
+            try {
+                return (SecondaryIndexExtractor) Class.forName(definition.extractorClassName).newInstance();
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException x) {
+                throw new IllegalArgumentException("Failed to create extractor for " + definition, x);
+            }
+        }
+        switch (definition.extractor == null ? SecondaryIndexDefinition.Extractor.value : definition.extractor) {
+            case slice:
+                return (prefix, key, value, stream) -> {
+                    int from = definition.offset;
+                    int to = definition.length < 0 ? value.length : from + definition.length;
+                    if (from < 0 || from > value.length || to > value.length) {
+                        return true;
+                    }
+                    return stream.stream(Arrays.copyOfRange(value, from, to));
+                };
+            case delimited:
+                return (prefix, key, value, stream) -> {
+                    int field = 0;
+                    int start = 0;
+                    for (int i = 0; i <= value.length; i++) {
+                        if (i == value.length || value[i] == definition.delimiter) {
+                            if (definition.field < 0 && i > start) {
+                                if (!stream.stream(Arrays.copyOfRange(value, start, i))) {
+                                    return false;
+                                }
+                            } else if (field == definition.field) {
+                                return i == start || stream.stream(Arrays.copyOfRange(value, start, i));
+                            }
+                            field++;
+                            start = i + 1;
+                        }
+                    }
+                    return true;
+                };
+            default:
+                return (prefix, key, value, stream) -> stream.stream(value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SecondaryIndexes{" + "definitions=" + definitions + '}';
+    }
+}
@@ -0,0 +1,12 @@
+package com.jivesoftware.os.amza.api.wal;
+
+/**
+ * Paces the bytes a compaction reads and writes so that background compactions do not starve foreground io.
+ */
+public interface WALCompactionThrottle {
+
+    WALCompactionThrottle NO_THROTTLE = numBytes -> {
+    };
+
+    void throttle(long numBytes) throws Exception;
+}
@@ -17,6 +17,7 @@ package com.jivesoftware.os.amza.api.wal;
 
 import com.jivesoftware.os.amza.api.scan.CompactableWALIndex;
 import com.jivesoftware.os.amza.api.scan.RangeScannablePointers;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyPointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValuePointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyValues;
@@ -40,6 +41,15 @@ public interface WALIndex extends RangeScannablePointers, CompactableWALIndex {
 
     long deltaCount(WALKeyPointers keyPointers) throws Exception;
 
+    /**
+     * Streams the current rows whose index keys fall in the given range, ordered by index key and then by row key. Entries left behind by
+     * rows that have since changed or been removed are skipped.
+     *
+     * @param fromIndexKey nullable (inclusive)
+     * @param toIndexKey   nullable (exclusive)
+     */
+    boolean secondaryIndexScan(String indexName, byte[] fromIndexKey, byte[] toIndexKey, IndexedKeyPointerStream stream) throws Exception;
+
     void close() throws Exception;
 
     void delete() throws Exception;
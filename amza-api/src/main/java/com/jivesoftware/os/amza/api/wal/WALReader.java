@@ -17,6 +17,7 @@ package com.jivesoftware.os.amza.api.wal;
 
 import com.jivesoftware.os.amza.api.IoStats;
 import com.jivesoftware.os.amza.api.scan.RowStream;
+import com.jivesoftware.os.amza.api.stream.FpStream;
 import com.jivesoftware.os.amza.api.stream.Fps;
 
 public interface WALReader {
@@ -32,6 +33,20 @@ public interface WALReader {
      */
     boolean scan(IoStats ioStats, long offsetFp, boolean allowRepairs, RowStream rowStream) throws Exception;
 
+    /**
+     * Walks the row length framing from the given fp offset (must be the start of a row) to the end of the WAL without reading row bodies,
+     * streaming the fp of the first row and of the first row at or beyond every subsequent chunkSizeInBytes. The streamed fps can be handed
+     * to independent scans to read the WAL in parallel chunks.
+     *
+     * @param offsetFp         the fp offset
+     * @param chunkSizeInBytes the minimum number of bytes between streamed fps
+     * @param allowRepairs     whether to allow repairs/truncation if WAL corruption is detected (otherwise an exception is thrown)
+     * @param fpStream         the callback stream
+     * @return true if the framing reaches the end of the WAL, otherwise false
+     * @throws Exception if an error occurred
+     */
+    boolean frame(IoStats ioStats, long offsetFp, long chunkSizeInBytes, boolean allowRepairs, FpStream fpStream) throws Exception;
+
     boolean reverseScan(IoStats ioStats, RowStream rowStream) throws Exception;
 
     byte[] readTypeByteTxIdAndRow(long fp) throws Exception;
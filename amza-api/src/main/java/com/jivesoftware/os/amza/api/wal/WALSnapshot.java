@@ -0,0 +1,60 @@
+package com.jivesoftware.os.amza.api.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A read only view of the bytes of a WAL file from the start of a row through the end of the last fully written row. The view holds its own
+ * channel, so it stays readable while the WAL keeps appending or is swapped out by a compaction, and it must be closed once transferred.
+ */
+public class WALSnapshot implements Closeable {
+
+    public final long offset;
+    public final long length;
+
+    private final FileChannel channel;
+
+    public WALSnapshot(FileChannel channel, long offset, long length) {
+        this.channel = channel;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Copies the snapshot with {@link FileChannel#transferTo}. The kernel only does the copying when the target is itself a file or socket
+     * channel; a channel wrapped around a stream, as from {@link java.nio.channels.Channels#newChannel}, is fed through a user space buffer.
+     */
+    public void transferTo(WritableByteChannel target) throws IOException {
+        transferTo(0, length, target);
+    }
+
+    /**
+     * Copies count bytes starting at the given position within the snapshot, so a framed transport can send it a frame at a time.
+     */
+    public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (position < 0 || count < 0 || position + count > length) {
+            throw new IllegalArgumentException("Range " + position + "+" + count + " is outside a snapshot of " + length + " bytes");
+        }
+        position += offset;
+        long end = position + count;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                throw new IOException("Snapshot was truncated at " + position + " of " + end);
+            }
+            position += transferred;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "WALSnapshot{" + "offset=" + offset + ", length=" + length + '}';
+    }
+}
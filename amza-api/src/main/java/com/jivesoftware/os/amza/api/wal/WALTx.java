@@ -23,16 +23,28 @@ public interface WALTx {
         WALIndexProvider<I> walIndexProvider,
         VersionedPartitionName partitionName,
         int maxValueSizeInIndex,
+        SecondaryIndexes secondaryIndexes,
         int stripe) throws Exception;
 
     long length() throws Exception;
 
+    /**
+     * @return the bytes from the start of the given transaction to the end of the WAL, or null if the WAL is not backed by a file
+     */
+    WALSnapshot snapshot(long sinceTransactionId) throws Exception;
+
     void flush(boolean fsync) throws Exception;
 
     void delete(File baseKey) throws Exception;
 
+    /**
+     * Moves the given file into place as the WAL, replacing whatever was there. The WAL and its index must be opened again afterwards.
+     */
+    void install(File baseKey, File walFile) throws Exception;
+
     <I extends CompactableWALIndex> Compacted<I> compact(IoStats ioStats,
         WALCompactionStats compactionStats,
+        WALCompactionThrottle compactionThrottle,
         File fromBaseKey,
         File toBaseKey,
         RowType compactToRowType,
@@ -16,6 +16,7 @@
 package com.jivesoftware.os.amza.api.wal;
 
 import com.jivesoftware.os.amza.api.IoStats;
+import com.jivesoftware.os.amza.api.stream.FpStream;
 import com.jivesoftware.os.amza.api.stream.RowType;
 
 public interface WALWriter {
@@ -31,6 +32,18 @@ public interface WALWriter {
         boolean addToLeapCount,
         boolean hardFsyncBeforeLeapBoundary) throws Exception;
 
+    /**
+     * Appends rows from many transactions as a single write. Each row carries its own txId and rowType, and the resulting fps are streamed
+     * back in row order.
+     */
+    int writeBatch(IoStats ioStats,
+        int estimatedNumberOfRows,
+        int estimatedSizeInBytes,
+        TxRawRows rows,
+        FpStream fpStream,
+        boolean addToLeapCount,
+        boolean hardFsyncBeforeLeapBoundary) throws Exception;
+
     long writeSystem(IoStats ioStats, byte[] row) throws Exception;
 
     long writeHighwater(IoStats ioStats, byte[] row) throws Exception;
@@ -47,6 +60,16 @@ public interface WALWriter {
         boolean stream(byte[] row) throws Exception;
     }
 
+    interface TxRawRows {
+
+        boolean consume(TxRawRowStream stream) throws Exception;
+    }
+
+    interface TxRawRowStream {
+
+        boolean stream(long txId, RowType rowType, byte[] row) throws Exception;
+    }
+
     interface IndexableKeys {
 
         boolean consume(IndexableKeyStream stream) throws Exception;
@@ -0,0 +1,48 @@
+package com.jivesoftware.os.amza.api.scan;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
+import com.jivesoftware.os.amza.api.wal.KeyUtil;
+import com.jivesoftware.os.amza.api.wal.WALKey;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class ScanCursorTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (byte[] prefix : new byte[][] { null, new byte[0], UIO.intBytes(7) }) {
+            ScanCursor cursor = new ScanCursor(3, prefix, UIO.longBytes(11L));
+            ScanCursor got = ScanCursor.fromBase64(cursor.toBase64());
+            Assert.assertEquals(got.rangeIndex, 3);
+            Assert.assertEquals(got.prefix, prefix);
+            Assert.assertEquals(got.key, UIO.longBytes(11L));
+        }
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        PrefixedKeyRanges ranges = stream -> stream.stream(null, UIO.intBytes(0), null, UIO.intBytes(10))
+            && stream.stream(null, UIO.intBytes(20), null, UIO.intBytes(30))
+            && stream.stream(null, UIO.intBytes(40), null, null);
+
+        List<byte[][]> resumed = Lists.newArrayList();
+        new ScanCursor(1, null, UIO.intBytes(25)).resume(ranges).consume((fromPrefix, fromKey, toPrefix, toKey) -> {
+            resumed.add(new byte[][] { fromKey, toKey });
+            return true;
+        });
+
+        Assert.assertEquals(resumed.size(), 2);
+        byte[] from = WALKey.compose(null, resumed.get(0)[0]);
+        Assert.assertTrue(KeyUtil.compare(from, WALKey.compose(null, UIO.intBytes(25))) > 0);
+        Assert.assertTrue(KeyUtil.compare(from, WALKey.compose(null, UIO.intBytes(26))) < 0);
+        Assert.assertEquals(resumed.get(0)[1], UIO.intBytes(30));
+        Assert.assertEquals(resumed.get(1)[0], UIO.intBytes(40));
+        Assert.assertNull(resumed.get(1)[1]);
+    }
+}
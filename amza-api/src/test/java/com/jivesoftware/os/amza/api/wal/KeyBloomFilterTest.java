@@ -0,0 +1,83 @@
+package com.jivesoftware.os.amza.api.wal;
+
+import com.google.common.io.Files;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import java.io.File;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class KeyBloomFilterTest {
+
+    @Test
+    public void testGrowsWithoutFalseNegatives() throws Exception {
+        KeyBloomFilter filter = new KeyBloomFilter(new File(Files.createTempDir(), "bloom"), 64, 0.01d);
+        for (long i = 0; i < 10_000; i++) {
+            filter.put(WALKey.compose(null, UIO.longBytes(i)));
+        }
+        for (long i = 0; i < 10_000; i++) {
+            Assert.assertTrue(filter.mightContain(WALKey.compose(null, UIO.longBytes(i))));
+        }
+
+        int positives = 0;
+        for (long i = 10_000; i < 20_000; i++) {
+            if (filter.mightContain(WALKey.compose(null, UIO.longBytes(i)))) {
+                positives++;
+            }
+        }
+        Assert.assertTrue(positives < 200, "positives:" + positives);
+        Assert.assertEquals(filter.getNegatives(), 10_000 - positives);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = new File(Files.createTempDir(), "bloom");
+        KeyBloomFilter filter = new KeyBloomFilter(file, 64, 0.01d);
+        Assert.assertFalse(filter.load());
+        for (long i = 0; i < 1_000; i++) {
+            filter.put(WALKey.compose(UIO.intBytes(1), UIO.longBytes(i)));
+        }
+        filter.save();
+        Assert.assertTrue(file.exists());
+
+        KeyBloomFilter loaded = new KeyBloomFilter(file, 64, 0.01d);
+        Assert.assertTrue(loaded.load());
+        Assert.assertEquals(loaded.getKeys(), filter.getKeys());
+        for (long i = 0; i < 1_000; i++) {
+            Assert.assertTrue(loaded.mightContain(WALKey.compose(UIO.intBytes(1), UIO.longBytes(i))));
+        }
+    }
+
+    @Test
+    public void testNewKeyInvalidatesSavedFilter() throws Exception {
+        File file = new File(Files.createTempDir(), "bloom");
+        KeyBloomFilter filter = new KeyBloomFilter(file, 64, 0.01d);
+        filter.put(UIO.longBytes(1L));
+        filter.save();
+
+        filter.put(UIO.longBytes(1L));
+        Assert.assertTrue(file.exists());
+
+        filter.put(UIO.longBytes(2L));
+        Assert.assertFalse(file.exists());
+        Assert.assertFalse(new KeyBloomFilter(file, 64, 0.01d).load());
+    }
+
+    @Test
+    public void testMoveTo() throws Exception {
+        File dir = Files.createTempDir();
+        File from = new File(dir, "from");
+        File to = new File(new File(dir, "1"), "to");
+        KeyBloomFilter filter = new KeyBloomFilter(from, 64, 0.01d);
+        filter.put(UIO.longBytes(1L));
+        filter.save();
+
+        KeyBloomFilter moved = filter.moveTo(to);
+        moved.save();
+        Assert.assertFalse(from.exists());
+        Assert.assertTrue(to.exists());
+        Assert.assertTrue(moved.mightContain(UIO.longBytes(1L)));
+    }
+}
@@ -0,0 +1,100 @@
+package com.jivesoftware.os.amza.api.wal;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.partition.SecondaryIndexDefinition;
+import com.jivesoftware.os.amza.api.partition.SecondaryIndexDefinition.Extractor;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class SecondaryIndexesTest {
+
+    @Test
+    public void testEntryKeyRoundTrip() throws Exception {
+        for (byte[] prefix : new byte[][] { null, { 0 }, bytes("p") }) {
+            for (byte[] indexKey : new byte[][] { new byte[0], { 0 }, { 0, 0, 1 }, { 1, 0 }, bytes("abc") }) {
+                byte[] entryKey = SecondaryIndexes.entryKey("idx", indexKey, prefix, bytes("k"));
+                SecondaryIndexes.decode(entryKey, (gotIndexKey, gotPrefix, gotKey) -> {
+                    Assert.assertEquals(gotIndexKey, indexKey);
+                    Assert.assertEquals(gotPrefix, prefix);
+                    Assert.assertEquals(gotKey, bytes("k"));
+                    return true;
+                });
+            }
+        }
+    }
+
+    @Test
+    public void testEntryKeysSortByIndexKeyThenRowKey() throws Exception {
+        byte[][] indexKeys = { new byte[0], { 0 }, { 0, 0 }, { 0, 1 }, { 1 }, { 1, 0 }, { (byte) 0xFF } };
+        List<byte[]> entryKeys = Lists.newArrayList();
+        for (byte[] indexKey : indexKeys) {
+            entryKeys.add(SecondaryIndexes.entryKey("idx", indexKey, null, bytes("a")));
+            entryKeys.add(SecondaryIndexes.entryKey("idx", indexKey, null, bytes("b")));
+        }
+        for (int i = 1; i < entryKeys.size(); i++) {
+            Assert.assertTrue(KeyUtil.compare(entryKeys.get(i - 1), entryKeys.get(i)) < 0, "at " + i);
+        }
+    }
+
+    @Test
+    public void testRangeBounds() throws Exception {
+        byte[] entryKey = SecondaryIndexes.entryKey("idx", bytes("m"), null, bytes("k"));
+        Assert.assertTrue(KeyUtil.compare(SecondaryIndexes.fromEntryKey("idx", bytes("m")), entryKey) <= 0);
+        Assert.assertTrue(KeyUtil.compare(SecondaryIndexes.fromEntryKey("idx", bytes("n")), entryKey) > 0);
+        Assert.assertTrue(KeyUtil.compare(SecondaryIndexes.toEntryKey("idx", bytes("m")), entryKey) <= 0);
+        Assert.assertTrue(KeyUtil.compare(SecondaryIndexes.toEntryKey("idx", bytes("n")), entryKey) > 0);
+
+        Assert.assertTrue(KeyUtil.compare(SecondaryIndexes.fromEntryKey("idx", null), entryKey) <= 0);
+        Assert.assertTrue(KeyUtil.compare(SecondaryIndexes.toEntryKey("idx", null), entryKey) > 0);
+        byte[] other = SecondaryIndexes.entryKey("idy", new byte[0], null, bytes("k"));
+        Assert.assertTrue(KeyUtil.compare(SecondaryIndexes.toEntryKey("idx", null), other) <= 0);
+    }
+
+    @Test
+    public void testExtractors() throws Exception {
+        SecondaryIndexes indexes = SecondaryIndexes.of(Lists.newArrayList(
+            new SecondaryIndexDefinition("value", Extractor.value, 0, -1, (byte) ',', -1, null),
+            new SecondaryIndexDefinition("slice", Extractor.slice, 1, 2, (byte) ',', -1, null),
+            new SecondaryIndexDefinition("fields", Extractor.delimited, 0, -1, (byte) ',', -1, null),
+            new SecondaryIndexDefinition("field", Extractor.delimited, 0, -1, (byte) ',', 1, null)));
+
+        Assert.assertEquals(extract(indexes, "a,b,,c"), Lists.newArrayList(
+            "value:a,b,,c", "slice:,b", "fields:a", "fields:b", "fields:c", "field:b"));
+        Assert.assertEquals(extract(indexes, "a"), Lists.newArrayList("value:a", "fields:a"));
+        Assert.assertTrue(extract(indexes, null).isEmpty());
+
+        List<String> tombstoned = Lists.newArrayList();
+        indexes.entries(null, bytes("k"), bytes("a,b"), true, entryKey -> tombstoned.add("entry"));
+        Assert.assertTrue(tombstoned.isEmpty());
+    }
+
+    @Test
+    public void testNone() throws Exception {
+        Assert.assertSame(SecondaryIndexes.of(null), SecondaryIndexes.NONE);
+        Assert.assertSame(SecondaryIndexes.of(Collections.emptyList()), SecondaryIndexes.NONE);
+        Assert.assertTrue(SecondaryIndexes.NONE.isEmpty());
+        Assert.assertFalse(SecondaryIndexes.NONE.contains("value"));
+    }
+
+    private static List<String> extract(SecondaryIndexes indexes, String value) throws Exception {
+        List<String> got = Lists.newArrayList();
+        indexes.entries(null, bytes("k"), value == null ? null : bytes(value), false, entryKey -> {
+            String name = new String(WALKey.rawKeyPrefix(entryKey), StandardCharsets.UTF_8);
+            return SecondaryIndexes.decode(entryKey, (indexKey, prefix, key) -> {
+                Assert.assertEquals(key, bytes("k"));
+                return got.add(name + ":" + new String(indexKey, StandardCharsets.UTF_8));
+            });
+        });
+        return got;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,91 @@
+package com.jivesoftware.os.amza.benchmarks;
+
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.stream.RowType;
+import com.jivesoftware.os.amza.api.wal.WALKey;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryPrimaryRowMarshaller;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Row marshalling in both directions for the plain and snappy primary row types.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BinaryPrimaryRowMarshallerBenchmark {
+
+    @Param({ "primary", "snappy_primary" })
+    public String rowType;
+
+    @Param({ "64", "1024" })
+    public int valueSizeInBytes;
+
+    @Param({ "100" })
+    public int batchSize;
+
+    private final BinaryPrimaryRowMarshaller marshaller = new BinaryPrimaryRowMarshaller();
+
+    private RowType type;
+    private byte[][] pks;
+    private byte[][] values;
+    private byte[][] rows;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(1234);
+        type = RowType.valueOf(rowType);
+        pks = new byte[batchSize][];
+        values = new byte[batchSize][];
+        rows = new byte[batchSize][];
+        for (int i = 0; i < batchSize; i++) {
+            pks[i] = WALKey.compose(UIO.intBytes(i % 10), UIO.longBytes(random.nextLong()));
+            values[i] = new byte[valueSizeInBytes];
+            // half random half zero so snappy has something to do
+            byte[] noise = new byte[valueSizeInBytes / 2];
+            random.nextBytes(noise);
+            System.arraycopy(noise, 0, values[i], 0, noise.length);
+            rows[i] = marshaller.toRow(type, pks[i], values[i], i, false, i);
+        }
+    }
+
+    @Benchmark
+    public void toRow(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < batchSize; i++) {
+            blackhole.consume(marshaller.toRow(type, pks[i], values[i], i, false, i));
+        }
+    }
+
+    @Benchmark
+    public boolean fromRows(Blackhole blackhole) throws Exception {
+        return marshaller.fromRows(
+            stream -> {
+                for (int i = 0; i < rows.length; i++) {
+                    if (!stream.stream(i, type, rows[i])) {
+                        return false;
+                    }
+                }
+                return true;
+            },
+            (fp, rowType, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                blackhole.consume(key);
+                blackhole.consume(value);
+                return true;
+            });
+    }
+}
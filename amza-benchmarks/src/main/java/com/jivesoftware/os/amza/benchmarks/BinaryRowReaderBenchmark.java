@@ -0,0 +1,103 @@
+package com.jivesoftware.os.amza.benchmarks;
+
+import com.jivesoftware.os.amza.api.IoStats;
+import com.jivesoftware.os.amza.api.stream.RowType;
+import com.jivesoftware.os.amza.service.filer.HeapByteBufferFactory;
+import com.jivesoftware.os.amza.service.filer.MultiAutoGrowingByteBufferBackedFiler;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryRowReader;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryRowWriter;
+import com.jivesoftware.os.amza.service.storage.filer.MemoryBackedWALFiler;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Full scans and random fp reads over a heap backed WAL written with {@link BinaryRowWriter}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BinaryRowReaderBenchmark {
+
+    @Param({ "10000" })
+    public int numRows;
+
+    @Param({ "64", "1024" })
+    public int rowSizeInBytes;
+
+    @Param({ "100" })
+    public int readBatchSize;
+
+    private final IoStats ioStats = new IoStats();
+    private final Random random = new Random(1234);
+
+    private BinaryRowReader reader;
+    private long[] fps;
+    private long[] batch;
+
+    @Setup
+    public void setup() throws Exception {
+        MemoryBackedWALFiler filer = new MemoryBackedWALFiler(new MultiAutoGrowingByteBufferBackedFiler(1_024 * 1_024, 1_024 * 1_024 * 64,
+            new HeapByteBufferFactory()));
+        BinaryRowWriter writer = new BinaryRowWriter(filer);
+        fps = new long[numRows];
+        for (int i = 0; i < numRows; i++) {
+            byte[] row = new byte[rowSizeInBytes];
+            random.nextBytes(row);
+            int index = i;
+            writer.write(ioStats, i, RowType.primary, 1, rowSizeInBytes,
+                stream -> stream.stream(row),
+                stream -> true,
+                (txId, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion, fp) -> {
+                    fps[index] = fp;
+                    return true;
+                },
+                false,
+                false);
+        }
+        reader = new BinaryRowReader(filer);
+        batch = new long[readBatchSize];
+    }
+
+    @Benchmark
+    public boolean scan(Blackhole blackhole) throws Exception {
+        return reader.scan(ioStats, 0, false, (rowFP, rowTxId, rowType, row) -> {
+            blackhole.consume(row);
+            return true;
+        });
+    }
+
+    @Benchmark
+    public boolean read(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = fps[random.nextInt(fps.length)];
+        }
+        return reader.read(ioStats,
+            stream -> {
+                for (long fp : batch) {
+                    if (!stream.stream(fp)) {
+                        return false;
+                    }
+                }
+                return true;
+            },
+            (rowFP, rowTxId, rowType, row) -> {
+                blackhole.consume(row);
+                return true;
+            });
+    }
+}
@@ -0,0 +1,87 @@
+package com.jivesoftware.os.amza.benchmarks;
+
+import com.jivesoftware.os.amza.api.IoStats;
+import com.jivesoftware.os.amza.api.stream.RowType;
+import com.jivesoftware.os.amza.api.wal.WALWriter;
+import com.jivesoftware.os.amza.service.filer.HeapByteBufferFactory;
+import com.jivesoftware.os.amza.service.filer.MultiAutoGrowingByteBufferBackedFiler;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryRowWriter;
+import com.jivesoftware.os.amza.service.storage.filer.MemoryBackedWALFiler;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Appends batches of pre-marshalled rows through {@link BinaryRowWriter#write} into a heap backed filer, so the numbers exclude disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BinaryRowWriterBenchmark {
+
+    @Param({ "1", "100" })
+    public int rowsPerTx;
+
+    @Param({ "64", "1024" })
+    public int rowSizeInBytes;
+
+    private final IoStats ioStats = new IoStats();
+    private final WALWriter.IndexableKeys indexableKeys = stream -> true;
+    private final WALWriter.TxKeyPointerFpStream txKeyPointerFpStream = (txId, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion,
+        fp) -> true;
+
+    private byte[][] rows;
+    private BinaryRowWriter writer;
+    private long txId;
+
+    @Setup(Level.Trial)
+    public void setupRows() {
+        Random random = new Random(1234);
+        rows = new byte[rowsPerTx][];
+        for (int i = 0; i < rowsPerTx; i++) {
+            rows[i] = new byte[rowSizeInBytes];
+            random.nextBytes(rows[i]);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupWriter() throws Exception {
+        writer = new BinaryRowWriter(new MemoryBackedWALFiler(new MultiAutoGrowingByteBufferBackedFiler(1_024 * 1_024, 1_024 * 1_024 * 64,
+            new HeapByteBufferFactory())));
+    }
+
+    @Benchmark
+    public int write() throws Exception {
+        return writer.write(ioStats,
+            txId++,
+            RowType.primary,
+            rowsPerTx,
+            rowsPerTx * rowSizeInBytes,
+            stream -> {
+                for (byte[] row : rows) {
+                    if (!stream.stream(row)) {
+                        return false;
+                    }
+                }
+                return true;
+            },
+            indexableKeys,
+            txKeyPointerFpStream,
+            false,
+            false);
+    }
+}
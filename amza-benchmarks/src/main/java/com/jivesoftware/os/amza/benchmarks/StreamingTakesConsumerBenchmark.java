@@ -0,0 +1,86 @@
+package com.jivesoftware.os.amza.benchmarks;
+
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.stream.RowType;
+import com.jivesoftware.os.amza.service.take.StreamingTakesConsumer;
+import com.jivesoftware.os.amza.service.take.StreamingTakesConsumer.StreamingTakeConsumed;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decodes a pre-encoded take response the same way a replicating node consumes rows from a peer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StreamingTakesConsumerBenchmark {
+
+    @Param({ "1000" })
+    public int numRows;
+
+    @Param({ "64", "1024" })
+    public int rowSizeInBytes;
+
+    private final StreamingTakesConsumer consumer = new StreamingTakesConsumer(new AmzaInterner(), 4_096, 1_024 * 1_024);
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(1234);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeLong(1L); // leadershipToken
+        dos.writeLong(1L); // partitionVersion
+        dos.writeByte(1); // isOnline
+        for (int i = 0; i < 3; i++) {
+            byte[] ringMemberBytes = new RingMember("member" + i).toBytes();
+            dos.writeByte(1);
+            dos.writeInt(ringMemberBytes.length);
+            dos.write(ringMemberBytes);
+            dos.writeLong(i);
+        }
+        dos.writeByte(0);
+        byte[] row = new byte[rowSizeInBytes];
+        for (int i = 0; i < numRows; i++) {
+            random.nextBytes(row);
+            dos.writeByte(1);
+            dos.writeLong(i);
+            dos.writeByte(RowType.primary.toByte());
+            dos.writeInt(row.length);
+            dos.write(row);
+        }
+        dos.writeByte(0);
+        dos.writeByte(1); // streamedToEnd
+        dos.flush();
+        payload = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public StreamingTakeConsumed consume(Blackhole blackhole) throws Exception {
+        return consumer.consume(new DataInputStream(new ByteArrayInputStream(payload)), (rowFP, rowTxId, rowType, buffer, offset, length) -> {
+            blackhole.consume(buffer);
+            return true;
+        });
+    }
+}
@@ -0,0 +1,131 @@
+package com.jivesoftware.os.amza.benchmarks;
+
+import com.google.common.io.Files;
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.stream.TxKeyPointerStream;
+import com.jivesoftware.os.amza.api.wal.MemoryWALIndexProvider;
+import com.jivesoftware.os.amza.api.wal.WALIndex;
+import com.jivesoftware.os.amza.api.wal.WALIndexProvider;
+import com.jivesoftware.os.amza.berkeleydb.BerkeleyDBWALIndexProvider;
+import com.jivesoftware.os.amza.lab.pointers.LABPointerIndexConfig;
+import com.jivesoftware.os.amza.lab.pointers.LABPointerIndexWALIndexProvider;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.merlin.config.BindInterfaceToConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Point and range lookups against each {@link WALIndex} implementation loaded with the same committed keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class WALIndexBenchmark {
+
+    @Param({ "memory", "lab", "berkeleydb" })
+    public String indexType;
+
+    @Param({ "100000" })
+    public int numKeys;
+
+    @Param({ "100" })
+    public int rangeSize;
+
+    private final byte[] prefix = UIO.intBytes(1);
+    private final VersionedPartitionName versionedPartitionName = new VersionedPartitionName(
+        new PartitionName(false, "benchmark".getBytes(), "benchmark".getBytes()),
+        VersionedPartitionName.STATIC_VERSION);
+
+    private WALIndexProvider<? extends WALIndex> provider;
+    private WALIndex index;
+
+    @Setup
+    public void setup() throws Exception {
+        File dir = Files.createTempDir();
+        if (indexType.equals("memory")) {
+            provider = new MemoryWALIndexProvider("memory");
+        } else if (indexType.equals("lab")) {
+            LABPointerIndexConfig config = BindInterfaceToConfiguration.bindDefault(LABPointerIndexConfig.class);
+            provider = new LABPointerIndexWALIndexProvider(new AmzaInterner(),
+                config,
+                Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool(),
+                "lab",
+                1,
+                new File[] { dir });
+        } else if (indexType.equals("berkeleydb")) {
+            provider = new BerkeleyDBWALIndexProvider("berkeleydb", 1, new File[] { dir });
+        } else {
+            throw new IllegalArgumentException("Unknown index type:" + indexType);
+        }
+        provider.start();
+
+        index = provider.createIndex(versionedPartitionName, -1, 0);
+        index.merge((TxKeyPointerStream stream) -> {
+            for (long i = 0; i < numKeys; i++) {
+                if (!stream.stream(i, prefix, UIO.longBytes(i), null, i, false, i, i)) {
+                    return false;
+                }
+            }
+            return true;
+        }, null);
+        index.commit(true);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        index.close();
+        provider.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+
+        private final Random random = new Random();
+
+        long next(int numKeys) {
+            return random.nextInt(numKeys);
+        }
+    }
+
+    @Benchmark
+    public boolean getPointer(Keys keys, Blackhole blackhole) throws Exception {
+        return index.getPointer(prefix, UIO.longBytes(keys.next(numKeys)), (prefix, key, timestamp, tombstoned, version, fp, hasValue, value) -> {
+            blackhole.consume(fp);
+            return true;
+        });
+    }
+
+    @Benchmark
+    public boolean rangeScan(Keys keys, Blackhole blackhole) throws Exception {
+        long from = keys.next(numKeys - rangeSize);
+        return index.rangeScan(prefix, UIO.longBytes(from), prefix, UIO.longBytes(from + rangeSize),
+            (prefix, key, timestamp, tombstoned, version, fp, hasValue, value) -> {
+                blackhole.consume(fp);
+                return true;
+            },
+            false);
+    }
+}
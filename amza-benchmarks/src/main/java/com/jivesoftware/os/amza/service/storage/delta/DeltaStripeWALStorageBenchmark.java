@@ -0,0 +1,262 @@
+package com.jivesoftware.os.amza.service.storage.delta;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.IoStats;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.partition.Consistency;
+import com.jivesoftware.os.amza.api.partition.Durability;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.PartitionProperties;
+import com.jivesoftware.os.amza.api.partition.StorageVersion;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.scan.RowChanges;
+import com.jivesoftware.os.amza.api.scan.RowsChanged;
+import com.jivesoftware.os.amza.api.stream.RowType;
+import com.jivesoftware.os.amza.api.wal.WALUpdated;
+import com.jivesoftware.os.amza.service.AckWaters;
+import com.jivesoftware.os.amza.service.AmzaRingStoreReader;
+import com.jivesoftware.os.amza.service.IndexedWALStorageProvider;
+import com.jivesoftware.os.amza.service.SickPartitions;
+import com.jivesoftware.os.amza.service.WALIndexProviderRegistry;
+import com.jivesoftware.os.amza.service.filer.HeapByteBufferFactory;
+import com.jivesoftware.os.amza.service.replication.AsyncStripeFlusher;
+import com.jivesoftware.os.amza.service.replication.CurrentVersionProvider;
+import com.jivesoftware.os.amza.service.replication.PartitionBackedHighwaterStorage;
+import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import com.jivesoftware.os.amza.service.storage.JacksonPartitionPropertyMarshaller;
+import com.jivesoftware.os.amza.service.storage.PartitionCreator;
+import com.jivesoftware.os.amza.service.storage.PartitionIndex;
+import com.jivesoftware.os.amza.service.storage.PartitionStore;
+import com.jivesoftware.os.amza.service.storage.SystemWALStorage;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryHighwaterRowMarshaller;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryPrimaryRowMarshaller;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryRowIOProvider;
+import com.jivesoftware.os.amza.service.storage.binary.MemoryBackedRowIOProvider;
+import com.jivesoftware.os.amza.service.take.HighwaterStorage;
+import com.jivesoftware.os.jive.utils.collections.bah.ConcurrentBAHash;
+import com.jivesoftware.os.jive.utils.ordered.id.ConstantWriterIdProvider;
+import com.jivesoftware.os.jive.utils.ordered.id.JiveEpochTimestampProvider;
+import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProviderImpl;
+import com.jivesoftware.os.jive.utils.ordered.id.SnowflakeIdPacker;
+import com.jivesoftware.os.mlogger.core.CountersAndTimers;
+import com.jivesoftware.os.routing.bird.health.api.HealthTimer;
+import com.jivesoftware.os.routing.bird.health.api.NoOpHealthChecker;
+import com.jivesoftware.os.routing.bird.health.checkers.SickThreads;
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end delta stripe writes: WAL append, delta index put and highwater bookkeeping for a single partition. The stripe is merged between
+ * iterations so every iteration starts from an empty delta. Run with -t N to measure contended writers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DeltaStripeWALStorageBenchmark {
+
+    @Param({ "heap", "offheap" })
+    public String deltaIndex;
+
+    @Param({ "100000" })
+    public int numKeys;
+
+    @Param({ "64" })
+    public int valueSizeInBytes;
+
+    private final WALUpdated updated = (versionedPartitionName, txId) -> {
+    };
+    private final RowChanges rowChanges = changes -> {
+    };
+    private final VersionedPartitionName versionedPartitionName = new VersionedPartitionName(
+        new PartitionName(false, "benchmark".getBytes(), "benchmark".getBytes()),
+        VersionedPartitionName.STATIC_VERSION);
+    private final byte[] prefix = UIO.intBytes(1);
+    private final AtomicLong timestamp = new AtomicLong();
+    private final IoStats ioStats = new IoStats();
+
+    private PartitionIndex partitionIndex;
+    private PartitionCreator partitionCreator;
+    private CurrentVersionProvider currentVersionProvider;
+    private HighwaterStorage highwaterStorage;
+    private PartitionStore partitionStore;
+    private DeltaStripeWALStorage deltaStripeWALStorage;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        AmzaInterner amzaInterner = new AmzaInterner();
+        BinaryPrimaryRowMarshaller primaryRowMarshaller = new BinaryPrimaryRowMarshaller();
+        BinaryHighwaterRowMarshaller highwaterRowMarshaller = new BinaryHighwaterRowMarshaller(amzaInterner);
+        RingMember member = new RingMember("localhost");
+        OrderIdProviderImpl ids = new OrderIdProviderImpl(new ConstantWriterIdProvider(1));
+
+        File[] workingDirectories = { Files.createTempDir() };
+        MemoryBackedRowIOProvider ephemeralRowIOProvider = new MemoryBackedRowIOProvider(
+            1_024,
+            1_024 * 1_024,
+            4_096,
+            64,
+            new HeapByteBufferFactory());
+        BinaryRowIOProvider persistentRowIOProvider = new BinaryRowIOProvider(4_096, 64, false);
+        WALIndexProviderRegistry walIndexProviderRegistry = new WALIndexProviderRegistry(ephemeralRowIOProvider, persistentRowIOProvider);
+
+        AmzaStats amzaSystemStats = new AmzaStats();
+        AmzaStats amzaStats = new AmzaStats();
+        IndexedWALStorageProvider indexedWALStorageProvider = new IndexedWALStorageProvider(amzaStats,
+            workingDirectories,
+            workingDirectories.length,
+            walIndexProviderRegistry,
+            primaryRowMarshaller,
+            highwaterRowMarshaller,
+            ids,
+            new SickPartitions(),
+            -1,
+            TimeUnit.DAYS.toMillis(1),
+            null);
+
+        partitionIndex = new PartitionIndex(amzaSystemStats,
+            amzaStats,
+            new OrderIdProviderImpl(new ConstantWriterIdProvider(1), new SnowflakeIdPacker(), new JiveEpochTimestampProvider()),
+            indexedWALStorageProvider,
+            4,
+            Executors.newCachedThreadPool());
+
+        currentVersionProvider = new CurrentVersionProvider() {
+            @Override
+            public boolean isCurrentVersion(VersionedPartitionName versionedPartitionName) {
+                return versionedPartitionName.getPartitionVersion() == VersionedPartitionName.STATIC_VERSION;
+            }
+
+            @Override
+            public void abandonVersion(VersionedPartitionName versionedPartitionName) throws Exception {
+                throw new UnsupportedOperationException("Not supported");
+            }
+
+            @Override
+            public <R> R tx(PartitionName partitionName, StorageVersion storageVersion, StripeIndexs<R> tx) throws Exception {
+                return tx.tx(0, 0, new StorageVersion(0, 0));
+            }
+
+            @Override
+            public void invalidateDeltaIndexCache(VersionedPartitionName versionedPartitionName) throws Exception {
+            }
+        };
+
+        SystemWALStorage systemWALStorage = new SystemWALStorage(amzaSystemStats,
+            partitionIndex,
+            primaryRowMarshaller,
+            highwaterRowMarshaller,
+            null,
+            new AsyncStripeFlusher(-1, 1_000, null),
+            false);
+
+        partitionCreator = new PartitionCreator(ids,
+            new JacksonPartitionPropertyMarshaller(new ObjectMapper()),
+            partitionIndex,
+            systemWALStorage,
+            updated,
+            rowChanges,
+            amzaInterner);
+        partitionCreator.init((partitionName) -> 0);
+
+        PartitionProperties properties = new PartitionProperties(Durability.fsync_never,
+            0, 0, 0, 0, 0, 0, 0, 0,
+            false,
+            Consistency.none,
+            true,
+            false,
+            false,
+            RowType.primary,
+            "memory_persistent",
+            -1,
+            null,
+            -1,
+            -1);
+        partitionCreator.createPartitionIfAbsent(versionedPartitionName.getPartitionName(), properties);
+        partitionStore = partitionIndex.get("benchmark", versionedPartitionName, properties, 0);
+
+        highwaterStorage = new PartitionBackedHighwaterStorage(amzaSystemStats, amzaStats,
+            amzaInterner, ids, member, partitionCreator, systemWALStorage, updated, 100, 1);
+
+        AmzaRingStoreReader ringStoreReader = new AmzaRingStoreReader(
+            timeoutInMillis -> {
+            },
+            amzaInterner,
+            member,
+            new ConcurrentBAHash<>(13, true, 4),
+            new ConcurrentBAHash<>(13, true, 4),
+            new AtomicLong(),
+            ImmutableSet.of());
+        ringStoreReader.start(partitionIndex);
+
+        File deltaDir = Files.createTempDir();
+        DeltaWALFactory deltaWALFactory = new DeltaWALFactory(ids, deltaDir, new BinaryRowIOProvider(4_096, 64, false), primaryRowMarshaller,
+            highwaterRowMarshaller, 100);
+        HealthTimer quorumLatency = new HealthTimer(CountersAndTimers.getOrCreate("benchmark"), "benchmark", new NoOpHealthChecker<>("benchmark"));
+        DeltaIndex.DeltaIndexProvider deltaIndexProvider = deltaIndex.equals("offheap")
+            ? () -> new OffHeapDeltaIndex(4_096, 1_024 * 1_024)
+            : HeapDeltaIndex::new;
+        deltaStripeWALStorage = new DeltaStripeWALStorage(amzaInterner,
+            0,
+            amzaStats,
+            new AckWaters(amzaSystemStats, amzaStats, quorumLatency, false),
+            new SickThreads(),
+            ringStoreReader,
+            highwaterStorage,
+            deltaWALFactory,
+            8,
+            false,
+            walIndexProviderRegistry,
+            Long.MAX_VALUE / 4,
+            Executors.newCachedThreadPool(),
+            deltaIndexProvider,
+            null,
+            0,
+            0,
+            0,
+            75,
+            0,
+            20,
+            new WriteQuotas(amzaStats, 0));
+        deltaStripeWALStorage.load(ioStats, partitionIndex, partitionCreator, currentVersionProvider, primaryRowMarshaller);
+
+        value = new byte[valueSizeInBytes];
+    }
+
+    @TearDown(Level.Iteration)
+    public void merge() throws Exception {
+        deltaStripeWALStorage.merge(ioStats, partitionIndex, partitionCreator, currentVersionProvider, true);
+    }
+
+    @Benchmark
+    public RowsChanged update() throws Exception {
+        byte[] key = UIO.intBytes(ThreadLocalRandom.current().nextInt(numKeys));
+        long ts = timestamp.incrementAndGet();
+        return deltaStripeWALStorage.update(ioStats, true, RowType.primary, highwaterStorage, versionedPartitionName, partitionStore, prefix,
+            (highwaters, stream) -> stream.row(-1, key, value, ts, false, ts),
+            updated);
+    }
+}
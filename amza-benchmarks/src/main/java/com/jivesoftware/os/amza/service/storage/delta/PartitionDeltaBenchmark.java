@@ -0,0 +1,93 @@
+package com.jivesoftware.os.amza.service.storage.delta;
+
+import com.google.common.io.Files;
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.IoStats;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.wal.WALPointer;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryHighwaterRowMarshaller;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryPrimaryRowMarshaller;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryRowIOProvider;
+import com.jivesoftware.os.jive.utils.ordered.id.ConstantWriterIdProvider;
+import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProviderImpl;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Index side of a delta: puts and pointer lookups against a {@link PartitionDelta} for both {@link DeltaIndex} implementations. Lives in the
+ * delta package because PartitionDelta is package private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PartitionDeltaBenchmark {
+
+    @Param({ "heap", "offheap" })
+    public String deltaIndex;
+
+    @Param({ "100000" })
+    public int numKeys;
+
+    @Param({ "8" })
+    public int valueSizeInBytes;
+
+    private final byte[] prefix = UIO.intBytes(1);
+    private final VersionedPartitionName versionedPartitionName = new VersionedPartitionName(
+        new PartitionName(false, "benchmark".getBytes(), "benchmark".getBytes()),
+        VersionedPartitionName.STATIC_VERSION);
+    private final Random random = new Random(1234);
+
+    private DeltaWAL deltaWAL;
+    private PartitionDelta delta;
+    private byte[] value;
+    private long fp;
+
+    @Setup(Level.Trial)
+    public void setupWAL() throws Exception {
+        AmzaInterner amzaInterner = new AmzaInterner();
+        DeltaWALFactory deltaWALFactory = new DeltaWALFactory(new OrderIdProviderImpl(new ConstantWriterIdProvider(1)),
+            Files.createTempDir(),
+            new BinaryRowIOProvider(4_096, 64, false),
+            new BinaryPrimaryRowMarshaller(),
+            new BinaryHighwaterRowMarshaller(amzaInterner),
+            100);
+        deltaWAL = deltaWALFactory.create(new IoStats(), -1);
+        value = new byte[valueSizeInBytes];
+    }
+
+    @Setup(Level.Iteration)
+    public void setupDelta() throws Exception {
+        DeltaIndex index = deltaIndex.equals("offheap") ? new OffHeapDeltaIndex(4_096, 1_024 * 1_024) : new HeapDeltaIndex();
+        delta = new PartitionDelta(versionedPartitionName, deltaWAL, valueSizeInBytes, index, null);
+        for (int i = 0; i < numKeys; i++) {
+            delta.put(fp++, prefix, UIO.intBytes(i), value, fp, false, fp);
+        }
+    }
+
+    @Benchmark
+    public void put() throws Exception {
+        delta.put(fp++, prefix, UIO.intBytes(random.nextInt(numKeys)), value, fp, false, fp);
+    }
+
+    @Benchmark
+    public WALPointer getPointer() throws Exception {
+        return delta.getPointer(prefix, UIO.intBytes(random.nextInt(numKeys)));
+    }
+}
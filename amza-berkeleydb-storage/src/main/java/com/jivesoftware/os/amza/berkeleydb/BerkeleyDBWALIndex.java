@@ -4,6 +4,7 @@ import com.jivesoftware.os.amza.api.CompareTimestampVersions;
 import com.jivesoftware.os.amza.api.filer.UIO;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.scan.CompactionWALIndex;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyPointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValuePointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyValues;
@@ -14,7 +15,9 @@ import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.stream.WALKeyPointerStream;
 import com.jivesoftware.os.amza.api.stream.WALKeyPointers;
 import com.jivesoftware.os.amza.api.stream.WALMergeKeyPointerStream;
+import com.jivesoftware.os.amza.api.wal.KeyBloomFilter;
 import com.jivesoftware.os.amza.api.wal.KeyUtil;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
 import com.jivesoftware.os.amza.api.wal.WALIndex;
 import com.jivesoftware.os.amza.api.wal.WALKey;
 import com.jivesoftware.os.amza.berkeleydb.BerkeleyDBWALIndexName.Type;
@@ -30,6 +33,7 @@ import com.sleepycat.je.DiskOrderedCursorConfig;
 import com.sleepycat.je.Environment;
 import com.sleepycat.je.LockMode;
 import com.sleepycat.je.OperationStatus;
+import java.io.File;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Semaphore;
@@ -49,12 +53,19 @@ public class BerkeleyDBWALIndex implements WALIndex {
     private final String providerName;
     private final VersionedPartitionName versionedPartitionName;
     private final Environment[] environments;
+    private final File[] bloomDirs;
+    private final int bloomFilterInitialCapacity;
+    private final double bloomFilterFpp;
     private final BerkeleyDBWALIndexName name;
     private volatile int currentStripe;
     private final DatabaseConfig primaryDbConfig;
     private final DatabaseConfig prefixDbConfig;
+    private final DatabaseConfig secondaryDbConfig;
     private Database primaryDb;
     private Database prefixDb;
+    private Database secondaryDb;
+    private volatile SecondaryIndexes secondaryIndexes = SecondaryIndexes.NONE;
+    private volatile KeyBloomFilter bloomFilter;
 
     private final Semaphore lock = new Semaphore(numPermits, true);
     private final AtomicLong count = new AtomicLong(-1);
@@ -64,12 +75,18 @@ public class BerkeleyDBWALIndex implements WALIndex {
     public BerkeleyDBWALIndex(String providerName,
         VersionedPartitionName versionedPartitionName,
         Environment[] environments,
+        File[] bloomDirs,
+        int bloomFilterInitialCapacity,
+        double bloomFilterFpp,
         BerkeleyDBWALIndexName name,
         int currentStripe) throws Exception {
 
         this.providerName = providerName;
         this.versionedPartitionName = versionedPartitionName;
         this.environments = environments;
+        this.bloomDirs = bloomDirs;
+        this.bloomFilterInitialCapacity = bloomFilterInitialCapacity;
+        this.bloomFilterFpp = bloomFilterFpp;
         this.name = name;
         this.currentStripe = currentStripe;
 
@@ -86,6 +103,61 @@ public class BerkeleyDBWALIndex implements WALIndex {
             .setBtreeComparator(KeyUtil.lexicographicalComparator())
             .setOverrideBtreeComparator(true);
         this.prefixDb = environments[currentStripe].openDatabase(null, name.getPrefixName(), prefixDbConfig);
+
+        // Open the database, creating one if it does not exist
+        this.secondaryDbConfig = new DatabaseConfig()
+            .setAllowCreate(true)
+            .setBtreeComparator(KeyUtil.lexicographicalComparator())
+            .setOverrideBtreeComparator(true);
+        this.secondaryDb = environments[currentStripe].openDatabase(null, name.getSecondaryName(), secondaryDbConfig);
+        this.bloomFilter = loadBloomFilter();
+    }
+
+    private KeyBloomFilter newBloomFilter(int stripe) {
+        if (bloomFilterFpp <= 0d) {
+            return null;
+        }
+        return new KeyBloomFilter(new File(bloomDirs[stripe], name.getBloomName()), bloomFilterInitialCapacity, bloomFilterFpp);
+    }
+
+    private KeyBloomFilter loadBloomFilter() throws Exception {
+        KeyBloomFilter filter = newBloomFilter(currentStripe);
+        if (filter != null && !filter.load()) {
+            try (Cursor cursor = primaryDb.openCursor(null, null)) {
+                DatabaseEntry keyEntry = new DatabaseEntry();
+                DatabaseEntry valueEntry = new DatabaseEntry();
+                valueEntry.setPartial(true);
+                while (cursor.getNext(keyEntry, valueEntry, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                    filter.put(keyEntry.getData());
+                }
+            }
+            LOG.info("Rebuilt bloom filter with {} keys for {}", filter.getKeys(), name.getPrimaryName());
+        }
+        return filter;
+    }
+
+    private boolean mightContain(byte[] pk) {
+        KeyBloomFilter filter = bloomFilter;
+        return filter == null || filter.mightContain(pk);
+    }
+
+    private void falsePositive() {
+        KeyBloomFilter filter = bloomFilter;
+        if (filter != null) {
+            filter.falsePositive();
+        }
+    }
+
+    void saveBloomFilter() throws Exception {
+        lock.acquire();
+        try {
+            KeyBloomFilter filter = bloomFilter;
+            if (filter != null) {
+                filter.save();
+            }
+        } finally {
+            lock.release();
+        }
     }
 
     private void walPointerToEntry(long fp, long timestamp, boolean tombstoned, long version, DatabaseEntry dbValue) {
@@ -171,15 +243,21 @@ public class BerkeleyDBWALIndex implements WALIndex {
             return pointers.consume((txId, prefix, key, value, timestamp, tombstoned, version, fp) -> {
                 byte[] pk = WALKey.compose(prefix, key);
                 dbKey.setData(pk);
-                OperationStatus status = primaryDb.get(null, dbKey, dbValue, LockMode.READ_UNCOMMITTED);
                 byte mode;
-                if (status == OperationStatus.SUCCESS) {
+                if (!mightContain(pk)) {
+                    mode = WALMergeKeyPointerStream.added;
+                } else if (primaryDb.get(null, dbKey, dbValue, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
                     int c = CompareTimestampVersions.compare(entryToTimestamp(dbValue.getData()), entryToVersion(dbValue.getData()), timestamp, version);
                     mode = (c < 0) ? WALMergeKeyPointerStream.clobbered : WALMergeKeyPointerStream.ignored;
                 } else {
+                    falsePositive();
                     mode = WALMergeKeyPointerStream.added;
                 }
                 if (mode != WALMergeKeyPointerStream.ignored) {
+                    KeyBloomFilter filter = bloomFilter;
+                    if (filter != null && mode == WALMergeKeyPointerStream.added) {
+                        filter.put(pk);
+                    }
                     walPointerToEntry(fp, timestamp, tombstoned, version, dbValue);
                     primaryDb.put(null, dbKey, dbValue);
 
@@ -191,6 +269,13 @@ public class BerkeleyDBWALIndex implements WALIndex {
                         dbValue.setData(emptyValue);
                         prefixDb.put(null, dbKey, dbValue);
                     }
+
+                    secondaryIndexes.entries(prefix, key, value, tombstoned, entryKey -> {
+                        dbKey.setData(entryKey);
+                        walPointerToEntry(fp, timestamp, false, version, dbValue);
+                        secondaryDb.put(null, dbKey, dbValue);
+                        return true;
+                    });
                 }
                 if (stream != null) {
                     return stream.stream(mode, txId, prefix, key, timestamp, tombstoned, version, fp);
@@ -245,10 +330,14 @@ public class BerkeleyDBWALIndex implements WALIndex {
         try {
             DatabaseEntry dbValue = new DatabaseEntry();
             byte[] pk = WALKey.compose(prefix, key);
+            if (!mightContain(pk)) {
+                return stream.stream(prefix, key, -1, false, -1, -1, false, null);
+            }
             OperationStatus status = primaryDb.get(null, new DatabaseEntry(pk), dbValue, LockMode.READ_UNCOMMITTED);
             if (status == OperationStatus.SUCCESS) {
                 return entryToWALPointer(prefix, key, dbValue.getData(), stream, true);
             } else {
+                falsePositive();
                 return stream.stream(prefix, key, -1, false, -1, -1, false, null);
             }
         } finally {
@@ -264,11 +353,16 @@ public class BerkeleyDBWALIndex implements WALIndex {
             DatabaseEntry dpPointerValue = new DatabaseEntry();
 
             return keys.consume((key) -> {
-                dbKey.setData(WALKey.compose(prefix, key));
+                byte[] pk = WALKey.compose(prefix, key);
+                if (!mightContain(pk)) {
+                    return stream.stream(prefix, key, -1, false, -1, -1, false, null);
+                }
+                dbKey.setData(pk);
                 OperationStatus status = primaryDb.get(null, dbKey, dpPointerValue, LockMode.READ_UNCOMMITTED);
                 if (status == OperationStatus.SUCCESS) {
                     return entryToWALPointer(prefix, key, dpPointerValue.getData(), stream, true);
                 } else {
+                    falsePositive();
                     return stream.stream(prefix, key, -1, false, -1, -1, false, null);
                 }
             });
@@ -286,11 +380,15 @@ public class BerkeleyDBWALIndex implements WALIndex {
 
             return keyValues.consume((prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
                 byte[] pk = WALKey.compose(prefix, key);
+                if (!mightContain(pk)) {
+                    return stream.stream(prefix, key, value, valueTimestamp, valueTombstoned, valueVersion, -1, false, -1, -1, false, null);
+                }
                 dbKey.setData(pk);
                 OperationStatus status = primaryDb.get(null, dbKey, dpPointerValue, LockMode.READ_UNCOMMITTED);
                 if (status == OperationStatus.SUCCESS) {
                     return entryToWALPointer(prefix, key, value, valueTimestamp, valueTombstoned, valueVersion, dpPointerValue.getData(), stream);
                 } else {
+                    falsePositive();
                     return stream.stream(prefix, key, value, valueTimestamp, valueTombstoned, valueVersion, -1, false, -1, -1, false, null);
                 }
             });
@@ -407,6 +505,11 @@ public class BerkeleyDBWALIndex implements WALIndex {
             primaryDb = null;
             prefixDb.close();
             prefixDb = null;
+            secondaryDb.close();
+            secondaryDb = null;
+            if (bloomFilter != null) {
+                bloomFilter.save();
+            }
         } finally {
             lock.release(numPermits);
         }
@@ -521,8 +624,12 @@ public class BerkeleyDBWALIndex implements WALIndex {
             final BerkeleyDBWALIndex compactingWALIndex = new BerkeleyDBWALIndex(providerName,
                 versionedPartitionName,
                 environments,
+                bloomDirs,
+                bloomFilterInitialCapacity,
+                bloomFilterFpp,
                 name.typeName(Type.compacting),
                 compactionStripe);
+            compactingWALIndex.updatedSecondaryIndexes(secondaryIndexes);
 
             compactingTo.set(compactingWALIndex);
 
@@ -553,6 +660,8 @@ public class BerkeleyDBWALIndex implements WALIndex {
                             primaryDb = null;
                             prefixDb.close();
                             prefixDb = null;
+                            secondaryDb.close();
+                            secondaryDb = null;
                             if (hasActive) {
                                 renameDatabase(currentStripe, Type.active, Type.backup);
                             } else {
@@ -568,7 +677,18 @@ public class BerkeleyDBWALIndex implements WALIndex {
 
                             primaryDb = environments[compactionStripe].openDatabase(null, name.getPrimaryName(), primaryDbConfig);
                             prefixDb = environments[compactionStripe].openDatabase(null, name.getPrefixName(), prefixDbConfig);
+                            secondaryDb = environments[compactionStripe].openDatabase(null, name.getSecondaryName(), secondaryDbConfig);
                             environments[compactionStripe].flushLog(true);
+
+                            // the compacted keys were all merged through the compacting filter, so it replaces ours
+                            if (bloomFilter != null) {
+                                bloomFilter.delete();
+                            }
+                            File bloomFile = new File(bloomDirs[compactionStripe], name.getBloomName());
+                            if (compactingWALIndex.bloomFilter != null) {
+                                bloomFilter = compactingWALIndex.bloomFilter.moveTo(bloomFile);
+                                bloomFilter.save();
+                            }
                             currentStripe = compactionStripe;
                             LOG.debug("Committing after swap: {}", name.getPrimaryName());
                         }
@@ -591,6 +711,11 @@ public class BerkeleyDBWALIndex implements WALIndex {
     private void renameDatabase(int stripe, Type fromType, Type toType) {
         environments[stripe].renameDatabase(null, name.typeName(fromType).getPrimaryName(), name.typeName(toType).getPrimaryName());
         environments[stripe].renameDatabase(null, name.typeName(fromType).getPrefixName(), name.typeName(toType).getPrefixName());
+        try {
+            environments[stripe].renameDatabase(null, name.typeName(fromType).getSecondaryName(), name.typeName(toType).getSecondaryName());
+        } catch (DatabaseNotFoundException e) {
+            // created before secondary indexes
+        }
     }
 
     private void removeDatabase(int stripe, Type type) {
@@ -604,12 +729,65 @@ public class BerkeleyDBWALIndex implements WALIndex {
         } catch (DatabaseNotFoundException e) {
             // yummm
         }
+        try {
+            environments[stripe].removeDatabase(null, name.typeName(type).getSecondaryName());
+        } catch (DatabaseNotFoundException e) {
+            // yummm
+        }
+        new File(bloomDirs[stripe], name.typeName(type).getBloomName()).delete();
+    }
+
+    @Override
+    public boolean secondaryIndexScan(String indexName, byte[] fromIndexKey, byte[] toIndexKey, IndexedKeyPointerStream stream) throws Exception {
+        lock.acquire();
+        try (Cursor cursor = secondaryDb.openCursor(null, null)) {
+            byte[] fromEntryKey = SecondaryIndexes.fromEntryKey(indexName, fromIndexKey);
+            byte[] toEntryKey = SecondaryIndexes.toEntryKey(indexName, toIndexKey);
+            DatabaseEntry keyEntry = new DatabaseEntry(fromEntryKey);
+            DatabaseEntry valueEntry = new DatabaseEntry();
+            DatabaseEntry dbKey = new DatabaseEntry();
+            DatabaseEntry dbPointerValue = new DatabaseEntry();
+            if (cursor.getSearchKeyRange(keyEntry, valueEntry, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                do {
+                    if (KeyUtil.compare(keyEntry.getData(), toEntryKey) >= 0) {
+                        return true;
+                    }
+                    long entryTimestamp = entryToTimestamp(valueEntry.getData());
+                    long entryVersion = entryToVersion(valueEntry.getData());
+                    if (!SecondaryIndexes.decode(keyEntry.getData(), (indexKey, prefix, key) -> {
+                        dbKey.setData(WALKey.compose(prefix, key));
+                        if (primaryDb.get(null, dbKey, dbPointerValue, LockMode.READ_UNCOMMITTED) != OperationStatus.SUCCESS) {
+                            return true;
+                        }
+                        return entryToWALPointer(prefix, key, dbPointerValue.getData(),
+                            (_prefix, _key, timestamp, tombstoned, version, fp, hasValue, value) -> {
+                                if (!SecondaryIndexes.isCurrent(entryTimestamp, entryVersion, timestamp, tombstoned, version, fp, hasValue)) {
+                                    return true;
+                                }
+                                return stream.stream(indexKey, prefix, key, timestamp, tombstoned, version, fp, hasValue, value);
+                            },
+                            true);
+                    })) {
+                        return false;
+                    }
+                }
+                while (cursor.getNext(keyEntry, valueEntry, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS);
+            }
+            return true;
+        } finally {
+            lock.release();
+        }
     }
 
     @Override
     public void updatedProperties(Map<String, String> properties) {
     }
 
+    @Override
+    public void updatedSecondaryIndexes(SecondaryIndexes secondaryIndexes) {
+        this.secondaryIndexes = secondaryIndexes;
+    }
+
     @Override
     public int getStripe() {
         return currentStripe;
@@ -33,6 +33,14 @@ public class BerkeleyDBWALIndexName {
         return "prefix-" + type.toString() + "-" + name;
     }
 
+    public String getSecondaryName() {
+        return "secondary-" + type.toString() + "-" + name;
+    }
+
+    public String getBloomName() {
+        return "bloom-" + type.toString() + "-" + name;
+    }
+
     public BerkeleyDBWALIndexName typeName(Type type) {
         return new BerkeleyDBWALIndexName(type, name);
     }
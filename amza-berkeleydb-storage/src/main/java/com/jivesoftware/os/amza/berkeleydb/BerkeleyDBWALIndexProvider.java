@@ -3,6 +3,7 @@ package com.jivesoftware.os.amza.berkeleydb;
 import com.google.common.collect.Sets;
 import com.jivesoftware.os.amza.api.AmzaVersionConstants;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.wal.KeyBloomFilter;
 import com.jivesoftware.os.amza.api.wal.WALIndexProvider;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
@@ -23,15 +24,30 @@ public class BerkeleyDBWALIndexProvider implements WALIndexProvider<BerkeleyDBWA
 
     private final String name;
     private final Environment[] environments;
+    private final File[] bloomDirs;
+    private final int bloomFilterInitialCapacity;
+    private final double bloomFilterFpp;
 
     public BerkeleyDBWALIndexProvider(String name, int numberOfStripes, File[] baseDirs) {
+        this(name, numberOfStripes, baseDirs, KeyBloomFilter.DEFAULT_INITIAL_CAPACITY, KeyBloomFilter.DEFAULT_FPP);
+    }
+
+    /**
+     * @param bloomFilterFpp zero or less disables the bloom filter
+     */
+    public BerkeleyDBWALIndexProvider(String name, int numberOfStripes, File[] baseDirs, int bloomFilterInitialCapacity, double bloomFilterFpp) {
         this.name = name;
         this.environments = new Environment[numberOfStripes];
+        this.bloomDirs = new File[numberOfStripes];
+        this.bloomFilterInitialCapacity = bloomFilterInitialCapacity;
+        this.bloomFilterFpp = bloomFilterFpp;
         for (int i = 0; i < environments.length; i++) {
             File active = new File(new File(new File(baseDirs[i % baseDirs.length], AmzaVersionConstants.LATEST_VERSION), INDEX_CLASS_NAME), String.valueOf(i));
             if (!active.exists() && !active.mkdirs()) {
                 throw new RuntimeException("Failed while trying to mkdirs for " + active);
             }
+            this.bloomDirs[i] = new File(new File(new File(baseDirs[i % baseDirs.length], AmzaVersionConstants.LATEST_VERSION), INDEX_CLASS_NAME + "-bloom"),
+                String.valueOf(i));
 
             // Open the environment, creating one if it does not exist
             EnvironmentConfig envConfig = new EnvironmentConfig()
@@ -51,7 +67,7 @@ public class BerkeleyDBWALIndexProvider implements WALIndexProvider<BerkeleyDBWA
     @Override
     public BerkeleyDBWALIndex createIndex(VersionedPartitionName versionedPartitionName, int maxValueSizeInIndex, int stripe) throws Exception {
         BerkeleyDBWALIndexName indexName = new BerkeleyDBWALIndexName(BerkeleyDBWALIndexName.Type.active, versionedPartitionName.toBase64());
-        return new BerkeleyDBWALIndex(name, versionedPartitionName, environments, indexName, stripe);
+        return new BerkeleyDBWALIndex(name, versionedPartitionName, environments, bloomDirs, bloomFilterInitialCapacity, bloomFilterFpp, indexName, stripe);
     }
 
     @Override
@@ -71,6 +87,16 @@ public class BerkeleyDBWALIndexProvider implements WALIndexProvider<BerkeleyDBWA
             } catch (DatabaseNotFoundException x) {
                 // ignore
             }
+            try {
+                env.removeDatabase(null, n.getSecondaryName());
+                LOG.info("Removed database: {}", n.getSecondaryName());
+            } catch (DatabaseNotFoundException x) {
+                // ignore
+            }
+            File bloomFile = new File(bloomDirs[stripe], n.getBloomName());
+            if (bloomFile.delete()) {
+                LOG.info("Removed bloom filter: {}", bloomFile);
+            }
         }
     }
 
@@ -83,6 +109,11 @@ public class BerkeleyDBWALIndexProvider implements WALIndexProvider<BerkeleyDBWA
         for (int stripe : stripes) {
             environments[stripe].flushLog(fsync);
         }
+        if (fsync) {
+            for (BerkeleyDBWALIndex index : indexes) {
+                index.saveBloomFilter();
+            }
+        }
     }
 
     @Override
@@ -5,6 +5,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.ring.RingMember;
@@ -21,12 +22,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -39,17 +45,32 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
 
     private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
 
+    private static final ScheduledExecutorService SOLVER_TIMER = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("amza-client-solver-timer-%d").setDaemon(true).build());
+
     private final ExecutorService callerThreads;
     private final PartitionHostsProvider partitionHostsProvider;
     private final RingHostClientProvider<C, E> clientProvider;
     private final Cache<PartitionName, Ring> partitionRoutingCache;
+    private final ReplicaLatencies replicaLatencies;
 
     public AmzaClientCallRouter(ExecutorService callerThreads,
         PartitionHostsProvider partitionHostsProvider,
         RingHostClientProvider<C, E> clientProvider) {
+        this(callerThreads, partitionHostsProvider, clientProvider, null);
+    }
+
+    /**
+     * @param replicaLatencies when non-null, non-leader reads prefer the fastest healthy replicas and hedge after a replica's observed p95
+     */
+    public AmzaClientCallRouter(ExecutorService callerThreads,
+        PartitionHostsProvider partitionHostsProvider,
+        RingHostClientProvider<C, E> clientProvider,
+        ReplicaLatencies replicaLatencies) {
         this.callerThreads = callerThreads;
         this.partitionHostsProvider = partitionHostsProvider;
         this.clientProvider = clientProvider;
+        this.replicaLatencies = replicaLatencies;
         this.partitionRoutingCache = CacheBuilder.newBuilder()
             .maximumSize(50_000) //TODO config
             .expireAfterWrite(5, TimeUnit.MINUTES) //TODO config
@@ -75,7 +96,7 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
                     solutionLog.add("Writing to " + leader);
                 }
                 return solve(solutionLog, partitionName, family, partitionCall, 1, false, merger, additionalSolverAfterNMillis, abandonSolutionAfterNMillis,
-                    leader.ringMember, leader);
+                    leader.ringMember, null, leader);
             } catch (LeaderElectionInProgressException | NoLongerTheLeaderException | ExecutionException e) {
                 LOG.inc("reattempts>write>" + e.getClass().getSimpleName() + ">" + consistency.name());
                 partitionRoutingCache.invalidate(partitionName);
@@ -88,20 +109,24 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
                     solutionLog.add("Leader may have changed. Reattempting WRITE against " + leader);
                 }
                 return solve(solutionLog, partitionName, family, partitionCall, 1, false, merger, additionalSolverAfterNMillis, abandonSolutionAfterNMillis,
-                    leader.ringMember, leader);
+                    leader.ringMember, null, leader);
             }
         } else if (consistency == Consistency.quorum
             || consistency == Consistency.write_all_read_one
             || consistency == Consistency.write_one_read_all
             || consistency == Consistency.none) {
             return solve(solutionLog, partitionName, family, partitionCall, 1, false, merger, additionalSolverAfterNMillis, abandonSolutionAfterNMillis, null,
-                ring.randomizeRing());
+                null, ring.randomizeRing());
         } else {
             throw new IllegalStateException("Unsupported write consistency:" + consistency.name());
         }
 
     }
 
+    Ring writeRing(PartitionName partitionName, Consistency consistency, long awaitLeaderElectionForNMillis) throws Exception {
+        return ring(partitionName, consistency, Optional.empty(), awaitLeaderElectionForNMillis);
+    }
+
     @Override
     public void invalidateRouting(PartitionName partitionName) {
         partitionRoutingCache.invalidate(partitionName);
@@ -234,7 +259,8 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
                     additionalSolverAfterNMillis,
                     abandonSolutionAfterNMillis,
                     null,
-                    leaderlessRing);
+                    replicaLatencies,
+                    preferred(leaderlessRing));
             } else if (consistency == Consistency.leader_quorum) {
                 RingMemberAndHost[] leaderlessRing = ring.leaderlessRing();
                 int neighborQuorum = 1 + consistency.repairQuorum(leaderlessRing.length);
@@ -251,7 +277,8 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
                     additionalSolverAfterNMillis,
                     abandonSolutionAfterNMillis,
                     null,
-                    leaderlessRing);
+                    replicaLatencies,
+                    preferred(leaderlessRing));
             } else if (consistency == Consistency.leader_all) {
                 RingMemberAndHost[] leaderlessRing = ring.leaderlessRing();
                 if (solutionLog != null) {
@@ -267,7 +294,8 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
                     additionalSolverAfterNMillis,
                     abandonSolutionAfterNMillis,
                     null,
-                    leaderlessRing);
+                    replicaLatencies,
+                    preferred(leaderlessRing));
             } else {
                 throw new RuntimeException("Unsupported leader read consistency:" + consistency);
             }
@@ -275,19 +303,19 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
             RingMemberAndHost[] randomizeRing = ring.randomizeRing();
             int neighborQuorum = consistency.quorum(randomizeRing.length - 1);
             return solve(solutionLog, partitionName, family, call, 1 + neighborQuorum, true, merger, additionalSolverAfterNMillis, abandonSolutionAfterNMillis,
-                null, randomizeRing);
+                null, replicaLatencies, preferred(randomizeRing));
         } else if (consistency == Consistency.write_one_read_all) {
             RingMemberAndHost[] actualRing = ring.actualRing();
             return solve(solutionLog, partitionName, family, call, actualRing.length, false, merger, additionalSolverAfterNMillis, abandonSolutionAfterNMillis,
-                null, actualRing);
+                null, replicaLatencies, actualRing);
         } else if (consistency == Consistency.write_all_read_one) {
             RingMemberAndHost[] randomizeRing = ring.randomizeRing();
             return solve(solutionLog, partitionName, family, call, 1, true, merger, additionalSolverAfterNMillis, abandonSolutionAfterNMillis, null,
-                randomizeRing);
+                replicaLatencies, preferred(randomizeRing));
         } else if (consistency == Consistency.none) {
             RingMemberAndHost[] randomizeRing = ring.randomizeRing();
             return solve(solutionLog, partitionName, family, call, 1, true, merger, additionalSolverAfterNMillis, abandonSolutionAfterNMillis, null,
-                randomizeRing);
+                replicaLatencies, preferred(randomizeRing));
         } else {
             throw new IllegalStateException("Unsupported read consistency:" + consistency.name());
         }
@@ -306,7 +334,220 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
         Ring ring = ring(partitionName, Consistency.none, Optional.empty(), awaitLeaderElectionForNMillis);
 
         RingMemberAndHost[] orderedRing = ring.orderedRing(membersInOrder);
-        return solve(solutionLog, partitionName, family, call, 1, true, merger, additionalSolverAfterNMillis, abandonSolutionAfterNMillis, null, orderedRing);
+        return solve(solutionLog, partitionName, family, call, 1, true, merger, additionalSolverAfterNMillis, abandonSolutionAfterNMillis, null,
+            replicaLatencies, orderedRing);
+    }
+
+    /**
+     * The future based counterpart of {@link #write}. A leader write is attempted once; on failure the routing is invalidated so the next
+     * call re-resolves the leader.
+     */
+    public <R, A extends Abortable> CompletableFuture<R> writeAsync(List<String> solutionLog,
+        PartitionName partitionName,
+        Consistency consistency,
+        String family,
+        PartitionCall<C, A, E> partitionCall,
+        Merger<R, A> merger,
+        long awaitLeaderElectionForNMillis,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis) {
+
+        return ringAsync(partitionName, consistency, Optional.empty(), awaitLeaderElectionForNMillis).thenCompose(ring -> {
+            if (consistency.requiresLeader()) {
+                RingMemberAndHost leader = ring.leader();
+                if (solutionLog != null) {
+                    solutionLog.add("Writing to " + leader);
+                }
+                return solveAsync(solutionLog, partitionName, family, partitionCall, 1, false, merger, additionalSolverAfterNMillis,
+                    abandonSolutionAfterNMillis, leader.ringMember, null, leader)
+                    .whenComplete((result, t) -> {
+                        if (t != null) {
+                            LOG.inc("failed>writeAsync>" + consistency.name());
+                            partitionRoutingCache.invalidate(partitionName);
+                        }
+                    });
+            } else if (consistency == Consistency.quorum
+                || consistency == Consistency.write_all_read_one
+                || consistency == Consistency.write_one_read_all
+                || consistency == Consistency.none) {
+                return solveAsync(solutionLog, partitionName, family, partitionCall, 1, false, merger, additionalSolverAfterNMillis,
+                    abandonSolutionAfterNMillis, null, null, ring.randomizeRing());
+            } else {
+                return failed(new IllegalStateException("Unsupported write consistency:" + consistency.name()));
+            }
+        });
+    }
+
+    /**
+     * The future based counterpart of {@link #read} with the same replica selection, hedging and failover.
+     */
+    public <R, A extends Abortable> CompletableFuture<R> readAsync(List<String> solutionLog,
+        PartitionName partitionName,
+        Consistency consistency,
+        String family,
+        PartitionCall<C, A, E> call,
+        Merger<R, A> merger,
+        long awaitLeaderElectionForNMillis,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis) {
+
+        return ringAsync(partitionName, consistency, Optional.empty(), awaitLeaderElectionForNMillis).thenCompose(ring -> {
+            if (consistency.requiresLeader()) {
+                return readLeaderAsync(solutionLog, partitionName, consistency, family, call, merger, awaitLeaderElectionForNMillis,
+                    abandonLeaderSolutionAfterNMillis, ring, true)
+                    .handle((result, t) -> {
+                        if (t == null) {
+                            return CompletableFuture.completedFuture(result);
+                        }
+                        Throwable cause = unwrap(t);
+                        if (consistency == Consistency.leader || cause instanceof IllegalArgumentException) {
+                            LOG.error("Failed to read from leader {} for {}", new Object[] { ring.leader(), partitionName }, cause);
+                            return AmzaClientCallRouter.<R>failed(cause);
+                        }
+                        LOG.inc("failover>read>" + consistency.name());
+                        LOG.warn("Failed to read from leader {} for {}, will retry at quorum", ring.leader(), partitionName);
+                        RingMemberAndHost[] leaderlessRing = ring.leaderlessRing();
+                        if (consistency == Consistency.leader_plus_one) {
+                            if (solutionLog != null) {
+                                solutionLog.add("Failing over READ to all " + leaderlessRing.length + " members.");
+                            }
+                            return solveAsync(solutionLog, partitionName, family, call, leaderlessRing.length, false, merger,
+                                additionalSolverAfterNMillis, abandonSolutionAfterNMillis, null, replicaLatencies, preferred(leaderlessRing));
+                        } else if (consistency == Consistency.leader_quorum) {
+                            int neighborQuorum = 1 + consistency.repairQuorum(leaderlessRing.length);
+                            if (solutionLog != null) {
+                                solutionLog.add("Failing over READ to " + neighborQuorum + " out of" + leaderlessRing.length + " members.");
+                            }
+                            return solveAsync(solutionLog, partitionName, family, call, neighborQuorum, true, merger,
+                                additionalSolverAfterNMillis, abandonSolutionAfterNMillis, null, replicaLatencies, preferred(leaderlessRing));
+                        } else if (consistency == Consistency.leader_all) {
+                            if (solutionLog != null) {
+                                solutionLog.add("Failing over READ to 1 out of" + leaderlessRing.length + " members.");
+                            }
+                            return solveAsync(solutionLog, partitionName, family, call, 1, true, merger,
+                                additionalSolverAfterNMillis, abandonSolutionAfterNMillis, null, replicaLatencies, preferred(leaderlessRing));
+                        } else {
+                            return AmzaClientCallRouter.<R>failed(new RuntimeException("Unsupported leader read consistency:" + consistency));
+                        }
+                    })
+                    .thenCompose(future -> future);
+            } else if (consistency == Consistency.quorum) {
+                RingMemberAndHost[] randomizeRing = ring.randomizeRing();
+                int neighborQuorum = consistency.quorum(randomizeRing.length - 1);
+                return solveAsync(solutionLog, partitionName, family, call, 1 + neighborQuorum, true, merger, additionalSolverAfterNMillis,
+                    abandonSolutionAfterNMillis, null, replicaLatencies, preferred(randomizeRing));
+            } else if (consistency == Consistency.write_one_read_all) {
+                RingMemberAndHost[] actualRing = ring.actualRing();
+                return solveAsync(solutionLog, partitionName, family, call, actualRing.length, false, merger, additionalSolverAfterNMillis,
+                    abandonSolutionAfterNMillis, null, replicaLatencies, actualRing);
+            } else if (consistency == Consistency.write_all_read_one || consistency == Consistency.none) {
+                return solveAsync(solutionLog, partitionName, family, call, 1, true, merger, additionalSolverAfterNMillis,
+                    abandonSolutionAfterNMillis, null, replicaLatencies, preferred(ring.randomizeRing()));
+            } else {
+                return failed(new IllegalStateException("Unsupported read consistency:" + consistency.name()));
+            }
+        });
+    }
+
+    /**
+     * Reads from the leader, re-resolving the leader and trying once more if the first attempt fails for any reason other than a timeout.
+     */
+    private <R, A extends Abortable> CompletableFuture<R> readLeaderAsync(List<String> solutionLog,
+        PartitionName partitionName,
+        Consistency consistency,
+        String family,
+        PartitionCall<C, A, E> call,
+        Merger<R, A> merger,
+        long awaitLeaderElectionForNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        Ring ring,
+        boolean reattempt) {
+
+        RingMemberAndHost leader = ring.leader();
+        if (solutionLog != null) {
+            solutionLog.add((reattempt ? "Reading from " : "Leader may have changed. Reattempting READ against ") + leader);
+        }
+        CompletableFuture<R> read = solveAsync(solutionLog, partitionName, family, call, 1, false, merger, abandonLeaderSolutionAfterNMillis,
+            abandonLeaderSolutionAfterNMillis, leader.ringMember, null, leader);
+        if (!reattempt) {
+            return read;
+        }
+        return read.handle((result, t) -> {
+            if (t == null) {
+                return CompletableFuture.completedFuture(result);
+            }
+            Throwable cause = unwrap(t);
+            if (cause instanceof TimeoutException || cause instanceof IllegalArgumentException) {
+                return AmzaClientCallRouter.<R>failed(cause);
+            }
+            LOG.inc("reattempts>readAsync>" + cause.getClass().getSimpleName() + ">" + consistency.name());
+            partitionRoutingCache.invalidate(partitionName);
+            Optional<RingMemberAndHost> useHost = (cause instanceof LeaderElectionInProgressException || cause instanceof NoLongerTheLeaderException)
+                ? Optional.of(leader) : Optional.empty();
+            return ringAsync(partitionName, consistency, useHost, awaitLeaderElectionForNMillis).thenCompose(
+                nextRing -> readLeaderAsync(solutionLog, partitionName, consistency, family, call, merger, awaitLeaderElectionForNMillis,
+                    abandonLeaderSolutionAfterNMillis, nextRing, false));
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * The future based counterpart of {@link #take}.
+     */
+    public <R, A extends Abortable> CompletableFuture<R> takeAsync(List<String> solutionLog,
+        PartitionName partitionName,
+        List<RingMember> membersInOrder,
+        String family,
+        PartitionCall<C, A, E> call,
+        Merger<R, A> merger,
+        long awaitLeaderElectionForNMillis,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis) {
+
+        return ringAsync(partitionName, Consistency.none, Optional.empty(), awaitLeaderElectionForNMillis).thenCompose(
+            ring -> solveAsync(solutionLog, partitionName, family, call, 1, true, merger, additionalSolverAfterNMillis, abandonSolutionAfterNMillis,
+                null, replicaLatencies, ring.orderedRing(membersInOrder)));
+    }
+
+    /**
+     * Resolves from the routing cache without blocking, otherwise asks the {@link PartitionHostsProvider} on a caller thread.
+     */
+    private CompletableFuture<Ring> ringAsync(PartitionName partitionName,
+        Consistency consistency,
+        Optional<RingMemberAndHost> useHost,
+        long waitForLeaderElection) {
+
+        Ring ring = partitionRoutingCache.getIfPresent(partitionName);
+        if (ring != null && (!consistency.requiresLeader() || ring.leader() != null)) {
+            return CompletableFuture.completedFuture(ring);
+        }
+        CompletableFuture<Ring> future = new CompletableFuture<>();
+        callerThreads.execute(() -> {
+            try {
+                future.complete(ring(partitionName, consistency, useHost, waitForLeaderElection));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Calls exactly the given host with no failover, e.g. to fetch from or repair a specific replica.
+     */
+    <R, A extends Abortable> R callHost(List<String> solutionLog,
+        PartitionName partitionName,
+        String family,
+        RingMemberAndHost ringMemberAndHost,
+        PartitionCall<C, A, E> call,
+        Merger<R, A> merger,
+        long abandonSolutionAfterNMillis) throws Exception {
+        return solve(solutionLog, partitionName, family, call, 1, false, merger, abandonSolutionAfterNMillis, abandonSolutionAfterNMillis, null,
+            null, ringMemberAndHost);
+    }
+
+    private RingMemberAndHost[] preferred(RingMemberAndHost[] ringMemberAndHosts) {
+        return replicaLatencies == null ? ringMemberAndHosts : replicaLatencies.order(ringMemberAndHosts);
     }
 
     private Ring ring(PartitionName partitionName,
@@ -337,6 +578,7 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
         long addAdditionalSolverAfterNMillis,
         long abandonSolutionAfterNMillis,
         RingMember leader,
+        ReplicaLatencies latencies,
         RingMemberAndHost... ringMemberAndHosts) throws Exception {
         long start = System.currentTimeMillis();
         List<Abortable> abortables = Collections.synchronizedList(Lists.newArrayListWithCapacity(mandatory));
@@ -361,7 +603,7 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
                         solutionLog.add("Adding solver " + ringMemberAndHost);
                     }
                     return () -> {
-                        A answer = clientProvider.call(partitionName, leader, ringMemberAndHost, family, partitionCall);
+                        A answer = call(partitionName, family, partitionCall, leader, latencies, ringMemberAndHost, complete);
                         abortables.add(answer);
                         if (complete.get()) {
                             answer.abort();
@@ -370,8 +612,10 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
                         return new RingMemberAndHostAnswer<>(ringMemberAndHost, answer);
                     };
                 });
+            long hedgeAfterNMillis = hedgeAfterNMillis(solutionLog, mandatory, addNewSolverOnTimeout, addAdditionalSolverAfterNMillis, latencies,
+                ringMemberAndHosts);
             List<RingMemberAndHostAnswer<A>> solutions = solve(solutionLog, callerThreads, callOrder.iterator(), mandatory,
-                addNewSolverOnTimeout, addAdditionalSolverAfterNMillis, abandonSolutionAfterNMillis);
+                addNewSolverOnTimeout, hedgeAfterNMillis, abandonSolutionAfterNMillis);
             for (RingMemberAndHostAnswer<A> solution : solutions) {
                 closeables.add(solution.getAnswer());
                 abortables.remove(solution.getAnswer());
@@ -457,6 +701,7 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
                 if (future == null) {
                     if (addNewSolverOnTimeout) {
                         if (solvers.hasNext()) {
+                            LOG.inc("solve>hedged");
                             pending++;
                             Callable<RingMemberAndHostAnswer<A>> next = solvers.next();
                             futures.add(completionService.submit(next));
@@ -496,4 +741,302 @@ public class AmzaClientCallRouter<C, E extends Throwable> implements RouteInvali
         return answers;
     }
 
+    private long hedgeAfterNMillis(List<String> solutionLog,
+        int mandatory,
+        boolean addNewSolverOnTimeout,
+        long addAdditionalSolverAfterNMillis,
+        ReplicaLatencies latencies,
+        RingMemberAndHost[] ringMemberAndHosts) {
+
+        if (latencies == null || !addNewSolverOnTimeout) {
+            return addAdditionalSolverAfterNMillis;
+        }
+        long hedgeAfterNMillis = 0;
+        for (int i = 0; i < mandatory && i < ringMemberAndHosts.length; i++) {
+            if (ringMemberAndHosts[i] != null) {
+                hedgeAfterNMillis = Math.max(hedgeAfterNMillis, latencies.hedgeAfterMillis(ringMemberAndHosts[i], addAdditionalSolverAfterNMillis));
+            }
+        }
+        if (hedgeAfterNMillis == 0) {
+            hedgeAfterNMillis = addAdditionalSolverAfterNMillis;
+        }
+        if (solutionLog != null) {
+            solutionLog.add("hedgeAfterNMillis:" + hedgeAfterNMillis);
+        }
+        return hedgeAfterNMillis;
+    }
+
+    private <A extends Abortable> A call(PartitionName partitionName,
+        String family,
+        PartitionCall<C, A, E> partitionCall,
+        RingMember leader,
+        ReplicaLatencies latencies,
+        RingMemberAndHost ringMemberAndHost,
+        AtomicBoolean complete) throws Exception {
+
+        if (latencies == null) {
+            return clientProvider.call(partitionName, leader, ringMemberAndHost, family, partitionCall);
+        }
+        long startNanos = System.nanoTime();
+        latencies.started(ringMemberAndHost);
+        try {
+            A answer = clientProvider.call(partitionName, leader, ringMemberAndHost, family, partitionCall);
+            latencies.completed(ringMemberAndHost, System.nanoTime() - startNanos);
+            return answer;
+        } catch (Throwable t) {
+            if (complete.get()) {
+                latencies.abandoned(ringMemberAndHost, System.nanoTime() - startNanos);
+            } else {
+                latencies.failed(ringMemberAndHost, System.nanoTime() - startNanos);
+            }
+            throw t;
+        }
+    }
+
+    /**
+     * Solves like {@link #solve} without parking the calling thread: solvers run on the caller threads, hedging and abandonment are driven
+     * by a shared timer, and the merge runs on whichever caller thread delivers the last mandatory answer. The transport is blocking, so each
+     * in-flight solver still holds a caller thread until its call returns, exactly as the blocking solve does.
+     */
+    private <R, A extends Abortable> CompletableFuture<R> solveAsync(List<String> solutionLog,
+        PartitionName partitionName,
+        String family,
+        PartitionCall<C, A, E> partitionCall,
+        int mandatory,
+        boolean addNewSolverOnTimeout,
+        Merger<R, A> merger,
+        long addAdditionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        RingMember leader,
+        ReplicaLatencies latencies,
+        RingMemberAndHost... ringMemberAndHosts) {
+
+        long start = System.currentTimeMillis();
+        if (solutionLog != null) {
+            solutionLog.add("Solving async...");
+            solutionLog.add("family:" + family);
+            solutionLog.add("partitionName:" + partitionName);
+            solutionLog.add("mandatory:" + mandatory);
+            solutionLog.add("addNewSolverOnTimeout:" + addNewSolverOnTimeout);
+            solutionLog.add("addAdditionalSolverAfterNMillis:" + addAdditionalSolverAfterNMillis);
+            solutionLog.add("abandonSolutionAfterNMillis:" + abandonSolutionAfterNMillis);
+        }
+        long hedgeAfterNMillis = hedgeAfterNMillis(solutionLog, mandatory, addNewSolverOnTimeout, addAdditionalSolverAfterNMillis, latencies,
+            ringMemberAndHosts);
+        List<RingMemberAndHost> hosts = Lists.newArrayList(Iterables.filter(Arrays.asList(ringMemberAndHosts), Predicates.notNull()));
+        AsyncSolve<A> solve = new AsyncSolve<>(solutionLog, partitionName, family, partitionCall, leader, latencies, hosts, mandatory);
+        solve.start(addNewSolverOnTimeout, hedgeAfterNMillis, abandonSolutionAfterNMillis);
+
+        CompletableFuture<R> result = solve.solutions.thenApply(solutions -> {
+            boolean closeable = false;
+            try {
+                R merged = merger.merge(solutions);
+                if (solutionLog != null) {
+                    solutionLog.add("Solved. " + (System.currentTimeMillis() - start) + "millis");
+                }
+                closeable = true;
+                return merged;
+            } catch (Exception x) {
+                throw new CompletionException(x);
+            } finally {
+                for (RingMemberAndHostAnswer<A> solution : solutions) {
+                    try {
+                        if (closeable) {
+                            solution.getAnswer().close();
+                        } else {
+                            solution.getAnswer().abort();
+                        }
+                    } catch (Throwable t) {
+                        LOG.warn("Failed to close {} using leader {} hosts {} for {} closeable:{}",
+                            new Object[] { solution.getAnswer(), leader, hosts, partitionName, closeable }, t);
+                    }
+                }
+            }
+        });
+        result.whenComplete((merged, t) -> {
+            if (t != null) {
+                Throwable cause = unwrap(t);
+                if (cause instanceof NotSolveableException) {
+                    LOG.inc("notSolveable");
+                    partitionRoutingCache.invalidate(partitionName);
+                }
+                if (solutionLog != null) {
+                    solutionLog.add("Failed to solve." + cause + " " + (System.currentTimeMillis() - start) + "millis");
+                }
+            }
+        });
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    private static <R> CompletableFuture<R> failed(Throwable t) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    private class AsyncSolve<A extends Abortable> {
+
+        private final List<String> solutionLog;
+        private final PartitionName partitionName;
+        private final String family;
+        private final PartitionCall<C, A, E> partitionCall;
+        private final RingMember leader;
+        private final ReplicaLatencies latencies;
+        private final List<RingMemberAndHost> hosts;
+        private final int mandatory;
+        private final CompletableFuture<List<RingMemberAndHostAnswer<A>>> solutions = new CompletableFuture<>();
+        private final List<RingMemberAndHostAnswer<A>> answers;
+        private final AtomicBoolean complete = new AtomicBoolean(false);
+
+        private int next;
+        private int pending;
+        private ScheduledFuture<?> hedger;
+        private ScheduledFuture<?> abandoner;
+
+        private AsyncSolve(List<String> solutionLog,
+            PartitionName partitionName,
+            String family,
+            PartitionCall<C, A, E> partitionCall,
+            RingMember leader,
+            ReplicaLatencies latencies,
+            List<RingMemberAndHost> hosts,
+            int mandatory) {
+            this.solutionLog = solutionLog;
+            this.partitionName = partitionName;
+            this.family = family;
+            this.partitionCall = partitionCall;
+            this.leader = leader;
+            this.latencies = latencies;
+            this.hosts = hosts;
+            this.mandatory = mandatory;
+            this.answers = Lists.newArrayListWithCapacity(mandatory);
+        }
+
+        private synchronized void start(boolean addNewSolverOnTimeout, long hedgeAfterNMillis, long abandonSolutionAfterNMillis) {
+            if (hosts.size() < mandatory) {
+                if (solutionLog != null) {
+                    solutionLog.add("Not enough solveable available. desire:" + mandatory);
+                }
+                fail(new NotSolveableException("Not enough solveable available. desire:" + mandatory));
+                return;
+            }
+            abandoner = SOLVER_TIMER.schedule(() -> {
+                if (solutionLog != null) {
+                    solutionLog.add("Abandoned solution because it took more than " + abandonSolutionAfterNMillis + "millis.");
+                }
+                fail(new TimeoutException("Abandoned solution because it took more than " + abandonSolutionAfterNMillis + "millis."));
+            }, abandonSolutionAfterNMillis, TimeUnit.MILLISECONDS);
+            if (addNewSolverOnTimeout) {
+                hedger = SOLVER_TIMER.scheduleWithFixedDelay(this::hedge, hedgeAfterNMillis, hedgeAfterNMillis, TimeUnit.MILLISECONDS);
+            }
+            for (int i = 0; i < mandatory && !complete.get(); i++) {
+                submitNext();
+            }
+        }
+
+        private synchronized void hedge() {
+            if (!complete.get() && next < hosts.size()) {
+                LOG.inc("solve>hedged");
+                submitNext();
+            }
+        }
+
+        private synchronized void submitNext() {
+            RingMemberAndHost ringMemberAndHost = hosts.get(next);
+            next++;
+            pending++;
+            if (solutionLog != null) {
+                solutionLog.add("Adding solver " + ringMemberAndHost);
+            }
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    return call(partitionName, family, partitionCall, leader, latencies, ringMemberAndHost, complete);
+                } catch (Exception x) {
+                    throw new CompletionException(x);
+                }
+            }, callerThreads).whenComplete((answer, t) -> answered(ringMemberAndHost, answer, t));
+        }
+
+        private void answered(RingMemberAndHost ringMemberAndHost, A answer, Throwable t) {
+            List<RingMemberAndHostAnswer<A>> solved = null;
+            NotSolveableException notSolveable = null;
+            boolean late = false;
+            synchronized (this) {
+                pending--;
+                if (complete.get()) {
+                    late = true;
+                } else if (t == null) {
+                    if (solutionLog != null) {
+                        solutionLog.add("Solving with " + ringMemberAndHost);
+                    }
+                    answers.add(new RingMemberAndHostAnswer<>(ringMemberAndHost, answer));
+                    if (answers.size() == mandatory) {
+                        complete.set(true);
+                        solved = answers;
+                    }
+                } else {
+                    if (solutionLog != null) {
+                        solutionLog.add("Solver failed: " + unwrap(t));
+                    }
+                    LOG.debug("Failed to solve", unwrap(t));
+                    if (next < hosts.size()) {
+                        submitNext();
+                    }
+                    // fail as soon as the solvers in flight and the hosts left untried can no longer make up the difference
+                    if (answers.size() + pending + (hosts.size() - next) < mandatory) {
+                        notSolveable = new NotSolveableException("Not currently solveable. desire:" + mandatory + " achieved:" + answers.size());
+                    }
+                }
+            }
+            if (late) {
+                if (answer != null) {
+                    abort(answer);
+                }
+            } else if (solved != null) {
+                cancelTimers();
+                solutions.complete(solved);
+            } else if (notSolveable != null) {
+                fail(notSolveable);
+            }
+        }
+
+        private void fail(Throwable t) {
+            List<RingMemberAndHostAnswer<A>> abandoned;
+            synchronized (this) {
+                if (!complete.compareAndSet(false, true)) {
+                    return;
+                }
+                abandoned = Lists.newArrayList(answers);
+            }
+            cancelTimers();
+            for (RingMemberAndHostAnswer<A> answer : abandoned) {
+                abort(answer.getAnswer());
+            }
+            solutions.completeExceptionally(t);
+        }
+
+        private synchronized void cancelTimers() {
+            if (hedger != null) {
+                hedger.cancel(false);
+            }
+            if (abandoner != null) {
+                abandoner.cancel(false);
+            }
+        }
+
+        private void abort(A answer) {
+            try {
+                answer.abort();
+            } catch (Throwable t) {
+                LOG.warn("Failed to abort {} using leader {} hosts {} for {}", new Object[] { answer, leader, hosts, partitionName }, t);
+            }
+        }
+    }
 }
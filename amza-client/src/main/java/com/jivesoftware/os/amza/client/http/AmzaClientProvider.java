@@ -1,13 +1,28 @@
 package com.jivesoftware.os.amza.client.http;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.jivesoftware.os.amza.api.AsyncPartitionClient;
+import com.jivesoftware.os.amza.api.FailedToAchieveQuorumException;
 import com.jivesoftware.os.amza.api.PartitionClient;
 import com.jivesoftware.os.amza.api.PartitionClientProvider;
+import com.jivesoftware.os.amza.api.PartitionCommit;
 import com.jivesoftware.os.amza.api.RingPartitionProperties;
+import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
+import com.jivesoftware.os.amza.api.ring.RingMemberAndHost;
+import com.jivesoftware.os.amza.client.http.exceptions.LeaderElectionInProgressException;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -15,18 +30,35 @@ import java.util.concurrent.ExecutorService;
  */
 public class AmzaClientProvider<C, E extends Throwable> implements PartitionClientProvider {
 
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
     private final PartitionClientFactory<C, E> partitionClientFactory;
     private final PartitionHostsProvider partitionHostsProvider;
     private final RingHostClientProvider<C, E> clientProvider;
+    private final RemoteCommitBatchCaller<C, E> commitBatchCaller;
     private final ExecutorService callerThreads;
     private final long awaitLeaderElectionForNMillis;
     private final long debugClientCount;
     private final long debugClientCountInterval;
     private final Map<PartitionName, PartitionClient> cache = Maps.newConcurrentMap();
+    private final ReplicaLatencies replicaLatencies = new ReplicaLatencies();
+    private final AmzaClientCallRouter<C, E> batchCallRouter;
+
+    public AmzaClientProvider(PartitionClientFactory<C, E> partitionClientFactory,
+        PartitionHostsProvider partitionHostsProvider,
+        RingHostClientProvider<C, E> clientProvider,
+        ExecutorService callerThreads,
+        long awaitLeaderElectionForNMillis,
+        long debugClientCount,
+        long debugClientCountInterval) {
+        this(partitionClientFactory, partitionHostsProvider, clientProvider, null, callerThreads, awaitLeaderElectionForNMillis, debugClientCount,
+            debugClientCountInterval);
+    }
 
     public AmzaClientProvider(PartitionClientFactory<C, E> partitionClientFactory,
         PartitionHostsProvider partitionHostsProvider,
         RingHostClientProvider<C, E> clientProvider,
+        RemoteCommitBatchCaller<C, E> commitBatchCaller,
         ExecutorService callerThreads,
         long awaitLeaderElectionForNMillis,
         long debugClientCount,
@@ -34,10 +66,12 @@ public class AmzaClientProvider<C, E extends Throwable> implements PartitionClie
         this.partitionClientFactory = partitionClientFactory;
         this.partitionHostsProvider = partitionHostsProvider;
         this.clientProvider = clientProvider;
+        this.commitBatchCaller = commitBatchCaller;
         this.callerThreads = callerThreads;
         this.awaitLeaderElectionForNMillis = awaitLeaderElectionForNMillis;
         this.debugClientCount = debugClientCount;
         this.debugClientCountInterval = debugClientCountInterval;
+        this.batchCallRouter = new AmzaClientCallRouter<>(callerThreads, partitionHostsProvider, clientProvider, replicaLatencies);
     }
 
     @Override
@@ -46,7 +80,7 @@ public class AmzaClientProvider<C, E extends Throwable> implements PartitionClie
         if (got != null) {
             return got;
         }
-        AmzaClientCallRouter<C, E> partitionCallRouter = new AmzaClientCallRouter<>(callerThreads, partitionHostsProvider, clientProvider);
+        AmzaClientCallRouter<C, E> partitionCallRouter = new AmzaClientCallRouter<>(callerThreads, partitionHostsProvider, clientProvider, replicaLatencies);
 
         return partitionClientFactory.create(partitionName, partitionCallRouter, awaitLeaderElectionForNMillis, debugClientCount, debugClientCountInterval);
     }
@@ -59,7 +93,8 @@ public class AmzaClientProvider<C, E extends Throwable> implements PartitionClie
         return cache.computeIfAbsent(partitionName, (key) -> {
             try {
                 partitionHostsProvider.ensurePartition(partitionName, ringSize, partitionProperties);
-                AmzaClientCallRouter<C, E> partitionCallRouter = new AmzaClientCallRouter<>(callerThreads, partitionHostsProvider, clientProvider);
+                AmzaClientCallRouter<C, E> partitionCallRouter = new AmzaClientCallRouter<>(callerThreads, partitionHostsProvider, clientProvider,
+                    replicaLatencies);
                 return partitionClientFactory.create(key, partitionCallRouter, awaitLeaderElectionForNMillis, debugClientCount, debugClientCountInterval);
             } catch (Exception x) {
                 throw new RuntimeException(x);
@@ -67,8 +102,113 @@ public class AmzaClientProvider<C, E extends Throwable> implements PartitionClie
         });
     }
 
+    /**
+     * @return the future based view of {@link #getPartition(PartitionName)}
+     * @throws UnsupportedOperationException if the configured {@link PartitionClientFactory} does not produce async clients
+     */
+    public AsyncPartitionClient getAsyncPartition(PartitionName partitionName) throws Exception {
+        PartitionClient partitionClient = getPartition(partitionName);
+        if (partitionClient instanceof AsyncPartitionClient) {
+            return (AsyncPartitionClient) partitionClient;
+        }
+        throw new UnsupportedOperationException("Partition client does not support async calls: " + partitionClient.getClass());
+    }
+
     @Override
     public RingPartitionProperties getProperties(PartitionName partitionName) throws Exception {
         return partitionHostsProvider.getRingPartitionProperties(partitionName);
     }
+
+    /**
+     * Routes every commit to the host that would have taken it on its own (the leader when the consistency requires one), ships each
+     * host's share in a single request and lets the hosts await their quorums concurrently. Any partition a host did not report as
+     * committed, whether because of routing, readiness or a failed request, is retried through its own {@link PartitionClient} so leader
+     * changes are handled as usual.
+     */
+    @Override
+    public void commitMany(Consistency consistency,
+        List<PartitionCommit> commits,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+
+        if (commitBatchCaller == null || commits.size() < 2) {
+            PartitionClientProvider.super.commitMany(consistency, commits, additionalSolverAfterNMillis, abandonSolutionAfterNMillis, solutionLog);
+            return;
+        }
+
+        List<String> log = solutionLog.orElse(null);
+        List<PartitionCommit> retry = Collections.synchronizedList(Lists.newArrayList());
+        Map<RingMemberAndHost, List<PartitionCommit>> hostCommits = Maps.newHashMap();
+        for (PartitionCommit commit : commits) {
+            Ring ring;
+            try {
+                ring = batchCallRouter.writeRing(commit.partitionName, consistency, awaitLeaderElectionForNMillis);
+            } catch (LeaderElectionInProgressException x) {
+                retry.add(commit);
+                continue;
+            }
+            RingMemberAndHost host = consistency.requiresLeader() ? ring.leader() : chooseHost(ring, hostCommits);
+            hostCommits.computeIfAbsent(host, key -> Lists.newArrayList()).add(commit);
+        }
+
+        boolean checkLeader = consistency.requiresLeader();
+        List<Future<Integer>> futures = Lists.newArrayListWithCapacity(hostCommits.size());
+        for (Entry<RingMemberAndHost, List<PartitionCommit>> entry : hostCommits.entrySet()) {
+            RingMemberAndHost host = entry.getKey();
+            List<PartitionCommit> batch = entry.getValue();
+            if (log != null) {
+                log.add("Writing batch of " + batch.size() + " partitions to " + host);
+            }
+            futures.add(callerThreads.submit(() -> {
+                PartitionCommit.Status[] statuses = new PartitionCommit.Status[batch.size()];
+                Arrays.fill(statuses, PartitionCommit.Status.not_committed);
+                try {
+                    clientProvider.call(null, checkLeader ? host.ringMember : null, host, "commitBatch",
+                        (leader, ringMember, client) -> commitBatchCaller.commitBatch(ringMember, client, consistency, checkLeader, batch,
+                            statuses, abandonSolutionAfterNMillis));
+                } catch (Exception x) {
+                    LOG.warn("Failed to commit batch to {}, will retry each partition it did not report", new Object[] { host }, x);
+                }
+                int failedQuorums = 0;
+                for (int i = 0; i < statuses.length; i++) {
+                    if (statuses[i] == PartitionCommit.Status.failed_to_achieve_quorum) {
+                        failedQuorums++;
+                    } else if (statuses[i] != PartitionCommit.Status.committed) {
+                        batchCallRouter.invalidateRouting(batch.get(i).partitionName);
+                        retry.add(batch.get(i));
+                    }
+                }
+                return failedQuorums;
+            }));
+        }
+
+        int failedQuorums = 0;
+        for (Future<Integer> future : futures) {
+            failedQuorums += future.get();
+        }
+
+        LOG.inc("commitMany>retries", retry.size());
+        for (PartitionCommit commit : retry) {
+            if (log != null) {
+                log.add("Retrying " + commit.partitionName + " outside of batch");
+            }
+            getPartition(commit.partitionName).commit(consistency, commit.prefix, commit.updates,
+                additionalSolverAfterNMillis, abandonSolutionAfterNMillis, solutionLog);
+        }
+
+        if (failedQuorums > 0) {
+            throw new FailedToAchieveQuorumException(
+                "The server could NOT achieve " + consistency.name() + " for " + failedQuorums + " partitions within " + abandonSolutionAfterNMillis + "millis");
+        }
+    }
+
+    private static RingMemberAndHost chooseHost(Ring ring, Map<RingMemberAndHost, List<PartitionCommit>> hostCommits) {
+        for (RingMemberAndHost ringMemberAndHost : ring.actualRing()) {
+            if (hostCommits.containsKey(ringMemberAndHost)) {
+                return ringMemberAndHost;
+            }
+        }
+        return ring.randomizeRing()[0];
+    }
 }
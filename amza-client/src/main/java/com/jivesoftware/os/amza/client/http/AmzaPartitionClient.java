@@ -1,6 +1,9 @@
 package com.jivesoftware.os.amza.client.http;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.amza.api.AsyncPartitionClient;
 import com.jivesoftware.os.amza.api.CompareTimestampVersions;
 import com.jivesoftware.os.amza.api.PartitionClient;
 import com.jivesoftware.os.amza.api.filer.FilerInputStream;
@@ -8,7 +11,10 @@ import com.jivesoftware.os.amza.api.filer.UIO;
 import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.ring.RingMemberAndHost;
+import com.jivesoftware.os.amza.api.scan.ScanCursor;
 import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyValueTimestampStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueTimestampStream;
 import com.jivesoftware.os.amza.api.stream.OffsetUnprefixedWALKeys;
@@ -19,6 +25,7 @@ import com.jivesoftware.os.amza.api.stream.TxKeyValueStream.TxResult;
 import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.take.Highwaters;
 import com.jivesoftware.os.amza.api.take.TakeResult;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
 import com.jivesoftware.os.amza.api.wal.WALHighwater;
 import com.jivesoftware.os.amza.api.wal.WALHighwater.RingMemberHighwater;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
@@ -30,12 +37,17 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.xerial.snappy.SnappyInputStream;
 
 /**
  * @author jonathan.colt
  */
-public class AmzaPartitionClient<C, E extends Throwable> implements PartitionClient {
+public class AmzaPartitionClient<C, E extends Throwable> implements PartitionClient, AsyncPartitionClient {
 
     private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
 
@@ -45,6 +57,7 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
     private final long awaitLeaderElectionForNMillis;
     private final long debugClientCount;
     private final long debugClientCountInterval;
+    private final ExecutorService readRepairThreads;
 
     private volatile long lastDebugClientTime = 0;
 
@@ -54,6 +67,20 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
         long awaitLeaderElectionForNMillis,
         long debugClientCount,
         long debugClientCountInterval) throws IOException {
+        this(partitionName, partitionCallRouter, remotePartitionCaller, awaitLeaderElectionForNMillis, debugClientCount, debugClientCountInterval, null);
+    }
+
+    /**
+     * @param readRepairThreads when non-null, multi-replica gets read values from one replica and digests from the rest, and stale replicas
+     * are repaired asynchronously on these threads
+     */
+    public AmzaPartitionClient(PartitionName partitionName,
+        AmzaClientCallRouter<C, E> partitionCallRouter,
+        RemotePartitionCaller<C, E> remotePartitionCaller,
+        long awaitLeaderElectionForNMillis,
+        long debugClientCount,
+        long debugClientCountInterval,
+        ExecutorService readRepairThreads) throws IOException {
 
         this.partitionName = partitionName;
         this.partitionCallRouter = partitionCallRouter;
@@ -61,6 +88,7 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
         this.awaitLeaderElectionForNMillis = awaitLeaderElectionForNMillis;
         this.debugClientCount = debugClientCount;
         this.debugClientCountInterval = debugClientCountInterval;
+        this.readRepairThreads = readRepairThreads;
     }
 
     @Override
@@ -176,6 +204,16 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
         long abandonLeaderSolutionAfterNMillis,
         long abandonSolutionAfterNMillis,
         Optional<List<String>> solutionLog) throws Exception {
+        if (readRepairThreads != null && (consistency == Consistency.quorum || consistency == Consistency.write_one_read_all)) {
+            return getDigestInternal(consistency,
+                prefix,
+                keys,
+                stream,
+                additionalSolverAfterNMillis,
+                abandonLeaderSolutionAfterNMillis,
+                abandonSolutionAfterNMillis,
+                solutionLog);
+        }
         return getInternalCall(consistency,
             stream,
             additionalSolverAfterNMillis,
@@ -187,6 +225,234 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
             });
     }
 
+    /**
+     * The first replica called returns full rows and every other replica returns digests. Only the keys where a digest is newer than the full
+     * row are fetched again from the replica holding the newest row, and every replica that answered with an older row is sent the newest
+     * row asynchronously, with its timestamp and version intact and without awaiting any quorum. Rows are buffered so they can be streamed in request order once any fetches complete.
+     */
+    private boolean getDigestInternal(Consistency consistency,
+        byte[] prefix,
+        UnprefixedWALKeys keys,
+        KeyValueStream stream,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+
+        List<String> log = solutionLog.orElse(null);
+        AtomicReference<RingMember> valuesMember = new AtomicReference<>();
+        List<DigestRow> rows = partitionCallRouter.read(log, partitionName, consistency, "getDigest",
+            digestCall(valuesMember, consistency, prefix, keys),
+            digestMerger(valuesMember),
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonLeaderSolutionAfterNMillis,
+            abandonSolutionAfterNMillis);
+        return fetchRepairAndStream(log, consistency, prefix, rows, stream, abandonSolutionAfterNMillis);
+    }
+
+    private PartitionCall<C, CloseableStreamResponse, E> digestCall(AtomicReference<RingMember> valuesMember,
+        Consistency consistency,
+        byte[] prefix,
+        UnprefixedWALKeys keys) {
+        return (leader, ringMember, client) -> {
+            if (valuesMember.compareAndSet(null, ringMember)) {
+                return remotePartitionCaller.get(leader, ringMember, client, consistency, prefix, keys);
+            }
+            return remotePartitionCaller.getDigest(leader, ringMember, client, consistency, prefix, keys);
+        };
+    }
+
+    private Merger<List<DigestRow>, CloseableStreamResponse> digestMerger(AtomicReference<RingMember> valuesMember) {
+        return (answers) -> {
+            byte[] intLongBuffer = new byte[8];
+            int numAnswers = answers.size();
+            FilerInputStream[] streams = new FilerInputStream[numAnswers];
+            boolean[] hasValues = new boolean[numAnswers];
+            for (int i = 0; i < numAnswers; i++) {
+                RingMemberAndHostAnswer<CloseableStreamResponse> answer = answers.get(i);
+                debugStreamResponse(answer.getAnswer());
+                streams[i] = new FilerInputStream(answer.getAnswer().getInputStream());
+                hasValues[i] = answer.getRingMemberAndHost().ringMember.equals(valuesMember.get());
+            }
+
+            List<DigestRow> merged = Lists.newArrayList();
+            long[] timestamps = new long[numAnswers];
+            long[] versions = new long[numAnswers];
+            while (numAnswers > 0) {
+                int eosed = 0;
+                DigestRow row = null;
+                int newest = -1;
+                byte[] value = null;
+                for (int i = 0; i < numAnswers; i++) {
+                    FilerInputStream fis = streams[i];
+                    if (!UIO.readBoolean(fis, "eos")) {
+                        byte[] p = UIO.readByteArray(fis, "prefix", intLongBuffer);
+                        byte[] k = UIO.readByteArray(fis, "key", intLongBuffer);
+                        byte[] v = hasValues[i] ? UIO.readByteArray(fis, "value", intLongBuffer) : null;
+                        timestamps[i] = UIO.readLong(fis, "timestamp", intLongBuffer);
+                        boolean d = UIO.readBoolean(fis, "tombstone");
+                        versions[i] = UIO.readLong(fis, "version", intLongBuffer);
+                        if (hasValues[i]) {
+                            value = v;
+                        }
+                        if (row == null) {
+                            row = new DigestRow(p, k);
+                        }
+                        int c = newest == -1 ? 1 : CompareTimestampVersions.compare(timestamps[i], versions[i], row.timestamp, row.version);
+                        if (c > 0 || c == 0 && hasValues[i]) {
+                            newest = i;
+                            row.timestamp = timestamps[i];
+                            row.tombstoned = d;
+                            row.version = versions[i];
+                        }
+                    } else {
+                        eosed++;
+                    }
+                }
+                if (eosed > 0 && eosed < numAnswers) {
+                    throw new RuntimeException("Mismatched response lengths");
+                }
+                if (eosed > 0) {
+                    break;
+                }
+                if (hasValues[newest]) {
+                    row.value = value;
+                } else if (!row.tombstoned) {
+                    row.fetchFrom = answers.get(newest).getRingMemberAndHost();
+                }
+                for (int i = 0; i < numAnswers; i++) {
+                    if (CompareTimestampVersions.compare(timestamps[i], versions[i], row.timestamp, row.version) < 0) {
+                        if (row.stale == null) {
+                            row.stale = Lists.newArrayListWithCapacity(numAnswers - 1);
+                        }
+                        row.stale.add(answers.get(i).getRingMemberAndHost());
+                    }
+                }
+                merged.add(row);
+            }
+            return merged;
+        };
+    }
+
+    private boolean fetchRepairAndStream(List<String> log,
+        Consistency consistency,
+        byte[] prefix,
+        List<DigestRow> rows,
+        KeyValueStream stream,
+        long abandonSolutionAfterNMillis) throws Exception {
+
+        byte[] intLongBuffer = new byte[8];
+        Map<RingMemberAndHost, List<DigestRow>> fetches = Maps.newHashMap();
+        Map<RingMemberAndHost, List<DigestRow>> repairs = Maps.newHashMap();
+        for (DigestRow row : rows) {
+            if (row.fetchFrom != null) {
+                fetches.computeIfAbsent(row.fetchFrom, key -> Lists.newArrayList()).add(row);
+            }
+            if (row.stale != null) {
+                for (RingMemberAndHost ringMemberAndHost : row.stale) {
+                    repairs.computeIfAbsent(ringMemberAndHost, key -> Lists.newArrayList()).add(row);
+                }
+            }
+        }
+
+        for (Map.Entry<RingMemberAndHost, List<DigestRow>> entry : fetches.entrySet()) {
+            List<DigestRow> fetch = entry.getValue();
+            LOG.inc("getDigest>fetch", fetch.size());
+            if (log != null) {
+                log.add("Fetching " + fetch.size() + " newer values from " + entry.getKey());
+            }
+            partitionCallRouter.callHost(log, partitionName, "getDigest>fetch", entry.getKey(),
+                (leader, ringMember, client) -> {
+                    return remotePartitionCaller.get(leader, ringMember, client, consistency, prefix, keyStream -> {
+                        for (DigestRow row : fetch) {
+                            if (!keyStream.stream(row.key)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    });
+                },
+                (answers) -> {
+                    FilerInputStream fis = new FilerInputStream(answers.get(0).getAnswer().getInputStream());
+                    for (DigestRow row : fetch) {
+                        if (UIO.readBoolean(fis, "eos")) {
+                            throw new RuntimeException("Mismatched response lengths");
+                        }
+                        UIO.readByteArray(fis, "prefix", intLongBuffer);
+                        UIO.readByteArray(fis, "key", intLongBuffer);
+                        byte[] v = UIO.readByteArray(fis, "value", intLongBuffer);
+                        long t = UIO.readLong(fis, "timestamp", intLongBuffer);
+                        boolean d = UIO.readBoolean(fis, "tombstone");
+                        long z = UIO.readLong(fis, "version", intLongBuffer);
+                        if (CompareTimestampVersions.compare(t, z, row.timestamp, row.version) < 0) {
+                            throw new IllegalStateException("Replica " + answers.get(0).getRingMemberAndHost() + " regressed while fetching");
+                        }
+                        row.value = v;
+                        row.timestamp = t;
+                        row.tombstoned = d;
+                        row.version = z;
+                    }
+                    return null;
+                },
+                abandonSolutionAfterNMillis);
+        }
+
+        for (Map.Entry<RingMemberAndHost, List<DigestRow>> entry : repairs.entrySet()) {
+            RingMemberAndHost ringMemberAndHost = entry.getKey();
+            List<DigestRow> repair = entry.getValue();
+            LOG.inc("getDigest>repair", repair.size());
+            if (log != null) {
+                log.add("Repairing " + repair.size() + " stale rows on " + ringMemberAndHost);
+            }
+            readRepairThreads.submit(() -> {
+                try {
+                    partitionCallRouter.callHost(null, partitionName, "getDigest>repair", ringMemberAndHost,
+                        (leader, ringMember, client) -> {
+                            return remotePartitionCaller.repair(leader, ringMember, client, prefix, (highwaters, rowStream) -> {
+                                for (DigestRow row : repair) {
+                                    if (!rowStream.row(-1L, row.key, row.value, row.timestamp, row.tombstoned, row.version)) {
+                                        return false;
+                                    }
+                                }
+                                return true;
+                            }, abandonSolutionAfterNMillis);
+                        },
+                        (answers) -> null,
+                        abandonSolutionAfterNMillis);
+                } catch (Exception x) {
+                    LOG.inc("getDigest>repair>failed");
+                    LOG.warn("Failed to repair {} rows on {} for {}", new Object[] { repair.size(), ringMemberAndHost, partitionName }, x);
+                }
+                return null;
+            });
+        }
+
+        for (DigestRow row : rows) {
+            if (!stream.stream(row.prefix, row.key, row.value, row.timestamp, row.tombstoned, row.version)) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    private static class DigestRow {
+
+        private final byte[] prefix;
+        private final byte[] key;
+        private byte[] value;
+        private long timestamp;
+        private boolean tombstoned;
+        private long version;
+        private RingMemberAndHost fetchFrom;
+        private List<RingMemberAndHost> stale;
+
+        private DigestRow(byte[] prefix, byte[] key) {
+            this.prefix = prefix;
+            this.key = key;
+        }
+    }
+
     private boolean getInternal(Consistency consistency,
         byte[] prefix,
         OffsetUnprefixedWALKeys keys,
@@ -213,55 +479,9 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
         long abandonSolutionAfterNMillis,
         Optional<List<String>> solutionLog,
         PartitionCall<C, CloseableStreamResponse, E> partitionCall) throws Exception {
-        byte[] intLongBuffer = new byte[8];
         partitionCallRouter.read(solutionLog.orElse(null), partitionName, consistency, "get",
             partitionCall,
-            (answers) -> {
-                List<FilerInputStream> streams = Lists.newArrayList(
-                    Lists.transform(answers, input -> {
-                        CloseableStreamResponse streamResponse = input.getAnswer();
-                        debugStreamResponse(streamResponse);
-                        return new FilerInputStream(streamResponse.getInputStream());
-                    }));
-                int eosed = 0;
-                while (streams.size() > 0 && eosed == 0) {
-                    byte[] latestPrefix = null;
-                    byte[] latestKey = null;
-                    byte[] latestValue = null;
-                    long latestTimestamp = Long.MIN_VALUE;
-                    boolean latestTombstoned = false;
-                    long latestVersion = Long.MIN_VALUE;
-                    for (FilerInputStream fis : streams) {
-                        if (!UIO.readBoolean(fis, "eos")) {
-                            byte[] p = UIO.readByteArray(fis, "prefix", intLongBuffer);
-                            byte[] k = UIO.readByteArray(fis, "key", intLongBuffer);
-                            byte[] v = UIO.readByteArray(fis, "value", intLongBuffer);
-                            long t = UIO.readLong(fis, "timestamp", intLongBuffer);
-                            boolean d = UIO.readBoolean(fis, "tombstone");
-                            long z = UIO.readLong(fis, "version", intLongBuffer);
-
-                            int c = CompareTimestampVersions.compare(t, z, latestTimestamp, latestVersion);
-                            if (c > 0) {
-                                latestPrefix = p;
-                                latestKey = k;
-                                latestValue = v;
-                                latestTimestamp = t;
-                                latestTombstoned = d;
-                                latestVersion = z;
-                            }
-                        } else {
-                            eosed++;
-                        }
-                    }
-                    if (eosed > 0 && eosed < answers.size()) {
-                        throw new RuntimeException("Mismatched response lengths");
-                    }
-                    if (eosed == 0 && !stream.stream(latestPrefix, latestKey, latestValue, latestTimestamp, latestTombstoned, latestVersion)) {
-                        break;
-                    }
-                }
-                return null;
-            },
+            getMerger(stream),
             awaitLeaderElectionForNMillis,
             additionalSolverAfterNMillis,
             abandonLeaderSolutionAfterNMillis,
@@ -269,6 +489,56 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
         return true;
     }
 
+    private Merger<Void, CloseableStreamResponse> getMerger(KeyValueStream stream) {
+        byte[] intLongBuffer = new byte[8];
+        return (answers) -> {
+            List<FilerInputStream> streams = Lists.newArrayList(
+                Lists.transform(answers, input -> {
+                    CloseableStreamResponse streamResponse = input.getAnswer();
+                    debugStreamResponse(streamResponse);
+                    return new FilerInputStream(streamResponse.getInputStream());
+                }));
+            int eosed = 0;
+            while (streams.size() > 0 && eosed == 0) {
+                byte[] latestPrefix = null;
+                byte[] latestKey = null;
+                byte[] latestValue = null;
+                long latestTimestamp = Long.MIN_VALUE;
+                boolean latestTombstoned = false;
+                long latestVersion = Long.MIN_VALUE;
+                for (FilerInputStream fis : streams) {
+                    if (!UIO.readBoolean(fis, "eos")) {
+                        byte[] p = UIO.readByteArray(fis, "prefix", intLongBuffer);
+                        byte[] k = UIO.readByteArray(fis, "key", intLongBuffer);
+                        byte[] v = UIO.readByteArray(fis, "value", intLongBuffer);
+                        long t = UIO.readLong(fis, "timestamp", intLongBuffer);
+                        boolean d = UIO.readBoolean(fis, "tombstone");
+                        long z = UIO.readLong(fis, "version", intLongBuffer);
+
+                        int c = CompareTimestampVersions.compare(t, z, latestTimestamp, latestVersion);
+                        if (c > 0) {
+                            latestPrefix = p;
+                            latestKey = k;
+                            latestValue = v;
+                            latestTimestamp = t;
+                            latestTombstoned = d;
+                            latestVersion = z;
+                        }
+                    } else {
+                        eosed++;
+                    }
+                }
+                if (eosed > 0 && eosed < answers.size()) {
+                    throw new RuntimeException("Mismatched response lengths");
+                }
+                if (eosed == 0 && !stream.stream(latestPrefix, latestKey, latestValue, latestTimestamp, latestTombstoned, latestVersion)) {
+                    break;
+                }
+            }
+            return null;
+        };
+    }
+
     @Override
     public boolean scan(Consistency consistency,
         boolean compressed,
@@ -333,17 +603,75 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
             solutionLog);
     }
 
-    private boolean scanInternal(Consistency consistency,
+    /**
+     * Every replica stops after {@code pageSize} rows. Any merged row among the first {@code pageSize} sorts at or before the last row of
+     * every replica's page, so a page is complete even though no replica streamed the whole range.
+     */
+    @Override
+    public ScanCursor scanPage(Consistency consistency,
         boolean compressed,
         PrefixedKeyRanges ranges,
-        KeyValueFilter filter,
-        KeyValueTimestampStream stream,
-        boolean hydrateValues,
+        ScanCursor cursor,
+        int pageSize,
+        KeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+
+        Preconditions.checkArgument(pageSize > 0, "pageSize must be positive");
+        PrefixedKeyRanges pageRanges = cursor != null ? cursor.resume(ranges) : ranges;
+        AtomicInteger rangeIndex = new AtomicInteger(cursor != null ? cursor.rangeIndex - 1 : -1);
+        ScanCursor[] next = new ScanCursor[1];
+        int[] count = new int[1];
+        KeyValueStream pageStream = (prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+            next[0] = new ScanCursor(rangeIndex.get(), prefix, key);
+            count[0]++;
+            return (valueTombstoned || scan.stream(prefix, key, value, valueTimestamp, valueVersion)) && count[0] < pageSize;
+        };
+        boolean exhausted = partitionCallRouter.read(solutionLog.orElse(null), partitionName, consistency, "scanPage",
+            (leader, ringMember, client) -> {
+                return remotePartitionCaller.scanPage(leader, ringMember, client, consistency, compressed, pageRanges, true, pageSize);
+            },
+            scanMerger(consistency, compressed, true, rangeIndex, pageStream),
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonLeaderSolutionAfterNMillis,
+            abandonSolutionAfterNMillis);
+        return exhausted ? null : next[0];
+    }
+
+    @Override
+    public boolean scanIndex(Consistency consistency,
+        boolean compressed,
+        String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey,
+        IndexedKeyValueTimestampStream scan,
         long additionalSolverAfterNMillis,
         long abandonLeaderSolutionAfterNMillis,
         long abandonSolutionAfterNMillis,
         Optional<List<String>> solutionLog) throws Exception {
 
+        return partitionCallRouter.read(solutionLog.orElse(null), partitionName, consistency, "scanIndex",
+            (leader, ringMember, client) -> {
+                return remotePartitionCaller.scanIndex(leader, ringMember, client, consistency, compressed, indexName, fromIndexKey, toIndexKey);
+            },
+            scanIndexMerger(consistency, compressed, indexName, scan),
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonLeaderSolutionAfterNMillis,
+            abandonSolutionAfterNMillis);
+    }
+
+    /**
+     * Replicas stream index rows ordered by index key and then by row key, so answers are merged on the entry key rather than the row key.
+     */
+    private Merger<Boolean, CloseableStreamResponse> scanIndexMerger(Consistency consistency,
+        boolean compressed,
+        String indexName,
+        IndexedKeyValueTimestampStream stream) {
+
         boolean merge;
         if (consistency == Consistency.leader_plus_one
             || consistency == Consistency.leader_quorum
@@ -354,109 +682,223 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
             merge = false;
         }
         byte[] intLongBuffer = new byte[8];
+        KeyValueStream entryStream = (prefix, entryKey, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+            return valueTombstoned || SecondaryIndexes.decode(entryKey,
+                (indexKey, rowPrefix, rowKey) -> stream.stream(indexKey, rowPrefix, rowKey, value, valueTimestamp, valueVersion));
+        };
+
+        return (answers) -> {
+            List<FilerInputStream> streams = Lists.newArrayList(Lists.transform(answers, input -> {
+                try {
+                    CloseableStreamResponse streamResponse = input.getAnswer();
+                    debugStreamResponse(streamResponse);
+                    InputStream answerInputStream = streamResponse.getInputStream();
+                    InputStream inputStream = compressed ? new SnappyInputStream(new BufferedInputStream(answerInputStream, 8192)) : answerInputStream;
+                    return new FilerInputStream(inputStream);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+            int size = streams.size();
+            if (size == 0) {
+                throw new RuntimeException("Failed to scan index.");
+            }
+            if (!merge) {
+                size = 1;
+            }
+            boolean[] eos = new boolean[size];
+            QuorumScan quorumScan = new QuorumScan(size);
+            int eosed = 0;
+            while (eosed < size) {
+                for (int i = 0; i < size; i++) {
+                    if (quorumScan.used(i) && !eos[i]) {
+                        FilerInputStream fis = streams.get(i);
+                        eos[i] = UIO.readBoolean(fis, "eos");
+                        if (!eos[i]) {
+                            byte[] indexKey = UIO.readByteArray(fis, "indexKey", intLongBuffer);
+                            byte[] prefix = UIO.readByteArray(fis, "prefix", intLongBuffer);
+                            byte[] key = UIO.readByteArray(fis, "key", intLongBuffer);
+                            quorumScan.fill(i, null,
+                                SecondaryIndexes.entryKey(indexName, indexKey, prefix, key),
+                                UIO.readByteArray(fis, "value", intLongBuffer),
+                                UIO.readLong(fis, "timestamp", intLongBuffer),
+                                UIO.readBoolean(fis, "tombstone"),
+                                UIO.readLong(fis, "version", intLongBuffer));
+                        } else {
+                            eosed++;
+                        }
+                    }
+                }
+                int wi = quorumScan.findWinningIndex();
+                if (wi > -1 && !quorumScan.stream(wi, entryStream)) {
+                    return false;
+                }
+            }
+            int wi;
+            while ((wi = quorumScan.findWinningIndex()) > -1) {
+                if (!quorumScan.stream(wi, entryStream)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private boolean scanInternal(Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        KeyValueFilter filter,
+        KeyValueTimestampStream stream,
+        boolean hydrateValues,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+
+        return partitionCallRouter.read(solutionLog.orElse(null), partitionName, consistency,
+            scanFamily(filter, hydrateValues),
+            scanCall(consistency, compressed, ranges, filter, hydrateValues),
+            scanMerger(consistency, compressed, hydrateValues, null, skipTombstones(stream)),
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonLeaderSolutionAfterNMillis,
+            abandonSolutionAfterNMillis);
+    }
+
+    private static String scanFamily(KeyValueFilter filter, boolean hydrateValues) {
+        return filter != null ? "scanFiltered" : hydrateValues ? "scan" : "scanKeys";
+    }
 
-        PartitionCall<C, CloseableStreamResponse, E> partitionCall = (leader, ringMember, client) -> {
+    private PartitionCall<C, CloseableStreamResponse, E> scanCall(Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        KeyValueFilter filter,
+        boolean hydrateValues) {
+        return (leader, ringMember, client) -> {
             return remotePartitionCaller.scan(leader, ringMember, client, consistency, compressed, ranges, filter, hydrateValues);
         };
+    }
 
-        KeyValueStream keyValueStream = (prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+    private static KeyValueStream skipTombstones(KeyValueTimestampStream stream) {
+        return (prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
             return valueTombstoned || stream.stream(prefix, key, value, valueTimestamp, valueVersion);
         };
+    }
 
-        String family = filter != null ? "scanFiltered" : hydrateValues ? "scan" : "scanKeys";
-        return partitionCallRouter.read(solutionLog.orElse(null), partitionName, consistency,
-            family,
-            partitionCall,
-            (answers) -> {
-                List<FilerInputStream> streams = Lists.newArrayList(Lists.transform(answers, input -> {
-                    try {
-                        CloseableStreamResponse streamResponse = input.getAnswer();
-                        debugStreamResponse(streamResponse);
-                        InputStream answerInputStream = streamResponse.getInputStream();
-                        InputStream inputStream = compressed ? new SnappyInputStream(new BufferedInputStream(answerInputStream, 8192)) : answerInputStream;
-                        return new FilerInputStream(inputStream);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }));
-                int size = streams.size();
-                if (merge && size > 1) {
-                    while (true) {
-                        int eosRange = 0;
-                        for (int i = 0; i < size; i++) {
-                            FilerInputStream fis = streams.get(i);
-                            if (UIO.readBoolean(fis, "eosRange")) {
-                                eosRange++;
-                            }
-                        }
-                        if (eosRange == size) {
-                            break;
-                        } else if (eosRange > 0) {
-                            throw new IllegalStateException("Answers returned mismatched ranges");
+    /**
+     * @param rangeIndex nullable, incremented as each range starts
+     * @param keyValueStream receives every merged row including tombstones
+     */
+    private Merger<Boolean, CloseableStreamResponse> scanMerger(Consistency consistency,
+        boolean compressed,
+        boolean hydrateValues,
+        AtomicInteger rangeIndex,
+        KeyValueStream keyValueStream) {
+
+        boolean merge;
+        if (consistency == Consistency.leader_plus_one
+            || consistency == Consistency.leader_quorum
+            || consistency == Consistency.quorum
+            || consistency == Consistency.write_one_read_all) {
+            merge = true;
+        } else {
+            merge = false;
+        }
+        byte[] intLongBuffer = new byte[8];
+
+        return (answers) -> {
+            List<FilerInputStream> streams = Lists.newArrayList(Lists.transform(answers, input -> {
+                try {
+                    CloseableStreamResponse streamResponse = input.getAnswer();
+                    debugStreamResponse(streamResponse);
+                    InputStream answerInputStream = streamResponse.getInputStream();
+                    InputStream inputStream = compressed ? new SnappyInputStream(new BufferedInputStream(answerInputStream, 8192)) : answerInputStream;
+                    return new FilerInputStream(inputStream);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+            int size = streams.size();
+            if (merge && size > 1) {
+                while (true) {
+                    int eosRange = 0;
+                    for (int i = 0; i < size; i++) {
+                        FilerInputStream fis = streams.get(i);
+                        if (UIO.readBoolean(fis, "eosRange")) {
+                            eosRange++;
                         }
+                    }
+                    if (eosRange == size) {
+                        break;
+                    } else if (eosRange > 0) {
+                        throw new IllegalStateException("Answers returned mismatched ranges");
+                    }
+                    if (rangeIndex != null) {
+                        rangeIndex.incrementAndGet();
+                    }
 
-                        boolean[] eos = new boolean[size];
-                        QuorumScan quorumScan = new QuorumScan(size);
-                        int eosed = 0;
-                        while (eosed < size) {
-                            for (int i = 0; i < size; i++) {
-                                if (quorumScan.used(i) && !eos[i]) {
-                                    FilerInputStream fis = streams.get(i);
-                                    eos[i] = UIO.readBoolean(fis, "eos");
-                                    if (!eos[i]) {
-                                        quorumScan.fill(i, UIO.readByteArray(fis, "prefix", intLongBuffer),
-                                            UIO.readByteArray(fis, "key", intLongBuffer),
-                                            hydrateValues ? UIO.readByteArray(fis, "value", intLongBuffer) : null,
-                                            UIO.readLong(fis, "timestamp", intLongBuffer),
-                                            UIO.readBoolean(fis, "tombstone"),
-                                            UIO.readLong(fis, "version", intLongBuffer));
-                                    } else {
-                                        eosed++;
-                                    }
+                    boolean[] eos = new boolean[size];
+                    QuorumScan quorumScan = new QuorumScan(size);
+                    int eosed = 0;
+                    while (eosed < size) {
+                        for (int i = 0; i < size; i++) {
+                            if (quorumScan.used(i) && !eos[i]) {
+                                FilerInputStream fis = streams.get(i);
+                                eos[i] = UIO.readBoolean(fis, "eos");
+                                if (!eos[i]) {
+                                    quorumScan.fill(i, UIO.readByteArray(fis, "prefix", intLongBuffer),
+                                        UIO.readByteArray(fis, "key", intLongBuffer),
+                                        hydrateValues ? UIO.readByteArray(fis, "value", intLongBuffer) : null,
+                                        UIO.readLong(fis, "timestamp", intLongBuffer),
+                                        UIO.readBoolean(fis, "tombstone"),
+                                        UIO.readLong(fis, "version", intLongBuffer));
+                                } else {
+                                    eosed++;
                                 }
                             }
-                            int wi = quorumScan.findWinningIndex();
-                            if (wi > -1 && !quorumScan.stream(wi, keyValueStream)) {
-                                return false;
-                            }
                         }
-                        int wi;
-                        while ((wi = quorumScan.findWinningIndex()) > -1) {
-                            if (!quorumScan.stream(wi, keyValueStream)) {
-                                return false;
-                            }
+                        int wi = quorumScan.findWinningIndex();
+                        if (wi > -1 && !quorumScan.stream(wi, keyValueStream)) {
+                            return false;
                         }
                     }
-                    LOG.debug("Merged {}", answers.size());
-                    return true;
+                    int wi;
+                    while ((wi = quorumScan.findWinningIndex()) > -1) {
+                        if (!quorumScan.stream(wi, keyValueStream)) {
+                            return false;
+                        }
+                    }
+                }
+                LOG.debug("Merged {}", answers.size());
+                return true;
 
-                } else if (size == 1) {
-                    FilerInputStream fis = streams.get(0);
-                    while (!UIO.readBoolean(fis, "eosRange")) {
-                        while (!UIO.readBoolean(fis, "eos")) {
-                            byte[] prefix = UIO.readByteArray(fis, "prefix", intLongBuffer);
-                            byte[] key = UIO.readByteArray(fis, "key", intLongBuffer);
-                            byte[] value = hydrateValues ? UIO.readByteArray(fis, "value", intLongBuffer) : null;
-                            long timestamp = UIO.readLong(fis, "timestamp", intLongBuffer);
-                            boolean tombstoned = UIO.readBoolean(fis, "tombstone");
-                            long version = UIO.readLong(fis, "version", intLongBuffer);
-                            if (!tombstoned && !stream.stream(prefix,
-                                key,
-                                value,
-                                timestamp,
-                                version)) {
-                                return false;
-                            }
+            } else if (size == 1) {
+                FilerInputStream fis = streams.get(0);
+                while (!UIO.readBoolean(fis, "eosRange")) {
+                    if (rangeIndex != null) {
+                        rangeIndex.incrementAndGet();
+                    }
+                    while (!UIO.readBoolean(fis, "eos")) {
+                        byte[] prefix = UIO.readByteArray(fis, "prefix", intLongBuffer);
+                        byte[] key = UIO.readByteArray(fis, "key", intLongBuffer);
+                        byte[] value = hydrateValues ? UIO.readByteArray(fis, "value", intLongBuffer) : null;
+                        long timestamp = UIO.readLong(fis, "timestamp", intLongBuffer);
+                        boolean tombstoned = UIO.readBoolean(fis, "tombstone");
+                        long version = UIO.readLong(fis, "version", intLongBuffer);
+                        if (!keyValueStream.stream(prefix,
+                            key,
+                            value,
+                            timestamp,
+                            tombstoned,
+                            version)) {
+                            return false;
                         }
                     }
-                    return true;
                 }
-                throw new RuntimeException("Failed to scan.");
-            },
-            awaitLeaderElectionForNMillis,
-            additionalSolverAfterNMillis,
-            abandonLeaderSolutionAfterNMillis,
-            abandonSolutionAfterNMillis);
+                return true;
+            }
+            throw new RuntimeException("Failed to scan.");
+        };
     }
 
     @Override
@@ -469,23 +911,11 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
         long abandonSolutionAfterNMillis,
         Optional<List<String>> solutionLog) throws Exception {
 
-        byte[] intLongBuffer = new byte[8];
         return partitionCallRouter.take(solutionLog.orElse(null), partitionName, membersInOrder, "takeFromTransactionId",
             (leader, ringMember, client) -> {
                 return remotePartitionCaller.takeFromTransactionId(leader, ringMember, client, membersTxId, limit);
             },
-            (answers) -> {
-                List<FilerInputStream> streams = Lists.newArrayList(
-                    Lists.transform(answers, input -> {
-                        CloseableStreamResponse streamResponse = input.getAnswer();
-                        debugStreamResponse(streamResponse);
-                        return new FilerInputStream(streamResponse.getInputStream());
-                    }));
-                if (streams.isEmpty()) {
-                    throw new RuntimeException("Failed to takeFromTransactionId.");
-                }
-                return take(streams.get(0), highwaters, stream, intLongBuffer);
-            },
+            takeMerger("takeFromTransactionId", highwaters, stream),
             awaitLeaderElectionForNMillis,
             additionalSolverAfterNMillis,
             abandonSolutionAfterNMillis);
@@ -501,32 +931,289 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
         long additionalSolverAfterNMillis,
         long abandonSolutionAfterNMillis,
         Optional<List<String>> solutionLog) throws Exception {
-        byte[] intLongBuffer = new byte[8];
         return partitionCallRouter.take(solutionLog.orElse(null), partitionName, membersInOrder, "takePrefixFromTransactionId",
             (leader, ringMember, client) -> {
                 return remotePartitionCaller.takePrefixFromTransactionId(leader, ringMember, client, prefix, membersTxId, limit);
             },
-            (answers) -> {
-                List<FilerInputStream> streams = Lists.newArrayList(
-                    Lists.transform(answers, input -> {
-                        CloseableStreamResponse streamResponse = input.getAnswer();
-                        debugStreamResponse(streamResponse);
-                        return new FilerInputStream(streamResponse.getInputStream());
-                    }));
-                if (streams.isEmpty()) {
-                    throw new RuntimeException("Failed to takePrefixFromTransactionId.");
+            takeMerger("takePrefixFromTransactionId", highwaters, stream),
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonSolutionAfterNMillis);
+    }
+
+    @Override
+    public TakeResult subscribe(List<RingMember> membersInOrder,
+        byte[] prefix,
+        Map<RingMember, Long> memberTxIds,
+        int limit,
+        long heartbeatIntervalMillis,
+        long sessionMillis,
+        Highwaters highwaters,
+        TxKeyValueStream stream,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+        return partitionCallRouter.take(solutionLog.orElse(null), partitionName, membersInOrder, "subscribe",
+            (leader, ringMember, client) -> {
+                return remotePartitionCaller.subscribe(leader, ringMember, client, prefix, memberTxIds, limit, heartbeatIntervalMillis,
+                    sessionMillis);
+            },
+            subscribeMerger(memberTxIds, highwaters, stream),
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonSolutionAfterNMillis);
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync(Consistency consistency,
+        byte[] prefix,
+        ClientUpdates updates,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) {
+
+        return partitionCallRouter.writeAsync(solutionLog.orElse(null), partitionName, consistency, "commit",
+            (leader, ringMember, client) -> {
+                return remotePartitionCaller.commit(leader, ringMember, client, consistency, prefix, updates, abandonSolutionAfterNMillis);
+            },
+            answers -> (Void) null,
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonSolutionAfterNMillis);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> getAsync(Consistency consistency,
+        byte[] prefix,
+        UnprefixedWALKeys keys,
+        KeyValueTimestampStream valuesStream,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) {
+        return getRawAsync(consistency,
+            prefix,
+            keys,
+            (prefix1, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                return valueTombstoned || valuesStream.stream(prefix1, key, value, valueTimestamp, valueVersion);
+            },
+            additionalSolverAfterNMillis,
+            abandonLeaderSolutionAfterNMillis,
+            abandonSolutionAfterNMillis,
+            solutionLog);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> getRawAsync(Consistency consistency,
+        byte[] prefix,
+        UnprefixedWALKeys keys,
+        KeyValueStream valuesStream,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) {
+        if (readRepairThreads != null && (consistency == Consistency.quorum || consistency == Consistency.write_one_read_all)) {
+            return getDigestAsync(consistency,
+                prefix,
+                keys,
+                valuesStream,
+                additionalSolverAfterNMillis,
+                abandonLeaderSolutionAfterNMillis,
+                abandonSolutionAfterNMillis,
+                solutionLog);
+        }
+        return partitionCallRouter.readAsync(solutionLog.orElse(null), partitionName, consistency, "get",
+            (leader, ringMember, client) -> {
+                return remotePartitionCaller.get(leader, ringMember, client, consistency, prefix, keys);
+            },
+            getMerger(valuesStream),
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonLeaderSolutionAfterNMillis,
+            abandonSolutionAfterNMillis)
+            .thenApply(ignored -> true);
+    }
+
+    /**
+     * Same digest read as {@link #getDigestInternal}. The fetch of newer values, like the merge, runs on the client thread which completed
+     * the solve.
+     */
+    private CompletableFuture<Boolean> getDigestAsync(Consistency consistency,
+        byte[] prefix,
+        UnprefixedWALKeys keys,
+        KeyValueStream stream,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) {
+
+        List<String> log = solutionLog.orElse(null);
+        AtomicReference<RingMember> valuesMember = new AtomicReference<>();
+        return partitionCallRouter.readAsync(log, partitionName, consistency, "getDigest",
+            digestCall(valuesMember, consistency, prefix, keys),
+            digestMerger(valuesMember),
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonLeaderSolutionAfterNMillis,
+            abandonSolutionAfterNMillis)
+            .thenApply(rows -> {
+                try {
+                    return fetchRepairAndStream(log, consistency, prefix, rows, stream, abandonSolutionAfterNMillis);
+                } catch (Exception x) {
+                    throw new CompletionException(x);
                 }
-                return take(streams.get(0), highwaters, stream, intLongBuffer);
+            });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> scanAsync(Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        KeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) {
+        return scanInternalAsync(consistency, compressed, ranges, scan, true,
+            additionalSolverAfterNMillis, abandonLeaderSolutionAfterNMillis, abandonSolutionAfterNMillis, solutionLog);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> scanKeysAsync(Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        KeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) {
+        return scanInternalAsync(consistency, compressed, ranges, scan, false,
+            additionalSolverAfterNMillis, abandonLeaderSolutionAfterNMillis, abandonSolutionAfterNMillis, solutionLog);
+    }
+
+    private CompletableFuture<Boolean> scanInternalAsync(Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        KeyValueTimestampStream stream,
+        boolean hydrateValues,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) {
+
+        return partitionCallRouter.readAsync(solutionLog.orElse(null), partitionName, consistency,
+            scanFamily(null, hydrateValues),
+            scanCall(consistency, compressed, ranges, null, hydrateValues),
+            scanMerger(consistency, compressed, hydrateValues, null, skipTombstones(stream)),
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonLeaderSolutionAfterNMillis,
+            abandonSolutionAfterNMillis);
+    }
+
+    @Override
+    public CompletableFuture<TakeResult> takeFromTransactionIdAsync(List<RingMember> membersInOrder,
+        Map<RingMember, Long> membersTxId,
+        int limit,
+        Highwaters highwaters,
+        TxKeyValueStream stream,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) {
+
+        return partitionCallRouter.takeAsync(solutionLog.orElse(null), partitionName, membersInOrder, "takeFromTransactionId",
+            (leader, ringMember, client) -> {
+                return remotePartitionCaller.takeFromTransactionId(leader, ringMember, client, membersTxId, limit);
+            },
+            takeMerger("takeFromTransactionId", highwaters, stream),
+            awaitLeaderElectionForNMillis,
+            additionalSolverAfterNMillis,
+            abandonSolutionAfterNMillis);
+    }
+
+    @Override
+    public CompletableFuture<TakeResult> takePrefixFromTransactionIdAsync(List<RingMember> membersInOrder,
+        byte[] prefix,
+        Map<RingMember, Long> membersTxId,
+        int limit,
+        Highwaters highwaters,
+        TxKeyValueStream stream,
+        long additionalSolverAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) {
+
+        return partitionCallRouter.takeAsync(solutionLog.orElse(null), partitionName, membersInOrder, "takePrefixFromTransactionId",
+            (leader, ringMember, client) -> {
+                return remotePartitionCaller.takePrefixFromTransactionId(leader, ringMember, client, prefix, membersTxId, limit);
             },
+            takeMerger("takePrefixFromTransactionId", highwaters, stream),
             awaitLeaderElectionForNMillis,
             additionalSolverAfterNMillis,
             abandonSolutionAfterNMillis);
     }
 
+    private Merger<TakeResult, CloseableStreamResponse> takeMerger(String family, Highwaters highwaters, TxKeyValueStream stream) {
+        byte[] intLongBuffer = new byte[8];
+        return (answers) -> {
+            List<FilerInputStream> streams = Lists.newArrayList(
+                Lists.transform(answers, input -> {
+                    CloseableStreamResponse streamResponse = input.getAnswer();
+                    debugStreamResponse(streamResponse);
+                    return new FilerInputStream(streamResponse.getInputStream());
+                }));
+            if (streams.isEmpty()) {
+                throw new RuntimeException("Failed to " + family + ".");
+            }
+            return take(streams.get(0), highwaters, stream, intLongBuffer);
+        };
+    }
+
+    private Merger<TakeResult, CloseableStreamResponse> subscribeMerger(Map<RingMember, Long> memberTxIds,
+        Highwaters highwaters,
+        TxKeyValueStream stream) {
+        byte[] intLongBuffer = new byte[8];
+        return (answers) -> {
+            List<FilerInputStream> streams = Lists.newArrayList(
+                Lists.transform(answers, input -> {
+                    CloseableStreamResponse streamResponse = input.getAnswer();
+                    debugStreamResponse(streamResponse);
+                    return new FilerInputStream(streamResponse.getInputStream());
+                }));
+            if (streams.isEmpty()) {
+                throw new RuntimeException("Failed to subscribe.");
+            }
+            FilerInputStream fis = streams.get(0);
+            RingMember ringMember = new RingMember(UIO.readByteArray(fis, "ringMember", intLongBuffer));
+            long lastTxId = memberTxIds.getOrDefault(ringMember, -1L);
+            WALHighwater tookToEnd = null;
+            boolean[] stopped = { false };
+            while (UIO.readBoolean(fis, "more")) {
+                TakeResult takeResult = takeBatch(fis, ringMember, highwaters, stream, intLongBuffer, stopped);
+                ringMember = takeResult.tookFrom;
+                lastTxId = Math.max(lastTxId, takeResult.lastTxId);
+                if (stopped[0]) {
+                    return new TakeResult(ringMember, lastTxId, null);
+                }
+                tookToEnd = takeResult.tookToEnd;
+            }
+            return new TakeResult(ringMember, lastTxId, tookToEnd);
+        };
+    }
+
     private TakeResult take(FilerInputStream fis, Highwaters highwaters, TxKeyValueStream stream, byte[] intLongBuffer) throws Exception {
-        long maxTxId = -1;
         byte[] ringMemberBytes = UIO.readByteArray(fis, "ringMember", intLongBuffer);
         RingMember ringMember = new RingMember(ringMemberBytes);
+        return takeBatch(fis, ringMember, highwaters, stream, intLongBuffer, new boolean[1]);
+    }
+
+    private TakeResult takeBatch(FilerInputStream fis,
+        RingMember ringMember,
+        Highwaters highwaters,
+        TxKeyValueStream stream,
+        byte[] intLongBuffer,
+        boolean[] stopped) throws Exception {
+
+        long maxTxId = -1;
         TxResult done = null;
 
         while (!UIO.readBoolean(fis, "eos")) {
@@ -537,6 +1224,7 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
                 long rowTxId = UIO.readLong(fis, "rowTxId", intLongBuffer);
                 if (done != null && rowTxId > maxTxId) {
                     // streamed to end of txId
+                    stopped[0] = true;
                     return new TakeResult(ringMember, maxTxId, null);
                 }
 
@@ -568,6 +1256,7 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
                             done = result;
                         } else {
                             // reject entire txId
+                            stopped[0] = true;
                             return new TakeResult(ringMember, maxTxId, null);
                         }
                     }
@@ -575,9 +1264,11 @@ public class AmzaPartitionClient<C, E extends Throwable> implements PartitionCli
             }
         }
 
-        ringMemberBytes = UIO.readByteArray(fis, "ringMember", intLongBuffer);
-        ringMember = new RingMember(ringMemberBytes);
-        return new TakeResult(ringMember,
+        byte[] ringMemberBytes = UIO.readByteArray(fis, "ringMember", intLongBuffer);
+        if (done != null) {
+            stopped[0] = true;
+        }
+        return new TakeResult(new RingMember(ringMemberBytes),
             UIO.readLong(fis, "lastTxId", intLongBuffer),
             readHighwaters(fis, intLongBuffer));
     }
@@ -4,12 +4,26 @@ import com.jivesoftware.os.amza.api.PartitionClient;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.routing.bird.http.client.HttpClient;
 import com.jivesoftware.os.routing.bird.shared.HttpClientException;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author jonathan.colt
  */
 public class HttpPartitionClientFactory implements PartitionClientFactory<HttpClient, HttpClientException> {
 
+    private final ExecutorService readRepairThreads;
+
+    public HttpPartitionClientFactory() {
+        this(null);
+    }
+
+    /**
+     * @param readRepairThreads when non-null, clients use digest reads and repair stale replicas on these threads
+     */
+    public HttpPartitionClientFactory(ExecutorService readRepairThreads) {
+        this.readRepairThreads = readRepairThreads;
+    }
+
     @Override
     public PartitionClient create(PartitionName partitionName,
         AmzaClientCallRouter<HttpClient, HttpClientException> partitionCallRouter,
@@ -19,7 +33,7 @@ public class HttpPartitionClientFactory implements PartitionClientFactory<HttpCl
 
         HttpRemotePartitionCaller remotePartitionCaller = new HttpRemotePartitionCaller(partitionCallRouter, partitionName);
         return new AmzaPartitionClient<>(partitionName, partitionCallRouter, remotePartitionCaller, awaitLeaderElectionForNMillis,
-            debugClientCount, debugClientCountInterval);
+            debugClientCount, debugClientCountInterval, readRepairThreads);
     }
 
 }
@@ -0,0 +1,82 @@
+package com.jivesoftware.os.amza.client.http;
+
+import com.jivesoftware.os.amza.api.PartitionCommit;
+import com.jivesoftware.os.amza.api.filer.FilerOutputStream;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.partition.Consistency;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import com.jivesoftware.os.routing.bird.http.client.HttpClient;
+import com.jivesoftware.os.routing.bird.http.client.HttpStreamResponse;
+import com.jivesoftware.os.routing.bird.shared.HttpClientException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ *
+ */
+public class HttpRemoteCommitBatchCaller implements RemoteCommitBatchCaller<HttpClient, HttpClientException> {
+
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
+    @Override
+    public PartitionResponse<PartitionCommit.Status[]> commitBatch(RingMember ringMember,
+        HttpClient client,
+        Consistency consistency,
+        boolean checkLeader,
+        List<PartitionCommit> commits,
+        PartitionCommit.Status[] statuses,
+        long abandonSolutionAfterNMillis) throws HttpClientException {
+
+        byte[] lengthBuffer = new byte[8];
+        HttpStreamResponse got = client.streamingPostStreamableRequest("/amza/v1/commitBatch/" + consistency.name() + "/" + checkLeader,
+            (out) -> {
+                try {
+                    FilerOutputStream fos = new FilerOutputStream(out);
+                    UIO.writeLong(fos, abandonSolutionAfterNMillis, "timeoutInMillis", lengthBuffer);
+                    for (PartitionCommit commit : commits) {
+                        UIO.write(fos, new byte[]{0}, "eos");
+                        UIO.writeByteArray(fos, commit.partitionName.toBytes(), "partitionName", lengthBuffer);
+                        UIO.writeByteArray(fos, commit.prefix, "prefix", lengthBuffer);
+                        commit.updates.updates((key, value, valueTimestamp, valueTombstoned) -> {
+                            UIO.write(fos, new byte[]{0}, "eos");
+                            UIO.writeByteArray(fos, key, "key", lengthBuffer);
+                            UIO.writeByteArray(fos, value, "value", lengthBuffer);
+                            UIO.writeLong(fos, valueTimestamp, "valueTimestamp", lengthBuffer);
+                            UIO.write(fos, new byte[]{valueTombstoned ? (byte) 1 : (byte) 0}, "valueTombstoned");
+                            return true;
+                        });
+                        UIO.write(fos, new byte[]{1}, "eos");
+                    }
+                    UIO.write(fos, new byte[]{1}, "eos");
+                } catch (Exception x) {
+                    throw new RuntimeException("Failed while streaming commit batch.", x);
+                } finally {
+                    out.close();
+                }
+            }, null);
+
+        // the host streams a status as each partition finishes, so whatever was read before a failure is still accurate
+        try {
+            if (got.getStatusCode() < 200 || got.getStatusCode() >= 300) {
+                return new PartitionResponse<>(statuses, false);
+            }
+            InputStream in = got.getInputStream();
+            for (int i = 0; i < statuses.length; i++) {
+                int status = in.read();
+                if (status == -1) {
+                    return new PartitionResponse<>(statuses, false);
+                }
+                statuses[i] = PartitionCommit.Status.fromByte((byte) status);
+            }
+            return new PartitionResponse<>(statuses, true);
+        } catch (IOException x) {
+            LOG.warn("Failed while reading commit batch statuses from {}", new Object[] { ringMember }, x);
+            return new PartitionResponse<>(statuses, false);
+        } finally {
+            got.close();
+        }
+    }
+}
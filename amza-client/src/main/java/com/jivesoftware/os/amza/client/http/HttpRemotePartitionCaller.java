@@ -10,6 +10,7 @@ import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.Commitable;
 import com.jivesoftware.os.amza.api.stream.OffsetUnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
 import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
@@ -94,6 +95,44 @@ public class HttpRemotePartitionCaller implements RemotePartitionCaller<HttpClie
         return new PartitionResponse<>(new NoOpCloseable(), got.getStatusCode() >= 200 && got.getStatusCode() < 300);
     }
 
+    @Override
+    public PartitionResponse<NoOpCloseable> repair(RingMember leader,
+        RingMember ringMember,
+        HttpClient client,
+        byte[] prefix,
+        Commitable rows,
+        long abandonSolutionAfterNMillis) throws HttpClientException {
+
+        byte[] lengthBuffer = new byte[8];
+        HttpResponse got = client.postStreamableRequest("/amza/v1/repair/" + base64PartitionName,
+            (out) -> {
+                try {
+
+                    FilerOutputStream fos = new FilerOutputStream(out);
+                    UIO.writeByteArray(fos, prefix, "prefix", lengthBuffer);
+                    UIO.writeLong(fos, abandonSolutionAfterNMillis, "timeoutInMillis", lengthBuffer);
+
+                    rows.commitable(null, (rowTxId, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                        UIO.write(fos, new byte[]{0}, "eos");
+                        UIO.writeByteArray(fos, key, "key", lengthBuffer);
+                        UIO.writeByteArray(fos, value, "value", lengthBuffer);
+                        UIO.writeLong(fos, valueTimestamp, "valueTimestamp", lengthBuffer);
+                        UIO.write(fos, new byte[]{valueTombstoned ? (byte) 1 : (byte) 0}, "valueTombstoned");
+                        UIO.writeLong(fos, valueVersion, "valueVersion", lengthBuffer);
+                        return true;
+                    });
+                    UIO.write(fos, new byte[]{1}, "eos");
+                } catch (Exception x) {
+                    throw new RuntimeException("Failed while streaming repairs.", x);
+                } finally {
+                    out.close();
+                }
+            }, null);
+
+        handleLeaderStatusCodes(Consistency.none, got.getStatusCode(), got.getStatusReasonPhrase(), null);
+        return new PartitionResponse<>(new NoOpCloseable(), got.getStatusCode() >= 200 && got.getStatusCode() < 300);
+    }
+
     @Override
     public PartitionResponse<CloseableStreamResponse> get(RingMember leader,
         RingMember ringMember,
@@ -126,6 +165,38 @@ public class HttpRemotePartitionCaller implements RemotePartitionCaller<HttpClie
         return new PartitionResponse<>(closeableHttpStreamResponse, got.getStatusCode() >= 200 && got.getStatusCode() < 300);
     }
 
+    @Override
+    public PartitionResponse<CloseableStreamResponse> getDigest(RingMember leader,
+        RingMember ringMember,
+        HttpClient client,
+        Consistency consistency,
+        byte[] prefix,
+        UnprefixedWALKeys keys) throws HttpClientException {
+
+        byte[] intLongBuffer = new byte[8];
+        HttpStreamResponse got = client.streamingPostStreamableRequest(
+            "/amza/v1/getDigest/" + base64PartitionName + "/" + consistency.name() + "/" + ringMember.equals(leader),
+            (out) -> {
+                try {
+                    FilerOutputStream fos = new FilerOutputStream(out);
+                    UIO.writeByteArray(fos, prefix, "prefix", intLongBuffer);
+                    keys.consume((key) -> {
+                        UIO.write(fos, new byte[]{0}, "eos");
+                        UIO.writeByteArray(fos, key, "key", intLongBuffer);
+                        return true;
+                    });
+                    UIO.write(fos, new byte[]{1}, "eos");
+                } catch (Exception x) {
+                    throw new RuntimeException("Failed while streaming keys.", x);
+                } finally {
+                    out.close();
+                }
+            }, null);
+        CloseableHttpStreamResponse closeableHttpStreamResponse = new CloseableHttpStreamResponse(got);
+        handleLeaderStatusCodes(consistency, got.getStatusCode(), got.getStatusReasonPhrase(), closeableHttpStreamResponse);
+        return new PartitionResponse<>(closeableHttpStreamResponse, got.getStatusCode() >= 200 && got.getStatusCode() < 300);
+    }
+
     @Override
     public PartitionResponse<CloseableStreamResponse> getOffset(RingMember leader,
         RingMember ringMember,
@@ -215,15 +286,33 @@ public class HttpRemotePartitionCaller implements RemotePartitionCaller<HttpClie
                         UIO.writeByteArray(fos, classMD5Bytes.bytes, "classBytes", intLongBuffer);
                         new ObjectOutputStream(out).writeObject(filter);
                     }
-                    ranges.consume((fromPrefix, fromKey, toPrefix, toKey) -> {
-                        UIO.writeByte(fos, (byte) 1, "eos");
-                        UIO.writeByteArray(fos, fromPrefix, "fromPrefix", intLongBuffer);
-                        UIO.writeByteArray(fos, fromKey, "fromKey", intLongBuffer);
-                        UIO.writeByteArray(fos, toPrefix, "toPrefix", intLongBuffer);
-                        UIO.writeByteArray(fos, toKey, "toKey", intLongBuffer);
-                        return true;
-                    });
-                    UIO.writeByte(fos, (byte) 0, "eos");
+                    writeRanges(fos, ranges, intLongBuffer);
+                } catch (Exception x) {
+                    throw new RuntimeException("Failed while scanning ranges.", x);
+                } finally {
+                    out.close();
+                }
+            }, null);
+
+        return new PartitionResponse<>(new CloseableHttpStreamResponse(got), got.getStatusCode() >= 200 && got.getStatusCode() < 300);
+    }
+
+    @Override
+    public PartitionResponse<CloseableStreamResponse> scanPage(RingMember leader,
+        RingMember ringMember,
+        HttpClient client,
+        Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        boolean hydrateValues,
+        int limit) throws HttpClientException {
+
+        String pathPrefix = compressed ? "/amza/v1/multiScanPageCompressed/" : "/amza/v1/multiScanPage/";
+        HttpStreamResponse got = client.streamingPostStreamableRequest(
+            pathPrefix + base64PartitionName + "/" + consistency.name() + "/" + ringMember.equals(leader) + "/" + hydrateValues + "/" + limit,
+            (out) -> {
+                try {
+                    writeRanges(new FilerOutputStream(out), ranges, new byte[8]);
                 } catch (Exception x) {
                     throw new RuntimeException("Failed while scanning ranges.", x);
                 } finally {
@@ -234,6 +323,48 @@ public class HttpRemotePartitionCaller implements RemotePartitionCaller<HttpClie
         return new PartitionResponse<>(new CloseableHttpStreamResponse(got), got.getStatusCode() >= 200 && got.getStatusCode() < 300);
     }
 
+    @Override
+    public PartitionResponse<CloseableStreamResponse> scanIndex(RingMember leader,
+        RingMember ringMember,
+        HttpClient client,
+        Consistency consistency,
+        boolean compressed,
+        String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey) throws HttpClientException {
+
+        String pathPrefix = compressed ? "/amza/v1/scanIndexCompressed/" : "/amza/v1/scanIndex/";
+        HttpStreamResponse got = client.streamingPostStreamableRequest(
+            pathPrefix + base64PartitionName + "/" + consistency.name() + "/" + ringMember.equals(leader),
+            (out) -> {
+                try {
+                    byte[] intLongBuffer = new byte[8];
+                    FilerOutputStream fos = new FilerOutputStream(out);
+                    UIO.writeByteArray(fos, indexName.getBytes(StandardCharsets.UTF_8), "indexName", intLongBuffer);
+                    UIO.writeByteArray(fos, fromIndexKey, "fromIndexKey", intLongBuffer);
+                    UIO.writeByteArray(fos, toIndexKey, "toIndexKey", intLongBuffer);
+                } catch (Exception x) {
+                    throw new RuntimeException("Failed while scanning index.", x);
+                } finally {
+                    out.close();
+                }
+            }, null);
+
+        return new PartitionResponse<>(new CloseableHttpStreamResponse(got), got.getStatusCode() >= 200 && got.getStatusCode() < 300);
+    }
+
+    private static void writeRanges(FilerOutputStream fos, PrefixedKeyRanges ranges, byte[] intLongBuffer) throws Exception {
+        ranges.consume((fromPrefix, fromKey, toPrefix, toKey) -> {
+            UIO.writeByte(fos, (byte) 1, "eos");
+            UIO.writeByteArray(fos, fromPrefix, "fromPrefix", intLongBuffer);
+            UIO.writeByteArray(fos, fromKey, "fromKey", intLongBuffer);
+            UIO.writeByteArray(fos, toPrefix, "toPrefix", intLongBuffer);
+            UIO.writeByteArray(fos, toKey, "toKey", intLongBuffer);
+            return true;
+        });
+        UIO.writeByte(fos, (byte) 0, "eos");
+    }
+
     @Override
     public PartitionResponse<CloseableStreamResponse> takeFromTransactionId(RingMember leader,
         RingMember ringMember,
@@ -282,6 +413,36 @@ public class HttpRemotePartitionCaller implements RemotePartitionCaller<HttpClie
         return new PartitionResponse<>(new CloseableHttpStreamResponse(got), got.getStatusCode() >= 200 && got.getStatusCode() < 300);
     }
 
+    @Override
+    public PartitionResponse<CloseableStreamResponse> subscribe(RingMember leader,
+        RingMember ringMember,
+        HttpClient client,
+        byte[] prefix,
+        Map<RingMember, Long> membersTxId,
+        int limit,
+        long heartbeatIntervalMillis,
+        long sessionMillis) throws HttpClientException {
+
+        byte[] intLongBuffer = new byte[8];
+
+        long transactionId = membersTxId.getOrDefault(ringMember, -1L);
+        HttpStreamResponse got = client.streamingPostStreamableRequest(
+            "/amza/v1/subscribe/" + base64PartitionName + '/' + limit,
+            (out) -> {
+                try {
+                    FilerOutputStream fos = new FilerOutputStream(out);
+                    UIO.writeByteArray(fos, prefix, "prefix", intLongBuffer);
+                    UIO.writeLong(fos, transactionId, "transactionId", intLongBuffer);
+                    UIO.writeLong(fos, heartbeatIntervalMillis, "heartbeatIntervalMillis", intLongBuffer);
+                    UIO.writeLong(fos, sessionMillis, "sessionMillis", intLongBuffer);
+                } finally {
+                    out.close();
+                }
+            }, null);
+
+        return new PartitionResponse<>(new CloseableHttpStreamResponse(got), got.getStatusCode() >= 200 && got.getStatusCode() < 300);
+    }
+
     private void handleLeaderStatusCodes(Consistency consistency, int statusCode, String statusReasonPhrase, Closeable closeable) {
         if (statusCode == HttpStatus.SC_BAD_REQUEST) {
             try {
@@ -0,0 +1,26 @@
+package com.jivesoftware.os.amza.client.http;
+
+import com.jivesoftware.os.amza.api.PartitionCommit;
+import com.jivesoftware.os.amza.api.partition.Consistency;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import java.util.List;
+
+/**
+ *
+ */
+public interface RemoteCommitBatchCaller<C, E extends Throwable> {
+
+    /**
+     * Ships the commits for every partition routed to the given ring member in one request. Each status is recorded in statuses, in the
+     * order the commits were given, as soon as the host reports it, so a caller whose request fails part way still knows which commits landed.
+     *
+     * @return the statuses, complete only if the host reported every commit
+     */
+    PartitionResponse<PartitionCommit.Status[]> commitBatch(RingMember ringMember,
+        C client,
+        Consistency consistency,
+        boolean checkLeader,
+        List<PartitionCommit> commits,
+        PartitionCommit.Status[] statuses,
+        long abandonSolutionAfterNMillis) throws E;
+}
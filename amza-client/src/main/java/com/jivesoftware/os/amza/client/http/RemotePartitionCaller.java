@@ -4,6 +4,7 @@ import com.jivesoftware.os.amza.api.PartitionClient.KeyValueFilter;
 import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.Commitable;
 import com.jivesoftware.os.amza.api.stream.OffsetUnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
 import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
@@ -22,6 +23,17 @@ public interface RemotePartitionCaller<C, E extends Throwable> {
         ClientUpdates updates,
         long abandonSolutionAfterNMillis) throws E;
 
+    /**
+     * Applies rows with their timestamps and versions intact and without awaiting any quorum, so the replica ends up holding exactly the
+     * rows another replica holds. The txIds of the streamed rows are ignored.
+     */
+    PartitionResponse<NoOpCloseable> repair(RingMember leader,
+        RingMember ringMember,
+        C client,
+        byte[] prefix,
+        Commitable rows,
+        long abandonSolutionAfterNMillis) throws E;
+
     PartitionResponse<CloseableStreamResponse> get(RingMember leader,
         RingMember ringMember,
         C client,
@@ -29,6 +41,16 @@ public interface RemotePartitionCaller<C, E extends Throwable> {
         byte[] prefix,
         UnprefixedWALKeys keys) throws E;
 
+    /**
+     * Streams the eos, prefix, key, timestamp, tombstone and version of each requested key, omitting the value.
+     */
+    PartitionResponse<CloseableStreamResponse> getDigest(RingMember leader,
+        RingMember ringMember,
+        C client,
+        Consistency consistency,
+        byte[] prefix,
+        UnprefixedWALKeys keys) throws E;
+
     PartitionResponse<CloseableStreamResponse> getOffset(RingMember leader,
         RingMember ringMember,
         C client,
@@ -45,6 +67,31 @@ public interface RemotePartitionCaller<C, E extends Throwable> {
         KeyValueFilter filter,
         boolean hydrateValues) throws E;
 
+    /**
+     * Like {@link #scan} without a filter, except the replica stops after streaming {@code limit} rows.
+     */
+    PartitionResponse<CloseableStreamResponse> scanPage(RingMember leader,
+        RingMember ringMember,
+        C client,
+        Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        boolean hydrateValues,
+        int limit) throws E;
+
+    /**
+     * @param fromIndexKey nullable (inclusive)
+     * @param toIndexKey nullable (exclusive)
+     */
+    PartitionResponse<CloseableStreamResponse> scanIndex(RingMember leader,
+        RingMember ringMember,
+        C client,
+        Consistency consistency,
+        boolean compressed,
+        String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey) throws E;
+
     PartitionResponse<CloseableStreamResponse> takeFromTransactionId(RingMember leader,
         RingMember ringMember,
         C client,
@@ -58,6 +105,15 @@ public interface RemotePartitionCaller<C, E extends Throwable> {
         Map<RingMember, Long> membersTxId,
         int limit) throws E;
 
+    PartitionResponse<CloseableStreamResponse> subscribe(RingMember leader,
+        RingMember ringMember,
+        C client,
+        byte[] prefix,
+        Map<RingMember, Long> membersTxId,
+        int limit,
+        long heartbeatIntervalMillis,
+        long sessionMillis) throws E;
+
     PartitionResponse<CloseableLong> getApproximateCount(RingMember leader,
         RingMember ringMember,
         C client) throws E;
@@ -0,0 +1,185 @@
+package com.jivesoftware.os.amza.client.http;
+
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.amza.api.ring.RingMemberAndHost;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the observed response latency of each replica so reads can prefer the fastest healthy replicas and hedge once a replica runs past
+ * its own p95 instead of a fixed delay. Latencies are kept as an EWMA plus a decaying log-linear histogram per replica.
+ */
+public class ReplicaLatencies {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = 64 * SUB_BUCKETS;
+
+    private final Map<RingMemberAndHost, Stats> stats = Maps.newConcurrentMap();
+    private final double ewmaAlpha;
+    private final int minSamples;
+    private final int decayAfterNSamples;
+    private final long failureBackoffMillis;
+
+    public ReplicaLatencies() {
+        this(0.2, 20, 1_000, 5_000L);
+    }
+
+    public ReplicaLatencies(double ewmaAlpha, int minSamples, int decayAfterNSamples, long failureBackoffMillis) {
+        this.ewmaAlpha = ewmaAlpha;
+        this.minSamples = minSamples;
+        this.decayAfterNSamples = decayAfterNSamples;
+        this.failureBackoffMillis = failureBackoffMillis;
+    }
+
+    void started(RingMemberAndHost ringMemberAndHost) {
+        stats(ringMemberAndHost).inflight.incrementAndGet();
+    }
+
+    void completed(RingMemberAndHost ringMemberAndHost, long elapsedNanos) {
+        Stats s = stats(ringMemberAndHost);
+        s.inflight.decrementAndGet();
+        s.record(elapsedNanos);
+    }
+
+    /**
+     * Records a call abandoned because another replica answered first. Its elapsed time is only a lower bound on the replica's latency and is
+     * cut short by whichever replica won, so recording it as is would drag a consistently slow replica's EWMA and p95 down towards the
+     * winner's. It is recorded as no faster than the replica's current estimate instead.
+     */
+    void abandoned(RingMemberAndHost ringMemberAndHost, long elapsedNanos) {
+        Stats s = stats(ringMemberAndHost);
+        s.inflight.decrementAndGet();
+        s.record(Math.max(elapsedNanos, (long) s.ewmaNanos));
+    }
+
+    void failed(RingMemberAndHost ringMemberAndHost, long elapsedNanos) {
+        Stats s = stats(ringMemberAndHost);
+        s.inflight.decrementAndGet();
+        s.lastFailureTimestamp = System.currentTimeMillis();
+        s.record(elapsedNanos);
+    }
+
+    /**
+     * @return a copy of the members with healthy replicas first, each group ordered by EWMA latency weighted by in-flight requests
+     */
+    RingMemberAndHost[] order(RingMemberAndHost[] ringMemberAndHosts) {
+        long now = System.currentTimeMillis();
+        long[] unhealthy = new long[ringMemberAndHosts.length];
+        double[] scores = new double[ringMemberAndHosts.length];
+        Integer[] indexes = new Integer[ringMemberAndHosts.length];
+        for (int i = 0; i < ringMemberAndHosts.length; i++) {
+            indexes[i] = i;
+            Stats s = ringMemberAndHosts[i] == null ? null : stats.get(ringMemberAndHosts[i]);
+            if (s != null) {
+                unhealthy[i] = (now - s.lastFailureTimestamp < failureBackoffMillis) ? 1 : 0;
+                scores[i] = s.ewmaNanos * (s.inflight.get() + 1);
+            }
+        }
+        // stable so ties keep the caller's (typically randomized) order
+        Arrays.sort(indexes, Comparator.<Integer>comparingLong(i -> unhealthy[i]).thenComparingDouble(i -> scores[i]));
+        RingMemberAndHost[] ordered = new RingMemberAndHost[ringMemberAndHosts.length];
+        for (int i = 0; i < indexes.length; i++) {
+            ordered[i] = ringMemberAndHosts[indexes[i]];
+        }
+        return ordered;
+    }
+
+    /**
+     * @return the replica's observed p95 in millis capped at the given default, or the default when too few samples have been recorded
+     */
+    long hedgeAfterMillis(RingMemberAndHost ringMemberAndHost, long defaultMillis) {
+        Stats s = stats.get(ringMemberAndHost);
+        if (s == null) {
+            return defaultMillis;
+        }
+        long p95Nanos = s.percentileNanos(0.95, minSamples);
+        if (p95Nanos < 0) {
+            return defaultMillis;
+        }
+        return Math.max(1, Math.min(defaultMillis, p95Nanos / 1_000_000));
+    }
+
+    /**
+     * @return the replica's observed latency in millis at the given percentile, or -1 when too few samples have been recorded
+     */
+    public long percentileMillis(RingMemberAndHost ringMemberAndHost, double percentile) {
+        Stats s = stats.get(ringMemberAndHost);
+        long nanos = s == null ? -1 : s.percentileNanos(percentile, minSamples);
+        return nanos < 0 ? -1 : nanos / 1_000_000;
+    }
+
+    public double ewmaMillis(RingMemberAndHost ringMemberAndHost) {
+        Stats s = stats.get(ringMemberAndHost);
+        return s == null ? 0d : s.ewmaNanos / 1_000_000d;
+    }
+
+    private Stats stats(RingMemberAndHost ringMemberAndHost) {
+        return stats.computeIfAbsent(ringMemberAndHost, key -> new Stats());
+    }
+
+    private class Stats {
+
+        private final AtomicInteger inflight = new AtomicInteger();
+        private final long[] buckets = new long[NUM_BUCKETS];
+        private long count;
+        private long samplesSinceDecay;
+        private volatile double ewmaNanos;
+        private volatile long lastFailureTimestamp;
+
+        synchronized void record(long elapsedNanos) {
+            long nanos = Math.max(1, elapsedNanos);
+            ewmaNanos = ewmaNanos == 0 ? nanos : ewmaNanos + ewmaAlpha * (nanos - ewmaNanos);
+            buckets[bucket(nanos)]++;
+            count++;
+            samplesSinceDecay++;
+            if (samplesSinceDecay >= decayAfterNSamples) {
+                count = 0;
+                for (int i = 0; i < buckets.length; i++) {
+                    buckets[i] >>>= 1;
+                    count += buckets[i];
+                }
+                samplesSinceDecay = 0;
+            }
+        }
+
+        synchronized long percentileNanos(double percentile, int minSamples) {
+            if (count < minSamples) {
+                return -1;
+            }
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(buckets.length - 1);
+        }
+    }
+
+    /**
+     * Log-linear buckets: each power of two is split into {@link #SUB_BUCKETS} equal ranges.
+     */
+    static int bucket(long nanos) {
+        int msb = 63 - Long.numberOfLeadingZeros(nanos);
+        if (msb < SUB_BUCKET_BITS) {
+            return (int) nanos;
+        }
+        int sub = (int) ((nanos >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (msb - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int msb = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lower = (1L << msb) + (sub << (msb - SUB_BUCKET_BITS));
+        return lower + (1L << (msb - SUB_BUCKET_BITS)) - 1;
+    }
+}
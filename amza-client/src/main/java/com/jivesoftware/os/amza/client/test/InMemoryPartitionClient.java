@@ -2,8 +2,11 @@ package com.jivesoftware.os.amza.client.test;
 
 import com.jivesoftware.os.amza.api.PartitionClient;
 import com.jivesoftware.os.amza.api.partition.Consistency;
+import com.jivesoftware.os.amza.api.partition.SecondaryIndexDefinition;
 import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.scan.ScanCursor;
 import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyValueTimestampStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueTimestampStream;
 import com.jivesoftware.os.amza.api.stream.OffsetUnprefixedWALKeys;
@@ -14,6 +17,8 @@ import com.jivesoftware.os.amza.api.stream.TxKeyValueStream.TxResult;
 import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.take.Highwaters;
 import com.jivesoftware.os.amza.api.take.TakeResult;
+import com.jivesoftware.os.amza.api.wal.KeyUtil;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
 import com.jivesoftware.os.amza.api.wal.WALHighwater;
 import com.jivesoftware.os.amza.api.wal.WALHighwater.RingMemberHighwater;
 import com.jivesoftware.os.amza.api.wal.WALKey;
@@ -24,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -37,6 +43,7 @@ public class InMemoryPartitionClient implements PartitionClient {
     private final ConcurrentSkipListMap<Long, Tx> transactions;
     private final ConcurrentSkipListMap<byte[], WALValue> index;
     private final OrderIdProvider orderIdProvider;
+    private final SecondaryIndexes secondaryIndexes;
 
     private final AtomicLong txProvider = new AtomicLong();
 
@@ -44,10 +51,19 @@ public class InMemoryPartitionClient implements PartitionClient {
         ConcurrentSkipListMap<Long, Tx> transactions,
         ConcurrentSkipListMap<byte[], WALValue> index,
         OrderIdProvider orderIdProvider) {
+        this(ringMember, transactions, index, orderIdProvider, Collections.emptyList());
+    }
+
+    public InMemoryPartitionClient(RingMember ringMember,
+        ConcurrentSkipListMap<Long, Tx> transactions,
+        ConcurrentSkipListMap<byte[], WALValue> index,
+        OrderIdProvider orderIdProvider,
+        List<SecondaryIndexDefinition> secondaryIndexes) {
         this.ringMember = ringMember;
         this.transactions = transactions;
         this.index = index;
         this.orderIdProvider = orderIdProvider;
+        this.secondaryIndexes = SecondaryIndexes.of(secondaryIndexes);
     }
 
     @Override
@@ -202,6 +218,87 @@ public class InMemoryPartitionClient implements PartitionClient {
             solutionLog);
     }
 
+    @Override
+    public ScanCursor scanPage(Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        ScanCursor cursor,
+        int pageSize,
+        KeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+
+        PrefixedKeyRanges pageRanges = cursor != null ? cursor.resume(ranges) : ranges;
+        int[] rangeIndex = { cursor != null ? cursor.rangeIndex - 1 : -1 };
+        int[] count = { 0 };
+        ScanCursor[] next = new ScanCursor[1];
+        boolean exhausted = scanInternal(consistency,
+            compressed,
+            stream -> pageRanges.consume((fromPrefix, fromKey, toPrefix, toKey) -> {
+                rangeIndex[0]++;
+                return stream.stream(fromPrefix, fromKey, toPrefix, toKey);
+            }),
+            null,
+            (prefix, key, value, timestamp, version) -> {
+                next[0] = new ScanCursor(rangeIndex[0], prefix, key);
+                count[0]++;
+                return scan.stream(prefix, key, value, timestamp, version) && count[0] < pageSize;
+            },
+            true,
+            additionalSolverAfterNMillis,
+            abandonLeaderSolutionAfterNMillis,
+            abandonSolutionAfterNMillis,
+            solutionLog);
+        return exhausted ? null : next[0];
+    }
+
+    /**
+     * Derives the index entries from the current rows on every call, so this is only suitable for small test partitions.
+     */
+    @Override
+    public boolean scanIndex(Consistency consistency,
+        boolean compressed,
+        String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey,
+        IndexedKeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+
+        if (!secondaryIndexes.contains(indexName)) {
+            throw new IllegalArgumentException("No secondary index named " + indexName);
+        }
+        byte[] fromEntryKey = SecondaryIndexes.fromEntryKey(indexName, fromIndexKey);
+        byte[] toEntryKey = SecondaryIndexes.toEntryKey(indexName, toIndexKey);
+        TreeMap<byte[], WALValue> entries = new TreeMap<>(KeyUtil::compare);
+        for (Map.Entry<byte[], WALValue> entry : index.entrySet()) {
+            byte[] rawKey = entry.getKey();
+            WALValue value = entry.getValue();
+            if (value.getTimestampId() == -1) {
+                continue;
+            }
+            secondaryIndexes.entries(WALKey.rawKeyPrefix(rawKey), WALKey.rawKeyKey(rawKey), value.getValue(), value.getTombstoned(),
+                entryKey -> {
+                    if (KeyUtil.compare(entryKey, fromEntryKey) >= 0 && KeyUtil.compare(entryKey, toEntryKey) < 0) {
+                        entries.put(entryKey, value);
+                    }
+                    return true;
+                });
+        }
+        for (Map.Entry<byte[], WALValue> entry : entries.entrySet()) {
+            WALValue value = entry.getValue();
+            if (!SecondaryIndexes.decode(entry.getKey(),
+                (indexKey, prefix, key) -> scan.stream(indexKey, prefix, key, value.getValue(), value.getTimestampId(), value.getVersion()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private boolean scanInternal(Consistency consistency,
         boolean compressed,
         PrefixedKeyRanges ranges,
@@ -261,11 +358,17 @@ public class InMemoryPartitionClient implements PartitionClient {
         ConcurrentNavigableMap<Long, Tx> take = transactions.tailMap(fromTxId, false);
         long lastTxId = -1;
         boolean tookToEnd = true;
+        int taken = 0;
         for (Tx tx : take.values()) {
+            if (limit > 0 && taken >= limit) {
+                tookToEnd = false;
+                break;
+            }
             TxResult result = stream.stream(tx.txId, tx.prefix, tx.key, tx.value, tx.valueTimestamp, tx.valueTombstoned, 0L);
             if (result.isAccepted()) {
                 lastTxId = tx.txId;
             }
+            taken++;
             if (!result.wantsMore()) {
                 tookToEnd = false;
                 break;
@@ -0,0 +1,150 @@
+package com.jivesoftware.os.amza.client.http;
+
+import com.jivesoftware.os.amza.api.partition.Consistency;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.ring.RingMemberAndHost;
+import com.jivesoftware.os.amza.client.http.exceptions.NotSolveableException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class AmzaClientCallRouterTest {
+
+    private final PartitionName partitionName = new PartitionName(false, "ring".getBytes(), "partition".getBytes());
+    private final PartitionCall<Void, TestAnswer, Exception> partitionCall = (leader, ringMember, client) -> null;
+    private final Merger<RingMemberAndHost, TestAnswer> merger = answers -> answers.get(0).getRingMemberAndHost();
+
+    private ExecutorService callerThreads;
+
+    @BeforeMethod
+    public void setUp() {
+        callerThreads = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        callerThreads.shutdownNow();
+    }
+
+    @Test
+    public void testHedgesSlowSolver() throws Exception {
+        // the first solver stalls, so only a hedged solver can answer in time
+        ScriptedClientProvider clientProvider = new ScriptedClientProvider(call -> call == 0 ? 10_000L : 0L, call -> false);
+        AmzaClientCallRouter<Void, Exception> router = new AmzaClientCallRouter<>(callerThreads, new TestPartitionHostsProvider(3), clientProvider);
+
+        long start = System.currentTimeMillis();
+        RingMemberAndHost solvedBy = router.readAsync(null, partitionName, Consistency.write_all_read_one, "test", partitionCall, merger,
+            1_000L, 50L, 30_000L, 30_000L).get(5, TimeUnit.SECONDS);
+
+        Assert.assertTrue(System.currentTimeMillis() - start < 5_000L);
+        Assert.assertTrue(clientProvider.called.size() >= 2, "called:" + clientProvider.called);
+        Assert.assertFalse(solvedBy.equals(clientProvider.called.get(0)));
+    }
+
+    @Test
+    public void testFailsOverAfterSolverError() throws Exception {
+        ScriptedClientProvider clientProvider = new ScriptedClientProvider(call -> 0L, call -> call == 0);
+        AmzaClientCallRouter<Void, Exception> router = new AmzaClientCallRouter<>(callerThreads, new TestPartitionHostsProvider(3), clientProvider);
+
+        // hedging is too slow to matter, so the second solver must come from the failover
+        RingMemberAndHost solvedBy = router.readAsync(null, partitionName, Consistency.write_all_read_one, "test", partitionCall, merger,
+            1_000L, 30_000L, 30_000L, 30_000L).get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(clientProvider.called.size(), 2);
+        Assert.assertEquals(solvedBy, clientProvider.called.get(1));
+    }
+
+    @Test
+    public void testAbandonsSlowSolution() throws Exception {
+        ScriptedClientProvider clientProvider = new ScriptedClientProvider(call -> 10_000L, call -> false);
+        AmzaClientCallRouter<Void, Exception> router = new AmzaClientCallRouter<>(callerThreads, new TestPartitionHostsProvider(3), clientProvider);
+
+        long start = System.currentTimeMillis();
+        try {
+            router.readAsync(null, partitionName, Consistency.write_all_read_one, "test", partitionCall, merger,
+                1_000L, 30_000L, 100L, 100L).get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the solution to be abandoned");
+        } catch (ExecutionException x) {
+            Assert.assertTrue(x.getCause() instanceof TimeoutException, "cause:" + x.getCause());
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 5_000L);
+    }
+
+    @Test
+    public void testNotSolveableWithoutWaitingForPendingSolvers() throws Exception {
+        // reading from all three hosts cannot succeed once one fails, however long the other two take
+        ScriptedClientProvider clientProvider = new ScriptedClientProvider(call -> call == 0 ? 0L : 10_000L, call -> call == 0);
+        AmzaClientCallRouter<Void, Exception> router = new AmzaClientCallRouter<>(callerThreads, new TestPartitionHostsProvider(3), clientProvider);
+
+        long start = System.currentTimeMillis();
+        try {
+            router.readAsync(null, partitionName, Consistency.write_one_read_all, "test", partitionCall, merger,
+                1_000L, 30_000L, 30_000L, 30_000L).get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the read to be not solveable");
+        } catch (ExecutionException x) {
+            Assert.assertTrue(x.getCause() instanceof NotSolveableException, "cause:" + x.getCause());
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 5_000L);
+    }
+
+    private static class ScriptedClientProvider implements RingHostClientProvider<Void, Exception> {
+
+        private final IntFunction<Long> delayMillis;
+        private final IntFunction<Boolean> fails;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final List<RingMemberAndHost> called = new CopyOnWriteArrayList<>();
+
+        private ScriptedClientProvider(IntFunction<Long> delayMillis, IntFunction<Boolean> fails) {
+            this.delayMillis = delayMillis;
+            this.fails = fails;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R> R call(PartitionName partitionName,
+            RingMember leader,
+            RingMemberAndHost ringMemberAndHost,
+            String family,
+            PartitionCall<Void, R, Exception> clientCall) throws Exception {
+
+            int call;
+            synchronized (this) {
+                call = calls.getAndIncrement();
+                called.add(ringMemberAndHost);
+            }
+            long delay = delayMillis.apply(call);
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            if (fails.apply(call)) {
+                throw new IllegalStateException("Scripted failure of call:" + call);
+            }
+            return (R) new TestAnswer();
+        }
+    }
+
+    private static class TestAnswer implements Abortable {
+
+        @Override
+        public void abort() throws Exception {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
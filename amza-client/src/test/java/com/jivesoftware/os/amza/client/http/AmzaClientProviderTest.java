@@ -0,0 +1,211 @@
+package com.jivesoftware.os.amza.client.http;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.jivesoftware.os.amza.api.FailedToAchieveQuorumException;
+import com.jivesoftware.os.amza.api.PartitionClient;
+import com.jivesoftware.os.amza.api.PartitionCommit;
+import com.jivesoftware.os.amza.api.RingPartitionProperties;
+import com.jivesoftware.os.amza.api.partition.Consistency;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.PartitionProperties;
+import com.jivesoftware.os.amza.api.ring.RingHost;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.ring.RingMemberAndHost;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class AmzaClientProviderTest {
+
+    private static final int NUM_HOSTS = 3;
+
+    @Test
+    public void testCommitManyGroupsByLeader() throws Exception {
+        TestCommitBatchCaller batchCaller = new TestCommitBatchCaller(Collections.emptySet(), Collections.emptySet(), -1);
+        List<PartitionName> committedAlone = Lists.newArrayList();
+        AmzaClientProvider<Object, Exception> provider = provider(batchCaller, committedAlone);
+
+        List<PartitionCommit> commits = commits(12);
+        provider.commitMany(Consistency.leader_quorum, commits, 1_000L, 10_000L, Optional.empty());
+
+        Assert.assertEquals(batchCaller.batches.size(), NUM_HOSTS);
+        int committed = 0;
+        for (Map.Entry<RingMember, List<PartitionName>> entry : batchCaller.batches.entrySet()) {
+            for (PartitionName partitionName : entry.getValue()) {
+                Assert.assertEquals(entry.getKey(), leaderOf(partitionName).ringMember);
+                committed++;
+            }
+        }
+        Assert.assertEquals(committed, commits.size());
+        Assert.assertTrue(committedAlone.isEmpty());
+    }
+
+    @Test
+    public void testCommitManyRetriesUncommittedPartitionsAlone() throws Exception {
+        List<PartitionCommit> commits = commits(6);
+        PartitionName notCommitted = commits.get(4).partitionName;
+        TestCommitBatchCaller batchCaller = new TestCommitBatchCaller(Collections.singleton(notCommitted), Collections.emptySet(), -1);
+        List<PartitionName> committedAlone = Lists.newArrayList();
+        AmzaClientProvider<Object, Exception> provider = provider(batchCaller, committedAlone);
+
+        provider.commitMany(Consistency.leader_quorum, commits, 1_000L, 10_000L, Optional.empty());
+
+        Assert.assertEquals(committedAlone, Collections.singletonList(notCommitted));
+    }
+
+    @Test(expectedExceptions = FailedToAchieveQuorumException.class)
+    public void testCommitManyFailedQuorum() throws Exception {
+        List<PartitionCommit> commits = commits(6);
+        TestCommitBatchCaller batchCaller = new TestCommitBatchCaller(Collections.emptySet(), Collections.singleton(commits.get(2).partitionName), -1);
+        AmzaClientProvider<Object, Exception> provider = provider(batchCaller, Lists.newArrayList());
+
+        provider.commitMany(Consistency.leader_quorum, commits, 1_000L, 10_000L, Optional.empty());
+    }
+
+    @Test
+    public void testCommitManyRetriesOnlyUnreportedPartitionsOfFailedBatch() throws Exception {
+        List<PartitionCommit> commits = commits(12);
+        TestCommitBatchCaller batchCaller = new TestCommitBatchCaller(Collections.emptySet(), Collections.emptySet(), 2);
+        List<PartitionName> committedAlone = Lists.newArrayList();
+        AmzaClientProvider<Object, Exception> provider = provider(batchCaller, committedAlone);
+
+        provider.commitMany(Consistency.quorum, commits, 1_000L, 10_000L, Optional.empty());
+
+        // the batch failed after the host reported its first two partitions, so only the other ten are retried
+        List<PartitionName> batch = batchCaller.batches.values().iterator().next();
+        Assert.assertEquals(batch.size(), 12);
+        Assert.assertEquals(Sets.newHashSet(committedAlone), Sets.newHashSet(batch.subList(2, batch.size())));
+        Assert.assertEquals(committedAlone.size(), 10);
+    }
+
+    @Test
+    public void testCommitManyQuorumUsesOneHostPerRing() throws Exception {
+        TestCommitBatchCaller batchCaller = new TestCommitBatchCaller(Collections.emptySet(), Collections.emptySet(), -1);
+        AmzaClientProvider<Object, Exception> provider = provider(batchCaller, Lists.newArrayList());
+
+        provider.commitMany(Consistency.quorum, commits(12), 1_000L, 10_000L, Optional.empty());
+
+        Assert.assertEquals(batchCaller.batches.size(), 1);
+        Assert.assertEquals(batchCaller.batches.values().iterator().next().size(), 12);
+    }
+
+    private AmzaClientProvider<Object, Exception> provider(TestCommitBatchCaller batchCaller, List<PartitionName> committedAlone) {
+        PartitionClientFactory<Object, Exception> partitionClientFactory = (partitionName, router, awaitLeader, debugCount, debugInterval) -> {
+            return (PartitionClient) Proxy.newProxyInstance(PartitionClient.class.getClassLoader(), new Class[] { PartitionClient.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("commit")) {
+                        committedAlone.add(partitionName);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        };
+        RingHostClientProvider<Object, Exception> clientProvider = new RingHostClientProvider<Object, Exception>() {
+            @Override
+            public <R> R call(PartitionName partitionName,
+                RingMember leader,
+                RingMemberAndHost ringMemberAndHost,
+                String family,
+                PartitionCall<Object, R, Exception> clientCall) throws Exception {
+                return clientCall.call(leader, ringMemberAndHost.ringMember, new Object()).response;
+            }
+        };
+        return new AmzaClientProvider<>(partitionClientFactory, new LeaderPerPartitionHostsProvider(), clientProvider, batchCaller,
+            MoreExecutors.sameThreadExecutor(), 10_000L, -1, -1);
+    }
+
+    private static List<PartitionCommit> commits(int count) {
+        List<PartitionCommit> commits = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            byte[] name = ("partition" + i).getBytes();
+            commits.add(new PartitionCommit(new PartitionName(false, "ring".getBytes(), name), null,
+                stream -> stream.commit(new byte[] { 1 }, new byte[] { 2 }, -1, false)));
+        }
+        return commits;
+    }
+
+    private static RingMemberAndHost[] ring() {
+        RingMemberAndHost[] ringMemberAndHosts = new RingMemberAndHost[NUM_HOSTS];
+        for (int i = 0; i < NUM_HOSTS; i++) {
+            ringMemberAndHosts[i] = new RingMemberAndHost(new RingMember("test" + (i + 1)), new RingHost("", "", "host" + (i + 1), 1234));
+        }
+        return ringMemberAndHosts;
+    }
+
+    private static RingMemberAndHost leaderOf(PartitionName partitionName) {
+        return ring()[Math.abs(Arrays.hashCode(partitionName.getName()) % NUM_HOSTS)];
+    }
+
+    private static class LeaderPerPartitionHostsProvider implements PartitionHostsProvider {
+
+        @Override
+        public RingPartitionProperties getRingPartitionProperties(PartitionName partitionName) throws Exception {
+            return null;
+        }
+
+        @Override
+        public void ensurePartition(PartitionName partitionName, int desiredRingSize, PartitionProperties partitionProperties) throws Exception {
+        }
+
+        @Override
+        public Ring getPartitionHosts(PartitionName partitionName, Optional<RingMemberAndHost> useHost, long waitForLeaderElection) throws Exception {
+            RingMemberAndHost[] ring = ring();
+            return new Ring(Arrays.asList(ring).indexOf(leaderOf(partitionName)), ring);
+        }
+    }
+
+    private static class TestCommitBatchCaller implements RemoteCommitBatchCaller<Object, Exception> {
+
+        private final Set<PartitionName> notCommitted;
+        private final Set<PartitionName> failedQuorum;
+        private final int failAfterNStatuses;
+        private final Map<RingMember, List<PartitionName>> batches = Maps.newConcurrentMap();
+
+        TestCommitBatchCaller(Set<PartitionName> notCommitted, Set<PartitionName> failedQuorum, int failAfterNStatuses) {
+            this.notCommitted = notCommitted;
+            this.failedQuorum = failedQuorum;
+            this.failAfterNStatuses = failAfterNStatuses;
+        }
+
+        @Override
+        public PartitionResponse<PartitionCommit.Status[]> commitBatch(RingMember ringMember,
+            Object client,
+            Consistency consistency,
+            boolean checkLeader,
+            List<PartitionCommit> commits,
+            PartitionCommit.Status[] statuses,
+            long abandonSolutionAfterNMillis) throws Exception {
+
+            Assert.assertEquals(checkLeader, consistency.requiresLeader());
+            for (PartitionCommit commit : commits) {
+                batches.computeIfAbsent(ringMember, key -> Lists.newArrayList()).add(commit.partitionName);
+            }
+            for (int i = 0; i < statuses.length; i++) {
+                if (i == failAfterNStatuses) {
+                    throw new IllegalStateException("Lost the batch stream after " + i + " statuses");
+                }
+                PartitionName partitionName = commits.get(i).partitionName;
+                if (notCommitted.contains(partitionName)) {
+                    statuses[i] = PartitionCommit.Status.not_committed;
+                } else if (failedQuorum.contains(partitionName)) {
+                    statuses[i] = PartitionCommit.Status.failed_to_achieve_quorum;
+                } else {
+                    statuses[i] = PartitionCommit.Status.committed;
+                }
+            }
+            return new PartitionResponse<>(statuses, true);
+        }
+    }
+}
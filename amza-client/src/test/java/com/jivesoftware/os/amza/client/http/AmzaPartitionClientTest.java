@@ -1,5 +1,8 @@
 package com.jivesoftware.os.amza.client.http;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.jivesoftware.os.amza.api.PartitionClient.KeyValueFilter;
 import com.jivesoftware.os.amza.api.filer.FilerOutputStream;
@@ -9,18 +12,28 @@ import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.ring.RingMemberAndHost;
+import com.jivesoftware.os.amza.api.scan.ScanCursor;
 import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.Commitable;
 import com.jivesoftware.os.amza.api.stream.OffsetUnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
+import com.jivesoftware.os.amza.api.stream.RowType;
+import com.jivesoftware.os.amza.api.stream.TxKeyValueStream.TxResult;
 import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
+import com.jivesoftware.os.amza.api.take.TakeResult;
+import com.jivesoftware.os.amza.api.wal.KeyUtil;
+import com.jivesoftware.os.amza.api.wal.WALKey;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 import org.xerial.snappy.SnappyOutputStream;
 
@@ -73,6 +86,212 @@ public class AmzaPartitionClientTest {
             Optional.<List<String>>empty());
     }
 
+    @Test
+    public void testScanAsync() throws Exception {
+        byte[] partitionNameBytes = "abc".getBytes();
+        PartitionName partitionName = new PartitionName(false, partitionNameBytes, partitionNameBytes);
+        AmzaClientCallRouter<TestClient, Exception> router = new AmzaClientCallRouter<>(MoreExecutors.sameThreadExecutor(), new TestPartitionHostsProvider(3),
+            new TestRingHostClientProvider());
+        AmzaPartitionClient<TestClient, Exception> client = new AmzaPartitionClient<>(partitionName, router, new TestRemotePartitionCaller(),
+            10_000L, -1, -1);
+
+        Boolean result = client.scanAsync(Consistency.quorum,
+            false,
+            stream -> stream.stream(null, null, null, null),
+            (prefix, key, value, timestamp, version) -> {
+                System.out.println("Got " + Arrays.toString(key) + " = " + Arrays.toString(value) + " @ " + timestamp);
+                return true;
+            },
+            1_000L,
+            10_000L,
+            30_000L,
+            Optional.<List<String>>empty())
+            .get();
+        Assert.assertTrue(result);
+    }
+
+    @Test
+    public void testScanPage() throws Exception {
+        byte[] partitionNameBytes = "abc".getBytes();
+        PartitionName partitionName = new PartitionName(false, partitionNameBytes, partitionNameBytes);
+        AmzaClientCallRouter<TestClient, Exception> router = new AmzaClientCallRouter<>(MoreExecutors.sameThreadExecutor(), new TestPartitionHostsProvider(3),
+            new TestRingHostClientProvider());
+        PagedRemotePartitionCaller caller = new PagedRemotePartitionCaller(100);
+        AmzaPartitionClient<TestClient, Exception> client = new AmzaPartitionClient<>(partitionName, router, caller, 10_000L, -1, -1);
+
+        PrefixedKeyRanges ranges = stream -> stream.stream(null, UIO.intBytes(0), null, UIO.intBytes(40))
+            && stream.stream(null, UIO.intBytes(60), null, null);
+        List<Integer> got = Lists.newArrayList();
+        ScanCursor cursor = null;
+        int pages = 0;
+        do {
+            cursor = client.scanPage(Consistency.quorum,
+                false,
+                ranges,
+                cursor != null ? ScanCursor.fromBytes(cursor.toBytes()) : null,
+                7,
+                (prefix, key, value, timestamp, version) -> {
+                    got.add(UIO.bytesInt(key));
+                    return true;
+                },
+                1_000L,
+                10_000L,
+                30_000L,
+                Optional.<List<String>>empty());
+            pages++;
+        } while (cursor != null);
+
+        List<Integer> expected = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            if ((i < 40 || i >= 60) && i != 20 && i != 70) {
+                expected.add(i);
+            }
+        }
+        Assert.assertEquals(got, expected);
+        // 80 rows including the two tombstones
+        Assert.assertEquals(pages, (80 + 6) / 7);
+        Assert.assertTrue(caller.maxStreamed.get() <= 7);
+    }
+
+    @Test
+    public void testDigestGetFetchesAndRepairsStaleReplicas() throws Exception {
+        byte[] partitionNameBytes = "abc".getBytes();
+        PartitionName partitionName = new PartitionName(false, partitionNameBytes, partitionNameBytes);
+        AmzaClientCallRouter<TestClient, Exception> router = new AmzaClientCallRouter<>(MoreExecutors.sameThreadExecutor(), new TestPartitionHostsProvider(3),
+            new TestRingHostClientProvider());
+        DigestRemotePartitionCaller caller = new DigestRemotePartitionCaller(5);
+        // test2 alone has the newest version of key 2
+        caller.put(new RingMember("test2"), 2, 50L);
+        AmzaPartitionClient<TestClient, Exception> client = new AmzaPartitionClient<>(partitionName, router, caller,
+            10_000L, -1, -1, MoreExecutors.sameThreadExecutor());
+
+        Map<Integer, Long> got = Maps.newHashMap();
+        client.get(Consistency.write_one_read_all,
+            null,
+            stream -> {
+                for (int i = 0; i < 5; i++) {
+                    if (!stream.stream(UIO.intBytes(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            },
+            (prefix, key, value, timestamp, version) -> {
+                Assert.assertEquals(UIO.bytesLong(value), timestamp);
+                got.put(UIO.bytesInt(key), timestamp);
+                return true;
+            },
+            1_000L,
+            10_000L,
+            30_000L,
+            Optional.<List<String>>empty());
+
+        Assert.assertEquals(got.size(), 5);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(got.get(i).longValue(), i == 2 ? 50L : 1L);
+        }
+        Assert.assertEquals(caller.digests.get(), 2);
+        Assert.assertTrue(caller.gets.get() <= 2);
+        Assert.assertEquals(caller.repaired.keySet(), Sets.newHashSet(new RingMember("test1"), new RingMember("test3")));
+        for (List<Integer> repaired : caller.repaired.values()) {
+            Assert.assertEquals(repaired, Collections.singletonList(2));
+        }
+    }
+
+    @Test
+    public void testDigestGetAsync() throws Exception {
+        byte[] partitionNameBytes = "abc".getBytes();
+        PartitionName partitionName = new PartitionName(false, partitionNameBytes, partitionNameBytes);
+        AmzaClientCallRouter<TestClient, Exception> router = new AmzaClientCallRouter<>(MoreExecutors.sameThreadExecutor(), new TestPartitionHostsProvider(3),
+            new TestRingHostClientProvider());
+        DigestRemotePartitionCaller caller = new DigestRemotePartitionCaller(5);
+        caller.put(new RingMember("test2"), 2, 50L);
+        AmzaPartitionClient<TestClient, Exception> client = new AmzaPartitionClient<>(partitionName, router, caller,
+            10_000L, -1, -1, MoreExecutors.sameThreadExecutor());
+
+        Map<Integer, Long> got = Maps.newHashMap();
+        Boolean result = client.getAsync(Consistency.write_one_read_all,
+            null,
+            stream -> {
+                for (int i = 0; i < 5; i++) {
+                    if (!stream.stream(UIO.intBytes(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            },
+            (prefix, key, value, timestamp, version) -> {
+                got.put(UIO.bytesInt(key), timestamp);
+                return true;
+            },
+            1_000L,
+            10_000L,
+            30_000L,
+            Optional.<List<String>>empty())
+            .get();
+
+        Assert.assertTrue(result);
+        Assert.assertEquals(got.size(), 5);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(got.get(i).longValue(), i == 2 ? 50L : 1L);
+        }
+        Assert.assertEquals(caller.digests.get(), 2);
+        Assert.assertEquals(caller.repaired.keySet(), Sets.newHashSet(new RingMember("test1"), new RingMember("test3")));
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        byte[] partitionNameBytes = "abc".getBytes();
+        PartitionName partitionName = new PartitionName(false, partitionNameBytes, partitionNameBytes);
+        AmzaClientCallRouter<TestClient, Exception> router = new AmzaClientCallRouter<>(MoreExecutors.sameThreadExecutor(), new TestPartitionHostsProvider(3),
+            new TestRingHostClientProvider());
+        AmzaPartitionClient<TestClient, Exception> client = new AmzaPartitionClient<>(partitionName, router, new SubscribeRemotePartitionCaller(),
+            10_000L, -1, -1);
+
+        List<Long> got = Lists.newArrayList();
+        TakeResult takeResult = client.subscribe(null,
+            null,
+            Collections.emptyMap(),
+            3,
+            1_000L,
+            10_000L,
+            highwater -> {
+            },
+            (rowTxId, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                Assert.assertEquals(UIO.bytesLong(key), rowTxId);
+                got.add(rowTxId);
+                return TxResult.MORE;
+            },
+            1_000L,
+            30_000L,
+            Optional.<List<String>>empty());
+
+        Assert.assertEquals(got, Arrays.asList(1L, 2L, 3L, 4L, 5L));
+        Assert.assertEquals(takeResult.lastTxId, 5L);
+        Assert.assertNotNull(takeResult.tookToEnd);
+
+        got.clear();
+        takeResult = client.subscribe(null,
+            null,
+            Collections.emptyMap(),
+            3,
+            1_000L,
+            10_000L,
+            highwater -> {
+            },
+            (rowTxId, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                got.add(rowTxId);
+                return rowTxId == 2 ? TxResult.ACCEPT_AND_STOP : TxResult.MORE;
+            },
+            1_000L,
+            30_000L,
+            Optional.<List<String>>empty());
+
+        Assert.assertEquals(got, Arrays.asList(1L, 2L));
+        Assert.assertEquals(takeResult.lastTxId, 2L);
+        Assert.assertNull(takeResult.tookToEnd);
+    }
+
     private class TestClient {
 
     }
@@ -103,6 +322,16 @@ public class AmzaPartitionClientTest {
             throw new UnsupportedOperationException("blah");
         }
 
+        @Override
+        public PartitionResponse<NoOpCloseable> repair(RingMember leader,
+            RingMember ringMember,
+            TestClient client,
+            byte[] prefix,
+            Commitable rows,
+            long abandonSolutionAfterNMillis) throws Exception {
+            throw new UnsupportedOperationException("blah");
+        }
+
         @Override
         public PartitionResponse<CloseableStreamResponse> get(RingMember leader,
             RingMember ringMember,
@@ -113,6 +342,16 @@ public class AmzaPartitionClientTest {
             throw new UnsupportedOperationException("blah");
         }
 
+        @Override
+        public PartitionResponse<CloseableStreamResponse> getDigest(RingMember leader,
+            RingMember ringMember,
+            TestClient client,
+            Consistency consistency,
+            byte[] prefix,
+            UnprefixedWALKeys keys) throws Exception {
+            throw new UnsupportedOperationException("blah");
+        }
+
         @Override
         public PartitionResponse<CloseableStreamResponse> getOffset(RingMember leader,
             RingMember ringMember,
@@ -165,6 +404,30 @@ public class AmzaPartitionClientTest {
             }, true);
         }
 
+        @Override
+        public PartitionResponse<CloseableStreamResponse> scanPage(RingMember leader,
+            RingMember ringMember,
+            TestClient client,
+            Consistency consistency,
+            boolean compressed,
+            PrefixedKeyRanges ranges,
+            boolean hydrateValues,
+            int limit) throws Exception {
+            throw new UnsupportedOperationException("blah");
+        }
+
+        @Override
+        public PartitionResponse<CloseableStreamResponse> scanIndex(RingMember leader,
+            RingMember ringMember,
+            TestClient client,
+            Consistency consistency,
+            boolean compressed,
+            String indexName,
+            byte[] fromIndexKey,
+            byte[] toIndexKey) throws Exception {
+            throw new UnsupportedOperationException("blah");
+        }
+
         private void scanOut(IWriteable out, int count, boolean hydrateValues) throws Exception {
             byte[] intLongBuffer = new byte[8];
             for (int i = 0; i < count; i++) {
@@ -200,9 +463,238 @@ public class AmzaPartitionClientTest {
             throw new UnsupportedOperationException("blah");
         }
 
+        @Override
+        public PartitionResponse<CloseableStreamResponse> subscribe(RingMember leader,
+            RingMember ringMember,
+            TestClient client,
+            byte[] prefix,
+            Map<RingMember, Long> membersTxId,
+            int limit,
+            long heartbeatIntervalMillis,
+            long sessionMillis) throws Exception {
+            throw new UnsupportedOperationException("blah");
+        }
+
         @Override
         public PartitionResponse<CloseableLong> getApproximateCount(RingMember leader, RingMember ringMember, TestClient client) throws Exception {
             throw new UnsupportedOperationException("blah");
         }
     }
+
+    /**
+     * Streams txIds 1..5 as one row per txId in batches of up to limit, and only the last batch takes to the end of the partition.
+     */
+    private class SubscribeRemotePartitionCaller extends TestRemotePartitionCaller {
+
+        @Override
+        public PartitionResponse<CloseableStreamResponse> subscribe(RingMember leader,
+            RingMember ringMember,
+            TestClient client,
+            byte[] prefix,
+            Map<RingMember, Long> membersTxId,
+            int limit,
+            long heartbeatIntervalMillis,
+            long sessionMillis) throws Exception {
+
+            byte[] intLongBuffer = new byte[8];
+            ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+            FilerOutputStream out = new FilerOutputStream(bytesOut);
+            UIO.writeByteArray(out, ringMember.toBytes(), "ringMember", intLongBuffer);
+            long txId = membersTxId.getOrDefault(ringMember, 0L);
+            while (txId < 5) {
+                UIO.writeByte(out, (byte) 1, "more");
+                for (int i = 0; i < limit && txId < 5; i++) {
+                    txId++;
+                    UIO.writeByte(out, (byte) 0, "eos");
+                    UIO.writeByte(out, RowType.primary.toByte(), "type");
+                    UIO.writeLong(out, txId, "rowTxId", intLongBuffer);
+                    UIO.writeByteArray(out, null, "prefix", intLongBuffer);
+                    UIO.writeByteArray(out, UIO.longBytes(txId), "key", intLongBuffer);
+                    UIO.writeByteArray(out, UIO.longBytes(txId), "value", intLongBuffer);
+                    UIO.writeLong(out, txId, "timestamp", intLongBuffer);
+                    UIO.writeByte(out, (byte) 0, "tombstoned");
+                    UIO.writeLong(out, txId, "version", intLongBuffer);
+                }
+                UIO.writeByte(out, (byte) 1, "eos");
+                UIO.writeByteArray(out, ringMember.toBytes(), "ringMember", intLongBuffer);
+                UIO.writeLong(out, txId, "lastTxId", intLongBuffer);
+                if (txId < 5) {
+                    UIO.writeInt(out, 0, "length", intLongBuffer);
+                } else {
+                    UIO.writeInt(out, 1, "length", intLongBuffer);
+                    UIO.writeByteArray(out, ringMember.toBytes(), "ringMember", intLongBuffer);
+                    UIO.writeLong(out, txId, "txId", intLongBuffer);
+                }
+            }
+            UIO.writeByte(out, (byte) 0, "more");
+            out.close();
+            return response(bytesOut.toByteArray());
+        }
+    }
+
+    private static PartitionResponse<CloseableStreamResponse> response(byte[] serialized) {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(serialized);
+        return new PartitionResponse<>(new CloseableStreamResponse() {
+            @Override
+            public InputStream getInputStream() {
+                return inputStream;
+            }
+
+            @Override
+            public long getActiveCount() {
+                return 0;
+            }
+
+            @Override
+            public void abort() throws Exception {
+            }
+
+            @Override
+            public void close() throws Exception {
+            }
+        }, true);
+    }
+
+    /**
+     * Member testN holds keys 0..count-1 except those where key % 3 == N - 1, so any two members together hold every key. Keys 20 and 70
+     * are tombstones.
+     */
+    private class PagedRemotePartitionCaller extends TestRemotePartitionCaller {
+
+        private final int count;
+        private final AtomicInteger maxStreamed = new AtomicInteger();
+
+        PagedRemotePartitionCaller(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public PartitionResponse<CloseableStreamResponse> scanPage(RingMember leader,
+            RingMember ringMember,
+            TestClient client,
+            Consistency consistency,
+            boolean compressed,
+            PrefixedKeyRanges ranges,
+            boolean hydrateValues,
+            int limit) throws Exception {
+
+            int missing = Integer.parseInt(ringMember.getMember().substring("test".length())) - 1;
+            byte[] intLongBuffer = new byte[8];
+            ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+            FilerOutputStream out = new FilerOutputStream(bytesOut);
+            int[] streamed = { 0 };
+            ranges.consume((fromPrefix, fromKey, toPrefix, toKey) -> {
+                UIO.writeByte(out, (byte) 0, "eosRange");
+                for (int k = 0; k < count && streamed[0] < limit; k++) {
+                    byte[] key = WALKey.compose(null, UIO.intBytes(k));
+                    if (k % 3 == missing
+                        || fromKey != null && KeyUtil.compare(key, WALKey.compose(fromPrefix, fromKey)) < 0
+                        || toKey != null && KeyUtil.compare(key, WALKey.compose(toPrefix, toKey)) >= 0) {
+                        continue;
+                    }
+                    boolean tombstoned = k == 20 || k == 70;
+                    UIO.writeByte(out, (byte) 0, "eos");
+                    UIO.writeByteArray(out, null, "prefix", intLongBuffer);
+                    UIO.writeByteArray(out, UIO.intBytes(k), "key", intLongBuffer);
+                    if (hydrateValues) {
+                        UIO.writeByteArray(out, tombstoned ? null : UIO.intBytes(k), "value", intLongBuffer);
+                    }
+                    UIO.writeLong(out, 1L, "timestamp", intLongBuffer);
+                    UIO.writeByte(out, tombstoned ? (byte) 1 : (byte) 0, "tombstoned");
+                    UIO.writeLong(out, 1L, "version", intLongBuffer);
+                    streamed[0]++;
+                }
+                UIO.writeByte(out, (byte) 1, "eos");
+                return streamed[0] < limit;
+            });
+            UIO.writeByte(out, (byte) 1, "eosRange");
+            out.close();
+            maxStreamed.accumulateAndGet(streamed[0], Math::max);
+            return response(bytesOut.toByteArray());
+        }
+    }
+
+    /**
+     * Every member holds keys 0..count-1 at timestamp and version 1 with the timestamp as the value, unless overridden by {@link #put}.
+     */
+    private class DigestRemotePartitionCaller extends TestRemotePartitionCaller {
+
+        private final int count;
+        private final Map<RingMember, Map<Integer, Long>> overrides = Maps.newConcurrentMap();
+        private final Map<RingMember, List<Integer>> repaired = Maps.newConcurrentMap();
+        private final AtomicInteger gets = new AtomicInteger();
+        private final AtomicInteger digests = new AtomicInteger();
+
+        DigestRemotePartitionCaller(int count) {
+            this.count = count;
+        }
+
+        void put(RingMember ringMember, int key, long timestamp) {
+            overrides.computeIfAbsent(ringMember, k -> Maps.newConcurrentMap()).put(key, timestamp);
+        }
+
+        @Override
+        public PartitionResponse<NoOpCloseable> repair(RingMember leader,
+            RingMember ringMember,
+            TestClient client,
+            byte[] prefix,
+            Commitable rows,
+            long abandonSolutionAfterNMillis) throws Exception {
+            rows.commitable(null, (rowTxId, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                Assert.assertEquals(UIO.bytesLong(value), valueTimestamp);
+                // the repair must carry the source's version rather than have the replica mint a new one
+                Assert.assertEquals(valueVersion, valueTimestamp);
+                repaired.computeIfAbsent(ringMember, k -> Lists.newArrayList()).add(UIO.bytesInt(key));
+                return true;
+            });
+            return new PartitionResponse<>(new NoOpCloseable(), true);
+        }
+
+        @Override
+        public PartitionResponse<CloseableStreamResponse> get(RingMember leader,
+            RingMember ringMember,
+            TestClient client,
+            Consistency consistency,
+            byte[] prefix,
+            UnprefixedWALKeys keys) throws Exception {
+            gets.incrementAndGet();
+            return response(getOut(ringMember, keys, true));
+        }
+
+        @Override
+        public PartitionResponse<CloseableStreamResponse> getDigest(RingMember leader,
+            RingMember ringMember,
+            TestClient client,
+            Consistency consistency,
+            byte[] prefix,
+            UnprefixedWALKeys keys) throws Exception {
+            digests.incrementAndGet();
+            return response(getOut(ringMember, keys, false));
+        }
+
+        private byte[] getOut(RingMember ringMember, UnprefixedWALKeys keys, boolean hydrateValues) throws Exception {
+            byte[] intLongBuffer = new byte[8];
+            Map<Integer, Long> memberOverrides = overrides.getOrDefault(ringMember, Collections.emptyMap());
+            ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+            FilerOutputStream out = new FilerOutputStream(bytesOut);
+            keys.consume(key -> {
+                int k = UIO.bytesInt(key);
+                Assert.assertTrue(k < count);
+                long timestamp = memberOverrides.getOrDefault(k, 1L);
+                UIO.writeByte(out, (byte) 0, "eos");
+                UIO.writeByteArray(out, null, "prefix", intLongBuffer);
+                UIO.writeByteArray(out, key, "key", intLongBuffer);
+                if (hydrateValues) {
+                    UIO.writeByteArray(out, UIO.longBytes(timestamp), "value", intLongBuffer);
+                }
+                UIO.writeLong(out, timestamp, "timestamp", intLongBuffer);
+                UIO.writeByte(out, (byte) 0, "tombstoned");
+                UIO.writeLong(out, timestamp, "version", intLongBuffer);
+                return true;
+            });
+            UIO.writeByte(out, (byte) 1, "eos");
+            out.close();
+            return bytesOut.toByteArray();
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package com.jivesoftware.os.amza.client.http;
+
+import com.jivesoftware.os.amza.api.ring.RingHost;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.ring.RingMemberAndHost;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class ReplicaLatenciesTest {
+
+    private final RingMemberAndHost fast = host(1);
+    private final RingMemberAndHost slow = host(2);
+    private final RingMemberAndHost unknown = host(3);
+
+    @Test
+    public void testBuckets() throws Exception {
+        long previousUpperBound = -1;
+        for (long nanos = 1; nanos < 1_000_000_000L; nanos = nanos * 3 / 2 + 1) {
+            int bucket = ReplicaLatencies.bucket(nanos);
+            long upperBound = ReplicaLatencies.upperBound(bucket);
+            Assert.assertTrue(upperBound >= nanos, nanos + " > " + upperBound);
+            Assert.assertTrue(upperBound < nanos + nanos / 4 + 1, nanos + " << " + upperBound);
+            Assert.assertTrue(upperBound >= previousUpperBound);
+            previousUpperBound = upperBound;
+        }
+    }
+
+    @Test
+    public void testOrderPrefersFastHealthyReplicas() throws Exception {
+        ReplicaLatencies latencies = new ReplicaLatencies(0.2, 20, 1_000, 60_000L);
+        record(latencies, fast, 2, 100);
+        record(latencies, slow, 50, 100);
+
+        RingMemberAndHost[] ordered = latencies.order(new RingMemberAndHost[] { slow, fast, unknown });
+        Assert.assertEquals(ordered, new RingMemberAndHost[] { unknown, fast, slow });
+
+        latencies.started(fast);
+        latencies.failed(fast, TimeUnit.MILLISECONDS.toNanos(1));
+        ordered = latencies.order(new RingMemberAndHost[] { slow, fast });
+        Assert.assertEquals(ordered, new RingMemberAndHost[] { slow, fast });
+    }
+
+    @Test
+    public void testHedgeAfterObservedP95() throws Exception {
+        ReplicaLatencies latencies = new ReplicaLatencies(0.2, 20, 1_000, 60_000L);
+        Assert.assertEquals(latencies.hedgeAfterMillis(slow, 1_000L), 1_000L);
+
+        record(latencies, slow, 10, 95);
+        record(latencies, slow, 400, 5);
+        long hedgeAfter = latencies.hedgeAfterMillis(slow, 1_000L);
+        Assert.assertTrue(hedgeAfter >= 10 && hedgeAfter < 13, "hedgeAfter:" + hedgeAfter);
+        Assert.assertTrue(latencies.percentileMillis(slow, 0.99) >= 400);
+        Assert.assertEquals(latencies.hedgeAfterMillis(slow, 5L), 5L);
+    }
+
+    @Test
+    public void testAbandonedSlowReplicaStaysRankedLast() throws Exception {
+        ReplicaLatencies latencies = new ReplicaLatencies(0.2, 20, 1_000, 60_000L);
+        record(latencies, fast, 5, 20);
+        record(latencies, slow, 100, 20);
+        long slowHedgeAfter = latencies.hedgeAfterMillis(slow, 1_000L);
+
+        // every later read is won by the fast replica, and the slow replica's call is hedged in late and abandoned a millisecond in
+        for (int i = 0; i < 100; i++) {
+            record(latencies, fast, 5, 1);
+            latencies.started(slow);
+            latencies.abandoned(slow, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        Assert.assertEquals(latencies.order(new RingMemberAndHost[] { slow, fast }), new RingMemberAndHost[] { fast, slow });
+        Assert.assertTrue(latencies.ewmaMillis(slow) >= 100d, "ewma:" + latencies.ewmaMillis(slow));
+        Assert.assertEquals(latencies.hedgeAfterMillis(slow, 1_000L), slowHedgeAfter);
+    }
+
+    private static void record(ReplicaLatencies latencies, RingMemberAndHost ringMemberAndHost, long millis, int count) {
+        for (int i = 0; i < count; i++) {
+            latencies.started(ringMemberAndHost);
+            latencies.completed(ringMemberAndHost, TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    private static RingMemberAndHost host(int i) {
+        return new RingMemberAndHost(new RingMember("test" + i), new RingHost("", "", "host" + i, 1234));
+    }
+}
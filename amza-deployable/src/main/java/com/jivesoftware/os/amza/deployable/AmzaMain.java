@@ -130,13 +130,41 @@ public class AmzaMain {
             amzaServiceConfig.tombstoneCompactionFactor = amzaConfig.getTombstoneCompactionFactor();
             amzaServiceConfig.rebalanceIfImbalanceGreaterThanNBytes = amzaConfig.getRebalanceIfImbalanceGreaterThanNBytes();
             amzaServiceConfig.rebalanceableEveryNMillis = amzaConfig.getRebalanceableEveryNMillis();
+            amzaServiceConfig.maxConcurrentTombstoneCompactions = amzaConfig.getMaxConcurrentTombstoneCompactions();
+            amzaServiceConfig.tombstoneCompactionMaxBytesPerSecond = amzaConfig.getTombstoneCompactionMaxBytesPerSecond();
+            amzaServiceConfig.hydratedValueCacheMaxSizeInBytes = amzaConfig.getHydratedValueCacheMaxSizeInBytes();
+            amzaServiceConfig.parallelScanThreads = amzaConfig.getParallelScanThreads();
+            amzaServiceConfig.parallelScanQueueCapacity = amzaConfig.getParallelScanQueueCapacity();
+            amzaServiceConfig.subscribeMaxSessionMillis = amzaConfig.getSubscribeMaxSessionMillis();
+            amzaServiceConfig.subscribeMaxConcurrent = amzaConfig.getSubscribeMaxConcurrent();
             amzaServiceConfig.interruptBlockingReadsIfLingersForNMillis = amzaConfig.getInterruptBlockingReadsIfLingersForNMillis();
             amzaServiceConfig.rackDistributionEnabled = amzaConfig.getRackDistributionEnabled();
             amzaServiceConfig.hangupAvailableRowsAfterUnresponsiveMillis = amzaConfig.getHangupAvailableRowsAfterUnresponsiveMillis();
             amzaServiceConfig.pongIntervalMillis = amzaConfig.getPongIntervalMillis();
             amzaServiceConfig.rowsTakerLimit = amzaConfig.getRowsTakerLimit();
+            amzaServiceConfig.takeReadBufferSizeInBytes = amzaConfig.getTakeReadBufferSizeInBytes();
+            amzaServiceConfig.takeRowBufferSizeInBytes = amzaConfig.getTakeRowBufferSizeInBytes();
+            amzaServiceConfig.takeMaxPooledRowBufferSizeInBytes = amzaConfig.getTakeMaxPooledRowBufferSizeInBytes();
+            amzaServiceConfig.snapshotBootstrapMinBytes = amzaConfig.getSnapshotBootstrapMinBytes();
+            amzaServiceConfig.tcpReplicationEnabled = amzaConfig.getTcpReplicationEnabled();
+            amzaServiceConfig.tcpReplicationPortOffset = amzaConfig.getTcpReplicationPortOffset();
+            amzaServiceConfig.tcpReplicationConnectionsPerPeer = amzaConfig.getTcpReplicationConnectionsPerPeer();
+            amzaServiceConfig.tcpReplicationConnectTimeoutMillis = amzaConfig.getTcpReplicationConnectTimeoutMillis();
+            amzaServiceConfig.tcpReplicationReadTimeoutMillis = amzaConfig.getTcpReplicationReadTimeoutMillis();
+            amzaServiceConfig.tcpReplicationStreamQueueCapacity = amzaConfig.getTcpReplicationStreamQueueCapacity();
+            amzaServiceConfig.tcpReplicationStreamBufferSizeInBytes = amzaConfig.getTcpReplicationStreamBufferSizeInBytes();
+            amzaServiceConfig.tcpReplicationMaxFrameSizeInBytes = amzaConfig.getTcpReplicationMaxFrameSizeInBytes();
             amzaServiceConfig.flushHighwatersAfterNUpdates = amzaConfig.getFlushHighwatersAfterNUpdates();
             amzaServiceConfig.deltaUseHighwaterTxId = amzaConfig.getDeltaUseHighwaterTxId();
+            amzaServiceConfig.deltaUseOffHeapIndex = amzaConfig.getDeltaUseOffHeapIndex();
+            amzaServiceConfig.deltaLoadThreads = amzaConfig.getDeltaLoadThreads();
+            amzaServiceConfig.deltaLoadChunkSizeInBytes = amzaConfig.getDeltaLoadChunkSizeInBytes();
+            amzaServiceConfig.deltaCheckpointIntervalInMillis = amzaConfig.getDeltaCheckpointIntervalInMillis();
+            amzaServiceConfig.deltaMergeThreads = amzaConfig.getDeltaMergeThreads();
+            amzaServiceConfig.deltaBackPressureAtPercentOfCapacity = amzaConfig.getDeltaBackPressureAtPercentOfCapacity();
+            amzaServiceConfig.deltaBackPressureMaxDelayMillis = amzaConfig.getDeltaBackPressureMaxDelayMillis();
+            amzaServiceConfig.deltaReservedPercentOfCapacity = amzaConfig.getDeltaReservedPercentOfCapacity();
+            amzaServiceConfig.writeQuotaMaxDelayMillis = amzaConfig.getWriteQuotaMaxDelayMillis();
 
             AmzaStats amzaSystemStats = new AmzaStats();
             AmzaStats amzaStats = new AmzaStats();
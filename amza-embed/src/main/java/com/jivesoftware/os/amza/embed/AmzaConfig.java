@@ -29,6 +29,42 @@ public interface AmzaConfig extends Config {
     @LongDefault(65_536L)
     long getRowsTakerLimit();
 
+    @IntDefault(8_192)
+    int getTakeReadBufferSizeInBytes();
+
+    @IntDefault(4_096)
+    int getTakeRowBufferSizeInBytes();
+
+    @IntDefault(1_024 * 1_024)
+    int getTakeMaxPooledRowBufferSizeInBytes();
+
+    @LongDefault(0)
+    long getSnapshotBootstrapMinBytes();
+
+    @BooleanDefault(false)
+    boolean getTcpReplicationEnabled();
+
+    @IntDefault(1)
+    int getTcpReplicationPortOffset();
+
+    @IntDefault(2)
+    int getTcpReplicationConnectionsPerPeer();
+
+    @IntDefault(10_000)
+    int getTcpReplicationConnectTimeoutMillis();
+
+    @LongDefault(60_000)
+    long getTcpReplicationReadTimeoutMillis();
+
+    @IntDefault(1_024)
+    int getTcpReplicationStreamQueueCapacity();
+
+    @IntDefault(65_536)
+    int getTcpReplicationStreamBufferSizeInBytes();
+
+    @IntDefault(16 * 1_024 * 1_024)
+    int getTcpReplicationMaxFrameSizeInBytes();
+
     @IntDefault(8)
     int getNumberOfTakerThreads();
 
@@ -50,6 +86,27 @@ public interface AmzaConfig extends Config {
     @LongDefault(1000 * 60 * 60)
     long getRebalanceableEveryNMillis();
 
+    @IntDefault(-1)
+    int getMaxConcurrentTombstoneCompactions();
+
+    @LongDefault(0)
+    long getTombstoneCompactionMaxBytesPerSecond();
+
+    @LongDefault(0)
+    long getHydratedValueCacheMaxSizeInBytes();
+
+    @IntDefault(8)
+    int getParallelScanThreads();
+
+    @IntDefault(1_024)
+    int getParallelScanQueueCapacity();
+
+    @LongDefault(300_000)
+    long getSubscribeMaxSessionMillis();
+
+    @IntDefault(64)
+    int getSubscribeMaxConcurrent();
+
     @LongDefault(1024 * 1024 * 1024)
     long getRebalanceIfImbalanceGreaterThanNBytes();
 
@@ -73,4 +130,31 @@ public interface AmzaConfig extends Config {
 
     @BooleanDefault(false)
     boolean getDeltaUseHighwaterTxId();
+
+    @BooleanDefault(false)
+    boolean getDeltaUseOffHeapIndex();
+
+    @IntDefault(0)
+    int getDeltaLoadThreads();
+
+    @LongDefault(16 * 1024 * 1024)
+    long getDeltaLoadChunkSizeInBytes();
+
+    @LongDefault(0)
+    long getDeltaCheckpointIntervalInMillis();
+
+    @IntDefault(-1)
+    int getDeltaMergeThreads();
+
+    @IntDefault(75)
+    int getDeltaBackPressureAtPercentOfCapacity();
+
+    @LongDefault(100)
+    long getDeltaBackPressureMaxDelayMillis();
+
+    @IntDefault(20)
+    int getDeltaReservedPercentOfCapacity();
+
+    @LongDefault(100)
+    long getWriteQuotaMaxDelayMillis();
 }
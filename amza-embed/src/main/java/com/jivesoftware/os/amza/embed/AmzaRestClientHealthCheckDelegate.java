@@ -16,6 +16,8 @@ import com.jivesoftware.os.routing.bird.health.api.TimerHealthCheckConfig;
 import com.jivesoftware.os.routing.bird.health.checkers.TimerHealthChecker;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import org.merlin.config.defaults.DoubleDefault;
 import org.merlin.config.defaults.StringDefault;
 
@@ -63,6 +65,45 @@ public class AmzaRestClientHealthCheckDelegate implements AmzaRestClient {
         }
     }
 
+    @Override
+    public CompletableFuture<StateMessageCause> commitAsync(PartitionName partitionName,
+        Consistency consistency,
+        boolean checkLeader,
+        long partitionAwaitOnlineTimeoutMillis,
+        IReadable read) throws Exception {
+        // timed until the future completes so the quorum and durability waits are covered, not just the local write
+        commitLatency.startTimer();
+        CompletableFuture<StateMessageCause> committed;
+        try {
+            committed = client.commitAsync(partitionName, consistency, checkLeader, partitionAwaitOnlineTimeoutMillis, read);
+        } catch (Exception x) {
+            commitLatency.stopTimer("Commit", "Check cluster health.");
+            throw x;
+        }
+        return committed.whenComplete((stateMessageCause, x) -> commitLatency.stopTimer("Commit", "Check cluster health."));
+    }
+
+    @Override
+    public List<Future<StateMessageCause>> commitBatch(Consistency consistency, boolean checkLeader, long partitionAwaitOnlineTimeoutMillis,
+        IReadable read) throws Exception {
+        try {
+            commitLatency.startTimer();
+            return client.commitBatch(consistency, checkLeader, partitionAwaitOnlineTimeoutMillis, read);
+        } finally {
+            commitLatency.stopTimer("Commit", "Check cluster health.");
+        }
+    }
+
+    @Override
+    public StateMessageCause repair(PartitionName partitionName, long partitionAwaitOnlineTimeoutMillis, IReadable read) throws Exception {
+        try {
+            commitLatency.startTimer();
+            return client.repair(partitionName, partitionAwaitOnlineTimeoutMillis, read);
+        } finally {
+            commitLatency.stopTimer("Repair", "Check cluster health.");
+        }
+    }
+
     public static interface ConfigRequestLatency extends TimerHealthCheckConfig {
 
         @StringDefault("client>config>request>latency")
@@ -198,6 +239,33 @@ public class AmzaRestClientHealthCheckDelegate implements AmzaRestClient {
         }
     }
 
+    public static interface GetDigestResponseLatency extends TimerHealthCheckConfig {
+
+        @StringDefault("client>getDigest>response>latency")
+        @Override
+        String getName();
+
+        @StringDefault("How long its taking to getDigest.")
+        @Override
+        String getDescription();
+
+        @DoubleDefault(3600000d)
+        @Override
+        Double get95ThPecentileMax();
+    }
+
+    private static final HealthTimer getDigestResponseLatency = HealthFactory.getHealthTimer(GetDigestResponseLatency.class, TimerHealthChecker.FACTORY);
+
+    @Override
+    public void getDigest(PartitionName partitionName, Consistency consistency, IReadable in, IWriteable out) throws Exception {
+        try {
+            getDigestResponseLatency.startTimer();
+            client.getDigest(partitionName, consistency, in, out);
+        } finally {
+            getDigestResponseLatency.stopTimer("Ensure", "Check cluster health.");
+        }
+    }
+
     public static interface RingRequestLatency extends TimerHealthCheckConfig {
 
         @StringDefault("client>ring>request>latency")
@@ -319,16 +387,46 @@ public class AmzaRestClientHealthCheckDelegate implements AmzaRestClient {
         boolean rangeBoundaries,
         KeyValueFilter filter,
         IWriteable out,
-        boolean hydrateValues) throws Exception {
+        boolean hydrateValues,
+        int limit,
+        int parallelism,
+        boolean ordered) throws Exception {
         HealthTimer timer = hydrateValues ? scanResponseLatency : scanKeysResponseLatency;
         try {
             timer.startTimer();
-            client.scan(partitionName, ranges, rangeBoundaries, filter, out, hydrateValues);
+            client.scan(partitionName, ranges, rangeBoundaries, filter, out, hydrateValues, limit, parallelism, ordered);
         } finally {
             timer.stopTimer("Ensure", "Check cluster health.");
         }
     }
 
+    public static interface ScanIndexResponseLatency extends TimerHealthCheckConfig {
+
+        @StringDefault("client>scanIndex>response>latency")
+        @Override
+        String getName();
+
+        @StringDefault("How long its taking to scanIndex.")
+        @Override
+        String getDescription();
+
+        @DoubleDefault(3600000d)
+        @Override
+        Double get95ThPecentileMax();
+    }
+
+    private static final HealthTimer scanIndexResponseLatency = HealthFactory.getHealthTimer(ScanIndexResponseLatency.class, TimerHealthChecker.FACTORY);
+
+    @Override
+    public void scanIndex(PartitionName partitionName, String indexName, byte[] fromIndexKey, byte[] toIndexKey, IWriteable out) throws Exception {
+        try {
+            scanIndexResponseLatency.startTimer();
+            client.scanIndex(partitionName, indexName, fromIndexKey, toIndexKey, out);
+        } finally {
+            scanIndexResponseLatency.stopTimer("Ensure", "Check cluster health.");
+        }
+    }
+
     public static interface StatusLatency extends TimerHealthCheckConfig {
 
         @StringDefault("client>status>latency")
@@ -410,6 +508,22 @@ public class AmzaRestClientHealthCheckDelegate implements AmzaRestClient {
         }
     }
 
+    @Override
+    public boolean acquireSubscription() {
+        return client.acquireSubscription();
+    }
+
+    @Override
+    public void releaseSubscription() {
+        client.releaseSubscription();
+    }
+
+    @Override
+    public void subscribe(PartitionName partitionName, int limit, IReadable in, IWriteable out) throws Exception {
+        // not timed, a subscription is meant to stay open for its whole session
+        client.subscribe(partitionName, limit, in, out);
+    }
+
 
     public static interface ApproximateCountLatency extends TimerHealthCheckConfig {
 
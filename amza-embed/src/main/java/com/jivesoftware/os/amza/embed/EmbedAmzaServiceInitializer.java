@@ -15,6 +15,7 @@ import com.jivesoftware.os.amza.berkeleydb.BerkeleyDBWALIndexProvider;
 import com.jivesoftware.os.amza.client.http.AmzaClientProvider;
 import com.jivesoftware.os.amza.client.http.HttpPartitionClientFactory;
 import com.jivesoftware.os.amza.client.http.HttpPartitionHostsProvider;
+import com.jivesoftware.os.amza.client.http.HttpRemoteCommitBatchCaller;
 import com.jivesoftware.os.amza.client.http.RingHostHttpClientProvider;
 import com.jivesoftware.os.amza.lab.pointers.LABPointerIndexConfig;
 import com.jivesoftware.os.amza.lab.pointers.LABPointerIndexWALIndexProvider;
@@ -30,6 +31,10 @@ import com.jivesoftware.os.amza.service.replication.http.HttpAvailableRowsTaker;
 import com.jivesoftware.os.amza.service.replication.http.HttpRowsTaker;
 import com.jivesoftware.os.amza.service.replication.http.endpoints.AmzaClientRestEndpoints;
 import com.jivesoftware.os.amza.service.replication.http.endpoints.AmzaReplicationRestEndpoints;
+import com.jivesoftware.os.amza.service.replication.tcp.TcpAvailableRowsTaker;
+import com.jivesoftware.os.amza.service.replication.tcp.TcpReplicationClient;
+import com.jivesoftware.os.amza.service.replication.tcp.TcpReplicationServer;
+import com.jivesoftware.os.amza.service.replication.tcp.TcpRowsTaker;
 import com.jivesoftware.os.amza.service.ring.AmzaRingReader;
 import com.jivesoftware.os.amza.service.ring.AmzaRingWriter;
 import com.jivesoftware.os.amza.service.stats.AmzaStats;
@@ -215,31 +220,83 @@ public class EmbedAmzaServiceInitializer {
 
         deployable.addHealthCheck(new TenantAwareHttpClientHealthCheck("ringClient", ringClient));
 
-        AvailableRowsTaker availableRowsTaker = new HttpAvailableRowsTaker(ringClient, amzaInterner, mapper);
+        TcpReplicationClient tcpReplicationClient = null;
+        AvailableRowsTaker availableRowsTaker;
+        if (amzaServiceConfig.tcpReplicationEnabled) {
+            tcpReplicationClient = new TcpReplicationClient(amzaServiceConfig.tcpReplicationPortOffset,
+                amzaServiceConfig.tcpReplicationConnectionsPerPeer,
+                amzaServiceConfig.tcpReplicationConnectTimeoutMillis,
+                amzaServiceConfig.tcpReplicationReadTimeoutMillis,
+                amzaServiceConfig.tcpReplicationStreamQueueCapacity,
+                amzaServiceConfig.tcpReplicationMaxFrameSizeInBytes);
+            availableRowsTaker = new TcpAvailableRowsTaker(tcpReplicationClient,
+                amzaInterner,
+                amzaServiceConfig.takeRowBufferSizeInBytes,
+                amzaServiceConfig.takeMaxPooledRowBufferSizeInBytes);
+        } else {
+            availableRowsTaker = new HttpAvailableRowsTaker(ringClient,
+                amzaInterner,
+                mapper,
+                amzaServiceConfig.takeReadBufferSizeInBytes,
+                amzaServiceConfig.takeRowBufferSizeInBytes,
+                amzaServiceConfig.takeMaxPooledRowBufferSizeInBytes);
+        }
         AquariumStats aquariumStats = new AquariumStats();
 
         TriggerTimeoutHealthCheck quorumTimeoutHealthCheck = new TriggerTimeoutHealthCheck(() -> amzaStats.getGrandTotal().quorumTimeouts.longValue(),
             deployable.config(QuorumTimeouts.class));
         deployable.addHealthCheck(quorumTimeoutHealthCheck);
 
-        RowsTakerFactory systemRowsTakerFactory = () -> {
-            return new HttpRowsTaker("system",
-                amzaSystemStats,
-                systemTakeClient,
-                mapper,
-                amzaInterner,
-                deployable.newBoundedExecutor(1, "system-ack-queue"),
-                deployable.newBoundedExecutor(1024, "system-acks"));
-        };
-        RowsTakerFactory rowsTakerFactory = () -> {
-            return new HttpRowsTaker("striped",
-                amzaStats,
-                stripedTakeClient,
-                mapper,
-                amzaInterner,
-                deployable.newBoundedExecutor(1, "striped-ack-queue"),
-                deployable.newBoundedExecutor(1024, "striped-acks"));
-        };
+        RowsTakerFactory systemRowsTakerFactory;
+        RowsTakerFactory rowsTakerFactory;
+        if (tcpReplicationClient != null) {
+            TcpReplicationClient client = tcpReplicationClient;
+            systemRowsTakerFactory = () -> {
+                return new TcpRowsTaker("system",
+                    amzaSystemStats,
+                    client,
+                    amzaInterner,
+                    amzaServiceConfig.takeRowBufferSizeInBytes,
+                    amzaServiceConfig.takeMaxPooledRowBufferSizeInBytes,
+                    deployable.newBoundedExecutor(1, "system-ack-queue"),
+                    deployable.newBoundedExecutor(1024, "system-acks"));
+            };
+            rowsTakerFactory = () -> {
+                return new TcpRowsTaker("striped",
+                    amzaStats,
+                    client,
+                    amzaInterner,
+                    amzaServiceConfig.takeRowBufferSizeInBytes,
+                    amzaServiceConfig.takeMaxPooledRowBufferSizeInBytes,
+                    deployable.newBoundedExecutor(1, "striped-ack-queue"),
+                    deployable.newBoundedExecutor(1024, "striped-acks"));
+            };
+        } else {
+            systemRowsTakerFactory = () -> {
+                return new HttpRowsTaker("system",
+                    amzaSystemStats,
+                    systemTakeClient,
+                    mapper,
+                    amzaInterner,
+                    amzaServiceConfig.takeReadBufferSizeInBytes,
+                    amzaServiceConfig.takeRowBufferSizeInBytes,
+                    amzaServiceConfig.takeMaxPooledRowBufferSizeInBytes,
+                    deployable.newBoundedExecutor(1, "system-ack-queue"),
+                    deployable.newBoundedExecutor(1024, "system-acks"));
+            };
+            rowsTakerFactory = () -> {
+                return new HttpRowsTaker("striped",
+                    amzaStats,
+                    stripedTakeClient,
+                    mapper,
+                    amzaInterner,
+                    amzaServiceConfig.takeReadBufferSizeInBytes,
+                    amzaServiceConfig.takeRowBufferSizeInBytes,
+                    amzaServiceConfig.takeMaxPooledRowBufferSizeInBytes,
+                    deployable.newBoundedExecutor(1, "striped-ack-queue"),
+                    deployable.newBoundedExecutor(1024, "striped-acks"));
+            };
+        }
 
         AtomicInteger systemRingSize = new AtomicInteger(0);
         AmzaService amzaService = new AmzaServiceInitializer().initialize(amzaServiceConfig,
@@ -291,6 +348,17 @@ public class EmbedAmzaServiceInitializer {
                 return deployable.newBoundedExecutor(threadCount, name);
             });
 
+        TcpReplicationServer tcpReplicationServer = null;
+        if (amzaServiceConfig.tcpReplicationEnabled) {
+            tcpReplicationServer = new TcpReplicationServer(amzaStats,
+                amzaService,
+                amzaInterner,
+                port + amzaServiceConfig.tcpReplicationPortOffset,
+                amzaServiceConfig.tcpReplicationStreamBufferSizeInBytes,
+                amzaServiceConfig.tcpReplicationMaxFrameSizeInBytes,
+                deployable.newBoundedExecutor(1024, "tcp-replication"));
+        }
+
         RoutingBirdAmzaDiscovery routingBirdAmzaDiscovery = null;
         if (useAmzaDiscovery) {
             routingBirdAmzaDiscovery = new RoutingBirdAmzaDiscovery(deployable,
@@ -314,6 +382,7 @@ public class EmbedAmzaServiceInitializer {
             new HttpPartitionClientFactory(),
             new HttpPartitionHostsProvider(ringClient, tailAtScaleStrategy, mapper),
             new RingHostHttpClientProvider(ringClient),
+            new HttpRemoteCommitBatchCaller(),
             deployable.newBoundedExecutor(1024, "amza-client"),
             10_000, //TODO expose to conf
             -1,
@@ -364,7 +433,9 @@ public class EmbedAmzaServiceInitializer {
         if (bindClientEndpoints) {
             deployable.addEndpoints(AmzaClientRestEndpoints.class);
             deployable.addInjectables(AmzaRestClient.class, new AmzaRestClientHealthCheckDelegate(
-                new AmzaClientService(amzaService.getRingReader(), amzaService.getRingWriter(), amzaService)));
+                new AmzaClientService(amzaService.getRingReader(), amzaService.getRingWriter(), amzaService, amzaInterner,
+                    deployable.newBoundedExecutor(1024, "commit-batch"), amzaServiceConfig.subscribeMaxSessionMillis,
+                    amzaServiceConfig.subscribeMaxConcurrent)));
         }
 
         Resource staticResource = new Resource(null)
@@ -373,7 +444,7 @@ public class EmbedAmzaServiceInitializer {
             .setContext("/static/amza");
         deployable.addResource(staticResource);
 
-        return new Lifecycle(ringMember, ringHost, amzaService, routingBirdAmzaDiscovery);
+        return new Lifecycle(ringMember, ringHost, amzaService, tcpReplicationServer, tcpReplicationClient, routingBirdAmzaDiscovery);
     }
 
     public static class Lifecycle {
@@ -381,16 +452,28 @@ public class EmbedAmzaServiceInitializer {
         public final RingMember ringMember;
         public final RingHost ringHost;
         public final AmzaService amzaService;
+        public final TcpReplicationServer tcpReplicationServer;
+        public final TcpReplicationClient tcpReplicationClient;
         public final RoutingBirdAmzaDiscovery routingBirdAmzaDiscovery;
 
-        public Lifecycle(RingMember ringMember, RingHost ringHost, AmzaService amzaService, RoutingBirdAmzaDiscovery routingBirdAmzaDiscovery) {
+        public Lifecycle(RingMember ringMember,
+            RingHost ringHost,
+            AmzaService amzaService,
+            TcpReplicationServer tcpReplicationServer,
+            TcpReplicationClient tcpReplicationClient,
+            RoutingBirdAmzaDiscovery routingBirdAmzaDiscovery) {
             this.ringMember = ringMember;
             this.ringHost = ringHost;
             this.amzaService = amzaService;
+            this.tcpReplicationServer = tcpReplicationServer;
+            this.tcpReplicationClient = tcpReplicationClient;
             this.routingBirdAmzaDiscovery = routingBirdAmzaDiscovery;
         }
 
         public void startAmzaService() throws Exception {
+            if (tcpReplicationServer != null) {
+                tcpReplicationServer.start();
+            }
             amzaService.start(ringMember, ringHost);
 
             System.out.println("-----------------------------------------------------------------------");
@@ -399,6 +482,16 @@ public class EmbedAmzaServiceInitializer {
 
         }
 
+        public void stopAmzaService() throws Exception {
+            if (tcpReplicationServer != null) {
+                tcpReplicationServer.stop();
+            }
+            amzaService.stop();
+            if (tcpReplicationClient != null) {
+                tcpReplicationClient.close();
+            }
+        }
+
         public void startRoutingBirdAmzaDiscovery() {
             if (routingBirdAmzaDiscovery != null) {
                 routingBirdAmzaDiscovery.start();
@@ -30,6 +30,7 @@ import com.jivesoftware.os.amza.berkeleydb.BerkeleyDBWALIndexProvider;
 import com.jivesoftware.os.amza.client.http.AmzaClientProvider;
 import com.jivesoftware.os.amza.client.http.HttpPartitionClientFactory;
 import com.jivesoftware.os.amza.client.http.HttpPartitionHostsProvider;
+import com.jivesoftware.os.amza.client.http.HttpRemoteCommitBatchCaller;
 import com.jivesoftware.os.amza.client.http.RingHostHttpClientProvider;
 import com.jivesoftware.os.amza.lab.pointers.LABPointerIndexConfig;
 import com.jivesoftware.os.amza.lab.pointers.LABPointerIndexWALIndexProvider;
@@ -244,7 +245,12 @@ public class Main {
             .socketTimeoutInMillis(60_000)
             .build(); //TODO expose to conf
 
-        AvailableRowsTaker availableRowsTaker = new HttpAvailableRowsTaker(httpClient, amzaInterner, mapper); // TODO config
+        AvailableRowsTaker availableRowsTaker = new HttpAvailableRowsTaker(httpClient,
+            amzaInterner,
+            mapper,
+            amzaServiceConfig.takeReadBufferSizeInBytes,
+            amzaServiceConfig.takeRowBufferSizeInBytes,
+            amzaServiceConfig.takeMaxPooledRowBufferSizeInBytes);
         AquariumStats aquariumStats = new AquariumStats();
 
         AmzaService amzaService = new AmzaServiceInitializer().initialize(amzaServiceConfig,
@@ -288,6 +294,9 @@ public class Main {
                     httpClient,
                     mapper,
                     amzaInterner,
+                    amzaServiceConfig.takeReadBufferSizeInBytes,
+                    amzaServiceConfig.takeRowBufferSizeInBytes,
+                    amzaServiceConfig.takeMaxPooledRowBufferSizeInBytes,
                     Executors.newSingleThreadExecutor(),
                     Executors.newCachedThreadPool());
             },
@@ -297,6 +306,9 @@ public class Main {
                     httpClient,
                     mapper,
                     amzaInterner,
+                    amzaServiceConfig.takeReadBufferSizeInBytes,
+                    amzaServiceConfig.takeRowBufferSizeInBytes,
+                    amzaServiceConfig.takeMaxPooledRowBufferSizeInBytes,
                     Executors.newSingleThreadExecutor(),
                     Executors.newCachedThreadPool());
             },
@@ -320,6 +332,7 @@ public class Main {
             new HttpPartitionClientFactory(),
             new HttpPartitionHostsProvider(httpClient, tailAtScaleStrategy, mapper),
             new RingHostHttpClientProvider(httpClient),
+            new HttpRemoteCommitBatchCaller(),
             BoundedExecutor.newBoundedExecutor(1024, "amza-client"),
             10_000, //TODO expose to conf
             -1,
@@ -334,7 +347,9 @@ public class Main {
             .addEndpoint(AmzaClientRestEndpoints.class)
             .addInjectable(AmzaInterner.class, amzaInterner)
             .addInjectable(ObjectMapper.class, mapper)
-            .addInjectable(AmzaRestClient.class, new AmzaClientService(amzaService.getRingReader(), amzaService.getRingWriter(), amzaService));
+            .addInjectable(AmzaRestClient.class, new AmzaClientService(amzaService.getRingReader(), amzaService.getRingWriter(), amzaService,
+                amzaInterner, BoundedExecutor.newBoundedExecutor(1024, "commit-batch"), amzaServiceConfig.subscribeMaxSessionMillis,
+                amzaServiceConfig.subscribeMaxConcurrent));
 
         new AmzaUIInitializer().initialize(clusterName,
             ringHost,
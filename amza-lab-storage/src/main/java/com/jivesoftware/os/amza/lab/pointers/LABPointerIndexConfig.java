@@ -71,4 +71,13 @@ public interface LABPointerIndexConfig extends Config {
     @BooleanDefault(true)
     boolean getHashIndexEnabled();
 
+    @IntDefault(16_384)
+    int getBloomFilterInitialCapacity();
+
+    /**
+     * Zero or less disables the bloom filter.
+     */
+    @DoubleDefault(0.01d)
+    double getBloomFilterFpp();
+
 }
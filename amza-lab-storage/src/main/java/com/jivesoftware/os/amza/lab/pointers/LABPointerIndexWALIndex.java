@@ -4,6 +4,7 @@ import com.jivesoftware.os.amza.api.CompareTimestampVersions;
 import com.jivesoftware.os.amza.api.filer.UIO;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.scan.CompactionWALIndex;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyPointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValuePointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyValues;
@@ -14,6 +15,9 @@ import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.stream.WALKeyPointerStream;
 import com.jivesoftware.os.amza.api.stream.WALKeyPointers;
 import com.jivesoftware.os.amza.api.stream.WALMergeKeyPointerStream;
+import com.jivesoftware.os.amza.api.wal.KeyBloomFilter;
+import com.jivesoftware.os.amza.api.wal.KeyUtil;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
 import com.jivesoftware.os.amza.api.wal.WALIndex;
 import com.jivesoftware.os.amza.api.wal.WALKey;
 import com.jivesoftware.os.amza.lab.pointers.LABPointerIndexWALIndexName.Type;
@@ -28,6 +32,7 @@ import com.jivesoftware.os.lab.guts.LABHashIndexType;
 import com.jivesoftware.os.lab.io.BolBuffer;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Map;
@@ -53,9 +58,13 @@ public class LABPointerIndexWALIndex implements WALIndex {
     private final LABPointerIndexWALIndexName name;
     private final LABPointerIndexConfig config;
     private final LABEnvironment[] environments;
+    private final File[] bloomDirs;
     private volatile int currentStripe;
     private ValueIndex<byte[]> primaryDb;
     private ValueIndex<byte[]> prefixDb;
+    private ValueIndex<byte[]> secondaryDb;
+    private volatile SecondaryIndexes secondaryIndexes = SecondaryIndexes.NONE;
+    private volatile KeyBloomFilter bloomFilter;
 
     private final AtomicBoolean closed = new AtomicBoolean(false);
     private final Semaphore lock = new Semaphore(numPermits, true);
@@ -67,6 +76,7 @@ public class LABPointerIndexWALIndex implements WALIndex {
         int maxValueSizeInIndex,
         VersionedPartitionName versionedPartitionName,
         LABEnvironment[] environments,
+        File[] bloomDirs,
         int currentStripe,
         LABPointerIndexWALIndexName name,
         LABPointerIndexConfig config) throws Exception {
@@ -76,6 +86,7 @@ public class LABPointerIndexWALIndex implements WALIndex {
         this.name = name;
         this.config = config;
         this.environments = environments;
+        this.bloomDirs = bloomDirs;
         this.currentStripe = currentStripe;
     }
 
@@ -113,6 +124,53 @@ public class LABPointerIndexWALIndex implements WALIndex {
                 LABHashIndexType.valueOf(config.getHashIndexType()),
                 config.getHashIndexLoadFactor(),
                 config.getHashIndexEnabled()));
+            secondaryDb = environments[currentStripe].open(new ValueIndexConfig(name.getSecondaryName(),
+                config.getEntriesBetweenLeaps(),
+                config.getMaxHeapPressureInBytes(),
+                config.getSplitWhenKeysTotalExceedsNBytes(),
+                config.getSplitWhenValuesTotalExceedsNBytes(),
+                config.getSplitWhenValuesAndKeysTotalExceedsNBytes(),
+                NoOpFormatTransformerProvider.NAME,
+                LABRawhide.NAME,
+                MemoryRawEntryFormat.NAME,
+                -1,
+                LABHashIndexType.valueOf(config.getHashIndexType()),
+                config.getHashIndexLoadFactor(),
+                config.getHashIndexEnabled()));
+            bloomFilter = loadBloomFilter();
+        }
+    }
+
+    private KeyBloomFilter newBloomFilter(int stripe) {
+        if (config.getBloomFilterFpp() <= 0d) {
+            return null;
+        }
+        return new KeyBloomFilter(new File(bloomDirs[stripe], name.getBloomName()),
+            config.getBloomFilterInitialCapacity(),
+            config.getBloomFilterFpp());
+    }
+
+    private KeyBloomFilter loadBloomFilter() throws Exception {
+        KeyBloomFilter filter = newBloomFilter(currentStripe);
+        if (filter != null && !filter.load()) {
+            primaryDb.rowScan((index, rawKey, timestamp, tombstoned, version, payload) -> {
+                filter.put(rawKey.copy());
+                return true;
+            }, false);
+            LOG.info("Rebuilt bloom filter with {} keys for {}", filter.getKeys(), name.getPrimaryName());
+        }
+        return filter;
+    }
+
+    private boolean mightContain(byte[] pk) {
+        KeyBloomFilter filter = bloomFilter;
+        return filter == null || filter.mightContain(pk);
+    }
+
+    private void falsePositive() {
+        KeyBloomFilter filter = bloomFilter;
+        if (filter != null) {
+            filter.falsePositive();
         }
     }
 
@@ -164,39 +222,54 @@ public class LABPointerIndexWALIndex implements WALIndex {
             BolBuffer keyBuffer = new BolBuffer();
             return pointers.consume((txId, prefix, key, value, timestamp, tombstoned, version, fp) -> {
                 byte[] pk = WALKey.compose(prefix, key);
-                return primaryDb.get(
-                    (stream1) -> stream1.key(0, pk, 0, pk.length),
-                    (index1, key1, timestamp1, tombstoned1, version1, payload) -> {
-                        if (payload != null) {
-                            int c = CompareTimestampVersions.compare(timestamp1, version1, timestamp, version);
-                            mode[0] = (c < 0) ? WALMergeKeyPointerStream.clobbered : WALMergeKeyPointerStream.ignored;
-                        } else {
-                            mode[0] = WALMergeKeyPointerStream.added;
-                        }
-
-                        if (mode[0] != WALMergeKeyPointerStream.ignored) {
-                            byte[] mergePayload = toPayload(fp, value);
-                            primaryDb.append((pointerStream) -> {
-                                return pointerStream.stream(-1, pk, timestamp, tombstoned, version, mergePayload);
-                            }, true, entryBuffer, keyBuffer);
-
-                            if (prefix != null) {
-                                UIO.longBytes(txId, txFpBytes, 0);
-                                UIO.longBytes(fp, txFpBytes, 8);
-                                byte[] prefixTxFp = WALKey.compose(prefix, txFpBytes);
-                                prefixDb.append((pointerStream) -> {
-                                    return pointerStream.stream(-1, prefixTxFp, timestamp, tombstoned, version, mergePayload);
-                                }, true, entryBuffer, keyBuffer);
+                if (mightContain(pk)) {
+                    primaryDb.get(
+                        (stream1) -> stream1.key(0, pk, 0, pk.length),
+                        (index1, key1, timestamp1, tombstoned1, version1, payload) -> {
+                            if (payload != null) {
+                                int c = CompareTimestampVersions.compare(timestamp1, version1, timestamp, version);
+                                mode[0] = (c < 0) ? WALMergeKeyPointerStream.clobbered : WALMergeKeyPointerStream.ignored;
+                            } else {
+                                falsePositive();
+                                mode[0] = WALMergeKeyPointerStream.added;
                             }
-                        }
-                        if (stream != null) {
-                            return stream.stream(mode[0], txId, prefix, key, timestamp, tombstoned, version, fp);
-                        } else {
                             return true;
-                        }
-                    },
-                    true);
+                        },
+                        true);
+                } else {
+                    mode[0] = WALMergeKeyPointerStream.added;
+                }
+
+                if (mode[0] != WALMergeKeyPointerStream.ignored) {
+                    KeyBloomFilter filter = bloomFilter;
+                    if (filter != null && mode[0] == WALMergeKeyPointerStream.added) {
+                        filter.put(pk);
+                    }
+                    byte[] mergePayload = toPayload(fp, value);
+                    primaryDb.append((pointerStream) -> {
+                        return pointerStream.stream(-1, pk, timestamp, tombstoned, version, mergePayload);
+                    }, true, entryBuffer, keyBuffer);
+
+                    if (prefix != null) {
+                        UIO.longBytes(txId, txFpBytes, 0);
+                        UIO.longBytes(fp, txFpBytes, 8);
+                        byte[] prefixTxFp = WALKey.compose(prefix, txFpBytes);
+                        prefixDb.append((pointerStream) -> {
+                            return pointerStream.stream(-1, prefixTxFp, timestamp, tombstoned, version, mergePayload);
+                        }, true, entryBuffer, keyBuffer);
+                    }
 
+                    secondaryIndexes.entries(prefix, key, value, tombstoned, entryKey -> {
+                        return secondaryDb.append((pointerStream) -> {
+                            return pointerStream.stream(-1, entryKey, timestamp, false, version, UIO.longBytes(fp));
+                        }, true, entryBuffer, keyBuffer);
+                    });
+                }
+                if (stream != null) {
+                    return stream.stream(mode[0], txId, prefix, key, timestamp, tombstoned, version, fp);
+                } else {
+                    return true;
+                }
             });
         } finally {
             lock.release();
@@ -333,8 +406,14 @@ public class LABPointerIndexWALIndex implements WALIndex {
 
     private boolean getPointerInternal(byte[] prefix, byte[] key, WALKeyPointerStream stream) throws Exception {
         byte[] pk = WALKey.compose(prefix, key);
+        if (!mightContain(pk)) {
+            return stream.stream(prefix, key, -1, false, -1, -1, false, null);
+        }
         return primaryDb.get((keyStream) -> keyStream.key(0, pk, 0, pk.length),
             (index, rawKey, timestamp, tombstoned, version, payload) -> {
+                if (payload == null) {
+                    falsePositive();
+                }
                 return fromPayload(prefix, key, timestamp, tombstoned, version, payload == null ? null : payload.copy(), stream, true);
             },
             true);
@@ -345,14 +424,7 @@ public class LABPointerIndexWALIndex implements WALIndex {
         init();
         lock.acquire();
         try {
-            return keys.consume((key) -> {
-                byte[] pk = WALKey.compose(prefix, key);
-                return primaryDb.get((keyStream) -> keyStream.key(0, pk, 0, pk.length),
-                    (index, rawKey, timestamp, tombstoned, version, payload) -> {
-                        return fromPayload(prefix, key, timestamp, tombstoned, version, payload == null ? null : payload.copy(), stream, true);
-                    },
-                    true);
-            });
+            return keys.consume((key) -> getPointerInternal(prefix, key, stream));
         } finally {
             lock.release();
         }
@@ -365,8 +437,14 @@ public class LABPointerIndexWALIndex implements WALIndex {
         try {
             return keyValues.consume((prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
                 byte[] pk = WALKey.compose(prefix, key);
+                if (!mightContain(pk)) {
+                    return stream.stream(prefix, key, value, valueTimestamp, valueTombstoned, valueVersion, -1, false, -1, -1, false, null);
+                }
                 return primaryDb.get((keyStream) -> keyStream.key(0, pk, 0, pk.length),
                     (index, rawKey, timestamp, tombstoned, version, payload) -> {
+                        if (payload == null) {
+                            falsePositive();
+                        }
                         return fromPayload(prefix,
                             key,
                             value,
@@ -460,6 +538,9 @@ public class LABPointerIndexWALIndex implements WALIndex {
             if (prefixDb != null) {
                 prefixDb.commit(fsync, true);
             }
+            if (secondaryDb != null) {
+                secondaryDb.commit(fsync, true);
+            }
 
             synchronized (commits) {
                 count.set(-1);
@@ -483,6 +564,13 @@ public class LABPointerIndexWALIndex implements WALIndex {
                     prefixDb.close(true, true);
                     prefixDb = null;
                 }
+                if (secondaryDb != null) {
+                    secondaryDb.close(true, true);
+                    secondaryDb = null;
+                }
+                if (bloomFilter != null) {
+                    bloomFilter.save();
+                }
                 closed.set(true);
             }
         } finally {
@@ -567,9 +655,11 @@ public class LABPointerIndexWALIndex implements WALIndex {
                 maxValueSizeInIndex,
                 versionedPartitionName,
                 environments,
+                bloomDirs,
                 compactionStripe,
                 name.typeName(Type.compacting),
                 config);
+            compactingWALIndex.updatedSecondaryIndexes(secondaryIndexes);
             compactingTo.set(compactingWALIndex);
 
             return new CompactionWALIndex() {
@@ -600,6 +690,8 @@ public class LABPointerIndexWALIndex implements WALIndex {
                                 primaryDb = null;
                                 prefixDb.close(true, true);
                                 prefixDb = null;
+                                secondaryDb.close(true, true);
+                                secondaryDb = null;
                                 if (hasActive) {
                                     rename(currentStripe, Type.active, Type.backup, compactedNonEmpty);
                                 } else {
@@ -642,6 +734,35 @@ public class LABPointerIndexWALIndex implements WALIndex {
                                     LABHashIndexType.valueOf(config.getHashIndexType()),
                                     config.getHashIndexLoadFactor(),
                                     config.getHashIndexEnabled()));
+
+                                secondaryDb = environments[compactionStripe].open(new ValueIndexConfig(name.getSecondaryName(),
+                                    config.getEntriesBetweenLeaps(),
+                                    config.getMaxHeapPressureInBytes(),
+                                    config.getSplitWhenKeysTotalExceedsNBytes(),
+                                    config.getSplitWhenValuesTotalExceedsNBytes(),
+                                    config.getSplitWhenValuesAndKeysTotalExceedsNBytes(),
+                                    NoOpFormatTransformerProvider.NAME,
+                                    LABRawhide.NAME,
+                                    MemoryRawEntryFormat.NAME,
+                                    -1,
+                                    LABHashIndexType.valueOf(config.getHashIndexType()),
+                                    config.getHashIndexLoadFactor(),
+                                    config.getHashIndexEnabled()));
+
+                                // the compacted keys were all merged through the compacting filter, so it replaces ours
+                                if (bloomFilter != null) {
+                                    bloomFilter.delete();
+                                }
+                                KeyBloomFilter compactedBloomFilter = compactingWALIndex.bloomFilter;
+                                File bloomFile = new File(bloomDirs[compactionStripe], name.getBloomName());
+                                if (compactedBloomFilter != null) {
+                                    bloomFilter = compactedBloomFilter.moveTo(bloomFile);
+                                } else {
+                                    bloomFilter = newBloomFilter(compactionStripe);
+                                }
+                                if (bloomFilter != null) {
+                                    bloomFilter.save();
+                                }
                             }
 
                             currentStripe = compactionStripe;
@@ -667,6 +788,7 @@ public class LABPointerIndexWALIndex implements WALIndex {
     private boolean rename(int stripe, Type fromType, Type toType, boolean required) throws Exception {
         boolean primaryRenamed = environments[stripe].rename(name.typeName(fromType).getPrimaryName(), name.typeName(toType).getPrimaryName(), true);
         boolean prefixRenamed = environments[stripe].rename(name.typeName(fromType).getPrefixName(), name.typeName(toType).getPrefixName(), true);
+        environments[stripe].rename(name.typeName(fromType).getSecondaryName(), name.typeName(toType).getSecondaryName(), true);
         if (!primaryRenamed && (required || prefixRenamed)) {
             throw new IOException("Failed to rename"
                 + " from:" + name.typeName(fromType).getPrimaryName()
@@ -680,6 +802,8 @@ public class LABPointerIndexWALIndex implements WALIndex {
     private void removeDatabase(int stripe, Type type) throws Exception {
         environments[stripe].remove(name.typeName(type).getPrimaryName(), true);
         environments[stripe].remove(name.typeName(type).getPrefixName(), true);
+        environments[stripe].remove(name.typeName(type).getSecondaryName(), true);
+        new File(bloomDirs[stripe], name.typeName(type).getBloomName()).delete();
     }
 
     public void flush(boolean fsync) throws Exception {
@@ -691,6 +815,44 @@ public class LABPointerIndexWALIndex implements WALIndex {
             if (prefixDb != null) {
                 prefixDb.commit(fsync, true);
             }
+            if (secondaryDb != null) {
+                secondaryDb.commit(fsync, true);
+            }
+            KeyBloomFilter filter = bloomFilter;
+            if (fsync && filter != null) {
+                filter.save();
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    @Override
+    public boolean secondaryIndexScan(String indexName, byte[] fromIndexKey, byte[] toIndexKey, IndexedKeyPointerStream stream) throws Exception {
+        init();
+        lock.acquire();
+        try {
+            byte[] fromEntryKey = SecondaryIndexes.fromEntryKey(indexName, fromIndexKey);
+            byte[] toEntryKey = SecondaryIndexes.toEntryKey(indexName, toIndexKey);
+            if (KeyUtil.compare(fromEntryKey, toEntryKey) >= 0) {
+                return true;
+            }
+            BolBuffer bbToEntryKey = new BolBuffer(toEntryKey);
+            return secondaryDb.rangeScan(fromEntryKey, toEntryKey, (index, rawKey, entryTimestamp, entryTombstoned, entryVersion, payload) -> {
+                if (IndexUtil.compare(rawKey, bbToEntryKey) >= 0) {
+                    return false;
+                }
+                if (payload == null || entryTombstoned) {
+                    return true;
+                }
+                return SecondaryIndexes.decode(rawKey.copy(), (indexKey, prefix, key) -> getPointerInternal(prefix, key,
+                    (_prefix, _key, timestamp, tombstoned, version, fp, hasValue, value) -> {
+                        if (!SecondaryIndexes.isCurrent(entryTimestamp, entryVersion, timestamp, tombstoned, version, fp, hasValue)) {
+                            return true;
+                        }
+                        return stream.stream(indexKey, prefix, key, timestamp, tombstoned, version, fp, hasValue, value);
+                    }));
+            }, true);
         } finally {
             lock.release();
         }
@@ -700,12 +862,18 @@ public class LABPointerIndexWALIndex implements WALIndex {
     public void updatedProperties(Map<String, String> properties) {
     }
 
+    @Override
+    public void updatedSecondaryIndexes(SecondaryIndexes secondaryIndexes) {
+        this.secondaryIndexes = secondaryIndexes;
+    }
+
     @Override
     public String toString() {
         return "LABPointerIndexWALIndex{" + "name=" + name
             + ", environments=" + Arrays.toString(environments)
             + ", primaryDb=" + primaryDb
             + ", prefixDb=" + prefixDb
+            + ", secondaryDb=" + secondaryDb
             + ", lock=" + lock
             + ", count=" + count
             + ", commits=" + commits
@@ -35,6 +35,14 @@ public class LABPointerIndexWALIndexName {
         return modulo + "/prefix-" + type.toString() + "-" + name;
     }
 
+    public String getSecondaryName() {
+        return modulo + "/secondary-" + type.toString() + "-" + name;
+    }
+
+    public String getBloomName() {
+        return modulo + "/bloom-" + type.toString() + "-" + name;
+    }
+
     public LABPointerIndexWALIndexName typeName(Type type) {
         return new LABPointerIndexWALIndexName(modulo, type, name);
     }
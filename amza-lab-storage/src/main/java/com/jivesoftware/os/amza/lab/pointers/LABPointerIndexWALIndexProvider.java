@@ -29,6 +29,7 @@ public class LABPointerIndexWALIndexProvider implements WALIndexProvider<LABPoin
     private final AmzaInterner amzaInterner;
     private final String name;
     private final LABEnvironment[] environments;
+    private final File[] bloomDirs;
     private final LABPointerIndexConfig config;
     private final LRUConcurrentBAHLinkedHash<Leaps> leapCache;
 
@@ -46,7 +47,7 @@ public class LABPointerIndexWALIndexProvider implements WALIndexProvider<LABPoin
         this.config = config;
         this.name = name;
         this.environments = new LABEnvironment[numberOfStripes];
-
+        this.bloomDirs = new File[numberOfStripes];
 
         LABStats labStats = new LABStats(); // grr
 
@@ -68,6 +69,11 @@ public class LABPointerIndexWALIndexProvider implements WALIndexProvider<LABPoin
             if (!active.exists() && !active.mkdirs()) {
                 throw new RuntimeException("Failed while trying to mkdirs for " + active);
             }
+            this.bloomDirs[i] = new File(
+                new File(
+                    new File(baseDirs[i % baseDirs.length], AmzaVersionConstants.LATEST_VERSION),
+                    INDEX_CLASS_NAME + "-bloom"),
+                String.valueOf(i));
             this.environments[i] = new LABEnvironment(labStats, schedulerThreadPool,
                 compactorThreadPool,
                 destroyThreadPool,
@@ -153,6 +159,7 @@ public class LABPointerIndexWALIndexProvider implements WALIndexProvider<LABPoin
             maxValueSizeInIndex,
             versionedPartitionName,
             environments,
+            bloomDirs,
             stripe,
             indexName,
             config);
@@ -170,6 +177,12 @@ public class LABPointerIndexWALIndexProvider implements WALIndexProvider<LABPoin
             LOG.info("Removed database: {}", n.getPrimaryName());
             env.remove(n.getPrefixName(), true);
             LOG.info("Removed database: {}", n.getPrefixName());
+            env.remove(n.getSecondaryName(), true);
+            LOG.info("Removed database: {}", n.getSecondaryName());
+            File bloomFile = new File(bloomDirs[stripe], n.getBloomName());
+            if (bloomFile.delete()) {
+                LOG.info("Removed bloom filter: {}", bloomFile);
+            }
         }
     }
 
@@ -1,8 +1,9 @@
 package com.jivesoftware.os.amza.service;
 
-import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jivesoftware.os.amza.api.FailedToAchieveQuorumException;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.ring.RingMember;
@@ -16,6 +17,16 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -28,20 +39,22 @@ public class AckWaters {
     private final AmzaStats amzaSystemStats;
     private final AmzaStats amzaStats;
     private final HealthTimer quorumLatency;
-    private final AwaitNotify<VersionedPartitionName> awaitNotify;
     private final boolean verboseLogTimeouts;
     private final Map<RingMember, Map<VersionedPartitionName, LeadershipTokenAndTxId>> ackWaters = Maps.newConcurrentMap();
+    private final Map<VersionedPartitionName, ConcurrentSkipListMap<Long, Set<QuorumWaiter>>> waiters = Maps.newConcurrentMap();
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("ack-waters-timeout-%d").setDaemon(true).build());
+    private final ExecutorService completions = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+        new ThreadFactoryBuilder().setNameFormat("ack-waters-complete-%d").setDaemon(true).build());
 
     public AckWaters(AmzaStats amzaSystemStats,
         AmzaStats amzaStats,
         HealthTimer quorumLatency,
-        int stripingLevel,
         boolean verboseLogTimeouts) {
 
         this.amzaSystemStats = amzaSystemStats;
         this.amzaStats = amzaStats;
         this.quorumLatency = quorumLatency;
-        this.awaitNotify = new AwaitNotify<>(stripingLevel);
         this.verboseLogTimeouts = verboseLogTimeouts;
     }
 
@@ -49,21 +62,33 @@ public class AckWaters {
         Map<VersionedPartitionName, LeadershipTokenAndTxId> partitionTxIds = ackWaters.computeIfAbsent(ringMember,
             (t) -> Maps.newConcurrentMap());
 
-        awaitNotify.notifyChange(partitionName, () -> {
-            LeadershipTokenAndTxId result = partitionTxIds.compute(partitionName, (key, current) -> {
-                if (current == null) {
-                    return new LeadershipTokenAndTxId(leadershipToken, txId);
-                } else {
-                    if (txId <= current.txId && leadershipToken <= current.leadershipToken) {
-                        return current;
-                    }
-                    return new LeadershipTokenAndTxId(Math.max(leadershipToken, current.leadershipToken), Math.max(txId, current.txId));
+        long[] priorLeadershipToken = { Long.MIN_VALUE };
+        LeadershipTokenAndTxId result = partitionTxIds.compute(partitionName, (key, current) -> {
+            if (current == null) {
+                return new LeadershipTokenAndTxId(leadershipToken, txId);
+            } else {
+                priorLeadershipToken[0] = current.leadershipToken;
+                if (txId <= current.txId && leadershipToken <= current.leadershipToken) {
+                    return current;
                 }
-            });
-
-            return txId == result.txId || leadershipToken == result.leadershipToken;
-
+                return new LeadershipTokenAndTxId(Math.max(leadershipToken, current.leadershipToken), Math.max(txId, current.txId));
+            }
         });
+
+        if (txId == result.txId || leadershipToken == result.leadershipToken) {
+            ConcurrentSkipListMap<Long, Set<QuorumWaiter>> partitionWaiters = waiters.get(partitionName);
+            if (partitionWaiters != null) {
+                // a txId ack can only satisfy waiters at or below it, but a new leadership token has to fail every waiter it supersedes
+                Map<Long, Set<QuorumWaiter>> ackable = result.leadershipToken > priorLeadershipToken[0]
+                    ? partitionWaiters
+                    : partitionWaiters.headMap(result.txId, true);
+                for (Set<QuorumWaiter> txIdWaiters : ackable.values()) {
+                    for (QuorumWaiter waiter : txIdWaiters) {
+                        waiter.ack(ringMember, result);
+                    }
+                }
+            }
+        }
     }
 
     LeadershipTokenAndTxId get(RingMember ringMember, VersionedPartitionName partitionName) {
@@ -93,61 +118,234 @@ public class AckWaters {
         long leadershipToken,
         TakeCoordinator takeCoordinator) throws Exception {
 
-        AmzaStats stats = versionedPartitionName.getPartitionName().isSystemPartition() ? amzaSystemStats : amzaStats;
+        return join(awaitAsync(versionedPartitionName, desiredTxId, takeRingMembers, desiredTakeQuorum, toMillis, leadershipToken, takeCoordinator));
+    }
 
-        RingMember[] ringMembers = takeRingMembers.toArray(new RingMember[takeRingMembers.size()]);
-        int[] passed = new int[1];
-        long[] tookToTxId = new long[ringMembers.length];
-        Arrays.fill(tookToTxId, -1);
-        List<RingMember> tookFrom = Lists.newArrayList();
-        quorumLatency.startTimer();
+    /**
+     * Blocks on a future returned by {@link #awaitAsync}, or on one of its dependents, and rethrows its failure.
+     */
+    public <R> R join(CompletableFuture<R> quorum) throws Exception {
         try {
-            long start = System.currentTimeMillis();
-            Integer quorum = awaitNotify.awaitChange(versionedPartitionName, () -> {
-                for (int i = 0; i < ringMembers.length; i++) {
-                    RingMember ringMember = ringMembers[i];
-                    if (ringMember == null) {
-                        continue;
-                    }
-                    LeadershipTokenAndTxId leadershipTokenAndTxId = get(ringMember, versionedPartitionName);
-                    if (leadershipToken > -1 && (leadershipTokenAndTxId != null && leadershipTokenAndTxId.leadershipToken > leadershipToken)) {
-                        throw new FailedToAchieveQuorumException(
-                            "Leader transitioning from " + leadershipToken + " to " + leadershipTokenAndTxId.leadershipToken);
-                    }
-                    if (leadershipTokenAndTxId != null && leadershipTokenAndTxId.txId >= desiredTxId) {
-                        passed[0]++;
-                        ringMembers[i] = null;
-                        tookFrom.add(ringMember);
+            return quorum.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Registers a waiter which is completed once the member that achieves the quorum acks, so no thread is parked while the replicas catch
+     * up. The future fails with a {@link TimeoutException} after toMillis (never when negative), or with a
+     * {@link FailedToAchieveQuorumException} if a member reports a newer leadership token. The future is always completed on the ack
+     * waters completion pool, never on the thread calling {@link #set}: that is a take stream thread which holds the partition's storage
+     * version permit, so dependent stages that touch the partition again could otherwise deadlock behind a queued exclusive acquire.
+     */
+    public CompletableFuture<Integer> awaitAsync(VersionedPartitionName versionedPartitionName,
+        long desiredTxId,
+        Collection<RingMember> takeRingMembers,
+        int desiredTakeQuorum,
+        long toMillis,
+        long leadershipToken,
+        TakeCoordinator takeCoordinator) {
+
+        QuorumWaiter waiter = new QuorumWaiter(versionedPartitionName,
+            desiredTxId,
+            takeRingMembers.toArray(new RingMember[takeRingMembers.size()]),
+            desiredTakeQuorum,
+            toMillis,
+            leadershipToken,
+            takeCoordinator);
+
+        // register before checking so an ack landing in between is either seen by the check or delivered to the waiter
+        quorumLatency.startTimer();
+        waiters.compute(versionedPartitionName, (key, partitionWaiters) -> {
+            if (partitionWaiters == null) {
+                partitionWaiters = new ConcurrentSkipListMap<>();
+            }
+            partitionWaiters.computeIfAbsent(desiredTxId, txId -> Sets.newConcurrentHashSet()).add(waiter);
+            return partitionWaiters;
+        });
+        waiter.ackAll();
+        if (toMillis >= 0 && !waiter.future.isDone()) {
+            waiter.timeout = timeouts.schedule(waiter::timedOut, toMillis, TimeUnit.MILLISECONDS);
+        }
+        return waiter.future;
+    }
+
+    private void unregister(QuorumWaiter waiter) {
+        waiters.computeIfPresent(waiter.versionedPartitionName, (key, partitionWaiters) -> {
+            partitionWaiters.computeIfPresent(waiter.desiredTxId, (txId, txIdWaiters) -> {
+                txIdWaiters.remove(waiter);
+                return txIdWaiters.isEmpty() ? null : txIdWaiters;
+            });
+            return partitionWaiters.isEmpty() ? null : partitionWaiters;
+        });
+    }
+
+    private class QuorumWaiter {
+
+        private final VersionedPartitionName versionedPartitionName;
+        private final long desiredTxId;
+        private final RingMember[] ringMembers;
+        private final long[] tookToTxId;
+        private final int desiredTakeQuorum;
+        private final long toMillis;
+        private final long leadershipToken;
+        private final TakeCoordinator takeCoordinator;
+        private final AmzaStats stats;
+        private final long start = System.currentTimeMillis();
+        private final List<RingMember> tookFrom = Lists.newArrayList();
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        private int passed;
+        private boolean done;
+        private Exception failure;
+        private volatile ScheduledFuture<?> timeout;
+
+        QuorumWaiter(VersionedPartitionName versionedPartitionName,
+            long desiredTxId,
+            RingMember[] ringMembers,
+            int desiredTakeQuorum,
+            long toMillis,
+            long leadershipToken,
+            TakeCoordinator takeCoordinator) {
+            this.versionedPartitionName = versionedPartitionName;
+            this.desiredTxId = desiredTxId;
+            this.ringMembers = ringMembers;
+            this.tookToTxId = new long[ringMembers.length];
+            Arrays.fill(tookToTxId, -1);
+            this.desiredTakeQuorum = desiredTakeQuorum;
+            this.toMillis = toMillis;
+            this.leadershipToken = leadershipToken;
+            this.takeCoordinator = takeCoordinator;
+            this.stats = versionedPartitionName.getPartitionName().isSystemPartition() ? amzaSystemStats : amzaStats;
+        }
+
+        void ackAll() {
+            boolean finished = false;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                for (int i = 0; i < ringMembers.length && !finished; i++) {
+                    if (ringMembers[i] != null) {
+                        finished = check(i, get(ringMembers[i], versionedPartitionName));
                     }
-                    tookToTxId[i] = leadershipTokenAndTxId != null ? leadershipTokenAndTxId.txId : -1;
-                    if (passed[0] >= desiredTakeQuorum) {
-                        return Optional.of(passed[0]);
+                }
+                if (!finished && passed >= desiredTakeQuorum) {
+                    finished = true;
+                }
+                if (finished) {
+                    done = true;
+                }
+            }
+            if (finished) {
+                finish();
+            }
+        }
+
+        void ack(RingMember ringMember, LeadershipTokenAndTxId leadershipTokenAndTxId) {
+            boolean finished = false;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                for (int i = 0; i < ringMembers.length; i++) {
+                    if (ringMember.equals(ringMembers[i])) {
+                        finished = check(i, leadershipTokenAndTxId);
+                        break;
                     }
                 }
-                return null;
-            }, toMillis);
-            stats.quorums(versionedPartitionName.getPartitionName(), 1, System.currentTimeMillis() - start, tookFrom);
-            return quorum;
-        } catch (TimeoutException e) {
-            if (verboseLogTimeouts) {
-                StringBuilder buf = new StringBuilder();
-                takeCoordinator.streamTookLatencies(versionedPartitionName,
-                    (ringMember, lastOfferedTxId, category, tooSlowTxId, takeSessionId, online, steadyState, lastOfferedMillis, lastTakenMillis,
-                        lastCategoryCheckMillis) -> {
-                        buf.append('\n').append(String.format(
-                            "- member:%s lastOfferedTxId:%s category:%s tooSlowTxId:%s takeSessionId:%s online:%s " +
-                                "steadyState:%s lastOfferedMillis:%s lastTakenMillis:%s, lastCategoryCheckMillis:%s",
-                            ringMember, lastOfferedTxId, category, tooSlowTxId, takeSessionId, online,
-                            steadyState, lastOfferedMillis, lastTakenMillis, lastCategoryCheckMillis));
-                        return true;
-                    });
-                LOG.warn("Failed to achieve quorum for partition:{} desiredTxId:{} desiredTakeQuorum:{} passed:{} leadershipToken:{} tookToTxId:{} details:{}",
-                    versionedPartitionName, desiredTxId, desiredTakeQuorum, passed[0], leadershipToken, Arrays.toString(tookToTxId), buf);
-            }
-            stats.quorumTimeouts(versionedPartitionName.getPartitionName(), 1);
-            throw e;
-        } finally {
+                if (finished) {
+                    done = true;
+                }
+            }
+            if (finished) {
+                finish();
+            }
+        }
+
+        private boolean check(int i, LeadershipTokenAndTxId leadershipTokenAndTxId) {
+            if (leadershipToken > -1 && (leadershipTokenAndTxId != null && leadershipTokenAndTxId.leadershipToken > leadershipToken)) {
+                failure = new FailedToAchieveQuorumException(
+                    "Leader transitioning from " + leadershipToken + " to " + leadershipTokenAndTxId.leadershipToken);
+                return true;
+            }
+            if (leadershipTokenAndTxId != null && leadershipTokenAndTxId.txId >= desiredTxId) {
+                passed++;
+                tookFrom.add(ringMembers[i]);
+                ringMembers[i] = null;
+            }
+            tookToTxId[i] = leadershipTokenAndTxId != null ? leadershipTokenAndTxId.txId : -1;
+            return passed >= desiredTakeQuorum;
+        }
+
+        private void finish() {
+            unregister(this);
+            ScheduledFuture<?> scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            if (failure != null) {
+                complete(null, failure);
+            } else {
+                stats.quorums(versionedPartitionName.getPartitionName(), 1, System.currentTimeMillis() - start, tookFrom);
+                complete(passed, null);
+            }
+        }
+
+        private void complete(Integer quorum, Throwable t) {
             quorumLatency.stopTimer("Commit Quorum Latency", "Check network connectivity and neighbor health.");
+            try {
+                completions.execute(() -> {
+                    if (t != null) {
+                        future.completeExceptionally(t);
+                    } else {
+                        future.complete(quorum);
+                    }
+                });
+            } catch (RejectedExecutionException x) {
+                future.completeExceptionally(x);
+            }
+        }
+
+        void timedOut() {
+            int timedOutPassed;
+            String timedOutTookToTxId;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                timedOutPassed = passed;
+                timedOutTookToTxId = Arrays.toString(tookToTxId);
+            }
+            unregister(this);
+            try {
+                if (verboseLogTimeouts) {
+                    StringBuilder buf = new StringBuilder();
+                    takeCoordinator.streamTookLatencies(versionedPartitionName,
+                        (ringMember, lastOfferedTxId, category, tooSlowTxId, takeSessionId, online, steadyState, lastOfferedMillis, lastTakenMillis,
+                            lastCategoryCheckMillis) -> {
+                            buf.append('\n').append(String.format(
+                                "- member:%s lastOfferedTxId:%s category:%s tooSlowTxId:%s takeSessionId:%s online:%s " +
+                                    "steadyState:%s lastOfferedMillis:%s lastTakenMillis:%s, lastCategoryCheckMillis:%s",
+                                ringMember, lastOfferedTxId, category, tooSlowTxId, takeSessionId, online,
+                                steadyState, lastOfferedMillis, lastTakenMillis, lastCategoryCheckMillis));
+                            return true;
+                        });
+                    LOG.warn("Failed to achieve quorum for partition:{} desiredTxId:{} desiredTakeQuorum:{} passed:{} leadershipToken:{} tookToTxId:{} details:{}",
+                        versionedPartitionName, desiredTxId, desiredTakeQuorum, timedOutPassed, leadershipToken, timedOutTookToTxId, buf);
+                }
+                stats.quorumTimeouts(versionedPartitionName.getPartitionName(), 1);
+            } catch (Exception x) {
+                LOG.warn("Failed to report quorum timeout for partition:{}", new Object[] { versionedPartitionName }, x);
+            } finally {
+                complete(null, new TimeoutException("Timed out awaiting quorum after ms: " + toMillis));
+            }
         }
     }
 
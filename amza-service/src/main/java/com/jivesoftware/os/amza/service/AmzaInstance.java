@@ -19,7 +19,10 @@ import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.ring.TimestampedRingHost;
+import com.jivesoftware.os.amza.api.wal.WALSnapshot;
 import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
 
 public interface AmzaInstance {
 
@@ -50,6 +53,18 @@ public interface AmzaInstance {
         long leadershipToken,
         long limit) throws Exception;
 
+    /**
+     * Writes a 0 byte when declining, otherwise a 1 byte and the snapshot length, flushes them, and then hands the snapshot to the transfer
+     * to send the raw WAL bytes from the given txId onward.
+     */
+    void snapshotStream(DataOutputStream dos,
+        SnapshotTransfer transfer,
+        RingMember remoteRingMember,
+        VersionedPartitionName localVersionedPartitionName,
+        long takeSessionId,
+        long sharedKey,
+        long localTxId) throws Exception;
+
     void rowsTaken(RingMember remoteRingMember,
         long takeSessionId,
         long sharedKey,
@@ -60,4 +75,20 @@ public interface AmzaInstance {
     void pong(RingMember remoteRingMember, long takeSessionId, long sharedKey) throws Exception;
 
     void invalidate(RingMember ringMember, long takeSessionId, long sharedKey, VersionedPartitionName versionedPartitionName) throws Exception;
+
+    /**
+     * Sends the bytes of a snapshot after its header. A transport which owns a file or socket channel can copy the snapshot with
+     * {@link WALSnapshot#transferTo} and let the kernel do the copying.
+     */
+    interface SnapshotTransfer {
+
+        void transfer(WALSnapshot snapshot) throws IOException;
+
+        /**
+         * For transports that only hand over a stream, which copies the snapshot through a user space buffer.
+         */
+        static SnapshotTransfer toStream(DataOutputStream dos) {
+            return snapshot -> snapshot.transferTo(Channels.newChannel(dos));
+        }
+    }
 }
@@ -19,9 +19,9 @@ import com.google.common.collect.Maps;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.scan.RowChanges;
 import com.jivesoftware.os.amza.api.scan.RowsChanged;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class AmzaPartitionWatcher implements RowChanges {
 
@@ -52,7 +52,14 @@ public class AmzaPartitionWatcher implements RowChanges {
             throw new IllegalArgumentException("This watch doesn't support this type of partition. Expect:" + systemWatcher + "  Is: " + partitionName
                 .isSystemPartition());
         }
-        watchers.computeIfAbsent(partitionName, (t) -> new ArrayList<>()).add(rowChanges);
+        watchers.computeIfAbsent(partitionName, (t) -> new CopyOnWriteArrayList<>()).add(rowChanges);
+    }
+
+    public void unwatch(PartitionName partitionName, RowChanges rowChanges) {
+        watchers.computeIfPresent(partitionName, (key, changeWatchers) -> {
+            changeWatchers.remove(rowChanges);
+            return changeWatchers.isEmpty() ? null : changeWatchers;
+        });
     }
 
 }
@@ -28,6 +28,7 @@ import com.jivesoftware.os.amza.api.ring.RingMemberAndHost;
 import com.jivesoftware.os.amza.api.ring.TimestampedRingHost;
 import com.jivesoftware.os.amza.api.scan.RowChanges;
 import com.jivesoftware.os.amza.api.scan.RowStream;
+import com.jivesoftware.os.amza.api.wal.WALSnapshot;
 import com.jivesoftware.os.amza.api.wal.WALUpdated;
 import com.jivesoftware.os.amza.service.replication.AmzaAquariumProvider;
 import com.jivesoftware.os.amza.service.replication.PartitionComposter;
@@ -97,6 +98,7 @@ public class AmzaService implements AmzaInstance, PartitionProvider {
     private final AmzaAquariumProvider aquariumProvider;
     private final TakeFullySystemReady systemReady;
     private final Liveliness liveliness;
+    private final long snapshotBootstrapMinBytes;
 
     public AmzaService(TimestampedOrderIdProvider orderIdProvider,
         AmzaStats amzaSystemStats,
@@ -121,7 +123,8 @@ public class AmzaService implements AmzaInstance, PartitionProvider {
         AmzaPartitionWatcher amzaStripedPartitionWatcher,
         AmzaAquariumProvider aquariumProvider,
         TakeFullySystemReady systemReady,
-        Liveliness liveliness) {
+        Liveliness liveliness,
+        long snapshotBootstrapMinBytes) {
 
         this.orderIdProvider = orderIdProvider;
         this.amzaSystemStats = amzaSystemStats;
@@ -147,6 +150,7 @@ public class AmzaService implements AmzaInstance, PartitionProvider {
         this.aquariumProvider = aquariumProvider;
         this.systemReady = systemReady;
         this.liveliness = liveliness;
+        this.snapshotBootstrapMinBytes = snapshotBootstrapMinBytes;
     }
 
     public PartitionIndex getPartitionIndex() {
@@ -512,6 +516,7 @@ public class AmzaService implements AmzaInstance, PartitionProvider {
         return false;
     }
 
+    @Override
     public void watch(PartitionName partitionName, RowChanges rowChanges) throws Exception {
         if (partitionName.isSystemPartition()) {
             amzaSystemPartitionWatcher.watch(partitionName, rowChanges);
@@ -520,6 +525,15 @@ public class AmzaService implements AmzaInstance, PartitionProvider {
         }
     }
 
+    @Override
+    public void unwatch(PartitionName partitionName, RowChanges rowChanges) throws Exception {
+        if (partitionName.isSystemPartition()) {
+            amzaSystemPartitionWatcher.unwatch(partitionName, rowChanges);
+        } else {
+            amzaStripedPartitionWatcher.unwatch(partitionName, rowChanges);
+        }
+    }
+
     @Override
     public void availableRowsStream(boolean system,
         ChunkWriteable writeable,
@@ -762,6 +776,58 @@ public class AmzaService implements AmzaInstance, PartitionProvider {
         return false;
     }
 
+    @Override
+    public void snapshotStream(DataOutputStream dos,
+        SnapshotTransfer transfer,
+        RingMember remoteRingMember,
+        VersionedPartitionName localVersionedPartitionName,
+        long takeSessionId,
+        long sharedKey,
+        long localTxId) throws Exception {
+
+        if (!takeCoordinator.isValidSession(remoteRingMember, takeSessionId, sharedKey)) {
+            LOG.warn("Denied stale snapshotStream from:{} session:{}", remoteRingMember, takeSessionId);
+            throw new IllegalStateException("Attempted to snapshot with invalid session");
+        }
+
+        PartitionName partitionName = localVersionedPartitionName.getPartitionName();
+        WALSnapshot snapshot = null;
+        if (snapshotBootstrapMinBytes > 0 && !partitionName.isSystemPartition()) {
+            snapshot = partitionStripeProvider.txPartition(partitionName, (txPartitionStripe, highwaterStorage, versionedAquarium) -> {
+                VersionedPartitionName versionedPartitionName = versionedAquarium.getVersionedPartitionName();
+                if (versionedPartitionName.getPartitionVersion() != localVersionedPartitionName.getPartitionVersion()) {
+                    return null;
+                }
+                return txPartitionStripe.tx((deltaIndex, stripeIndex, partitionStripe) -> {
+                    return partitionStripe.snapshotSince(versionedAquarium, localTxId);
+                });
+            });
+        }
+
+        if (snapshot == null || snapshot.length < snapshotBootstrapMinBytes) {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+            LOG.inc("snapshotStream>declined");
+            dos.writeByte(0);
+            return;
+        }
+
+        // the snapshot holds its own channel, so the partition is free to merge and compact while it streams. The header is flushed before the
+        // transfer so a transport can send the WAL bytes with transferTo from the file straight to its socket.
+        try (WALSnapshot streaming = snapshot) {
+            long start = System.currentTimeMillis();
+            dos.writeByte(1);
+            dos.writeLong(streaming.length);
+            dos.flush();
+            transfer.transfer(streaming);
+            amzaStats.netStats.wrote.add(1 + 8 + streaming.length);
+            LOG.inc("snapshotStream>streamed");
+            LOG.info("Streamed a {} byte snapshot of {} from txId:{} to {} in {} millis",
+                streaming.length, localVersionedPartitionName, localTxId, remoteRingMember, System.currentTimeMillis() - start);
+        }
+    }
+
     @Override
     public void rowsTaken(RingMember remoteRingMember,
         long takeSessionId,
@@ -19,6 +19,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jivesoftware.os.amza.api.AmzaInterner;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
@@ -44,6 +45,8 @@ import com.jivesoftware.os.amza.service.ring.CacheId;
 import com.jivesoftware.os.amza.service.ring.RingSet;
 import com.jivesoftware.os.amza.service.ring.RingTopology;
 import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import com.jivesoftware.os.amza.service.storage.HydratedValueCache;
+import com.jivesoftware.os.amza.service.storage.ParallelRangeScanner;
 import com.jivesoftware.os.amza.service.storage.PartitionCreator;
 import com.jivesoftware.os.amza.service.storage.PartitionIndex;
 import com.jivesoftware.os.amza.service.storage.PartitionPropertyMarshaller;
@@ -53,8 +56,12 @@ import com.jivesoftware.os.amza.service.storage.binary.BinaryPrimaryRowMarshalle
 import com.jivesoftware.os.amza.service.storage.binary.BinaryRowIOProvider;
 import com.jivesoftware.os.amza.service.storage.binary.MemoryBackedRowIOProvider;
 import com.jivesoftware.os.amza.service.storage.binary.RowIOProvider;
+import com.jivesoftware.os.amza.service.storage.delta.DeltaIndex;
 import com.jivesoftware.os.amza.service.storage.delta.DeltaStripeWALStorage;
 import com.jivesoftware.os.amza.service.storage.delta.DeltaWALFactory;
+import com.jivesoftware.os.amza.service.storage.delta.HeapDeltaIndex;
+import com.jivesoftware.os.amza.service.storage.delta.OffHeapDeltaIndex;
+import com.jivesoftware.os.amza.service.storage.delta.WriteQuotas;
 import com.jivesoftware.os.amza.service.take.AvailableRowsTaker;
 import com.jivesoftware.os.amza.service.take.HighwaterStorage;
 import com.jivesoftware.os.amza.service.take.RowsTakerFactory;
@@ -85,6 +92,7 @@ import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -115,8 +123,17 @@ public class AmzaServiceInitializer {
         public int deltaMaxValueSizeInIndex = 8;
         public boolean deltaUseHighwaterTxId = false;
         public int deltaMergeThreads = -1;
+        public int deltaBackPressureAtPercentOfCapacity = 75;
+        public long deltaBackPressureMaxDelayMillis = 100; // 0 disables, writers are only rejected at full capacity
+        public int deltaReservedPercentOfCapacity = 20; // 0 disables, partitions over their fair share may fill the delta
+        public long writeQuotaMaxDelayMillis = 100;
+        public boolean deltaUseOffHeapIndex = false;
+        public int deltaOffHeapIndexInitialSlabSizeInBytes = 4_096;
+        public int deltaOffHeapIndexMaxSlabSizeInBytes = 1_024 * 1_024;
+        public int deltaLoadThreads = 0;
+        public long deltaLoadChunkSizeInBytes = 16 * 1_024 * 1_024;
+        public long deltaCheckpointIntervalInMillis = 0;
 
-        public int ackWatersStripingLevel = 1024;
         public boolean ackWatersVerboseLogTimeouts = false;
         public int awaitOnlineStripingLevel = 1024;
 
@@ -134,6 +151,18 @@ public class AmzaServiceInitializer {
         public long hangupAvailableRowsAfterUnresponsiveMillis = 60_000;
         public long pongIntervalMillis = 10_000;
         public long rowsTakerLimit = 65_536L;
+        public int takeReadBufferSizeInBytes = 8_192;
+        public int takeRowBufferSizeInBytes = 4_096;
+        public int takeMaxPooledRowBufferSizeInBytes = 1_024 * 1_024;
+        public long snapshotBootstrapMinBytes = 0; // 0 disables, otherwise empty replicas install the raw WAL of partitions at least this large
+        public boolean tcpReplicationEnabled = false;
+        public int tcpReplicationPortOffset = 1;
+        public int tcpReplicationConnectionsPerPeer = 2;
+        public int tcpReplicationConnectTimeoutMillis = 10_000;
+        public long tcpReplicationReadTimeoutMillis = 60_000;
+        public int tcpReplicationStreamQueueCapacity = 1_024;
+        public int tcpReplicationStreamBufferSizeInBytes = 65_536;
+        public int tcpReplicationMaxFrameSizeInBytes = 16 * 1_024 * 1_024;
 
         public long aquariumLeaderDeadAfterMillis = 60_000;
         public long aquariumLivelinessFeedEveryMillis = 500;
@@ -141,6 +170,14 @@ public class AmzaServiceInitializer {
         public int tombstoneCompactionFactor = 2;
         public long checkIfCompactionIsNeededIntervalInMillis = 60_000;
         public long rebalanceableEveryNMillis = TimeUnit.HOURS.toMillis(1);
+        public int maxConcurrentTombstoneCompactions = -1; // -1 is one per stripe
+        public long tombstoneCompactionMaxBytesPerSecond = 0; // 0 is unthrottled
+
+        public long hydratedValueCacheMaxSizeInBytes = 0; // 0 disables, partitions also opt in with cacheHydratedValues
+        public int parallelScanThreads = 8;
+        public int parallelScanQueueCapacity = 1_024;
+        public long subscribeMaxSessionMillis = TimeUnit.MINUTES.toMillis(5);
+        public int subscribeMaxConcurrent = 64;
         public long rebalanceIfImbalanceGreaterThanNBytes = 1024 * 1024 * 1024;
 
         public long interruptBlockingReadsIfLingersForNMillis = 60_000;
@@ -224,7 +261,10 @@ public class AmzaServiceInitializer {
             orderIdProvider,
             sickPartitions,
             config.tombstoneCompactionFactor,
-            config.rebalanceIfImbalanceGreaterThanNBytes);
+            config.rebalanceIfImbalanceGreaterThanNBytes,
+            config.hydratedValueCacheMaxSizeInBytes > 0
+                ? new HydratedValueCache(amzaStats, config.hydratedValueCacheMaxSizeInBytes, numberOfStripes)
+                : null);
 
         int numProc = Runtime.getRuntime().availableProcessors();
 
@@ -313,7 +353,7 @@ public class AmzaServiceInitializer {
 
         long maxUpdatesBeforeCompaction = config.maxUpdatesBeforeDeltaStripeCompaction;
 
-        AckWaters ackWaters = new AckWaters(amzaSystemStats, amzaStats, quorumLatency, config.ackWatersStripingLevel, config.ackWatersVerboseLogTimeouts);
+        AckWaters ackWaters = new AckWaters(amzaSystemStats, amzaStats, quorumLatency, config.ackWatersVerboseLogTimeouts);
 
         HighwaterStorage highwaterStorage = new PartitionBackedHighwaterStorage(amzaSystemStats,
             amzaStats,
@@ -336,6 +376,13 @@ public class AmzaServiceInitializer {
         if (deltaMergeThreads <= 0) {
             deltaMergeThreads = numProc;
         }
+        DeltaIndex.DeltaIndexProvider deltaIndexProvider = config.deltaUseOffHeapIndex
+            ? () -> new OffHeapDeltaIndex(config.deltaOffHeapIndexInitialSlabSizeInBytes, config.deltaOffHeapIndexMaxSlabSizeInBytes)
+            : HeapDeltaIndex::new;
+        ExecutorService loadDeltaThreads = config.deltaLoadThreads > 0
+            ? amzaThreadPoolProvider.allocateThreadPool(config.deltaLoadThreads, "load-deltas")
+            : null;
+        WriteQuotas writeQuotas = new WriteQuotas(amzaStats, config.writeQuotaMaxDelayMillis);
         for (int i = 0; i < numberOfStripes; i++) {
 
             DeltaWALFactory deltaWALFactory = new DeltaWALFactory(orderIdProvider, walDirs[i], deltaRowIOProvider, primaryRowMarshaller,
@@ -354,7 +401,16 @@ public class AmzaServiceInitializer {
                 config.deltaUseHighwaterTxId,
                 indexProviderRegistry,
                 maxUpdatesBeforeCompaction,
-                amzaThreadPoolProvider.allocateThreadPool(deltaMergeThreads, "merge-deltas-" + i));
+                amzaThreadPoolProvider.allocateThreadPool(deltaMergeThreads, "merge-deltas-" + i),
+                deltaIndexProvider,
+                loadDeltaThreads,
+                config.deltaLoadThreads,
+                config.deltaLoadChunkSizeInBytes,
+                config.deltaCheckpointIntervalInMillis,
+                config.deltaBackPressureAtPercentOfCapacity,
+                config.deltaBackPressureMaxDelayMillis,
+                config.deltaReservedPercentOfCapacity,
+                writeQuotas);
         }
 
         long stripeMaxFreeWithinNBytes = config.rebalanceIfImbalanceGreaterThanNBytes / 2; //TODO config separately
@@ -454,7 +510,13 @@ public class AmzaServiceInitializer {
             stripeFlusher,
             config.deltaStripeCompactionIntervalInMillis,
             amzaThreadPoolProvider.allocateThreadPool(deltaStripeWALStorages.length, "compact-deltas"),
-            amzaThreadPoolProvider.allocateThreadPool(deltaStripeWALStorages.length + 1, "stripe-flusher")
+            amzaThreadPoolProvider.allocateThreadPool(deltaStripeWALStorages.length + 1, "stripe-flusher"),
+            // a dedicated pool since the scanner relies on tasks running in submission order and never on the submitting thread,
+            // which a provided pool does not promise
+            new ParallelRangeScanner(Executors.newFixedThreadPool(Math.max(1, config.parallelScanThreads),
+                new ThreadFactoryBuilder().setNameFormat("parallel-scan-%d").setDaemon(true).build()),
+                config.parallelScanThreads,
+                config.parallelScanQueueCapacity)
         );
 
         PartitionComposter partitionComposter = new PartitionComposter(amzaSystemStats, amzaStats, partitionIndex, partitionCreator, ringStoreReader,
@@ -512,6 +574,11 @@ public class AmzaServiceInitializer {
             });
         }
 
+        File[] snapshotDirectories = new File[config.workingDirectories.length];
+        for (int i = 0; i < snapshotDirectories.length; i++) {
+            snapshotDirectories[i] = new File(config.workingDirectories[i], "snapshot");
+        }
+
         RowChangeTaker changeTaker = new RowChangeTaker(amzaSystemStats,
             amzaStats,
             numberOfStripes,
@@ -532,7 +599,9 @@ public class AmzaServiceInitializer {
             config.pongIntervalMillis,
             config.rowsTakerLimit,
             primaryRowMarshaller,
-            highwaterRowMarshaller);
+            highwaterRowMarshaller,
+            config.snapshotBootstrapMinBytes,
+            snapshotDirectories);
 
         PartitionTombstoneCompactor partitionCompactor = new PartitionTombstoneCompactor(amzaStats,
             walStorageProvider,
@@ -541,7 +610,9 @@ public class AmzaServiceInitializer {
             storageVersionProvider,
             config.checkIfCompactionIsNeededIntervalInMillis,
             config.rebalanceableEveryNMillis,
-            numberOfStripes);
+            numberOfStripes,
+            config.maxConcurrentTombstoneCompactions > 0 ? config.maxConcurrentTombstoneCompactions : numberOfStripes,
+            config.tombstoneCompactionMaxBytesPerSecond);
 
         return new AmzaService(orderIdProvider,
             amzaSystemStats,
@@ -566,6 +637,7 @@ public class AmzaServiceInitializer {
             amzaStripedPartitionWatcher,
             aquariumProvider,
             systemReady,
-            liveliness);
+            liveliness,
+            config.snapshotBootstrapMinBytes);
     }
 }
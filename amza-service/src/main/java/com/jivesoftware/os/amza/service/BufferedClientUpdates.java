@@ -0,0 +1,51 @@
+package com.jivesoftware.os.amza.service;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.CommitKeyValueStream;
+import java.util.List;
+
+/**
+ * Holds client updates in memory so they can be streamed more than once, e.g. when the updates are read off a request body and the commit
+ * has to be retried after the delta or a write quota reported it was over capacity.
+ */
+public class BufferedClientUpdates implements ClientUpdates {
+
+    private final List<byte[]> keys = Lists.newArrayList();
+    private final List<byte[]> values = Lists.newArrayList();
+    private final List<Long> valueTimestamps = Lists.newArrayList();
+    private final List<Boolean> valueTombstones = Lists.newArrayList();
+
+    public static ClientUpdates buffer(ClientUpdates updates) throws Exception {
+        if (updates instanceof BufferedClientUpdates || updates instanceof AmzaPartitionUpdates) {
+            return updates;
+        }
+        BufferedClientUpdates buffered = new BufferedClientUpdates();
+        updates.updates((key, value, valueTimestamp, valueTombstoned) -> {
+            buffered.add(key, value, valueTimestamp, valueTombstoned);
+            return true;
+        });
+        return buffered;
+    }
+
+    public void add(byte[] key, byte[] value, long valueTimestamp, boolean valueTombstoned) {
+        keys.add(key);
+        values.add(value);
+        valueTimestamps.add(valueTimestamp);
+        valueTombstones.add(valueTombstoned);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    @Override
+    public boolean updates(CommitKeyValueStream commitKeyValueStream) throws Exception {
+        for (int i = 0; i < keys.size(); i++) {
+            if (!commitKeyValueStream.commit(keys.get(i), values.get(i), valueTimestamps.get(i), valueTombstones.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
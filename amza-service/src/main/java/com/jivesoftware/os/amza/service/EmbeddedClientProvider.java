@@ -1,6 +1,8 @@
 package com.jivesoftware.os.amza.service;
 
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.jivesoftware.os.amza.api.PartitionCommit;
 import com.jivesoftware.os.amza.api.TimestampedValue;
 import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
@@ -18,6 +20,9 @@ import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -29,15 +34,53 @@ public class EmbeddedClientProvider { // Aka Partition Client Provider
     private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
 
     private final PartitionProvider partitionProvider;
+    private final ExecutorService commitExecutor;
 
     public EmbeddedClientProvider(PartitionProvider partitionProvider) {
+        this(partitionProvider, MoreExecutors.sameThreadExecutor());
+    }
+
+    public EmbeddedClientProvider(PartitionProvider partitionProvider, ExecutorService commitExecutor) {
         this.partitionProvider = partitionProvider;
+        this.commitExecutor = commitExecutor;
     }
 
     public EmbeddedClient getClient(PartitionName partitionName, CheckOnline checkOnline) {
         return new EmbeddedClient(partitionName, checkOnline);
     }
 
+    /**
+     * Commits to every partition in the batch on the commit executor so their quorum waits overlap. Every commit is attempted; the first
+     * failure is rethrown once they have all completed.
+     */
+    public void commitMany(Consistency consistency,
+        List<PartitionCommit> commits,
+        long timeout,
+        TimeUnit timeUnit) throws Exception {
+
+        long timeoutInMillis = timeUnit.toMillis(timeout);
+        List<Future<?>> futures = new ArrayList<>(commits.size());
+        for (PartitionCommit commit : commits) {
+            futures.add(commitExecutor.submit(() -> {
+                partitionProvider.getPartition(commit.partitionName).commit(consistency, commit.prefix, commit.updates, timeoutInMillis);
+                return null;
+            }));
+        }
+        Exception failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException x) {
+                if (failure == null) {
+                    failure = x.getCause() instanceof Exception ? (Exception) x.getCause() : x;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     public enum CheckOnline {
         never,
         once,
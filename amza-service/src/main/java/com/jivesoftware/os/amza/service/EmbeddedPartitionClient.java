@@ -1,9 +1,12 @@
 package com.jivesoftware.os.amza.service;
 
+import com.google.common.base.Preconditions;
 import com.jivesoftware.os.amza.api.PartitionClient;
 import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.scan.ScanCursor;
 import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyValueTimestampStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueTimestampStream;
 import com.jivesoftware.os.amza.api.stream.OffsetUnprefixedWALKeys;
@@ -176,6 +179,57 @@ public class EmbeddedPartitionClient implements PartitionClient {
             solutionLog);
     }
 
+    @Override
+    public ScanCursor scanPage(Consistency consistency,
+        boolean compressed,
+        PrefixedKeyRanges ranges,
+        ScanCursor cursor,
+        int pageSize,
+        KeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+
+        Preconditions.checkArgument(pageSize > 0, "pageSize must be positive");
+        PrefixedKeyRanges pageRanges = cursor != null ? cursor.resume(ranges) : ranges;
+        int[] rangeIndex = { cursor != null ? cursor.rangeIndex - 1 : -1 };
+        int[] count = { 0 };
+        boolean[] stopped = { false };
+        ScanCursor[] next = new ScanCursor[1];
+        partition.scan(
+            stream -> pageRanges.consume((fromPrefix, fromKey, toPrefix, toKey) -> {
+                rangeIndex[0]++;
+                return stream.stream(fromPrefix, fromKey, toPrefix, toKey) && !stopped[0];
+            }),
+            true,
+            true,
+            (prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                next[0] = new ScanCursor(rangeIndex[0], prefix, key);
+                count[0]++;
+                stopped[0] = !(valueTombstoned || scan.stream(prefix, key, value, valueTimestamp, valueVersion)) || count[0] >= pageSize;
+                return !stopped[0];
+            });
+        return stopped[0] ? next[0] : null;
+    }
+
+    @Override
+    public boolean scanIndex(Consistency consistency,
+        boolean compressed,
+        String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey,
+        IndexedKeyValueTimestampStream scan,
+        long additionalSolverAfterNMillis,
+        long abandonLeaderSolutionAfterNMillis,
+        long abandonSolutionAfterNMillis,
+        Optional<List<String>> solutionLog) throws Exception {
+        return partition.scanIndex(indexName, fromIndexKey, toIndexKey, true,
+            (indexKey, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                return valueTombstoned || scan.stream(indexKey, prefix, key, value, valueTimestamp, valueVersion);
+            });
+    }
+
     private boolean scanInternal(Consistency consistency,
         boolean compressed,
         PrefixedKeyRanges ranges,
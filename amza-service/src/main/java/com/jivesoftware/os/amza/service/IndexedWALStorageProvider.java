@@ -3,9 +3,11 @@ package com.jivesoftware.os.amza.service;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.wal.PrimaryRowMarshaller;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
 import com.jivesoftware.os.amza.api.wal.WALIndex;
 import com.jivesoftware.os.amza.api.wal.WALIndexProvider;
 import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import com.jivesoftware.os.amza.service.storage.HydratedValueCache;
 import com.jivesoftware.os.amza.service.storage.WALStorage;
 import com.jivesoftware.os.amza.service.storage.binary.BinaryHighwaterRowMarshaller;
 import com.jivesoftware.os.amza.service.storage.binary.BinaryWALTx;
@@ -36,6 +38,7 @@ public class IndexedWALStorageProvider {
     private final SickPartitions sickPartitions;
     private final int tombstoneCompactionFactor;
     private final long rebalanceIfImbalanceGreaterThanInBytes;
+    private final HydratedValueCache hydratedValueCache;
 
     public IndexedWALStorageProvider(AmzaStats amzaStats,
         File[] workingDirectories,
@@ -46,7 +49,8 @@ public class IndexedWALStorageProvider {
         TimestampedOrderIdProvider orderIdProvider,
         SickPartitions sickPartitions,
         int tombstoneCompactionFactor,
-        long rebalanceIfImbalanceGreaterThanInBytes) throws IOException {
+        long rebalanceIfImbalanceGreaterThanInBytes,
+        HydratedValueCache hydratedValueCache) throws IOException {
         this.amzaStats = amzaStats;
 
         this.workingDirectories = workingDirectories;
@@ -58,6 +62,7 @@ public class IndexedWALStorageProvider {
         this.sickPartitions = sickPartitions;
         this.tombstoneCompactionFactor = tombstoneCompactionFactor;
         this.rebalanceIfImbalanceGreaterThanInBytes = rebalanceIfImbalanceGreaterThanInBytes;
+        this.hydratedValueCache = hydratedValueCache;
 
         for (File workingDirectory : workingDirectories) {
             if (workingDirectory.exists()) {
@@ -221,6 +226,9 @@ public class IndexedWALStorageProvider {
             walIndexProvider,
             sickPartitions,
             hardFsyncBeforeLeapBoundary,
-            tombstoneCompactionFactor);
+            tombstoneCompactionFactor,
+            hydratedValueCache,
+            partitionProperties.cacheHydratedValues,
+            SecondaryIndexes.of(partitionProperties.secondaryIndexes));
     }
 }
@@ -2,6 +2,9 @@ package com.jivesoftware.os.amza.service;
 
 import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.Commitable;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyValueStream;
+import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
 import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
 import com.jivesoftware.os.amza.api.stream.TxKeyValueStream;
@@ -9,6 +12,8 @@ import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.take.Highwaters;
 import com.jivesoftware.os.amza.api.take.TakeResult;
 import com.jivesoftware.os.aquarium.LivelyEndState;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * @author jonathan.colt
@@ -20,10 +25,59 @@ public interface Partition {
         ClientUpdates updates,
         long timeoutInMillis) throws Exception;
 
+    /**
+     * Like {@link #commit} but returns once the updates are written locally, and the future completes when the take quorum and the
+     * partition's durability are achieved. No thread is parked while the replicas ack.
+     *
+     * @param flushExecutor runs any durability flush that has to block on an fsync
+     */
+    CompletableFuture<Void> commitAsync(Consistency consistency,
+        byte[] prefix,
+        ClientUpdates updates,
+        long timeoutInMillis,
+        Executor flushExecutor) throws Exception;
+
+    /**
+     * Applies rows exactly as another replica holds them, keeping each row's timestamp and version, without awaiting any quorum. This is how
+     * a read repair converges a stale replica without minting a new version for the row.
+     */
+    void repair(byte[] prefix, Commitable rows, long timeoutInMillis) throws Exception;
+
     boolean get(Consistency consistency, byte[] prefix, boolean requiresOnline, UnprefixedWALKeys keys, KeyValueStream stream) throws Exception;
 
+    /**
+     * Like {@link #get} but answers from the index pointers alone, so values are never read from the WAL.
+     */
+    boolean containsKeys(Consistency consistency, byte[] prefix, boolean requiresOnline, UnprefixedWALKeys keys, KeyContainedStream stream)
+        throws Exception;
+
     boolean scan(PrefixedKeyRanges ranges, boolean hydrateValues, boolean requiresOnline, KeyValueStream stream) throws Exception;
 
+    /**
+     * Like {@link #scan} but splits each range into as many as parallelism sub-ranges which are scanned concurrently.
+     *
+     * @param ordered when false rows within a range are streamed in no particular order
+     */
+    boolean parallelScan(PrefixedKeyRanges ranges,
+        boolean hydrateValues,
+        boolean requiresOnline,
+        int parallelism,
+        boolean ordered,
+        KeyValueStream stream) throws Exception;
+
+    /**
+     * Scans a secondary index declared in the partition's properties. Rows are streamed in index key order and then in key order, and a
+     * row appears once for each of its index keys in the range.
+     *
+     * @param fromIndexKey nullable (inclusive)
+     * @param toIndexKey   nullable (exclusive)
+     */
+    boolean scanIndex(String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey,
+        boolean requiresOnline,
+        IndexedKeyValueStream stream) throws Exception;
+
     TakeResult takeFromTransactionId(long txId,
         boolean requiresOnline,
         Highwaters highwaters,
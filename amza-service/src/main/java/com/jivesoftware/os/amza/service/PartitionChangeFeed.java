@@ -0,0 +1,80 @@
+package com.jivesoftware.os.amza.service;
+
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.scan.RowChanges;
+import com.jivesoftware.os.amza.api.take.TakeResult;
+import com.jivesoftware.os.amza.api.wal.WALHighwater.RingMemberHighwater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows a partition by taking from a txId cursor, and between takes parks on a partition watch until the next commit lands, so a
+ * follower sees new rows without polling.
+ */
+public class PartitionChangeFeed {
+
+    private final PartitionProvider partitionProvider;
+
+    public PartitionChangeFeed(PartitionProvider partitionProvider) {
+        this.partitionProvider = partitionProvider;
+    }
+
+    public interface Batch {
+
+        /**
+         * @return the result of taking the rows after txId, or null to end the feed
+         */
+        TakeResult take(long txId) throws Exception;
+    }
+
+    /**
+     * Takes batches until sessionMillis elapse or the batch ends the feed. A batch which was cut short by its limit is followed immediately,
+     * otherwise the next take waits for a commit, or for heartbeatIntervalMillis so an idle follower still hears from the feed.
+     *
+     * @return the cursor to resume from
+     */
+    public long follow(PartitionName partitionName, long txId, long heartbeatIntervalMillis, long sessionMillis, Batch batch) throws Exception {
+        AtomicLong changes = new AtomicLong();
+        RowChanges watcher = rowsChanged -> {
+            changes.incrementAndGet();
+            synchronized (changes) {
+                changes.notifyAll();
+            }
+        };
+
+        partitionProvider.watch(partitionName, watcher);
+        try {
+            long end = System.currentTimeMillis() + sessionMillis;
+            long cursor = txId;
+            while (true) {
+                long version = changes.get();
+                TakeResult takeResult = batch.take(cursor);
+                if (takeResult == null) {
+                    return cursor;
+                }
+                cursor = Math.max(cursor, takeResult.lastTxId);
+                if (takeResult.tookToEnd != null) {
+                    for (RingMemberHighwater ringMemberHighwater : takeResult.tookToEnd.ringMemberHighwater) {
+                        if (ringMemberHighwater.ringMember.equals(takeResult.tookFrom)) {
+                            cursor = Math.max(cursor, ringMemberHighwater.transactionId);
+                        }
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now >= end) {
+                    return cursor;
+                }
+                if (takeResult.tookToEnd != null) {
+                    synchronized (changes) {
+                        if (version == changes.get()) {
+                            // wait(0) would never wake and a negative wait throws, so always park for at least a millisecond
+                            changes.wait(Math.max(1, Math.min(heartbeatIntervalMillis, end - now)));
+                        }
+                    }
+                }
+            }
+        } finally {
+            partitionProvider.unwatch(partitionName, watcher);
+        }
+    }
+}
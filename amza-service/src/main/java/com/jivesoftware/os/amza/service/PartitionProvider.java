@@ -3,6 +3,7 @@ package com.jivesoftware.os.amza.service;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
 import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.scan.RowChanges;
 
 /**
  *
@@ -21,4 +22,8 @@ public interface PartitionProvider {
     RingMember awaitLeader(PartitionName partitionName, long waitForLeaderElection) throws Exception;
 
     void awaitOnline(PartitionName partitionName, long timeoutMillis) throws Exception;
+
+    void watch(PartitionName partitionName, RowChanges rowChanges) throws Exception;
+
+    void unwatch(PartitionName partitionName, RowChanges rowChanges) throws Exception;
 }
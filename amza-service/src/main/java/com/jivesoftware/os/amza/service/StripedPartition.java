@@ -20,11 +20,15 @@ import com.google.common.base.Preconditions;
 import com.jivesoftware.os.amza.api.DeltaOverCapacityException;
 import com.jivesoftware.os.amza.api.FailedToAchieveQuorumException;
 import com.jivesoftware.os.amza.api.partition.Consistency;
+import com.jivesoftware.os.amza.api.partition.Durability;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.scan.RowsChanged;
 import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.Commitable;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyValueStream;
+import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
 import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
 import com.jivesoftware.os.amza.api.stream.TxKeyValueStream;
@@ -45,6 +49,8 @@ import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProvider;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class StripedPartition implements Partition {
 
@@ -98,6 +104,78 @@ public class StripedPartition implements Partition {
         long timeoutInMillis) throws Exception {
 
         long end = System.currentTimeMillis() + timeoutInMillis;
+        PartitionProperties properties = checkWriteConsistency(consistency, timeoutInMillis, end);
+        ackWaters.join(commitToQuorum(consistency, prefix, updates, end));
+        flush(properties, end);
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync(Consistency consistency,
+        byte[] prefix,
+        ClientUpdates updates,
+        long timeoutInMillis,
+        Executor flushExecutor) throws Exception {
+
+        long end = System.currentTimeMillis() + timeoutInMillis;
+        PartitionProperties properties = checkWriteConsistency(consistency, timeoutInMillis, end);
+        CompletableFuture<Void> quorum = commitToQuorum(consistency, prefix, updates, end);
+
+        CompletableFuture<Void> committed = new CompletableFuture<>();
+        quorum.whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                committed.completeExceptionally(failure);
+                return;
+            }
+            // only fsync_always has to wait on the flusher, everything else is cheap enough to run on the ack waters completion thread
+            Executor executor = properties.durability == Durability.fsync_always ? flushExecutor : Runnable::run;
+            try {
+                executor.execute(() -> {
+                    try {
+                        flush(properties, end);
+                        committed.complete(null);
+                    } catch (Throwable t) {
+                        committed.completeExceptionally(t);
+                    }
+                });
+            } catch (Throwable t) {
+                committed.completeExceptionally(t);
+            }
+        });
+        return committed;
+    }
+
+    @Override
+    public void repair(byte[] prefix, Commitable rows, long timeoutInMillis) throws Exception {
+        long end = System.currentTimeMillis() + timeoutInMillis;
+        systemReady.await(timeoutInMillis);
+        while (true) {
+            try {
+                partitionStripeProvider.txPartition(partitionName, (txPartitionStripe, highwaterStorage, versionedAquarium) -> {
+                    RowsChanged commit = txPartitionStripe.tx((deltaIndex, stripeIndex, partitionStripe) -> {
+                        return partitionStripe.commit(highwaterStorage,
+                            versionedAquarium,
+                            true,
+                            Optional.absent(),
+                            true,
+                            prefix,
+                            rows,
+                            walUpdated);
+                    });
+                    amzaStats.direct(partitionName, commit.getApply().size(), commit.getSmallestCommittedTxId());
+                    return null;
+                });
+                return;
+            } catch (DeltaOverCapacityException e) {
+                long timeRemaining = end - System.currentTimeMillis();
+                if (timeRemaining <= 0) {
+                    throw e;
+                }
+                Thread.sleep(Math.min(timeRemaining, 1000L)); //TODO magic number
+            }
+        }
+    }
+
+    private PartitionProperties checkWriteConsistency(Consistency consistency, long timeoutInMillis, long end) throws Exception {
         systemReady.await(timeoutInMillis);
         if (System.currentTimeMillis() > end) {
             throw new FailedToAchieveQuorumException("Timed out waiting for system ready");
@@ -108,6 +186,16 @@ public class StripedPartition implements Partition {
             throw new FailedToAchieveQuorumException("This partition has a minimum consistency of " + properties.consistency
                 + " which does not support writes at consistency " + consistency);
         }
+        return properties;
+    }
+
+    /**
+     * Writes the updates locally and returns a future which completes once the take quorum has acked them.
+     */
+    private CompletableFuture<Void> commitToQuorum(Consistency consistency,
+        byte[] prefix,
+        ClientUpdates updates,
+        long end) throws Exception {
 
         Set<RingMember> neighbors = ringReader.getNeighboringRingMembers(partitionName.getRingName(), 0);
         int takeQuorum = consistency.quorum(neighbors.size());
@@ -115,11 +203,14 @@ public class StripedPartition implements Partition {
             throw new FailedToAchieveQuorumException("There are an insufficent number of nodes to achieve desired take quorum:" + takeQuorum);
         }
 
+        // a DeltaOverCapacityException can surface after the updates were streamed, e.g. from a write quota, so the retries below need to
+        // replay them and the caller's updates may be backed by a request body which can only be read once
+        ClientUpdates replayableUpdates = BufferedClientUpdates.buffer(updates);
         while (true) {
             try {
                 long currentTime = System.currentTimeMillis();
                 long version = orderIdProvider.nextId();
-                partitionStripeProvider.txPartition(partitionName, (txPartitionStripe, highwaterStorage, versionedAquarium) -> {
+                return partitionStripeProvider.txPartition(partitionName, (txPartitionStripe, highwaterStorage, versionedAquarium) -> {
                     long leadershipToken = -1;
                     if (takeQuorum > 0) {
                         LivelyEndState livelyEndState = versionedAquarium.getLivelyEndState();
@@ -136,7 +227,7 @@ public class StripedPartition implements Partition {
                             Optional.absent(),
                             true,
                             prefix,
-                            (highwaters, stream) -> updates.updates((key, value, valueTimestamp, valueTombstone) -> {
+                            (highwaters, stream) -> replayableUpdates.updates((key, value, valueTimestamp, valueTombstone) -> {
                                 long timestamp = valueTimestamp > 0 ? valueTimestamp : currentTime;
                                 return stream.row(-1L, key, value, timestamp, valueTombstone, version);
                             }),
@@ -146,28 +237,24 @@ public class StripedPartition implements Partition {
                     if (takeQuorum > 0) {
                         long timeToWait = Math.max(0, end - System.currentTimeMillis());
                         LOG.debug("Awaiting quorum for {} ms", timeToWait);
-                        int takenBy = 0;
-                        if (timeToWait > 0) {
-                            takenBy = ackWaters.await(versionedAquarium.getVersionedPartitionName(),
-                                commit.getLargestCommittedTxId(),
-                                neighbors,
-                                takeQuorum,
-                                timeToWait,
-                                leadershipToken,
-                                takeCoordinator);
-                        }
-                        if (takenBy < takeQuorum) {
-                            throw new FailedToAchieveQuorumException(
-                                "Timed out attempting to achieve desired take quorum:" + takeQuorum + " got:" + takenBy);
+                        if (timeToWait == 0) {
+                            throw new FailedToAchieveQuorumException("Timed out attempting to achieve desired take quorum:" + takeQuorum + " got:0");
                         }
+                        return ackWaters.awaitAsync(versionedAquarium.getVersionedPartitionName(),
+                            commit.getLargestCommittedTxId(),
+                            neighbors,
+                            takeQuorum,
+                            timeToWait,
+                            leadershipToken,
+                            takeCoordinator).thenAccept(takenBy -> {
+                            //TODO necessary? aquarium.tapTheGlass();
+                            amzaStats.direct(partitionName, commit.getApply().size(), commit.getSmallestCommittedTxId());
+                        });
                     }
-                    //TODO necessary? aquarium.tapTheGlass();
 
                     amzaStats.direct(partitionName, commit.getApply().size(), commit.getSmallestCommittedTxId());
-
-                    return null;
+                    return CompletableFuture.completedFuture(null);
                 });
-                break;
             } catch (DeltaOverCapacityException e) {
                 long timeRemaining = end - System.currentTimeMillis();
                 if (timeRemaining <= 0) {
@@ -176,7 +263,9 @@ public class StripedPartition implements Partition {
                 Thread.sleep(Math.min(timeRemaining, 1000L)); //TODO magic number
             }
         }
+    }
 
+    private void flush(PartitionProperties properties, long end) throws Exception {
         long fsyncWaitInMillis = Math.max(end - System.currentTimeMillis(), 0);
         if (fsyncWaitInMillis > 0) {
             partitionStripeProvider.flush(partitionName, properties.durability, fsyncWaitInMillis);
@@ -204,6 +293,21 @@ public class StripedPartition implements Partition {
         });
     }
 
+    @Override
+    public boolean containsKeys(Consistency consistency,
+        byte[] prefix,
+        boolean requiresOnline,
+        UnprefixedWALKeys keys,
+        KeyContainedStream stream) throws Exception {
+        systemReady.await(0);
+        checkReadConsistencySupport(consistency);
+        return partitionStripeProvider.txPartition(partitionName, (txPartitionStripe, highwaterStorage, versionedAquarium) -> {
+            return txPartitionStripe.tx((deltaIndex, stripeIndex, partitionStripe) -> {
+                return partitionStripe.containsKeys(versionedAquarium, prefix, requiresOnline, keys, stream);
+            });
+        });
+    }
+
     @Override
     public boolean scan(PrefixedKeyRanges ranges, boolean hydrateValues, boolean requiresOnline, KeyValueStream stream) throws Exception {
 
@@ -229,6 +333,49 @@ public class StripedPartition implements Partition {
         });
     }
 
+    @Override
+    public boolean parallelScan(PrefixedKeyRanges ranges,
+        boolean hydrateValues,
+        boolean requiresOnline,
+        int parallelism,
+        boolean ordered,
+        KeyValueStream stream) throws Exception {
+
+        systemReady.await(0);
+        return partitionStripeProvider.txPartition(partitionName, (txPartitionStripe, highwaterStorage, versionedAquarium) -> {
+            return txPartitionStripe.tx((deltaIndex, stripeIndex, partitionStripe) -> {
+                return ranges.consume((fromPrefix, fromKey, toPrefix, toKey) -> {
+                    partitionStripe.parallelRangeScan(versionedAquarium,
+                        fromPrefix,
+                        fromKey,
+                        toPrefix,
+                        toKey,
+                        hydrateValues,
+                        requiresOnline,
+                        parallelism,
+                        ordered,
+                        stream);
+                    return true;
+                });
+            });
+        });
+    }
+
+    @Override
+    public boolean scanIndex(String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey,
+        boolean requiresOnline,
+        IndexedKeyValueStream stream) throws Exception {
+
+        systemReady.await(0);
+        return partitionStripeProvider.txPartition(partitionName, (txPartitionStripe, highwaterStorage, versionedAquarium) -> {
+            return txPartitionStripe.tx((deltaIndex, stripeIndex, partitionStripe) -> {
+                return partitionStripe.secondaryIndexScan(versionedAquarium, indexName, fromIndexKey, toIndexKey, requiresOnline, stream);
+            });
+        });
+    }
+
     @Override
     public TakeResult takeFromTransactionId(long txId,
         boolean requiresOnline,
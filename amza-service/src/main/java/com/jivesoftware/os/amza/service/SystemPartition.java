@@ -23,6 +23,9 @@ import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.scan.RowsChanged;
 import com.jivesoftware.os.amza.api.stream.ClientUpdates;
+import com.jivesoftware.os.amza.api.stream.Commitable;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyValueStream;
+import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
 import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
 import com.jivesoftware.os.amza.api.stream.TxKeyValueStream;
@@ -41,6 +44,8 @@ import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProvider;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class SystemPartition implements Partition {
 
@@ -88,21 +93,8 @@ public class SystemPartition implements Partition {
         long timeoutInMillis) throws Exception {
 
         Set<RingMember> neighbors = ringReader.getNeighboringRingMembers(AmzaRingReader.SYSTEM_RING, -1);
-
-        int takeQuorum = consistency.quorum(neighbors.size());
-        if (takeQuorum > 0 && neighbors.size() < takeQuorum) {
-            throw new FailedToAchieveQuorumException("There are an insufficent number of nodes to achieve desired take quorum:" + takeQuorum);
-        }
-
-        long timestampAndVersion = orderIdProvider.nextId();
-        long start = System.currentTimeMillis();
-        RowsChanged commit = systemWALStorage.update(versionedPartitionName,
-            prefix,
-            (highwaters, scan) -> updates.updates((key, value, valueTimestamp, valueTombstone) -> {
-                long timestamp = valueTimestamp > 0 ? valueTimestamp : timestampAndVersion;
-                return scan.row(-1L, key, value, timestamp, valueTombstone, timestampAndVersion);
-            }),
-            walUpdated);
+        int takeQuorum = takeQuorum(consistency, neighbors);
+        RowsChanged commit = update(prefix, updates);
 
         if (takeQuorum > 0) {
             LOG.debug("Awaiting quorum for {} ms", timeoutInMillis);
@@ -119,12 +111,69 @@ public class SystemPartition implements Partition {
         }
     }
 
+    @Override
+    public CompletableFuture<Void> commitAsync(Consistency consistency,
+        byte[] prefix,
+        ClientUpdates updates,
+        long timeoutInMillis,
+        Executor flushExecutor) throws Exception {
+
+        Set<RingMember> neighbors = ringReader.getNeighboringRingMembers(AmzaRingReader.SYSTEM_RING, -1);
+        int takeQuorum = takeQuorum(consistency, neighbors);
+        RowsChanged commit = update(prefix, updates);
+
+        if (takeQuorum > 0) {
+            LOG.debug("Awaiting quorum for {} ms", timeoutInMillis);
+            return ackWaters.awaitAsync(versionedPartitionName,
+                commit.getLargestCommittedTxId(),
+                neighbors,
+                takeQuorum,
+                timeoutInMillis,
+                -1,
+                takeCoordinator).thenApply(takenBy -> null);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private int takeQuorum(Consistency consistency, Set<RingMember> neighbors) {
+        int takeQuorum = consistency.quorum(neighbors.size());
+        if (takeQuorum > 0 && neighbors.size() < takeQuorum) {
+            throw new FailedToAchieveQuorumException("There are an insufficent number of nodes to achieve desired take quorum:" + takeQuorum);
+        }
+        return takeQuorum;
+    }
+
+    @Override
+    public void repair(byte[] prefix, Commitable rows, long timeoutInMillis) throws Exception {
+        systemWALStorage.update(versionedPartitionName, prefix, rows, walUpdated);
+    }
+
+    private RowsChanged update(byte[] prefix, ClientUpdates updates) throws Exception {
+        long timestampAndVersion = orderIdProvider.nextId();
+        return systemWALStorage.update(versionedPartitionName,
+            prefix,
+            (highwaters, scan) -> updates.updates((key, value, valueTimestamp, valueTombstone) -> {
+                long timestamp = valueTimestamp > 0 ? valueTimestamp : timestampAndVersion;
+                return scan.row(-1L, key, value, timestamp, valueTombstone, timestampAndVersion);
+            }),
+            walUpdated);
+    }
+
     @Override
     public boolean get(Consistency consistency, byte[] prefix, boolean requiresOnline, UnprefixedWALKeys keys, KeyValueStream stream) throws Exception {
         boolean got = systemWALStorage.get(versionedPartitionName, prefix, keys, stream);
         return got;
     }
 
+    @Override
+    public boolean containsKeys(Consistency consistency,
+        byte[] prefix,
+        boolean requiresOnline,
+        UnprefixedWALKeys keys,
+        KeyContainedStream stream) throws Exception {
+        return systemWALStorage.containsKeys(versionedPartitionName, prefix, keys, stream);
+    }
+
     @Override
     public boolean scan(PrefixedKeyRanges ranges, boolean hydrateValues, boolean requiresOnline, KeyValueStream stream) throws Exception {
         return ranges.consume((fromPrefix, fromKey, toPrefix, toKey) -> {
@@ -149,6 +198,26 @@ public class SystemPartition implements Partition {
         });
     }
 
+    @Override
+    public boolean parallelScan(PrefixedKeyRanges ranges,
+        boolean hydrateValues,
+        boolean requiresOnline,
+        int parallelism,
+        boolean ordered,
+        KeyValueStream stream) throws Exception {
+        // system partitions are small enough that splitting is never worthwhile
+        return scan(ranges, hydrateValues, requiresOnline, stream);
+    }
+
+    @Override
+    public boolean scanIndex(String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey,
+        boolean requiresOnline,
+        IndexedKeyValueStream stream) throws Exception {
+        throw new UnsupportedOperationException("System partitions do not support secondary indexes");
+    }
+
     @Override
     public TakeResult takeFromTransactionId(long txId,
         boolean requiresOnline,
@@ -2,6 +2,7 @@ package com.jivesoftware.os.amza.service.replication;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.jivesoftware.os.amza.api.IoStats;
 import com.jivesoftware.os.amza.api.partition.VersionedAquarium;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
@@ -10,6 +11,7 @@ import com.jivesoftware.os.amza.api.scan.RowStream;
 import com.jivesoftware.os.amza.api.scan.RowsChanged;
 import com.jivesoftware.os.amza.api.stream.Commitable;
 import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyValueStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
 import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.stream.TxKeyValueStream;
@@ -18,9 +20,13 @@ import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.take.Highwaters;
 import com.jivesoftware.os.amza.api.wal.PrimaryRowMarshaller;
 import com.jivesoftware.os.amza.api.wal.WALHighwater;
+import com.jivesoftware.os.amza.api.wal.WALKey;
+import com.jivesoftware.os.amza.api.wal.WALSnapshot;
 import com.jivesoftware.os.amza.api.wal.WALUpdated;
+import com.jivesoftware.os.amza.service.Partition.ScanRange;
 import com.jivesoftware.os.amza.service.stats.AmzaStats;
 import com.jivesoftware.os.amza.service.storage.HighwaterRowMarshaller;
+import com.jivesoftware.os.amza.service.storage.ParallelRangeScanner;
 import com.jivesoftware.os.amza.service.storage.PartitionCreator;
 import com.jivesoftware.os.amza.service.storage.PartitionStore;
 import com.jivesoftware.os.amza.service.storage.delta.DeltaStripeWALStorage;
@@ -29,6 +35,8 @@ import com.jivesoftware.os.aquarium.LivelyEndState;
 import com.jivesoftware.os.aquarium.State;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.io.File;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -46,6 +54,7 @@ public class PartitionStripe {
     private final RowChanges allRowChanges;
     private final PrimaryRowMarshaller primaryRowMarshaller;
     private final HighwaterRowMarshaller<byte[]> highwaterRowMarshaller;
+    private final ParallelRangeScanner parallelRangeScanner;
 
     public PartitionStripe(AmzaStats amzaStats,
         String name,
@@ -54,7 +63,8 @@ public class PartitionStripe {
         DeltaStripeWALStorage storage,
         RowChanges allRowChanges,
         PrimaryRowMarshaller primaryRowMarshaller,
-        HighwaterRowMarshaller<byte[]> highwaterRowMarshaller) {
+        HighwaterRowMarshaller<byte[]> highwaterRowMarshaller,
+        ParallelRangeScanner parallelRangeScanner) {
 
         this.amzaStats = amzaStats;
         this.name = name;
@@ -64,6 +74,7 @@ public class PartitionStripe {
         this.allRowChanges = allRowChanges;
         this.primaryRowMarshaller = primaryRowMarshaller;
         this.highwaterRowMarshaller = highwaterRowMarshaller;
+        this.parallelRangeScanner = parallelRangeScanner;
     }
 
     public String getName() {
@@ -270,6 +281,102 @@ public class PartitionStripe {
 
     }
 
+    /**
+     * Splits the range into sub-ranges at keys probed from the index and scans them concurrently. Falls back to a plain range scan when
+     * the index yields no split points.
+     *
+     * @param ordered when false rows are streamed as soon as any sub-range produces them
+     */
+    public void parallelRangeScan(VersionedAquarium versionedAquarium,
+        byte[] fromPrefix,
+        byte[] fromKey,
+        byte[] toPrefix,
+        byte[] toKey,
+        boolean hydrateValues,
+        boolean requiresOnline,
+        int parallelism,
+        boolean ordered,
+        KeyValueStream keyValueStream) throws Exception {
+
+        VersionedPartitionName versionedPartitionName = versionedAquarium.getVersionedPartitionName();
+        if (requiresOnline) {
+            LivelyEndState livelyEndState = versionedAquarium.getLivelyEndState();
+            Preconditions.checkState(livelyEndState.isOnline(), "Partition:%s state:%s is not online.", versionedPartitionName, livelyEndState);
+        }
+
+        PartitionStore partitionStore = partitionCreator.get("stripe>parallelRangeScan", versionedPartitionName, stripeIndex);
+        if (partitionStore == null) {
+            throw new IllegalStateException("No partition defined for " + versionedPartitionName);
+        } else {
+            long start = System.currentTimeMillis();
+            long disposalVersion = partitionCreator.getPartitionDisposal(versionedPartitionName.getPartitionName());
+            int splits = Math.min(parallelism, parallelRangeScanner.getMaxParallelism()) - 1;
+            List<byte[]> splitKeys = partitionStore.getWalStorage().splitKeys(fromPrefix, fromKey, toPrefix, toKey, splits);
+
+            List<ScanRange> ranges = Lists.newArrayListWithCapacity(splitKeys.size() + 1);
+            byte[] rangeFromPrefix = fromPrefix;
+            byte[] rangeFromKey = fromKey;
+            for (byte[] splitKey : splitKeys) {
+                byte[] splitPrefix = WALKey.rawKeyPrefix(splitKey);
+                byte[] splitKeyKey = WALKey.rawKeyKey(splitKey);
+                ranges.add(new ScanRange(rangeFromPrefix, rangeFromKey, splitPrefix, splitKeyKey));
+                rangeFromPrefix = splitPrefix;
+                rangeFromKey = splitKeyKey;
+            }
+            ranges.add(new ScanRange(rangeFromPrefix, rangeFromKey, toPrefix, toKey));
+
+            parallelRangeScanner.scan(ranges, ordered,
+                (range, stream) -> storage.rangeScan(versionedPartitionName, partitionStore,
+                    range.fromPrefix, range.fromKey, range.toPrefix, range.toKey,
+                    (prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                        if (valueVersion != -1 && valueVersion < disposalVersion) {
+                            return true;
+                        } else {
+                            return stream.stream(prefix, key, value, valueTimestamp, valueTombstoned, valueVersion);
+                        }
+                    }, hydrateValues),
+                keyValueStream);
+
+            if (hydrateValues) {
+                amzaStats.scans(versionedPartitionName.getPartitionName(), 1, System.currentTimeMillis() - start);
+            } else {
+                amzaStats.scanKeys(versionedPartitionName.getPartitionName(), 1, System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    public boolean secondaryIndexScan(VersionedAquarium versionedAquarium,
+        String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey,
+        boolean requiresOnline,
+        IndexedKeyValueStream stream) throws Exception {
+
+        VersionedPartitionName versionedPartitionName = versionedAquarium.getVersionedPartitionName();
+        if (requiresOnline) {
+            LivelyEndState livelyEndState = versionedAquarium.getLivelyEndState();
+            Preconditions.checkState(livelyEndState.isOnline(), "Partition:%s state:%s is not online.", versionedPartitionName, livelyEndState);
+        }
+
+        PartitionStore partitionStore = partitionCreator.get("stripe>secondaryIndexScan", versionedPartitionName, stripeIndex);
+        if (partitionStore == null) {
+            throw new IllegalStateException("No partition defined for " + versionedPartitionName);
+        } else {
+            long start = System.currentTimeMillis();
+            long disposalVersion = partitionCreator.getPartitionDisposal(versionedPartitionName.getPartitionName());
+            boolean result = storage.secondaryIndexScan(versionedPartitionName, partitionStore.getWalStorage(), indexName, fromIndexKey, toIndexKey,
+                (indexKey, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                    if (valueVersion != -1 && valueVersion < disposalVersion) {
+                        return true;
+                    } else {
+                        return stream.stream(indexKey, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion);
+                    }
+                });
+            amzaStats.scans(versionedPartitionName.getPartitionName(), 1, System.currentTimeMillis() - start);
+            return result;
+        }
+    }
+
     public interface TakeRowUpdates<R> {
 
         R give(VersionedPartitionName versionedPartitionName, LivelyEndState livelyEndState, RowStreamer streamer) throws Exception;
@@ -312,6 +419,35 @@ public class PartitionStripe {
         }
     }
 
+    /**
+     * Only covers what has been merged out of the delta; a row take from the snapshot's highest txId picks up the rest.
+     */
+    public WALSnapshot snapshotSince(VersionedAquarium versionedAquarium, long transactionId) throws Exception {
+        VersionedPartitionName versionedPartitionName = versionedAquarium.getVersionedPartitionName();
+        LivelyEndState livelyEndState = versionedAquarium.getLivelyEndState();
+        if (versionedPartitionName == null || livelyEndState == null || !livelyEndState.isOnline()) {
+            return null;
+        }
+        PartitionStore partitionStore = partitionCreator.get("stripe>snapshotSince", versionedPartitionName, stripeIndex);
+        return partitionStore == null ? null : partitionStore.getWalStorage().snapshotSince(transactionId);
+    }
+
+    /**
+     * @return the highest txId of the installed snapshot, or -1 if the partition already has rows and the snapshot was not installed
+     */
+    public long installSnapshot(VersionedAquarium versionedAquarium, File snapshotFile) throws Exception {
+        VersionedPartitionName versionedPartitionName = versionedAquarium.getVersionedPartitionName();
+        PartitionStore partitionStore = partitionCreator.get("stripe>installSnapshot", versionedPartitionName, stripeIndex);
+        if (partitionStore == null) {
+            return -1;
+        }
+        return storage.installSnapshot(versionedPartitionName,
+            partitionStore,
+            partitionCreator.baseKey(versionedPartitionName, stripeIndex),
+            snapshotFile,
+            stripeIndex);
+    }
+
     public WALHighwater takeFromTransactionId(IoStats ioStats,
         VersionedAquarium versionedAquarium,
         long transactionId,
@@ -15,6 +15,7 @@ import com.jivesoftware.os.amza.service.partition.VersionedPartitionTransactor;
 import com.jivesoftware.os.amza.service.replication.StripeTx.TxPartitionStripe;
 import com.jivesoftware.os.amza.service.stats.AmzaStats;
 import com.jivesoftware.os.amza.service.storage.HighwaterRowMarshaller;
+import com.jivesoftware.os.amza.service.storage.ParallelRangeScanner;
 import com.jivesoftware.os.amza.service.storage.PartitionCreator;
 import com.jivesoftware.os.amza.service.storage.PartitionIndex;
 import com.jivesoftware.os.amza.service.storage.delta.DeltaStripeWALStorage;
@@ -73,7 +74,8 @@ public class PartitionStripeProvider {
         AmzaPartitionWatcher amzaStripedPartitionWatcher,
         AsyncStripeFlusher systemFlusher, AsyncStripeFlusher[] stripeFlusher, long deltaStripeCompactionIntervalInMillis,
         ExecutorService compactDeltasThreadPool,
-        ExecutorService flusherExecutor) {
+        ExecutorService flusherExecutor,
+        ParallelRangeScanner parallelRangeScanner) {
 
         this.stats = stats;
         this.partitionCreator = partitionCreator;
@@ -103,7 +105,8 @@ public class PartitionStripeProvider {
                     deltaStripeWALStorages[deltaIndex],
                     amzaStripedPartitionWatcher,
                     primaryRowMarshaller,
-                    highwaterRowMarshaller);
+                    highwaterRowMarshaller,
+                    parallelRangeScanner);
 
             }
         }
@@ -157,6 +160,13 @@ public class PartitionStripeProvider {
                                 LOG.error("Compactor failed.", x);
                             }
                         }
+                        if (deltaStripeWALStorage.checkpointable()) {
+                            try {
+                                deltaStripeWALStorage.checkpoint();
+                            } catch (Throwable x) {
+                                LOG.error("Checkpoint failed.", x);
+                            }
+                        }
                         Object awakeCompactionLock = deltaStripeWALStorage.getAwakeCompactionLock();
                         synchronized (awakeCompactionLock) {
                             awakeCompactionLock.wait(deltaStripeCompactionIntervalInMillis);
@@ -177,6 +187,14 @@ public class PartitionStripeProvider {
     }
 
     public void stop() {
+        for (DeltaStripeWALStorage deltaStripeWALStorage : deltaStripeWALStorages) {
+            try {
+                deltaStripeWALStorage.awaitDeferredMerge();
+            } catch (Throwable x) {
+                LOG.error("Deferred merge failed.", x);
+            }
+        }
+
         for (AsyncStripeFlusher flusher : stripeFlusher) {
             flusher.stop();
         }
@@ -1,7 +1,11 @@
 package com.jivesoftware.os.amza.service.replication;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.wal.WALCompactionThrottle;
 import com.jivesoftware.os.amza.service.IndexedWALStorageProvider;
 import com.jivesoftware.os.amza.service.StripingLocksProvider;
 import com.jivesoftware.os.amza.service.stats.AmzaStats;
@@ -11,10 +15,16 @@ import com.jivesoftware.os.amza.service.storage.PartitionStore;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author jonathan.colt
@@ -24,6 +34,7 @@ public class PartitionTombstoneCompactor {
     private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
 
     private ScheduledExecutorService scheduledThreadPool;
+    private ExecutorService compactorThreadPool;
 
     private final AmzaStats amzaStats;
     private final IndexedWALStorageProvider indexedWALStorageProvider;
@@ -33,6 +44,8 @@ public class PartitionTombstoneCompactor {
     private final long checkIfTombstoneCompactionIsNeededIntervalInMillis;
     private final long rebalanceableEveryNMillis;
     private final int numberOfStripes;
+    private final int maxConcurrentCompactions;
+    private final WALCompactionThrottle compactionThrottle;
     private final long[] rebalanceableAfterTimestamp;
     private final StripingLocksProvider<PartitionName> locksProvider = new StripingLocksProvider<>(1024);
 
@@ -43,7 +56,9 @@ public class PartitionTombstoneCompactor {
         StorageVersionProvider storageVersionProvider,
         long checkIfCompactionIsNeededIntervalInMillis,
         long rebalanceableEveryNMillis,
-        int numberOfStripes) {
+        int numberOfStripes,
+        int maxConcurrentCompactions,
+        long compactionMaxBytesPerSecond) {
 
         this.amzaStats = amzaStats;
         this.indexedWALStorageProvider = indexedWALStorageProvider;
@@ -53,120 +68,230 @@ public class PartitionTombstoneCompactor {
         this.checkIfTombstoneCompactionIsNeededIntervalInMillis = checkIfCompactionIsNeededIntervalInMillis;
         this.rebalanceableEveryNMillis = rebalanceableEveryNMillis;
         this.numberOfStripes = numberOfStripes;
+        this.maxConcurrentCompactions = maxConcurrentCompactions;
         this.rebalanceableAfterTimestamp = new long[numberOfStripes];
+
+        if (compactionMaxBytesPerSecond > 0) {
+            RateLimiter rateLimiter = RateLimiter.create(compactionMaxBytesPerSecond);
+            this.compactionThrottle = numBytes -> {
+                double waitedSeconds = rateLimiter.acquire((int) Math.min(numBytes, Integer.MAX_VALUE));
+                amzaStats.compactionThrottledMillis.add((long) (waitedSeconds * 1000));
+            };
+        } else {
+            this.compactionThrottle = WALCompactionThrottle.NO_THROTTLE;
+        }
     }
 
     public void start() throws Exception {
 
         final int silenceBackToBackErrors = 100;
-        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("partition-tombstone-compactor-%d").build();
-        scheduledThreadPool = Executors.newScheduledThreadPool(numberOfStripes, threadFactory);
-        for (int i = 0; i < numberOfStripes; i++) {
-            int stripe = i;
-            int[] failedToCompact = { 0 };
-            scheduledThreadPool.scheduleWithFixedDelay(() -> {
-                try {
-                    failedToCompact[0] = 0;
-                    compactTombstone(false, stripe);
-                } catch (Exception x) {
-                    LOG.debug("Failing to compact tombstones.", x);
-                    if (failedToCompact[0] % silenceBackToBackErrors == 0) {
-                        failedToCompact[0]++;
-                        LOG.error("Failing to compact tombstones.");
-                    }
+        ThreadFactory plannerThreadFactory = new ThreadFactoryBuilder().setNameFormat("partition-tombstone-planner-%d").build();
+        ThreadFactory compactorThreadFactory = new ThreadFactoryBuilder().setNameFormat("partition-tombstone-compactor-%d").build();
+        scheduledThreadPool = Executors.newSingleThreadScheduledExecutor(plannerThreadFactory);
+        compactorThreadPool = Executors.newFixedThreadPool(maxConcurrentCompactions, compactorThreadFactory);
+        int[] failedToCompact = { 0 };
+        scheduledThreadPool.scheduleWithFixedDelay(() -> {
+            try {
+                failedToCompact[0] = 0;
+                compactTombstones();
+            } catch (Exception x) {
+                LOG.debug("Failing to compact tombstones.", x);
+                if (failedToCompact[0] % silenceBackToBackErrors == 0) {
+                    failedToCompact[0]++;
+                    LOG.error("Failing to compact tombstones.");
                 }
-            }, checkIfTombstoneCompactionIsNeededIntervalInMillis, checkIfTombstoneCompactionIsNeededIntervalInMillis, TimeUnit.MILLISECONDS);
-        }
+            }
+        }, checkIfTombstoneCompactionIsNeededIntervalInMillis, checkIfTombstoneCompactionIsNeededIntervalInMillis, TimeUnit.MILLISECONDS);
     }
 
     public void stop() throws Exception {
         this.scheduledThreadPool.shutdownNow();
         this.scheduledThreadPool = null;
+        this.compactorThreadPool.shutdownNow();
+        this.compactorThreadPool = null;
     }
 
-    public void compactTombstone(boolean force, int compactStripe) throws Exception {
+    /**
+     * Plans one pass over every active partition, then compacts the ones worth compacting in order of their estimated reclaimable
+     * bytes, at most maxConcurrentCompactions at a time. Blocks until the pass has been drained so passes never overlap.
+     */
+    private void compactTombstones() throws Exception {
 
-        int[] rebalanced = new int[1];
+        boolean rebalancing = rebalancingIsActive();
+        List<CompactionCandidate> candidates = Lists.newArrayList();
         partitionIndex.streamActivePartitions((versionedPartitionName) -> {
             PartitionName partitionName = versionedPartitionName.getPartitionName();
-            synchronized (locksProvider.lock(partitionName, 123)) {
-                storageVersionProvider.tx(partitionName,
-                    null,
-                    (deltaIndex, stripeIndex, storageVersion) -> {
-                        if (storageVersion != null
-                            && stripeIndex != -1
-                            && storageVersion.partitionVersion == versionedPartitionName.getPartitionVersion()
-                            && (compactStripe == -1 || stripeIndex == compactStripe)) {
-
-                            PartitionStore partitionStore = partitionCreator.get("compact", versionedPartitionName, stripeIndex);
-                            if (partitionStore == null) {
-                                return null;
-                            }
+            storageVersionProvider.tx(partitionName,
+                null,
+                (deltaIndex, stripeIndex, storageVersion) -> {
+                    if (storageVersion != null
+                        && stripeIndex != -1
+                        && storageVersion.partitionVersion == versionedPartitionName.getPartitionVersion()) {
 
-                            boolean forced = force;
-                            int compactToStripe = stripeIndex;
-                            File fromBaseKey = indexedWALStorageProvider.baseKey(versionedPartitionName, stripeIndex);
-                            File toBaseKey = fromBaseKey;
+                        PartitionStore partitionStore = partitionCreator.get("compact", versionedPartitionName, stripeIndex);
+                        if (partitionStore == null) {
+                            return null;
+                        }
 
-                            int rebalanceToStripe = -1;
-                            long disposalVersion = -1;
-                            if (!partitionName.isSystemPartition()) {
-                                disposalVersion = partitionCreator.getPartitionDisposal(versionedPartitionName.getPartitionName());
+                        long disposalVersion = -1;
+                        boolean rebalanceable = false;
+                        if (!partitionName.isSystemPartition()) {
+                            disposalVersion = partitionCreator.getPartitionDisposal(partitionName);
+                            rebalanceable = rebalancing && indexedWALStorageProvider.rebalanceToStripe(versionedPartitionName,
+                                stripeIndex,
+                                partitionStore.getProperties()) > -1;
+                        }
+                        long reclaimableBytes = partitionStore.reclaimableBytes(disposalVersion);
+                        if (reclaimableBytes > 0 || rebalanceable) {
+                            candidates.add(new CompactionCandidate(versionedPartitionName, stripeIndex, reclaimableBytes));
+                        }
+                    }
+                    return null;
+                });
+            return true;
+        });
 
-                                if (force || rebalancingIsActive()) {
-                                    rebalanceToStripe = indexedWALStorageProvider.rebalanceToStripe(versionedPartitionName,
-                                        stripeIndex,
-                                        partitionStore.getProperties());
-                                    if (rebalanceToStripe > -1) {
-                                        forced = true;
-                                        compactToStripe = rebalanceToStripe;
-                                        toBaseKey = indexedWALStorageProvider.baseKey(versionedPartitionName, compactToStripe);
-                                        LOG.info("Rebalancing by compacting {} from {}:{} to {}:{}",
-                                            partitionName,
-                                            stripeIndex,
-                                            fromBaseKey,
-                                            compactToStripe,
-                                            toBaseKey);
-                                    }
-                                }
-                            }
-                            int effectivelyFinalRebalanceToStripe = rebalanceToStripe;
-                            partitionStore.compactTombstone(
-                                forced,
-                                fromBaseKey,
-                                toBaseKey,
-                                compactToStripe,
-                                disposalVersion,
-                                (transitionToCompactedTx) -> {
-                                    return storageVersionProvider.replaceOneWithAll(partitionName,
-                                        () -> {
-                                            return transitionToCompactedTx.tx(() -> {
-                                                if (effectivelyFinalRebalanceToStripe != -1) {
-                                                    rebalanced[0]++;
-                                                    storageVersionProvider.transitionStripe(versionedPartitionName,
-                                                        storageVersion,
-                                                        effectivelyFinalRebalanceToStripe);
-
-                                                    LOG.info("Rebalancing transitioned {} to {}", partitionName, effectivelyFinalRebalanceToStripe);
-                                                }
-                                                return null;
-                                            });
-                                        });
-                                });
+        sortByReclaimableBytes(candidates);
 
-                        }
-                        return null;
-                    });
-                return true;
+        AtomicLong queueDepth = new AtomicLong(candidates.size());
+        AtomicLong queueReclaimableBytes = new AtomicLong();
+        for (CompactionCandidate candidate : candidates) {
+            queueReclaimableBytes.addAndGet(candidate.reclaimableBytes);
+        }
+        amzaStats.compactionQueueDepth = queueDepth.get();
+        amzaStats.compactionQueueReclaimableBytes = queueReclaimableBytes.get();
+
+        long startIoBytes = amzaStats.compactTombstoneIoStats.read.longValue() + amzaStats.compactTombstoneIoStats.wrote.longValue();
+        long startTimestamp = System.currentTimeMillis();
+
+        AtomicInteger[] rebalanced = new AtomicInteger[numberOfStripes];
+        for (int i = 0; i < numberOfStripes; i++) {
+            rebalanced[i] = new AtomicInteger();
+        }
+        List<Future<?>> futures = Lists.newArrayListWithCapacity(candidates.size());
+        for (CompactionCandidate candidate : candidates) {
+            futures.add(compactorThreadPool.submit(() -> {
+                amzaStats.compactionQueueDepth = queueDepth.decrementAndGet();
+                amzaStats.compactionQueueReclaimableBytes = queueReclaimableBytes.addAndGet(-candidate.reclaimableBytes);
+                try {
+                    compactPartition(false, candidate.versionedPartitionName, candidate.stripe, rebalanced[candidate.stripe]);
+                } catch (Exception x) {
+                    LOG.error("Failed to compact tombstones for {} on stripe {}",
+                        new Object[] { candidate.versionedPartitionName, candidate.stripe }, x);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        long elapsed = System.currentTimeMillis() - startTimestamp;
+        if (!candidates.isEmpty() && elapsed > 0) {
+            long ioBytes = amzaStats.compactTombstoneIoStats.read.longValue() + amzaStats.compactTombstoneIoStats.wrote.longValue() - startIoBytes;
+            amzaStats.compactionBytesPerSecond = ioBytes * 1000 / elapsed;
+        }
+
+        for (int i = 0; i < numberOfStripes; i++) {
+            if (rebalanced[i].get() == 0 && System.currentTimeMillis() > rebalanceableAfterTimestamp[i]) {
+                rebalanceableAfterTimestamp[i] = System.currentTimeMillis() + rebalanceableEveryNMillis;
+                LOG.info("Rebalancing for stripe {} has been paused until {}", i, rebalanceableAfterTimestamp[i]);
             }
+        }
+    }
+
+    public void compactTombstone(boolean force, int compactStripe) throws Exception {
+
+        AtomicInteger rebalanced = new AtomicInteger();
+        partitionIndex.streamActivePartitions((versionedPartitionName) -> {
+            compactPartition(force, versionedPartitionName, compactStripe, rebalanced);
+            return true;
         });
 
-        if (compactStripe != -1 && rebalanced[0] == 0 && System.currentTimeMillis() > rebalanceableAfterTimestamp[compactStripe]) {
+        if (compactStripe != -1 && rebalanced.get() == 0 && System.currentTimeMillis() > rebalanceableAfterTimestamp[compactStripe]) {
             rebalanceableAfterTimestamp[compactStripe] = System.currentTimeMillis() + rebalanceableEveryNMillis;
             LOG.info("Rebalancing for stripe {} has been paused until {}", compactStripe, rebalanceableAfterTimestamp[compactStripe]);
         }
     }
 
+    private void compactPartition(boolean force,
+        VersionedPartitionName versionedPartitionName,
+        int compactStripe,
+        AtomicInteger rebalanced) throws Exception {
+
+        PartitionName partitionName = versionedPartitionName.getPartitionName();
+        synchronized (locksProvider.lock(partitionName, 123)) {
+            storageVersionProvider.tx(partitionName,
+                null,
+                (deltaIndex, stripeIndex, storageVersion) -> {
+                    if (storageVersion != null
+                        && stripeIndex != -1
+                        && storageVersion.partitionVersion == versionedPartitionName.getPartitionVersion()
+                        && (compactStripe == -1 || stripeIndex == compactStripe)) {
+
+                        PartitionStore partitionStore = partitionCreator.get("compact", versionedPartitionName, stripeIndex);
+                        if (partitionStore == null) {
+                            return null;
+                        }
+
+                        boolean forced = force;
+                        int compactToStripe = stripeIndex;
+                        File fromBaseKey = indexedWALStorageProvider.baseKey(versionedPartitionName, stripeIndex);
+                        File toBaseKey = fromBaseKey;
+
+                        int rebalanceToStripe = -1;
+                        long disposalVersion = -1;
+                        if (!partitionName.isSystemPartition()) {
+                            disposalVersion = partitionCreator.getPartitionDisposal(versionedPartitionName.getPartitionName());
+
+                            if (force || rebalancingIsActive()) {
+                                rebalanceToStripe = indexedWALStorageProvider.rebalanceToStripe(versionedPartitionName,
+                                    stripeIndex,
+                                    partitionStore.getProperties());
+                                if (rebalanceToStripe > -1) {
+                                    forced = true;
+                                    compactToStripe = rebalanceToStripe;
+                                    toBaseKey = indexedWALStorageProvider.baseKey(versionedPartitionName, compactToStripe);
+                                    LOG.info("Rebalancing by compacting {} from {}:{} to {}:{}",
+                                        partitionName,
+                                        stripeIndex,
+                                        fromBaseKey,
+                                        compactToStripe,
+                                        toBaseKey);
+                                }
+                            }
+                        }
+                        int effectivelyFinalRebalanceToStripe = rebalanceToStripe;
+                        partitionStore.compactTombstone(
+                            forced,
+                            fromBaseKey,
+                            toBaseKey,
+                            compactToStripe,
+                            disposalVersion,
+                            compactionThrottle,
+                            (transitionToCompactedTx) -> {
+                                return storageVersionProvider.replaceOneWithAll(partitionName,
+                                    () -> {
+                                        return transitionToCompactedTx.tx(() -> {
+                                            if (effectivelyFinalRebalanceToStripe != -1) {
+                                                rebalanced.incrementAndGet();
+                                                storageVersionProvider.transitionStripe(versionedPartitionName,
+                                                    storageVersion,
+                                                    effectivelyFinalRebalanceToStripe);
+
+                                                LOG.info("Rebalancing transitioned {} to {}", partitionName, effectivelyFinalRebalanceToStripe);
+                                            }
+                                            return null;
+                                        });
+                                    });
+                            });
+
+                    }
+                    return null;
+                });
+        }
+    }
+
     private boolean rebalancingIsActive() {
         long timestamp = System.currentTimeMillis();
         for (int i = 0; i < rebalanceableAfterTimestamp.length; i++) {
@@ -177,4 +302,20 @@ public class PartitionTombstoneCompactor {
         return false;
     }
 
+    static void sortByReclaimableBytes(List<CompactionCandidate> candidates) {
+        Collections.sort(candidates, (o1, o2) -> Long.compare(o2.reclaimableBytes, o1.reclaimableBytes));
+    }
+
+    static class CompactionCandidate {
+
+        final VersionedPartitionName versionedPartitionName;
+        final int stripe;
+        final long reclaimableBytes;
+
+        CompactionCandidate(VersionedPartitionName versionedPartitionName, int stripe, long reclaimableBytes) {
+            this.versionedPartitionName = versionedPartitionName;
+            this.stripe = stripe;
+            this.reclaimableBytes = reclaimableBytes;
+        }
+    }
 }
@@ -12,7 +12,6 @@ import com.jivesoftware.os.amza.api.ring.RingHost;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.scan.CommitTo;
 import com.jivesoftware.os.amza.api.scan.RowChanges;
-import com.jivesoftware.os.amza.api.scan.RowStream;
 import com.jivesoftware.os.amza.api.scan.RowsChanged;
 import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.wal.MemoryWALUpdates;
@@ -30,15 +29,20 @@ import com.jivesoftware.os.amza.service.storage.binary.BinaryHighwaterRowMarshal
 import com.jivesoftware.os.amza.service.storage.binary.BinaryPrimaryRowMarshaller;
 import com.jivesoftware.os.amza.service.take.AvailableRowsTaker;
 import com.jivesoftware.os.amza.service.take.RowsTaker;
+import com.jivesoftware.os.amza.service.take.RowsTaker.RowViewStream;
 import com.jivesoftware.os.amza.service.take.RowsTaker.StreamingRowsResult;
+import com.jivesoftware.os.amza.service.take.RowsTaker.StreamingSnapshotResult;
 import com.jivesoftware.os.aquarium.LivelyEndState;
 import com.jivesoftware.os.aquarium.State;
 import com.jivesoftware.os.aquarium.Waterline;
 import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProvider;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.io.File;
+import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -83,6 +87,8 @@ public class RowChangeTaker implements RowChanges {
     private final long rowsTakerLimit;
     private final BinaryPrimaryRowMarshaller primaryRowMarshaller;
     private final BinaryHighwaterRowMarshaller binaryHighwaterRowMarshaller;
+    private final long snapshotBootstrapMinBytes;
+    private final File[] snapshotDirectories;
 
     private final ExecutorService systemRowTakerThreadPool;
     private final ExecutorService availableRowsReceiverThreadPool;
@@ -118,7 +124,9 @@ public class RowChangeTaker implements RowChanges {
         long pongIntervalMillis,
         long rowsTakerLimit,
         BinaryPrimaryRowMarshaller primaryRowMarshaller,
-        BinaryHighwaterRowMarshaller binaryHighwaterRowMarshaller) {
+        BinaryHighwaterRowMarshaller binaryHighwaterRowMarshaller,
+        long snapshotBootstrapMinBytes,
+        File[] snapshotDirectories) {
 
         this.amzaSystemStats = amzaSystemStats;
         this.amzaStats = amzaStats;
@@ -141,6 +149,8 @@ public class RowChangeTaker implements RowChanges {
         this.rowsTakerLimit = rowsTakerLimit;
         this.primaryRowMarshaller = primaryRowMarshaller;
         this.binaryHighwaterRowMarshaller = binaryHighwaterRowMarshaller;
+        this.snapshotBootstrapMinBytes = snapshotBootstrapMinBytes;
+        this.snapshotDirectories = snapshotDirectories;
 
         this.systemRowTakerThreadPool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("systemRowTaker-%d").build());
         this.availableRowsReceiverThreadPool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("availableRowsReceiver-%d").build());
@@ -229,6 +239,8 @@ public class RowChangeTaker implements RowChanges {
         consumerThreadPool.shutdownNow();
         stripedRowTakerThreadPool.shutdownNow();
         cyaThreadPool.shutdownNow();
+        systemRowsTaker.stop();
+        stripedRowsTaker.stop();
     }
 
     private Object consumerLock(PartitionName partitionName) throws Exception {
@@ -625,6 +637,7 @@ public class RowChangeTaker implements RowChanges {
         private final OnError onError;
 
         private final AtomicLong version = new AtomicLong(0);
+        private volatile boolean lagging = false;
 
         public RowTaker(BinaryPrimaryRowMarshaller primaryRowMarshaller,
             BinaryHighwaterRowMarshaller binaryHighwaterRowMarshaller,
@@ -672,6 +685,10 @@ public class RowChangeTaker implements RowChanges {
             try {
                 AmzaStats stats = partitionName.isSystemPartition() ? amzaSystemStats : amzaStats;
 
+                if (snapshotBootstrapMinBytes > 0 && !partitionName.isSystemPartition()) {
+                    bootstrapFromSnapshot();
+                }
+
                 CommitChanges commitChanges = partitionName.isSystemPartition() ? systemPartitionCommitChanges : stripedPartitionCommitChanges;
                 commitChanges.commit(localVersionedPartitionName, (highwaterStorage, versionedAquarium, commitTo) -> {
 
@@ -721,6 +738,10 @@ public class RowChangeTaker implements RowChanges {
                                     leadershipToken,
                                     rowsTakerLimit,
                                     takeRowStream);
+                                lagging = rowsResult.error == null
+                                    && rowsResult.unreachable == null
+                                    && rowsResult.partitionVersion != -1
+                                    && rowsResult.otherHighwaterMarks == null;
 
                                 if (rowsResult.error != null) {
                                     LOG.inc("take>errors>all");
@@ -865,6 +886,80 @@ public class RowChangeTaker implements RowChanges {
             }
         }
 
+        /**
+         * A replica that has nothing locally, because it is new or was lagging without ever having taken, installs the remote WAL as its own
+         * rather than taking it row by row. The take then resumes from the highest txId of the snapshot.
+         */
+        private void bootstrapFromSnapshot() throws Exception {
+            PartitionName partitionName = localVersionedPartitionName.getPartitionName();
+            boolean wantsSnapshot = partitionStripeProvider.txPartition(partitionName, (txPartitionStripe, highwaterStorage, versionedAquarium) -> {
+                if (versionedAquarium.getVersionedPartitionName().getPartitionVersion() != localVersionedPartitionName.getPartitionVersion()) {
+                    return false;
+                }
+                long highwaterMark = highwaterStorage.get(remoteRingMember, localVersionedPartitionName);
+                if (highwaterMark >= takeToTxId.get() || (highwaterMark != -1 && !lagging)) {
+                    return false;
+                }
+                return txPartitionStripe.tx((deltaIndex, stripeIndex, partitionStripe) -> {
+                    return partitionStripe != null && partitionStripe.highestTxId(localVersionedPartitionName) < 0;
+                });
+            });
+            if (!wantsSnapshot) {
+                return;
+            }
+
+            File snapshotDirectory = snapshotDirectories[Math.abs(remoteVersionedPartitionName.hashCode() % snapshotDirectories.length)];
+            if (!snapshotDirectory.exists() && !snapshotDirectory.mkdirs()) {
+                throw new IOException("Failed trying to mkdirs for " + snapshotDirectory);
+            }
+            File snapshotFile = File.createTempFile("snapshot-", ".kvt", snapshotDirectory);
+            try {
+                long start = System.currentTimeMillis();
+                StreamingSnapshotResult result = rowsTaker.snapshotStream(amzaRingReader.getRingMember(),
+                    remoteRingMember,
+                    remoteRingHost,
+                    remoteVersionedPartitionName,
+                    takeSessionId,
+                    takeSharedKey,
+                    -1,
+                    snapshotFile);
+                if (result.error != null || result.unreachable != null) {
+                    LOG.inc("take>snapshot>failed");
+                    LOG.warn("Failed to snapshot from member:{} host:{} partition:{}, falling back to taking rows",
+                        new Object[] { remoteRingMember, remoteRingHost, remoteVersionedPartitionName },
+                        result.error != null ? result.error : result.unreachable);
+                    return;
+                }
+                if (result.snapshotBytes < 0) {
+                    LOG.inc("take>snapshot>declined");
+                    return;
+                }
+
+                long snapshotTxId = partitionStripeProvider.txPartition(partitionName, (txPartitionStripe, highwaterStorage, versionedAquarium) -> {
+                    if (versionedAquarium.getVersionedPartitionName().getPartitionVersion() != localVersionedPartitionName.getPartitionVersion()) {
+                        return -1L;
+                    }
+                    return txPartitionStripe.tx((deltaIndex, stripeIndex, partitionStripe) -> {
+                        long installedTxId = partitionStripe.installSnapshot(versionedAquarium, snapshotFile);
+                        if (installedTxId > -1) {
+                            highwaterStorage.setIfLarger(remoteRingMember, localVersionedPartitionName, installedTxId, deltaIndex, 0);
+                        }
+                        return installedTxId;
+                    });
+                });
+                if (snapshotTxId == -1) {
+                    LOG.inc("take>snapshot>superseded");
+                    return;
+                }
+                LOG.inc("take>snapshot>installed");
+                LOG.info("Installed a {} byte snapshot of {} from {} through txId:{} in {} millis",
+                    result.snapshotBytes, remoteVersionedPartitionName, remoteRingMember, snapshotTxId, System.currentTimeMillis() - start);
+            } finally {
+                if (snapshotFile.exists() && !snapshotFile.delete()) {
+                    LOG.warn("Failed to delete snapshot {}", snapshotFile);
+                }
+            }
+        }
     }
 
     private static class DeltaIndexAndTxId {
@@ -876,7 +971,7 @@ public class RowChangeTaker implements RowChanges {
         }
     }
 
-    private static class TakeRowStream implements RowStream {
+    private static class TakeRowStream implements RowViewStream {
 
         private final AmzaStats amzaStats;
         private final VersionedPartitionName versionedPartitionName;
@@ -915,7 +1010,7 @@ public class RowChangeTaker implements RowChanges {
         }
 
         @Override
-        public boolean row(long rowFP, long txId, RowType rowType, byte[] row) throws Exception {
+        public boolean row(long rowFP, long txId, RowType rowType, byte[] buffer, int offset, int length) throws Exception {
             if (rowType.isPrimary()) {
                 if (lastTxId.longValue() == Long.MIN_VALUE) {
                     lastTxId.setValue(txId);
@@ -926,7 +1021,7 @@ public class RowChangeTaker implements RowChanges {
                     oldestTxId.setValue(Long.MAX_VALUE);
                 }
 
-                primaryRowMarshaller.fromRows(txFpRowStream -> txFpRowStream.stream(txId, rowFP, rowType, row),
+                primaryRowMarshaller.fromRow(txId, rowFP, rowType, buffer, offset,
                     (rowTxId, fp, rowType2, prefix, key, hasValue, value, valueTimestamp, valueTombstoned, valueVersion, _row) -> {
                         streamed.incrementAndGet();
                         if (highWaterMark.longValue() < txId) {
@@ -940,7 +1035,7 @@ public class RowChangeTaker implements RowChanges {
                     });
 
             } else if (rowType == RowType.highwater) {
-                highwater.set(binaryHighwaterRowMarshaller.fromBytes(row));
+                highwater.set(binaryHighwaterRowMarshaller.fromBytes(Arrays.copyOfRange(buffer, offset, offset + length)));
             }
             return true;
         }
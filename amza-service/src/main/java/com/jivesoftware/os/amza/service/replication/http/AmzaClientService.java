@@ -1,5 +1,9 @@
 package com.jivesoftware.os.amza.service.replication.http;
 
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.DeltaOverCapacityException;
+import com.jivesoftware.os.amza.api.FailedToAchieveQuorumException;
 import com.jivesoftware.os.amza.api.PartitionClient.KeyValueFilter;
 import com.jivesoftware.os.amza.api.RingPartitionProperties;
 import com.jivesoftware.os.amza.api.filer.IReadable;
@@ -10,6 +14,7 @@ import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.ring.RingMemberAndHost;
+import com.jivesoftware.os.amza.api.stream.ClientUpdates;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
 import com.jivesoftware.os.amza.api.stream.PrefixedKeyRanges;
 import com.jivesoftware.os.amza.api.stream.RowType;
@@ -18,9 +23,11 @@ import com.jivesoftware.os.amza.api.stream.TxKeyValueStream.TxResult;
 import com.jivesoftware.os.amza.api.take.Highwaters;
 import com.jivesoftware.os.amza.api.take.TakeResult;
 import com.jivesoftware.os.amza.api.wal.WALHighwater;
+import com.jivesoftware.os.amza.service.BufferedClientUpdates;
 import com.jivesoftware.os.amza.service.NotARingMemberException;
 import com.jivesoftware.os.amza.service.Partition;
 import com.jivesoftware.os.amza.service.Partition.ScanRange;
+import com.jivesoftware.os.amza.service.PartitionChangeFeed;
 import com.jivesoftware.os.amza.service.PartitionProvider;
 import com.jivesoftware.os.amza.service.PropertiesNotPresentException;
 import com.jivesoftware.os.amza.service.ring.AmzaRingReader;
@@ -33,6 +40,11 @@ import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 /**
  * @author jonathan.colt
@@ -40,14 +52,32 @@ import java.util.List;
 public class AmzaClientService implements AmzaRestClient {
 
     private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+    private static final long SUBSCRIBE_MIN_HEARTBEAT_MILLIS = 100;
+
     private final AmzaRingReader ringReader;
     private final AmzaRingWriter ringWriter;
     private final PartitionProvider partitionProvider;
-
-    public AmzaClientService(AmzaRingReader ringReader, AmzaRingWriter ringWriter, PartitionProvider partitionProvider) {
+    private final AmzaInterner amzaInterner;
+    private final ExecutorService commitBatchExecutor;
+    private final PartitionChangeFeed changeFeed;
+    private final long subscribeMaxSessionMillis;
+    private final Semaphore subscriptions;
+
+    public AmzaClientService(AmzaRingReader ringReader,
+        AmzaRingWriter ringWriter,
+        PartitionProvider partitionProvider,
+        AmzaInterner amzaInterner,
+        ExecutorService commitBatchExecutor,
+        long subscribeMaxSessionMillis,
+        int subscribeMaxConcurrent) {
         this.ringReader = ringReader;
         this.ringWriter = ringWriter;
         this.partitionProvider = partitionProvider;
+        this.amzaInterner = amzaInterner;
+        this.commitBatchExecutor = commitBatchExecutor;
+        this.subscribeMaxSessionMillis = subscribeMaxSessionMillis;
+        this.subscriptions = new Semaphore(subscribeMaxConcurrent);
+        this.changeFeed = new PartitionChangeFeed(partitionProvider);
     }
 
     @Override
@@ -123,7 +153,32 @@ public class AmzaClientService implements AmzaRestClient {
         byte[] prefix = UIO.readByteArray(read, "prefix", intLongBuffer);
         long timeoutInMillis = UIO.readLong(read, "timeoutInMillis", intLongBuffer);
 
-        partition.commit(consistency, prefix, commitKeyValueStream -> {
+        partition.commit(consistency, prefix, readUpdates(read, intLongBuffer), timeoutInMillis);
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<StateMessageCause> commitAsync(PartitionName partitionName,
+        Consistency consistency,
+        boolean checkLeader,
+        long partitionAwaitOnlineTimeoutMillis,
+        IReadable read) throws Exception {
+        StateMessageCause response = checkForReadyState(partitionName, consistency, checkLeader, partitionAwaitOnlineTimeoutMillis);
+        if (response != null) {
+            return CompletableFuture.completedFuture(response);
+        }
+
+        Partition partition = partitionProvider.getPartition(partitionName);
+        byte[] intLongBuffer = new byte[8];
+        byte[] prefix = UIO.readByteArray(read, "prefix", intLongBuffer);
+        long timeoutInMillis = UIO.readLong(read, "timeoutInMillis", intLongBuffer);
+
+        return partition.commitAsync(consistency, prefix, readUpdates(read, intLongBuffer), timeoutInMillis, commitBatchExecutor)
+            .thenApply(committed -> null);
+    }
+
+    private static ClientUpdates readUpdates(IReadable read, byte[] intLongBuffer) {
+        return commitKeyValueStream -> {
             while (!UIO.readBoolean(read, "eos")) {
                 boolean result = commitKeyValueStream.commit(
                     UIO.readByteArray(read, "key", intLongBuffer),
@@ -135,6 +190,122 @@ public class AmzaClientService implements AmzaRestClient {
                 }
             }
             return true;
+        };
+    }
+
+    @Override
+    public List<Future<StateMessageCause>> commitBatch(Consistency consistency,
+        boolean checkLeader,
+        long partitionAwaitOnlineTimeoutMillis,
+        IReadable read) throws Exception {
+
+        byte[] intLongBuffer = new byte[8];
+        long timeoutInMillis = UIO.readLong(read, "timeoutInMillis", intLongBuffer);
+
+        // the request has to be drained before any partition blocks on its quorum, so each partition's updates are buffered
+        List<BufferedCommit> commits = Lists.newArrayList();
+        while (!UIO.readBoolean(read, "eos")) {
+            byte[] partitionNameBytes = UIO.readByteArray(read, "partitionName", intLongBuffer);
+            BufferedCommit commit = new BufferedCommit(amzaInterner.internPartitionName(partitionNameBytes, 0, partitionNameBytes.length),
+                UIO.readByteArray(read, "prefix", intLongBuffer));
+            while (!UIO.readBoolean(read, "eos")) {
+                commit.add(UIO.readByteArray(read, "key", intLongBuffer),
+                    UIO.readByteArray(read, "value", intLongBuffer),
+                    UIO.readLong(read, "valueTimestamp", intLongBuffer),
+                    UIO.readBoolean(read, "valueTombstoned"));
+            }
+            commits.add(commit);
+        }
+
+        // the ready check and local write run on the executor, but no thread is parked while a partition's quorum acks
+        List<Future<StateMessageCause>> futures = Lists.newArrayListWithCapacity(commits.size());
+        for (BufferedCommit commit : commits) {
+            futures.add(CompletableFuture.supplyAsync(
+                () -> commitBuffered(commit, consistency, checkLeader, partitionAwaitOnlineTimeoutMillis, timeoutInMillis),
+                commitBatchExecutor)
+                .thenCompose(committed -> committed));
+        }
+        return futures;
+    }
+
+    private CompletableFuture<StateMessageCause> commitBuffered(BufferedCommit commit,
+        Consistency consistency,
+        boolean checkLeader,
+        long partitionAwaitOnlineTimeoutMillis,
+        long timeoutInMillis) {
+        try {
+            StateMessageCause response = checkForReadyState(commit.partitionName, consistency, checkLeader, partitionAwaitOnlineTimeoutMillis);
+            if (response != null) {
+                return CompletableFuture.completedFuture(response);
+            }
+            return partitionProvider.getPartition(commit.partitionName)
+                .commitAsync(consistency, commit.prefix, commit, timeoutInMillis, commitBatchExecutor)
+                .handle((committed, failure) -> failure == null ? null
+                    : batchCommitFailure(commit, consistency, checkLeader, partitionAwaitOnlineTimeoutMillis, failure));
+        } catch (Exception x) {
+            return CompletableFuture.completedFuture(batchCommitFailure(commit, consistency, checkLeader, partitionAwaitOnlineTimeoutMillis, x));
+        }
+    }
+
+    private static StateMessageCause batchCommitFailure(BufferedCommit commit,
+        Consistency consistency,
+        boolean checkLeader,
+        long partitionAwaitOnlineTimeoutMillis,
+        Throwable failure) {
+
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        Exception x = failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+        if (x instanceof FailedToAchieveQuorumException) {
+            return new StateMessageCause(commit.partitionName, consistency, checkLeader, partitionAwaitOnlineTimeoutMillis,
+                State.failed_to_achieve_quorum, "Failed to achieve quorum.", x);
+        } else if (x instanceof DeltaOverCapacityException) {
+            return new StateMessageCause(commit.partitionName, consistency, checkLeader, partitionAwaitOnlineTimeoutMillis,
+                State.delta_over_capacity, "Delta over capacity.", x);
+        } else {
+            LOG.warn("Failed to commit {} as part of a batch at {}.", new Object[] { commit.partitionName, consistency }, x);
+            return new StateMessageCause(commit.partitionName, consistency, checkLeader, partitionAwaitOnlineTimeoutMillis,
+                State.error, "Failed to commit.", x);
+        }
+    }
+
+    private static class BufferedCommit extends BufferedClientUpdates {
+
+        private final PartitionName partitionName;
+        private final byte[] prefix;
+
+        BufferedCommit(PartitionName partitionName, byte[] prefix) {
+            this.partitionName = partitionName;
+            this.prefix = prefix;
+        }
+    }
+
+    @Override
+    public StateMessageCause repair(PartitionName partitionName, long partitionAwaitOnlineTimeoutMillis, IReadable read) throws Exception {
+        StateMessageCause response = checkForReadyState(partitionName, Consistency.none, false, partitionAwaitOnlineTimeoutMillis);
+        if (response != null) {
+            return response;
+        }
+
+        Partition partition = partitionProvider.getPartition(partitionName);
+        byte[] intLongBuffer = new byte[8];
+        byte[] prefix = UIO.readByteArray(read, "prefix", intLongBuffer);
+        long timeoutInMillis = UIO.readLong(read, "timeoutInMillis", intLongBuffer);
+
+        partition.repair(prefix, (highwaters, stream) -> {
+            while (!UIO.readBoolean(read, "eos")) {
+                boolean result = stream.row(-1L,
+                    UIO.readByteArray(read, "key", intLongBuffer),
+                    UIO.readByteArray(read, "value", intLongBuffer),
+                    UIO.readLong(read, "valueTimestamp", intLongBuffer),
+                    UIO.readBoolean(read, "valueTombstoned"),
+                    UIO.readLong(read, "valueVersion", intLongBuffer));
+                if (!result) {
+                    return false;
+                }
+            }
+            return true;
         }, timeoutInMillis);
         return null;
     }
@@ -176,6 +347,38 @@ public class AmzaClientService implements AmzaRestClient {
         UIO.writeByte(out, (byte) 1, "eos");
     }
 
+    @Override
+    public void getDigest(PartitionName partitionName, Consistency consistency, IReadable in, IWriteable out) throws Exception {
+        Partition partition = partitionProvider.getPartition(partitionName);
+        byte[] intLongBuffer = new byte[8];
+        byte[] prefix = UIO.readByteArray(in, "prefix", intLongBuffer);
+
+        // a missing row has no timestamp, so anything else that isn't contained is a tombstone
+        partition.containsKeys(consistency,
+            prefix,
+            true,
+            (keyStream) -> {
+                while (!UIO.readBoolean(in, "eos")) {
+                    if (!keyStream.stream(UIO.readByteArray(in, "key", intLongBuffer))) {
+                        return false;
+                    }
+                }
+                return true;
+            },
+            (prefix1, key, contained, timestamp, version) -> {
+                boolean tombstoned = !contained && timestamp != -1;
+                UIO.writeByte(out, (byte) 0, "eos");
+                UIO.writeByteArray(out, prefix1, "prefix", intLongBuffer);
+                UIO.writeByteArray(out, key, "key", intLongBuffer);
+                UIO.writeLong(out, timestamp, "timestamp", intLongBuffer);
+                UIO.writeByte(out, (byte) (tombstoned ? 1 : 0), "tombstoned");
+                UIO.writeLong(out, version, "version", intLongBuffer);
+                return true;
+            });
+
+        UIO.writeByte(out, (byte) 1, "eos");
+    }
+
     @Override
     public void getOffset(PartitionName partitionName, Consistency consistency, IReadable in, IWriteable out) throws Exception {
         Partition partition = partitionProvider.getPartition(partitionName);
@@ -231,19 +434,23 @@ public class AmzaClientService implements AmzaRestClient {
         boolean rangeBoundaries,
         KeyValueFilter filter,
         IWriteable out,
-        boolean hydrateValues) throws Exception {
+        boolean hydrateValues,
+        int limit,
+        int parallelism,
+        boolean ordered) throws Exception {
 
         byte[] intLongBuffer = new byte[8];
         Partition partition = partitionProvider.getPartition(partitionName);
 
         long[] scannedValuesCostInBytes = new long[2];
+        int[] streamed = new int[1];
         PrefixedKeyRanges prefixedKeyRanges = stream -> {
             if (rangeBoundaries) {
                 for (ScanRange range : ranges) {
                     UIO.writeByte(out, (byte) 0, "eosRange");
                     boolean result = stream.stream(range.fromPrefix, range.fromKey, range.toPrefix, range.toKey);
                     UIO.writeByte(out, (byte) 1, "eos");
-                    if (!result) {
+                    if (!result || limit >= 0 && streamed[0] >= limit) {
                         UIO.writeByte(out, (byte) 1, "eosRange");
                         return false;
                     }
@@ -251,7 +458,7 @@ public class AmzaClientService implements AmzaRestClient {
                 UIO.writeByte(out, (byte) 1, "eosRange");
             } else {
                 for (ScanRange range : ranges) {
-                    if (!stream.stream(range.fromPrefix, range.fromKey, range.toPrefix, range.toKey)) {
+                    if (!stream.stream(range.fromPrefix, range.fromKey, range.toPrefix, range.toKey) || limit >= 0 && streamed[0] >= limit) {
                         UIO.writeByte(out, (byte) 1, "eos");
                         return false;
                     }
@@ -261,6 +468,9 @@ public class AmzaClientService implements AmzaRestClient {
             return true;
         };
         KeyValueStream keyValueStream = (prefix, key, value, timestamp, tombstoned, version) -> {
+            if (limit >= 0 && streamed[0] >= limit) {
+                return false;
+            }
             scannedValuesCostInBytes[0] += value != null ? value.length : 0;
             UIO.writeByte(out, (byte) 0, "eos");
             UIO.writeByteArray(out, prefix, "prefix", intLongBuffer);
@@ -271,7 +481,8 @@ public class AmzaClientService implements AmzaRestClient {
             UIO.writeLong(out, timestamp, "timestamp", intLongBuffer);
             UIO.writeByte(out, tombstoned ? (byte) 1 : (byte) 0, "tombstoned");
             UIO.writeLong(out, version, "version", intLongBuffer);
-            return true;
+            streamed[0]++;
+            return limit < 0 || streamed[0] < limit;
         };
         if (filter != null) {
             partition.scan(
@@ -288,12 +499,36 @@ public class AmzaClientService implements AmzaRestClient {
             LOG.inc("scan>filtered>bytes>total", scannedValuesCostInBytes[0]);
             LOG.inc("scan>filtered>bytes>original", scannedValuesCostInBytes[1]);
             LOG.inc("scan>filtered>bytes>pow>" + UIO.chunkPower(scannedValuesCostInBytes[0], 0));
+        } else if (parallelism > 1) {
+            partition.parallelScan(prefixedKeyRanges, true, hydrateValues, parallelism, ordered, keyValueStream);
+            LOG.inc("scan>parallel>calls");
+            LOG.inc("scan>unfiltered>bytes>pow>" + UIO.chunkPower(scannedValuesCostInBytes[0], 0));
         } else {
             partition.scan(prefixedKeyRanges, true, hydrateValues, keyValueStream);
             LOG.inc("scan>unfiltered>bytes>pow>" + UIO.chunkPower(scannedValuesCostInBytes[0], 0));
         }
     }
 
+    @Override
+    public void scanIndex(PartitionName partitionName, String indexName, byte[] fromIndexKey, byte[] toIndexKey, IWriteable out) throws Exception {
+        byte[] intLongBuffer = new byte[8];
+        Partition partition = partitionProvider.getPartition(partitionName);
+        partition.scanIndex(indexName, fromIndexKey, toIndexKey, true,
+            (indexKey, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                UIO.writeByte(out, (byte) 0, "eos");
+                UIO.writeByteArray(out, indexKey, "indexKey", intLongBuffer);
+                UIO.writeByteArray(out, prefix, "prefix", intLongBuffer);
+                UIO.writeByteArray(out, key, "key", intLongBuffer);
+                UIO.writeByteArray(out, value, "value", intLongBuffer);
+                UIO.writeLong(out, valueTimestamp, "timestamp", intLongBuffer);
+                UIO.writeByte(out, valueTombstoned ? (byte) 1 : (byte) 0, "tombstoned");
+                UIO.writeLong(out, valueVersion, "version", intLongBuffer);
+                return true;
+            });
+        UIO.writeByte(out, (byte) 1, "eos");
+        LOG.inc("scanIndex>calls");
+    }
+
     @Override
     public void takeFromTransactionId(PartitionName partitionName, int limit, IReadable in, IWriteable out) throws Exception {
         byte[] intLongBuffer = new byte[8];
@@ -311,6 +546,38 @@ public class AmzaClientService implements AmzaRestClient {
         take(out, partition, true, prefix, txId, limit, intLongBuffer);
     }
 
+    @Override
+    public boolean acquireSubscription() {
+        return subscriptions.tryAcquire();
+    }
+
+    @Override
+    public void releaseSubscription() {
+        subscriptions.release();
+    }
+
+    @Override
+    public void subscribe(PartitionName partitionName, int limit, IReadable in, IWriteable out) throws Exception {
+        byte[] intLongBuffer = new byte[8];
+        Partition partition = partitionProvider.getPartition(partitionName);
+        byte[] prefix = UIO.readByteArray(in, "prefix", intLongBuffer);
+        long txId = UIO.readLong(in, "txId", intLongBuffer);
+        long heartbeatIntervalMillis = UIO.readLong(in, "heartbeatIntervalMillis", intLongBuffer);
+        long sessionMillis = UIO.readLong(in, "sessionMillis", intLongBuffer);
+        // the caller picks both, so hold them to what a server thread can afford to spend parked on one follower
+        sessionMillis = Math.min(sessionMillis, subscribeMaxSessionMillis);
+        heartbeatIntervalMillis = Math.max(SUBSCRIBE_MIN_HEARTBEAT_MILLIS, Math.min(heartbeatIntervalMillis, subscribeMaxSessionMillis));
+
+        UIO.writeByteArray(out, ringReader.getRingMember().toBytes(), "ringMember", intLongBuffer);
+        changeFeed.follow(partitionName, txId, heartbeatIntervalMillis, sessionMillis, fromTxId -> {
+            UIO.writeByte(out, (byte) 1, "more");
+            TakeResult takeResult = takeBatch(out, partition, prefix != null, prefix, fromTxId, limit, intLongBuffer);
+            out.flush(false);
+            return takeResult;
+        });
+        UIO.writeByte(out, (byte) 0, "more");
+    }
+
     @Override
     public long approximateCount(PartitionName partitionName) throws Exception {
         Partition partition = partitionProvider.getPartition(partitionName);
@@ -327,6 +594,18 @@ public class AmzaClientService implements AmzaRestClient {
 
         RingMember ringMember = ringReader.getRingMember();
         UIO.writeByteArray(out, ringMember.toBytes(), "ringMember", lengthBuffer);
+        takeBatch(out, partition, usePrefix, prefix, txId, limit, lengthBuffer);
+        UIO.writeByte(out, (byte) 1, "eos");
+    }
+
+    private TakeResult takeBatch(IWriteable out,
+        Partition partition,
+        boolean usePrefix,
+        byte[] prefix,
+        long txId,
+        int limit,
+        byte[] lengthBuffer) throws Exception {
+
         Highwaters streamHighwater = (highwater) -> {
             UIO.writeByte(out, (byte) 0, "eos");
             UIO.writeByte(out, RowType.highwater.toByte(), "type");
@@ -358,7 +637,7 @@ public class AmzaClientService implements AmzaRestClient {
         UIO.writeByteArray(out, takeResult.tookFrom.toBytes(), "ringMember", lengthBuffer);
         UIO.writeLong(out, takeResult.lastTxId, "lastTxId", lengthBuffer);
         writeHighwaters(out, takeResult.tookToEnd, lengthBuffer);
-        UIO.writeByte(out, (byte) 1, "eos");
+        return takeResult;
     }
 
     private void writeHighwaters(IWriteable out, WALHighwater highwater, byte[] lengthBuffer) throws IOException {
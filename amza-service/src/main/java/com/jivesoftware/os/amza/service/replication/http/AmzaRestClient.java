@@ -13,6 +13,8 @@ import com.jivesoftware.os.amza.service.replication.http.endpoints.ChunkedOutput
 import com.jivesoftware.os.amza.service.ring.RingTopology;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 /**
  * @author jonathan.colt
@@ -24,6 +26,29 @@ public interface AmzaRestClient {
     StateMessageCause commit(PartitionName partitionName, Consistency consistency, boolean checkLeader, long partitionAwaitOnlineTimeoutMillis, IReadable read)
         throws Exception;
 
+    /**
+     * Like {@link #commit} but the updates are written before this returns, and the future completes with null once the partition has
+     * achieved its quorum and durability.
+     */
+    CompletableFuture<StateMessageCause> commitAsync(PartitionName partitionName,
+        Consistency consistency,
+        boolean checkLeader,
+        long partitionAwaitOnlineTimeoutMillis,
+        IReadable read) throws Exception;
+
+    /**
+     * Reads the whole batch and starts committing every partition in it, so their quorums are awaited concurrently.
+     *
+     * @return one future per partition in request order, completing with null where the partition committed
+     */
+    List<Future<StateMessageCause>> commitBatch(Consistency consistency, boolean checkLeader, long partitionAwaitOnlineTimeoutMillis, IReadable read)
+        throws Exception;
+
+    /**
+     * Applies rows read from another replica with their timestamps and versions intact, awaiting no quorum.
+     */
+    StateMessageCause repair(PartitionName partitionName, long partitionAwaitOnlineTimeoutMillis, IReadable read) throws Exception;
+
     RingTopology configPartition(PartitionName partitionName, PartitionProperties partitionProperties, int ringSize) throws Exception;
 
     void configPartition(RingTopology ring, IWriteable writeable) throws Exception;
@@ -34,18 +59,38 @@ public interface AmzaRestClient {
 
     void getOffset(PartitionName partitionName, Consistency consistency, IReadable in, IWriteable out) throws Exception;
 
+    /**
+     * Like {@link #get} but streams only the key, timestamp, tombstone and version of each row, read from the index pointers, so a client can
+     * compare replicas without any replica reading or shipping values.
+     */
+    void getDigest(PartitionName partitionName, Consistency consistency, IReadable in, IWriteable out) throws Exception;
+
     RingLeader ring(PartitionName partitionName) throws Exception;
 
     RingLeader ringLeader(PartitionName partitionName, long waitForLeaderElection) throws Exception;
 
     void ring(RingLeader ringLeader, IWriteable writeable) throws IOException;
 
+    /**
+     * @param limit       the maximum number of rows to stream across all ranges, or -1 for no limit
+     * @param parallelism the number of sub-ranges each range may be split into and scanned concurrently, 1 to scan serially
+     * @param ordered     when false rows within a range are streamed in whatever order the sub-range scans produce them
+     */
     void scan(PartitionName partitionName,
         List<ScanRange> ranges,
         boolean rangeBoundaries,
         KeyValueFilter filter,
         IWriteable out,
-        boolean hydrateValues) throws Exception;
+        boolean hydrateValues,
+        int limit,
+        int parallelism,
+        boolean ordered) throws Exception;
+
+    /**
+     * @param fromIndexKey nullable (inclusive)
+     * @param toIndexKey   nullable (exclusive)
+     */
+    void scanIndex(PartitionName partitionName, String indexName, byte[] fromIndexKey, byte[] toIndexKey, IWriteable out) throws Exception;
 
     StateMessageCause status(PartitionName partitionName, Consistency consistency, boolean checkLeader, long partitionAwaitOnlineTimeoutMillis);
 
@@ -53,6 +98,22 @@ public interface AmzaRestClient {
 
     void takePrefixFromTransactionId(PartitionName partitionName, int limit, IReadable in, IWriteable out) throws Exception;
 
+    /**
+     * Each subscription parks a server thread for its whole session, so they are bounded.
+     *
+     * @return false when the maximum number of concurrent subscriptions are already open, otherwise the caller holds a subscription until it
+     * calls {@link #releaseSubscription()}
+     */
+    boolean acquireSubscription();
+
+    void releaseSubscription();
+
+    /**
+     * Streams take batches of up to limit rows from the requested txId for as long as the requested session lasts, flushing each batch and
+     * waiting for the next commit between batches. The heartbeat is held to at least 100 millis and the session to the server's maximum.
+     */
+    void subscribe(PartitionName partitionName, int limit, IReadable in, IWriteable out) throws Exception;
+
     long approximateCount(PartitionName partitionName) throws Exception;
 
     class RingLeader {
@@ -68,7 +129,8 @@ public interface AmzaRestClient {
     }
 
     enum State {
-        ok, properties_not_present, not_a_ring_member, failed_to_come_online, lacks_leader, not_the_leader, error
+        ok, properties_not_present, not_a_ring_member, failed_to_come_online, lacks_leader, not_the_leader, error,
+        failed_to_achieve_quorum, delta_over_capacity
     }
 
     class StateMessageCause {
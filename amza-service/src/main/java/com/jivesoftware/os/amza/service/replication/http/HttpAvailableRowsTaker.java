@@ -41,13 +41,18 @@ public class HttpAvailableRowsTaker implements AvailableRowsTaker {
     private final TenantAwareHttpClient<String> ringClient;
     private final StreamingTakesConsumer streamingTakesConsumer;
     private final ObjectMapper mapper;
+    private final int readBufferSizeInBytes;
 
     public HttpAvailableRowsTaker(TenantAwareHttpClient<String> ringClient,
         AmzaInterner amzaInterner,
-        ObjectMapper mapper) {
+        ObjectMapper mapper,
+        int readBufferSizeInBytes,
+        int rowBufferSizeInBytes,
+        int maxPooledRowBufferSizeInBytes) {
         this.ringClient = ringClient;
-        this.streamingTakesConsumer = new StreamingTakesConsumer(amzaInterner);
+        this.streamingTakesConsumer = new StreamingTakesConsumer(amzaInterner, rowBufferSizeInBytes, maxPooledRowBufferSizeInBytes);
         this.mapper = mapper;
+        this.readBufferSizeInBytes = readBufferSizeInBytes;
     }
 
     @Override
@@ -81,7 +86,7 @@ public class HttpAvailableRowsTaker implements AvailableRowsTaker {
                 return new ClientResponse<>(response, true);
             });
         try {
-            BufferedInputStream bis = new BufferedInputStream(httpStreamResponse.getInputStream(), 8192); // TODO config??
+            BufferedInputStream bis = new BufferedInputStream(httpStreamResponse.getInputStream(), readBufferSizeInBytes);
             DataInputStream dis = new DataInputStream(new SnappyInputStream(bis));
             streamingTakesConsumer.consume(dis, availableStream, pingStream);
         } finally {
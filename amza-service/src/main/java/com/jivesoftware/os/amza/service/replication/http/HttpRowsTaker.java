@@ -18,20 +18,18 @@ package com.jivesoftware.os.amza.service.replication.http;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Maps;
 import com.jivesoftware.os.amza.api.AmzaInterner;
 import com.jivesoftware.os.amza.api.filer.UIO;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.ring.RingHost;
 import com.jivesoftware.os.amza.api.ring.RingMember;
-import com.jivesoftware.os.amza.api.scan.RowStream;
 import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import com.jivesoftware.os.amza.service.take.AckBatcher;
 import com.jivesoftware.os.amza.service.take.RowsTaker;
 import com.jivesoftware.os.amza.service.take.StreamingTakesConsumer;
 import com.jivesoftware.os.amza.service.take.StreamingTakesConsumer.StreamingTakeConsumed;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
-import com.jivesoftware.os.mlogger.core.ValueType;
 import com.jivesoftware.os.routing.bird.http.client.ConnectionDescriptorSelectiveStrategy;
 import com.jivesoftware.os.routing.bird.http.client.HttpResponse;
 import com.jivesoftware.os.routing.bird.http.client.HttpStreamResponse;
@@ -43,15 +41,11 @@ import com.jivesoftware.os.routing.bird.shared.HttpClientException;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 import org.nustaq.serialization.FSTConfiguration;
 import org.xerial.snappy.SnappyInputStream;
 
@@ -61,51 +55,32 @@ public class HttpRowsTaker implements RowsTaker {
 
     private static final FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
 
-    private final String name;
     private final AmzaStats amzaStats;
     private final TenantAwareHttpClient<String> ringClient;
     private final ObjectMapper mapper;
     private final StreamingTakesConsumer streamingTakesConsumer;
-    private final ExecutorService flushExecutor;
+    private final int readBufferSizeInBytes;
 
-    private final AtomicLong flushVersion = new AtomicLong();
-    private final Map<RingHost, Ackable> hostQueue = Maps.newConcurrentMap();
+    private final AckBatcher ackBatcher;
 
     public HttpRowsTaker(String name,
         AmzaStats amzaStats,
         TenantAwareHttpClient<String> ringClient,
         ObjectMapper mapper,
         AmzaInterner amzaInterner,
+        int readBufferSizeInBytes,
+        int rowBufferSizeInBytes,
+        int maxPooledRowBufferSizeInBytes,
         ExecutorService queueExecutor,
         ExecutorService flushExecutor) {
-        this.name = name;
         this.amzaStats = amzaStats;
         this.ringClient = ringClient;
         this.mapper = mapper;
-        this.streamingTakesConsumer = new StreamingTakesConsumer(amzaInterner);
-        this.flushExecutor = flushExecutor;
+        this.streamingTakesConsumer = new StreamingTakesConsumer(amzaInterner, rowBufferSizeInBytes, maxPooledRowBufferSizeInBytes);
+        this.readBufferSizeInBytes = readBufferSizeInBytes;
 
-        //TODO lifecycle
-        queueExecutor.submit(() -> {
-            while (true) {
-                try {
-                    long currentVersion = flushVersion.get();
-                    for (Entry<RingHost, Ackable> entry : hostQueue.entrySet()) {
-                        Ackable ackable = entry.getValue();
-                        if (ackable.running.compareAndSet(false, true)) {
-                            flushQueues(entry.getKey(), ackable, currentVersion);
-                        }
-                    }
-                    synchronized (flushVersion) {
-                        if (currentVersion == flushVersion.get()) {
-                            flushVersion.wait();
-                        }
-                    }
-                } catch (Throwable t) {
-                    LOG.error("HttpRowsTaker failure", t);
-                }
-            }
-        });
+        this.ackBatcher = new AckBatcher(name, queueExecutor, flushExecutor, this::deliverAckBatch);
+        ackBatcher.start();
     }
 
     /**
@@ -128,7 +103,7 @@ public class HttpRowsTaker implements RowsTaker {
         long remoteTxId,
         long localLeadershipToken,
         long limit,
-        RowStream rowStream) {
+        RowViewStream rowStream) {
 
         HttpStreamResponse httpStreamResponse;
         try {
@@ -153,7 +128,7 @@ public class HttpRowsTaker implements RowsTaker {
             return new StreamingRowsResult(e, null, -1, -1, null);
         }
         try {
-            BufferedInputStream bis = new BufferedInputStream(httpStreamResponse.getInputStream(), 8192); // TODO config??
+            BufferedInputStream bis = new BufferedInputStream(httpStreamResponse.getInputStream(), readBufferSizeInBytes);
             DataInputStream dis = new DataInputStream(new SnappyInputStream(bis));
             StreamingTakeConsumed consumed = streamingTakesConsumer.consume(dis, rowStream);
             amzaStats.netStats.read.add(consumed.bytes);
@@ -166,11 +141,46 @@ public class HttpRowsTaker implements RowsTaker {
         }
     }
 
-    private static class Ackable {
-        public final AtomicBoolean running = new AtomicBoolean(false);
-        public final Semaphore semaphore = new Semaphore(Short.MAX_VALUE);
-        public final AtomicReference<Map<VersionedPartitionName, RowsTakenPayload>> rowsTakenPayloads = new AtomicReference<>(Maps.newConcurrentMap());
-        public final AtomicReference<PongPayload> pongPayloads = new AtomicReference<>();
+    @Override
+    public StreamingSnapshotResult snapshotStream(RingMember localRingMember,
+        RingMember remoteRingMember,
+        RingHost remoteRingHost,
+        VersionedPartitionName remoteVersionedPartitionName,
+        long takeSessionId,
+        long takeSharedKey,
+        long remoteTxId,
+        File snapshotFile) {
+
+        HttpStreamResponse httpStreamResponse;
+        try {
+            String endpoint = "/amza/rows/snapshot/" + localRingMember.getMember()
+                + "/" + remoteVersionedPartitionName.toBase64()
+                + "/" + takeSessionId
+                + "/" + remoteTxId;
+            String sharedKeyJson = mapper.writeValueAsString(takeSharedKey); // lame
+            httpStreamResponse = ringClient.call("",
+                new ConnectionDescriptorSelectiveStrategy(new HostPort[] { new HostPort(remoteRingHost.getHost(), remoteRingHost.getPort()) }),
+                "snapshotStream",
+                httpClient -> {
+                    HttpStreamResponse response = httpClient.streamingPost(endpoint, sharedKeyJson, null);
+                    if (response.getStatusCode() < 200 || response.getStatusCode() >= 300) {
+                        throw new NonSuccessStatusCodeException(response.getStatusCode(), response.getStatusReasonPhrase());
+                    }
+                    return new ClientResponse<>(response, true);
+                });
+        } catch (IOException | HttpClientException e) {
+            return new StreamingSnapshotResult(e, null, -1);
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(httpStreamResponse.getInputStream(), readBufferSizeInBytes));
+            long snapshotBytes = streamingTakesConsumer.consume(dis, snapshotFile);
+            amzaStats.netStats.read.add(1 + (snapshotBytes > 0 ? 8 + snapshotBytes : 0));
+            return new StreamingSnapshotResult(null, null, snapshotBytes);
+        } catch (Exception e) {
+            return new StreamingSnapshotResult(null, e, -1);
+        } finally {
+            httpStreamResponse.close();
+        }
     }
 
     public static class RowsTakenAndPong implements Serializable {
@@ -234,22 +244,7 @@ public class HttpRowsTaker implements RowsTaker {
         long txId,
         long localLeadershipToken) throws Exception {
 
-        Ackable ackable = hostQueue.computeIfAbsent(remoteRingHost, ringHost -> new Ackable());
-        ackable.semaphore.acquire();
-        try {
-            ackable.rowsTakenPayloads.get().put(versionedPartitionName, new RowsTakenPayload(localRingMember,
-                takeSessionId,
-                takeSharedKey,
-                txId,
-                localLeadershipToken));
-        } finally {
-            ackable.semaphore.release();
-        }
-        LOG.inc("rowsTaken");
-        LOG.set(ValueType.COUNT, "flush>version>enqueue>" + name, flushVersion.incrementAndGet());
-        synchronized (flushVersion) {
-            flushVersion.notify();
-        }
+        ackBatcher.rowsTaken(localRingMember, remoteRingHost, takeSessionId, takeSharedKey, versionedPartitionName, txId, localLeadershipToken);
         return true;
     }
 
@@ -260,120 +255,40 @@ public class HttpRowsTaker implements RowsTaker {
         long takeSessionId,
         long takeSharedKey) throws Exception {
 
-        Ackable ackable = hostQueue.computeIfAbsent(remoteRingHost, ringHost -> new Ackable());
-        ackable.semaphore.acquire();
-        try {
-            ackable.pongPayloads.set(new PongPayload(localRingMember, takeSessionId, takeSharedKey));
-        } finally {
-            ackable.semaphore.release();
-        }
-        LOG.inc("pong");
-        LOG.set(ValueType.COUNT, "flush>version>enqueue>" + name, flushVersion.incrementAndGet());
-        synchronized (flushVersion) {
-            flushVersion.notify();
-        }
+        ackBatcher.pong(localRingMember, remoteRingHost, takeSessionId, takeSharedKey);
         return true;
     }
 
-    private void flushQueues(RingHost ringHost, Ackable ackable, long currentVersion) throws Exception {
-        Map<VersionedPartitionName, RowsTakenPayload> rowsTaken;
-        PongPayload pong;
-        ackable.semaphore.acquire(Short.MAX_VALUE);
-        try {
-            rowsTaken = ackable.rowsTakenPayloads.getAndSet(Maps.newConcurrentMap());
-            pong = ackable.pongPayloads.getAndSet(null);
-        } finally {
-            ackable.semaphore.release(Short.MAX_VALUE);
-        }
-        if (rowsTaken != null && !rowsTaken.isEmpty()) {
-            LOG.inc("flush>rowsTaken>pow>" + UIO.chunkPower(rowsTaken.size(), 0));
-        }
-
-        if (rowsTaken != null && !rowsTaken.isEmpty() || pong != null) {
-            flushExecutor.submit(() -> {
-                try {
-                    String endpoint = "/amza/ackBatch";
-                    ringClient.call("",
-                        new ConnectionDescriptorSelectiveStrategy(new HostPort[] { new HostPort(ringHost.getHost(), ringHost.getPort()) }),
-                        "ackBatch",
-                        httpClient -> {
-
-                            HttpResponse response = httpClient.postStreamableRequest(endpoint, out -> {
-                                try {
-                                    DataOutputStream dos = new DataOutputStream(out);
-                                    if (rowsTaken.isEmpty()) {
-                                        dos.write((byte) 0); // hasMore for rowsTaken stream
-                                    } else {
-                                        for (Entry<VersionedPartitionName, RowsTakenPayload> e : rowsTaken.entrySet()) {
-                                            dos.write((byte) 1); // hasMore for rowsTaken stream
-                                            VersionedPartitionName versionedPartitionName = e.getKey();
-
-                                            byte[] bytes = versionedPartitionName.toBytes();
-                                            dos.writeShort(bytes.length);
-                                            dos.write(bytes);
-
-                                            RowsTakenPayload rowsTakenPayload = e.getValue();
-                                            bytes = rowsTakenPayload.ringMember.toBytes();
-                                            dos.writeShort(bytes.length);
-                                            dos.write(bytes);
-
-                                            dos.writeLong(rowsTakenPayload.takeSessionId);
-                                            dos.writeLong(rowsTakenPayload.takeSharedKey);
-                                            dos.writeLong(rowsTakenPayload.txId);
-                                            dos.writeLong(rowsTakenPayload.leadershipToken);
-                                        }
-                                        dos.write((byte) 0); // EOS for rowsTaken stream
-                                    }
-
-                                    if (pong == null) {
-                                        dos.write((byte) 0); // has pong
-                                    } else {
-                                        dos.write((byte) 1); // has pong
-                                        byte[] bytes = pong.ringMember.toBytes();
-                                        dos.writeShort(bytes.length);
-                                        dos.write(bytes);
-
-                                        dos.writeLong(pong.takeSessionId);
-                                        dos.writeLong(pong.takeSharedKey);
+    @Override
+    public void stop() {
+        ackBatcher.stop();
+    }
 
-                                    }
-                                } catch (Exception x) {
-                                    throw new RuntimeException("Failed while streaming ackBatch.", x);
-                                } finally {
-                                    out.flush();
-                                    out.close();
-                                }
+    private void deliverAckBatch(RingHost ringHost, Map<VersionedPartitionName, RowsTakenPayload> rowsTaken, PongPayload pong) throws Exception {
+        String endpoint = "/amza/ackBatch";
+        ringClient.call("",
+            new ConnectionDescriptorSelectiveStrategy(new HostPort[] { new HostPort(ringHost.getHost(), ringHost.getPort()) }),
+            "ackBatch",
+            httpClient -> {
 
-                            }, null);
+                HttpResponse response = httpClient.postStreamableRequest(endpoint, out -> {
+                    try {
+                        AckBatcher.writeAckBatch(new DataOutputStream(out), rowsTaken, pong);
+                    } catch (Exception x) {
+                        throw new RuntimeException("Failed while streaming ackBatch.", x);
+                    } finally {
+                        out.flush();
+                        out.close();
+                    }
 
-                            if (response.getStatusCode() < 200 || response.getStatusCode() >= 300) {
-                                throw new NonSuccessStatusCodeException(response.getStatusCode(), response.getStatusReasonPhrase());
-                            }
-                            Boolean result = (Boolean) conf.asObject(response.getResponseBody());
-                            return new ClientResponse<>(result, true);
-                        });
+                }, null);
 
-                } catch (Exception x) {
-                    LOG.warn("Failed to deliver acks for remote:{}", new Object[] { ringHost }, x);
-                } finally {
-                    ackable.running.set(false);
-                    LOG.inc("flush>version>consume>" + name);
-                    synchronized (flushVersion) {
-                        if (currentVersion != flushVersion.get()) {
-                            flushVersion.notify();
-                        }
-                    }
+                if (response.getStatusCode() < 200 || response.getStatusCode() >= 300) {
+                    throw new NonSuccessStatusCodeException(response.getStatusCode(), response.getStatusReasonPhrase());
                 }
+                Boolean result = (Boolean) conf.asObject(response.getResponseBody());
+                return new ClientResponse<>(result, true);
             });
-        } else {
-            ackable.running.set(false);
-            LOG.inc("flush>version>consume>" + name);
-            synchronized (flushVersion) {
-                if (currentVersion != flushVersion.get()) {
-                    flushVersion.notify();
-                }
-            }
-        }
     }
 
     //TODO include in flush?
@@ -21,6 +21,7 @@ import com.jivesoftware.os.amza.api.AmzaInterner;
 import com.jivesoftware.os.amza.api.DeltaOverCapacityException;
 import com.jivesoftware.os.amza.api.FailedToAchieveQuorumException;
 import com.jivesoftware.os.amza.api.PartitionClient.KeyValueFilter;
+import com.jivesoftware.os.amza.api.PartitionCommit;
 import com.jivesoftware.os.amza.api.RingPartitionProperties;
 import com.jivesoftware.os.amza.api.filer.FilerInputStream;
 import com.jivesoftware.os.amza.api.filer.FilerOutputStream;
@@ -30,11 +31,13 @@ import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
 import com.jivesoftware.os.amza.api.wal.KeyUtil;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
 import com.jivesoftware.os.amza.api.wal.WALKey;
 import com.jivesoftware.os.amza.service.NotARingMemberException;
 import com.jivesoftware.os.amza.service.Partition.ScanRange;
 import com.jivesoftware.os.amza.service.replication.http.AmzaRestClient;
 import com.jivesoftware.os.amza.service.replication.http.AmzaRestClient.RingLeader;
+import com.jivesoftware.os.amza.service.replication.http.AmzaRestClient.State;
 import com.jivesoftware.os.amza.service.replication.http.AmzaRestClient.StateMessageCause;
 import com.jivesoftware.os.amza.service.ring.RingTopology;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
@@ -43,18 +46,25 @@ import com.jivesoftware.os.routing.bird.shared.ResponseHelper;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 import javax.inject.Singleton;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -207,36 +217,120 @@ public class AmzaClientRestEndpoints {
     @Consumes(MediaType.APPLICATION_OCTET_STREAM)
     @Produces(MediaType.TEXT_PLAIN)
     @Path("/commit/{base64PartitionName}/{consistency}/{checkLeader}")
-    public Response commit(@PathParam("base64PartitionName") String base64PartitionName,
+    public void commit(@PathParam("base64PartitionName") String base64PartitionName,
         @PathParam("consistency") String consistencyName,
         @PathParam("checkLeader") boolean checkLeader,
-        InputStream inputStream) {
+        InputStream inputStream,
+        @Suspended AsyncResponse asyncResponse) {
 
         FilerInputStream in = null;
         PartitionName partitionName = null;
         try {
             partitionName = amzaInterner.internPartitionNameBase64(base64PartitionName);
             in = new FilerInputStream(inputStream);
-            StateMessageCause stateMessageCause = client.commit(partitionName,
+            // the updates are drained before commitAsync returns, the request is only suspended while the quorum acks
+            PartitionName committedPartitionName = partitionName;
+            client.commitAsync(partitionName,
                 Consistency.valueOf(consistencyName),
-                checkLeader, 10_000, in);
+                checkLeader, 10_000, in)
+                .whenComplete((stateMessageCause, x) -> asyncResponse.resume(
+                    commitResponse(base64PartitionName, committedPartitionName, consistencyName, stateMessageCause, x)));
+        } catch (Exception x) {
+            asyncResponse.resume(commitResponse(base64PartitionName, partitionName, consistencyName, null, x));
+        } finally {
+            closeStreams(partitionName, "commit", in, null);
+        }
+    }
+
+    private Response commitResponse(String base64PartitionName,
+        PartitionName partitionName,
+        String consistencyName,
+        StateMessageCause stateMessageCause,
+        Throwable failure) {
+
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure == null) {
             if (stateMessageCause != null) {
                 return stateMessageCauseToResponse(stateMessageCause);
             }
             return Response.ok("success").build();
+        }
 
-        } catch (DeltaOverCapacityException x) {
+        Exception x = failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+        if (x instanceof DeltaOverCapacityException) {
             LOG.warn("Delta over capacity for {} {}", base64PartitionName, x);
             return ResponseHelper.INSTANCE.errorResponse(Status.SERVICE_UNAVAILABLE, "Delta over capacity.");
-        } catch (FailedToAchieveQuorumException x) {
+        } else if (x instanceof FailedToAchieveQuorumException) {
             LOG.warn("FailedToAchieveQuorumException for {} {}", base64PartitionName, x);
             return ResponseHelper.INSTANCE.errorResponse(Status.ACCEPTED, "Failed to achieve quorum exception.");
-        } catch (Exception x) {
+        } else {
             Object[] vals = new Object[] { partitionName, consistencyName };
             LOG.warn("Failed to commit to {} at {}.", vals, x);
             return ResponseHelper.INSTANCE.errorResponse("Failed to commit: " + Arrays.toString(vals), x);
+        }
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/commitBatch/{consistency}/{checkLeader}")
+    public Response commitBatch(@PathParam("consistency") String consistencyName,
+        @PathParam("checkLeader") boolean checkLeader,
+        InputStream inputStream) {
+
+        FilerInputStream in = null;
+        try {
+            in = new FilerInputStream(inputStream);
+            List<Future<StateMessageCause>> futures = client.commitBatch(Consistency.valueOf(consistencyName), checkLeader, 10_000, in);
+
+            // each status is flushed in request order as soon as it is known, so a caller that loses the stream only retries what is unreported
+            StreamingOutput stream = os -> {
+                os.flush();
+                for (Future<StateMessageCause> future : futures) {
+                    PartitionCommit.Status status;
+                    try {
+                        status = stateMessageCauseToCommitStatus(future.get());
+                    } catch (Exception x) {
+                        LOG.warn("Failed to commit a partition of a batch at {}.", new Object[] { consistencyName }, x);
+                        status = PartitionCommit.Status.not_committed;
+                    }
+                    os.write(status.toByte());
+                    os.flush();
+                }
+            };
+            return Response.ok(stream).build();
+        } catch (Exception x) {
+            LOG.warn("Failed to commit batch at {}.", new Object[] { consistencyName }, x);
+            return ResponseHelper.INSTANCE.errorResponse("Failed to commit batch: " + consistencyName, x);
         } finally {
-            closeStreams(partitionName, "commit", in, null);
+            closeStreams(null, "commitBatch", in, null);
+        }
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.TEXT_PLAIN)
+    @Path("/repair/{base64PartitionName}")
+    public Response repair(@PathParam("base64PartitionName") String base64PartitionName,
+        InputStream inputStream) {
+
+        FilerInputStream in = null;
+        PartitionName partitionName = null;
+        try {
+            partitionName = amzaInterner.internPartitionNameBase64(base64PartitionName);
+            in = new FilerInputStream(inputStream);
+            StateMessageCause stateMessageCause = client.repair(partitionName, 10_000, in);
+            if (stateMessageCause != null) {
+                return stateMessageCauseToResponse(stateMessageCause);
+            }
+            return Response.ok("success").build();
+        } catch (Exception x) {
+            LOG.warn("Failed to repair {}.", new Object[] { partitionName }, x);
+            return ResponseHelper.INSTANCE.errorResponse("Failed to repair: " + base64PartitionName, x);
+        } finally {
+            closeStreams(partitionName, "repair", in, null);
         }
     }
 
@@ -277,6 +371,43 @@ public class AmzaClientRestEndpoints {
         }
     }
 
+    @POST
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/getDigest/{base64PartitionName}/{consistency}/{checkLeader}")
+    public Object getDigest(@PathParam("base64PartitionName") String base64PartitionName,
+        @PathParam("consistency") String consistencyName,
+        @PathParam("checkLeader") boolean checkLeader,
+        InputStream inputStream) {
+
+        try {
+            PartitionName partitionName = amzaInterner.internPartitionNameBase64(base64PartitionName);
+            StateMessageCause stateMessageCause = client.status(partitionName,
+                Consistency.valueOf(consistencyName),
+                checkLeader,
+                10_000);
+            if (stateMessageCause != null) {
+                return stateMessageCauseToResponse(stateMessageCause);
+            }
+            StreamingOutput stream = os -> {
+                os.flush();
+                FilerInputStream fin = new FilerInputStream(inputStream);
+                FilerOutputStream fos = new FilerOutputStream(new BufferedOutputStream(os, 8192));
+                try {
+                    client.getDigest(partitionName, Consistency.none, fin, fos);
+                } catch (Exception x) {
+                    LOG.warn("Failed during get digest", x);
+                } finally {
+                    closeStreams(partitionName, "getDigest", fin, fos);
+                }
+            };
+            return Response.ok(stream).build();
+        } catch (Exception e) {
+            LOG.error("Failed to get digest", e);
+            return Response.serverError().build();
+        }
+    }
+
     @POST
     @Consumes(MediaType.APPLICATION_OCTET_STREAM)
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
@@ -322,8 +453,10 @@ public class AmzaClientRestEndpoints {
         @PathParam("consistency") String consistencyName,
         @PathParam("checkLeader") boolean checkLeader,
         @PathParam("hydrateValues") boolean hydrateValues,
+        @QueryParam("parallelism") @DefaultValue("1") int parallelism,
+        @QueryParam("ordered") @DefaultValue("true") boolean ordered,
         InputStream inputStream) {
-        return multiScanInternal(base64PartitionName, consistencyName, checkLeader, hydrateValues, false, inputStream);
+        return multiScanInternal(base64PartitionName, consistencyName, checkLeader, hydrateValues, false, -1, parallelism, ordered, inputStream);
     }
 
     @POST
@@ -334,8 +467,23 @@ public class AmzaClientRestEndpoints {
         @PathParam("consistency") String consistencyName,
         @PathParam("checkLeader") boolean checkLeader,
         @PathParam("hydrateValues") boolean hydrateValues,
+        @QueryParam("parallelism") @DefaultValue("1") int parallelism,
+        @QueryParam("ordered") @DefaultValue("true") boolean ordered,
+        InputStream inputStream) {
+        return multiScanInternal(base64PartitionName, consistencyName, checkLeader, hydrateValues, true, -1, parallelism, ordered, inputStream);
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/multiScanPage/{base64PartitionName}/{consistency}/{checkLeader}/{hydrateValues}/{limit}")
+    public Object multiScanPage(@PathParam("base64PartitionName") String base64PartitionName,
+        @PathParam("consistency") String consistencyName,
+        @PathParam("checkLeader") boolean checkLeader,
+        @PathParam("hydrateValues") boolean hydrateValues,
+        @PathParam("limit") int limit,
         InputStream inputStream) {
-        return multiScanInternal(base64PartitionName, consistencyName, checkLeader, hydrateValues, true, inputStream);
+        return multiScanInternal(base64PartitionName, consistencyName, checkLeader, hydrateValues, true, limit, 1, true, inputStream);
     }
 
     private Object multiScanInternal(String base64PartitionName,
@@ -343,6 +491,9 @@ public class AmzaClientRestEndpoints {
         boolean checkLeader,
         boolean hydrateValues,
         boolean rangeBoundaries,
+        int limit,
+        int parallelism,
+        boolean ordered,
         InputStream inputStream) {
 
         PartitionName partitionName = null;
@@ -391,7 +542,7 @@ public class AmzaClientRestEndpoints {
                 os.flush();
                 FilerOutputStream fos = new FilerOutputStream(new BufferedOutputStream(os, 8192));
                 try {
-                    client.scan(effectivelyFinalPartitionName, ranges, rangeBoundaries, null, fos, hydrateValues);
+                    client.scan(effectivelyFinalPartitionName, ranges, rangeBoundaries, null, fos, hydrateValues, limit, parallelism, ordered);
                 } catch (Exception x) {
                     LOG.warn("Failed during stream scan", x);
                 } finally {
@@ -413,8 +564,10 @@ public class AmzaClientRestEndpoints {
         @PathParam("consistency") String consistencyName,
         @PathParam("checkLeader") boolean checkLeader,
         @PathParam("hydrateValues") boolean hydrateValues,
+        @QueryParam("parallelism") @DefaultValue("1") int parallelism,
+        @QueryParam("ordered") @DefaultValue("true") boolean ordered,
         InputStream inputStream) {
-        return scanCompressedInternal(base64PartitionName, consistencyName, checkLeader, hydrateValues, false, inputStream);
+        return scanCompressedInternal(base64PartitionName, consistencyName, checkLeader, hydrateValues, false, -1, parallelism, ordered, inputStream);
     }
 
     @POST
@@ -425,8 +578,23 @@ public class AmzaClientRestEndpoints {
         @PathParam("consistency") String consistencyName,
         @PathParam("checkLeader") boolean checkLeader,
         @PathParam("hydrateValues") boolean hydrateValues,
+        @QueryParam("parallelism") @DefaultValue("1") int parallelism,
+        @QueryParam("ordered") @DefaultValue("true") boolean ordered,
         InputStream inputStream) {
-        return scanCompressedInternal(base64PartitionName, consistencyName, checkLeader, hydrateValues, true, inputStream);
+        return scanCompressedInternal(base64PartitionName, consistencyName, checkLeader, hydrateValues, true, -1, parallelism, ordered, inputStream);
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/multiScanPageCompressed/{base64PartitionName}/{consistency}/{checkLeader}/{hydrateValues}/{limit}")
+    public Object multiScanPageCompressed(@PathParam("base64PartitionName") String base64PartitionName,
+        @PathParam("consistency") String consistencyName,
+        @PathParam("checkLeader") boolean checkLeader,
+        @PathParam("hydrateValues") boolean hydrateValues,
+        @PathParam("limit") int limit,
+        InputStream inputStream) {
+        return scanCompressedInternal(base64PartitionName, consistencyName, checkLeader, hydrateValues, true, limit, 1, true, inputStream);
     }
 
     private Object scanCompressedInternal(String base64PartitionName,
@@ -434,6 +602,9 @@ public class AmzaClientRestEndpoints {
         boolean checkLeader,
         boolean hydrateValues,
         boolean rangeBoundaries,
+        int limit,
+        int parallelism,
+        boolean ordered,
         InputStream inputStream) {
 
         PartitionName partitionName = null;
@@ -483,7 +654,7 @@ public class AmzaClientRestEndpoints {
                 SnappyOutputStream sos = new SnappyOutputStream(os);
                 FilerOutputStream fos = new FilerOutputStream(new BufferedOutputStream(sos, 8192));
                 try {
-                    client.scan(effectivelyFinalPartitionName, ranges, rangeBoundaries, null, fos, hydrateValues);
+                    client.scan(effectivelyFinalPartitionName, ranges, rangeBoundaries, null, fos, hydrateValues, limit, parallelism, ordered);
                 } catch (Exception x) {
                     LOG.warn("Failed during compressed stream scan", x);
                 } finally {
@@ -597,7 +768,7 @@ public class AmzaClientRestEndpoints {
                 os.flush();
                 FilerOutputStream fos = new FilerOutputStream(new BufferedOutputStream(os, 8192));
                 try {
-                    client.scan(effectivelyFinalPartitionName, ranges, rangeBoundaries, filter, fos, hydrateValues);
+                    client.scan(effectivelyFinalPartitionName, ranges, rangeBoundaries, filter, fos, hydrateValues, -1, 1, true);
                 } catch (Exception x) {
                     LOG.warn("Failed during filtered stream scan", x);
                 } finally {
@@ -712,7 +883,7 @@ public class AmzaClientRestEndpoints {
                 SnappyOutputStream sos = new SnappyOutputStream(os);
                 FilerOutputStream fos = new FilerOutputStream(new BufferedOutputStream(sos, 8192));
                 try {
-                    client.scan(effectivelyFinalPartitionName, ranges, rangeBoundaries, filter, fos, hydrateValues);
+                    client.scan(effectivelyFinalPartitionName, ranges, rangeBoundaries, filter, fos, hydrateValues, -1, 1, true);
                 } catch (Exception x) {
                     LOG.warn("Failed during filtered compressed stream scan", x);
                 } finally {
@@ -726,6 +897,91 @@ public class AmzaClientRestEndpoints {
         }
     }
 
+    @POST
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/scanIndex/{base64PartitionName}/{consistency}/{checkLeader}")
+    public Object scanIndex(@PathParam("base64PartitionName") String base64PartitionName,
+        @PathParam("consistency") String consistencyName,
+        @PathParam("checkLeader") boolean checkLeader,
+        InputStream inputStream) {
+        return scanIndexInternal(base64PartitionName, consistencyName, checkLeader, false, inputStream);
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/scanIndexCompressed/{base64PartitionName}/{consistency}/{checkLeader}")
+    public Object scanIndexCompressed(@PathParam("base64PartitionName") String base64PartitionName,
+        @PathParam("consistency") String consistencyName,
+        @PathParam("checkLeader") boolean checkLeader,
+        InputStream inputStream) {
+        return scanIndexInternal(base64PartitionName, consistencyName, checkLeader, true, inputStream);
+    }
+
+    private Object scanIndexInternal(String base64PartitionName,
+        String consistencyName,
+        boolean checkLeader,
+        boolean compressed,
+        InputStream inputStream) {
+
+        PartitionName partitionName = null;
+        try {
+            partitionName = amzaInterner.internPartitionNameBase64(base64PartitionName);
+        } catch (Exception x) {
+            LOG.error("Failure while getting partitionName {}", new Object[] { partitionName }, x);
+            return Response.serverError().build();
+        }
+
+        StateMessageCause stateMessageCause = client.status(partitionName,
+            Consistency.valueOf(consistencyName),
+            checkLeader,
+            10_000);
+        if (stateMessageCause != null) {
+            return stateMessageCauseToResponse(stateMessageCause);
+        }
+
+        String indexName;
+        byte[] fromIndexKey;
+        byte[] toIndexKey;
+        FilerInputStream in = new FilerInputStream(inputStream);
+        try {
+            byte[] intLongBuffer = new byte[8];
+            indexName = new String(UIO.readByteArray(in, "indexName", intLongBuffer), StandardCharsets.UTF_8);
+            fromIndexKey = UIO.readByteArray(in, "fromIndexKey", intLongBuffer);
+            toIndexKey = UIO.readByteArray(in, "toIndexKey", intLongBuffer);
+            RingPartitionProperties properties = client.getProperties(partitionName);
+            if (properties == null || !SecondaryIndexes.of(properties.partitionProperties.secondaryIndexes).contains(indexName)) {
+                return Response.status(Status.BAD_REQUEST).entity("Unknown secondary index " + indexName).build();
+            }
+        } catch (Exception e) {
+            LOG.error("Failed to get range for index scan", e);
+            return Response.serverError().build();
+        } finally {
+            closeStreams(partitionName, "scanIndex", in, null);
+        }
+
+        try {
+            PartitionName effectivelyFinalPartitionName = partitionName;
+            StreamingOutput stream = os -> {
+                os.flush();
+                OutputStream out = compressed ? new SnappyOutputStream(os) : os;
+                FilerOutputStream fos = new FilerOutputStream(new BufferedOutputStream(out, 8192));
+                try {
+                    client.scanIndex(effectivelyFinalPartitionName, indexName, fromIndexKey, toIndexKey, fos);
+                } catch (Exception x) {
+                    LOG.warn("Failed during index scan", x);
+                } finally {
+                    fos.close();
+                }
+            };
+            return Response.ok(stream).build();
+        } catch (Exception e) {
+            LOG.error("Failed to index scan", e);
+            return Response.serverError().build();
+        }
+    }
+
     @POST
     @Consumes(MediaType.APPLICATION_OCTET_STREAM)
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
@@ -800,6 +1056,51 @@ public class AmzaClientRestEndpoints {
         }
     }
 
+    @POST
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/subscribe/{base64PartitionName}/{limit}")
+    public Object subscribe(@PathParam("base64PartitionName") String base64PartitionName,
+        @PathParam("limit") int limit,
+        InputStream inputStream) {
+
+        try {
+            PartitionName partitionName = amzaInterner.internPartitionNameBase64(base64PartitionName);
+            StateMessageCause stateMessageCause = client.status(partitionName,
+                Consistency.none,
+                false,
+                10_000);
+            if (stateMessageCause != null) {
+                return stateMessageCauseToResponse(stateMessageCause);
+            }
+            if (!client.acquireSubscription()) {
+                LOG.inc("subscribe>rejected");
+                return ResponseHelper.INSTANCE.errorResponse(Status.SERVICE_UNAVAILABLE, "Too many concurrent subscriptions.");
+            }
+            StreamingOutput stream = os -> {
+                try {
+                    os.flush();
+                    FilerInputStream fin = new FilerInputStream(inputStream);
+                    FilerOutputStream fos = new FilerOutputStream(new BufferedOutputStream(os, 8192));
+                    try {
+                        client.subscribe(partitionName, limit, fin, fos);
+                    } catch (Exception x) {
+                        LOG.warn("Failed during subscribe", x);
+                    } finally {
+                        closeStreams(partitionName, "subscribe", fin, fos);
+                        fos.close();
+                    }
+                } finally {
+                    client.releaseSubscription();
+                }
+            };
+            return Response.ok(stream).build();
+        } catch (Exception e) {
+            LOG.error("Failed to subscribe", e);
+            return Response.serverError().build();
+        }
+    }
+
     private void closeStreams(PartitionName partitionName, String context, ICloseable in, ICloseable out) {
         if (in != null) {
             try {
@@ -817,6 +1118,16 @@ public class AmzaClientRestEndpoints {
         }
     }
 
+    private PartitionCommit.Status stateMessageCauseToCommitStatus(StateMessageCause stateMessageCause) {
+        if (stateMessageCause == null) {
+            return PartitionCommit.Status.committed;
+        }
+        LOG.warn("{}", stateMessageCause);
+        return stateMessageCause.state == State.failed_to_achieve_quorum
+            ? PartitionCommit.Status.failed_to_achieve_quorum
+            : PartitionCommit.Status.not_committed;
+    }
+
     private Response stateMessageCauseToResponse(StateMessageCause stateMessageCause) {
         if (stateMessageCause != null && stateMessageCause.state != null) {
             LOG.warn("{}", stateMessageCause);
@@ -833,6 +1144,10 @@ public class AmzaClientRestEndpoints {
                     return ResponseHelper.INSTANCE.errorResponse(Status.CONFLICT, stateMessageCause.message, stateMessageCause.cause);
                 case error:
                     return ResponseHelper.INSTANCE.errorResponse(Status.INTERNAL_SERVER_ERROR, stateMessageCause.message, stateMessageCause.cause);
+                case failed_to_achieve_quorum:
+                    return ResponseHelper.INSTANCE.errorResponse(Status.ACCEPTED, stateMessageCause.message, stateMessageCause.cause);
+                case delta_over_capacity:
+                    return ResponseHelper.INSTANCE.errorResponse(Status.SERVICE_UNAVAILABLE, stateMessageCause.message, stateMessageCause.cause);
                 default:
                     break;
             }
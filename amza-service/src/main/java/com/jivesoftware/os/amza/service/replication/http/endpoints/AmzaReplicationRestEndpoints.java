@@ -23,6 +23,7 @@ import com.jivesoftware.os.amza.api.ring.RingHost;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.ring.TimestampedRingHost;
 import com.jivesoftware.os.amza.service.AmzaInstance;
+import com.jivesoftware.os.amza.service.AmzaInstance.SnapshotTransfer;
 import com.jivesoftware.os.amza.service.stats.AmzaStats;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
@@ -125,6 +126,47 @@ public class AmzaReplicationRestEndpoints {
         }
     }
 
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/rows/snapshot/{ringMemberString}/{versionedPartitionName}/{takeSessionId}/{txId}")
+    public Response snapshotStream(@PathParam("ringMemberString") String ringMemberString,
+        @PathParam("versionedPartitionName") String versionedPartitionName,
+        @PathParam("takeSessionId") long takeSessionId,
+        @PathParam("txId") long txId,
+        byte[] takeSharedKey) {
+
+        try {
+            StreamingOutput stream = (OutputStream os) -> {
+                os.flush();
+                // raw WAL bytes, skipping the snappy pass a row take pays for
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os, 65_536));
+                try {
+                    amzaInstance.snapshotStream(dos,
+                        SnapshotTransfer.toStream(dos),
+                        new RingMember(ringMemberString),
+                        VersionedPartitionName.fromBase64(versionedPartitionName, amzaInterner),
+                        takeSessionId,
+                        objectMapper.readValue(takeSharedKey, Long.class),
+                        txId);
+                } catch (IOException x) {
+                    LOG.error("Failed to stream snapshot.", x);
+                    throw x;
+                } catch (Exception x) {
+                    LOG.error("Failed to stream snapshot.", x);
+                    throw new IOException("Failed to stream snapshot.", x);
+                } finally {
+                    dos.flush();
+                }
+            };
+            return Response.ok(stream).build();
+        } catch (Exception x) {
+            Object[] vals = new Object[] { ringMemberString, versionedPartitionName, txId };
+            LOG.warn("Failed to snapshotStream {} {} {}. ", vals, x);
+            return ResponseHelper.INSTANCE.errorResponse("Failed to snapshotStream " + Arrays.toString(vals), x);
+        }
+    }
+
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.amza.service.replication.tcp;
+
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.ring.RingHost;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.ring.TimestampedRingHost;
+import com.jivesoftware.os.amza.service.replication.tcp.TcpReplicationClient.TcpStream;
+import com.jivesoftware.os.amza.service.take.AvailableRowsTaker;
+import com.jivesoftware.os.amza.service.take.StreamingTakesConsumer;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import org.xerial.snappy.SnappyInputStream;
+
+public class TcpAvailableRowsTaker implements AvailableRowsTaker {
+
+    private final TcpReplicationClient client;
+    private final StreamingTakesConsumer streamingTakesConsumer;
+
+    public TcpAvailableRowsTaker(TcpReplicationClient client,
+        AmzaInterner amzaInterner,
+        int rowBufferSizeInBytes,
+        int maxPooledRowBufferSizeInBytes) {
+        this.client = client;
+        this.streamingTakesConsumer = new StreamingTakesConsumer(amzaInterner, rowBufferSizeInBytes, maxPooledRowBufferSizeInBytes);
+    }
+
+    @Override
+    public void availableRowsStream(RingMember localRingMember,
+        TimestampedRingHost localTimestampedRingHost,
+        RingMember remoteRingMember,
+        RingHost remoteRingHost,
+        boolean system,
+        long takeSessionId,
+        long takeSharedKey,
+        long timeoutMillis,
+        AvailableStream availableStream,
+        PingStream pingStream) throws Exception {
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(request);
+        dos.writeBoolean(system);
+        TcpFrameChannel.writeBytes(dos, localRingMember.toBytes());
+        dos.writeUTF(localTimestampedRingHost.ringHost.toCanonicalString());
+        dos.writeLong(localTimestampedRingHost.timestampId);
+        dos.writeLong(takeSessionId);
+        dos.writeLong(takeSharedKey);
+        dos.writeLong(timeoutMillis);
+
+        TcpStream stream = client.open(remoteRingHost, TcpFrameChannel.AVAILABLE_ROWS_STREAM, request.toByteArray());
+        try {
+            DataInputStream dis = new DataInputStream(new SnappyInputStream(stream));
+            streamingTakesConsumer.consume(dis, availableStream, pingStream);
+        } finally {
+            stream.close();
+        }
+    }
+
+}
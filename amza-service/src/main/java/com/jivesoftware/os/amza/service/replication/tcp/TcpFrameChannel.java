@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.amza.service.replication.tcp;
+
+import com.jivesoftware.os.amza.api.wal.WALSnapshot;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A blocking socket channel carrying length prefixed frames: [int length][byte type][long streamId][payload], where length covers the
+ * type, stream id and payload. Frames from many concurrent streams are interleaved on one channel and told apart by their stream id.
+ * Writes may come from any thread; reads must come from the single thread that owns the channel.
+ */
+class TcpFrameChannel implements Closeable {
+
+    // requests, taker -> partition owner
+    static final byte ROWS_STREAM = 1;
+    static final byte AVAILABLE_ROWS_STREAM = 2;
+    static final byte ACK_BATCH = 3;
+    static final byte INVALIDATE = 4;
+    static final byte CANCEL = 5;
+    static final byte SNAPSHOT_STREAM = 6;
+    static final byte CREDIT = 7;
+
+    // responses, partition owner -> taker
+    static final byte DATA = 16;
+    static final byte END = 17;
+    static final byte ERROR = 18;
+
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final SocketChannel channel;
+    private final int maxFrameSizeInBytes;
+    private final ByteBuffer readHeader = ByteBuffer.allocate(HEADER_SIZE);
+    private final ByteBuffer writeHeader = ByteBuffer.allocate(HEADER_SIZE);
+    private final Object writeLock = new Object();
+
+    TcpFrameChannel(SocketChannel channel, int maxFrameSizeInBytes) throws IOException {
+        this.channel = channel;
+        this.maxFrameSizeInBytes = maxFrameSizeInBytes;
+        channel.configureBlocking(true);
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setKeepAlive(true);
+    }
+
+    void write(byte type, long streamId) throws IOException {
+        write(type, streamId, EMPTY, 0, 0);
+    }
+
+    void write(byte type, long streamId, byte[] payload, int offset, int length) throws IOException {
+        if (length > maxFrameSizeInBytes) {
+            throw new IOException("Frame payload of " + length + " bytes exceeds max of " + maxFrameSizeInBytes);
+        }
+        synchronized (writeLock) {
+            writeHeader.clear();
+            writeHeader.putInt(1 + 8 + length);
+            writeHeader.put(type);
+            writeHeader.putLong(streamId);
+            writeHeader.flip();
+            ByteBuffer body = ByteBuffer.wrap(payload, offset, length);
+            ByteBuffer[] buffers = { writeHeader, body };
+            while (writeHeader.hasRemaining() || body.hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+    }
+
+    /**
+     * Writes a frame whose payload is copied from the snapshot to the socket with {@link WALSnapshot#transferTo}, without passing through
+     * the heap.
+     */
+    void write(byte type, long streamId, WALSnapshot snapshot, long position, int length) throws IOException {
+        if (length > maxFrameSizeInBytes) {
+            throw new IOException("Frame payload of " + length + " bytes exceeds max of " + maxFrameSizeInBytes);
+        }
+        synchronized (writeLock) {
+            writeHeader.clear();
+            writeHeader.putInt(1 + 8 + length);
+            writeHeader.put(type);
+            writeHeader.putLong(streamId);
+            writeHeader.flip();
+            while (writeHeader.hasRemaining()) {
+                channel.write(writeHeader);
+            }
+            snapshot.transferTo(position, length, channel);
+        }
+    }
+
+    /**
+     * @return the next frame, or null if the remote side closed the channel between frames
+     */
+    Frame read() throws IOException {
+        readHeader.clear();
+        if (!readFully(readHeader)) {
+            return null;
+        }
+        readHeader.flip();
+        int length = readHeader.getInt();
+        byte type = readHeader.get();
+        long streamId = readHeader.getLong();
+
+        int payloadLength = length - 1 - 8;
+        if (payloadLength < 0 || payloadLength > maxFrameSizeInBytes) {
+            throw new IOException("Invalid frame length:" + length);
+        }
+        byte[] payload = EMPTY;
+        if (payloadLength > 0) {
+            payload = new byte[payloadLength];
+            if (!readFully(ByteBuffer.wrap(payload))) {
+                throw new EOFException("Channel closed before frame payload");
+            }
+        }
+        return new Frame(type, streamId, payload);
+    }
+
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Channel closed mid frame");
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+        dos.writeShort(bytes.length);
+        dos.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readShort()];
+        dis.readFully(bytes);
+        return bytes;
+    }
+
+    static class Frame {
+
+        final byte type;
+        final long streamId;
+        final byte[] payload;
+
+        Frame(byte type, long streamId, byte[] payload) {
+            this.type = type;
+            this.streamId = streamId;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.amza.service.replication.tcp;
+
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.amza.api.ring.RingHost;
+import com.jivesoftware.os.amza.service.replication.tcp.TcpFrameChannel.Frame;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps a small fixed number of long lived connections to each peer's {@link TcpReplicationServer} and multiplexes every take, available
+ * rows stream and ack batch for that peer over them. Peers are expected to listen on their ring host port plus the port offset.
+ * <p>
+ * Each stream is flow controlled with credits: the peer may only send as many DATA frames as the stream has been granted, and the stream
+ * grants more as its reader consumes them. A stream's queue therefore never holds more than its window, so the connection's reader thread
+ * never waits on a slow stream, and a peer that overruns a window fails only that stream.
+ */
+public class TcpReplicationClient {
+
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final Frame FAILED = new Frame((byte) 0, -1, EMPTY);
+
+    private final int portOffset;
+    private final int connectionsPerPeer;
+    private final int connectTimeoutMillis;
+    private final long readTimeoutMillis;
+    private final int streamQueueCapacity;
+    private final int maxFrameSizeInBytes;
+
+    private final AtomicLong nextStreamId = new AtomicLong();
+    private final Map<RingHost, Peer> peers = Maps.newConcurrentMap();
+
+    public TcpReplicationClient(int portOffset,
+        int connectionsPerPeer,
+        int connectTimeoutMillis,
+        long readTimeoutMillis,
+        int streamQueueCapacity,
+        int maxFrameSizeInBytes) {
+        this.portOffset = portOffset;
+        this.connectionsPerPeer = connectionsPerPeer;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.streamQueueCapacity = streamQueueCapacity;
+        this.maxFrameSizeInBytes = maxFrameSizeInBytes;
+    }
+
+    /**
+     * Sends the request frame for a new stream. The returned stream yields the payloads of the DATA frames the peer answers with, until
+     * the peer ends the stream. Closing the stream before it has ended cancels it on the peer.
+     *
+     * @throws IOException if the peer could not be reached
+     */
+    TcpStream open(RingHost ringHost, byte type, byte[] request) throws IOException {
+        Connection connection = peers.computeIfAbsent(ringHost, Peer::new).connection();
+        long streamId = nextStreamId.incrementAndGet();
+        TcpStream stream = new TcpStream(connection, streamId);
+        connection.streams.put(streamId, stream);
+        try {
+            connection.channel.write(type, streamId, request, 0, request.length);
+            connection.channel.write(TcpFrameChannel.CREDIT, streamId, intBytes(streamQueueCapacity), 0, 4);
+        } catch (IOException x) {
+            connection.streams.remove(streamId);
+            connection.fail(x);
+            throw x;
+        }
+        return stream;
+    }
+
+    /**
+     * Sends a request frame that the peer does not answer.
+     *
+     * @throws IOException if the peer could not be reached
+     */
+    void send(RingHost ringHost, byte type, byte[] request) throws IOException {
+        Connection connection = peers.computeIfAbsent(ringHost, Peer::new).connection();
+        try {
+            connection.channel.write(type, nextStreamId.incrementAndGet(), request, 0, request.length);
+        } catch (IOException x) {
+            connection.fail(x);
+            throw x;
+        }
+    }
+
+    private static byte[] intBytes(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    public void close() {
+        for (Peer peer : peers.values()) {
+            peer.close();
+        }
+        peers.clear();
+    }
+
+    private class Peer {
+
+        private final RingHost ringHost;
+        private final AtomicReferenceArray<Connection> connections = new AtomicReferenceArray<>(connectionsPerPeer);
+        private final AtomicInteger next = new AtomicInteger();
+
+        Peer(RingHost ringHost) {
+            this.ringHost = ringHost;
+        }
+
+        Connection connection() throws IOException {
+            int index = Math.abs(next.getAndIncrement() % connectionsPerPeer);
+            Connection connection = connections.get(index);
+            if (connection == null || connection.failed) {
+                synchronized (this) {
+                    connection = connections.get(index);
+                    if (connection == null || connection.failed) {
+                        connection = connect();
+                        connections.set(index, connection);
+                    }
+                }
+            }
+            return connection;
+        }
+
+        private Connection connect() throws IOException {
+            SocketChannel socketChannel = SocketChannel.open();
+            try {
+                socketChannel.socket().connect(new InetSocketAddress(ringHost.getHost(), ringHost.getPort() + portOffset), connectTimeoutMillis);
+                Connection connection = new Connection(new TcpFrameChannel(socketChannel, maxFrameSizeInBytes));
+                Thread reader = new Thread(connection::readFrames, "tcp-replication-" + ringHost.toCanonicalString());
+                reader.setDaemon(true);
+                reader.start();
+                return connection;
+            } catch (IOException x) {
+                socketChannel.close();
+                throw x;
+            }
+        }
+
+        void close() {
+            for (int i = 0; i < connectionsPerPeer; i++) {
+                Connection connection = connections.getAndSet(i, null);
+                if (connection != null) {
+                    connection.fail(new IOException("Client was closed"));
+                }
+            }
+        }
+    }
+
+    private static class Connection {
+
+        private final TcpFrameChannel channel;
+        private final Map<Long, TcpStream> streams = Maps.newConcurrentMap();
+        private volatile boolean failed;
+
+        Connection(TcpFrameChannel channel) {
+            this.channel = channel;
+        }
+
+        void readFrames() {
+            try {
+                Frame frame;
+                while ((frame = channel.read()) != null) {
+                    TcpStream stream = streams.get(frame.streamId);
+                    if (stream != null && !stream.frames.offer(frame)) {
+                        streams.remove(frame.streamId);
+                        stream.frames.clear();
+                        stream.fail(new IOException("Peer overran the window of stream:" + frame.streamId));
+                    }
+                }
+                fail(new EOFException("Connection was closed by peer"));
+            } catch (Exception x) {
+                fail(x);
+            }
+        }
+
+        void fail(Exception cause) {
+            if (!failed) {
+                failed = true;
+                try {
+                    channel.close();
+                } catch (IOException x) {
+                    LOG.debug("Failed to close replication channel", x);
+                }
+            }
+            for (TcpStream stream : streams.values()) {
+                stream.fail(cause);
+            }
+            streams.clear();
+        }
+    }
+
+    /**
+     * The taker's view of one stream on a shared connection. Frames are queued by the connection's reader thread and the stream grants the
+     * peer another half window of credit each time its reader consumes half a window, so a taker that stops reading stalls only itself.
+     */
+    class TcpStream extends InputStream {
+
+        private final Connection connection;
+        private final long streamId;
+        // a full window of DATA frames plus the END or ERROR frame and the FAILED marker
+        private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>(streamQueueCapacity + 2);
+        private final int creditBatch = Math.max(1, streamQueueCapacity / 2);
+        private int consumed;
+
+        private volatile Exception failure;
+        private byte[] current = EMPTY;
+        private int position;
+        private boolean ended;
+        private boolean closed;
+
+        TcpStream(Connection connection, long streamId) {
+            this.connection = connection;
+            this.streamId = streamId;
+        }
+
+        private void fail(Exception cause) {
+            failure = cause;
+            frames.offer(FAILED);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int length = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, length);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return current.length - position;
+        }
+
+        private boolean fill() throws IOException {
+            while (position == current.length) {
+                if (ended) {
+                    return false;
+                }
+                if (failure != null && frames.isEmpty()) {
+                    throw new IOException("Replication connection failed", failure);
+                }
+                Frame frame;
+                try {
+                    frame = frames.poll(readTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting on stream:" + streamId);
+                }
+                if (frame == null) {
+                    throw new SocketTimeoutException("Timed out after " + readTimeoutMillis + "ms waiting on stream:" + streamId);
+                } else if (frame == FAILED) {
+                    throw new IOException("Replication connection failed", failure);
+                } else if (frame.type == TcpFrameChannel.DATA) {
+                    current = frame.payload;
+                    position = 0;
+                    credit();
+                } else if (frame.type == TcpFrameChannel.END) {
+                    ended = true;
+                } else if (frame.type == TcpFrameChannel.ERROR) {
+                    ended = true;
+                    throw new IOException("Peer failed stream:" + streamId + " " + new String(frame.payload, StandardCharsets.UTF_8));
+                }
+            }
+            return true;
+        }
+
+        private void credit() throws IOException {
+            consumed++;
+            if (consumed >= creditBatch) {
+                try {
+                    connection.channel.write(TcpFrameChannel.CREDIT, streamId, intBytes(consumed), 0, 4);
+                } catch (IOException x) {
+                    connection.fail(x);
+                    throw x;
+                }
+                consumed = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                connection.streams.remove(streamId);
+                frames.clear();
+                if (!ended && !connection.failed) {
+                    try {
+                        connection.channel.write(TcpFrameChannel.CANCEL, streamId);
+                    } catch (IOException x) {
+                        connection.fail(x);
+                    }
+                }
+            }
+        }
+    }
+}
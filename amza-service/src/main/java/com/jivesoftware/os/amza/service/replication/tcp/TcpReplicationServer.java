@@ -0,0 +1,442 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.amza.service.replication.tcp;
+
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.ring.RingHost;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.ring.TimestampedRingHost;
+import com.jivesoftware.os.amza.service.AmzaInstance;
+import com.jivesoftware.os.amza.service.replication.tcp.TcpFrameChannel.Frame;
+import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.xerial.snappy.SnappyOutputStream;
+
+/**
+ * Serves the replication endpoints of {@link com.jivesoftware.os.amza.service.replication.http.endpoints.AmzaReplicationRestEndpoints}
+ * over long lived {@link TcpFrameChannel}s. Takes and available rows streams are answered on the stream executor and may interleave
+ * on a single connection; ack batches and credits are applied inline as they arrive. A stream only sends a DATA frame once the taker has
+ * granted it credit, so a slow taker parks its own stream's executor thread rather than the connection.
+ */
+public class TcpReplicationServer {
+
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
+    private final AmzaStats amzaStats;
+    private final AmzaInstance amzaInstance;
+    private final AmzaInterner amzaInterner;
+    private final int port;
+    private final int streamBufferSizeInBytes;
+    private final int maxFrameSizeInBytes;
+    private final ExecutorService streamExecutor;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Set<TcpFrameChannel> channels = Collections.newSetFromMap(Maps.newConcurrentMap());
+    private volatile ServerSocketChannel serverChannel;
+
+    public TcpReplicationServer(AmzaStats amzaStats,
+        AmzaInstance amzaInstance,
+        AmzaInterner amzaInterner,
+        int port,
+        int streamBufferSizeInBytes,
+        int maxFrameSizeInBytes,
+        ExecutorService streamExecutor) {
+        this.amzaStats = amzaStats;
+        this.amzaInstance = amzaInstance;
+        this.amzaInterner = amzaInterner;
+        this.port = port;
+        this.streamBufferSizeInBytes = streamBufferSizeInBytes;
+        this.maxFrameSizeInBytes = maxFrameSizeInBytes;
+        this.streamExecutor = streamExecutor;
+    }
+
+    public void start() throws IOException {
+        if (running.compareAndSet(false, true)) {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(port));
+            Thread acceptor = new Thread(this::accept, "tcp-replication-accept-" + getPort());
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    public void stop() {
+        if (running.compareAndSet(true, false)) {
+            closeQuietly(serverChannel);
+            for (TcpFrameChannel channel : channels) {
+                closeQuietly(channel);
+            }
+            channels.clear();
+        }
+    }
+
+    private void accept() {
+        while (running.get()) {
+            try {
+                SocketChannel socketChannel = serverChannel.accept();
+                TcpFrameChannel channel = new TcpFrameChannel(socketChannel, maxFrameSizeInBytes);
+                channels.add(channel);
+                Thread reader = new Thread(() -> serve(channel), "tcp-replication-serve-" + socketChannel.getRemoteAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (ClosedChannelException x) {
+                break;
+            } catch (Exception x) {
+                if (running.get()) {
+                    LOG.warn("Failed to accept replication connection", x);
+                }
+            }
+        }
+    }
+
+    private void serve(TcpFrameChannel channel) {
+        Map<Long, ServedStream> streams = Maps.newConcurrentMap();
+        try {
+            Frame frame;
+            while ((frame = channel.read()) != null) {
+                Frame request = frame;
+                switch (request.type) {
+                    case TcpFrameChannel.ROWS_STREAM:
+                        submit(streams, request, stream -> rowsStream(channel, request, stream));
+                        break;
+                    case TcpFrameChannel.SNAPSHOT_STREAM:
+                        submit(streams, request, stream -> snapshotStream(channel, request, stream));
+                        break;
+                    case TcpFrameChannel.AVAILABLE_ROWS_STREAM:
+                        submit(streams, request, stream -> availableRowsStream(channel, request, stream));
+                        break;
+                    case TcpFrameChannel.INVALIDATE:
+                        submit(streams, request, stream -> invalidate(channel, request, stream));
+                        break;
+                    case TcpFrameChannel.ACK_BATCH:
+                        ackBatch(request);
+                        break;
+                    case TcpFrameChannel.CREDIT:
+                        ServedStream credited = streams.get(request.streamId);
+                        if (credited != null) {
+                            credited.credits.release(ByteBuffer.wrap(request.payload).getInt());
+                        }
+                        break;
+                    case TcpFrameChannel.CANCEL:
+                        ServedStream cancelled = streams.get(request.streamId);
+                        if (cancelled != null) {
+                            cancelled.cancel();
+                        }
+                        break;
+                    default:
+                        LOG.warn("Ignored unknown replication frame type:{} stream:{}", new Object[] { request.type, request.streamId });
+                }
+            }
+        } catch (Exception x) {
+            if (running.get()) {
+                LOG.warn("Replication connection failed", x);
+            }
+        } finally {
+            for (ServedStream stream : streams.values()) {
+                stream.cancel();
+            }
+            channels.remove(channel);
+            closeQuietly(channel);
+        }
+    }
+
+    private interface StreamHandler {
+
+        void handle(ServedStream stream);
+    }
+
+    private void submit(Map<Long, ServedStream> streams, Frame request, StreamHandler handler) {
+        ServedStream stream = new ServedStream(request.streamId);
+        streams.put(request.streamId, stream);
+        streamExecutor.submit(() -> {
+            try {
+                handler.handle(stream);
+            } finally {
+                streams.remove(request.streamId);
+            }
+        });
+    }
+
+    private void rowsStream(TcpFrameChannel channel, Frame request, ServedStream stream) {
+        amzaStats.rowsStream.increment();
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(request.payload));
+            RingMember ringMember = readRingMember(in);
+            VersionedPartitionName versionedPartitionName = readVersionedPartitionName(in);
+            long takeSessionId = in.readLong();
+            long takeSharedKey = in.readLong();
+            long txId = in.readLong();
+            long leadershipToken = in.readLong();
+            long limit = in.readLong();
+
+            OutputStream out = new FrameOutputStream(channel, stream);
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new SnappyOutputStream(out), streamBufferSizeInBytes));
+            amzaInstance.rowsStream(dos,
+                ringMember,
+                versionedPartitionName,
+                takeSessionId,
+                takeSharedKey,
+                txId,
+                leadershipToken,
+                limit);
+            dos.close();
+            channel.write(TcpFrameChannel.END, request.streamId);
+        } catch (Exception x) {
+            failed(channel, request, stream, "Failed to stream takes.", x);
+        } finally {
+            amzaStats.rowsStream.decrement();
+            amzaStats.completedRowsStream.increment();
+        }
+    }
+
+    private void snapshotStream(TcpFrameChannel channel, Frame request, ServedStream stream) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(request.payload));
+            RingMember ringMember = readRingMember(in);
+            VersionedPartitionName versionedPartitionName = readVersionedPartitionName(in);
+            long takeSessionId = in.readLong();
+            long takeSharedKey = in.readLong();
+            long txId = in.readLong();
+
+            // raw WAL bytes, skipping the snappy pass a row take pays for, and sent from the file to the socket one credited frame at a time
+            OutputStream out = new FrameOutputStream(channel, stream);
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out, streamBufferSizeInBytes));
+            amzaInstance.snapshotStream(dos,
+                snapshot -> {
+                    for (long position = 0; position < snapshot.length; position += streamBufferSizeInBytes) {
+                        int length = (int) Math.min(streamBufferSizeInBytes, snapshot.length - position);
+                        stream.awaitCredit();
+                        channel.write(TcpFrameChannel.DATA, request.streamId, snapshot, position, length);
+                    }
+                },
+                ringMember,
+                versionedPartitionName,
+                takeSessionId,
+                takeSharedKey,
+                txId);
+            dos.close();
+            channel.write(TcpFrameChannel.END, request.streamId);
+        } catch (Exception x) {
+            failed(channel, request, stream, "Failed to stream snapshot.", x);
+        }
+    }
+
+    private void availableRowsStream(TcpFrameChannel channel, Frame request, ServedStream stream) {
+        amzaStats.availableRowsStream.increment();
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(request.payload));
+            boolean system = in.readBoolean();
+            RingMember ringMember = readRingMember(in);
+            RingHost ringHost = RingHost.fromCanonicalString(in.readUTF());
+            long ringTimestampId = in.readLong();
+            long takeSessionId = in.readLong();
+            long takeSharedKey = in.readLong();
+            long timeoutMillis = in.readLong();
+
+            amzaInstance.availableRowsStream(system,
+                chunk -> {
+                    stream.awaitCredit();
+                    channel.write(TcpFrameChannel.DATA, request.streamId, chunk, 0, chunk.length);
+                },
+                ringMember,
+                new TimestampedRingHost(ringHost, ringTimestampId),
+                takeSessionId,
+                takeSharedKey,
+                timeoutMillis);
+            channel.write(TcpFrameChannel.END, request.streamId);
+        } catch (Exception x) {
+            failed(channel, request, stream, "Failed to stream available rows.", x);
+        } finally {
+            amzaStats.availableRowsStream.decrement();
+        }
+    }
+
+    private void invalidate(TcpFrameChannel channel, Frame request, ServedStream stream) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(request.payload));
+            RingMember ringMember = readRingMember(in);
+            VersionedPartitionName versionedPartitionName = readVersionedPartitionName(in);
+            long takeSessionId = in.readLong();
+            long takeSharedKey = in.readLong();
+
+            amzaInstance.invalidate(ringMember, takeSessionId, takeSharedKey, versionedPartitionName);
+            stream.awaitCredit();
+            channel.write(TcpFrameChannel.DATA, request.streamId, new byte[] { 1 }, 0, 1);
+            channel.write(TcpFrameChannel.END, request.streamId);
+        } catch (Exception x) {
+            failed(channel, request, stream, "Failed invalidate.", x);
+        }
+    }
+
+    private void ackBatch(Frame request) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(request.payload));
+            while (in.readByte() == 1) {
+                VersionedPartitionName versionedPartitionName = readVersionedPartitionName(in);
+                RingMember ringMember = readRingMember(in);
+                long takeSessionId = in.readLong();
+                long takeSharedKey = in.readLong();
+                long txId = in.readLong();
+                long leadershipToken = in.readLong();
+
+                amzaInstance.rowsTaken(ringMember,
+                    takeSessionId,
+                    takeSharedKey,
+                    versionedPartitionName,
+                    txId,
+                    leadershipToken);
+            }
+
+            if (in.readByte() == 1) {
+                RingMember ringMember = readRingMember(in);
+                long takeSessionId = in.readLong();
+                long takeSharedKey = in.readLong();
+
+                amzaInstance.pong(ringMember,
+                    takeSessionId,
+                    takeSharedKey);
+            }
+        } catch (Exception x) {
+            LOG.warn("Failed ackBatch", x);
+        } finally {
+            amzaStats.pongsReceived.increment();
+        }
+    }
+
+    private void failed(TcpFrameChannel channel, Frame request, ServedStream stream, String message, Exception x) {
+        if (stream.cancelled) {
+            return;
+        }
+        LOG.error(message, x);
+        try {
+            byte[] reason = (message + " " + x.getMessage()).getBytes(StandardCharsets.UTF_8);
+            channel.write(TcpFrameChannel.ERROR, request.streamId, reason, 0, reason.length);
+        } catch (IOException e) {
+            LOG.warn("Failed to send error for stream:{}", new Object[] { request.streamId }, e);
+        }
+    }
+
+    private RingMember readRingMember(DataInputStream in) throws Exception {
+        byte[] bytes = TcpFrameChannel.readBytes(in);
+        return amzaInterner.internRingMember(bytes, 0, bytes.length);
+    }
+
+    private VersionedPartitionName readVersionedPartitionName(DataInputStream in) throws Exception {
+        byte[] bytes = TcpFrameChannel.readBytes(in);
+        return amzaInterner.internVersionedPartitionName(bytes, 0, bytes.length);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException x) {
+            LOG.debug("Failed to close", x);
+        }
+    }
+
+    /**
+     * A stream being answered on this side. Each DATA frame spends one of the credits the taker has granted, and cancelling wakes a stream
+     * that is waiting for credit so it can give up.
+     */
+    private static class ServedStream {
+
+        private final long streamId;
+        private final Semaphore credits = new Semaphore(0);
+        private volatile boolean cancelled;
+
+        ServedStream(long streamId) {
+            this.streamId = streamId;
+        }
+
+        void cancel() {
+            cancelled = true;
+            credits.release();
+        }
+
+        void awaitCredit() throws IOException {
+            if (cancelled) {
+                throw new IOException("Stream:" + streamId + " was cancelled");
+            }
+            try {
+                credits.acquire();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for credit on stream:" + streamId);
+            }
+            if (cancelled) {
+                credits.release();
+                throw new IOException("Stream:" + streamId + " was cancelled");
+            }
+        }
+    }
+
+    /**
+     * Sends every write as one DATA frame; callers are expected to buffer.
+     */
+    private static class FrameOutputStream extends OutputStream {
+
+        private final TcpFrameChannel channel;
+        private final ServedStream stream;
+
+        FrameOutputStream(TcpFrameChannel channel, ServedStream stream) {
+            this.channel = channel;
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                stream.awaitCredit();
+                channel.write(TcpFrameChannel.DATA, stream.streamId, b, off, len);
+            }
+        }
+    }
+}
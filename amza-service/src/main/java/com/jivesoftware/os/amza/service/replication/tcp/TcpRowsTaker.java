@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.amza.service.replication.tcp;
+
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.ring.RingHost;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.service.replication.http.HttpRowsTaker.PongPayload;
+import com.jivesoftware.os.amza.service.replication.http.HttpRowsTaker.RowsTakenPayload;
+import com.jivesoftware.os.amza.service.replication.tcp.TcpReplicationClient.TcpStream;
+import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import com.jivesoftware.os.amza.service.take.AckBatcher;
+import com.jivesoftware.os.amza.service.take.RowsTaker;
+import com.jivesoftware.os.amza.service.take.StreamingTakesConsumer;
+import com.jivesoftware.os.amza.service.take.StreamingTakesConsumer.StreamingTakeConsumed;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import org.xerial.snappy.SnappyInputStream;
+
+/**
+ * A {@link RowsTaker} that takes over a shared {@link TcpReplicationClient} instead of one http request per take. Acks and pongs are
+ * coalesced per host by the same {@link AckBatcher} the http taker uses, but each batch goes out as a single frame on an already open
+ * connection.
+ */
+public class TcpRowsTaker implements RowsTaker {
+
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
+    private final AmzaStats amzaStats;
+    private final TcpReplicationClient client;
+    private final StreamingTakesConsumer streamingTakesConsumer;
+    private final AckBatcher ackBatcher;
+
+    public TcpRowsTaker(String name,
+        AmzaStats amzaStats,
+        TcpReplicationClient client,
+        AmzaInterner amzaInterner,
+        int rowBufferSizeInBytes,
+        int maxPooledRowBufferSizeInBytes,
+        ExecutorService queueExecutor,
+        ExecutorService flushExecutor) {
+        this.amzaStats = amzaStats;
+        this.client = client;
+        this.streamingTakesConsumer = new StreamingTakesConsumer(amzaInterner, rowBufferSizeInBytes, maxPooledRowBufferSizeInBytes);
+
+        this.ackBatcher = new AckBatcher(name, queueExecutor, flushExecutor, this::deliverAckBatch);
+        ackBatcher.start();
+    }
+
+    @Override
+    public StreamingRowsResult rowsStream(RingMember localRingMember,
+        RingMember remoteRingMember,
+        RingHost remoteRingHost,
+        VersionedPartitionName remoteVersionedPartitionName,
+        long takeSessionId,
+        long takeSharedKey,
+        long remoteTxId,
+        long localLeadershipToken,
+        long limit,
+        RowViewStream rowStream) {
+
+        TcpStream stream;
+        try {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(request);
+            TcpFrameChannel.writeBytes(dos, localRingMember.toBytes());
+            TcpFrameChannel.writeBytes(dos, remoteVersionedPartitionName.toBytes());
+            dos.writeLong(takeSessionId);
+            dos.writeLong(takeSharedKey);
+            dos.writeLong(remoteTxId);
+            dos.writeLong(localLeadershipToken);
+            dos.writeLong(limit);
+            stream = client.open(remoteRingHost, TcpFrameChannel.ROWS_STREAM, request.toByteArray());
+        } catch (IOException e) {
+            return new StreamingRowsResult(e, null, -1, -1, null);
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new SnappyInputStream(stream));
+            StreamingTakeConsumed consumed = streamingTakesConsumer.consume(dis, rowStream);
+            amzaStats.netStats.read.add(consumed.bytes);
+            Map<RingMember, Long> otherHighwaterMarks = (consumed.streamedToEnd && consumed.isOnline) ? consumed.neighborsHighwaterMarks : null;
+            return new StreamingRowsResult(null, null, consumed.leadershipToken, consumed.partitionVersion, otherHighwaterMarks);
+        } catch (Exception e) {
+            return new StreamingRowsResult(null, e, -1, -1, null);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException x) {
+                LOG.debug("Failed to close rows stream", x);
+            }
+        }
+    }
+
+    @Override
+    public StreamingSnapshotResult snapshotStream(RingMember localRingMember,
+        RingMember remoteRingMember,
+        RingHost remoteRingHost,
+        VersionedPartitionName remoteVersionedPartitionName,
+        long takeSessionId,
+        long takeSharedKey,
+        long remoteTxId,
+        File snapshotFile) {
+
+        TcpStream stream;
+        try {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(request);
+            TcpFrameChannel.writeBytes(dos, localRingMember.toBytes());
+            TcpFrameChannel.writeBytes(dos, remoteVersionedPartitionName.toBytes());
+            dos.writeLong(takeSessionId);
+            dos.writeLong(takeSharedKey);
+            dos.writeLong(remoteTxId);
+            stream = client.open(remoteRingHost, TcpFrameChannel.SNAPSHOT_STREAM, request.toByteArray());
+        } catch (IOException e) {
+            return new StreamingSnapshotResult(e, null, -1);
+        }
+        try {
+            long snapshotBytes = streamingTakesConsumer.consume(new DataInputStream(stream), snapshotFile);
+            amzaStats.netStats.read.add(1 + (snapshotBytes > 0 ? 8 + snapshotBytes : 0));
+            return new StreamingSnapshotResult(null, null, snapshotBytes);
+        } catch (Exception e) {
+            return new StreamingSnapshotResult(null, e, -1);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException x) {
+                LOG.debug("Failed to close snapshot stream", x);
+            }
+        }
+    }
+
+    @Override
+    public boolean rowsTaken(RingMember localRingMember,
+        RingMember remoteRingMember,
+        RingHost remoteRingHost,
+        long takeSessionId,
+        long takeSharedKey,
+        VersionedPartitionName versionedPartitionName,
+        long txId,
+        long localLeadershipToken) throws Exception {
+
+        ackBatcher.rowsTaken(localRingMember, remoteRingHost, takeSessionId, takeSharedKey, versionedPartitionName, txId, localLeadershipToken);
+        return true;
+    }
+
+    @Override
+    public boolean pong(RingMember localRingMember,
+        RingMember remoteRingMember,
+        RingHost remoteRingHost,
+        long takeSessionId,
+        long takeSharedKey) throws Exception {
+
+        ackBatcher.pong(localRingMember, remoteRingHost, takeSessionId, takeSharedKey);
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        ackBatcher.stop();
+    }
+
+    private void deliverAckBatch(RingHost ringHost, Map<VersionedPartitionName, RowsTakenPayload> rowsTaken, PongPayload pong) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AckBatcher.writeAckBatch(new DataOutputStream(out), rowsTaken, pong);
+        client.send(ringHost, TcpFrameChannel.ACK_BATCH, out.toByteArray());
+    }
+
+    @Override
+    public boolean invalidate(RingMember localRingMember,
+        RingMember remoteRingMember,
+        RingHost remoteRingHost,
+        long takeSessionId,
+        long takeSharedKey,
+        VersionedPartitionName remoteVersionedPartitionName) {
+        try {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(request);
+            TcpFrameChannel.writeBytes(dos, localRingMember.toBytes());
+            TcpFrameChannel.writeBytes(dos, remoteVersionedPartitionName.toBytes());
+            dos.writeLong(takeSessionId);
+            dos.writeLong(takeSharedKey);
+            try (TcpStream stream = client.open(remoteRingHost, TcpFrameChannel.INVALIDATE, request.toByteArray())) {
+                boolean invalidated = stream.read() == 1;
+                while (stream.read() != -1) {
+                    // drain to the end of the stream so closing does not cancel
+                }
+                return invalidated;
+            }
+        } catch (Exception x) {
+            LOG.warn("Failed to invalidate for local:{} remote:{} session:{} partition:{}",
+                new Object[] { localRingMember, remoteRingHost, takeSessionId, remoteVersionedPartitionName }, x);
+            return false;
+        } finally {
+            amzaStats.invalidatesSent.increment();
+        }
+    }
+}
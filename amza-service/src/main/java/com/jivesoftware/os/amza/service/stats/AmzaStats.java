@@ -83,10 +83,21 @@ public class AmzaStats {
 
     public final LongAdder deltaFirstCheckRemoves = new LongAdder();
     public final LongAdder deltaSecondCheckRemoves = new LongAdder();
+    public final LongAdder deltaGroupCommits = new LongAdder();
+    public final LongAdder deltaGroupCommitted = new LongAdder();
+    public final LongAdder deltaBackPressureMillis = new LongAdder();
 
     public final LongAdder takes = new LongAdder();
     public final LongAdder takeExcessRows = new LongAdder();
 
+    public volatile long compactionQueueDepth = 0;
+    public volatile long compactionQueueReclaimableBytes = 0;
+    public volatile long compactionBytesPerSecond = 0;
+    public final LongAdder compactionThrottledMillis = new LongAdder();
+
+    public final LongAdder hydratedValueCacheHits = new LongAdder();
+    public final LongAdder hydratedValueCacheMisses = new LongAdder();
+
     public AmzaStats() {
     }
 
@@ -188,6 +199,9 @@ public class AmzaStats {
         public volatile long quorumsLatency = 0;
         public final Map<RingMember, AtomicLong> memberQuorumsLatency = Maps.newConcurrentMap();
         public final LongAdder quorumTimeouts = new LongAdder();
+        public final LongAdder throttles = new LongAdder();
+        public final LongAdder throttledMillis = new LongAdder();
+        public final LongAdder throttleRejections = new LongAdder();
     }
 
     public void longPolled(RingMember member) {
@@ -389,6 +403,18 @@ public class AmzaStats {
         totals.quorumTimeouts.add(count);
     }
 
+    public void throttled(PartitionName partitionName, long delayMillis, boolean rejected) {
+        grandTotals.throttles.increment();
+        grandTotals.throttledMillis.add(delayMillis);
+        Totals totals = partitionTotals(partitionName);
+        totals.throttles.increment();
+        totals.throttledMillis.add(delayMillis);
+        if (rejected) {
+            grandTotals.throttleRejections.increment();
+            totals.throttleRejections.increment();
+        }
+    }
+
     public void took(RingMember from, PartitionName partitionName, int count, long smallestTxId) {
         grandTotals.takes.add(count);
         Totals totals = partitionTotals(partitionName);
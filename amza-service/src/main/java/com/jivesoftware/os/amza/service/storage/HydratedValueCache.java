@@ -0,0 +1,82 @@
+package com.jivesoftware.os.amza.service.storage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches rows hydrated from the wal by file pointer. A {@link WALStorage} takes a new generation whenever its file pointers may be reused
+ * (load, compaction, delete) so stale rows are never returned and simply age out.
+ */
+public class HydratedValueCache {
+
+    private static final int ENTRY_OVERHEAD_IN_BYTES = 64;
+
+    private final AmzaStats amzaStats;
+    private final Cache<CacheKey, byte[]> cache;
+    private final AtomicLong generations = new AtomicLong();
+
+    public HydratedValueCache(AmzaStats amzaStats, long maxSizeInBytes, int concurrencyLevel) {
+        this.amzaStats = amzaStats;
+        this.cache = CacheBuilder.newBuilder()
+            .concurrencyLevel(concurrencyLevel)
+            .maximumWeight(maxSizeInBytes)
+            .weigher((CacheKey key, byte[] row) -> ENTRY_OVERHEAD_IN_BYTES + row.length)
+            .build();
+    }
+
+    public long nextGeneration() {
+        return generations.incrementAndGet();
+    }
+
+    public byte[] hydrate(long generation, long fp, Callable<byte[]> hydrate) throws Exception {
+        CacheKey key = new CacheKey(generation, fp);
+        byte[] row = cache.getIfPresent(key);
+        if (row != null) {
+            amzaStats.hydratedValueCacheHits.increment();
+            return row;
+        }
+        amzaStats.hydratedValueCacheMisses.increment();
+        row = hydrate.call();
+        if (row != null) {
+            cache.put(key, row);
+        }
+        return row;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static class CacheKey {
+
+        private final long generation;
+        private final long fp;
+
+        private CacheKey(long generation, long fp) {
+            this.generation = generation;
+            this.fp = fp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey cacheKey = (CacheKey) o;
+            return generation == cacheKey.generation && fp == cacheKey.fp;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (generation ^ (generation >>> 32));
+            result = 31 * result + (int) (fp ^ (fp >>> 32));
+            return result;
+        }
+    }
+}
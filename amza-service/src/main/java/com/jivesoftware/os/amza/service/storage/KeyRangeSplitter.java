@@ -0,0 +1,127 @@
+package com.jivesoftware.os.amza.service.storage;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedBytes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks split points which divide a range of keys into sub-ranges without walking the keys. Points are interpolated between the first and
+ * last key of the range and then snapped to real keys by probing an index, so sub-ranges are only as even as the key distribution: a range
+ * whose keys are heavily skewed yields fewer or lopsided sub-ranges.
+ */
+public class KeyRangeSplitter {
+
+    private static final Comparator<byte[]> COMPARATOR = UnsignedBytes.lexicographicalComparator();
+    private static final int MAX_PROBED_KEY_LENGTH = 16;
+    private static final int INTERPOLATED_BYTES = 7;
+
+    public interface CeilingKey {
+
+        /**
+         * @return the smallest key greater than or equal to the given key, or null if there is none
+         */
+        byte[] ceiling(byte[] key) throws Exception;
+    }
+
+    private KeyRangeSplitter() {
+    }
+
+    /**
+     * @param from nullable (inclusive)
+     * @param to   nullable (exclusive)
+     * @return at most the given number of strictly increasing existing keys, each greater than the first key in the range and less than to
+     */
+    public static List<byte[]> split(byte[] from, byte[] to, int splits, CeilingKey ceilingKey) throws Exception {
+        List<byte[]> splitKeys = Lists.newArrayList();
+        if (splits <= 0) {
+            return splitKeys;
+        }
+        byte[] lo = ceilingKey.ceiling(from == null ? new byte[0] : from);
+        if (lo == null || (to != null && COMPARATOR.compare(lo, to) >= 0)) {
+            return splitKeys;
+        }
+        byte[] hi = to != null ? to : lastKey(ceilingKey);
+
+        int common = commonPrefixLength(lo, hi);
+        long loBits = bits(lo, common);
+        long hiBits = bits(hi, common);
+        long step = (hiBits - loBits) / (splits + 1);
+        if (step <= 0) {
+            return splitKeys;
+        }
+
+        byte[] last = lo;
+        for (int i = 1; i <= splits; i++) {
+            byte[] point = ceilingKey.ceiling(key(lo, common, loBits + step * i));
+            if (point == null || (to != null && COMPARATOR.compare(point, to) >= 0)) {
+                break;
+            }
+            if (COMPARATOR.compare(point, last) > 0) {
+                splitKeys.add(point);
+                last = point;
+            }
+        }
+        return splitKeys;
+    }
+
+    /**
+     * Binary searches each byte of the largest key, giving up after {@link #MAX_PROBED_KEY_LENGTH} bytes.
+     *
+     * @return the largest key, or a prefix of it when it is longer than the probed length
+     */
+    static byte[] lastKey(CeilingKey ceilingKey) throws Exception {
+        byte[] last = new byte[0];
+        for (int i = 0; i < MAX_PROBED_KEY_LENGTH; i++) {
+            byte[] probe = Arrays.copyOf(last, last.length + 1);
+            int low = 0;
+            int high = 255;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                probe[last.length] = (byte) mid;
+                if (ceilingKey.ceiling(probe) != null) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (found == -1) {
+                break;
+            }
+            probe[last.length] = (byte) found;
+            last = probe;
+        }
+        return last;
+    }
+
+    private static int commonPrefixLength(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static long bits(byte[] key, int offset) {
+        long bits = 0;
+        for (int i = 0; i < INTERPOLATED_BYTES; i++) {
+            int index = offset + i;
+            bits = (bits << 8) | (index < key.length ? key[index] & 0xFF : 0);
+        }
+        return bits;
+    }
+
+    private static byte[] key(byte[] lo, int common, long bits) {
+        byte[] key = Arrays.copyOf(lo, common + INTERPOLATED_BYTES);
+        for (int i = INTERPOLATED_BYTES - 1; i >= 0; i--) {
+            key[common + i] = (byte) bits;
+            bits >>>= 8;
+        }
+        return key;
+    }
+}
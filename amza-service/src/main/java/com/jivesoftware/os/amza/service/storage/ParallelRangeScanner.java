@@ -0,0 +1,159 @@
+package com.jivesoftware.os.amza.service.storage;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.stream.KeyValueStream;
+import com.jivesoftware.os.amza.service.Partition.ScanRange;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scans adjacent key sub-ranges concurrently and streams their rows to a single consumer, either in key order or in whatever order the rows
+ * arrive. Producers hand rows over through bounded queues, so a slow consumer throttles the scan instead of buffering the partition.
+ * <p>
+ * In ordered mode the calling thread scans the first sub-range itself while the rest are read ahead, then drains the read-ahead queues in
+ * order. Producers are submitted in key order, so the executor must run tasks in submission order and never on the submitting thread.
+ */
+public class ParallelRangeScanner {
+
+    private static final Row END = new Row(null, null, null, -1, false, -1, null);
+
+    private final ExecutorService scanExecutor;
+    private final int maxParallelism;
+    private final int queueCapacity;
+
+    public interface RangeScan {
+
+        boolean scan(ScanRange range, KeyValueStream stream) throws Exception;
+    }
+
+    public ParallelRangeScanner(ExecutorService scanExecutor, int maxParallelism, int queueCapacity) {
+        this.scanExecutor = scanExecutor;
+        this.maxParallelism = maxParallelism;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    /**
+     * Returns once every sub-range has been scanned or abandoned, so no producer touches storage after this call.
+     *
+     * @return false if the stream asked to stop
+     */
+    public boolean scan(List<ScanRange> ranges, boolean ordered, RangeScan rangeScan, KeyValueStream stream) throws Exception {
+        if (ranges.size() == 1) {
+            return rangeScan.scan(ranges.get(0), stream);
+        }
+
+        AtomicBoolean stopped = new AtomicBoolean();
+        List<Future<?>> futures = Lists.newArrayListWithCapacity(ranges.size());
+        try {
+            if (ordered) {
+                List<BlockingQueue<Row>> queues = Lists.newArrayListWithCapacity(ranges.size() - 1);
+                for (ScanRange range : ranges.subList(1, ranges.size())) {
+                    BlockingQueue<Row> queue = new ArrayBlockingQueue<>(queueCapacity);
+                    queues.add(queue);
+                    futures.add(scanExecutor.submit(() -> produce(range, rangeScan, queue, stopped)));
+                }
+                boolean[] streaming = { true };
+                rangeScan.scan(ranges.get(0), (prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                    streaming[0] = stream.stream(prefix, key, value, valueTimestamp, valueTombstoned, valueVersion);
+                    return streaming[0];
+                });
+                if (!streaming[0]) {
+                    return false;
+                }
+                for (BlockingQueue<Row> queue : queues) {
+                    if (!drain(queue, 1, stream)) {
+                        return false;
+                    }
+                }
+                return true;
+            } else {
+                BlockingQueue<Row> queue = new ArrayBlockingQueue<>(queueCapacity);
+                for (ScanRange range : ranges) {
+                    futures.add(scanExecutor.submit(() -> produce(range, rangeScan, queue, stopped)));
+                }
+                return drain(queue, ranges.size(), stream);
+            }
+        } finally {
+            stopped.set(true);
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException x) {
+                    // already surfaced through the queue
+                }
+            }
+        }
+    }
+
+    private static Void produce(ScanRange range, RangeScan rangeScan, BlockingQueue<Row> queue, AtomicBoolean stopped)
+        throws InterruptedException {
+        Row last = END;
+        try {
+            rangeScan.scan(range, (prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                return offer(queue, new Row(prefix, key, value, valueTimestamp, valueTombstoned, valueVersion, null), stopped);
+            });
+        } catch (Throwable t) {
+            last = new Row(null, null, null, -1, false, -1, t);
+        }
+        offer(queue, last, stopped);
+        return null;
+    }
+
+    private static boolean offer(BlockingQueue<Row> queue, Row row, AtomicBoolean stopped) throws InterruptedException {
+        while (!stopped.get()) {
+            if (queue.offer(row, 100, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean drain(BlockingQueue<Row> queue, int producers, KeyValueStream stream) throws Exception {
+        int ended = 0;
+        while (ended < producers) {
+            Row row = queue.take();
+            if (row == END) {
+                ended++;
+            } else if (row.failure != null) {
+                if (row.failure instanceof Exception) {
+                    throw (Exception) row.failure;
+                }
+                throw new ExecutionException("Failed to scan range", row.failure);
+            } else if (!stream.stream(row.prefix, row.key, row.value, row.valueTimestamp, row.valueTombstoned, row.valueVersion)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Row {
+
+        private final byte[] prefix;
+        private final byte[] key;
+        private final byte[] value;
+        private final long valueTimestamp;
+        private final boolean valueTombstoned;
+        private final long valueVersion;
+        private final Throwable failure;
+
+        private Row(byte[] prefix, byte[] key, byte[] value, long valueTimestamp, boolean valueTombstoned, long valueVersion, Throwable failure) {
+            this.prefix = prefix;
+            this.key = key;
+            this.value = value;
+            this.valueTimestamp = valueTimestamp;
+            this.valueTombstoned = valueTombstoned;
+            this.valueVersion = valueVersion;
+            this.failure = failure;
+        }
+    }
+}
@@ -41,6 +41,7 @@ import com.jivesoftware.os.amza.service.storage.PartitionIndex.PartitionProperti
 import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProvider;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -306,6 +307,10 @@ public class PartitionCreator implements RowChanges, VersionedPartitionProvider
         return partitionIndex.get(context, versionedPartitionName, properties, stripeIndex);
     }
 
+    public File baseKey(VersionedPartitionName versionedPartitionName, int stripeIndex) {
+        return partitionIndex.baseKey(versionedPartitionName, stripeIndex);
+    }
+
     @Override
     public Iterable<PartitionName> getMemberPartitions(RingMembership ringMembership) throws Exception {
         List<PartitionName> partitionNames = Lists.newArrayList();
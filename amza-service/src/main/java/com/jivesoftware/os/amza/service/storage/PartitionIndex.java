@@ -154,6 +154,10 @@ public class PartitionIndex {
         }
     }
 
+    public File baseKey(VersionedPartitionName versionedPartitionName, int stripe) {
+        return walStorageProvider.baseKey(versionedPartitionName, stripe);
+    }
+
     public boolean exists(String context, VersionedPartitionName versionedPartitionName, PartitionProperties properties, int stripe) throws Exception {
         return get(context, versionedPartitionName, properties, stripe) != null;
     }
@@ -16,6 +16,7 @@
 package com.jivesoftware.os.amza.service.storage;
 
 import com.jivesoftware.os.amza.api.TimestampedValue;
+import com.jivesoftware.os.amza.api.partition.Durability;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.scan.RangeScannable;
@@ -25,6 +26,7 @@ import com.jivesoftware.os.amza.api.stream.Commitable;
 import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
 import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
+import com.jivesoftware.os.amza.api.wal.WALCompactionThrottle;
 import com.jivesoftware.os.amza.service.stats.AmzaStats;
 import com.jivesoftware.os.amza.service.stats.AmzaStats.CompactionFamily;
 import com.jivesoftware.os.amza.service.storage.WALStorage.TxTransitionToCompacted;
@@ -102,6 +104,7 @@ public class PartitionStore implements RangeScannable {
                         baseKey,
                         stripe,
                         -1,
+                        WALCompactionThrottle.NO_THROTTLE,
                         (transitionToCompacted) -> {
                             return transitionToCompacted.tx(() -> {
                                 return null;
@@ -150,12 +153,36 @@ public class PartitionStore implements RangeScannable {
         return walStorage.rangeScan(fromPrefix, fromKey, toPrefix, toKey, txKeyValueStream, hydrateValues);
     }
 
+    public long reclaimableBytes(long disposalVersion) throws Exception {
+        long tombstoneCheckTimestamp = 0;
+        long tombstoneCheckVersion = 0;
+        long ttlCheckTimestamp = 0;
+        long ttlCheckVersion = 0;
+        PartitionProperties stackProperties = this.properties;
+        if (stackProperties != null) {
+            if (stackProperties.tombstoneTimestampAgeInMillis > 0) {
+                tombstoneCheckTimestamp = getTimestampId(stackProperties.tombstoneTimestampAgeInMillis + stackProperties.tombstoneTimestampIntervalMillis);
+            }
+            if (stackProperties.tombstoneVersionAgeInMillis > 0) {
+                tombstoneCheckVersion = getVersion(stackProperties.tombstoneVersionAgeInMillis + stackProperties.tombstoneVersionIntervalMillis);
+            }
+            if (stackProperties.ttlTimestampAgeInMillis > 0) {
+                ttlCheckTimestamp = getTimestampId(stackProperties.ttlTimestampAgeInMillis + stackProperties.ttlTimestampIntervalMillis);
+            }
+            if (stackProperties.ttlVersionAgeInMillis > 0) {
+                ttlCheckVersion = getVersion(stackProperties.ttlVersionAgeInMillis + stackProperties.ttlVersionIntervalMillis);
+            }
+        }
+        return walStorage.reclaimableBytes(tombstoneCheckTimestamp, tombstoneCheckVersion, ttlCheckTimestamp, ttlCheckVersion, disposalVersion);
+    }
+
     public void compactTombstone(
         boolean force,
         File fromBaseKey,
         File toBaseKey,
         int stripe,
         long disposalVersion,
+        WALCompactionThrottle compactionThrottle,
         TxTransitionToCompacted transitionToCompacted) {
         // ageInMillis: 180 days
         // intervalMillis: 10 days
@@ -203,6 +230,7 @@ public class PartitionStore implements RangeScannable {
                     boolean expectedEndOfMerge = !versionedPartitionName.getPartitionName().isSystemPartition();
                     walStorage.compactTombstone(amzaStats.compactTombstoneIoStats,
                         compactionStats,
+                        compactionThrottle,
                         fromBaseKey,
                         toBaseKey,
                         stackProperties.rowType,
@@ -282,6 +310,13 @@ public class PartitionStore implements RangeScannable {
         return walStorage.mergedTxId();
     }
 
+    public boolean installSnapshot(File baseKey, File snapshotFile, long deltaWALId, int stripe) throws Exception {
+        if (properties.durability == Durability.ephemeral) {
+            return false;
+        }
+        return walStorage.installSnapshot(amzaStats.loadIoStats, baseKey, snapshotFile, deltaWALId, properties.maxValueSizeInIndex, stripe);
+    }
+
     public void delete(File baseKey) throws Exception {
         walStorage.delete(baseKey);
     }
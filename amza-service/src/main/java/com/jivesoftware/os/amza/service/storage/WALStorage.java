@@ -16,6 +16,7 @@
 package com.jivesoftware.os.amza.service.storage;
 
 import com.google.common.base.Preconditions;
+import com.google.common.primitives.UnsignedBytes;
 import com.jivesoftware.os.amza.api.CompareTimestampVersions;
 import com.jivesoftware.os.amza.api.IoStats;
 import com.jivesoftware.os.amza.api.TimestampedValue;
@@ -26,6 +27,7 @@ import com.jivesoftware.os.amza.api.scan.RangeScannable;
 import com.jivesoftware.os.amza.api.scan.RowStream;
 import com.jivesoftware.os.amza.api.scan.RowsChanged;
 import com.jivesoftware.os.amza.api.stream.Commitable;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyValueStream;
 import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValuePointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
@@ -35,14 +37,18 @@ import com.jivesoftware.os.amza.api.stream.TxKeyPointerStream;
 import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.stream.WALKeyPointers;
 import com.jivesoftware.os.amza.api.stream.WALMergeKeyPointerStream;
+import com.jivesoftware.os.amza.api.wal.KeyUtil;
 import com.jivesoftware.os.amza.api.wal.KeyedTimestampId;
 import com.jivesoftware.os.amza.api.wal.PrimaryRowMarshaller;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
 import com.jivesoftware.os.amza.api.wal.WALCompactionStats;
+import com.jivesoftware.os.amza.api.wal.WALCompactionThrottle;
 import com.jivesoftware.os.amza.api.wal.WALHighwater;
 import com.jivesoftware.os.amza.api.wal.WALIndex;
 import com.jivesoftware.os.amza.api.wal.WALIndexProvider;
 import com.jivesoftware.os.amza.api.wal.WALIndexable;
 import com.jivesoftware.os.amza.api.wal.WALKey;
+import com.jivesoftware.os.amza.api.wal.WALSnapshot;
 import com.jivesoftware.os.amza.api.wal.WALTimestampId;
 import com.jivesoftware.os.amza.api.wal.WALTx;
 import com.jivesoftware.os.amza.api.wal.WALValue;
@@ -60,6 +66,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -78,6 +86,8 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
     private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
     private static final int numTickleMeElmaphore = 1024; // TODO config
     private static final int numKeyHighwaterStripes = 1024; // TODO expose to config
+    private static final int STREAM_VALUES_BATCH_SIZE = 1024;
+    private static final byte[] EMPTY = new byte[0];
 
     private final AmzaStats amzaStats;
     private final VersionedPartitionName versionedPartitionName;
@@ -103,11 +113,15 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
     private final AtomicLong highestTxId = new AtomicLong(-1);
     private final AtomicBoolean hasEndOfMergeMarker = new AtomicBoolean(false);
     private final int tombstoneCompactionFactor;
+    private final HydratedValueCache hydratedValueCache;
 
     private final ThreadLocal<Integer> reentrant = new ReentrantThreadLocal();
     private final AtomicBoolean sick = new AtomicBoolean();
 
     private volatile long mergedTxId = -1;
+    private volatile boolean cacheHydratedValues;
+    private volatile SecondaryIndexes secondaryIndexes;
+    private volatile long hydratedValueGeneration = -1;
 
     static class ReentrantThreadLocal extends ThreadLocal<Integer> {
 
@@ -126,7 +140,10 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
         WALIndexProvider<I> walIndexProvider,
         SickPartitions sickPartitions,
         boolean hardFsyncBeforeLeapBoundary,
-        int tombstoneCompactionFactor) {
+        int tombstoneCompactionFactor,
+        HydratedValueCache hydratedValueCache,
+        boolean cacheHydratedValues,
+        SecondaryIndexes secondaryIndexes) {
         this.amzaStats = amzaStats;
 
         this.versionedPartitionName = versionedPartitionName;
@@ -138,7 +155,11 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
         this.sickPartitions = sickPartitions;
         this.hardFsyncBeforeLeapBoundary = hardFsyncBeforeLeapBoundary;
         this.tombstoneCompactionFactor = tombstoneCompactionFactor;
+        this.hydratedValueCache = hydratedValueCache;
+        this.cacheHydratedValues = cacheHydratedValues;
+        this.secondaryIndexes = secondaryIndexes;
         this.stripedKeyHighwaterTimestamps = null;
+        invalidateHydratedValues();
     }
 
     public boolean isSick() {
@@ -189,6 +210,7 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
         acquireAll();
         try {
             walTx.delete(baseKey);
+            invalidateHydratedValues();
             I wali = walIndex.get();
             if (wali != null) {
                 wali.delete();
@@ -200,6 +222,39 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
         }
     }
 
+    /**
+     * Replaces this empty WAL with one received from another member and rebuilds the index from it once, rather than replaying every row
+     * through the delta. An end of merge marker for the given delta is appended so a restart accepts the installed rows as merged.
+     *
+     * @return false, leaving the WAL untouched, if it is not loaded or already holds rows
+     */
+    public boolean installSnapshot(IoStats ioStats,
+        File baseKey,
+        File snapshotFile,
+        long deltaWALId,
+        int maxValueSizeInIndex,
+        int stripe) throws Exception {
+        acquireAll();
+        try {
+            I wali = walIndex.get();
+            if (wali == null || highestTxId.get() != -1) {
+                return false;
+            }
+            wali.delete();
+            walIndex.set(null);
+            walTx.install(baseKey, snapshotFile);
+            loadInternal(ioStats, baseKey, -1, -1, true, false, false, maxValueSizeInIndex, stripe);
+            if (sick.get()) {
+                throw new IllegalStateException("Failed to load the snapshot installed for " + versionedPartitionName);
+            }
+            endOfMergeMarker(ioStats, deltaWALId, highestTxId.get());
+            walTx.flush(true);
+            return true;
+        } finally {
+            releaseAll();
+        }
+    }
+
     public boolean compactableTombstone(long tombstoneTimestampId,
         long tombstoneVersion,
         long ttlTimestampId,
@@ -218,6 +273,38 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
             || ((clobberCount.get() + 1) / (keyCount.get() + 1) > tombstoneCompactionFactor);
     }
 
+    /**
+     * Estimates how many bytes a tombstone compaction would reclaim, or 0 if the partition is not yet compactable. Clobbered rows are
+     * assumed to be as large as live rows. The number of expired tombstones is not tracked, so once the oldest tombstone or ttl has
+     * aged out half of the live bytes are counted as reclaimable.
+     */
+    public long reclaimableBytes(long tombstoneTimestampId,
+        long tombstoneVersion,
+        long ttlTimestampId,
+        long ttlVersion,
+        long disposalVersion) throws Exception {
+
+        if (!compactableTombstone(tombstoneTimestampId, tombstoneVersion, ttlTimestampId, ttlVersion, disposalVersion)) {
+            return 0;
+        }
+        long length = walTx.length();
+        long keys = keyCount.get();
+        long clobbers = clobberCount.get();
+        long clobberedBytes = (keys + clobbers) == 0 ? 0 : (long) (length * ((double) clobbers / (keys + clobbers)));
+        long liveBytes = length - clobberedBytes;
+
+        long compactableOldestTombstonedTimestamp = oldestTombstonedTimestamp.get();
+        long compactableOldestTombstonedVersion = oldestTombstonedVersion.get();
+        long compactableOldestTimestamp = oldestTimestamp.get();
+        long compactableOldestVersion = oldestVersion.get();
+        boolean expired = (compactableOldestTombstonedTimestamp > -1 && compactableOldestTombstonedTimestamp < tombstoneTimestampId)
+            || (compactableOldestTombstonedVersion > -1 && compactableOldestTombstonedVersion < tombstoneVersion)
+            || (compactableOldestTimestamp > -1 && compactableOldestTimestamp < ttlTimestampId)
+            || (compactableOldestVersion > -1 && compactableOldestVersion < ttlVersion)
+            || (compactableOldestVersion > -1 && compactableOldestVersion < disposalVersion);
+        return clobberedBytes + (expired ? liveBytes / 2 : 0);
+    }
+
     public interface TxTransitionToCompacted {
 
         public interface TransitionToCompactedTx {
@@ -230,6 +317,7 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
 
     public long compactTombstone(IoStats ioStats,
         WALCompactionStats walCompactionStats,
+        WALCompactionThrottle compactionThrottle,
         File fromBaseKey,
         File toBaseKey,
         RowType rowType,
@@ -249,6 +337,7 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
         I got = walIndex.get();
         WALTx.Compacted<I> compact = walTx.compact(ioStats,
             walCompactionStats,
+            compactionThrottle,
             fromBaseKey,
             toBaseKey,
             rowType,
@@ -306,6 +395,7 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
                     return -1L;
                 }
                 walIndex.set(compacted.index);
+                invalidateHydratedValues();
                 keyCount.set(compacted.keyCount);
                 clobberCount.set(0);
                 oldestTimestamp.set(compacted.oldestTimestamp);
@@ -353,6 +443,7 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
             if (!recovery && initialHighestTxId != -1) {
                 throw new IllegalStateException("Load should have completed before highestTxId:" + initialHighestTxId + " is modified.");
             }
+            invalidateHydratedValues();
 
             walTx.open(baseKey, io -> {
                 boolean[] endOfMergeMarker = { false };
@@ -507,7 +598,8 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
                 return null;
             });
 
-            I index = walTx.openIndex(ioStats, baseKey, walIndexProvider, versionedPartitionName, maxValueSizeInIndex, stripe);
+            I index = walTx.openIndex(ioStats, baseKey, walIndexProvider, versionedPartitionName, maxValueSizeInIndex, secondaryIndexes,
+                stripe);
             walIndex.compareAndSet(null, index);
 
         } catch (Exception e) {
@@ -914,6 +1006,96 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
         }
     }
 
+    /**
+     * Streams the rows whose index keys fall in the given range, ordered by index key and then by row key. Rows only present in the delta
+     * are not considered.
+     *
+     * @param fromIndexKey nullable (inclusive)
+     * @param toIndexKey   nullable (exclusive)
+     */
+    public boolean secondaryIndexScan(String indexName, byte[] fromIndexKey, byte[] toIndexKey, IndexedKeyValueStream stream) throws Exception {
+        if (!secondaryIndexes.contains(indexName)) {
+            throw new IllegalArgumentException("No secondary index named " + indexName + " for " + versionedPartitionName);
+        }
+        acquireOne();
+        try {
+            WALIndex wali = walIndex.get();
+            return wali == null || wali.secondaryIndexScan(indexName, fromIndexKey, toIndexKey,
+                (indexKey, prefix, key, timestamp, tombstoned, version, fp, hasValue, value) -> {
+                    if (!hasValue) {
+                        byte[] hydrateRowIndexValue = hydrateRowIndexValue(fp);
+                        RowType rowType = RowType.fromByte(hydrateRowIndexValue[0]);
+                        value = primaryRowMarshaller.valueFromRow(rowType, hydrateRowIndexValue, 1 + 8);
+                    }
+                    return stream.stream(indexKey, prefix, key, value, timestamp, tombstoned, version);
+                });
+        } finally {
+            releaseOne();
+        }
+    }
+
+    public SecondaryIndexes getSecondaryIndexes() {
+        return secondaryIndexes;
+    }
+
+    /**
+     * Probes the index for keys which divide the given range into roughly even sub-ranges. A range spanning several prefixes is split
+     * between prefixes, otherwise it is split between the keys of its one prefix. Rows only present in the delta are not considered.
+     *
+     * @return at most the given number of strictly increasing composed keys inside the range
+     */
+    public List<byte[]> splitKeys(byte[] fromPrefix, byte[] fromKey, byte[] toPrefix, byte[] toKey, int splits) throws Exception {
+        acquireOne();
+        try {
+            WALIndex wali = walIndex.get();
+            if (wali == null || splits <= 0) {
+                return Collections.emptyList();
+            }
+            byte[] first = ceilingKey(wali, fromKey != null ? fromPrefix : null, fromKey != null ? fromKey : EMPTY);
+            if (first == null || toKey != null && KeyUtil.compare(first, WALKey.compose(toPrefix, toKey)) >= 0) {
+                return Collections.emptyList();
+            }
+
+            byte[] firstPrefix = nonNullPrefix(WALKey.rawKeyPrefix(first));
+            List<byte[]> prefixes = KeyRangeSplitter.split(firstPrefix, toKey != null ? nonNullPrefix(toPrefix) : null, splits, prefix -> {
+                byte[] ceiling = ceilingKey(wali, prefix, EMPTY);
+                return ceiling == null ? null : nonNullPrefix(WALKey.rawKeyPrefix(ceiling));
+            });
+            List<byte[]> splitKeys = new ArrayList<>(splits);
+            if (!prefixes.isEmpty()) {
+                for (byte[] prefix : prefixes) {
+                    splitKeys.add(WALKey.compose(prefix, EMPTY));
+                }
+                return splitKeys;
+            }
+
+            byte[] toKeyInPrefix = toKey != null && Arrays.equals(nonNullPrefix(toPrefix), firstPrefix) ? toKey : null;
+            List<byte[]> keys = KeyRangeSplitter.split(WALKey.rawKeyKey(first), toKeyInPrefix, splits, key -> {
+                byte[] ceiling = ceilingKey(wali, firstPrefix, key);
+                return ceiling != null && Arrays.equals(nonNullPrefix(WALKey.rawKeyPrefix(ceiling)), firstPrefix) ? WALKey.rawKeyKey(ceiling) : null;
+            });
+            for (byte[] key : keys) {
+                splitKeys.add(WALKey.compose(firstPrefix, key));
+            }
+            return splitKeys;
+        } finally {
+            releaseOne();
+        }
+    }
+
+    private static byte[] ceilingKey(WALIndex wali, byte[] prefix, byte[] key) throws Exception {
+        byte[][] ceiling = new byte[1][];
+        wali.rangeScan(prefix, key, null, null, (prefix1, key1, timestamp, tombstoned, version, fp, hasValue, value) -> {
+            ceiling[0] = WALKey.compose(prefix1, key1);
+            return false;
+        }, false);
+        return ceiling[0];
+    }
+
+    private static byte[] nonNullPrefix(byte[] prefix) {
+        return prefix == null ? EMPTY : prefix;
+    }
+
     // TODO fix barf
     public TimestampedValue getTimestampedValue(byte[] prefix, byte[] key) throws Exception {
         acquireOne();
@@ -940,39 +1122,131 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
         }
     }
 
+    /**
+     * Looks keys up in batches: each batch is resolved against the index in key order, hydrated in fp order through a single reader
+     * and then streamed back in the order the keys were given.
+     */
     public boolean streamValues(byte[] prefix, UnprefixedWALKeys keys, KeyValueStream keyValueStream) throws Exception {
         acquireOne();
         try {
             WALIndex wali = walIndex.get();
-            return wali == null || wali.getPointers(prefix, keys,
-                (_prefix, key, pointerTimestamp, pointerTombstoned, pointerVersion, pointerFp, pointerHasValue, pointerValue) -> {
-                    if (pointerFp != -1 || pointerHasValue) {
-                        byte[] value;
-                        if (pointerTombstoned) {
-                            value = null;
-                        } else if (pointerHasValue) {
-                            value = pointerValue;
+            if (wali == null) {
+                return true;
+            }
+            List<byte[]> batch = new ArrayList<>();
+            if (!keys.consume(key -> {
+                batch.add(key);
+                if (batch.size() == STREAM_VALUES_BATCH_SIZE) {
+                    boolean result = streamValuesBatch(wali, prefix, batch, keyValueStream);
+                    batch.clear();
+                    return result;
+                }
+                return true;
+            })) {
+                return false;
+            }
+            return batch.isEmpty() || streamValuesBatch(wali, prefix, batch, keyValueStream);
+        } finally {
+            releaseOne();
+        }
+    }
+
+    private boolean streamValuesBatch(WALIndex wali, byte[] prefix, List<byte[]> batch, KeyValueStream keyValueStream) throws Exception {
+        int count = batch.size();
+        Integer[] keyOrder = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            keyOrder[i] = i;
+        }
+        Comparator<byte[]> keyComparator = UnsignedBytes.lexicographicalComparator();
+        Arrays.sort(keyOrder, (o1, o2) -> keyComparator.compare(batch.get(o1), batch.get(o2)));
+
+        long[] timestamps = new long[count];
+        boolean[] tombstones = new boolean[count];
+        long[] versions = new long[count];
+        long[] fps = new long[count];
+        byte[][] values = new byte[count][];
+        Arrays.fill(timestamps, -1);
+        Arrays.fill(versions, -1);
+        Arrays.fill(fps, -1);
+
+        int[] cursor = { 0 };
+        wali.getPointers(prefix,
+            stream -> {
+                for (int i : keyOrder) {
+                    if (!stream.stream(batch.get(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            },
+            (_prefix, key, pointerTimestamp, pointerTombstoned, pointerVersion, pointerFp, pointerHasValue, pointerValue) -> {
+                int i = keyOrder[cursor[0]++];
+                if (pointerFp != -1 || pointerHasValue) {
+                    timestamps[i] = pointerTimestamp;
+                    tombstones[i] = pointerTombstoned;
+                    versions[i] = pointerVersion;
+                    if (!pointerTombstoned) {
+                        if (pointerHasValue) {
+                            values[i] = pointerValue;
                         } else {
-                            byte[] hydrateRowIndexValue = hydrateRowIndexValue(pointerFp);
-                            RowType rowType = RowType.fromByte(hydrateRowIndexValue[0]);
-                            value = primaryRowMarshaller.valueFromRow(rowType, hydrateRowIndexValue, 1 + 8);
+                            fps[i] = pointerFp;
                         }
+                    }
+                }
+                return true;
+            });
 
-                        return keyValueStream.stream(prefix,
-                            key,
-                            value,
-                            pointerTimestamp,
-                            pointerTombstoned,
-                            pointerVersion
-                        );
+        Integer[] fpOrder = new Integer[count];
+        int hydrateCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (fps[i] != -1) {
+                fpOrder[hydrateCount] = i;
+                hydrateCount++;
+            }
+        }
+        if (hydrateCount > 0) {
+            Arrays.sort(fpOrder, 0, hydrateCount, (o1, o2) -> Long.compare(fps[o1], fps[o2]));
+            if (hydratedValueCache != null && cacheHydratedValues) {
+                for (int o = 0; o < hydrateCount; o++) {
+                    int i = fpOrder[o];
+                    byte[] hydrateRowIndexValue = hydrateRowIndexValue(fps[i]);
+                    RowType rowType = RowType.fromByte(hydrateRowIndexValue[0]);
+                    values[i] = primaryRowMarshaller.valueFromRow(rowType, hydrateRowIndexValue, 1 + 8);
+                }
+            } else {
+                int finalHydrateCount = hydrateCount;
+                int[] fpCursor = { 0 };
+                walTx.tx(io -> io.read(amzaStats.getIoStats,
+                    fpStream -> {
+                        long lastFp = -1;
+                        for (int o = 0; o < finalHydrateCount; o++) {
+                            long fp = fps[fpOrder[o]];
+                            if (fp != lastFp) {
+                                lastFp = fp;
+                                if (!fpStream.stream(fp)) {
+                                    return false;
+                                }
+                            }
+                        }
+                        return true;
+                    },
+                    (rowFP, rowTxId, rowType, row) -> {
+                        byte[] value = primaryRowMarshaller.valueFromRow(rowType, row, 0);
+                        while (fpCursor[0] < finalHydrateCount && fps[fpOrder[fpCursor[0]]] == rowFP) {
+                            values[fpOrder[fpCursor[0]]] = value;
+                            fpCursor[0]++;
+                        }
+                        return true;
+                    }));
+            }
+        }
 
-                    } else {
-                        return keyValueStream.stream(prefix, key, null, -1, false, -1);
-                    }
-                });
-        } finally {
-            releaseOne();
+        for (int i = 0; i < count; i++) {
+            if (!keyValueStream.stream(prefix, batch.get(i), values[i], timestamps[i], tombstones[i], versions[i])) {
+                return false;
+            }
         }
+        return true;
     }
 
     public boolean streamPointers(IoStats ioStats, KeyValues keyValues, KeyValuePointerStream stream) throws Exception {
@@ -1059,10 +1333,19 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
         return keyHighwaterTimestamps[highwaterTimestampIndex];
     }
 
+    private void invalidateHydratedValues() {
+        if (hydratedValueCache != null) {
+            hydratedValueGeneration = hydratedValueCache.nextGeneration();
+        }
+    }
+
     //TODO replace with stream!
     private byte[] hydrateRowIndexValue(long indexFP) {
         if (indexFP >= 0) {
             try {
+                if (hydratedValueCache != null && cacheHydratedValues) {
+                    return hydratedValueCache.hydrate(hydratedValueGeneration, indexFP, () -> walTx.tx((io) -> io.readTypeByteTxIdAndRow(indexFP)));
+                }
                 return walTx.tx((io) -> io.readTypeByteTxIdAndRow(indexFP));
             } catch (Exception x) {
                 long length;
@@ -1146,13 +1429,28 @@ public class WALStorage<I extends WALIndex> implements RangeScannable {
         }
     }
 
+    /**
+     * @return the raw WAL from the given transaction onward, or null if the WAL is not loaded or not backed by a file
+     */
+    public WALSnapshot snapshotSince(long sinceTransactionId) throws Exception {
+        acquireOne();
+        try {
+            return walIndex.get() == null ? null : walTx.snapshot(sinceTransactionId);
+        } finally {
+            releaseOne();
+        }
+    }
+
     public void updatedProperties(PartitionProperties partitionProperties) throws Exception {
         acquireOne();
         try {
             //TODO indexClassName transition?
+            cacheHydratedValues = partitionProperties.cacheHydratedValues;
+            secondaryIndexes = SecondaryIndexes.of(partitionProperties.secondaryIndexes);
             WALIndex wali = walIndex.get();
             if (wali != null) {
                 wali.updatedProperties(partitionProperties.indexProperties);
+                wali.updatedSecondaryIndexes(secondaryIndexes);
             }
         } finally {
             releaseOne();
@@ -212,6 +212,50 @@ public class BinaryPrimaryRowMarshaller implements PrimaryRowMarshaller {
             txFpKeyValueStream);
     }
 
+    /**
+     * Decodes a single row that lives at {@code offset} in a shared buffer. Prefix, key and value are read straight out of the buffer and
+     * nothing references it afterwards, so the caller is free to reuse it. The streamed entry is always null.
+     */
+    public boolean fromRow(long txId,
+        long fp,
+        RowType rowType,
+        byte[] buffer,
+        int offset,
+        WALKey.TxFpKeyValueEntryStream<byte[]> txFpKeyValueStream) throws Exception {
+        int o = offset;
+        long timestamp = UIO.bytesLong(buffer, o);
+        o += 8;
+        boolean tombstone = buffer[o] == 1;
+        o++;
+        long version = UIO.bytesLong(buffer, o);
+        o += 8;
+        int valueLength = UIO.bytesInt(buffer, o);
+        o += 4;
+        byte[] value = null;
+        if (valueLength >= 0) {
+            value = uncompress(rowType, buffer, o, valueLength);
+            o += valueLength;
+        }
+        int pkLength = UIO.bytesInt(buffer, o);
+        o += 4;
+        byte[] prefix;
+        byte[] key;
+        if (rowType == RowType.primary) {
+            short prefixLength = UIO.bytesShort(buffer, o);
+            prefix = prefixLength > 0 ? new byte[prefixLength] : null;
+            if (prefix != null) {
+                System.arraycopy(buffer, o + 2, prefix, 0, prefixLength);
+            }
+            key = new byte[pkLength - 2 - prefixLength];
+            System.arraycopy(buffer, o + 2 + prefixLength, key, 0, key.length);
+        } else {
+            byte[] pk = uncompress(rowType, buffer, o, pkLength);
+            prefix = WALKey.rawKeyPrefix(pk);
+            key = WALKey.rawKeyKey(pk);
+        }
+        return txFpKeyValueStream.stream(txId, fp, rowType, prefix, key, true, value, timestamp, tombstone, version, null);
+    }
+
     @Override
     public byte[] valueFromRow(RowType rowType, byte[] row, int offset) throws Exception {
         int o = offset + 8 + 1 + 8;
@@ -265,4 +309,18 @@ public class BinaryPrimaryRowMarshaller implements PrimaryRowMarshaller {
             throw new IllegalArgumentException("uncompressing rowType:" + rowType + " is not supported.");
         }
     }
+
+    private byte[] uncompress(RowType rowType, byte[] bytes, int offset, int length) throws IOException {
+        if (rowType == RowType.primary) {
+            byte[] copy = new byte[length];
+            System.arraycopy(bytes, offset, copy, 0, length);
+            return copy;
+        } else if (rowType == RowType.snappy_primary) {
+            byte[] uncompressed = new byte[Snappy.uncompressedLength(bytes, offset, length)];
+            Snappy.uncompress(bytes, offset, length, uncompressed, 0);
+            return uncompressed;
+        } else {
+            throw new IllegalArgumentException("uncompressing rowType:" + rowType + " is not supported.");
+        }
+    }
 }
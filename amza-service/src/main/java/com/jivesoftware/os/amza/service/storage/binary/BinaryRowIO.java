@@ -4,6 +4,7 @@ import com.google.common.base.Preconditions;
 import com.jivesoftware.os.amza.api.IoStats;
 import com.jivesoftware.os.amza.api.filer.UIO;
 import com.jivesoftware.os.amza.api.scan.RowStream;
+import com.jivesoftware.os.amza.api.stream.FpStream;
 import com.jivesoftware.os.amza.api.stream.Fps;
 import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.wal.RowIO;
@@ -123,6 +124,11 @@ public class BinaryRowIO implements RowIO {
         return rowReader.scan(ioStats, offsetFp, allowRepairs, rowStream);
     }
 
+    @Override
+    public boolean frame(IoStats ioStats, long offsetFp, long chunkSizeInBytes, boolean allowRepairs, FpStream fpStream) throws Exception {
+        return rowReader.frame(ioStats, offsetFp, chunkSizeInBytes, allowRepairs, fpStream);
+    }
+
     @Override
     public long getInclusiveStartOfRow(long transactionId) throws Exception {
         Preconditions.checkState(updatesBetweenLeaps > 0);
@@ -193,7 +199,39 @@ public class BinaryRowIO implements RowIO {
             stream,
             addToLeapCount,
             hardFsyncBeforeLeapBoundary);
-        if (addToLeapCount && updatesBetweenLeaps > 0 && updatesSinceLeap.addAndGet(count) >= updatesBetweenLeaps) {
+        if (addToLeapCount) {
+            addToLeapCount(ioStats, txId, count, hardFsyncBeforeLeapBoundary);
+        }
+        return count;
+    }
+
+    @Override
+    public int writeBatch(IoStats ioStats,
+        int estimatedNumberOfRows,
+        int estimatedSizeInBytes,
+        TxRawRows rows,
+        FpStream fpStream,
+        boolean addToLeapCount,
+        boolean hardFsyncBeforeLeapBoundary) throws Exception {
+        long[] lastTxId = { -1 };
+        int count = rowWriter.writeBatch(ioStats,
+            estimatedNumberOfRows,
+            estimatedSizeInBytes,
+            stream -> rows.consume((txId, rowType, row) -> {
+                lastTxId[0] = Math.max(lastTxId[0], txId);
+                return stream.stream(txId, rowType, row);
+            }),
+            fpStream,
+            addToLeapCount,
+            hardFsyncBeforeLeapBoundary);
+        if (addToLeapCount) {
+            addToLeapCount(ioStats, lastTxId[0], count, hardFsyncBeforeLeapBoundary);
+        }
+        return count;
+    }
+
+    private void addToLeapCount(IoStats ioStats, long txId, int count, boolean hardFsyncBeforeLeapBoundary) throws Exception {
+        if (updatesBetweenLeaps > 0 && updatesSinceLeap.addAndGet(count) >= updatesBetweenLeaps) {
             Preconditions.checkState(initializedLeaps.get(), "Leaps not yet initialized");
             rowWriter.flush(hardFsyncBeforeLeapBoundary);
             LeapFrog latest = latestLeapFrog.get();
@@ -202,7 +240,6 @@ public class BinaryRowIO implements RowIO {
             latestLeapFrog.set(new LeapFrog(leapFp, leaps));
             updatesSinceLeap.set(0);
         }
-        return count;
     }
 
     @Override
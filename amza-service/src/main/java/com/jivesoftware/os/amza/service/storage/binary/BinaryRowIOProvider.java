@@ -7,6 +7,8 @@ import com.jivesoftware.os.amza.api.IoStats;
 import com.jivesoftware.os.amza.service.storage.filer.DiskBackedWALFiler;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -79,6 +81,11 @@ public class BinaryRowIOProvider implements RowIOProvider {
         return new File(dir, name).length();
     }
 
+    @Override
+    public FileChannel openChannel(File dir, String name) throws Exception {
+        return FileChannel.open(new File(dir, name).toPath(), StandardOpenOption.READ);
+    }
+
     @Override
     public File buildKey(File versionedKey, String name) {
         return new File(versionedKey, name);
@@ -18,6 +18,7 @@ package com.jivesoftware.os.amza.service.storage.binary;
 import com.jivesoftware.os.amza.api.filer.IReadable;
 import com.jivesoftware.os.amza.api.filer.UIO;
 import com.jivesoftware.os.amza.api.scan.RowStream;
+import com.jivesoftware.os.amza.api.stream.FpStream;
 import com.jivesoftware.os.amza.api.stream.Fps;
 import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.wal.RowIO.PreTruncationNotifier;
@@ -201,6 +202,56 @@ public class BinaryRowReader implements WALReader {
         return scan(ioStats, offsetFp, allowRepairs, false, 1024 * 1024, null, stream); //TODO config
     }
 
+    @Override
+    public boolean frame(IoStats ioStats, long offsetFp, long chunkSizeInBytes, boolean allowRepairs, FpStream fpStream) throws Exception {
+        long read = 0;
+        try {
+            long fileLength = parent.length();
+            IReadable filer = parent.reader(null, fileLength, false, 1024 * 1024); //TODO config
+            byte[] intLongBuffer = new byte[8];
+            long chunkFp = -1;
+            while (offsetFp < fileLength) {
+                int length = -1;
+                int trailingLength = -1;
+                try {
+                    filer.seek(offsetFp);
+                    length = UIO.readInt(filer, "length", intLongBuffer);
+                    if (length >= 1 + 8 && offsetFp + length + 8 <= fileLength) {
+                        filer.seek(offsetFp + 4 + length);
+                        trailingLength = UIO.readInt(filer, "length", intLongBuffer);
+                    }
+                } catch (IOException x) {
+                    if (!allowRepairs) {
+                        throw x;
+                    }
+                }
+                if (trailingLength < 0 || trailingLength != length) {
+                    if (allowRepairs) {
+                        LOG.warn("Truncating due to corruption while framing");
+                        return truncate(null, offsetFp);
+                    } else {
+                        throw new IOException("Framing terminated prematurely due to a corruption at fp:" + offsetFp
+                            + " length:" + length
+                            + " trailing:" + trailingLength
+                            + " available:" + fileLength
+                            + " in " + parent);
+                    }
+                }
+                if (chunkFp == -1 || offsetFp - chunkFp >= chunkSizeInBytes) {
+                    chunkFp = offsetFp;
+                    if (!fpStream.stream(offsetFp)) {
+                        return false;
+                    }
+                }
+                read += 8;
+                offsetFp += 4 + length + 4;
+            }
+            return true;
+        } finally {
+            ioStats.read.add(read);
+        }
+    }
+
     private boolean scan(IoStats ioStats,
         long offsetFp,
         boolean allowRepairs,
@@ -17,6 +17,7 @@ package com.jivesoftware.os.amza.service.storage.binary;
 
 import com.jivesoftware.os.amza.api.filer.IAppendOnly;
 import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.stream.FpStream;
 import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.wal.WALWriter;
 import com.jivesoftware.os.amza.api.filer.HeapFiler;
@@ -51,15 +52,57 @@ public class BinaryRowWriter implements WALWriter {
         TLongArrayList offsets = new TLongArrayList();
         rows.consume(row -> {
             offsets.add(memoryFiler.getFilePointer());
-            int length = (1 + 8) + row.length;
-            UIO.writeInt(memoryFiler, length, "length", lengthBuffer);
-            UIO.writeByte(memoryFiler, rowType.toByte(), "rowType");
-            UIO.writeLong(memoryFiler, txId, "txId", lengthBuffer);
-            memoryFiler.write(row, 0, row.length);
-            UIO.writeInt(memoryFiler, length, "length", lengthBuffer);
+            writeRow(memoryFiler, lengthBuffer, txId, rowType, row);
             return true;
         });
 
+        long startFp = append(ioStats, memoryFiler);
+
+        TLongIterator iter = offsets.iterator();
+        indexableKeys.consume((prefix, key, value, valueTimestamp, valueTombstones, valueVersion)
+            -> stream.stream(txId, prefix, key, value, valueTimestamp, valueTombstones, valueVersion, startFp + iter.next()));
+        return offsets.size();
+    }
+
+    @Override
+    public int writeBatch(IoStats ioStats,
+        int estimatedNumberOfRows,
+        int estimatedSizeInBytes,
+        TxRawRows rows,
+        FpStream fpStream,
+        boolean addToLeapCount,
+        boolean hardFsyncBeforeLeapBoundary) throws Exception {
+
+        byte[] lengthBuffer = new byte[8];
+        HeapFiler memoryFiler = new HeapFiler((estimatedNumberOfRows * (4 + 1 + 8 + 4)) + estimatedSizeInBytes);
+        TLongArrayList offsets = new TLongArrayList();
+        rows.consume((txId, rowType, row) -> {
+            offsets.add(memoryFiler.getFilePointer());
+            writeRow(memoryFiler, lengthBuffer, txId, rowType, row);
+            return true;
+        });
+
+        long startFp = append(ioStats, memoryFiler);
+
+        TLongIterator iter = offsets.iterator();
+        while (iter.hasNext()) {
+            if (!fpStream.stream(startFp + iter.next())) {
+                break;
+            }
+        }
+        return offsets.size();
+    }
+
+    private static void writeRow(HeapFiler memoryFiler, byte[] lengthBuffer, long txId, RowType rowType, byte[] row) throws IOException {
+        int length = (1 + 8) + row.length;
+        UIO.writeInt(memoryFiler, length, "length", lengthBuffer);
+        UIO.writeByte(memoryFiler, rowType.toByte(), "rowType");
+        UIO.writeLong(memoryFiler, txId, "txId", lengthBuffer);
+        memoryFiler.write(row, 0, row.length);
+        UIO.writeInt(memoryFiler, length, "length", lengthBuffer);
+    }
+
+    private long append(IoStats ioStats, HeapFiler memoryFiler) throws IOException {
         long l = memoryFiler.length();
         long startFp;
         ioStats.wrote.add(l);
@@ -68,11 +111,7 @@ public class BinaryRowWriter implements WALWriter {
             appendOnly.write(memoryFiler.leakBytes(), 0, (int) l);
             appendOnly.flush(false); // TODO expose to config
         }
-
-        TLongIterator iter = offsets.iterator();
-        indexableKeys.consume((prefix, key, value, valueTimestamp, valueTombstones, valueVersion)
-            -> stream.stream(txId, prefix, key, value, valueTimestamp, valueTombstones, valueVersion, startFp + iter.next()));
-        return offsets.size();
+        return startFp;
     }
 
     @Override
@@ -11,8 +11,11 @@ import com.jivesoftware.os.amza.api.scan.CompactionWALIndex;
 import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.wal.PrimaryRowMarshaller;
 import com.jivesoftware.os.amza.api.wal.RowIO;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
 import com.jivesoftware.os.amza.api.wal.WALCompactionStats;
+import com.jivesoftware.os.amza.api.wal.WALCompactionThrottle;
 import com.jivesoftware.os.amza.api.wal.WALIndexProvider;
+import com.jivesoftware.os.amza.api.wal.WALSnapshot;
 import com.jivesoftware.os.amza.api.wal.WALTx;
 import com.jivesoftware.os.amza.api.wal.WALWriter.IndexableKeys;
 import com.jivesoftware.os.amza.api.wal.WALWriter.RawRows;
@@ -20,6 +23,7 @@ import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -36,6 +40,7 @@ public class BinaryWALTx implements WALTx {
 
     private static final String SUFFIX = ".kvt";
     private static final int NUM_PERMITS = 1024;
+    static final int THROTTLE_EVERY_N_BYTES = 64 * 1024;
 
     private final Semaphore compactionLock = new Semaphore(NUM_PERMITS, true);
     private final String name;
@@ -109,6 +114,29 @@ public class BinaryWALTx implements WALTx {
         }
     }
 
+    @Override
+    public WALSnapshot snapshot(long sinceTransactionId) throws Exception {
+        compactionLock.acquire();
+        try {
+            RowIO io = rowIO;
+            FileChannel channel = ioProvider.openChannel(io.getKey(), io.getName());
+            if (channel == null) {
+                return null;
+            }
+            try {
+                io.flush(false);
+                long offset = io.getInclusiveStartOfRow(sinceTransactionId);
+                long endOfLastRow = io.getEndOfLastRow();
+                return new WALSnapshot(channel, offset, Math.max(0, endOfLastRow - offset));
+            } catch (Exception x) {
+                channel.close();
+                throw x;
+            }
+        } finally {
+            compactionLock.release();
+        }
+    }
+
     @Override
     public void flush(boolean fsync) throws Exception {
         compactionLock.acquire();
@@ -134,12 +162,14 @@ public class BinaryWALTx implements WALTx {
     public <I extends CompactableWALIndex> I openIndex(IoStats ioStats, File baseKey, WALIndexProvider<I> walIndexProvider,
         VersionedPartitionName versionedPartitionName,
         int maxValueSizeInIndex,
+        SecondaryIndexes secondaryIndexes,
         int stripe) throws Exception {
         compactionLock.acquire(NUM_PERMITS);
         try {
             initIO(baseKey);
 
             I walIndex = walIndexProvider.createIndex(versionedPartitionName, maxValueSizeInIndex, stripe);
+            walIndex.updatedSecondaryIndexes(secondaryIndexes);
             if (!walIndex.exists()) {
                 rebuildIndex(ioStats, versionedPartitionName, walIndex, true);
             }
@@ -232,6 +262,25 @@ public class BinaryWALTx implements WALTx {
         }
     }
 
+    @Override
+    public void install(File baseKey, File walFile) throws Exception {
+        File key = ioProvider.versionedKey(baseKey, AmzaVersionConstants.LATEST_VERSION);
+        compactionLock.acquire(NUM_PERMITS);
+        try {
+            if (rowIO != null) {
+                rowIO.close();
+                rowIO = null;
+            }
+            ioProvider.delete(key, name);
+            if (!ioProvider.ensureKey(key)) {
+                throw new IOException("Failed trying to ensure key " + key);
+            }
+            ioProvider.moveTo(walFile.getParentFile(), walFile.getName(), key, name);
+        } finally {
+            compactionLock.release(NUM_PERMITS);
+        }
+    }
+
     @Override
     public void hackTruncation(int numBytes) {
         rowIO.hackTruncation(numBytes);
@@ -240,6 +289,7 @@ public class BinaryWALTx implements WALTx {
     @Override
     public <I extends CompactableWALIndex> Compacted<I> compact(IoStats ioStats,
         WALCompactionStats compactionStats,
+        WALCompactionThrottle compactionThrottle,
         File fromBaseKey,
         File toBaseKey,
         RowType compactToRowType,
@@ -294,6 +344,7 @@ public class BinaryWALTx implements WALTx {
                     compactionStats.add("compact", 1);
                     compactionStats.start("compact-" + compactionPass);
                     carryOverEndOfMerge = compact(ioStats,
+                        compactionThrottle,
                         compactToRowType,
                         prevEndOfLastRow,
                         endOfLastRow,
@@ -346,6 +397,7 @@ public class BinaryWALTx implements WALTx {
                 compactionStats.start("completion-compact-" + completionPass[0]);
                 try {
                     compact(ioStats,
+                        WALCompactionThrottle.NO_THROTTLE,
                         compactToRowType,
                         finalEndOfLastRow,
                         Long.MAX_VALUE,
@@ -462,6 +514,7 @@ public class BinaryWALTx implements WALTx {
     }
 
     private byte[] compact(IoStats ioStats,
+        WALCompactionThrottle compactionThrottle,
         RowType compactToRowType,
         long startAtRow,
         long endOfLastRow,
@@ -491,6 +544,7 @@ public class BinaryWALTx implements WALTx {
         List<CompactionFlushable> flushables = new ArrayList<>();
         MutableInt estimatedSizeInBytes = new MutableInt(0);
         MutableLong flushTxId = new MutableLong(-1);
+        MutableLong unthrottledBytes = new MutableLong(0);
         byte[][] keepCarryingOver = {carryOverEndOfMerge};
         primaryRowMarshaller.fromRows(
             txFpRowStream -> rowIO.scan(ioStats, startAtRow, false,
@@ -498,6 +552,7 @@ public class BinaryWALTx implements WALTx {
                     if (rowFP >= endOfLastRow) {
                         return false;
                     }
+                    unthrottledBytes.add(row.length);
                     if (rowType.isDiscardedDuringCompactions()) {
                         return true;
                     }
@@ -513,6 +568,11 @@ public class BinaryWALTx implements WALTx {
                                 flushables,
                                 flushTxId.longValue());
                             flushables.clear();
+                            unthrottledBytes.add(estimatedSizeInBytes.intValue());
+                        }
+                        if (unthrottledBytes.longValue() >= THROTTLE_EVERY_N_BYTES) {
+                            compactionThrottle.throttle(unthrottledBytes.longValue());
+                            unthrottledBytes.setValue(0);
                         }
                         estimatedSizeInBytes.setValue(0);
                         flushTxId.setValue(rowTxId);
@@ -575,6 +635,10 @@ public class BinaryWALTx implements WALTx {
                 estimatedSizeInBytes.intValue(),
                 flushables,
                 flushTxId.longValue());
+            unthrottledBytes.add(estimatedSizeInBytes.intValue());
+        }
+        if (unthrottledBytes.longValue() > 0) {
+            compactionThrottle.throttle(unthrottledBytes.longValue());
         }
 
         if (endOfMerge != null && carryOverEndOfMerge != null) {
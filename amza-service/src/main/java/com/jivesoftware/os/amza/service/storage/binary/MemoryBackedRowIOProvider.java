@@ -7,6 +7,7 @@ import com.jivesoftware.os.amza.service.filer.MultiAutoGrowingByteBufferBackedFi
 import com.jivesoftware.os.amza.service.storage.filer.MemoryBackedWALFiler;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -105,4 +106,9 @@ public class MemoryBackedRowIOProvider implements RowIOProvider {
     public long sizeInBytes(File key, String name) {
         return 0;
     }
+
+    @Override
+    public FileChannel openChannel(File key, String name) throws Exception {
+        return null;
+    }
 }
@@ -3,6 +3,7 @@ package com.jivesoftware.os.amza.service.storage.binary;
 import com.jivesoftware.os.amza.api.IoStats;
 import com.jivesoftware.os.amza.api.wal.RowIO;
 import java.io.File;
+import java.nio.channels.FileChannel;
 import java.util.List;
 
 /**
@@ -27,4 +28,6 @@ public interface RowIOProvider {
     boolean exists(File key, String name);
 
     long sizeInBytes(File key, String name);
+
+    FileChannel openChannel(File key, String name) throws Exception;
 }
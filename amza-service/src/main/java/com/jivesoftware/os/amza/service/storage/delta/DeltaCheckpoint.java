@@ -0,0 +1,176 @@
+package com.jivesoftware.os.amza.service.storage.delta;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.wal.WALPointer;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sidecar snapshot of a stripe's {@link PartitionDelta} indexes covering every row of a {@link DeltaWAL} before an end fp. A load that
+ * finds a checkpoint for its wal restores the indexes from it and only replays the rows at or beyond the end fp.
+ */
+class DeltaCheckpoint {
+
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+    private static final byte VERSION = 1;
+
+    final long walId;
+    final long endFp;
+    final Map<VersionedPartitionName, Partition> partitions;
+
+    private DeltaCheckpoint(long walId, long endFp, Map<VersionedPartitionName, Partition> partitions) {
+        this.walId = walId;
+        this.endFp = endFp;
+        this.partitions = partitions;
+    }
+
+    static class Partition {
+
+        final List<byte[]> walKeys = Lists.newArrayList();
+        final List<WALPointer> pointers = Lists.newArrayList();
+        final List<TxFps> txFps = Lists.newArrayList();
+
+        long rowCount() {
+            long count = 0;
+            for (TxFps t : txFps) {
+                count += t.fps.length;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Writes to a temporary file which is synced and then moved into place, so a reader only ever sees a complete checkpoint.
+     */
+    static void write(File file, long walId, long endFp, Map<VersionedPartitionName, PartitionDelta> deltas) throws Exception {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, 1024 * 1024));
+            dos.writeByte(VERSION);
+            dos.writeLong(walId);
+            dos.writeLong(endFp);
+            for (Map.Entry<VersionedPartitionName, PartitionDelta> entry : deltas.entrySet()) {
+                dos.writeBoolean(true);
+                writeBytes(dos, entry.getKey().toBytes());
+                PartitionDelta delta = entry.getValue();
+                delta.checkpointPointers(endFp,
+                    (walKey, pointer) -> {
+                        dos.writeBoolean(true);
+                        writeBytes(dos, walKey);
+                        dos.writeLong(pointer.getFp());
+                        dos.writeLong(pointer.getTimestampId());
+                        dos.writeBoolean(pointer.getTombstoned());
+                        dos.writeLong(pointer.getVersion());
+                        dos.writeBoolean(pointer.getHasValue());
+                        writeBytes(dos, pointer.getValue());
+                        return true;
+                    });
+                dos.writeBoolean(false);
+                delta.checkpointTxFps(endFp,
+                    txFps -> {
+                        dos.writeBoolean(true);
+                        writeBytes(dos, txFps.prefix);
+                        dos.writeLong(txFps.txId);
+                        long[] fps = txFps.fps;
+                        dos.writeInt(fps.length);
+                        for (long fp : fps) {
+                            dos.writeLong(fp);
+                        }
+                        return true;
+                    });
+                dos.writeBoolean(false);
+            }
+            dos.writeBoolean(false);
+            dos.writeLong(endFp);
+            dos.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the checkpoint, or null if the file is missing, for a different wal, or incomplete
+     */
+    static DeltaCheckpoint read(File file, long walId, AmzaInterner amzaInterner) throws Exception {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024))) {
+            if (dis.readByte() != VERSION || dis.readLong() != walId) {
+                return null;
+            }
+            long endFp = dis.readLong();
+            Map<VersionedPartitionName, Partition> partitions = Maps.newHashMap();
+            while (dis.readBoolean()) {
+                byte[] versionedPartitionNameBytes = readBytes(dis);
+                Partition partition = new Partition();
+                partitions.put(amzaInterner.internVersionedPartitionName(versionedPartitionNameBytes, 0, versionedPartitionNameBytes.length), partition);
+                while (dis.readBoolean()) {
+                    partition.walKeys.add(readBytes(dis));
+                    long fp = dis.readLong();
+                    long timestamp = dis.readLong();
+                    boolean tombstoned = dis.readBoolean();
+                    long version = dis.readLong();
+                    boolean hasValue = dis.readBoolean();
+                    byte[] value = readBytes(dis);
+                    partition.pointers.add(new WALPointer(fp, timestamp, tombstoned, version, hasValue, value));
+                }
+                while (dis.readBoolean()) {
+                    byte[] prefix = readBytes(dis);
+                    long txId = dis.readLong();
+                    long[] fps = new long[dis.readInt()];
+                    for (int i = 0; i < fps.length; i++) {
+                        fps[i] = dis.readLong();
+                    }
+                    partition.txFps.add(new TxFps(prefix, txId, fps));
+                }
+            }
+            if (dis.readLong() != endFp) {
+                return null;
+            }
+            return new DeltaCheckpoint(walId, endFp, partitions);
+        } catch (IOException | NegativeArraySizeException x) {
+            LOG.warn("Ignored unreadable checkpoint {}", new Object[] { file }, x);
+            return null;
+        }
+    }
+
+    private static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            dos.writeInt(-1);
+        } else {
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return bytes;
+    }
+
+    interface PointerStream {
+
+        boolean stream(byte[] walKey, WALPointer pointer) throws Exception;
+    }
+}
@@ -0,0 +1,34 @@
+package com.jivesoftware.os.amza.service.storage.delta;
+
+import com.jivesoftware.os.amza.api.wal.WALPointer;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The unmerged key to pointer index held by a {@link PartitionDelta}. Keys are composed prefix + key. There is only ever one writer at a time
+ * but readers are concurrent.
+ */
+public interface DeltaIndex {
+
+    WALPointer get(byte[] walKey);
+
+    void put(byte[] walKey, long fp, long timestamp, boolean tombstoned, long version, boolean hasValue, byte[] value);
+
+    long size();
+
+    /**
+     * Ordered iteration from inclusive to exclusive. Either bound may be null.
+     */
+    Iterator<Map.Entry<byte[], WALPointer>> iterator(byte[] from, byte[] to);
+
+    /**
+     * Frees whatever the index holds outside the heap. Only called once the delta WAL backing the index is dereferenced and destroyed, so no
+     * reader can still reach it.
+     */
+    void release();
+
+    interface DeltaIndexProvider {
+
+        DeltaIndex create();
+    }
+}
@@ -5,7 +5,6 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.jivesoftware.os.amza.api.AmzaInterner;
 import com.jivesoftware.os.amza.api.CompareTimestampVersions;
 import com.jivesoftware.os.amza.api.DeltaOverCapacityException;
@@ -19,6 +18,7 @@ import com.jivesoftware.os.amza.api.scan.RowStream;
 import com.jivesoftware.os.amza.api.scan.RowsChanged;
 import com.jivesoftware.os.amza.api.scan.Scannable;
 import com.jivesoftware.os.amza.api.stream.Commitable;
+import com.jivesoftware.os.amza.api.stream.IndexedKeyValueStream;
 import com.jivesoftware.os.amza.api.stream.KeyContainedStream;
 import com.jivesoftware.os.amza.api.stream.KeyValuePointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyValueStream;
@@ -28,6 +28,7 @@ import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.wal.KeyUtil;
 import com.jivesoftware.os.amza.api.wal.KeyedTimestampId;
 import com.jivesoftware.os.amza.api.wal.PrimaryRowMarshaller;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
 import com.jivesoftware.os.amza.api.wal.WALCompactionStats;
 import com.jivesoftware.os.amza.api.wal.WALHighwater;
 import com.jivesoftware.os.amza.api.wal.WALIndex;
@@ -56,6 +57,7 @@ import com.jivesoftware.os.amza.service.take.HighwaterStorage;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
 import com.jivesoftware.os.routing.bird.health.checkers.SickThreads;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -65,10 +67,14 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -96,14 +102,29 @@ public class DeltaStripeWALStorage {
     private final WALIndexProviderRegistry walIndexProviderRegistry;
     private final long mergeAfterNUpdates;
     private final ExecutorService mergeDeltaThreads;
+    private final DeltaIndex.DeltaIndexProvider deltaIndexProvider;
+    private final ExecutorService loadDeltaThreads;
+    private final int loadDeltaParallelism;
+    private final long loadDeltaChunkSizeInBytes;
+    private final long checkpointIntervalInMillis;
+    private final int backPressureAtPercentOfCapacity;
+    private final long backPressureMaxDelayMillis;
+    private final int reservedPercentOfCapacity;
+    private final WriteQuotas writeQuotas;
 
     private final Object awakeCompactionsLock = new Object();
     private final AtomicReference<DeltaWAL> deltaWAL = new AtomicReference<>();
     private final Map<VersionedPartitionName, PartitionDelta> partitionDeltas = Maps.newConcurrentMap();
     private final Object oneWriterAtATimeLock = new Object();
+    private final Queue<GroupCommit> pendingGroupCommits = new ConcurrentLinkedQueue<>();
     private final Semaphore tickleMeElmophore = new Semaphore(numTickleMeElmaphore, true);
     private final AtomicLong updateSinceLastMerge = new AtomicLong();
+    private final Map<VersionedPartitionName, AtomicLong> partitionUpdatesSinceLastMerge = Maps.newConcurrentMap();
     private final AtomicLong merging = new AtomicLong(0);
+    private volatile Future<?> deferredMerge;
+    private volatile long lastCheckpointTimestamp = System.currentTimeMillis();
+    private volatile long lastCheckpointWALId = -1;
+    private volatile long lastCheckpointEndFp = -1;
 
     private final Reentrant reentrant = new Reentrant();
 
@@ -131,7 +152,16 @@ public class DeltaStripeWALStorage {
         boolean useHighwaterTxId,
         WALIndexProviderRegistry walIndexProviderRegistry,
         long mergeAfterNUpdates,
-        ExecutorService mergeDeltaThreads) {
+        ExecutorService mergeDeltaThreads,
+        DeltaIndex.DeltaIndexProvider deltaIndexProvider,
+        ExecutorService loadDeltaThreads,
+        int loadDeltaParallelism,
+        long loadDeltaChunkSizeInBytes,
+        long checkpointIntervalInMillis,
+        int backPressureAtPercentOfCapacity,
+        long backPressureMaxDelayMillis,
+        int reservedPercentOfCapacity,
+        WriteQuotas writeQuotas) {
 
         this.amzaInterner = amzaInterner;
         this.index = index;
@@ -146,6 +176,15 @@ public class DeltaStripeWALStorage {
         this.walIndexProviderRegistry = walIndexProviderRegistry;
         this.mergeAfterNUpdates = mergeAfterNUpdates;
         this.mergeDeltaThreads = mergeDeltaThreads;
+        this.deltaIndexProvider = deltaIndexProvider;
+        this.loadDeltaThreads = loadDeltaThreads;
+        this.loadDeltaParallelism = loadDeltaParallelism;
+        this.loadDeltaChunkSizeInBytes = loadDeltaChunkSizeInBytes;
+        this.checkpointIntervalInMillis = checkpointIntervalInMillis;
+        this.backPressureAtPercentOfCapacity = backPressureAtPercentOfCapacity;
+        this.backPressureMaxDelayMillis = backPressureMaxDelayMillis;
+        this.reservedPercentOfCapacity = reservedPercentOfCapacity;
+        this.writeQuotas = writeQuotas;
     }
 
     public int getId() {
@@ -199,6 +238,38 @@ public class DeltaStripeWALStorage {
         }
     }
 
+    /**
+     * Installs a snapshot as the partition's WAL while the stripe's writers are held off, provided nothing for the partition is in the delta
+     * yet. The installed rows are marked merged as of the previous delta WAL so a restart does not expect to find them in the current one.
+     *
+     * @return the highest txId of the installed snapshot, or -1 if it was not installed
+     */
+    public long installSnapshot(VersionedPartitionName versionedPartitionName,
+        PartitionStore partitionStore,
+        File baseKey,
+        File snapshotFile,
+        int stripe) throws Exception {
+        writeAcquireAll();
+        try {
+            PartitionDelta partitionDelta = partitionDeltas.get(versionedPartitionName);
+            if (partitionDelta != null && partitionDelta.highestTxId() > -1) {
+                return -1;
+            }
+            DeltaWAL wal = deltaWAL.get();
+            if (wal == null) {
+                throw new IllegalStateException("Delta WAL is currently unavailable.");
+            }
+            if (!partitionStore.installSnapshot(baseKey, snapshotFile, wal.getPrevId(), stripe)) {
+                return -1;
+            }
+            long highestTxId = partitionStore.highestTxId();
+            highwaterStorage.setLocal(versionedPartitionName, highestTxId);
+            return highestTxId;
+        } finally {
+            writeReleaseAll();
+        }
+    }
+
     public void load(IoStats ioStats, PartitionIndex partitionIndex,
         VersionedPartitionProvider versionedPartitionProvider,
         CurrentVersionProvider currentVersionProvider,
@@ -219,66 +290,24 @@ public class DeltaStripeWALStorage {
                         if (prevWAL != null) {
                             Preconditions.checkState(currentWAL.getPrevId() == prevWAL.getId(),
                                 "Delta WALs were not contiguous, %s->%s", currentWAL.getPrevId(), prevWAL.getId());
-                            mergeDelta(ioStats, compactionStats, partitionIndex, versionedPartitionProvider, currentVersionProvider, prevWAL, true,
-                                () -> currentWAL);
+                            if (loadDeltaThreads != null && i == deltaWALs.size() - 1) {
+                                deferMergeDelta(ioStats, partitionIndex, versionedPartitionProvider, currentVersionProvider, prevWAL, currentWAL);
+                            } else {
+                                mergeDelta(ioStats, compactionStats, partitionIndex, versionedPartitionProvider, currentVersionProvider, prevWAL, true,
+                                    () -> currentWAL);
+                            }
                         }
                         deltaWAL.set(currentWAL);
-                        Set<VersionedPartitionName> accepted = Sets.newHashSet();
-                        Set<VersionedPartitionName> rejected = Sets.newHashSet();
-                        WALKey.decompose(
-                            (WALKey.TxFpRawKeyValueEntries<VersionedPartitionName>) txRawKeyEntryStream -> primaryRowMarshaller.fromRows(
-                                txFpRowStream -> {
-                                    currentWAL.load(ioStats, (rowFP, rowTxId, rowType, rawRow) -> {
-                                        if (rowType.isPrimary()) {
-                                            if (!txFpRowStream.stream(rowTxId, rowFP, rowType, rawRow)) {
-                                                return false;
-                                            }
-                                        }
-                                        return true;
-                                    });
-                                    return true;
-                                },
-                                (rowTxId, rowFP, rowType, prefix, key, hasValue, value, valueTimestamp, valueTombstoned, valueVersion, row) -> {
-                                    VersionedPartitionName versionedPartitionName = amzaInterner.internVersionedPartitionName(prefix, 0, prefix.length);
-                                    try {
-                                        boolean acceptable;
-                                        if (accepted.contains(versionedPartitionName)) {
-                                            acceptable = true;
-                                        } else if (rejected.contains(versionedPartitionName)) {
-                                            acceptable = false;
-                                        } else {
-                                            acceptable = currentVersionProvider.isCurrentVersion(versionedPartitionName);
-                                            if (acceptable) {
-                                                accepted.add(versionedPartitionName);
-                                            } else {
-                                                rejected.add(versionedPartitionName);
-                                            }
-                                        }
-                                        return !acceptable || txRawKeyEntryStream.stream(rowTxId, rowFP, rowType, key,
-                                            hasValue, value, valueTimestamp, valueTombstoned, valueVersion, versionedPartitionName);
-                                    } catch (PropertiesNotPresentException e) {
-                                        LOG.warn("Properties not available on load for {}", versionedPartitionName);
-                                        return true;
-                                    } catch (NotARingMemberException e) {
-                                        LOG.warn("Not a ring member for {}", versionedPartitionName);
-                                        return true;
-                                    }
-                                }),
-                            (txId, fp, rowType, prefix, key, hasValue, value, valueTimestamp, valueTombstoned, valueVersion, versionedPartitionName) -> {
-                                acquireOne();
-                                try {
-                                    return txPartitionDelta(versionedPartitionName, delta -> {
-                                        // delta is pristine, no need to check timestamps and versions
-                                        byte[] deltaValue = UIO.readByteArray(value, 0, "value");
-                                        delta.put(fp, prefix, key, deltaValue, valueTimestamp, valueTombstoned, valueVersion);
-                                        delta.onLoadAppendTxFp(prefix, txId, fp);
-                                        updateSinceLastMerge.incrementAndGet();
-                                        return true;
-                                    });
-                                } finally {
-                                    releaseOne();
-                                }
-                            });
+                        long checkpointEndFp = loadCheckpoint(currentVersionProvider, currentWAL);
+                        if (checkpointEndFp >= 0) {
+                            loadRows(rowStream -> currentWAL.load(ioStats, checkpointEndFp, rowStream), Maps.newHashMap(), currentVersionProvider,
+                                primaryRowMarshaller, applyLoadedRows());
+                        } else if (loadDeltaThreads != null) {
+                            loadInParallel(ioStats, currentVersionProvider, primaryRowMarshaller, currentWAL);
+                        } else {
+                            loadRows(rowStream -> currentWAL.load(ioStats, rowStream), Maps.newHashMap(), currentVersionProvider, primaryRowMarshaller,
+                                applyLoadedRows());
+                        }
                     }
                 }
             }
@@ -297,6 +326,242 @@ public class DeltaStripeWALStorage {
         }
     }
 
+    private WALKey.TxFpKeyValueEntryStream<VersionedPartitionName> applyLoadedRows() {
+        return (txId, fp, rowType, prefix, key, hasValue, value, valueTimestamp, valueTombstoned, valueVersion, versionedPartitionName) -> {
+            acquireOne();
+            try {
+                return txPartitionDelta(versionedPartitionName, delta -> {
+                    // delta is pristine, no need to check timestamps and versions
+                    byte[] deltaValue = UIO.readByteArray(value, 0, "value");
+                    delta.put(fp, prefix, key, deltaValue, valueTimestamp, valueTombstoned, valueVersion);
+                    delta.onLoadAppendTxFp(prefix, txId, fp);
+                    updateSinceLastMerge.incrementAndGet();
+                    return true;
+                });
+            } finally {
+                releaseOne();
+            }
+        };
+    }
+
+    /**
+     * Restores the deltas from the wal's checkpoint if it has a usable one.
+     *
+     * @return the fp from which the remaining rows must be replayed, or -1 if the whole wal must be loaded
+     */
+    private long loadCheckpoint(CurrentVersionProvider currentVersionProvider, DeltaWAL wal) throws Exception {
+        DeltaCheckpoint checkpoint = DeltaCheckpoint.read(deltaWALFactory.checkpointFile(wal), wal.getId(), amzaInterner);
+        if (checkpoint == null) {
+            return -1;
+        }
+        long walLength = wal.length();
+        if (checkpoint.endFp > walLength) {
+            LOG.warn("Ignored checkpoint for delta stripe:{} through fp:{} beyond wal length:{}", index, checkpoint.endFp, walLength);
+            return -1;
+        }
+        for (Entry<VersionedPartitionName, DeltaCheckpoint.Partition> entry : checkpoint.partitions.entrySet()) {
+            VersionedPartitionName versionedPartitionName = entry.getKey();
+            try {
+                if (!currentVersionProvider.isCurrentVersion(versionedPartitionName)) {
+                    continue;
+                }
+            } catch (PropertiesNotPresentException e) {
+                LOG.warn("Properties not available on load for {}", versionedPartitionName);
+                continue;
+            } catch (NotARingMemberException e) {
+                LOG.warn("Not a ring member for {}", versionedPartitionName);
+                continue;
+            }
+            DeltaCheckpoint.Partition partition = entry.getValue();
+            txPartitionDelta(versionedPartitionName, delta -> {
+                delta.restore(partition);
+                return true;
+            });
+            updateSinceLastMerge.addAndGet(partition.rowCount());
+        }
+        lastCheckpointWALId = wal.getId();
+        lastCheckpointEndFp = checkpoint.endFp;
+        LOG.info("Restored delta stripe:{} from checkpoint through fp:{} of {}", index, checkpoint.endFp, walLength);
+        return checkpoint.endFp;
+    }
+
+    public boolean checkpointable() {
+        return checkpointIntervalInMillis > 0 && System.currentTimeMillis() - lastCheckpointTimestamp >= checkpointIntervalInMillis;
+    }
+
+    /**
+     * Writes a checkpoint of every delta through the current end of the wal. The end fp is captured under the writer lock, where every
+     * appended row has also been applied to its delta, and holding a write permit keeps a merge from swapping the wal underneath us.
+     */
+    public void checkpoint() throws Exception {
+        writeAcquireOne();
+        try {
+            lastCheckpointTimestamp = System.currentTimeMillis();
+            DeltaWAL wal;
+            long endFp;
+            synchronized (oneWriterAtATimeLock) {
+                wal = deltaWAL.get();
+                if (wal == null) {
+                    return;
+                }
+                endFp = wal.length();
+            }
+            if (wal.getId() == lastCheckpointWALId && endFp == lastCheckpointEndFp) {
+                return;
+            }
+            Map<VersionedPartitionName, PartitionDelta> deltas;
+            synchronized (partitionDeltas) {
+                deltas = Maps.newHashMap(partitionDeltas);
+            }
+            long start = System.currentTimeMillis();
+            DeltaCheckpoint.write(deltaWALFactory.checkpointFile(wal), wal.getId(), endFp, deltas);
+            lastCheckpointWALId = wal.getId();
+            lastCheckpointEndFp = endFp;
+            LOG.info("Checkpointed delta stripe:{} partitions:{} through fp:{} in {} ms", index, deltas.size(), endFp, System.currentTimeMillis() - start);
+        } finally {
+            writeReleaseOne();
+        }
+    }
+
+    private interface WALRows {
+        void load(RowStream rowStream) throws Exception;
+    }
+
+    private void loadRows(WALRows walRows,
+        Map<VersionedPartitionName, Boolean> acceptance,
+        CurrentVersionProvider currentVersionProvider,
+        PrimaryRowMarshaller primaryRowMarshaller,
+        WALKey.TxFpKeyValueEntryStream<VersionedPartitionName> stream) throws Exception {
+
+        WALKey.decompose(
+            (WALKey.TxFpRawKeyValueEntries<VersionedPartitionName>) txRawKeyEntryStream -> primaryRowMarshaller.fromRows(
+                txFpRowStream -> {
+                    walRows.load((rowFP, rowTxId, rowType, rawRow) -> {
+                        if (rowType.isPrimary()) {
+                            if (!txFpRowStream.stream(rowTxId, rowFP, rowType, rawRow)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    });
+                    return true;
+                },
+                (rowTxId, rowFP, rowType, prefix, key, hasValue, value, valueTimestamp, valueTombstoned, valueVersion, row) -> {
+                    VersionedPartitionName versionedPartitionName = amzaInterner.internVersionedPartitionName(prefix, 0, prefix.length);
+                    try {
+                        Boolean acceptable = acceptance.get(versionedPartitionName);
+                        if (acceptable == null) {
+                            acceptable = currentVersionProvider.isCurrentVersion(versionedPartitionName);
+                            acceptance.put(versionedPartitionName, acceptable);
+                        }
+                        return !acceptable || txRawKeyEntryStream.stream(rowTxId, rowFP, rowType, key,
+                            hasValue, value, valueTimestamp, valueTombstoned, valueVersion, versionedPartitionName);
+                    } catch (PropertiesNotPresentException e) {
+                        LOG.warn("Properties not available on load for {}", versionedPartitionName);
+                        return true;
+                    } catch (NotARingMemberException e) {
+                        LOG.warn("Not a ring member for {}", versionedPartitionName);
+                        return true;
+                    }
+                }),
+            stream);
+    }
+
+    /**
+     * Splits the wal into chunks along its row framing and decodes a wave of chunks concurrently into per partition rows, then applies
+     * each partition's rows to its delta concurrently. Waves are applied in wal order so every delta sees its rows in fp order, and only
+     * one wave of decoded rows is held in memory at a time.
+     */
+    private void loadInParallel(IoStats ioStats,
+        CurrentVersionProvider currentVersionProvider,
+        PrimaryRowMarshaller primaryRowMarshaller,
+        DeltaWAL wal) throws Exception {
+
+        List<Long> chunkFps = Lists.newArrayList();
+        wal.frame(ioStats, loadDeltaChunkSizeInBytes, fp -> {
+            chunkFps.add(fp);
+            return true;
+        });
+        LOG.info("Loading delta stripe:{} in {} chunks", index, chunkFps.size());
+
+        Map<VersionedPartitionName, Boolean> acceptance = Maps.newConcurrentMap();
+        int waveSize = Math.max(1, loadDeltaParallelism);
+        for (int waveStart = 0; waveStart < chunkFps.size(); waveStart += waveSize) {
+            int waveEnd = Math.min(waveStart + waveSize, chunkFps.size());
+            List<Future<Map<VersionedPartitionName, List<LoadedRow>>>> decoded = Lists.newArrayListWithCapacity(waveEnd - waveStart);
+            for (int i = waveStart; i < waveEnd; i++) {
+                long fromFp = chunkFps.get(i);
+                long toFp = i + 1 < chunkFps.size() ? chunkFps.get(i + 1) : Long.MAX_VALUE;
+                decoded.add(loadDeltaThreads.submit(() -> {
+                    Map<VersionedPartitionName, List<LoadedRow>> chunk = Maps.newHashMap();
+                    loadRows(rowStream -> wal.load(ioStats, fromFp, toFp, rowStream), acceptance, currentVersionProvider, primaryRowMarshaller,
+                        (txId, fp, rowType, prefix, key, hasValue, value, valueTimestamp, valueTombstoned, valueVersion, versionedPartitionName) -> {
+                            byte[] deltaValue = UIO.readByteArray(value, 0, "value");
+                            chunk.computeIfAbsent(versionedPartitionName, k -> Lists.newArrayList())
+                                .add(new LoadedRow(txId, fp, prefix, key, deltaValue, valueTimestamp, valueTombstoned, valueVersion));
+                            return true;
+                        });
+                    return chunk;
+                }));
+            }
+
+            Map<VersionedPartitionName, List<List<LoadedRow>>> partitionRows = Maps.newHashMap();
+            for (Future<Map<VersionedPartitionName, List<LoadedRow>>> future : decoded) {
+                for (Entry<VersionedPartitionName, List<LoadedRow>> entry : future.get().entrySet()) {
+                    partitionRows.computeIfAbsent(entry.getKey(), k -> Lists.newArrayList()).add(entry.getValue());
+                }
+            }
+
+            List<Future<Boolean>> applied = Lists.newArrayListWithCapacity(partitionRows.size());
+            for (Entry<VersionedPartitionName, List<List<LoadedRow>>> entry : partitionRows.entrySet()) {
+                applied.add(loadDeltaThreads.submit(() -> {
+                    acquireOne();
+                    try {
+                        return txPartitionDelta(entry.getKey(), delta -> {
+                            // delta is pristine, no need to check timestamps and versions
+                            for (List<LoadedRow> rows : entry.getValue()) {
+                                for (LoadedRow row : rows) {
+                                    delta.put(row.fp, row.prefix, row.key, row.value, row.valueTimestamp, row.valueTombstoned, row.valueVersion);
+                                    delta.onLoadAppendTxFp(row.prefix, row.txId, row.fp);
+                                }
+                                updateSinceLastMerge.addAndGet(rows.size());
+                            }
+                            return true;
+                        });
+                    } finally {
+                        releaseOne();
+                    }
+                }));
+            }
+            for (Future<Boolean> future : applied) {
+                future.get();
+            }
+        }
+    }
+
+    private static class LoadedRow {
+
+        private final long txId;
+        private final long fp;
+        private final byte[] prefix;
+        private final byte[] key;
+        private final byte[] value;
+        private final long valueTimestamp;
+        private final boolean valueTombstoned;
+        private final long valueVersion;
+
+        private LoadedRow(long txId, long fp, byte[] prefix, byte[] key, byte[] value, long valueTimestamp, boolean valueTombstoned, long valueVersion) {
+            this.txId = txId;
+            this.fp = fp;
+            this.prefix = prefix;
+            this.key = key;
+            this.value = value;
+            this.valueTimestamp = valueTimestamp;
+            this.valueTombstoned = valueTombstoned;
+            this.valueVersion = valueVersion;
+        }
+    }
+
     private interface PartitionDeltaTx {
         boolean tx(PartitionDelta delta) throws Exception;
     }
@@ -357,7 +622,7 @@ public class DeltaStripeWALStorage {
                     throw new IllegalStateException("Delta WAL is currently unavailable.");
                 }
                 partitionDelta = partitionDeltas.computeIfAbsent(versionedPartitionName,
-                    vpn -> new PartitionDelta(versionedPartitionName, wal, maxValueSizeInIndex, null));
+                    vpn -> new PartitionDelta(versionedPartitionName, wal, maxValueSizeInIndex, deltaIndexProvider.create(), null));
             }
             partitionDelta.acquire();
         }
@@ -381,6 +646,9 @@ public class DeltaStripeWALStorage {
         if (!force && !mergeable()) {
             return;
         }
+        if (force) {
+            awaitDeferredMerge();
+        }
 
         long had = updateSinceLastMerge.get();
         if (!merging.compareAndSet(0, had)) {
@@ -391,6 +659,7 @@ public class DeltaStripeWALStorage {
         try {
             DeltaWAL wal = deltaWAL.get();
             updateSinceLastMerge.set(0);
+            partitionUpdatesSinceLastMerge.clear();
             boolean mergeDelta = mergeDelta(ioStats,
                 compactionStats,
                 partitionIndex,
@@ -419,6 +688,77 @@ public class DeltaStripeWALStorage {
         boolean validate,
         Callable<DeltaWAL> newWAL) throws Exception {
 
+        List<PartitionDelta> retiredDeltas = new ArrayList<>();
+        List<Future<MergeResult>> futures = beginMergeDelta(ioStats, walCompactionStats, partitionIndex, versionedPartitionProvider,
+            currentVersionProvider, validate, newWAL, retiredDeltas);
+        if (futures == null) {
+            return false;
+        }
+        finishMergeDelta(currentVersionProvider, wal, futures, retiredDeltas);
+        return true;
+    }
+
+    /**
+     * Loading a stripe with an unmerged older wal rolls its deltas over to the current wal and lets them merge in the background, so the
+     * stripe can serve as soon as the current wal is loaded. Reads fall through to the merging deltas exactly as they do during a merge.
+     */
+    private void deferMergeDelta(IoStats ioStats,
+        PartitionIndex partitionIndex,
+        VersionedPartitionProvider versionedPartitionProvider,
+        CurrentVersionProvider currentVersionProvider,
+        DeltaWAL prevWAL,
+        DeltaWAL currentWAL) throws Exception {
+
+        merging.set(1);
+        CompactionStats compactionStats = amzaStats.beginCompaction(CompactionFamily.merge, "deferred-merge-delta-stripe" + getId());
+        List<PartitionDelta> retiredDeltas = new ArrayList<>();
+        List<Future<MergeResult>> futures;
+        try {
+            futures = beginMergeDelta(ioStats, compactionStats, partitionIndex, versionedPartitionProvider, currentVersionProvider, true,
+                () -> currentWAL, retiredDeltas);
+        } catch (Exception x) {
+            compactionStats.finished();
+            merging.set(0);
+            throw x;
+        }
+        // submitted after the partition merges it waits on, so a merge pool of any size drains them before it runs
+        try {
+            deferredMerge = mergeDeltaThreads.submit(() -> {
+                try {
+                    finishMergeDelta(currentVersionProvider, prevWAL, futures, retiredDeltas);
+                    LOG.info("Finished deferred merge for delta stripe:{}", index);
+                } finally {
+                    compactionStats.finished();
+                    merging.set(0);
+                }
+            });
+        } catch (RejectedExecutionException x) {
+            compactionStats.finished();
+            merging.set(0);
+            throw x;
+        }
+    }
+
+    /**
+     * Waits for a merge deferred by {@link #load} to finish, so the stripe is not shut down while it still owns the previous delta WAL.
+     */
+    public void awaitDeferredMerge() throws Exception {
+        Future<?> got = deferredMerge;
+        if (got != null) {
+            got.get();
+        }
+    }
+
+    private List<Future<MergeResult>> beginMergeDelta(
+        IoStats ioStats,
+        WALCompactionStats walCompactionStats,
+        PartitionIndex partitionIndex,
+        VersionedPartitionProvider versionedPartitionProvider,
+        CurrentVersionProvider currentVersionProvider,
+        boolean validate,
+        Callable<DeltaWAL> newWAL,
+        List<PartitionDelta> retiredDeltas) throws Exception {
+
         List<Future<MergeResult>> futures = new ArrayList<>();
         writeAcquireAll();
         try {
@@ -426,7 +766,7 @@ public class DeltaStripeWALStorage {
                 for (Map.Entry<VersionedPartitionName, PartitionDelta> e : partitionDeltas.entrySet()) {
                     if (e.getValue().isMerging()) {
                         LOG.warn("Ingress is faster than we can merge!");
-                        return false;
+                        return null;
                     }
                 }
                 LOG.info("Merging delta partitions...");
@@ -438,18 +778,22 @@ public class DeltaStripeWALStorage {
                 AtomicLong merged = new AtomicLong();
                 AtomicLong unmerged = new AtomicLong();
 
-                Iterator<Entry<VersionedPartitionName, PartitionDelta>> iter = partitionDeltas.entrySet().iterator();
-                while (iter.hasNext()) {
-                    Entry<VersionedPartitionName, PartitionDelta> entry = iter.next();
+                // Largest deltas first so the longest merges are not left waiting for a free merge thread at the end.
+                List<Entry<VersionedPartitionName, PartitionDelta>> entries = new ArrayList<>(partitionDeltas.entrySet());
+                entries.sort((e1, e2) -> Long.compare(e2.getValue().size(), e1.getValue().size()));
+                for (Entry<VersionedPartitionName, PartitionDelta> entry : entries) {
                     VersionedPartitionName versionedPartitionName = entry.getKey();
+                    // every delta of the outgoing wal is retired, its index is released once that wal is destroyed
+                    retiredDeltas.add(entry.getValue());
 
                     if (currentVersionProvider.isCurrentVersion(versionedPartitionName)) {
                         PartitionDelta mergeableDelta = entry.getValue();
                         if (mergeableDelta.needsToMerge()) {
                             long mergeableCount = mergeableDelta.size();
                             unmerged.addAndGet(mergeableCount);
-                            PartitionDelta currentDelta = new PartitionDelta(versionedPartitionName, newDeltaWAL, maxValueSizeInIndex, mergeableDelta);
-                            entry.setValue(currentDelta);
+                            PartitionDelta currentDelta = new PartitionDelta(versionedPartitionName, newDeltaWAL, maxValueSizeInIndex,
+                                deltaIndexProvider.create(), mergeableDelta);
+                            partitionDeltas.put(versionedPartitionName, currentDelta);
                             mergeable.incrementAndGet();
                             futures.add(mergeDeltaThreads.submit(() -> {
                                 return getMergeResult(ioStats,
@@ -467,11 +811,11 @@ public class DeltaStripeWALStorage {
                             }));
                         } else {
                             LOG.warn("Ignored merge for empty partition {}", versionedPartitionName);
-                            iter.remove();
+                            partitionDeltas.remove(versionedPartitionName);
                         }
                     } else {
                         LOG.warn("Ignored merge for obsolete partition {}", versionedPartitionName);
-                        iter.remove();
+                        partitionDeltas.remove(versionedPartitionName);
                     }
                 }
                 amzaStats.deltaStripeMerge(index, 0, 0);
@@ -484,7 +828,13 @@ public class DeltaStripeWALStorage {
         } finally {
             writeReleaseAll();
         }
+        return futures;
+    }
 
+    private void finishMergeDelta(CurrentVersionProvider currentVersionProvider,
+        DeltaWAL wal,
+        List<Future<MergeResult>> futures,
+        List<PartitionDelta> retiredDeltas) {
         List<MergeResult> results = Lists.newArrayListWithCapacity(futures.size());
         try {
             for (Future<MergeResult> f : futures) {
@@ -536,6 +886,10 @@ public class DeltaStripeWALStorage {
             parkSick("This is catastrophic. Failure destroying WAL.", x);
         }
 
+        for (PartitionDelta retiredDelta : retiredDeltas) {
+            retiredDelta.releaseIndex();
+        }
+
         try {
             for (MergeResult result : results) {
                 currentVersionProvider.invalidateDeltaIndexCache(result.versionedPartitionName);
@@ -543,7 +897,6 @@ public class DeltaStripeWALStorage {
         } catch (Exception x) {
             parkSick("This is catastrophic. Failure invalidating delta index cache.", x);
         }
-        return true;
     }
 
     private void parkSick(String message, Exception x) {
@@ -616,6 +969,8 @@ public class DeltaStripeWALStorage {
             }
             return result;
         } finally {
+            // Each finished partition releases its share of the merge debt so writers regain capacity before the whole stripe is merged.
+            merging.accumulateAndGet(mergeableCount, (debt, count) -> debt > 1 ? Math.max(1, debt - count) : debt);
             amzaStats.deltaStripeMerge(index,
                 mergeable.decrementAndGet(),
                 (unmerged.get() - merged.addAndGet(mergeableCount)) / (double) unmerged.get());
@@ -634,10 +989,11 @@ public class DeltaStripeWALStorage {
         WALUpdated updated) throws Exception {
 
         long mergeDebt = merging.get();
-        if ((mergeDebt > 0 && mergeDebt + updateSinceLastMerge.get() > (2 * mergeAfterNUpdates))
-            || updateSinceLastMerge.get() > (2 * mergeAfterNUpdates)) {
+        long load = updateSinceLastMerge.get() + (mergeDebt > 0 ? mergeDebt : 0);
+        if (load > (2 * mergeAfterNUpdates)) {
             throw new DeltaOverCapacityException("Delta is full");
         }
+        backPressure(versionedPartitionName, load, directApply ? fairShareWeight(versionedPartitionName, load) : 1d);
 
         if (directApply && mergeDebt > 0) {
             long highestTxId = partitionStore.mergedTxId();
@@ -672,6 +1028,10 @@ public class DeltaStripeWALStorage {
             return true;
         });
 
+        if (directApply && reentrant.get() == 0) {
+            writeQuotas.acquire(versionedPartitionName.getPartitionName(), partitionStore.getProperties(), keys.size());
+        }
+
         writeAcquireOne();
         try {
             DeltaWAL wal = deltaWAL.get();
@@ -718,49 +1078,24 @@ public class DeltaStripeWALStorage {
                     if (delta.shouldWriteHighwater()) {
                         partitionHighwater = highwaterStorage.getPartitionHighwater(versionedPartitionName, false);
                     }
-                    DeltaWAL.DeltaWALApplied updateApplied;
-                    synchronized (oneWriterAtATimeLock) {
-                        Iterator<Entry<WALKey, WALValue>> iter = apply.entrySet().iterator();
-                        while (iter.hasNext()) {
-                            Entry<WALKey, WALValue> entry = iter.next();
-                            WALKey key = entry.getKey();
-                            WALValue value = entry.getValue();
-                            WALPointer got = delta.getPointer(key.prefix, key.key);
-                            if (got != null && CompareTimestampVersions.compare(got.getTimestampId(), got.getVersion(),
-                                value.getTimestampId(), value.getVersion()) >= 0) {
-                                iter.remove();
-                                amzaStats.deltaSecondCheckRemoves.increment();
-                            }
-                        }
-
-                        updateApplied = wal.update(ioStats, rowType, versionedPartitionName, apply, partitionHighwater);
-                        appliedCount[0] = apply.size();
-
-                        for (int i = 0; i < updateApplied.fps.length; i++) {
-                            KeyValueHighwater keyValueHighwater = updateApplied.keyValueHighwaters[i];
-                            long fp = updateApplied.fps[i];
-                            delta.put(fp,
-                                keyValueHighwater.prefix,
-                                keyValueHighwater.key,
-                                keyValueHighwater.value,
-                                keyValueHighwater.valueTimestamp,
-                                keyValueHighwater.valueTombstone,
-                                keyValueHighwater.valueVersion);
-                        }
-                        delta.appendTxFps(prefix, updateApplied.txId, updateApplied.fps);
-                        rowsChanged[0] = new RowsChanged(versionedPartitionName,
-                            apply,
-                            removes,
-                            clobbers,
-                            updateApplied.txId,
-                            updateApplied.txId,
-                            index);
-                    }
+                    GroupCommit groupCommit = new GroupCommit(rowType, versionedPartitionName, prefix, delta, apply, partitionHighwater);
+                    DeltaWAL.DeltaWALApplied updateApplied = groupCommit(ioStats, wal, groupCommit);
+                    appliedCount[0] = apply.size();
+                    rowsChanged[0] = new RowsChanged(versionedPartitionName,
+                        apply,
+                        removes,
+                        clobbers,
+                        updateApplied.txId,
+                        updateApplied.txId,
+                        index);
                     updated.updated(versionedPartitionName, updateApplied.txId);
                     return true;
                 });
             }
 
+            if (appliedCount[0] > 0) {
+                partitionUpdatesSinceLastMerge.computeIfAbsent(versionedPartitionName, key -> new AtomicLong()).addAndGet(appliedCount[0]);
+            }
             long unmergedUpdates = updateSinceLastMerge.addAndGet(appliedCount[0]);
             amzaStats.deltaStripeLoad(index, unmergedUpdates, unmergedUpdates / (double) mergeAfterNUpdates);
             if (unmergedUpdates > mergeAfterNUpdates) {
@@ -774,6 +1109,178 @@ public class DeltaStripeWALStorage {
         }
     }
 
+    /**
+     * Compares the partition's updates since the last merge with an even split of the stripe's updates across the partitions writing to it.
+     * Once the load passes the reserved capacity a partition over its fair share is rejected, so the remainder is left to quieter
+     * partitions, and otherwise the returned weight scales the partition's back pressure from none for a quiet partition up to double for
+     * one holding twice its share. A lone partition always holds exactly its share.
+     */
+    private double fairShareWeight(VersionedPartitionName versionedPartitionName, long load) throws DeltaOverCapacityException {
+        AtomicLong partitionUpdates = partitionUpdatesSinceLastMerge.get(versionedPartitionName);
+        int partitions = partitionUpdatesSinceLastMerge.size() + (partitionUpdates == null ? 1 : 0);
+        if (partitions < 2) {
+            return 1d;
+        }
+        long updates = partitionUpdates == null ? 0 : partitionUpdates.get();
+        long fairShare = Math.max(1, updateSinceLastMerge.get() / partitions);
+        if (updates > fairShare && reservedPercentOfCapacity > 0) {
+            long capacity = 2 * mergeAfterNUpdates;
+            if (load > capacity / 100 * (100 - reservedPercentOfCapacity)) {
+                amzaStats.throttled(versionedPartitionName.getPartitionName(), 0, true);
+                throw new DeltaOverCapacityException("Delta is reserved for other partitions");
+            }
+        }
+        return Math.min(2d, updates / (double) fairShare);
+    }
+
+    /**
+     * Delays the writer in proportion to how far the stripe's load is past the back pressure threshold, reaching the max delay at full
+     * capacity, so a burst is slowed down while merges catch up instead of being rejected outright. Nested writes are not delayed because
+     * they already hold a writer permit that a merge may be waiting on.
+     */
+    private void backPressure(VersionedPartitionName versionedPartitionName, long load, double weight) throws InterruptedException {
+        long capacity = 2 * mergeAfterNUpdates;
+        long threshold = capacity / 100 * backPressureAtPercentOfCapacity;
+        if (backPressureMaxDelayMillis <= 0 || load <= threshold || threshold >= capacity || reentrant.get() > 0) {
+            return;
+        }
+        long delayMillis = Math.min(backPressureMaxDelayMillis,
+            (long) (weight * backPressureMaxDelayMillis * (load - threshold) / (capacity - threshold)));
+        if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+            amzaStats.deltaBackPressureMillis.add(delayMillis);
+            amzaStats.throttled(versionedPartitionName.getPartitionName(), delayMillis, false);
+        }
+    }
+
+    /**
+     * Enqueues the commit and then competes for the writer lock. Whichever thread wins drains every pending commit and appends them to the
+     * delta WAL as a single write, so concurrent writers share one append and one flush. Losers typically find their commit already done.
+     */
+    private DeltaWAL.DeltaWALApplied groupCommit(IoStats ioStats, DeltaWAL wal, GroupCommit groupCommit) throws Exception {
+        pendingGroupCommits.add(groupCommit);
+        while (!groupCommit.done) {
+            synchronized (oneWriterAtATimeLock) {
+                if (!groupCommit.done) {
+                    commitPending(ioStats, wal);
+                }
+            }
+        }
+        if (groupCommit.failure != null) {
+            if (groupCommit.failure instanceof Exception) {
+                throw (Exception) groupCommit.failure;
+            }
+            throw new ExecutionException("Failed to group commit", groupCommit.failure);
+        }
+        return groupCommit.applied;
+    }
+
+    /**
+     * Every drained commit is marked done however this exits, since its writer spins until it is. A failed append fails the whole group,
+     * whereas once the batch is in the WAL each commit is indexed into its delta on its own, so a commit that cannot be indexed fails alone
+     * and does not take the rest of the appended group with it.
+     */
+    private void commitPending(IoStats ioStats, DeltaWAL wal) {
+        List<GroupCommit> group = new ArrayList<>();
+        GroupCommit pending = pendingGroupCommits.poll();
+        while (pending != null) {
+            group.add(pending);
+            pending = pendingGroupCommits.poll();
+        }
+        try {
+            List<DeltaWAL.DeltaWALUpdate> updates = Lists.newArrayListWithCapacity(group.size());
+            // earlier commits in this group are not yet visible in their deltas
+            Map<VersionedPartitionName, Map<WALKey, WALValue>> grouped = Maps.newHashMap();
+            for (GroupCommit commit : group) {
+                Map<WALKey, WALValue> groupedApply = grouped.computeIfAbsent(commit.versionedPartitionName, key -> Maps.newHashMap());
+                Iterator<Entry<WALKey, WALValue>> iter = commit.apply.entrySet().iterator();
+                while (iter.hasNext()) {
+                    Entry<WALKey, WALValue> entry = iter.next();
+                    WALKey key = entry.getKey();
+                    WALValue value = entry.getValue();
+                    WALPointer got = commit.delta.getPointer(key.prefix, key.key);
+                    WALValue groupedValue = groupedApply.get(key);
+                    if (got != null && CompareTimestampVersions.compare(got.getTimestampId(), got.getVersion(),
+                        value.getTimestampId(), value.getVersion()) >= 0) {
+                        iter.remove();
+                        amzaStats.deltaSecondCheckRemoves.increment();
+                    } else if (groupedValue != null && CompareTimestampVersions.compare(groupedValue.getTimestampId(), groupedValue.getVersion(),
+                        value.getTimestampId(), value.getVersion()) >= 0) {
+                        iter.remove();
+                        amzaStats.deltaSecondCheckRemoves.increment();
+                    } else {
+                        groupedApply.put(key, value);
+                    }
+                }
+                updates.add(new DeltaWAL.DeltaWALUpdate(commit.rowType, commit.versionedPartitionName, commit.apply, commit.highwater));
+            }
+
+            DeltaWAL.DeltaWALApplied[] applied = wal.updateBatch(ioStats, updates);
+            amzaStats.deltaGroupCommits.increment();
+            amzaStats.deltaGroupCommitted.add(group.size());
+
+            for (int i = 0; i < applied.length; i++) {
+                GroupCommit commit = group.get(i);
+                DeltaWAL.DeltaWALApplied updateApplied = applied[i];
+                try {
+                    for (int j = 0; j < updateApplied.fps.length; j++) {
+                        KeyValueHighwater keyValueHighwater = updateApplied.keyValueHighwaters[j];
+                        commit.delta.put(updateApplied.fps[j],
+                            keyValueHighwater.prefix,
+                            keyValueHighwater.key,
+                            keyValueHighwater.value,
+                            keyValueHighwater.valueTimestamp,
+                            keyValueHighwater.valueTombstone,
+                            keyValueHighwater.valueVersion);
+                    }
+                    commit.delta.appendTxFps(commit.prefix, updateApplied.txId, updateApplied.fps);
+                    commit.applied = updateApplied;
+                } catch (Throwable t) {
+                    LOG.error("Appended txId:{} for {} to the delta WAL but failed to index it", new Object[] { updateApplied.txId,
+                        commit.versionedPartitionName }, t);
+                    commit.failure = t;
+                } finally {
+                    commit.done = true;
+                }
+            }
+        } catch (Throwable t) {
+            for (GroupCommit commit : group) {
+                if (!commit.done) {
+                    commit.failure = t;
+                    commit.done = true;
+                }
+            }
+        }
+    }
+
+    private static class GroupCommit {
+
+        private final RowType rowType;
+        private final VersionedPartitionName versionedPartitionName;
+        private final byte[] prefix;
+        private final PartitionDelta delta;
+        private final Map<WALKey, WALValue> apply;
+        private final WALHighwater highwater;
+
+        private DeltaWAL.DeltaWALApplied applied;
+        private Throwable failure;
+        private volatile boolean done;
+
+        private GroupCommit(RowType rowType,
+            VersionedPartitionName versionedPartitionName,
+            byte[] prefix,
+            PartitionDelta delta,
+            Map<WALKey, WALValue> apply,
+            WALHighwater highwater) {
+            this.rowType = rowType;
+            this.versionedPartitionName = versionedPartitionName;
+            this.prefix = prefix;
+            this.delta = delta;
+            this.apply = apply;
+            this.highwater = highwater;
+        }
+    }
+
     public boolean takeRowsFromTransactionId(IoStats ioStats,
         VersionedPartitionName versionedPartitionName,
         WALStorage storage,
@@ -1047,6 +1554,80 @@ public class DeltaStripeWALStorage {
         }
     }
 
+    /**
+     * Overlays the partition's delta on the storage's secondary index. Every row in the delta is run through the index's extractor, but only
+     * the entries inside the range are kept, and a stored entry is shadowed by looking its key up in the delta rather than by collecting
+     * every key the delta holds.
+     */
+    public boolean secondaryIndexScan(VersionedPartitionName versionedPartitionName,
+        WALStorage storage,
+        String indexName,
+        byte[] fromIndexKey,
+        byte[] toIndexKey,
+        IndexedKeyValueStream stream) throws Exception {
+
+        acquireOne();
+        try {
+            return txPartitionDelta(versionedPartitionName, delta -> {
+                SecondaryIndexes secondaryIndexes = storage.getSecondaryIndexes();
+                byte[] fromEntryKey = SecondaryIndexes.fromEntryKey(indexName, fromIndexKey);
+                byte[] toEntryKey = SecondaryIndexes.toEntryKey(indexName, toIndexKey);
+                TreeMap<byte[], WALValue> deltaEntries = new TreeMap<>(KeyUtil.lexicographicalComparator());
+                DeltaPeekableElmoIterator iterator = delta.rowScanIterator(true);
+                try {
+                    while (iterator.hasNext()) {
+                        Map.Entry<byte[], WALValue> d = iterator.next();
+                        WALValue got = d.getValue();
+                        byte[] pk = d.getKey();
+                        secondaryIndexes.entries(WALKey.rawKeyPrefix(pk), WALKey.rawKeyKey(pk), got.getValue(), got.getTombstoned(), entryKey -> {
+                            if (KeyUtil.compare(entryKey, fromEntryKey) >= 0 && KeyUtil.compare(entryKey, toEntryKey) < 0) {
+                                deltaEntries.put(entryKey, got);
+                            }
+                            return true;
+                        });
+                    }
+                } finally {
+                    iterator.close();
+                }
+
+                Iterator<Map.Entry<byte[], WALValue>> deltaIterator = deltaEntries.entrySet().iterator();
+                Map.Entry<byte[], WALValue>[] next = new Map.Entry[] { deltaIterator.hasNext() ? deltaIterator.next() : null };
+                if (!storage.secondaryIndexScan(indexName, fromIndexKey, toIndexKey,
+                    (indexKey, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                        if (delta.getPointer(prefix, key) != null) {
+                            // the delta holds the current row, and its entry, if it is still in range, comes from deltaEntries
+                            return true;
+                        }
+                        byte[] entryKey = SecondaryIndexes.entryKey(indexName, indexKey, prefix, key);
+                        while (next[0] != null && KeyUtil.compare(next[0].getKey(), entryKey) < 0) {
+                            if (!streamDeltaEntry(next[0], stream)) {
+                                return false;
+                            }
+                            next[0] = deltaIterator.hasNext() ? deltaIterator.next() : null;
+                        }
+                        return stream.stream(indexKey, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion);
+                    })) {
+                    return false;
+                }
+                while (next[0] != null) {
+                    if (!streamDeltaEntry(next[0], stream)) {
+                        return false;
+                    }
+                    next[0] = deltaIterator.hasNext() ? deltaIterator.next() : null;
+                }
+                return true;
+            });
+        } finally {
+            releaseOne();
+        }
+    }
+
+    private static boolean streamDeltaEntry(Map.Entry<byte[], WALValue> entry, IndexedKeyValueStream stream) throws Exception {
+        WALValue got = entry.getValue();
+        return SecondaryIndexes.decode(entry.getKey(), (indexKey, prefix, key) -> stream.stream(indexKey, prefix, key,
+            got.getValue(), got.getTimestampId(), got.getTombstoned(), got.getVersion()));
+    }
+
     /**
      * Stupid expensive!!!!
      */
@@ -6,6 +6,7 @@ import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.scan.RowStream;
 import com.jivesoftware.os.amza.api.stream.FpKeyValueHighwaterStream;
 import com.jivesoftware.os.amza.api.stream.FpKeyValueStream;
+import com.jivesoftware.os.amza.api.stream.FpStream;
 import com.jivesoftware.os.amza.api.stream.Fps;
 import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.wal.PrimaryRowMarshaller;
@@ -16,10 +17,10 @@ import com.jivesoftware.os.amza.api.wal.WALValue;
 import com.jivesoftware.os.amza.service.storage.HighwaterRowMarshaller;
 import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProvider;
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
-import org.apache.commons.lang.mutable.MutableInt;
-import org.apache.commons.lang.mutable.MutableLong;
 
 /**
  * @author jonathan.colt
@@ -90,6 +91,37 @@ public class DeltaWAL implements WALRowHydrator, Comparable<DeltaWAL> {
         });
     }
 
+    /**
+     * Loads the rows from fromFp (must be the start of a row) to the end of the wal, truncating any corrupt tail.
+     */
+    public void load(IoStats ioStats, long fromFp, RowStream rowStream) throws Exception {
+        wal.tx(io -> {
+            io.scan(ioStats, fromFp, true, rowStream);
+            return null;
+        });
+    }
+
+    long length() throws Exception {
+        return wal.length();
+    }
+
+    /**
+     * Streams the fps at which the wal can be split into chunks of roughly chunkSizeInBytes, truncating any corrupt tail as a load would.
+     */
+    public boolean frame(IoStats ioStats, long chunkSizeInBytes, FpStream fpStream) throws Exception {
+        return wal.tx(io -> io.frame(ioStats, 0, chunkSizeInBytes, true, fpStream));
+    }
+
+    /**
+     * Loads the rows starting at fromFp (inclusive, must be the start of a row) up to toFp (exclusive).
+     */
+    public void load(IoStats ioStats, long fromFp, long toFp, RowStream rowStream) throws Exception {
+        wal.tx(io -> {
+            io.scan(ioStats, fromFp, false, (rowFP, rowTxId, rowType, row) -> rowFP < toFp && rowStream.row(rowFP, rowTxId, rowType, row));
+            return null;
+        });
+    }
+
     public void flush(boolean fsync) throws Exception {
         wal.flush(fsync);
     }
@@ -130,70 +162,92 @@ public class DeltaWAL implements WALRowHydrator, Comparable<DeltaWAL> {
         VersionedPartitionName versionedPartitionName,
         Map<WALKey, WALValue> apply,
         WALHighwater highwaterHint) throws Exception {
+        return updateBatch(ioStats, Collections.singletonList(new DeltaWALUpdate(rowType, versionedPartitionName, apply, highwaterHint)))[0];
+    }
 
-        MutableLong txId = new MutableLong();
-        int numApplies = apply.size();
-        KeyValueHighwater[] keyValueHighwaters = new KeyValueHighwater[numApplies];
-        long[] fps = new long[numApplies];
-        int index = 0;
-        for (Map.Entry<WALKey, WALValue> entry : apply.entrySet()) {
-            byte[] prefix = entry.getKey().prefix;
-            byte[] key = entry.getKey().key;
-            WALValue value = entry.getValue();
-            WALHighwater highwater = (index == numApplies - 1) ? highwaterHint : null;
-            keyValueHighwaters[index] = new KeyValueHighwater(rowType, prefix, key,
-                value.getValue(), value.getTimestampId(), value.getTombstoned(), value.getVersion(), highwater);
-            index++;
+    /**
+     * Appends many updates as a single write. Every update is assigned its own txId, in list order, and the returned applied array lines up
+     * with the given updates.
+     */
+    public DeltaWALApplied[] updateBatch(IoStats ioStats, List<DeltaWALUpdate> updates) throws Exception {
+
+        int numUpdates = updates.size();
+        KeyValueHighwater[][] keyValueHighwaters = new KeyValueHighwater[numUpdates][];
+        long[][] fps = new long[numUpdates][];
+        long[] txIds = new long[numUpdates];
+        int numRows = 0;
+        for (int u = 0; u < numUpdates; u++) {
+            DeltaWALUpdate update = updates.get(u);
+            int numApplies = update.apply.size();
+            keyValueHighwaters[u] = new KeyValueHighwater[numApplies];
+            fps[u] = new long[numApplies];
+            int index = 0;
+            for (Map.Entry<WALKey, WALValue> entry : update.apply.entrySet()) {
+                byte[] prefix = entry.getKey().prefix;
+                byte[] key = entry.getKey().key;
+                WALValue value = entry.getValue();
+                WALHighwater highwater = (index == numApplies - 1) ? update.highwaterHint : null;
+                keyValueHighwaters[u][index] = new KeyValueHighwater(update.rowType, prefix, key,
+                    value.getValue(), value.getTimestampId(), value.getTombstoned(), value.getVersion(), highwater);
+                index++;
+            }
+            numRows += numApplies;
         }
+        int totalRows = numRows;
         wal.tx(io -> {
-            long transactionId;
-            MutableInt fpIndex = new MutableInt(0);
+            int[] cursor = { 0, 0 }; // update, row
             synchronized (oneTxAtATimeLock) {
-                transactionId = (orderIdProvider == null) ? 0 : orderIdProvider.nextId();
                 int estimatedSizeInBytes = 0;
-                for (KeyValueHighwater kvh : keyValueHighwaters) {
-                    int pkSizeInBytes = WALKey.sizeOfComposed(versionedPartitionName.sizeInBytes(),
-                        WALKey.sizeOfComposed(kvh.prefix != null ? kvh.prefix.length : 0, kvh.key.length));
-                    int valueSizeInBytes = sizeWithAppendedHighwaterHints(kvh.value, kvh.highwater);
-                    estimatedSizeInBytes += primaryRowMarshaller.maximumSizeInBytes(rowType, pkSizeInBytes, valueSizeInBytes);
+                for (int u = 0; u < numUpdates; u++) {
+                    txIds[u] = (orderIdProvider == null) ? 0 : orderIdProvider.nextId();
+                    DeltaWALUpdate update = updates.get(u);
+                    for (KeyValueHighwater kvh : keyValueHighwaters[u]) {
+                        int pkSizeInBytes = WALKey.sizeOfComposed(update.versionedPartitionName.sizeInBytes(),
+                            WALKey.sizeOfComposed(kvh.prefix != null ? kvh.prefix.length : 0, kvh.key.length));
+                        int valueSizeInBytes = sizeWithAppendedHighwaterHints(kvh.value, kvh.highwater);
+                        estimatedSizeInBytes += primaryRowMarshaller.maximumSizeInBytes(update.rowType, pkSizeInBytes, valueSizeInBytes);
+                    }
                 }
-                io.write(ioStats,
-                    transactionId,
-                    rowType,
-                    keyValueHighwaters.length,
+                io.writeBatch(ioStats,
+                    totalRows,
                     estimatedSizeInBytes,
                     rowStream -> {
-                        for (KeyValueHighwater kvh : keyValueHighwaters) {
-                            byte[] pk = WALKey.compose(versionedPartitionName.toBytes(), WALKey.compose(kvh.prefix, kvh.key));
-                            byte[] value = appendHighwaterHints(kvh.value, highwaterRowMarshaller.toBytes(kvh.highwater));
-                            byte[] row = primaryRowMarshaller.toRow(rowType, pk, value, kvh.valueTimestamp, kvh.valueTombstone, kvh.valueVersion);
-                            if (!rowStream.stream(row)) {
-                                return false;
+                        for (int u = 0; u < numUpdates; u++) {
+                            DeltaWALUpdate update = updates.get(u);
+                            byte[] partitionNameBytes = update.versionedPartitionName.toBytes();
+                            for (KeyValueHighwater kvh : keyValueHighwaters[u]) {
+                                byte[] pk = WALKey.compose(partitionNameBytes, WALKey.compose(kvh.prefix, kvh.key));
+                                byte[] value = appendHighwaterHints(kvh.value, highwaterRowMarshaller.toBytes(kvh.highwater));
+                                byte[] row = primaryRowMarshaller.toRow(update.rowType, pk, value, kvh.valueTimestamp, kvh.valueTombstone,
+                                    kvh.valueVersion);
+                                if (!rowStream.stream(txIds[u], update.rowType, row)) {
+                                    return false;
+                                }
                             }
                         }
                         return true;
                     },
-                    indexKeyStream -> {
-                        for (KeyValueHighwater kvh : keyValueHighwaters) {
-                            if (!indexKeyStream.stream(kvh.prefix, kvh.key, kvh.value, kvh.valueTimestamp, kvh.valueTombstone, kvh.valueVersion)) {
-                                return false;
-                            }
+                    fp -> {
+                        while (cursor[1] == fps[cursor[0]].length) {
+                            cursor[0]++;
+                            cursor[1] = 0;
                         }
-                        return true;
-                    },
-                    (rowTxId, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion, fp) -> {
-                        fps[fpIndex.intValue()] = fp;
-                        fpIndex.increment();
+                        fps[cursor[0]][cursor[1]] = fp;
+                        cursor[1]++;
                         return true;
                     },
                     true,
                     false);
             }
-            txId.setValue(transactionId);
             return null;
         });
-        updateCount.addAndGet(numApplies);
-        return new DeltaWALApplied(txId.longValue(), keyValueHighwaters, fps);
+        updateCount.addAndGet(totalRows);
+
+        DeltaWALApplied[] applied = new DeltaWALApplied[numUpdates];
+        for (int u = 0; u < numUpdates; u++) {
+            applied[u] = new DeltaWALApplied(txIds[u], keyValueHighwaters[u], fps[u]);
+        }
+        return applied;
     }
 
     public void hackTruncation(int numBytes) {
@@ -342,6 +396,24 @@ public class DeltaWAL implements WALRowHydrator, Comparable<DeltaWAL> {
         }
     }
 
+    public static class DeltaWALUpdate {
+
+        public final RowType rowType;
+        public final VersionedPartitionName versionedPartitionName;
+        public final Map<WALKey, WALValue> apply;
+        public final WALHighwater highwaterHint;
+
+        public DeltaWALUpdate(RowType rowType,
+            VersionedPartitionName versionedPartitionName,
+            Map<WALKey, WALValue> apply,
+            WALHighwater highwaterHint) {
+            this.rowType = rowType;
+            this.versionedPartitionName = versionedPartitionName;
+            this.apply = apply;
+            this.highwaterHint = highwaterHint;
+        }
+    }
+
     public static class DeltaWALApplied {
 
         public final long txId;
@@ -86,7 +86,15 @@ public class DeltaWALFactory {
         return deltaWALs;
     }
 
+    File checkpointFile(DeltaWAL wal) {
+        return new File(walDir, String.valueOf(wal.getPrevId()) + "_" + String.valueOf(wal.getId()) + ".checkpoint");
+    }
+
     void destroy(DeltaWAL wal) throws Exception {
         wal.destroy(walDir);
+        File checkpointFile = checkpointFile(wal);
+        if (checkpointFile.exists() && !checkpointFile.delete()) {
+            LOG.warn("Failed to delete checkpoint {}", checkpointFile);
+        }
     }
 }
@@ -0,0 +1,436 @@
+package com.jivesoftware.os.amza.service.storage.delta;
+
+import com.jivesoftware.os.amza.api.wal.WALPointer;
+import com.jivesoftware.os.amza.service.filer.DirectBufferCleaner;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps keys and packed pointers in direct byte buffer slabs so a large delta costs a handful of heap objects instead of several per row.
+ *
+ * Records are addressed by (slab index << 32 | offset). Point lookups go through an open addressing table of addresses. Ordering is kept as a
+ * small unsorted tail plus a stack of sorted runs which are merged as they grow, newest run wins on duplicate keys.
+ *
+ * Single writer, concurrent readers. The slabs are freed by {@link #release} when the delta is retired rather than left for the GC, whose
+ * heap pressure does not track direct memory. Only this key to pointer index is off heap, the prefix and txId to fp indexes of a
+ * {@link PartitionDelta} stay on the heap.
+ */
+public class OffHeapDeltaIndex implements DeltaIndex {
+
+    private static final int TAIL_CAPACITY = 128;
+    private static final byte TOMBSTONED = 1;
+    private static final byte HAS_VALUE = 2;
+
+    private final int initialSlabSizeInBytes;
+    private final int maxSlabSizeInBytes;
+
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private ByteBuffer writeSlab;
+    private volatile AtomicLongArray table = new AtomicLongArray(16); // address + 1, zero is empty
+    private volatile int count;
+    private volatile State state = new State(new long[0][], new Tail());
+
+    public OffHeapDeltaIndex(int initialSlabSizeInBytes, int maxSlabSizeInBytes) {
+        this.initialSlabSizeInBytes = initialSlabSizeInBytes;
+        this.maxSlabSizeInBytes = maxSlabSizeInBytes;
+    }
+
+    @Override
+    public WALPointer get(byte[] walKey) {
+        long address = find(table, ByteBuffer.wrap(walKey), walKey.length);
+        return address == -1 ? null : pointer(slabs, address);
+    }
+
+    @Override
+    public synchronized void put(byte[] walKey, long fp, long timestamp, boolean tombstoned, long version, boolean hasValue, byte[] value) {
+        long address = append(walKey, fp, timestamp, tombstoned, version, hasValue, value);
+        ByteBuffer[] slabs = this.slabs;
+
+        if ((count + 1) * 2 > table.length()) {
+            table = resize(slabs, table, table.length() * 2);
+        }
+        if (tableInsert(table, ByteBuffer.wrap(walKey), walKey.length, address)) {
+            count++;
+        }
+
+        State current = state;
+        Tail tail = current.tail;
+        tail.addresses[tail.length] = address;
+        tail.length++;
+        if (tail.length == TAIL_CAPACITY) {
+            long[][] runs = Arrays.copyOf(current.runs, current.runs.length + 1);
+            runs[runs.length - 1] = sortedDistinct(slabs, tail.addresses, tail.length);
+            while (runs.length > 1 && runs[runs.length - 2].length <= runs[runs.length - 1].length * 2) {
+                long[] merged = merge(slabs, runs[runs.length - 2], runs[runs.length - 1]);
+                runs = Arrays.copyOf(runs, runs.length - 1);
+                runs[runs.length - 1] = merged;
+            }
+            state = new State(runs, new Tail());
+        }
+    }
+
+    @Override
+    public long size() {
+        return count;
+    }
+
+    @Override
+    public Iterator<Map.Entry<byte[], WALPointer>> iterator(byte[] from, byte[] to) {
+        State current = state;
+        Tail tail = current.tail;
+        int tailLength = tail.length;
+        ByteBuffer[] slabs = this.slabs;
+
+        ByteBuffer fromKey = from != null ? ByteBuffer.wrap(from) : null;
+        ByteBuffer toKey = to != null ? ByteBuffer.wrap(to) : null;
+        if (fromKey != null && toKey != null && compareComposed(fromKey, 0, from.length, toKey, 0, to.length) > 0) {
+            throw new IllegalArgumentException("inconsistent range");
+        }
+
+        long[][] sources = Arrays.copyOf(current.runs, current.runs.length + 1);
+        sources[sources.length - 1] = sortedDistinct(slabs, tail.addresses, tailLength);
+        int[] cursors = new int[sources.length];
+        int[] ends = new int[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            cursors[i] = fromKey == null ? 0 : lowerBound(slabs, sources[i], fromKey, from.length);
+            ends[i] = toKey == null ? sources[i].length : lowerBound(slabs, sources[i], toKey, to.length);
+        }
+        return new RunsIterator(slabs, sources, cursors, ends);
+    }
+
+    @Override
+    public synchronized void release() {
+        ByteBuffer[] released = slabs;
+        slabs = new ByteBuffer[0];
+        writeSlab = null;
+        table = new AtomicLongArray(16);
+        count = 0;
+        state = new State(new long[0][], new Tail());
+        for (ByteBuffer slab : released) {
+            DirectBufferCleaner.clean(slab);
+        }
+    }
+
+    private long append(byte[] walKey, long fp, long timestamp, boolean tombstoned, long version, boolean hasValue, byte[] value) {
+        int valueLength = (hasValue && value != null) ? value.length : -1;
+        int recordLength = 4 + walKey.length + 8 + 8 + 8 + 1 + 4 + Math.max(valueLength, 0);
+        if (writeSlab == null || writeSlab.remaining() < recordLength) {
+            allocateSlab(recordLength);
+        }
+        long address = ((long) (slabs.length - 1) << 32) | writeSlab.position();
+        writeSlab.putInt(walKey.length);
+        writeSlab.put(walKey);
+        writeSlab.putLong(fp);
+        writeSlab.putLong(timestamp);
+        writeSlab.putLong(version);
+        writeSlab.put((byte) ((tombstoned ? TOMBSTONED : 0) | (hasValue ? HAS_VALUE : 0)));
+        writeSlab.putInt(valueLength);
+        if (valueLength > 0) {
+            writeSlab.put(value);
+        }
+        return address;
+    }
+
+    private void allocateSlab(int atLeast) {
+        ByteBuffer[] current = slabs;
+        int size = current.length == 0 ? initialSlabSizeInBytes : Math.min(maxSlabSizeInBytes, current[current.length - 1].capacity() * 2);
+        ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(size, atLeast));
+        ByteBuffer[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = slab;
+        writeSlab = slab.duplicate();
+        slabs = grown;
+    }
+
+    private long find(AtomicLongArray table, ByteBuffer key, int keyLength) {
+        int mask = table.length() - 1;
+        int i = hash(key, 0, keyLength) & mask;
+        while (true) {
+            long slot = table.get(i);
+            if (slot == 0) {
+                return -1;
+            }
+            long address = slot - 1;
+            if (keyEquals(slabs, address, key, keyLength)) {
+                return address;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private boolean tableInsert(AtomicLongArray table, ByteBuffer key, int keyLength, long address) {
+        int mask = table.length() - 1;
+        int i = hash(key, 0, keyLength) & mask;
+        while (true) {
+            long slot = table.get(i);
+            if (slot == 0) {
+                table.set(i, address + 1);
+                return true;
+            } else if (keyEquals(slabs, slot - 1, key, keyLength)) {
+                table.set(i, address + 1);
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private static AtomicLongArray resize(ByteBuffer[] slabs, AtomicLongArray table, int capacity) {
+        AtomicLongArray resized = new AtomicLongArray(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < table.length(); i++) {
+            long slot = table.get(i);
+            if (slot != 0) {
+                long address = slot - 1;
+                ByteBuffer slab = slab(slabs, address);
+                int offset = offset(address);
+                int j = hash(slab, offset + 4, slab.getInt(offset)) & mask;
+                while (resized.get(j) != 0) {
+                    j = (j + 1) & mask;
+                }
+                resized.set(j, slot);
+            }
+        }
+        return resized;
+    }
+
+    private static long[] sortedDistinct(ByteBuffer[] slabs, long[] addresses, int length) {
+        long[] sorted = new long[length];
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            long address = addresses[i];
+            ByteBuffer slab = slab(slabs, address);
+            int offset = offset(address);
+            int index = binarySearch(slabs, sorted, n, slab, offset + 4, slab.getInt(offset));
+            if (index >= 0) {
+                sorted[index] = address; // later wins
+            } else {
+                index = -(index + 1);
+                System.arraycopy(sorted, index, sorted, index + 1, n - index);
+                sorted[index] = address;
+                n++;
+            }
+        }
+        return n == length ? sorted : Arrays.copyOf(sorted, n);
+    }
+
+    private static long[] merge(ByteBuffer[] slabs, long[] older, long[] newer) {
+        long[] merged = new long[older.length + newer.length];
+        int o = 0;
+        int n = 0;
+        int m = 0;
+        while (o < older.length && n < newer.length) {
+            int c = compare(slabs, older[o], newer[n]);
+            if (c < 0) {
+                merged[m++] = older[o++];
+            } else if (c > 0) {
+                merged[m++] = newer[n++];
+            } else {
+                merged[m++] = newer[n++];
+                o++;
+            }
+        }
+        while (o < older.length) {
+            merged[m++] = older[o++];
+        }
+        while (n < newer.length) {
+            merged[m++] = newer[n++];
+        }
+        return m == merged.length ? merged : Arrays.copyOf(merged, m);
+    }
+
+    private static int binarySearch(ByteBuffer[] slabs, long[] sorted, int length, ByteBuffer key, int keyOffset, int keyLength) {
+        int low = 0;
+        int high = length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long address = sorted[mid];
+            ByteBuffer slab = slab(slabs, address);
+            int offset = offset(address);
+            int c = compareComposed(slab, offset + 4, slab.getInt(offset), key, keyOffset, keyLength);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int lowerBound(ByteBuffer[] slabs, long[] sorted, ByteBuffer key, int keyLength) {
+        int index = binarySearch(slabs, sorted, sorted.length, key, 0, keyLength);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    private static WALPointer pointer(ByteBuffer[] slabs, long address) {
+        ByteBuffer slab = slab(slabs, address);
+        int o = offset(address);
+        int keyLength = slab.getInt(o);
+        o += 4 + keyLength;
+        long fp = slab.getLong(o);
+        o += 8;
+        long timestamp = slab.getLong(o);
+        o += 8;
+        long version = slab.getLong(o);
+        o += 8;
+        byte flags = slab.get(o);
+        o++;
+        int valueLength = slab.getInt(o);
+        o += 4;
+        byte[] value = valueLength < 0 ? null : read(slab, o, valueLength);
+        return new WALPointer(fp, timestamp, (flags & TOMBSTONED) != 0, version, (flags & HAS_VALUE) != 0, value);
+    }
+
+    private static byte[] key(ByteBuffer[] slabs, long address) {
+        ByteBuffer slab = slab(slabs, address);
+        int offset = offset(address);
+        return read(slab, offset + 4, slab.getInt(offset));
+    }
+
+    private static byte[] read(ByteBuffer slab, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = slab.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer slab(ByteBuffer[] slabs, long address) {
+        return slabs[(int) (address >>> 32)];
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private static boolean keyEquals(ByteBuffer[] slabs, long address, ByteBuffer key, int keyLength) {
+        ByteBuffer slab = slab(slabs, address);
+        int offset = offset(address);
+        if (slab.getInt(offset) != keyLength) {
+            return false;
+        }
+        offset += 4;
+        for (int i = 0; i < keyLength; i++) {
+            if (slab.get(offset + i) != key.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int compare(ByteBuffer[] slabs, long a, long b) {
+        ByteBuffer aSlab = slab(slabs, a);
+        int aOffset = offset(a);
+        ByteBuffer bSlab = slab(slabs, b);
+        int bOffset = offset(b);
+        return compareComposed(aSlab, aOffset + 4, aSlab.getInt(aOffset), bSlab, bOffset + 4, bSlab.getInt(bOffset));
+    }
+
+    /**
+     * Same ordering as KeyUtil.compare: unsigned lexicographic on the prefix, then on the key.
+     */
+    private static int compareComposed(ByteBuffer a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+        int aPrefixLength = a.getShort(aOffset);
+        int bPrefixLength = b.getShort(bOffset);
+        int c = compareBytes(a, aOffset + 2, aPrefixLength, b, bOffset + 2, bPrefixLength);
+        if (c != 0) {
+            return c;
+        }
+        return compareBytes(a, aOffset + 2 + aPrefixLength, aLength - 2 - aPrefixLength,
+            b, bOffset + 2 + bPrefixLength, bLength - 2 - bPrefixLength);
+    }
+
+    private static int compareBytes(ByteBuffer a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+        int minLength = Math.min(aLength, bLength);
+        for (int i = 0; i < minLength; i++) {
+            int c = (a.get(aOffset + i) & 0xFF) - (b.get(bOffset + i) & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    private static int hash(ByteBuffer buf, int offset, int length) {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + buf.get(offset + i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static class Tail {
+
+        private final long[] addresses = new long[TAIL_CAPACITY];
+        private volatile int length;
+    }
+
+    private static class State {
+
+        private final long[][] runs; // oldest first
+        private final Tail tail;
+
+        private State(long[][] runs, Tail tail) {
+            this.runs = runs;
+            this.tail = tail;
+        }
+    }
+
+    private static class RunsIterator implements Iterator<Map.Entry<byte[], WALPointer>> {
+
+        private final ByteBuffer[] slabs;
+        private final long[][] sources; // oldest first
+        private final int[] cursors;
+        private final int[] ends;
+
+        private RunsIterator(ByteBuffer[] slabs, long[][] sources, int[] cursors, int[] ends) {
+            this.slabs = slabs;
+            this.sources = sources;
+            this.cursors = cursors;
+            this.ends = ends;
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (int i = 0; i < sources.length; i++) {
+                if (cursors[i] < ends[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Map.Entry<byte[], WALPointer> next() {
+            int winner = -1;
+            for (int i = 0; i < sources.length; i++) {
+                if (cursors[i] < ends[i]) {
+                    // ties go to the newer source
+                    if (winner == -1 || compare(slabs, sources[i][cursors[i]], sources[winner][cursors[winner]]) <= 0) {
+                        winner = i;
+                    }
+                }
+            }
+            if (winner == -1) {
+                throw new NoSuchElementException();
+            }
+            long address = sources[winner][cursors[winner]];
+            for (int i = 0; i < sources.length; i++) {
+                if (cursors[i] < ends[i] && compare(slabs, sources[i][cursors[i]], address) == 0) {
+                    cursors[i]++;
+                }
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(key(slabs, address), pointer(slabs, address));
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Not supported ever!");
+        }
+    }
+}
@@ -12,7 +12,6 @@ import com.jivesoftware.os.amza.api.stream.KeyValuePointerStream;
 import com.jivesoftware.os.amza.api.stream.KeyValues;
 import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.stream.WALKeyPointerStream;
-import com.jivesoftware.os.amza.api.wal.KeyUtil;
 import com.jivesoftware.os.amza.api.wal.WALIndex;
 import com.jivesoftware.os.amza.api.wal.WALKey;
 import com.jivesoftware.os.amza.api.wal.WALPointer;
@@ -20,15 +19,12 @@ import com.jivesoftware.os.amza.api.wal.WALPrefix;
 import com.jivesoftware.os.amza.service.storage.PartitionIndex;
 import com.jivesoftware.os.amza.service.storage.PartitionStore;
 import com.jivesoftware.os.amza.service.take.HighwaterStorage;
-import com.jivesoftware.os.jive.utils.collections.bah.ConcurrentBAHash;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -46,8 +42,7 @@ class PartitionDelta {
     private final int maxValueSizeInIndex;
     private final AtomicReference<PartitionDelta> mergingDelta;
 
-    private final ConcurrentBAHash<WALPointer> pointerIndex = new ConcurrentBAHash<>(3, true, 4);
-    private final ConcurrentSkipListMap<byte[], WALPointer> orderedIndex = new ConcurrentSkipListMap<>(KeyUtil::compare);
+    private final DeltaIndex deltaIndex;
     private final Map<WALPrefix, AppendOnlyConcurrentArrayList> prefixTxFpIndex = Maps.newConcurrentMap();
     private final AppendOnlyConcurrentArrayList txIdWAL = new AppendOnlyConcurrentArrayList(11); //TODO expose to config
     private final AtomicLong updatesSinceLastHighwaterFlush = new AtomicLong();
@@ -55,10 +50,12 @@ class PartitionDelta {
     PartitionDelta(VersionedPartitionName versionedPartitionName,
         DeltaWAL deltaWAL,
         int maxValueSizeInIndex,
+        DeltaIndex deltaIndex,
         PartitionDelta merging) {
         this.versionedPartitionName = versionedPartitionName;
         this.deltaWAL = deltaWAL;
         this.maxValueSizeInIndex = maxValueSizeInIndex;
+        this.deltaIndex = deltaIndex;
         this.mergingDelta = new AtomicReference<>(merging);
     }
 
@@ -87,12 +84,16 @@ class PartitionDelta {
     }
 
     public long size() {
-        return pointerIndex.size();
+        return deltaIndex.size();
+    }
+
+    void releaseIndex() {
+        deltaIndex.release();
     }
 
     /*public long mergedSize() {
         PartitionDelta merge = mergingDelta.get();
-        return pointerIndex.size() + (merge != null ? merge.size() : 0);
+        return deltaIndex.size() + (merge != null ? merge.size() : 0);
     }*/
 
     private PartitionDelta acquireMerging() {
@@ -117,7 +118,7 @@ class PartitionDelta {
                     return mergingPartitionDelta.streamRawValues(ioStats,
                         prefix,
                         mergingKeyStream -> keys.consume((key) -> {
-                            WALPointer got = pointerIndex.get(WALKey.compose(prefix, key));
+                            WALPointer got = deltaIndex.get(WALKey.compose(prefix, key));
                             if (got == null) {
                                 return mergingKeyStream.stream(key);
                             } else if (got.getHasValue()) {
@@ -139,7 +140,7 @@ class PartitionDelta {
                 }
             } else {
                 return keys.consume((key) -> {
-                    WALPointer got = pointerIndex.get(WALKey.compose(prefix, key));
+                    WALPointer got = deltaIndex.get(WALKey.compose(prefix, key));
                     if (got == null) {
                         return fpKeyValueStream.stream(-1, null, prefix, key, null, -1, false, -1);
                     } else if (got.getHasValue()) {
@@ -164,7 +165,7 @@ class PartitionDelta {
     }
 
     WALPointer getPointer(byte[] prefix, byte[] key) throws Exception {
-        WALPointer got = pointerIndex.get(WALKey.compose(prefix, key));
+        WALPointer got = deltaIndex.get(WALKey.compose(prefix, key));
         if (got != null) {
             return got;
         }
@@ -214,16 +215,13 @@ class PartitionDelta {
         boolean valueTombstone,
         long valueVersion) throws InterruptedException {
 
-        WALPointer pointer;
         int valueLength = (value == null) ? 0 : value.length;
+        byte[] walKey = WALKey.compose(prefix, key);
         if (maxValueSizeInIndex >= 0 && maxValueSizeInIndex >= valueLength) {
-            pointer = new WALPointer(fp, valueTimestamp, valueTombstone, valueVersion, true, value);
+            deltaIndex.put(walKey, fp, valueTimestamp, valueTombstone, valueVersion, true, value);
         } else {
-            pointer = new WALPointer(fp, valueTimestamp, valueTombstone, valueVersion, false, null);
+            deltaIndex.put(walKey, fp, valueTimestamp, valueTombstone, valueVersion, false, null);
         }
-        byte[] walKey = WALKey.compose(prefix, key);
-        pointerIndex.put(walKey, pointer);
-        orderedIndex.put(walKey, pointer);
     }
 
     private final AtomicBoolean firstAndOnlyOnce = new AtomicBoolean(true);
@@ -241,7 +239,9 @@ class PartitionDelta {
     boolean keys(WALKeyPointerStream keyPointerStream) throws Exception {
         return WALKey.decompose(
             txFpRawKeyValueEntryStream -> {
-                for (Map.Entry<byte[], WALPointer> entry : orderedIndex.entrySet()) {
+                Iterator<Map.Entry<byte[], WALPointer>> iterator = deltaIndex.iterator(null, null);
+                while (iterator.hasNext()) {
+                    Map.Entry<byte[], WALPointer> entry = iterator.next();
                     WALPointer pointer = entry.getValue();
                     if (!txFpRawKeyValueEntryStream.stream(-1,
                         pointer.getFp(),
@@ -265,40 +265,24 @@ class PartitionDelta {
     DeltaPeekableElmoIterator rangeScanIterator(byte[] fromPrefix, byte[] fromKey, byte[] toPrefix, byte[] toKey, boolean hydrateValues) {
         byte[] from = fromKey != null ? WALKey.compose(fromPrefix, fromKey) : null;
         byte[] to = toKey != null ? WALKey.compose(toPrefix, toKey) : null;
-        Iterator<Map.Entry<byte[], WALPointer>> iterator = subMap(orderedIndex, from, to).entrySet().iterator();
+        Iterator<Map.Entry<byte[], WALPointer>> iterator = deltaIndex.iterator(from, to);
         Iterator<Map.Entry<byte[], WALPointer>> mergingIterator = Iterators.emptyIterator();
         DeltaWAL mergingDeltaWAL = null;
         PartitionDelta mergingPartitionDelta = acquireMerging();
         if (mergingPartitionDelta != null) {
-            mergingIterator = subMap(mergingPartitionDelta.orderedIndex, from, to).entrySet().iterator();
+            mergingIterator = mergingPartitionDelta.deltaIndex.iterator(from, to);
             mergingDeltaWAL = mergingPartitionDelta.deltaWAL;
         }
         return new DeltaPeekableElmoIterator(iterator, mergingIterator, deltaWAL, mergingDeltaWAL, hydrateValues);
     }
 
-    private static ConcurrentNavigableMap<byte[], WALPointer> subMap(ConcurrentSkipListMap<byte[], WALPointer> index, byte[] from, byte[] to) {
-        if (from != null && to != null) {
-            if (KeyUtil.compare(from, to) <= 0) {
-                return index.subMap(from, to);
-            } else {
-                return index.subMap(from, to).descendingMap();
-            }
-        } else if (from != null) {
-            return index.tailMap(from, true);
-        } else if (to != null) {
-            return index.headMap(to, false);
-        } else {
-            return index;
-        }
-    }
-
     DeltaPeekableElmoIterator rowScanIterator(boolean hydrateValues) {
-        Iterator<Map.Entry<byte[], WALPointer>> iterator = orderedIndex.entrySet().iterator();
+        Iterator<Map.Entry<byte[], WALPointer>> iterator = deltaIndex.iterator(null, null);
         Iterator<Map.Entry<byte[], WALPointer>> mergingIterator = Iterators.emptyIterator();
         DeltaWAL mergingDeltaWAL = null;
         PartitionDelta mergingPartitionDelta = acquireMerging();
         if (mergingPartitionDelta != null) {
-            mergingIterator = mergingPartitionDelta.orderedIndex.entrySet().iterator();
+            mergingIterator = mergingPartitionDelta.deltaIndex.iterator(null, null);
             mergingDeltaWAL = mergingPartitionDelta.deltaWAL;
         }
         return new DeltaPeekableElmoIterator(iterator, mergingIterator, deltaWAL, mergingDeltaWAL, hydrateValues);
@@ -385,6 +369,41 @@ class PartitionDelta {
         }
     }
 
+    /**
+     * Streams the pointers for rows before endFp. A key whose pointer is at or beyond endFp is skipped because replaying the rows from endFp
+     * restores its latest pointer.
+     */
+    boolean checkpointPointers(long endFp, DeltaCheckpoint.PointerStream pointerStream) throws Exception {
+        Iterator<Map.Entry<byte[], WALPointer>> iterator = deltaIndex.iterator(null, null);
+        while (iterator.hasNext()) {
+            Map.Entry<byte[], WALPointer> entry = iterator.next();
+            if (entry.getValue().getFp() < endFp && !pointerStream.stream(entry.getKey(), entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Streams the txFps for rows before endFp in tx order.
+     */
+    void checkpointTxFps(long endFp, TxFpsStream txFpsStream) throws Exception {
+        txIdWAL.streamFromTxId(Long.MIN_VALUE, true, txFps -> txFps.fps[0] < endFp && txFpsStream.stream(txFps));
+    }
+
+    void restore(DeltaCheckpoint.Partition partition) {
+        for (int i = 0; i < partition.walKeys.size(); i++) {
+            WALPointer pointer = partition.pointers.get(i);
+            deltaIndex.put(partition.walKeys.get(i), pointer.getFp(), pointer.getTimestampId(), pointer.getTombstoned(), pointer.getVersion(),
+                pointer.getHasValue(), pointer.getValue());
+        }
+        for (TxFps txFps : partition.txFps) {
+            for (long fp : txFps.fps) {
+                onLoadAppendTxFp(txFps.prefix, txFps.txId, fp);
+            }
+        }
+    }
+
     void appendTxFps(byte[] prefix, long rowTxId, long[] rowFPs) {
         TxFps txFps = new TxFps(prefix, rowTxId, rowFPs);
         if (prefix != null) {
@@ -487,8 +506,7 @@ class PartitionDelta {
                         partitionStore = partitionIndex.get("merge", merge.versionedPartitionName, properties, stripe);
                     }
                     long highestTxId = partitionStore.highestTxId();
-                    LOG.info("Merging ({}) deltas for partition: {} from tx: {}", merge.pointerIndex.size(), merge.versionedPartitionName, highestTxId);
-                    LOG.debug("Merging keys: {}", merge.orderedIndex.keySet());
+                    LOG.info("Merging ({}) deltas for partition: {} from tx: {}", merge.deltaIndex.size(), merge.versionedPartitionName, highestTxId);
                     MutableBoolean eos = new MutableBoolean(false);
 
                     PartitionStore mergeToStore = partitionStore;
@@ -511,7 +529,7 @@ class PartitionDelta {
                                     },
                                     (fp, rowType, prefix, key, value, valueTimestamp, valueTombstone, valueVersion, highwater) -> {
                                         // prefix is the partitionName and is discarded
-                                        WALPointer pointer = merge.orderedIndex.get(key);
+                                        WALPointer pointer = merge.deltaIndex.get(key);
                                         if (pointer == null) {
                                             throw new RuntimeException("Delta WAL missing"
                                                 + " prefix: " + Arrays.toString(prefix)
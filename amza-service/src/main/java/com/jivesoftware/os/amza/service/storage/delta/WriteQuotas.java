@@ -0,0 +1,82 @@
+package com.jivesoftware.os.amza.service.storage.delta;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
+import com.jivesoftware.os.amza.api.DeltaOverCapacityException;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.PartitionProperties;
+import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import com.jivesoftware.os.jive.utils.collections.bah.ConcurrentBAHash;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket write quotas for partitions and rings, shared by every delta stripe so a partition is held to its rate no matter which
+ * stripe it lands on. A writer waits up to maxDelayMillis for its rows to fit in the buckets and is otherwise rejected as over capacity,
+ * which leaves the retrying to the caller's existing delta over capacity handling.
+ * <p>
+ * Quotas are enforced per node, not cluster-wide: every replica holds its own buckets, so a partition replicated to N nodes may accept up to
+ * writeRowsPerSecond on each node that takes client writes.
+ */
+public class WriteQuotas {
+
+    private final AmzaStats amzaStats;
+    private final long maxDelayMillis;
+    private final Map<PartitionName, Quota> partitionQuotas = Maps.newConcurrentMap();
+    private final ConcurrentBAHash<Quota> ringQuotas = new ConcurrentBAHash<>(13, true, 4);
+
+    public WriteQuotas(AmzaStats amzaStats, long maxDelayMillis) {
+        this.amzaStats = amzaStats;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * The ring bucket is refilled at the rate carried by whichever partition of the ring is writing, so the partitions of a ring are expected
+     * to agree on ringWriteRowsPerSecond.
+     */
+    public void acquire(PartitionName partitionName, PartitionProperties properties, int rows) throws Exception {
+        if (rows <= 0 || (properties.writeRowsPerSecond <= 0 && properties.ringWriteRowsPerSecond <= 0)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        boolean acquired = true;
+        // the partition bucket goes first so a noisy partition that is rejected only spends its own budget and not the ring's shared one
+        if (properties.writeRowsPerSecond > 0) {
+            Quota quota = partitionQuotas.computeIfAbsent(partitionName, key -> new Quota(properties.writeRowsPerSecond));
+            acquired = quota.tryAcquire(properties.writeRowsPerSecond, rows, maxDelayMillis);
+        }
+        if (acquired && properties.ringWriteRowsPerSecond > 0) {
+            Quota quota = ringQuotas.computeIfAbsent(partitionName.getRingName(), key -> new Quota(properties.ringWriteRowsPerSecond));
+            long remainingMillis = Math.max(0, maxDelayMillis - (System.currentTimeMillis() - start));
+            acquired = quota.tryAcquire(properties.ringWriteRowsPerSecond, rows, remainingMillis);
+        }
+
+        long delayMillis = System.currentTimeMillis() - start;
+        if (!acquired) {
+            amzaStats.throttled(partitionName, delayMillis, true);
+            throw new DeltaOverCapacityException("Write quota exceeded");
+        } else if (delayMillis > 0) {
+            amzaStats.throttled(partitionName, delayMillis, false);
+        }
+    }
+
+    private static class Quota {
+
+        private final RateLimiter rateLimiter;
+        private volatile long rowsPerSecond;
+
+        private Quota(long rowsPerSecond) {
+            this.rateLimiter = RateLimiter.create(rowsPerSecond);
+            this.rowsPerSecond = rowsPerSecond;
+        }
+
+        private boolean tryAcquire(long rowsPerSecond, int rows, long timeoutMillis) {
+            if (this.rowsPerSecond != rowsPerSecond) {
+                rateLimiter.setRate(rowsPerSecond);
+                this.rowsPerSecond = rowsPerSecond;
+            }
+            return rateLimiter.tryAcquire(rows, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.jivesoftware.os.amza.service.take;
+
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.ring.RingHost;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.service.replication.http.HttpRowsTaker.PongPayload;
+import com.jivesoftware.os.amza.service.replication.http.HttpRowsTaker.RowsTakenPayload;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import com.jivesoftware.os.mlogger.core.ValueType;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coalesces the acks and pongs a {@link RowsTaker} owes each host, keeping only the latest ack per partition and the latest pong, and hands
+ * them to the transport as one batch per host. At most one batch per host is in flight; whatever arrives meanwhile goes out in the next.
+ */
+public class AckBatcher {
+
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
+    public interface AckBatchDelivery {
+
+        void deliver(RingHost ringHost, Map<VersionedPartitionName, RowsTakenPayload> rowsTaken, PongPayload pong) throws Exception;
+    }
+
+    private final String name;
+    private final ExecutorService queueExecutor;
+    private final ExecutorService flushExecutor;
+    private final AckBatchDelivery delivery;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong flushVersion = new AtomicLong();
+    private final Map<RingHost, Ackable> hostQueue = Maps.newConcurrentMap();
+    private volatile Future<?> flusher;
+
+    public AckBatcher(String name, ExecutorService queueExecutor, ExecutorService flushExecutor, AckBatchDelivery delivery) {
+        this.name = name;
+        this.queueExecutor = queueExecutor;
+        this.flushExecutor = flushExecutor;
+        this.delivery = delivery;
+    }
+
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            flusher = queueExecutor.submit(() -> {
+                while (running.get()) {
+                    try {
+                        long currentVersion = flushVersion.get();
+                        for (Entry<RingHost, Ackable> entry : hostQueue.entrySet()) {
+                            Ackable ackable = entry.getValue();
+                            if (ackable.running.compareAndSet(false, true)) {
+                                flushQueues(entry.getKey(), ackable, currentVersion);
+                            }
+                        }
+                        synchronized (flushVersion) {
+                            if (running.get() && currentVersion == flushVersion.get()) {
+                                flushVersion.wait();
+                            }
+                        }
+                    } catch (InterruptedException x) {
+                        break;
+                    } catch (Throwable t) {
+                        LOG.error("AckBatcher:{} failure", new Object[] { name }, t);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops flushing. Acks that have not been delivered yet are dropped, which a taker tolerates since the remote re-offers the rows.
+     */
+    public void stop() {
+        if (running.compareAndSet(true, false)) {
+            synchronized (flushVersion) {
+                flushVersion.notifyAll();
+            }
+            Future<?> got = flusher;
+            if (got != null) {
+                got.cancel(true);
+            }
+        }
+    }
+
+    private static class Ackable {
+        public final AtomicBoolean running = new AtomicBoolean(false);
+        public final Semaphore semaphore = new Semaphore(Short.MAX_VALUE);
+        public final AtomicReference<Map<VersionedPartitionName, RowsTakenPayload>> rowsTakenPayloads = new AtomicReference<>(Maps.newConcurrentMap());
+        public final AtomicReference<PongPayload> pongPayloads = new AtomicReference<>();
+    }
+
+    public void rowsTaken(RingMember localRingMember,
+        RingHost remoteRingHost,
+        long takeSessionId,
+        long takeSharedKey,
+        VersionedPartitionName versionedPartitionName,
+        long txId,
+        long localLeadershipToken) throws InterruptedException {
+
+        Ackable ackable = hostQueue.computeIfAbsent(remoteRingHost, ringHost -> new Ackable());
+        ackable.semaphore.acquire();
+        try {
+            ackable.rowsTakenPayloads.get().put(versionedPartitionName, new RowsTakenPayload(localRingMember,
+                takeSessionId,
+                takeSharedKey,
+                txId,
+                localLeadershipToken));
+        } finally {
+            ackable.semaphore.release();
+        }
+        LOG.inc("rowsTaken");
+        enqueued();
+    }
+
+    public void pong(RingMember localRingMember, RingHost remoteRingHost, long takeSessionId, long takeSharedKey) throws InterruptedException {
+        Ackable ackable = hostQueue.computeIfAbsent(remoteRingHost, ringHost -> new Ackable());
+        ackable.semaphore.acquire();
+        try {
+            ackable.pongPayloads.set(new PongPayload(localRingMember, takeSessionId, takeSharedKey));
+        } finally {
+            ackable.semaphore.release();
+        }
+        LOG.inc("pong");
+        enqueued();
+    }
+
+    private void enqueued() {
+        LOG.set(ValueType.COUNT, "flush>version>enqueue>" + name, flushVersion.incrementAndGet());
+        synchronized (flushVersion) {
+            flushVersion.notify();
+        }
+    }
+
+    private void flushQueues(RingHost ringHost, Ackable ackable, long currentVersion) throws Exception {
+        Map<VersionedPartitionName, RowsTakenPayload> rowsTaken;
+        PongPayload pong;
+        ackable.semaphore.acquire(Short.MAX_VALUE);
+        try {
+            rowsTaken = ackable.rowsTakenPayloads.getAndSet(Maps.newConcurrentMap());
+            pong = ackable.pongPayloads.getAndSet(null);
+        } finally {
+            ackable.semaphore.release(Short.MAX_VALUE);
+        }
+        if (rowsTaken != null && !rowsTaken.isEmpty()) {
+            LOG.inc("flush>rowsTaken>pow>" + UIO.chunkPower(rowsTaken.size(), 0));
+        }
+
+        if (rowsTaken != null && !rowsTaken.isEmpty() || pong != null) {
+            flushExecutor.submit(() -> {
+                try {
+                    delivery.deliver(ringHost, rowsTaken, pong);
+                } catch (Exception x) {
+                    LOG.warn("Failed to deliver acks for remote:{}", new Object[] { ringHost }, x);
+                } finally {
+                    flushed(ackable, currentVersion);
+                }
+            });
+        } else {
+            flushed(ackable, currentVersion);
+        }
+    }
+
+    private void flushed(Ackable ackable, long currentVersion) {
+        ackable.running.set(false);
+        LOG.inc("flush>version>consume>" + name);
+        synchronized (flushVersion) {
+            if (currentVersion != flushVersion.get()) {
+                flushVersion.notify();
+            }
+        }
+    }
+
+    /**
+     * Writes the ack batch wire format shared by the http and tcp transports: a hasMore byte before each partition's ack, a zero byte to end
+     * the acks, then a has pong byte followed by the pong.
+     */
+    public static void writeAckBatch(DataOutputStream dos, Map<VersionedPartitionName, RowsTakenPayload> rowsTaken, PongPayload pong) throws IOException {
+        for (Entry<VersionedPartitionName, RowsTakenPayload> e : rowsTaken.entrySet()) {
+            dos.write((byte) 1); // hasMore for rowsTaken stream
+            writeBytes(dos, e.getKey().toBytes());
+
+            RowsTakenPayload rowsTakenPayload = e.getValue();
+            writeBytes(dos, rowsTakenPayload.ringMember.toBytes());
+            dos.writeLong(rowsTakenPayload.takeSessionId);
+            dos.writeLong(rowsTakenPayload.takeSharedKey);
+            dos.writeLong(rowsTakenPayload.txId);
+            dos.writeLong(rowsTakenPayload.leadershipToken);
+        }
+        dos.write((byte) 0); // EOS for rowsTaken stream
+
+        if (pong == null) {
+            dos.write((byte) 0); // has pong
+        } else {
+            dos.write((byte) 1); // has pong
+            writeBytes(dos, pong.ringMember.toBytes());
+            dos.writeLong(pong.takeSessionId);
+            dos.writeLong(pong.takeSharedKey);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+        dos.writeShort(bytes.length);
+        dos.write(bytes);
+    }
+}
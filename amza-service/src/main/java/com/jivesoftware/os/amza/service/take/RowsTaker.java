@@ -18,7 +18,8 @@ package com.jivesoftware.os.amza.service.take;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.ring.RingHost;
 import com.jivesoftware.os.amza.api.ring.RingMember;
-import com.jivesoftware.os.amza.api.scan.RowStream;
+import com.jivesoftware.os.amza.api.stream.RowType;
+import java.io.File;
 import java.util.Map;
 
 public interface RowsTaker {
@@ -32,7 +33,15 @@ public interface RowsTaker {
         long remoteTxId,
         long localLeadershipToken,
         long limit,
-        RowStream rowStream);
+        RowViewStream rowStream);
+
+    /**
+     * A row is a view of {@code length} bytes at {@code offset} in a buffer that is reused once this returns, so copy anything you keep.
+     */
+    interface RowViewStream {
+
+        boolean row(long rowFP, long rowTxId, RowType rowType, byte[] buffer, int offset, int length) throws Exception;
+    }
 
     class StreamingRowsResult {
 
@@ -55,6 +64,32 @@ public interface RowsTaker {
         }
     }
 
+    /**
+     * Copies the raw WAL of the remote partition from the given txId onward into a local file, which a new or lagging taker replays instead
+     * of taking row by row. The remote declines unless at least its snapshot threshold of bytes is behind.
+     */
+    StreamingSnapshotResult snapshotStream(RingMember localRingMember,
+        RingMember remoteRingMember,
+        RingHost remoteRingHost,
+        VersionedPartitionName remoteVersionedPartitionName,
+        long takeSessionId,
+        long takeSharedKey,
+        long remoteTxId,
+        File snapshotFile);
+
+    class StreamingSnapshotResult {
+
+        public final Throwable unreachable;
+        public final Throwable error;
+        public final long snapshotBytes; // -1 when the remote declined
+
+        public StreamingSnapshotResult(Exception unreachable, Exception error, long snapshotBytes) {
+            this.unreachable = unreachable;
+            this.error = error;
+            this.snapshotBytes = snapshotBytes;
+        }
+    }
+
     boolean rowsTaken(RingMember localRingMember,
         RingMember remoteRingMember,
         RingHost remoteRingHost,
@@ -73,4 +108,5 @@ public interface RowsTaker {
         long takeSharedKey,
         VersionedPartitionName remoteVersionedPartitionName);
 
+    void stop();
 }
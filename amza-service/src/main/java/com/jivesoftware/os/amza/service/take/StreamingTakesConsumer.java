@@ -3,88 +3,155 @@ package com.jivesoftware.os.amza.service.take;
 import com.jivesoftware.os.amza.api.AmzaInterner;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.ring.RingMember;
-import com.jivesoftware.os.amza.api.scan.RowStream;
 import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.service.PropertiesNotPresentException;
 import com.jivesoftware.os.amza.service.take.AvailableRowsTaker.AvailableStream;
 import com.jivesoftware.os.amza.service.take.AvailableRowsTaker.PingStream;
+import com.jivesoftware.os.amza.service.take.RowsTaker.RowViewStream;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
 import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- *
+ * Decodes take streams into a pooled, growable buffer. Rows are handed out as views over that buffer which are only valid for the duration of
+ * the callback, so a catch up of a large partition allocates one buffer rather than one array per row.
  */
 public class StreamingTakesConsumer {
 
     private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
     private final AmzaInterner amzaInterner;
+    private final int initialBufferSizeInBytes;
+    private final int maxPooledBufferSizeInBytes;
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
 
-    public StreamingTakesConsumer(AmzaInterner amzaInterner) {
+    public StreamingTakesConsumer(AmzaInterner amzaInterner, int initialBufferSizeInBytes, int maxPooledBufferSizeInBytes) {
         this.amzaInterner = amzaInterner;
+        this.initialBufferSizeInBytes = initialBufferSizeInBytes;
+        this.maxPooledBufferSizeInBytes = maxPooledBufferSizeInBytes;
     }
 
     public void consume(DataInputStream dis, AvailableStream updatedPartitionsStream, PingStream pingStream) throws Exception {
-        while (dis.read() == 1) {
-            int partitionNameLength = dis.readInt();
-            if (partitionNameLength == 0) {
-                pingStream.ping();
-                continue;
-            }
-            byte[] versionedPartitionNameBytes = new byte[partitionNameLength];
-            dis.readFully(versionedPartitionNameBytes);
-            long txId = dis.readLong();
-            try {
-                VersionedPartitionName versionedPartitionName = amzaInterner.internVersionedPartitionName(versionedPartitionNameBytes, 0,
-                    versionedPartitionNameBytes.length);
-                updatedPartitionsStream.available(versionedPartitionName, txId);
-            } catch (PropertiesNotPresentException e) {
-                LOG.warn(e.getMessage());
-            } catch (Throwable t) {
-                LOG.error("Encountered problem while streaming available rows", t);
+        byte[] buffer = acquireBuffer();
+        try {
+            while (dis.read() == 1) {
+                int partitionNameLength = dis.readInt();
+                if (partitionNameLength == 0) {
+                    pingStream.ping();
+                    continue;
+                }
+                buffer = ensureCapacity(buffer, partitionNameLength);
+                dis.readFully(buffer, 0, partitionNameLength);
+                long txId = dis.readLong();
+                try {
+                    VersionedPartitionName versionedPartitionName = amzaInterner.internVersionedPartitionName(buffer, 0, partitionNameLength);
+                    updatedPartitionsStream.available(versionedPartitionName, txId);
+                } catch (PropertiesNotPresentException e) {
+                    LOG.warn(e.getMessage());
+                } catch (Throwable t) {
+                    LOG.error("Encountered problem while streaming available rows", t);
+                }
             }
+        } finally {
+            releaseBuffer(buffer);
         }
     }
 
-    public StreamingTakeConsumed consume(DataInputStream is, RowStream tookRowUpdates) throws Exception {
+    public StreamingTakeConsumed consume(DataInputStream is, RowViewStream tookRowUpdates) throws Exception {
         Map<RingMember, Long> neighborsHighwaterMarks = new HashMap<>();
         long leadershipToken;
         long partitionVersion;
         boolean isOnline;
         long bytes = 0;
         boolean streamedToEnd = false;
+        byte[] buffer = acquireBuffer();
         try (DataInputStream dis = is) {
             leadershipToken = dis.readLong();
             partitionVersion = dis.readLong();
             isOnline = dis.readByte() == 1;
             while (dis.readByte() == 1) {
-                byte[] ringMemberBytes = new byte[dis.readInt()];
-                dis.readFully(ringMemberBytes);
+                int ringMemberLength = dis.readInt();
+                buffer = ensureCapacity(buffer, ringMemberLength);
+                dis.readFully(buffer, 0, ringMemberLength);
                 long highwaterMark = dis.readLong();
-                neighborsHighwaterMarks.put(amzaInterner.internRingMember(ringMemberBytes, 0, ringMemberBytes.length), highwaterMark);
-                bytes += 1 + 4 + ringMemberBytes.length + 8;
+                neighborsHighwaterMarks.put(amzaInterner.internRingMember(buffer, 0, ringMemberLength), highwaterMark);
+                bytes += 1 + 4 + ringMemberLength + 8;
             }
             while (dis.readByte() == 1) {
                 long rowTxId = dis.readLong();
                 RowType rowType = RowType.fromByte(dis.readByte());
-                byte[] rowBytes = new byte[dis.readInt()];
-                dis.readFully(rowBytes);
-                bytes += 1 + 8 + 1 + 4 + rowBytes.length;
+                int rowLength = dis.readInt();
+                buffer = ensureCapacity(buffer, rowLength);
+                dis.readFully(buffer, 0, rowLength);
+                bytes += 1 + 8 + 1 + 4 + rowLength;
                 if (rowType != null) {
-                    if (!tookRowUpdates.row(-1, rowTxId, rowType, rowBytes)) {
+                    if (!tookRowUpdates.row(-1, rowTxId, rowType, buffer, 0, rowLength)) {
                         break;
                     }
                 }
             }
             streamedToEnd = dis.readByte() == 1;
 
+        } finally {
+            releaseBuffer(buffer);
         }
         return new StreamingTakeConsumed(leadershipToken, partitionVersion, isOnline, neighborsHighwaterMarks, bytes, streamedToEnd);
 
     }
 
+    /**
+     * @return the number of snapshot bytes written to the file, or -1 if the remote declined to snapshot
+     */
+    public long consume(DataInputStream is, File snapshotFile) throws Exception {
+        try (DataInputStream dis = is) {
+            if (dis.readByte() != 1) {
+                return -1;
+            }
+            long length = dis.readLong();
+            try (FileChannel channel = FileChannel.open(snapshotFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ReadableByteChannel source = Channels.newChannel(dis);
+                long position = 0;
+                while (position < length) {
+                    long transferred = channel.transferFrom(source, position, length - position);
+                    if (transferred <= 0) {
+                        throw new EOFException("Snapshot ended after " + position + " of " + length + " bytes");
+                    }
+                    position += transferred;
+                }
+            }
+            return length;
+        }
+    }
+
+    private byte[] acquireBuffer() {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[initialBufferSizeInBytes];
+    }
+
+    private void releaseBuffer(byte[] buffer) {
+        if (buffer.length <= maxPooledBufferSizeInBytes) {
+            buffers.offer(buffer);
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int length) {
+        if (buffer.length >= length) {
+            return buffer;
+        }
+        long grown = Math.max(length, (long) buffer.length << 1);
+        return new byte[(int) Math.min(grown, Integer.MAX_VALUE - 8)];
+    }
+
     public static class StreamingTakeConsumed {
 
         public final long leadershipToken;
@@ -0,0 +1,202 @@
+package com.jivesoftware.os.amza.service;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.FailedToAchieveQuorumException;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import com.jivesoftware.os.mlogger.core.CountersAndTimers;
+import com.jivesoftware.os.routing.bird.health.api.HealthTimer;
+import com.jivesoftware.os.routing.bird.health.api.NoOpHealthChecker;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class AckWatersNGTest {
+
+    private final RingMember member1 = new RingMember("member1");
+    private final RingMember member2 = new RingMember("member2");
+    private final RingMember member3 = new RingMember("member3");
+    private final List<RingMember> members = Lists.newArrayList(member1, member2, member3);
+    private final VersionedPartitionName partition = new VersionedPartitionName(
+        new PartitionName(false, "ring".getBytes(StandardCharsets.UTF_8), "partition".getBytes(StandardCharsets.UTF_8)), 1);
+
+    private AckWaters ackWaters;
+
+    @BeforeMethod
+    public void setUp() {
+        HealthTimer quorumLatency = new HealthTimer(CountersAndTimers.getOrCreate("test"), "test", new NoOpHealthChecker<>("test"));
+        ackWaters = new AckWaters(new AmzaStats(), new AmzaStats(), quorumLatency, false);
+    }
+
+    @Test
+    public void testCompletesWhenQuorumAcks() throws Exception {
+        CompletableFuture<Integer> quorum = ackWaters.awaitAsync(partition, 10, members, 2, 10_000, -1, null);
+        ackWaters.set(member1, partition, 10, -1);
+        ackWaters.set(member2, partition, 9, -1);
+        Assert.assertFalse(quorum.isDone());
+
+        ackWaters.set(member2, partition, 11, -1);
+        Assert.assertEquals(quorum.get(10_000, TimeUnit.MILLISECONDS).intValue(), 2);
+    }
+
+    @Test
+    public void testCompletesImmediatelyWhenAlreadyAcked() throws Exception {
+        ackWaters.set(member1, partition, 10, -1);
+        ackWaters.set(member3, partition, 12, -1);
+        CompletableFuture<Integer> quorum = ackWaters.awaitAsync(partition, 10, members, 2, 10_000, -1, null);
+        Assert.assertEquals(quorum.get(10_000, TimeUnit.MILLISECONDS).intValue(), 2);
+    }
+
+    @Test
+    public void testIgnoresOtherPartitionsAndMembers() throws Exception {
+        VersionedPartitionName otherVersion = new VersionedPartitionName(partition.getPartitionName(), 2);
+        CompletableFuture<Integer> quorum = ackWaters.awaitAsync(partition, 10, Lists.newArrayList(member1), 1, 10_000, -1, null);
+        ackWaters.set(member1, otherVersion, 10, -1);
+        ackWaters.set(member2, partition, 10, -1);
+        Assert.assertFalse(quorum.isDone());
+
+        ackWaters.set(member1, partition, 10, -1);
+        Assert.assertEquals(quorum.get(10_000, TimeUnit.MILLISECONDS).intValue(), 1);
+    }
+
+    @Test
+    public void testFailsWhenLeadershipChanges() throws Exception {
+        CompletableFuture<Integer> quorum = ackWaters.awaitAsync(partition, 10, members, 2, 10_000, 5, null);
+        ackWaters.set(member1, partition, 3, 6);
+        try {
+            quorum.get(10_000, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof FailedToAchieveQuorumException);
+        }
+    }
+
+    @Test
+    public void testFailsWhenKnownMemberReportsNewerLeadership() throws Exception {
+        ackWaters.set(member1, partition, 3, 5);
+        CompletableFuture<Integer> quorum = ackWaters.awaitAsync(partition, 10, members, 2, 10_000, 5, null);
+        Assert.assertFalse(quorum.isDone());
+
+        // the ack is below the desired txId, but the newer token still has to reach the waiter
+        ackWaters.set(member1, partition, 4, 6);
+        try {
+            quorum.get(10_000, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof FailedToAchieveQuorumException);
+        }
+    }
+
+    @Test
+    public void testCompletesOffTheAckingThread() throws Exception {
+        CompletableFuture<Integer> quorum = ackWaters.awaitAsync(partition, 10, Lists.newArrayList(member1), 1, 10_000, -1, null);
+        CompletableFuture<Thread> completedOn = quorum.thenApply(passed -> Thread.currentThread());
+        ackWaters.set(member1, partition, 10, -1);
+        Assert.assertFalse(completedOn.get(10_000, TimeUnit.MILLISECONDS) == Thread.currentThread());
+    }
+
+    @Test
+    public void testAckWhileHoldingPartitionPermitWithQueuedExclusive() throws Exception {
+        // models StorageVersionProvider: the take stream acks while holding a permit on the partition's fair semaphore, and the dependent
+        // flush re-enters the partition
+        Semaphore partitionPermits = new Semaphore(Short.MAX_VALUE, true);
+        CompletableFuture<Integer> quorum = ackWaters.awaitAsync(partition, 10, Lists.newArrayList(member1), 1, 10_000, -1, null);
+        CompletableFuture<Void> flushed = quorum.thenAccept(passed -> {
+            partitionPermits.acquireUninterruptibly();
+            partitionPermits.release();
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch exclusiveQueued = new CountDownLatch(1);
+            partitionPermits.acquire();
+            Future<?> exclusive;
+            Future<?> ack;
+            try {
+                exclusive = executor.submit(() -> {
+                    exclusiveQueued.countDown();
+                    partitionPermits.acquireUninterruptibly(Short.MAX_VALUE);
+                    partitionPermits.release(Short.MAX_VALUE);
+                });
+                exclusiveQueued.await();
+                while (!partitionPermits.hasQueuedThreads()) {
+                    Thread.sleep(1);
+                }
+                ack = executor.submit(() -> {
+                    ackWaters.set(member1, partition, 10, -1);
+                    return null;
+                });
+                ack.get(10_000, TimeUnit.MILLISECONDS);
+            } finally {
+                partitionPermits.release();
+            }
+            exclusive.get(10_000, TimeUnit.MILLISECONDS);
+            flushed.get(10_000, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTimesOut() throws Exception {
+        CompletableFuture<Integer> quorum = ackWaters.awaitAsync(partition, 10, members, 2, 10, -1, null);
+        ackWaters.set(member1, partition, 10, -1);
+        try {
+            quorum.get(10_000, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        try {
+            ackWaters.await(partition, 10, members, 2, 10, -1, null);
+            Assert.fail();
+        } catch (TimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConcurrentWaiters() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<CompletableFuture<Integer>> quorums = Lists.newArrayList();
+            for (int txId = 0; txId < 1_000; txId++) {
+                quorums.add(ackWaters.awaitAsync(partition, txId, members, 2, 10_000, -1, null));
+            }
+            List<Future<?>> acks = Lists.newArrayList();
+            for (RingMember member : members) {
+                acks.add(executor.submit(() -> {
+                    for (int txId = 0; txId < 1_000; txId++) {
+                        ackWaters.set(member, partition, txId, -1);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> ack : acks) {
+                ack.get();
+            }
+            for (CompletableFuture<Integer> quorum : quorums) {
+                Assert.assertTrue(quorum.get(10_000, TimeUnit.MILLISECONDS) >= 2);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
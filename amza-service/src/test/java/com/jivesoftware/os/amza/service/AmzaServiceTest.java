@@ -18,15 +18,20 @@ package com.jivesoftware.os.amza.service;
 import com.google.common.io.Files;
 import com.jivesoftware.os.amza.api.DeltaOverCapacityException;
 import com.jivesoftware.os.amza.api.FailedToAchieveQuorumException;
+import com.jivesoftware.os.amza.api.filer.FilerInputStream;
+import com.jivesoftware.os.amza.api.filer.HeapFiler;
+import com.jivesoftware.os.amza.api.filer.UIO;
 import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.ring.RingHost;
 import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.stream.ClientUpdates;
 import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.stream.TxKeyValueStream;
 import com.jivesoftware.os.amza.api.take.TakeCursors;
 import com.jivesoftware.os.amza.api.wal.WALKey;
 import com.jivesoftware.os.amza.service.AmzaTestCluster.AmzaNode;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -163,6 +168,131 @@ public class AmzaServiceTest {
         System.out.println("-------------------------");
     }
 
+    @Test(enabled = true)
+    public void testSnapshotBootstrap() throws Exception {
+        String indexClassType = "memory_persistent";
+        PartitionName partitionName = new PartitionName(false, "test".getBytes(), "snapshot".getBytes());
+
+        File createTempDir = Files.createTempDir();
+        AmzaTestCluster cluster = new AmzaTestCluster(createTempDir, 0, 0);
+        cluster.setSnapshotBootstrapMinBytes(1);
+        List<AmzaNode> seedNodes = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            AmzaNode node = cluster.newNode(new RingMember("localhost-" + i), new RingHost("datacenter", "rack", "localhost", i));
+            node.create(Consistency.quorum, partitionName, indexClassType, -1, RowType.primary);
+            seedNodes.add(node);
+        }
+
+        for (int i = 0; i < 1_000; i++) {
+            updateUntilAccepted(seedNodes.get(i % seedNodes.size()), partitionName, i, false);
+        }
+        for (AmzaNode node : seedNodes) {
+            node.mergeAllDeltas(true);
+        }
+
+        System.out.println("\n------adding a node while the senders write and compact---------");
+        AtomicBoolean updating = new AtomicBoolean(true);
+        ExecutorService updateThreadPool = Executors.newSingleThreadExecutor();
+        Future<?> updatesFuture = updateThreadPool.submit(() -> {
+            Random random = new Random();
+            int i = 0;
+            while (updating.get()) {
+                AmzaNode node = seedNodes.get(i % seedNodes.size());
+                updateUntilAccepted(node, partitionName, random.nextInt(2_000), random.nextInt(10) == 0);
+                if (i % 100 == 0) {
+                    node.mergeAllDeltas(true);
+                    node.compactAllTombstones();
+                }
+                i++;
+            }
+            return null;
+        });
+
+        RingMember addedMember = new RingMember("localhost-2");
+        AmzaNode added = cluster.newNode(addedMember, new RingHost("datacenter", "rack", "localhost", 2));
+        added.create(Consistency.quorum, partitionName, indexClassType, -1, RowType.primary);
+        for (int i = 0; i < 100 && cluster.getSnapshotResumeTxId(addedMember) == null; i++) {
+            Thread.sleep(100);
+        }
+
+        updating.set(false);
+        updatesFuture.get();
+        updateThreadPool.shutdownNow();
+
+        Long resumeTxId = cluster.getSnapshotResumeTxId(addedMember);
+        assertNotNull(resumeTxId, "Added node never bootstrapped from a snapshot");
+        assertTrue(resumeTxId > -1, "Added node took from the beginning after its snapshot");
+        Assert.assertFalse(added.isEmpty());
+
+        assertConsistency(Consistency.quorum, cluster.getAllNodes());
+        for (AmzaNode node : cluster.getAllNodes()) {
+            assertTrue(node.sickPartitions.getSickPartitions().isEmpty(), "Partitions were sick: " + node.sickPartitions.getSickPartitions());
+            node.stop();
+        }
+    }
+
+    @Test(enabled = true)
+    public void testStreamedCommitRetriedAfterWriteQuota() throws Exception {
+        PartitionName partitionName = new PartitionName(false, "test".getBytes(), "quota".getBytes());
+
+        File createTempDir = Files.createTempDir();
+        AmzaTestCluster cluster = new AmzaTestCluster(createTempDir, 0, 0);
+        AmzaNode node = cluster.newNode(new RingMember("localhost-0"), new RingHost("datacenter", "rack", "localhost", 0));
+        node.create(Consistency.none, partitionName, "memory_persistent", -1, RowType.primary, 10);
+
+        // the first commit spends the whole bucket, so the second is rejected by the quota after its rows were streamed and has to be retried
+        node.commit(Consistency.none, partitionName, "a".getBytes(), streamedUpdates(0, 10));
+        node.commit(Consistency.none, partitionName, "a".getBytes(), streamedUpdates(10, 20));
+
+        for (int i = 0; i < 20; i++) {
+            byte[] key = String.valueOf(i).getBytes();
+            assertEquals(node.get(Consistency.none, partitionName, "a".getBytes(), key), key);
+        }
+        node.stop();
+    }
+
+    /**
+     * Mirrors the REST commit path, where the updates are read off the request body and can only be streamed once.
+     */
+    private ClientUpdates streamedUpdates(int fromKey, int toKey) throws Exception {
+        HeapFiler filer = new HeapFiler();
+        byte[] lengthBuffer = new byte[8];
+        for (int i = fromKey; i < toKey; i++) {
+            byte[] key = String.valueOf(i).getBytes();
+            UIO.writeByte(filer, (byte) 0, "eos");
+            UIO.writeByteArray(filer, key, "key", lengthBuffer);
+            UIO.writeByteArray(filer, key, "value", lengthBuffer);
+            UIO.writeLong(filer, System.currentTimeMillis(), "valueTimestamp", lengthBuffer);
+            UIO.writeByte(filer, (byte) 0, "valueTombstoned");
+        }
+        UIO.writeByte(filer, (byte) 1, "eos");
+
+        FilerInputStream read = new FilerInputStream(new ByteArrayInputStream(filer.copyUsedBytes()));
+        return commitKeyValueStream -> {
+            while (!UIO.readBoolean(read, "eos")) {
+                if (!commitKeyValueStream.commit(UIO.readByteArray(read, "key", lengthBuffer),
+                    UIO.readByteArray(read, "value", lengthBuffer),
+                    UIO.readLong(read, "valueTimestamp", lengthBuffer),
+                    UIO.readBoolean(read, "valueTombstoned"))) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private void updateUntilAccepted(AmzaNode node, PartitionName partitionName, int key, boolean tombstone) throws Exception {
+        while (true) {
+            try {
+                byte[] keyBytes = String.valueOf(key).getBytes();
+                node.update(Consistency.quorum, partitionName, "a".getBytes(), keyBytes, keyBytes, tombstone);
+                return;
+            } catch (FailedToAchieveQuorumException | DeltaOverCapacityException x) {
+                Thread.sleep(100);
+            }
+        }
+    }
+
     private void assertConsistency(Consistency readConsistency, Collection<AmzaNode> clusterNodes) throws Exception {
         int falseCount = -1;
         while (falseCount != 0) {
@@ -21,6 +21,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.jivesoftware.os.amza.api.AmzaInterner;
 import com.jivesoftware.os.amza.api.partition.Consistency;
@@ -31,14 +32,15 @@ import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.ring.RingHost;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.ring.TimestampedRingHost;
-import com.jivesoftware.os.amza.api.scan.RowStream;
 import com.jivesoftware.os.amza.api.scan.RowsChanged;
+import com.jivesoftware.os.amza.api.stream.ClientUpdates;
 import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.stream.TxKeyValueStream;
 import com.jivesoftware.os.amza.api.take.TakeCursors;
 import com.jivesoftware.os.amza.berkeleydb.BerkeleyDBWALIndexProvider;
 import com.jivesoftware.os.amza.lab.pointers.LABPointerIndexConfig;
 import com.jivesoftware.os.amza.lab.pointers.LABPointerIndexWALIndexProvider;
+import com.jivesoftware.os.amza.service.AmzaInstance.SnapshotTransfer;
 import com.jivesoftware.os.amza.service.AmzaServiceInitializer.AmzaServiceConfig;
 import com.jivesoftware.os.amza.service.EmbeddedClientProvider.CheckOnline;
 import com.jivesoftware.os.amza.service.replication.TakeFailureListener;
@@ -80,6 +82,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -103,6 +106,9 @@ public class AmzaTestCluster {
     private int oddsOfAConnectionFailureWhenAdding = 0; // 0 never - 100 always
     private int oddsOfAConnectionFailureWhenTaking = 0; // 0 never - 100 always
     private AmzaService lastAmzaService = null;
+    private long snapshotBootstrapMinBytes = 0;
+    private final Map<RingMember, VersionedPartitionName> awaitingSnapshotResume = Maps.newConcurrentMap();
+    private final Map<RingMember, Long> snapshotResumeTxIds = Maps.newConcurrentMap();
 
     public AmzaTestCluster(File workingDirctory,
         int oddsOfAConnectionFailureWhenAdding,
@@ -112,6 +118,17 @@ public class AmzaTestCluster {
         this.oddsOfAConnectionFailureWhenTaking = oddsOfAConnectionFailureWhenTaking;
     }
 
+    public void setSnapshotBootstrapMinBytes(long snapshotBootstrapMinBytes) {
+        this.snapshotBootstrapMinBytes = snapshotBootstrapMinBytes;
+    }
+
+    /**
+     * @return the txId the given member resumed taking from after it was streamed a snapshot, or null if it never was
+     */
+    public Long getSnapshotResumeTxId(RingMember ringMember) {
+        return snapshotResumeTxIds.get(ringMember);
+    }
+
     public Collection<AmzaNode> getAllNodes() {
         return cluster.values();
     }
@@ -143,6 +160,7 @@ public class AmzaTestCluster {
 
         config.updatesBetweenLeaps = 10;
         config.useMemMap = true;
+        config.snapshotBootstrapMinBytes = snapshotBootstrapMinBytes;
 
         SnowflakeIdPacker idPacker = new SnowflakeIdPacker();
         OrderIdProviderImpl orderIdProvider = new OrderIdProviderImpl(new ConstantWriterIdProvider(localRingHost.getPort()), idPacker,
@@ -190,8 +208,11 @@ public class AmzaTestCluster {
                 long remoteTxId,
                 long localLeadershipToken,
                 long limit,
-                RowStream rowStream) {
+                RowsTaker.RowViewStream rowStream) {
 
+                if (awaitingSnapshotResume.remove(localRingMember, remoteVersionedPartitionName)) {
+                    snapshotResumeTxIds.merge(localRingMember, remoteTxId, Math::max);
+                }
                 AmzaNode amzaNode = cluster.get(remoteRingMember);
                 if (amzaNode == null) {
                     throw new IllegalStateException("Service doesn't exist for " + localRingMember);
@@ -209,6 +230,33 @@ public class AmzaTestCluster {
                 }
             }
 
+            @Override
+            public RowsTaker.StreamingSnapshotResult snapshotStream(RingMember localRingMember,
+                RingMember remoteRingMember,
+                RingHost remoteRingHost,
+                VersionedPartitionName remoteVersionedPartitionName,
+                long takeSessionId,
+                long takeSharedKey,
+                long remoteTxId,
+                File snapshotFile) {
+
+                AmzaNode amzaNode = cluster.get(remoteRingMember);
+                if (amzaNode == null) {
+                    throw new IllegalStateException("Service doesn't exist for " + localRingMember);
+                } else {
+                    long snapshotBytes = amzaNode.snapshotStream(localRingMember,
+                        remoteVersionedPartitionName,
+                        takeSessionId,
+                        takeSharedKey,
+                        remoteTxId,
+                        snapshotFile);
+                    if (snapshotBytes >= 0) {
+                        awaitingSnapshotResume.put(localRingMember, remoteVersionedPartitionName);
+                    }
+                    return new StreamingSnapshotResult(null, null, snapshotBytes);
+                }
+            }
+
             @Override
             public boolean rowsTaken(RingMember localRingMember,
                 RingMember remoteRingMember,
@@ -264,6 +312,10 @@ public class AmzaTestCluster {
                 VersionedPartitionName remoteVersionedPartitionName) {
                 return true;
             }
+
+            @Override
+            public void stop() {
+            }
         };
 
         final ObjectMapper mapper = new ObjectMapper();
@@ -435,6 +487,15 @@ public class AmzaTestCluster {
             String indexClassName,
             int maxValueSizeInIndex,
             RowType rowType) throws Exception {
+            create(consistency, partitionName, indexClassName, maxValueSizeInIndex, rowType, 0);
+        }
+
+        public void create(Consistency consistency,
+            PartitionName partitionName,
+            String indexClassName,
+            int maxValueSizeInIndex,
+            RowType rowType,
+            long writeRowsPerSecond) throws Exception {
             // TODO test other consistencies and durabilities and .... Hehe
             PartitionProperties properties = new PartitionProperties(Durability.fsync_never,
                 0, 0, 0, 0, 0, 0, 0, 0,
@@ -449,6 +510,7 @@ public class AmzaTestCluster {
                 null,
                 -1,
                 -1);
+            properties.writeRowsPerSecond = writeRowsPerSecond;
             amzaService.createPartitionIfAbsent(partitionName, properties);
             amzaService.awaitOnline(partitionName, Integer.MAX_VALUE); //TODO lololol
         }
@@ -469,6 +531,13 @@ public class AmzaTestCluster {
 
         }
 
+        public void commit(Consistency consistency, PartitionName partitionName, byte[] prefix, ClientUpdates updates) throws Exception {
+            if (off) {
+                throw new RuntimeException("Service is off:" + ringMember);
+            }
+            amzaService.getPartition(partitionName).commit(consistency, prefix, updates, 10_000L);
+        }
+
         public byte[] get(Consistency consistency, PartitionName partitionName, byte[] prefix, byte[] key) throws Exception {
             if (off) {
                 throw new RuntimeException("Service is off:" + ringMember);
@@ -522,7 +591,7 @@ public class AmzaTestCluster {
             long localTxId,
             long leadershipToken,
             long limit,
-            RowStream rowStream) {
+            RowsTaker.RowViewStream rowStream) {
             if (off) {
                 throw new RuntimeException("Service is off:" + ringMember);
             }
@@ -547,7 +616,7 @@ public class AmzaTestCluster {
                 });
                 submit.get();
 
-                StreamingTakesConsumer streamingTakesConsumer = new StreamingTakesConsumer(amzaInterner);
+                StreamingTakesConsumer streamingTakesConsumer = new StreamingTakesConsumer(amzaInterner, 4_096, 1_024 * 1_024);
                 // this is some sick joke
                 DataInputStream in = new DataInputStream(
                     new SnappyInputStream(new BufferedInputStream(new ByteArrayInputStream(bytesOut.toByteArray()), 8192)));
@@ -558,6 +627,39 @@ public class AmzaTestCluster {
             }
         }
 
+        long snapshotStream(RingMember remoteRingMember,
+            VersionedPartitionName localVersionedPartitionName,
+            long takeSessionId,
+            long takeSharedKey,
+            long localTxId,
+            File snapshotFile) {
+            if (off) {
+                throw new RuntimeException("Service is off:" + ringMember);
+            }
+
+            try {
+                ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+                Future<Object> submit = asIfOverTheWire.submit(() -> {
+                    DataOutputStream dos = new DataOutputStream(bytesOut);
+                    amzaService.snapshotStream(dos,
+                        SnapshotTransfer.toStream(dos),
+                        remoteRingMember,
+                        localVersionedPartitionName,
+                        takeSessionId,
+                        takeSharedKey,
+                        localTxId);
+                    dos.flush();
+                    return null;
+                });
+                submit.get();
+
+                StreamingTakesConsumer streamingTakesConsumer = new StreamingTakesConsumer(amzaInterner, 4_096, 1_024 * 1_024);
+                return streamingTakesConsumer.consume(new DataInputStream(new ByteArrayInputStream(bytesOut.toByteArray())), snapshotFile);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
         public void printService() throws Exception {
             if (off) {
                 System.out.println(ringHost.getHost() + ":" + ringHost.getPort() + " is OFF flapped:" + flapped);
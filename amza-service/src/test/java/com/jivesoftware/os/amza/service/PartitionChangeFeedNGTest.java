@@ -0,0 +1,160 @@
+package com.jivesoftware.os.amza.service;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.PartitionProperties;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.scan.RowChanges;
+import com.jivesoftware.os.amza.api.take.TakeResult;
+import com.jivesoftware.os.amza.api.wal.WALHighwater;
+import com.jivesoftware.os.amza.api.wal.WALHighwater.RingMemberHighwater;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class PartitionChangeFeedNGTest {
+
+    private final PartitionName partitionName = new PartitionName(false, "ring".getBytes(), "partition".getBytes());
+    private final RingMember ringMember = new RingMember("member");
+
+    @Test
+    public void testWakesOnCommit() throws Exception {
+        WatchingPartitionProvider partitionProvider = new WatchingPartitionProvider();
+        PartitionChangeFeed changeFeed = new PartitionChangeFeed(partitionProvider);
+        AtomicLong committedTxId = new AtomicLong(5);
+        List<Long> takes = Lists.newArrayList();
+
+        Thread committer = new Thread(() -> {
+            try {
+                while (partitionProvider.watchers.isEmpty()) {
+                    Thread.sleep(1);
+                }
+                Thread.sleep(100);
+                committedTxId.set(7);
+                for (RowChanges watcher : partitionProvider.watchers) {
+                    watcher.changes(null);
+                }
+            } catch (Exception x) {
+                throw new RuntimeException(x);
+            }
+        });
+        committer.start();
+
+        long start = System.currentTimeMillis();
+        long cursor = changeFeed.follow(partitionName, 0, 10_000L, 30_000L, txId -> {
+            takes.add(txId);
+            if (committedTxId.get() == 7) {
+                return null;
+            }
+            return new TakeResult(ringMember, committedTxId.get(), highwater(committedTxId.get()));
+        });
+        committer.join();
+
+        Assert.assertTrue(System.currentTimeMillis() - start < 10_000L);
+        Assert.assertEquals(takes, Lists.newArrayList(0L, 5L));
+        Assert.assertEquals(cursor, 5L);
+        Assert.assertTrue(partitionProvider.watchers.isEmpty());
+    }
+
+    @Test
+    public void testFollowsLimitedBatchesImmediately() throws Exception {
+        WatchingPartitionProvider partitionProvider = new WatchingPartitionProvider();
+        PartitionChangeFeed changeFeed = new PartitionChangeFeed(partitionProvider);
+
+        long cursor = changeFeed.follow(partitionName, 0, 10_000L, 30_000L, txId -> {
+            if (txId == 10) {
+                return null;
+            }
+            // cut short by the limit, so the feed must take again without waiting
+            return new TakeResult(ringMember, txId + 1, null);
+        });
+
+        Assert.assertEquals(cursor, 10L);
+    }
+
+    @Test
+    public void testHeartbeatsUntilSessionEnds() throws Exception {
+        WatchingPartitionProvider partitionProvider = new WatchingPartitionProvider();
+        PartitionChangeFeed changeFeed = new PartitionChangeFeed(partitionProvider);
+        AtomicLong takes = new AtomicLong();
+
+        long start = System.currentTimeMillis();
+        long cursor = changeFeed.follow(partitionName, 3, 50L, 500L, txId -> {
+            takes.incrementAndGet();
+            return new TakeResult(ringMember, -1, highwater(4));
+        });
+
+        Assert.assertTrue(System.currentTimeMillis() - start >= 500L);
+        Assert.assertTrue(takes.get() > 2, "takes:" + takes.get());
+        Assert.assertEquals(cursor, 4L);
+        Assert.assertTrue(partitionProvider.watchers.isEmpty());
+    }
+
+    @Test
+    public void testNonPositiveHeartbeatEndsSession() throws Exception {
+        WatchingPartitionProvider partitionProvider = new WatchingPartitionProvider();
+        PartitionChangeFeed changeFeed = new PartitionChangeFeed(partitionProvider);
+
+        for (long heartbeatIntervalMillis : new long[] { 0L, -1L }) {
+            long cursor = changeFeed.follow(partitionName, 3, heartbeatIntervalMillis, 100L,
+                txId -> new TakeResult(ringMember, -1, highwater(4)));
+            Assert.assertEquals(cursor, 4L);
+        }
+        Assert.assertTrue(partitionProvider.watchers.isEmpty());
+    }
+
+    private WALHighwater highwater(long txId) {
+        return new WALHighwater(Collections.singletonList(new RingMemberHighwater(ringMember, txId)));
+    }
+
+    private static class WatchingPartitionProvider implements PartitionProvider {
+
+        private final List<RowChanges> watchers = new CopyOnWriteArrayList<>();
+
+        @Override
+        public boolean createPartitionIfAbsent(PartitionName partitionName, PartitionProperties partitionProperties) throws Exception {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public Partition getPartition(PartitionName partitionName) throws Exception {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public PartitionProperties getProperties(PartitionName partitionName) throws Exception {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public void updateProperties(PartitionName partitionName, PartitionProperties partitionProperties) throws Exception {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public RingMember awaitLeader(PartitionName partitionName, long waitForLeaderElection) throws Exception {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public void awaitOnline(PartitionName partitionName, long timeoutMillis) throws Exception {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public void watch(PartitionName partitionName, RowChanges rowChanges) throws Exception {
+            watchers.add(rowChanges);
+        }
+
+        @Override
+        public void unwatch(PartitionName partitionName, RowChanges rowChanges) throws Exception {
+            watchers.remove(rowChanges);
+        }
+    }
+}
@@ -74,7 +74,8 @@ public class AmzaStateStorageNGTest {
             ids,
             new SickPartitions(),
             -1,
-            TimeUnit.DAYS.toMillis(1));
+            TimeUnit.DAYS.toMillis(1),
+            null);
 
         TimestampedOrderIdProvider orderIdProvider = new OrderIdProviderImpl(new ConstantWriterIdProvider(1), new SnowflakeIdPacker(),
             new JiveEpochTimestampProvider());
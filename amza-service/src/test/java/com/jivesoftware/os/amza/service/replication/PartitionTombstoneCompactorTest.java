@@ -0,0 +1,38 @@
+package com.jivesoftware.os.amza.service.replication;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.service.replication.PartitionTombstoneCompactor.CompactionCandidate;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class PartitionTombstoneCompactorTest {
+
+    @Test
+    public void testCandidatesOrderedByReclaimableBytes() throws Exception {
+        List<CompactionCandidate> candidates = Lists.newArrayList(
+            candidate("a", 0, 10L),
+            candidate("b", 1, 0L),
+            candidate("c", 0, 1_000L),
+            candidate("d", 1, 100L));
+
+        PartitionTombstoneCompactor.sortByReclaimableBytes(candidates);
+
+        long[] reclaimableBytes = new long[candidates.size()];
+        for (int i = 0; i < reclaimableBytes.length; i++) {
+            reclaimableBytes[i] = candidates.get(i).reclaimableBytes;
+        }
+        Assert.assertEquals(reclaimableBytes, new long[] { 1_000L, 100L, 10L, 0L });
+        Assert.assertEquals(candidates.get(0).versionedPartitionName.getPartitionName().getName(), "c".getBytes());
+    }
+
+    private CompactionCandidate candidate(String name, int stripe, long reclaimableBytes) {
+        PartitionName partitionName = new PartitionName(false, "ring".getBytes(), name.getBytes());
+        return new CompactionCandidate(new VersionedPartitionName(partitionName, 1L), stripe, reclaimableBytes);
+    }
+}
@@ -0,0 +1,433 @@
+package com.jivesoftware.os.amza.service.replication.tcp;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.ring.RingHost;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.ring.TimestampedRingHost;
+import com.jivesoftware.os.amza.api.stream.RowType;
+import com.jivesoftware.os.amza.api.wal.WALKey;
+import com.jivesoftware.os.amza.api.wal.WALSnapshot;
+import com.jivesoftware.os.amza.service.AmzaInstance;
+import com.jivesoftware.os.amza.service.ChunkWriteable;
+import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryPrimaryRowMarshaller;
+import com.jivesoftware.os.amza.service.take.RowsTaker.StreamingRowsResult;
+import com.jivesoftware.os.amza.service.take.RowsTaker.StreamingSnapshotResult;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xerial.snappy.SnappyOutputStream;
+
+/**
+ * Two nodes on loopback, each running a {@link TcpReplicationServer} in front of a fake {@link AmzaInstance} and taking from the other.
+ */
+public class TcpReplicationNGTest {
+
+    private static final BinaryPrimaryRowMarshaller MARSHALLER = new BinaryPrimaryRowMarshaller();
+    private static final byte[] SNAPSHOT = new byte[3 * 1_024 * 1_024 + 17];
+    private static final int SNAPSHOT_OFFSET = 1_000;
+
+    static {
+        new Random(1234).nextBytes(SNAPSHOT);
+    }
+
+    private final AmzaInterner amzaInterner = new AmzaInterner();
+    private ExecutorService executor;
+    private Node nodeA;
+    private Node nodeB;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        nodeA = new Node("nodeA");
+        nodeB = new Node("nodeB");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        nodeA.stop();
+        nodeB.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRowsStreamBothWays() throws Exception {
+        assertTake(nodeA, nodeB, partition("a", 3), 0, 100);
+        assertTake(nodeB, nodeA, partition("b", 5), 50, 10);
+    }
+
+    @Test
+    public void testConcurrentTakesShareConnection() throws Exception {
+        List<Future<?>> futures = Lists.newArrayList();
+        for (int i = 0; i < 16; i++) {
+            VersionedPartitionName versionedPartitionName = partition("p" + i, i);
+            int rows = 1_000 + i * 100;
+            futures.add(executor.submit(() -> {
+                assertTake(nodeA, nodeB, versionedPartitionName, 0, rows);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testEarlyStopCancelsStream() throws Exception {
+        AtomicInteger seen = new AtomicInteger();
+        StreamingRowsResult result = nodeA.rowsTaker.rowsStream(nodeA.ringMember, nodeB.ringMember, nodeB.ringHost, partition("big", 1),
+            1L, 2L, 0L, 7L, 1_000_000L,
+            (rowFP, rowTxId, rowType, buffer, offset, length) -> seen.incrementAndGet() < 10);
+        Assert.assertNull(result.unreachable);
+        Assert.assertEquals(seen.get(), 10);
+
+        // the same single connection must still serve takes after a cancel
+        assertTake(nodeA, nodeB, partition("after", 1), 0, 100);
+    }
+
+    @Test
+    public void testSlowStreamDoesNotStallConnection() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<StreamingRowsResult> slow = executor.submit(() -> nodeA.rowsTaker.rowsStream(nodeA.ringMember, nodeB.ringMember, nodeB.ringHost,
+            partition("slow", 1), 1L, 2L, 0L, 7L, 1_000_000L,
+            (rowFP, rowTxId, rowType, buffer, offset, length) -> {
+                stalled.countDown();
+                release.await();
+                return false;
+            }));
+        Assert.assertTrue(stalled.await(10, TimeUnit.SECONDS));
+
+        // the one connection keeps delivering to other streams while the slow stream sits on a full window
+        long start = System.currentTimeMillis();
+        assertTake(nodeA, nodeB, partition("fast", 1), 0, 10_000);
+        Assert.assertTrue(System.currentTimeMillis() - start < 5_000);
+
+        release.countDown();
+        Assert.assertNull(slow.get(10, TimeUnit.SECONDS).unreachable);
+        assertTake(nodeA, nodeB, partition("after", 1), 0, 100);
+    }
+
+    @Test
+    public void testRemoteFailure() throws Exception {
+        StreamingRowsResult result = nodeA.rowsTaker.rowsStream(nodeA.ringMember, nodeB.ringMember, nodeB.ringHost, partition("fail", -1),
+            1L, 2L, 0L, 7L, 10L, (rowFP, rowTxId, rowType, buffer, offset, length) -> true);
+        Assert.assertNull(result.unreachable);
+        Assert.assertNotNull(result.error);
+
+        RingHost nowhere = new RingHost("dc", "rack", "localhost", 1);
+        result = nodeA.rowsTaker.rowsStream(nodeA.ringMember, nodeB.ringMember, nowhere, partition("fail", 1),
+            1L, 2L, 0L, 7L, 10L, (rowFP, rowTxId, rowType, buffer, offset, length) -> true);
+        Assert.assertNotNull(result.unreachable);
+    }
+
+    @Test
+    public void testSnapshotStream() throws Exception {
+        File snapshotFile = File.createTempFile("snapshot", ".kvt");
+        try {
+            StreamingSnapshotResult result = nodeA.rowsTaker.snapshotStream(nodeA.ringMember, nodeB.ringMember, nodeB.ringHost,
+                partition("snapshot", 1), 1L, 2L, -1L, snapshotFile);
+            Assert.assertNull(result.unreachable);
+            Assert.assertNull(result.error);
+            Assert.assertEquals(result.snapshotBytes, SNAPSHOT.length - SNAPSHOT_OFFSET);
+            Assert.assertEquals(Files.readAllBytes(snapshotFile.toPath()), Arrays.copyOfRange(SNAPSHOT, SNAPSHOT_OFFSET, SNAPSHOT.length));
+
+            result = nodeA.rowsTaker.snapshotStream(nodeA.ringMember, nodeB.ringMember, nodeB.ringHost,
+                partition("snapshot", 1), 1L, 2L, 10L, snapshotFile);
+            Assert.assertNull(result.error);
+            Assert.assertEquals(result.snapshotBytes, -1L);
+
+            result = nodeA.rowsTaker.snapshotStream(nodeA.ringMember, nodeB.ringMember, nodeB.ringHost,
+                partition("snapshot", -1), 1L, 2L, -1L, snapshotFile);
+            Assert.assertNull(result.unreachable);
+            Assert.assertNotNull(result.error);
+        } finally {
+            Assert.assertTrue(snapshotFile.delete());
+        }
+    }
+
+    @Test
+    public void testAcksPongsAndInvalidate() throws Exception {
+        VersionedPartitionName versionedPartitionName = partition("acked", 2);
+        nodeB.instance.ponged = new CountDownLatch(1);
+        for (long txId = 0; txId < 100; txId++) {
+            nodeA.rowsTaker.rowsTaken(nodeA.ringMember, nodeB.ringMember, nodeB.ringHost, 1L, 2L, versionedPartitionName, txId, 7L);
+        }
+        nodeA.rowsTaker.pong(nodeA.ringMember, nodeB.ringMember, nodeB.ringHost, 1L, 2L);
+
+        Assert.assertTrue(nodeB.instance.ponged.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Long.valueOf(99L).equals(nodeB.instance.taken.get(versionedPartitionName)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(nodeB.instance.taken.get(versionedPartitionName), (Long) 99L);
+
+        Assert.assertTrue(nodeA.rowsTaker.invalidate(nodeA.ringMember, nodeB.ringMember, nodeB.ringHost, 1L, 2L, versionedPartitionName));
+        Assert.assertEquals(nodeB.instance.invalidated, Collections.singletonList(versionedPartitionName));
+    }
+
+    @Test
+    public void testAvailableRowsStream() throws Exception {
+        Map<VersionedPartitionName, Long> available = Maps.newConcurrentMap();
+        AtomicInteger pings = new AtomicInteger();
+        nodeA.availableRowsTaker.availableRowsStream(nodeA.ringMember,
+            new TimestampedRingHost(nodeA.ringHost, 1L),
+            nodeB.ringMember,
+            nodeB.ringHost,
+            false,
+            1L,
+            2L,
+            10_000L,
+            available::put,
+            pings::incrementAndGet);
+
+        Assert.assertEquals(available.size(), 3);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(available.get(partition("available" + i, i)), (Long) (i * 10L));
+        }
+        Assert.assertEquals(pings.get(), 1);
+        Assert.assertEquals(nodeB.instance.availableFrom.get(), nodeA.ringHost);
+    }
+
+    private void assertTake(Node taker, Node owner, VersionedPartitionName versionedPartitionName, long fromTxId, int rows) throws Exception {
+        List<Long> txIds = Lists.newArrayList();
+        StreamingRowsResult result = taker.rowsTaker.rowsStream(taker.ringMember, owner.ringMember, owner.ringHost, versionedPartitionName,
+            1L, 2L, fromTxId, 7L, rows,
+            (rowFP, rowTxId, rowType, buffer, offset, length) -> MARSHALLER.fromRow(rowTxId, rowFP, rowType, buffer, offset,
+                (txId, fp, rowType1, prefix, key, hasValue, value, valueTimestamp, valueTombstoned, valueVersion, entry) -> {
+                    Assert.assertEquals(key, UIO.longBytes(txId));
+                    Assert.assertEquals(value, UIO.longBytes(txId));
+                    txIds.add(txId);
+                    return true;
+                }));
+
+        Assert.assertNull(result.unreachable);
+        Assert.assertNull(result.error);
+        Assert.assertEquals(result.leadershipToken, 7L);
+        Assert.assertEquals(result.partitionVersion, versionedPartitionName.getPartitionVersion());
+        Assert.assertEquals(result.otherHighwaterMarks.get(owner.ringMember), (Long) fromTxId);
+        Assert.assertEquals(txIds.size(), rows);
+        for (int i = 0; i < rows; i++) {
+            Assert.assertEquals(txIds.get(i), (Long) (fromTxId + i));
+        }
+    }
+
+    private static VersionedPartitionName partition(String name, long version) {
+        return new VersionedPartitionName(new PartitionName(false,
+            "ring".getBytes(StandardCharsets.UTF_8),
+            name.getBytes(StandardCharsets.UTF_8)), version);
+    }
+
+    private class Node {
+
+        private final RingMember ringMember;
+        private final RingHost ringHost;
+        private final FakeAmzaInstance instance;
+        private final TcpReplicationServer server;
+        private final TcpReplicationClient client;
+        private final TcpRowsTaker rowsTaker;
+        private final TcpAvailableRowsTaker availableRowsTaker;
+
+        Node(String name) throws Exception {
+            AmzaStats amzaStats = new AmzaStats();
+            ringMember = new RingMember(name);
+            instance = new FakeAmzaInstance(ringMember);
+            server = new TcpReplicationServer(amzaStats, instance, amzaInterner, 0, 4_096, 1_024 * 1_024, executor);
+            server.start();
+            ringHost = new RingHost("dc", "rack", "localhost", server.getPort());
+
+            client = new TcpReplicationClient(0, 1, 1_000, 10_000, 16, 1_024 * 1_024);
+            rowsTaker = new TcpRowsTaker(name, amzaStats, client, amzaInterner, 64, 1_024, executor, executor);
+            availableRowsTaker = new TcpAvailableRowsTaker(client, amzaInterner, 64, 1_024);
+        }
+
+        void stop() {
+            rowsTaker.stop();
+            client.close();
+            server.stop();
+        }
+    }
+
+    private static class FakeAmzaInstance implements AmzaInstance {
+
+        private final RingMember ringMember;
+        private final Map<VersionedPartitionName, Long> taken = Maps.newConcurrentMap();
+        private final List<VersionedPartitionName> invalidated = Lists.newCopyOnWriteArrayList();
+        private final AtomicReference<RingHost> availableFrom = new AtomicReference<>();
+        private volatile CountDownLatch ponged = new CountDownLatch(0);
+
+        FakeAmzaInstance(RingMember ringMember) {
+            this.ringMember = ringMember;
+        }
+
+        @Override
+        public Iterable<PartitionName> getAllPartitionNames() throws Exception {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Iterable<PartitionName> getMemberPartitionNames() throws Exception {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Iterable<PartitionName> getSystemPartitionNames() throws Exception {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void destroyPartition(PartitionName partitionName) throws Exception {
+        }
+
+        @Override
+        public long getTimestamp(long timestamp, long millisAgo) throws Exception {
+            return timestamp;
+        }
+
+        @Override
+        public void availableRowsStream(boolean system,
+            ChunkWriteable writeable,
+            RingMember remoteRingMember,
+            TimestampedRingHost remoteTimestampedRingHost,
+            long takeSessionId,
+            long sharedKey,
+            long timeoutMillis) throws Exception {
+            availableFrom.set(remoteTimestampedRingHost.ringHost);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(new SnappyOutputStream(out));
+            for (int i = 0; i < 3; i++) {
+                byte[] bytes = partition("available" + i, i).toBytes();
+                dos.write(1);
+                dos.writeInt(bytes.length);
+                dos.write(bytes);
+                dos.writeLong(i * 10L);
+                if (i == 1) {
+                    dos.flush();
+                    writeable.write(out.toByteArray());
+                    out.reset();
+                }
+            }
+            dos.write(1);
+            dos.writeInt(0); // ping
+            dos.write(0);
+            dos.close();
+            writeable.write(out.toByteArray());
+        }
+
+        @Override
+        public void rowsStream(DataOutputStream dos,
+            RingMember remoteRingMember,
+            VersionedPartitionName localVersionedPartitionName,
+            long takeSessionId,
+            long sharedKey,
+            long localTxId,
+            long leadershipToken,
+            long limit) throws Exception {
+            if (localVersionedPartitionName.getPartitionVersion() < 0) {
+                throw new IllegalStateException("Unknown partition " + localVersionedPartitionName);
+            }
+            dos.writeLong(leadershipToken);
+            dos.writeLong(localVersionedPartitionName.getPartitionVersion());
+            dos.writeByte(1); // online
+
+            byte[] ringMemberBytes = ringMember.toBytes();
+            dos.writeByte(1);
+            dos.writeInt(ringMemberBytes.length);
+            dos.write(ringMemberBytes);
+            dos.writeLong(localTxId);
+            dos.writeByte(0);
+
+            for (long txId = localTxId; txId < localTxId + limit; txId++) {
+                byte[] row = MARSHALLER.toRow(RowType.primary, WALKey.compose(new byte[0], UIO.longBytes(txId)), UIO.longBytes(txId), txId, false,
+                    txId);
+                dos.writeByte(1);
+                dos.writeLong(txId);
+                dos.writeByte(RowType.primary.toByte());
+                dos.writeInt(row.length);
+                dos.write(row);
+            }
+            dos.writeByte(0);
+            dos.writeByte(1); // streamed to end
+        }
+
+        @Override
+        public void snapshotStream(DataOutputStream dos,
+            SnapshotTransfer transfer,
+            RingMember remoteRingMember,
+            VersionedPartitionName localVersionedPartitionName,
+            long takeSessionId,
+            long sharedKey,
+            long localTxId) throws Exception {
+            if (localVersionedPartitionName.getPartitionVersion() < 0) {
+                throw new IllegalStateException("Unknown partition " + localVersionedPartitionName);
+            }
+            if (localTxId > -1) {
+                dos.writeByte(0); // declined
+                return;
+            }
+            File walFile = File.createTempFile("wal", ".kvt");
+            try {
+                Files.write(walFile.toPath(), SNAPSHOT);
+                try (WALSnapshot snapshot = new WALSnapshot(FileChannel.open(walFile.toPath(), StandardOpenOption.READ),
+                    SNAPSHOT_OFFSET, SNAPSHOT.length - SNAPSHOT_OFFSET)) {
+                    dos.writeByte(1);
+                    dos.writeLong(snapshot.length);
+                    dos.flush();
+                    transfer.transfer(snapshot);
+                }
+            } finally {
+                walFile.delete();
+            }
+        }
+
+        @Override
+        public void rowsTaken(RingMember remoteRingMember,
+            long takeSessionId,
+            long sharedKey,
+            VersionedPartitionName localVersionedPartitionName,
+            long localTxId,
+            long leadershipToken) throws Exception {
+            taken.merge(localVersionedPartitionName, localTxId, Math::max);
+        }
+
+        @Override
+        public void pong(RingMember remoteRingMember, long takeSessionId, long sharedKey) throws Exception {
+            ponged.countDown();
+        }
+
+        @Override
+        public void invalidate(RingMember ringMember, long takeSessionId, long sharedKey, VersionedPartitionName versionedPartitionName) throws Exception {
+            invalidated.add(versionedPartitionName);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.jivesoftware.os.amza.service.storage;
+
+import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class HydratedValueCacheTest {
+
+    @Test
+    public void testHitsWithinGeneration() throws Exception {
+        AmzaStats amzaStats = new AmzaStats();
+        HydratedValueCache cache = new HydratedValueCache(amzaStats, 1024 * 1024, 1);
+        AtomicInteger reads = new AtomicInteger();
+        long generation = cache.nextGeneration();
+
+        for (int i = 0; i < 10; i++) {
+            byte[] row = cache.hydrate(generation, 42L, () -> {
+                reads.incrementAndGet();
+                return new byte[] { 1, 2, 3 };
+            });
+            Assert.assertEquals(row, new byte[] { 1, 2, 3 });
+        }
+
+        Assert.assertEquals(reads.get(), 1);
+        Assert.assertEquals(amzaStats.hydratedValueCacheMisses.longValue(), 1);
+        Assert.assertEquals(amzaStats.hydratedValueCacheHits.longValue(), 9);
+    }
+
+    @Test
+    public void testNewGenerationMisses() throws Exception {
+        HydratedValueCache cache = new HydratedValueCache(new AmzaStats(), 1024 * 1024, 1);
+        long generation = cache.nextGeneration();
+        cache.hydrate(generation, 42L, () -> new byte[] { 1 });
+
+        long nextGeneration = cache.nextGeneration();
+        Assert.assertTrue(nextGeneration != generation);
+        Assert.assertEquals(cache.hydrate(nextGeneration, 42L, () -> new byte[] { 2 }), new byte[] { 2 });
+    }
+
+    @Test
+    public void testBoundedBySize() throws Exception {
+        HydratedValueCache cache = new HydratedValueCache(new AmzaStats(), 16 * 1024, 1);
+        long generation = cache.nextGeneration();
+        for (long fp = 0; fp < 1_000; fp++) {
+            cache.hydrate(generation, fp, () -> new byte[1024]);
+        }
+        Assert.assertTrue(cache.size() < 16, "size:" + cache.size());
+    }
+}
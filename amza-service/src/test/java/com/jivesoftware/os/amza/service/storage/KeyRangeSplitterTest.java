@@ -0,0 +1,67 @@
+package com.jivesoftware.os.amza.service.storage;
+
+import com.google.common.primitives.UnsignedBytes;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import java.util.List;
+import java.util.TreeSet;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class KeyRangeSplitterTest {
+
+    @Test
+    public void testUnboundedSplitsEvenly() throws Exception {
+        TreeSet<byte[]> keys = new TreeSet<>(UnsignedBytes.lexicographicalComparator());
+        for (long i = 0; i < 10_000; i++) {
+            keys.add(UIO.longBytes(i * 1_000));
+        }
+
+        List<byte[]> splitKeys = KeyRangeSplitter.split(null, null, 3, keys::ceiling);
+
+        Assert.assertEquals(splitKeys.size(), 3);
+        byte[] last = keys.first();
+        for (byte[] splitKey : splitKeys) {
+            Assert.assertTrue(keys.contains(splitKey));
+            int count = keys.subSet(last, splitKey).size();
+            Assert.assertTrue(count > 2_000 && count < 3_000, "count:" + count);
+            last = splitKey;
+        }
+    }
+
+    @Test
+    public void testBoundedStaysInRange() throws Exception {
+        TreeSet<byte[]> keys = new TreeSet<>(UnsignedBytes.lexicographicalComparator());
+        for (int i = 0; i < 1_000; i++) {
+            keys.add(UIO.intBytes(i));
+        }
+        byte[] from = UIO.intBytes(100);
+        byte[] to = UIO.intBytes(200);
+
+        List<byte[]> splitKeys = KeyRangeSplitter.split(from, to, 9, keys::ceiling);
+
+        Assert.assertEquals(splitKeys.size(), 9);
+        byte[] last = from;
+        for (byte[] splitKey : splitKeys) {
+            Assert.assertTrue(UnsignedBytes.lexicographicalComparator().compare(splitKey, last) > 0);
+            Assert.assertTrue(UnsignedBytes.lexicographicalComparator().compare(splitKey, to) < 0);
+            last = splitKey;
+        }
+    }
+
+    @Test
+    public void testTooFewKeys() throws Exception {
+        TreeSet<byte[]> keys = new TreeSet<>(UnsignedBytes.lexicographicalComparator());
+        Assert.assertTrue(KeyRangeSplitter.split(null, null, 4, keys::ceiling).isEmpty());
+
+        keys.add(UIO.intBytes(7));
+        Assert.assertTrue(KeyRangeSplitter.split(null, null, 4, keys::ceiling).isEmpty());
+
+        keys.add(UIO.intBytes(8));
+        List<byte[]> splitKeys = KeyRangeSplitter.split(null, null, 4, keys::ceiling);
+        Assert.assertEquals(splitKeys.size(), 1);
+        Assert.assertEquals(splitKeys.get(0), UIO.intBytes(8));
+    }
+}
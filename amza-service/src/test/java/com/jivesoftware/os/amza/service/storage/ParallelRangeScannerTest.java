@@ -0,0 +1,102 @@
+package com.jivesoftware.os.amza.service.storage;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.stream.KeyValueStream;
+import com.jivesoftware.os.amza.service.Partition.ScanRange;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class ParallelRangeScannerTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final ParallelRangeScanner scanner = new ParallelRangeScanner(executor, 4, 8);
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOrdered() throws Exception {
+        List<Integer> got = Lists.newArrayList();
+        boolean result = scanner.scan(ranges(), true, ParallelRangeScannerTest::scanInts, (prefix, key, value, valueTimestamp, valueTombstoned,
+            valueVersion) -> {
+            got.add(UIO.bytesInt(key));
+            return true;
+        });
+
+        Assert.assertTrue(result);
+        Assert.assertEquals(got, expected());
+    }
+
+    @Test
+    public void testUnordered() throws Exception {
+        List<Integer> got = Lists.newArrayList();
+        boolean result = scanner.scan(ranges(), false, ParallelRangeScannerTest::scanInts, (prefix, key, value, valueTimestamp, valueTombstoned,
+            valueVersion) -> {
+            got.add(UIO.bytesInt(key));
+            return true;
+        });
+
+        Assert.assertTrue(result);
+        Collections.sort(got);
+        Assert.assertEquals(got, expected());
+    }
+
+    @Test
+    public void testStopEarly() throws Exception {
+        List<Integer> got = Lists.newArrayList();
+        boolean result = scanner.scan(ranges(), true, ParallelRangeScannerTest::scanInts, (prefix, key, value, valueTimestamp, valueTombstoned,
+            valueVersion) -> {
+            got.add(UIO.bytesInt(key));
+            return got.size() < 250;
+        });
+
+        Assert.assertFalse(result);
+        Assert.assertEquals(got, expected().subList(0, 250));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testFailurePropagates() throws Exception {
+        scanner.scan(ranges(), true, (range, stream) -> {
+            if (UIO.bytesInt(range.fromKey) == 200) {
+                throw new IllegalStateException("boom");
+            }
+            return scanInts(range, stream);
+        }, (prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> true);
+    }
+
+    private static List<ScanRange> ranges() {
+        List<ScanRange> ranges = Lists.newArrayList();
+        for (int i = 0; i < 400; i += 100) {
+            ranges.add(new ScanRange(null, UIO.intBytes(i), null, UIO.intBytes(i + 100)));
+        }
+        return ranges;
+    }
+
+    private static List<Integer> expected() {
+        List<Integer> expected = Lists.newArrayList();
+        for (int i = 0; i < 400; i++) {
+            expected.add(i);
+        }
+        return expected;
+    }
+
+    private static boolean scanInts(ScanRange range, KeyValueStream stream) throws Exception {
+        for (int i = UIO.bytesInt(range.fromKey); i < UIO.bytesInt(range.toKey); i++) {
+            if (!stream.stream(null, UIO.intBytes(i), null, i, false, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,69 @@
+package com.jivesoftware.os.amza.service.storage.binary;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.stream.RowType;
+import com.jivesoftware.os.amza.api.wal.WALKey;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class BinaryPrimaryRowMarshallerTest {
+
+    private final BinaryPrimaryRowMarshaller marshaller = new BinaryPrimaryRowMarshaller();
+    private final RowType[] rowTypes = { RowType.primary, RowType.snappy_primary };
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (RowType rowType : rowTypes) {
+            for (byte[] value : new byte[][] { null, new byte[0], value(10), value(5_000) }) {
+                byte[] prefix = UIO.intBytes(7);
+                byte[] key = UIO.longBytes(11L);
+                byte[] row = marshaller.toRow(rowType, WALKey.compose(prefix, key), value, 3L, value == null, 5L);
+
+                Assert.assertTrue(row.length <= marshaller.maximumSizeInBytes(rowType, WALKey.compose(prefix, key).length,
+                    value == null ? 0 : value.length));
+                Assert.assertEquals(marshaller.timestampFromRow(row, 0), 3L);
+                Assert.assertEquals(marshaller.tombstonedFromRow(row, 0), value == null);
+                Assert.assertEquals(marshaller.versionFromRow(row, 0), 5L);
+                Assert.assertEquals(marshaller.valueFromRow(rowType, row, 0), value);
+
+                List<Object[]> streamed = Lists.newArrayList();
+                marshaller.fromRows(stream -> stream.stream(1L, 2L, rowType, row),
+                    (txId, fp, rowType1, prefix1, key1, hasValue, value1, valueTimestamp, valueTombstoned, valueVersion, entry) -> {
+                        streamed.add(new Object[] { prefix1, key1, value1, valueTimestamp, valueVersion });
+                        return true;
+                    });
+                Assert.assertEquals(streamed.size(), 1);
+                Assert.assertEquals((byte[]) streamed.get(0)[0], prefix);
+                Assert.assertEquals((byte[]) streamed.get(0)[1], key);
+                Assert.assertEquals((byte[]) streamed.get(0)[2], value);
+                Assert.assertEquals(streamed.get(0)[3], 3L);
+                Assert.assertEquals(streamed.get(0)[4], 5L);
+            }
+        }
+    }
+
+    @Test
+    public void testConvert() throws Exception {
+        byte[] pk = WALKey.compose(UIO.intBytes(7), UIO.longBytes(11L));
+        for (RowType fromType : rowTypes) {
+            for (RowType toType : rowTypes) {
+                byte[] row = marshaller.toRow(fromType, pk, value(100), 3L, false, 5L);
+                byte[] converted = marshaller.convert(fromType, row, toType);
+                Assert.assertEquals(converted, marshaller.toRow(toType, pk, value(100), 3L, false, 5L), fromType + " -> " + toType);
+            }
+        }
+    }
+
+    private static byte[] value(int size) {
+        byte[] value = new byte[size];
+        for (int i = 0; i < size; i++) {
+            value[i] = (byte) (i % 7);
+        }
+        return value;
+    }
+}
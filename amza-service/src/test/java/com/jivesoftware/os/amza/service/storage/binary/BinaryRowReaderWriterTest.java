@@ -286,6 +286,44 @@ public class BinaryRowReaderWriterTest {
         }
     }
 
+    @Test
+    public void testFrame() throws Exception {
+        IoStats ioStats = new IoStats();
+        WALFiler filer = new MemoryBackedWALFiler(new MultiAutoGrowingByteBufferBackedFiler(1_024, 1_024 * 1_024,
+            new HeapByteBufferFactory()));
+        BinaryRowReader binaryRowReader = new BinaryRowReader(filer);
+        BinaryRowWriter binaryRowWriter = new BinaryRowWriter(filer);
+
+        for (int i = 0; i < 100; i++) {
+            byte[] row = new byte[1 + (i % 13) * 7];
+            row[0] = (byte) i;
+            binaryRowWriter.write(ioStats, i, RowType.primary, 1, row.length, stream -> stream.stream(row), indexableKeys, txKeyPointerFpStream,
+                true, false);
+        }
+
+        List<Long> rowFps = Lists.newArrayList();
+        binaryRowReader.scan(ioStats, 0, false, (rowFp, rowTxId, rowType, row) -> rowFps.add(rowFp));
+
+        List<Long> chunkFps = Lists.newArrayList();
+        Assert.assertTrue(binaryRowReader.frame(ioStats, 0, 256, false, chunkFps::add));
+        Assert.assertEquals((long) chunkFps.get(0), 0L);
+        Assert.assertTrue(chunkFps.size() > 1);
+        Assert.assertTrue(rowFps.containsAll(chunkFps));
+
+        List<Long> chunkedRowFps = Lists.newArrayList();
+        for (int i = 0; i < chunkFps.size(); i++) {
+            long toFp = i + 1 < chunkFps.size() ? chunkFps.get(i + 1) : Long.MAX_VALUE;
+            binaryRowReader.scan(ioStats, chunkFps.get(i), false, (rowFp, rowTxId, rowType, row) -> rowFp < toFp && chunkedRowFps.add(rowFp));
+        }
+        Assert.assertEquals(chunkedRowFps, rowFps);
+
+        binaryRowReader.hackTruncation(4);
+        List<Long> repairedFps = Lists.newArrayList();
+        Assert.assertFalse(binaryRowReader.frame(ioStats, 0, 1, true, repairedFps::add));
+        Assert.assertEquals(repairedFps, rowFps.subList(0, rowFps.size() - 1));
+        Assert.assertEquals(binaryRowReader.length(), (long) rowFps.get(rowFps.size() - 1));
+    }
+
     static class ReadStream implements RowStream {
 
         int clears = 0;
@@ -11,6 +11,8 @@ import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.wal.MemoryWALIndex;
 import com.jivesoftware.os.amza.api.wal.MemoryWALIndexProvider;
 import com.jivesoftware.os.amza.api.wal.MemoryWALUpdates;
+import com.jivesoftware.os.amza.api.wal.SecondaryIndexes;
+import com.jivesoftware.os.amza.api.wal.WALCompactionThrottle;
 import com.jivesoftware.os.amza.api.wal.WALIndexProvider;
 import com.jivesoftware.os.amza.api.wal.WALKey;
 import com.jivesoftware.os.amza.api.wal.WALRow;
@@ -23,6 +25,7 @@ import com.jivesoftware.os.amza.service.storage.WALStorage;
 import com.jivesoftware.os.jive.utils.ordered.id.ConstantWriterIdProvider;
 import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProviderImpl;
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
@@ -64,7 +67,10 @@ public class RowPartitionNGTest {
             indexProvider,
             new SickPartitions(),
             false,
-            2);
+            2,
+            null,
+            false,
+            SecondaryIndexes.NONE);
 
         indexedWAL.load(ioStats, walDir, -1, -1, false, false, -1, 0);
 
@@ -74,7 +80,8 @@ public class RowPartitionNGTest {
         compact.scheduleAtFixedRate(() -> {
             CompactionStats compactionStats = amzaStats.beginCompaction(AmzaStats.CompactionFamily.tombstone, walDir.getName());
             try {
-                indexedWAL.compactTombstone(ioStats, compactionStats, walDir, walDir, RowType.primary, 0, 0, Long.MAX_VALUE, Long.MAX_VALUE, -1, -1, 0, false,
+                indexedWAL.compactTombstone(ioStats, compactionStats, WALCompactionThrottle.NO_THROTTLE, walDir, walDir, RowType.primary, 0, 0,
+                    Long.MAX_VALUE, Long.MAX_VALUE, -1, -1, 0, false,
                     (transitionToCompacted) -> transitionToCompacted.tx(() -> {
                         return null;
                     }));
@@ -182,7 +189,10 @@ public class RowPartitionNGTest {
             walIndexProvider,
             new SickPartitions(),
             false,
-            2);
+            2,
+            null,
+            false,
+            SecondaryIndexes.NONE);
 
         indexedWAL.load(ioStats, baseKey, -1, -1, false, false, -1, 0);
         WALKey walKey = k(1);
@@ -230,6 +240,174 @@ public class RowPartitionNGTest {
         Assert.assertEquals(new String(value.getValue()), "hello4");
     }
 
+    @Test
+    public void streamValuesInCallerOrderTest() throws Exception {
+        IoStats ioStats = new IoStats();
+        RowIOProvider binaryRowIOProvider = new MemoryBackedRowIOProvider(4_096, 4_096, 4_096, 64, new HeapByteBufferFactory());
+        VersionedPartitionName versionedPartitionName = new VersionedPartitionName(new PartitionName(false, "ring".getBytes(), "booya".getBytes()),
+            VersionedPartitionName.STATIC_VERSION);
+        BinaryWALTx binaryWALTx = new BinaryWALTx("booya", binaryRowIOProvider, primaryRowMarshaller, 4096, 64);
+        WALStorage<MemoryWALIndex> indexedWAL = new WALStorage<>(
+            new AmzaStats(),
+            versionedPartitionName,
+            new OrderIdProviderImpl(new ConstantWriterIdProvider(1)),
+            primaryRowMarshaller,
+            highwaterRowMarshaller,
+            binaryWALTx,
+            new MemoryWALIndexProvider("memory"),
+            new SickPartitions(),
+            false,
+            2,
+            null,
+            false,
+            SecondaryIndexes.NONE);
+        indexedWAL.load(ioStats, null, -1, -1, false, false, -1, 0);
+
+        byte[] prefix = UIO.intBytes(-1);
+        int numKeys = 3_000;
+        List<Integer> order = Lists.newArrayList();
+        for (int i = 0; i < numKeys; i++) {
+            update(ioStats, indexedWAL, prefix, UIO.intBytes(i), v("value-" + i), i + 1, i % 10 == 0);
+            order.add(i);
+        }
+        order.add(numKeys + 1);
+        order.add(7);
+        Collections.shuffle(order, new Random(1234));
+
+        List<Integer> streamed = Lists.newArrayList();
+        indexedWAL.streamValues(prefix,
+            stream -> {
+                for (int i : order) {
+                    if (!stream.stream(UIO.intBytes(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            },
+            (_prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                int i = UIO.bytesInt(key);
+                streamed.add(i);
+                if (i >= numKeys) {
+                    Assert.assertNull(value);
+                    Assert.assertEquals(valueTimestamp, -1);
+                } else if (i % 10 == 0) {
+                    Assert.assertNull(value);
+                    Assert.assertTrue(valueTombstoned);
+                } else {
+                    Assert.assertEquals(new String(value), "value-" + i);
+                    Assert.assertEquals(valueTimestamp, i + 1);
+                }
+                return true;
+            });
+        Assert.assertEquals(streamed, order);
+    }
+
+    @Test
+    public void reclaimableBytesTest() throws Exception {
+        IoStats ioStats = new IoStats();
+        AmzaStats amzaStats = new AmzaStats();
+        BinaryWALTx binaryWALTx = new BinaryWALTx("booya",
+            new MemoryBackedRowIOProvider(4_096, 4_096, 4_096, 64, new HeapByteBufferFactory()),
+            primaryRowMarshaller,
+            4096,
+            64);
+        WALStorage<MemoryWALIndex> indexedWAL = memoryWALStorage(amzaStats, binaryWALTx);
+        indexedWAL.load(ioStats, null, -1, -1, false, false, -1, 0);
+
+        byte[] prefix = UIO.intBytes(-1);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 10; i++) {
+                update(ioStats, indexedWAL, prefix, UIO.intBytes(i), v("value-" + round + "-" + i), round * 10 + i + 1, false);
+            }
+        }
+        // 10 clobbers over 10 keys is under the compaction factor, and nothing has been tombstoned yet
+        Assert.assertEquals(indexedWAL.reclaimableBytes(Long.MAX_VALUE, Long.MAX_VALUE, -1, -1, -1), 0L);
+
+        for (int round = 2; round < 4; round++) {
+            for (int i = 0; i < 10; i++) {
+                update(ioStats, indexedWAL, prefix, UIO.intBytes(i), v("value-" + round + "-" + i), round * 10 + i + 1, false);
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            update(ioStats, indexedWAL, prefix, UIO.intBytes(i), null, 40 + i + 1, true);
+        }
+        Assert.assertEquals(indexedWAL.keyCount(), 10L);
+        Assert.assertEquals(indexedWAL.clobberCount(), 35L);
+        long length = binaryWALTx.length();
+        Assert.assertEquals(indexedWAL.reclaimableBytes(0, 0, -1, -1, -1), (long) (length * (35d / 45)));
+
+        // keep the tombstones so the compacted wal knows its oldest tombstone
+        CompactionStats compactionStats = amzaStats.beginCompaction(AmzaStats.CompactionFamily.tombstone, "booya");
+        indexedWAL.compactTombstone(ioStats, compactionStats, WALCompactionThrottle.NO_THROTTLE, null, null, RowType.primary, 0, 0,
+            -1, -1, -1, -1, 0, false,
+            (transitionToCompacted) -> transitionToCompacted.tx(() -> null));
+        compactionStats.finished();
+
+        long compactedLength = binaryWALTx.length();
+        Assert.assertEquals(indexedWAL.clobberCount(), 0L);
+        Assert.assertEquals(indexedWAL.reclaimableBytes(41, 41, -1, -1, -1), 0L);
+        Assert.assertEquals(indexedWAL.reclaimableBytes(42, 42, -1, -1, -1), compactedLength / 2);
+    }
+
+    @Test
+    public void compactionThrottlePacingTest() throws Exception {
+        IoStats ioStats = new IoStats();
+        AmzaStats amzaStats = new AmzaStats();
+        BinaryWALTx binaryWALTx = new BinaryWALTx("booya",
+            new MemoryBackedRowIOProvider(4_096, 4_096, 4_096, 64, new HeapByteBufferFactory()),
+            primaryRowMarshaller,
+            4096,
+            64);
+        WALStorage<MemoryWALIndex> indexedWAL = memoryWALStorage(amzaStats, binaryWALTx);
+        indexedWAL.load(ioStats, null, -1, -1, false, false, -1, 0);
+
+        byte[] prefix = UIO.intBytes(-1);
+        byte[] value = new byte[1_024];
+        for (int i = 0; i < 500; i++) {
+            update(ioStats, indexedWAL, prefix, UIO.intBytes(i), value, i + 1, false);
+        }
+
+        List<Long> throttled = Lists.newArrayList();
+        CompactionStats compactionStats = amzaStats.beginCompaction(AmzaStats.CompactionFamily.tombstone, "booya");
+        indexedWAL.compactTombstone(ioStats, compactionStats, throttled::add, null, null, RowType.primary, 0, 0,
+            -1, -1, -1, -1, 0, false,
+            (transitionToCompacted) -> transitionToCompacted.tx(() -> null));
+        compactionStats.finished();
+
+        // 500 rows of 1k are read and rewritten, so the throttle must have been consulted several times along the way
+        long total = 0;
+        for (long bytes : throttled) {
+            total += bytes;
+        }
+        Assert.assertTrue(throttled.size() > 2, "throttled:" + throttled);
+        Assert.assertTrue(total >= 2 * 500 * 1_024, "total:" + total);
+        for (int i = 0; i < throttled.size() - 1; i++) {
+            long bytes = throttled.get(i);
+            Assert.assertTrue(bytes >= BinaryWALTx.THROTTLE_EVERY_N_BYTES && bytes < BinaryWALTx.THROTTLE_EVERY_N_BYTES + 4 * 1_024,
+                "throttled:" + throttled);
+        }
+        Assert.assertTrue(throttled.get(throttled.size() - 1) > 0);
+    }
+
+    private WALStorage<MemoryWALIndex> memoryWALStorage(AmzaStats amzaStats, BinaryWALTx binaryWALTx) {
+        VersionedPartitionName versionedPartitionName = new VersionedPartitionName(new PartitionName(false, "ring".getBytes(), "booya".getBytes()),
+            VersionedPartitionName.STATIC_VERSION);
+        return new WALStorage<>(
+            amzaStats,
+            versionedPartitionName,
+            new OrderIdProviderImpl(new ConstantWriterIdProvider(1)),
+            primaryRowMarshaller,
+            highwaterRowMarshaller,
+            binaryWALTx,
+            new MemoryWALIndexProvider("memory"),
+            new SickPartitions(),
+            false,
+            2,
+            null,
+            false,
+            SecondaryIndexes.NONE);
+    }
+
     public WALKey k(int key) {
         return new WALKey(UIO.intBytes(-key), UIO.intBytes(key));
     }
@@ -0,0 +1,78 @@
+package com.jivesoftware.os.amza.service.storage.delta;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
+import com.jivesoftware.os.amza.api.wal.WALPointer;
+import java.io.File;
+import java.io.RandomAccessFile;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class DeltaCheckpointTest {
+
+    private final AmzaInterner amzaInterner = new AmzaInterner();
+    private final VersionedPartitionName versionedPartitionName = new VersionedPartitionName(
+        new PartitionName(false, "ring".getBytes(), "partition".getBytes()), 1L);
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] prefix = UIO.intBytes(-1);
+        PartitionDelta delta = new PartitionDelta(versionedPartitionName, null, 8, new HeapDeltaIndex(), null);
+        // txIds 1..10 at fps 0..90, then key 3 is overwritten by txId 11 at fp 100
+        for (int i = 0; i < 10; i++) {
+            delta.put(i * 10, prefix, UIO.intBytes(i), UIO.intBytes(i), i + 1, false, i + 1);
+            delta.appendTxFps(prefix, i + 1, new long[] { i * 10 });
+        }
+        delta.put(100, prefix, UIO.intBytes(3), UIO.intBytes(33), 11, false, 11);
+        delta.appendTxFps(prefix, 11, new long[] { 100 });
+
+        File file = new File(Files.createTempDir(), "checkpoint");
+        DeltaCheckpoint.write(file, 7L, 100, ImmutableMap.of(versionedPartitionName, delta));
+
+        Assert.assertNull(DeltaCheckpoint.read(file, 8L, amzaInterner));
+        DeltaCheckpoint checkpoint = DeltaCheckpoint.read(file, 7L, amzaInterner);
+        Assert.assertNotNull(checkpoint);
+        Assert.assertEquals(checkpoint.endFp, 100);
+
+        DeltaCheckpoint.Partition partition = checkpoint.partitions.get(versionedPartitionName);
+        Assert.assertNotNull(partition);
+        Assert.assertEquals(partition.rowCount(), 10);
+
+        PartitionDelta restored = new PartitionDelta(versionedPartitionName, null, 8, new HeapDeltaIndex(), null);
+        restored.restore(partition);
+        Assert.assertEquals(restored.size(), 9);
+        Assert.assertEquals(restored.highestTxId(), 10);
+        Assert.assertEquals(restored.lowestTxId(), 1);
+        Assert.assertNull(restored.getPointer(prefix, UIO.intBytes(3)));
+        for (int i = 0; i < 10; i++) {
+            if (i != 3) {
+                WALPointer pointer = restored.getPointer(prefix, UIO.intBytes(i));
+                Assert.assertEquals(pointer.getFp(), i * 10);
+                Assert.assertEquals(pointer.getTimestampId(), i + 1);
+                Assert.assertEquals(pointer.getValue(), UIO.intBytes(i));
+            }
+        }
+    }
+
+    @Test
+    public void testIncompleteCheckpointIsIgnored() throws Exception {
+        PartitionDelta delta = new PartitionDelta(versionedPartitionName, null, 8, new HeapDeltaIndex(), null);
+        delta.put(0, null, UIO.intBytes(1), UIO.intBytes(1), 1, false, 1);
+        delta.appendTxFps(null, 1, new long[] { 0 });
+
+        File file = new File(Files.createTempDir(), "checkpoint");
+        DeltaCheckpoint.write(file, 7L, 10, ImmutableMap.of(versionedPartitionName, delta));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        Assert.assertNull(DeltaCheckpoint.read(file, 7L, amzaInterner));
+        Assert.assertNull(DeltaCheckpoint.read(new File(file.getParentFile(), "missing"), 7L, amzaInterner));
+    }
+}
@@ -3,7 +3,9 @@ package com.jivesoftware.os.amza.service.storage.delta;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.DeltaOverCapacityException;
 import com.jivesoftware.os.amza.api.IoStats;
 import com.jivesoftware.os.amza.api.TimestampedValue;
 import com.jivesoftware.os.amza.api.filer.UIO;
@@ -11,6 +13,7 @@ import com.jivesoftware.os.amza.api.partition.Consistency;
 import com.jivesoftware.os.amza.api.partition.Durability;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
+import com.jivesoftware.os.amza.api.partition.SecondaryIndexDefinition;
 import com.jivesoftware.os.amza.api.partition.StorageVersion;
 import com.jivesoftware.os.amza.api.partition.VersionedPartitionName;
 import com.jivesoftware.os.amza.api.ring.RingMember;
@@ -21,6 +24,7 @@ import com.jivesoftware.os.amza.api.stream.RowType;
 import com.jivesoftware.os.amza.api.stream.UnprefixedTxKeyValueStream;
 import com.jivesoftware.os.amza.api.stream.UnprefixedWALKeys;
 import com.jivesoftware.os.amza.api.take.Highwaters;
+import com.jivesoftware.os.amza.api.wal.WALCompactionThrottle;
 import com.jivesoftware.os.amza.api.wal.WALKey;
 import com.jivesoftware.os.amza.api.wal.WALUpdated;
 import com.jivesoftware.os.amza.api.wal.WALValue;
@@ -58,8 +62,21 @@ import com.jivesoftware.os.routing.bird.health.api.HealthTimer;
 import com.jivesoftware.os.routing.bird.health.api.NoOpHealthChecker;
 import com.jivesoftware.os.routing.bird.health.checkers.SickThreads;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
@@ -139,7 +156,8 @@ public class DeltaStripeWALStorageNGTest {
             ids,
             new SickPartitions(),
             -1,
-            TimeUnit.DAYS.toMillis(1));
+            TimeUnit.DAYS.toMillis(1),
+            null);
 
         orderIdProvider = new OrderIdProviderImpl(new ConstantWriterIdProvider(1), new SnowflakeIdPacker(),
             new JiveEpochTimestampProvider());
@@ -250,19 +268,47 @@ public class DeltaStripeWALStorageNGTest {
     }
 
     private DeltaStripeWALStorage loadDeltaStripe(IoStats ioStats) throws Exception {
+        return loadDeltaStripe(ioStats, null, 0, 0);
+    }
+
+    private DeltaStripeWALStorage loadDeltaStripe(IoStats ioStats,
+        ExecutorService loadDeltaThreads,
+        int loadDeltaParallelism,
+        long loadDeltaChunkSizeInBytes) throws Exception {
+        return loadDeltaStripe(ioStats, new AmzaStats(), 20_000, loadDeltaThreads, loadDeltaParallelism, loadDeltaChunkSizeInBytes, 75, 0, 20);
+    }
+
+    private DeltaStripeWALStorage loadDeltaStripe(IoStats ioStats,
+        AmzaStats stripeStats,
+        long mergeAfterNUpdates,
+        ExecutorService loadDeltaThreads,
+        int loadDeltaParallelism,
+        long loadDeltaChunkSizeInBytes,
+        int backPressureAtPercentOfCapacity,
+        long backPressureMaxDelayMillis,
+        int reservedPercentOfCapacity) throws Exception {
         HealthTimer quorumLatency = new HealthTimer(CountersAndTimers.getOrCreate("test"), "test", new NoOpHealthChecker<>("test"));
         DeltaStripeWALStorage delta = new DeltaStripeWALStorage(amzaInterner,
             0,
-            new AmzaStats(),
-            new AckWaters(amzaSystemStats, amzaStats, quorumLatency, 2, false),
+            stripeStats,
+            new AckWaters(amzaSystemStats, amzaStats, quorumLatency, false),
             new SickThreads(),
             ringStoreReader,
             highwaterStorage, deltaWALFactory,
             8,
             true,
             walIndexProviderRegistry,
-            20_000,
-            Executors.newCachedThreadPool());
+            mergeAfterNUpdates,
+            Executors.newCachedThreadPool(),
+            HeapDeltaIndex::new,
+            loadDeltaThreads,
+            loadDeltaParallelism,
+            loadDeltaChunkSizeInBytes,
+            0,
+            backPressureAtPercentOfCapacity,
+            backPressureMaxDelayMillis,
+            reservedPercentOfCapacity,
+            new WriteQuotas(stripeStats, 0));
         delta.load(ioStats, partitionIndex, partitionCreator, currentVersionProvider, primaryRowMarshaller);
         return delta;
     }
@@ -336,14 +382,16 @@ public class DeltaStripeWALStorageNGTest {
         File baseKey = indexedWALStorageProvider.baseKey(versionedPartitionName1, 0);
         CompactionStats compactionStats = amzaStats.beginCompaction(AmzaStats.CompactionFamily.tombstone, "foo");
 
-        storage1.compactTombstone(ioStats, compactionStats, baseKey, baseKey, testRowType1, 10, 10, Long.MAX_VALUE, Long.MAX_VALUE, -1, -1, 0, true,
+        storage1.compactTombstone(ioStats, compactionStats, WALCompactionThrottle.NO_THROTTLE, baseKey, baseKey, testRowType1, 10, 10,
+            Long.MAX_VALUE, Long.MAX_VALUE, -1, -1, 0, true,
             (transitionToCompacted) -> transitionToCompacted.tx(() -> {
                 return null;
             }));
         compactionStats.finished();
 
         compactionStats = amzaStats.beginCompaction(AmzaStats.CompactionFamily.tombstone, "bar");
-        storage1.compactTombstone(ioStats, compactionStats, baseKey, baseKey, testRowType1, 10, 10, Long.MAX_VALUE, Long.MAX_VALUE, -1, -1, 0, true,
+        storage1.compactTombstone(ioStats, compactionStats, WALCompactionThrottle.NO_THROTTLE, baseKey, baseKey, testRowType1, 10, 10,
+            Long.MAX_VALUE, Long.MAX_VALUE, -1, -1, 0, true,
             (transitionToCompacted) -> transitionToCompacted.tx(() -> {
                 return null;
             })); // Bla
@@ -389,6 +437,352 @@ public class DeltaStripeWALStorageNGTest {
         }
     }
 
+    @Test
+    public void testSecondaryIndexScan() throws Exception {
+        IoStats ioStats = new IoStats();
+        WALStorage storage1 = partitionStore1.getWalStorage();
+        PartitionProperties properties = partitionStore1.getProperties().copy();
+        properties.secondaryIndexes = Collections.singletonList(
+            new SecondaryIndexDefinition("value", SecondaryIndexDefinition.Extractor.value, 0, -1, (byte) ',', -1, null));
+        partitionStore1.updateProperties(properties);
+        byte[] prefix = UIO.intBytes(-1);
+
+        for (int i = 1; i <= 10; i++) {
+            deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                new IntUpdate(testRowType1, i, i * 10, 1, false),
+                updated);
+        }
+        deltaStripeWALStorage.merge(ioStats, partitionIndex, partitionCreator, currentVersionProvider, true);
+        Assert.assertEquals(scanIndex(storage1, 20, 60), Arrays.asList("20:2", "30:3", "40:4", "50:5"));
+
+        // move one key out of the range, one within it, delete one and add one, all in the delta over the merged index
+        deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+            new IntUpdate(testRowType1, 2, 1_000, 2, false),
+            updated);
+        deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+            new IntUpdate(testRowType1, 3, 35, 2, false),
+            updated);
+        deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+            new IntUpdate(testRowType1, 4, 0, 2, true),
+            updated);
+        deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+            new IntUpdate(testRowType1, 11, 55, 2, false),
+            updated);
+        List<String> expected = Arrays.asList("35:3", "50:5", "55:11");
+        Assert.assertEquals(scanIndex(storage1, 20, 60), expected);
+
+        deltaStripeWALStorage.merge(ioStats, partitionIndex, partitionCreator, currentVersionProvider, true);
+        Assert.assertEquals(scanIndex(storage1, 20, 60), expected);
+
+        File baseKey = indexedWALStorageProvider.baseKey(versionedPartitionName1, 0);
+        CompactionStats compactionStats = amzaStats.beginCompaction(AmzaStats.CompactionFamily.tombstone, "secondaryIndexScan");
+        storage1.compactTombstone(ioStats, compactionStats, WALCompactionThrottle.NO_THROTTLE, baseKey, baseKey, testRowType1, 10, 10,
+            Long.MAX_VALUE, Long.MAX_VALUE, -1, -1, 0, true,
+            (transitionToCompacted) -> transitionToCompacted.tx(() -> {
+                return null;
+            }));
+        compactionStats.finished();
+        Assert.assertEquals(scanIndex(storage1, 20, 60), expected);
+        Assert.assertEquals(scanIndex(storage1, 1_000, 1_001), Collections.singletonList("1000:2"));
+    }
+
+    private List<String> scanIndex(WALStorage storage, int fromIndexKey, int toIndexKey) throws Exception {
+        List<String> scanned = new ArrayList<>();
+        deltaStripeWALStorage.secondaryIndexScan(versionedPartitionName1, storage, "value", UIO.intBytes(fromIndexKey), UIO.intBytes(toIndexKey),
+            (indexKey, prefix, key, value, valueTimestamp, valueTombstoned, valueVersion) -> {
+                if (!valueTombstoned) {
+                    scanned.add(UIO.bytesInt(indexKey) + ":" + UIO.bytesInt(key));
+                }
+                return true;
+            });
+        return scanned;
+    }
+
+    @Test
+    public void testParallelLoad() throws Exception {
+        AmzaStats amzaSystemStats = new AmzaStats();
+        AmzaStats amzaStats = new AmzaStats();
+        WALStorage storage1 = partitionStore1.getWalStorage();
+        WALStorage storage2 = partitionStore2.getWalStorage();
+        byte[] prefix = UIO.intBytes(-1);
+
+        IoStats ioStats = new IoStats();
+        for (int timestamp = 1; timestamp <= 3; timestamp++) {
+            for (int i = 1; i <= 100; i++) {
+                deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                    new IntUpdate(testRowType1, i, i * timestamp, timestamp, false),
+                    updated);
+                deltaStripeWALStorage.update(ioStats, true, testRowType2, highwaterStorage, versionedPartitionName2, partitionStore2, prefix,
+                    new IntUpdate(testRowType2, i, i * timestamp, timestamp, i % 10 == 0),
+                    updated);
+            }
+        }
+
+        deltaStripeWALStorage.hackTruncation(4);
+
+        partitionIndex = new PartitionIndex(amzaSystemStats, amzaStats, orderIdProvider, indexedWALStorageProvider, 4, Executors.newCachedThreadPool());
+        partitionCreator = new PartitionCreator(orderIdProvider, partitionPropertyMarshaller, partitionIndex, systemWALStorage, updated, rowChanges,
+            amzaInterner);
+        partitionCreator.init((partitionName) -> 0);
+        deltaStripeWALStorage = loadDeltaStripe(ioStats, Executors.newFixedThreadPool(4), 4, 256);
+
+        for (int i = 1; i <= 100; i++) {
+            WALKey walKey = key(prefix, i);
+            Assert.assertEquals(deltaStripeWALStorage.get(amzaStats.getIoStats, versionedPartitionName1, storage1, walKey.prefix, walKey.key),
+                new WALValue(null, UIO.intBytes(i * 3), 3, false, 3));
+            WALValue value2 = deltaStripeWALStorage.get(amzaStats.getIoStats, versionedPartitionName2, storage2, walKey.prefix, walKey.key);
+            if (i == 100) {
+                // the final row was truncated so the previous delete is the survivor
+                Assert.assertTrue(value2.getTombstoned());
+                Assert.assertEquals(value2.getTimestampId(), 2);
+            } else {
+                Assert.assertEquals(value2.getTombstoned(), i % 10 == 0);
+                Assert.assertEquals(value2.getTimestampId(), 3);
+            }
+        }
+    }
+
+    @Test
+    public void testDeferredMergeLoad() throws Exception {
+        AmzaStats amzaSystemStats = new AmzaStats();
+        AmzaStats amzaStats = new AmzaStats();
+        WALStorage storage1 = partitionStore1.getWalStorage();
+        byte[] prefix = UIO.intBytes(-1);
+
+        IoStats ioStats = new IoStats();
+        for (int i = 1; i <= 100; i++) {
+            deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                new IntUpdate(testRowType1, i, i, 1, false),
+                updated);
+        }
+
+        // leave two more wals behind the current one, the middle one holding unmerged updates to the even keys
+        List<DeltaWAL> deltaWALs = deltaWALFactory.list(ioStats);
+        DeltaWAL middleWAL = deltaWALFactory.create(ioStats, deltaWALs.get(deltaWALs.size() - 1).getId());
+        Map<WALKey, WALValue> apply = new LinkedHashMap<>();
+        for (int i = 2; i <= 100; i += 2) {
+            apply.put(key(prefix, i), new WALValue(testRowType1, UIO.intBytes(i * 2), 2, false, 2));
+        }
+        middleWAL.update(ioStats, testRowType1, versionedPartitionName1, apply, null);
+        middleWAL.flush(true);
+        deltaWALFactory.create(ioStats, middleWAL.getId());
+        Assert.assertEquals(deltaWALFactory.list(ioStats).size(), 3);
+
+        partitionIndex = new PartitionIndex(amzaSystemStats, amzaStats, orderIdProvider, indexedWALStorageProvider, 4, Executors.newCachedThreadPool());
+        partitionCreator = new PartitionCreator(orderIdProvider, partitionPropertyMarshaller, partitionIndex, systemWALStorage, updated, rowChanges,
+            amzaInterner);
+        partitionCreator.init((partitionName) -> 0);
+        deltaStripeWALStorage = loadDeltaStripe(ioStats, Executors.newFixedThreadPool(4), 4, 256);
+        deltaStripeWALStorage.awaitDeferredMerge();
+
+        Assert.assertEquals(deltaWALFactory.list(ioStats).size(), 1);
+        for (int i = 1; i <= 100; i++) {
+            WALKey walKey = key(prefix, i);
+            WALValue expected = i % 2 == 0
+                ? new WALValue(null, UIO.intBytes(i * 2), 2, false, 2)
+                : new WALValue(null, UIO.intBytes(i), 1, false, 1);
+            Assert.assertEquals(deltaStripeWALStorage.get(amzaStats.getIoStats, versionedPartitionName1, storage1, walKey.prefix, walKey.key), expected);
+        }
+    }
+
+    @Test
+    public void testCheckpointLoad() throws Exception {
+        AmzaStats amzaSystemStats = new AmzaStats();
+        AmzaStats amzaStats = new AmzaStats();
+        WALStorage storage1 = partitionStore1.getWalStorage();
+        byte[] prefix = UIO.intBytes(-1);
+
+        IoStats ioStats = new IoStats();
+        for (int i = 1; i <= 50; i++) {
+            deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                new IntUpdate(testRowType1, i, i, 1, false),
+                updated);
+        }
+        deltaStripeWALStorage.checkpoint();
+        for (int i = 40; i <= 60; i++) {
+            deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                new IntUpdate(testRowType1, i, i * 2, 2, false),
+                updated);
+        }
+
+        partitionIndex = new PartitionIndex(amzaSystemStats, amzaStats, orderIdProvider, indexedWALStorageProvider, 4, Executors.newCachedThreadPool());
+        partitionCreator = new PartitionCreator(orderIdProvider, partitionPropertyMarshaller, partitionIndex, systemWALStorage, updated, rowChanges,
+            amzaInterner);
+        partitionCreator.init((partitionName) -> 0);
+        deltaStripeWALStorage = loadDeltaStripe(ioStats);
+
+        for (int i = 1; i <= 60; i++) {
+            WALKey walKey = key(prefix, i);
+            WALValue expected = i < 40
+                ? new WALValue(null, UIO.intBytes(i), 1, false, 1)
+                : new WALValue(null, UIO.intBytes(i * 2), 2, false, 2);
+            Assert.assertEquals(deltaStripeWALStorage.get(amzaStats.getIoStats, versionedPartitionName1, storage1, walKey.prefix, walKey.key), expected);
+        }
+    }
+
+    @Test
+    public void testBackPressure() throws Exception {
+        AmzaStats stripeStats = new AmzaStats();
+        IoStats ioStats = new IoStats();
+        deltaStripeWALStorage = loadDeltaStripe(ioStats, stripeStats, 100, null, 0, 0, 50, 10, 20);
+        byte[] prefix = UIO.intBytes(-1);
+
+        for (int i = 1; i <= 100; i++) {
+            deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                new IntUpdate(testRowType1, i, i, 1, false),
+                updated);
+        }
+        Assert.assertEquals(stripeStats.deltaBackPressureMillis.longValue(), 0L);
+
+        for (int i = 101; i <= 200; i++) {
+            deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                new IntUpdate(testRowType1, i, i, 1, false),
+                updated);
+        }
+        Assert.assertTrue(stripeStats.deltaBackPressureMillis.longValue() > 0);
+
+        deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+            new IntUpdate(testRowType1, 201, 201, 1, false),
+            updated);
+        try {
+            deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                new IntUpdate(testRowType1, 202, 202, 1, false),
+                updated);
+            Assert.fail("Expected the delta to be full");
+        } catch (DeltaOverCapacityException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFairAdmission() throws Exception {
+        AmzaStats stripeStats = new AmzaStats();
+        IoStats ioStats = new IoStats();
+        deltaStripeWALStorage = loadDeltaStripe(ioStats, stripeStats, 100, null, 0, 0, 50, 0, 20);
+        byte[] prefix = UIO.intBytes(-1);
+
+        deltaStripeWALStorage.update(ioStats, true, testRowType2, highwaterStorage, versionedPartitionName2, partitionStore2, prefix,
+            new IntUpdate(testRowType2, 1, 1, 1, false),
+            updated);
+        for (int i = 1; i <= 160; i++) {
+            deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                new IntUpdate(testRowType1, i, i, 1, false),
+                updated);
+        }
+        try {
+            deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                new IntUpdate(testRowType1, 161, 161, 1, false),
+                updated);
+            Assert.fail("Expected the noisy partition to be rejected");
+        } catch (DeltaOverCapacityException x) {
+            // expected
+        }
+        Assert.assertEquals(stripeStats.getPartitionTotals().get(versionedPartitionName1.getPartitionName()).throttleRejections.longValue(), 1L);
+
+        // the reserved capacity is still available to the quiet partition
+        for (int i = 2; i <= 41; i++) {
+            deltaStripeWALStorage.update(ioStats, true, testRowType2, highwaterStorage, versionedPartitionName2, partitionStore2, prefix,
+                new IntUpdate(testRowType2, i, i, 1, false),
+                updated);
+        }
+        Assert.assertNull(stripeStats.getPartitionTotals().get(versionedPartitionName2.getPartitionName()));
+    }
+
+    @Test
+    public void testConcurrentGroupCommit() throws Exception {
+        AmzaStats stripeStats = new AmzaStats();
+        IoStats ioStats = new IoStats();
+        deltaStripeWALStorage = loadDeltaStripe(ioStats, stripeStats, 20_000, null, 0, 0, 75, 0, 20);
+        WALStorage storage = partitionStore1.getWalStorage();
+        byte[] prefix = UIO.intBytes(-1);
+
+        int numWriters = 8;
+        int numCommits = 200;
+        ExecutorService writers = Executors.newFixedThreadPool(numWriters);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < numWriters; w++) {
+            int writer = w;
+            futures.add(writers.submit(() -> {
+                start.await();
+                for (int i = 0; i < numCommits; i++) {
+                    int value = writer * numCommits + i;
+                    deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                        new IntUpdate(testRowType1, value, value, value + 1, false),
+                        updated);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        writers.shutdownNow();
+
+        Map<Integer, Integer> applied = new HashMap<>();
+        deltaStripeWALStorage.takeRowsFromTransactionId(amzaStats.takeIoStats, versionedPartitionName1, storage, prefix, 0,
+            (rowFP, rowTxId, rowType, row) -> {
+                if (rowType == testRowType1) {
+                    applied.merge(UIO.bytesInt(primaryRowMarshaller.valueFromRow(rowType, row, 0)), 1, Integer::sum);
+                }
+                return true;
+            });
+        Assert.assertEquals(applied.size(), numWriters * numCommits);
+        for (Entry<Integer, Integer> entry : applied.entrySet()) {
+            Assert.assertEquals(entry.getValue().intValue(), 1, "value:" + entry.getKey());
+        }
+        Assert.assertEquals(stripeStats.deltaGroupCommitted.longValue(), numWriters * numCommits);
+        Assert.assertTrue(stripeStats.deltaGroupCommits.longValue() <= numWriters * numCommits);
+    }
+
+    @Test
+    public void testGroupCommitFailure() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean(false);
+        CountDownLatch waiting = new CountDownLatch(1);
+        deltaWALFactory = new DeltaWALFactory(() -> {
+            if (failing.get()) {
+                // hold the leader so the other writers queue up behind it
+                Uninterruptibles.awaitUninterruptibly(waiting);
+                throw new AssertionError("injected");
+            }
+            return orderIdProvider.nextId();
+        }, Files.createTempDir(), new BinaryRowIOProvider(4_096, 64, false), primaryRowMarshaller, highwaterRowMarshaller, 100);
+        IoStats ioStats = new IoStats();
+        deltaStripeWALStorage = loadDeltaStripe(ioStats);
+        byte[] prefix = UIO.intBytes(-1);
+        failing.set(true);
+
+        int numWriters = 8;
+        ExecutorService writers = Executors.newFixedThreadPool(numWriters);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < numWriters; w++) {
+            int writer = w;
+            futures.add(writers.submit(() -> {
+                deltaStripeWALStorage.update(ioStats, true, testRowType1, highwaterStorage, versionedPartitionName1, partitionStore1, prefix,
+                    new IntUpdate(testRowType1, writer, writer, writer + 1, false),
+                    updated);
+                return null;
+            }));
+        }
+        Thread.sleep(100);
+        waiting.countDown();
+
+        for (Future<?> future : futures) {
+            try {
+                future.get(30, TimeUnit.SECONDS);
+                Assert.fail("Expected the injected failure");
+            } catch (ExecutionException x) {
+                boolean injected = false;
+                for (Throwable t = x; t != null; t = t.getCause()) {
+                    injected |= t instanceof AssertionError && "injected".equals(t.getMessage());
+                }
+                Assert.assertTrue(injected, "Unexpected failure: " + x);
+            }
+        }
+        writers.shutdownNow();
+    }
+
     @Test
     public void testTombstones() throws Exception {
         WALStorage storage = partitionStore1.getWalStorage();
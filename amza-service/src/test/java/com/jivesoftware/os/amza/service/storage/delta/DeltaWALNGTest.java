@@ -1,5 +1,6 @@
 package com.jivesoftware.os.amza.service.storage.delta;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import com.jivesoftware.os.amza.api.AmzaInterner;
@@ -17,6 +18,7 @@ import com.jivesoftware.os.amza.service.storage.binary.BinaryRowIOProvider;
 import com.jivesoftware.os.jive.utils.ordered.id.ConstantWriterIdProvider;
 import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProviderImpl;
 import java.io.File;
+import java.util.List;
 import java.util.Map;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -112,4 +114,54 @@ public class DeltaWALNGTest {
 
         }
     }
+
+    @Test
+    public void testUpdateBatch() throws Exception {
+        AmzaInterner amzaInterner = new AmzaInterner();
+        VersionedPartitionName partitionA = new VersionedPartitionName(new PartitionName(true, "test".getBytes(), "a".getBytes()),
+            VersionedPartitionName.STATIC_VERSION);
+        VersionedPartitionName partitionB = new VersionedPartitionName(new PartitionName(true, "test".getBytes(), "b".getBytes()),
+            VersionedPartitionName.STATIC_VERSION);
+        File tmp = Files.createTempDir();
+        PrimaryRowMarshaller primaryRowMarshaller = new BinaryPrimaryRowMarshaller();
+        HighwaterRowMarshaller<byte[]> highwaterRowMarshaller = new BinaryHighwaterRowMarshaller(amzaInterner);
+
+        IoStats ioStats = new IoStats();
+        BinaryRowIOProvider binaryRowIOProvider = new BinaryRowIOProvider(4_096, 64, false);
+
+        OrderIdProviderImpl ids = new OrderIdProviderImpl(new ConstantWriterIdProvider(1));
+        DeltaWALFactory deltaWALFactory = new DeltaWALFactory(ids, tmp, binaryRowIOProvider, primaryRowMarshaller, highwaterRowMarshaller, 1);
+        DeltaWAL deltaWAL = deltaWALFactory.create(ioStats, -1);
+
+        List<Map<WALKey, WALValue>> applies = Lists.newArrayList();
+        List<DeltaWAL.DeltaWALUpdate> updates = Lists.newArrayList();
+        for (int u = 0; u < 4; u++) {
+            Map<WALKey, WALValue> apply = Maps.newLinkedHashMap();
+            for (int i = 0; i < u * 3; i++) {
+                byte[] bytes = (u + "k" + i).getBytes();
+                long timestampAndVersion = ids.nextId();
+                apply.put(new WALKey(bytes, bytes), new WALValue(RowType.primary, (u + "v" + i).getBytes(), timestampAndVersion, false,
+                    timestampAndVersion));
+            }
+            applies.add(apply);
+            updates.add(new DeltaWAL.DeltaWALUpdate(RowType.primary, (u % 2 == 0) ? partitionA : partitionB, apply, null));
+        }
+
+        DeltaWAL.DeltaWALApplied[] applied = deltaWAL.updateBatch(ioStats, updates);
+        Assert.assertEquals(applied.length, updates.size());
+
+        long lastTxId = -1;
+        for (int u = 0; u < applied.length; u++) {
+            Assert.assertTrue(applied[u].txId > lastTxId);
+            lastTxId = applied[u].txId;
+            Assert.assertEquals(applied[u].fps.length, applies.get(u).size());
+
+            Map<WALKey, WALValue> apply = applies.get(u);
+            for (int i = 0; i < applied[u].fps.length; i++) {
+                DeltaWAL.KeyValueHighwater kvh = applied[u].keyValueHighwaters[i];
+                WALValue hydrated = deltaWAL.hydrate(applied[u].fps[i]);
+                Assert.assertEquals(hydrated, apply.get(new WALKey(kvh.prefix, kvh.key)));
+            }
+        }
+    }
 }
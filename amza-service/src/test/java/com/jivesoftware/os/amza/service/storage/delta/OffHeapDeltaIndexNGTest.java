@@ -0,0 +1,100 @@
+package com.jivesoftware.os.amza.service.storage.delta;
+
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.wal.KeyUtil;
+import com.jivesoftware.os.amza.api.wal.WALKey;
+import com.jivesoftware.os.amza.api.wal.WALPointer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class OffHeapDeltaIndexNGTest {
+
+    @Test
+    public void testPutGet() throws Exception {
+        OffHeapDeltaIndex index = new OffHeapDeltaIndex(64, 1_024);
+        for (int i = 0; i < 1_000; i++) {
+            index.put(key(i), i, i, false, i, true, UIO.intBytes(i));
+        }
+        Assert.assertEquals(index.size(), 1_000);
+        for (int i = 0; i < 1_000; i++) {
+            WALPointer pointer = index.get(key(i));
+            Assert.assertNotNull(pointer);
+            Assert.assertEquals(pointer.getFp(), i);
+            Assert.assertEquals(pointer.getTimestampId(), i);
+            Assert.assertEquals(pointer.getVersion(), i);
+            Assert.assertTrue(pointer.getHasValue());
+            Assert.assertEquals(pointer.getValue(), UIO.intBytes(i));
+        }
+        Assert.assertNull(index.get(key(1_000)));
+
+        index.put(key(7), 70, 70, true, 70, false, null);
+        Assert.assertEquals(index.size(), 1_000);
+        WALPointer pointer = index.get(key(7));
+        Assert.assertEquals(pointer.getFp(), 70);
+        Assert.assertTrue(pointer.getTombstoned());
+        Assert.assertFalse(pointer.getHasValue());
+        Assert.assertNull(pointer.getValue());
+    }
+
+    @Test
+    public void testOrderedIteration() throws Exception {
+        OffHeapDeltaIndex index = new OffHeapDeltaIndex(64, 1_024);
+        int count = 1_000;
+        for (int i = count - 1; i >= 0; i--) {
+            index.put(key(i), i, i, false, i, false, null);
+        }
+        // overwrite half of them so newer values must shadow older runs
+        for (int i = 0; i < count; i += 2) {
+            index.put(key(i), count + i, i, false, i, false, null);
+        }
+
+        assertRange(index, null, null, 0, count);
+        assertRange(index, key(100), key(300), 100, 300);
+        assertRange(index, key(999), null, 999, count);
+        assertRange(index, null, key(1), 0, 1);
+        assertRange(index, key(500), key(500), 500, 500);
+    }
+
+    @Test
+    public void testReleaseEmptiesIndex() throws Exception {
+        OffHeapDeltaIndex index = new OffHeapDeltaIndex(64, 1_024);
+        for (int i = 0; i < 1_000; i++) {
+            index.put(key(i), i, i, false, i, true, UIO.intBytes(i));
+        }
+
+        index.release();
+        Assert.assertEquals(index.size(), 0);
+        Assert.assertNull(index.get(key(7)));
+        Assert.assertFalse(index.iterator(null, null).hasNext());
+
+        index.release();
+        Assert.assertEquals(index.size(), 0);
+    }
+
+    private static void assertRange(OffHeapDeltaIndex index, byte[] from, byte[] to, int expectedFrom, int expectedTo) {
+        Iterator<Map.Entry<byte[], WALPointer>> iterator = index.iterator(from, to);
+        byte[] last = null;
+        int expected = expectedFrom;
+        while (iterator.hasNext()) {
+            Map.Entry<byte[], WALPointer> entry = iterator.next();
+            Assert.assertTrue(Arrays.equals(entry.getKey(), key(expected)), "at " + expected);
+            Assert.assertEquals(entry.getValue().getFp(), expected % 2 == 0 ? 1_000 + expected : expected);
+            if (last != null) {
+                Assert.assertTrue(KeyUtil.compare(last, entry.getKey()) < 0);
+            }
+            last = entry.getKey();
+            expected++;
+        }
+        Assert.assertEquals(expected, expectedTo);
+    }
+
+    private static byte[] key(int i) {
+        return WALKey.compose(new byte[0], UIO.intBytes(i));
+    }
+}
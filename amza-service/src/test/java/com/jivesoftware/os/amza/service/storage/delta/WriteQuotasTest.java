@@ -0,0 +1,94 @@
+package com.jivesoftware.os.amza.service.storage.delta;
+
+import com.jivesoftware.os.amza.api.DeltaOverCapacityException;
+import com.jivesoftware.os.amza.api.partition.PartitionName;
+import com.jivesoftware.os.amza.api.partition.PartitionProperties;
+import com.jivesoftware.os.amza.service.stats.AmzaStats;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class WriteQuotasTest {
+
+    private final PartitionName partitionName1 = new PartitionName(false, "ring1".getBytes(), "partition1".getBytes());
+    private final PartitionName partitionName2 = new PartitionName(false, "ring1".getBytes(), "partition2".getBytes());
+    private final PartitionName partitionName3 = new PartitionName(false, "ring2".getBytes(), "partition3".getBytes());
+
+    @Test
+    public void testUnlimited() throws Exception {
+        AmzaStats amzaStats = new AmzaStats();
+        WriteQuotas writeQuotas = new WriteQuotas(amzaStats, 0);
+        PartitionProperties properties = new PartitionProperties();
+        for (int i = 0; i < 10; i++) {
+            writeQuotas.acquire(partitionName1, properties, 1_000_000);
+        }
+        Assert.assertEquals(amzaStats.getGrandTotal().throttles.longValue(), 0L);
+    }
+
+    @Test
+    public void testPartitionQuota() throws Exception {
+        AmzaStats amzaStats = new AmzaStats();
+        WriteQuotas writeQuotas = new WriteQuotas(amzaStats, 0);
+        PartitionProperties properties = new PartitionProperties();
+        properties.writeRowsPerSecond = 10;
+
+        writeQuotas.acquire(partitionName1, properties, 10);
+        try {
+            writeQuotas.acquire(partitionName1, properties, 1);
+            Assert.fail("Expected the partition quota to be exceeded");
+        } catch (DeltaOverCapacityException x) {
+            // expected
+        }
+        writeQuotas.acquire(partitionName2, properties, 10);
+
+        Assert.assertEquals(amzaStats.getPartitionTotals().get(partitionName1).throttleRejections.longValue(), 1L);
+        Assert.assertNull(amzaStats.getPartitionTotals().get(partitionName2));
+    }
+
+    @Test
+    public void testRingQuota() throws Exception {
+        AmzaStats amzaStats = new AmzaStats();
+        WriteQuotas writeQuotas = new WriteQuotas(amzaStats, 0);
+        PartitionProperties properties = new PartitionProperties();
+        properties.ringWriteRowsPerSecond = 10;
+
+        writeQuotas.acquire(partitionName1, properties, 10);
+        try {
+            writeQuotas.acquire(partitionName2, properties, 1);
+            Assert.fail("Expected the ring quota to be exceeded");
+        } catch (DeltaOverCapacityException x) {
+            // expected
+        }
+        writeQuotas.acquire(partitionName3, properties, 10);
+
+        Assert.assertEquals(amzaStats.getGrandTotal().throttleRejections.longValue(), 1L);
+        Assert.assertEquals(amzaStats.getPartitionTotals().get(partitionName2).throttleRejections.longValue(), 1L);
+    }
+
+    @Test
+    public void testRejectedPartitionDoesNotDrainRingQuota() throws Exception {
+        AmzaStats amzaStats = new AmzaStats();
+        WriteQuotas writeQuotas = new WriteQuotas(amzaStats, 300);
+        PartitionProperties noisyProperties = new PartitionProperties();
+        noisyProperties.writeRowsPerSecond = 1;
+        noisyProperties.ringWriteRowsPerSecond = 10;
+        PartitionProperties properties = new PartitionProperties();
+        properties.ringWriteRowsPerSecond = 10;
+
+        writeQuotas.acquire(partitionName1, noisyProperties, 1);
+        for (int i = 0; i < 5; i++) {
+            try {
+                writeQuotas.acquire(partitionName1, noisyProperties, 5);
+                Assert.fail("Expected the partition quota to be exceeded");
+            } catch (DeltaOverCapacityException x) {
+                // expected
+            }
+        }
+        writeQuotas.acquire(partitionName2, properties, 1);
+
+        Assert.assertEquals(amzaStats.getGrandTotal().throttleRejections.longValue(), 5L);
+        Assert.assertEquals(amzaStats.getPartitionTotals().get(partitionName1).throttleRejections.longValue(), 5L);
+    }
+}
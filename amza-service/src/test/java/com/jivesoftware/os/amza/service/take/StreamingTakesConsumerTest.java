@@ -0,0 +1,99 @@
+package com.jivesoftware.os.amza.service.take;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.amza.api.AmzaInterner;
+import com.jivesoftware.os.amza.api.filer.UIO;
+import com.jivesoftware.os.amza.api.ring.RingMember;
+import com.jivesoftware.os.amza.api.stream.RowType;
+import com.jivesoftware.os.amza.api.wal.WALKey;
+import com.jivesoftware.os.amza.service.storage.binary.BinaryPrimaryRowMarshaller;
+import com.jivesoftware.os.amza.service.take.StreamingTakesConsumer.StreamingTakeConsumed;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ *
+ */
+public class StreamingTakesConsumerTest {
+
+    private final BinaryPrimaryRowMarshaller marshaller = new BinaryPrimaryRowMarshaller();
+
+    @Test
+    public void testConsumeGrowsSharedBuffer() throws Exception {
+        int[] valueSizes = { 1, 5_000, 3, 70_000, 0 };
+        RowType[] rowTypes = { RowType.primary, RowType.snappy_primary };
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeLong(7L);
+        dos.writeLong(9L);
+        dos.writeByte(1);
+        byte[] ringMemberBytes = new RingMember("neighbor").toBytes();
+        dos.writeByte(1);
+        dos.writeInt(ringMemberBytes.length);
+        dos.write(ringMemberBytes);
+        dos.writeLong(42L);
+        dos.writeByte(0);
+        long txId = 0;
+        for (RowType rowType : rowTypes) {
+            for (int valueSize : valueSizes) {
+                byte[] row = marshaller.toRow(rowType, WALKey.compose(UIO.intBytes(valueSize), UIO.longBytes(txId)), value(valueSize), txId, false,
+                    txId);
+                dos.writeByte(1);
+                dos.writeLong(txId);
+                dos.writeByte(rowType.toByte());
+                dos.writeInt(row.length);
+                dos.write(row);
+                txId++;
+            }
+        }
+        dos.writeByte(0);
+        dos.writeByte(1);
+        dos.flush();
+
+        StreamingTakesConsumer consumer = new StreamingTakesConsumer(new AmzaInterner(), 16, 1_024);
+        List<Object[]> decoded = Lists.newArrayList();
+        StreamingTakeConsumed consumed = consumer.consume(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+            (rowFP, rowTxId, rowType, buffer, offset, length) -> marshaller.fromRow(rowTxId, rowFP, rowType, buffer, offset,
+                (txId1, fp, rowType1, prefix, key, hasValue, value, valueTimestamp, valueTombstoned, valueVersion, entry) -> {
+                    assertNull(entry);
+                    decoded.add(new Object[] { txId1, rowType1, prefix, key, value, valueTimestamp, valueVersion });
+                    return true;
+                }));
+
+        assertEquals(consumed.leadershipToken, 7L);
+        assertEquals(consumed.partitionVersion, 9L);
+        assertTrue(consumed.isOnline);
+        assertTrue(consumed.streamedToEnd);
+        assertEquals(consumed.neighborsHighwaterMarks.get(new RingMember("neighbor")), (Long) 42L);
+
+        assertEquals(decoded.size(), rowTypes.length * valueSizes.length);
+        for (int i = 0; i < decoded.size(); i++) {
+            Object[] d = decoded.get(i);
+            int valueSize = valueSizes[i % valueSizes.length];
+            assertEquals(d[0], (long) i);
+            assertEquals(d[1], rowTypes[i / valueSizes.length]);
+            assertEquals((byte[]) d[2], UIO.intBytes(valueSize));
+            assertEquals((byte[]) d[3], UIO.longBytes(i));
+            assertEquals((byte[]) d[4], value(valueSize));
+            assertEquals(d[5], (long) i);
+            assertEquals(d[6], (long) i);
+        }
+    }
+
+    private static byte[] value(int size) {
+        byte[] value = new byte[size];
+        for (int i = 0; i < size; i++) {
+            value[i] = (byte) (i % 7);
+        }
+        return value;
+    }
+}
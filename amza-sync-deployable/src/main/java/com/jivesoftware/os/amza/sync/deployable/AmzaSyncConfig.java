@@ -28,6 +28,9 @@ public interface AmzaSyncConfig extends Config {
     @IntDefault(128)
     int getSyncSenderRingStripes();
 
+    @IntDefault(4)
+    int getSyncSenderPartitionConcurrency();
+
     @IntDefault(16)
     int getAmzaCallerThreadPoolSize();
 
@@ -33,10 +33,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang.mutable.MutableLong;
 
@@ -58,6 +63,8 @@ public class AmzaSyncSender {
     private final AmzaClientAquariumProvider amzaClientAquariumProvider;
     private final int syncRingStripes;
     private final ScheduledExecutorService executorService;
+    private final ExecutorService syncExecutor;
+    private final int partitionConcurrency;
     private final ScheduledFuture[] syncFutures;
     private final PartitionClientProvider partitionClientProvider;
     private final AmzaSyncClient toSyncClient;
@@ -76,6 +83,8 @@ public class AmzaSyncSender {
         AmzaClientAquariumProvider amzaClientAquariumProvider,
         int syncRingStripes,
         ScheduledExecutorService executorService,
+        ExecutorService syncExecutor,
+        int partitionConcurrency,
         PartitionClientProvider partitionClientProvider,
         AmzaSyncClient toSyncClient,
         AmzaSyncPartitionConfigProvider syncPartitionConfigProvider,
@@ -86,6 +95,8 @@ public class AmzaSyncSender {
         this.amzaClientAquariumProvider = amzaClientAquariumProvider;
         this.syncRingStripes = syncRingStripes;
         this.executorService = executorService;
+        this.syncExecutor = syncExecutor;
+        this.partitionConcurrency = partitionConcurrency;
         this.syncFutures = new ScheduledFuture[syncRingStripes];
         this.partitionClientProvider = partitionClientProvider;
         this.toSyncClient = toSyncClient;
@@ -221,7 +232,7 @@ public class AmzaSyncSender {
         }
 
         LOG.info("Syncing stripe:{}", stripe);
-        int partitionCount = 0;
+        AtomicInteger partitionCount = new AtomicInteger();
         int rowCount = 0;
         Map<AmzaSyncPartitionTuple, AmzaSyncPartitionConfig> partitions;
         if (syncPartitionConfigProvider != null) {
@@ -234,30 +245,77 @@ public class AmzaSyncSender {
                 partitions.put(new AmzaSyncPartitionTuple(partitionName, partitionName), new AmzaSyncPartitionConfig(-1, -1, -1, -1, 0)); //TODO
             }
         }
-        for (Entry<AmzaSyncPartitionTuple, AmzaSyncPartitionConfig> entry : partitions.entrySet()) {
-            if (!isElected(stripe)) {
-                break;
-            }
-            PartitionName fromPartitionName = entry.getKey().from;
-            PartitionName toPartitionName = entry.getKey().to;
-            int partitionStripe = Math.abs(fromPartitionName.hashCode() % syncRingStripes);
-            if (partitionStripe == stripe) {
-                if (!ensurePartition(fromPartitionName, toPartitionName)) {
-                    continue;
-                }
+        // partitions sync concurrently, each with its own take/commit pipeline
+        Semaphore permits = new Semaphore(partitionConcurrency);
+        List<Future<Integer>> syncs = Lists.newArrayList();
+        try {
+            for (Entry<AmzaSyncPartitionTuple, AmzaSyncPartitionConfig> entry : partitions.entrySet()) {
                 if (!isElected(stripe)) {
                     break;
                 }
-                partitionCount++;
+                PartitionName fromPartitionName = entry.getKey().from;
+                int partitionStripe = Math.abs(fromPartitionName.hashCode() % syncRingStripes);
+                if (partitionStripe == stripe) {
+                    permits.acquire();
+                    try {
+                        syncs.add(syncExecutor.submit(() -> {
+                            try {
+                                return ensureAndSyncPartition(entry.getKey(), entry.getValue(), stripe, partitionCount);
+                            } finally {
+                                permits.release();
+                            }
+                        }));
+                    } catch (Throwable t) {
+                        permits.release();
+                        throw t;
+                    }
+                }
+            }
 
-                int synced = syncPartition(entry.getKey(), entry.getValue(), stripe);
-                if (synced > 0) {
-                    LOG.info("Synced stripe:{} tenantId:{} rows:{}", stripe, fromPartitionName, synced);
+            Exception failure = null;
+            for (Future<Integer> sync : syncs) {
+                try {
+                    rowCount += sync.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = unwrap(e);
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
                 }
-                rowCount += synced;
             }
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            for (Future<Integer> sync : syncs) {
+                sync.cancel(true);
+            }
+            throw e;
+        }
+        LOG.info("Synced stripe:{} partitions:{} rows:{}", stripe, partitionCount.get(), rowCount);
+    }
+
+    private int ensureAndSyncPartition(AmzaSyncPartitionTuple partitionTuple,
+        AmzaSyncPartitionConfig partitionConfig,
+        int stripe,
+        AtomicInteger partitionCount) throws Exception {
+
+        PartitionName fromPartitionName = partitionTuple.from;
+        PartitionName toPartitionName = partitionTuple.to;
+        if (!ensurePartition(fromPartitionName, toPartitionName)) {
+            return 0;
+        }
+        if (!isElected(stripe)) {
+            return 0;
+        }
+        partitionCount.incrementAndGet();
+
+        int synced = syncPartition(partitionTuple, partitionConfig, stripe);
+        if (synced > 0) {
+            LOG.info("Synced stripe:{} tenantId:{} rows:{}", stripe, fromPartitionName, synced);
         }
-        LOG.info("Synced stripe:{} partitions:{} rows:{}", stripe, partitionCount, rowCount);
+        return synced;
     }
 
     private boolean ensurePartition(PartitionName fromPartitionName, PartitionName toPartitionName) throws Exception {
@@ -318,6 +376,9 @@ public class AmzaSyncSender {
 
         int synced = 0;
         boolean taking = true;
+        // the commit of one batch overlaps the take of the next, and at most one commit is in flight so batches land in order
+        Future<?> committing = null;
+        Cursor committingCursor = null;
         while (taking) {
             MutableLong bytesCount = new MutableLong();
             List<Row> rows = Lists.newArrayListWithExpectedSize(config.batchSize);
@@ -349,6 +410,9 @@ public class AmzaSyncSender {
                 Optional.empty());
 
             if (!isElected(stripe)) {
+                if (committing != null) {
+                    awaitCommit(committing);
+                }
                 return synced;
             }
             if (rows.isEmpty()) {
@@ -360,16 +424,6 @@ public class AmzaSyncSender {
                 stats.ingressed(statsBytes, bytesCount.longValue(), ingressLatency);
                 stats.ingressed("sender/sync/count", rows.size(), 0);
                 stats.ingressed(statsCount, rows.size(), ingressLatency);
-                start = System.currentTimeMillis();
-
-                toSyncClient.commitRows(toPartitionName, rows);
-                synced += rows.size();
-
-                long egressLatency = System.currentTimeMillis() - start;
-                stats.egressed("sender/sync/bytes", bytesCount.longValue(), 0);
-                stats.egressed(statsBytes, bytesCount.longValue(), egressLatency);
-                stats.egressed("sender/sync/count", rows.size(), 0);
-                stats.egressed(statsCount, rows.size(), egressLatency);
             }
 
             cursorMemberTxIds.merge(takeResult.tookFrom, takeResult.lastTxId, Math::max);
@@ -380,16 +434,66 @@ public class AmzaSyncSender {
                 taking = false;
             }
 
-            Cursor cursor = new Cursor(true, taking, cursorMaxTimestamp.get(), cursorMaxVersion.get(), cursorMemberTxIds);
-            if (!existingCursor.equals(cursor)) {
-                savePartitionCursor(partitionTuple.from, toPartitionName, cursor);
-                existingCursor = cursor;
+            Cursor cursor = new Cursor(true, taking, cursorMaxTimestamp.get(), cursorMaxVersion.get(), Maps.newHashMap(cursorMemberTxIds));
+            if (committing != null) {
+                awaitCommit(committing);
+                committing = null;
+                if (!existingCursor.equals(committingCursor)) {
+                    savePartitionCursor(partitionTuple.from, toPartitionName, committingCursor);
+                    existingCursor = committingCursor;
+                }
+            }
+
+            if (rows.isEmpty()) {
+                if (!existingCursor.equals(cursor)) {
+                    savePartitionCursor(partitionTuple.from, toPartitionName, cursor);
+                    existingCursor = cursor;
+                }
+            } else {
+                long egressBytes = bytesCount.longValue();
+                committing = syncExecutor.submit(() -> {
+                    long egressStart = System.currentTimeMillis();
+                    toSyncClient.commitRows(toPartitionName, rows);
+
+                    long egressLatency = System.currentTimeMillis() - egressStart;
+                    stats.egressed("sender/sync/bytes", egressBytes, 0);
+                    stats.egressed(statsBytes, egressBytes, egressLatency);
+                    stats.egressed("sender/sync/count", rows.size(), 0);
+                    stats.egressed(statsCount, rows.size(), egressLatency);
+                    return null;
+                });
+                committingCursor = cursor;
+                synced += rows.size();
             }
         }
 
+        if (committing != null) {
+            awaitCommit(committing);
+            if (!existingCursor.equals(committingCursor)) {
+                savePartitionCursor(partitionTuple.from, toPartitionName, committingCursor);
+            }
+        }
         return synced;
     }
 
+    private static void awaitCommit(Future<?> committing) throws Exception {
+        try {
+            committing.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+
     private Cursor getPartitionCursor(PartitionName fromPartitionName, PartitionName toPartitionName, Cursor defaultCursor) throws Exception {
         PartitionClient cursorClient = cursorClient();
         byte[] cursorKey = cursorKey(fromPartitionName, toPartitionName);
@@ -49,6 +49,7 @@ public class AmzaSyncSenders {
     private final AmzaSyncPartitionConfigProvider syncPartitionConfigProvider;
     private final long ensureSendersInterval;
     private final ExecutorService ensureSenders = Executors.newFixedThreadPool(1, new ThreadFactoryBuilder().setNameFormat("ensure-sender-%d").build());
+    private final ExecutorService syncExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("sync-partition-%d").build());
 
     public AmzaSyncSenders(AmzaSyncStats stats,
         AmzaSyncConfig syncConfig,
@@ -109,6 +110,8 @@ public class AmzaSyncSenders {
                                     clientAquariumProvider,
                                     syncConfig.getSyncSenderRingStripes(),
                                     executorService,
+                                    syncExecutor,
+                                    syncConfig.getSyncSenderPartitionConcurrency(),
                                     partitionClientProvider,
                                     amzaSyncClient(senderConfig),
                                     syncPartitionConfigProvider,
@@ -154,6 +157,7 @@ public class AmzaSyncSenders {
                 LOG.warn("Failure while stopping sender:{}", new Object[] { amzaSyncSender }, x);
             }
         }
+        syncExecutor.shutdownNow();
     }
 
     private AmzaSyncClient amzaSyncClient(AmzaSyncSenderConfig config) throws Exception {
@@ -192,6 +196,7 @@ public class AmzaSyncSenders {
 
             return new HttpAmzaSyncClient(httpClient,
                 mapper,
+                "/api/sync/v1/commit/binary",
                 "/api/sync/v1/commit/rows",
                 "/api/sync/v1/ensure/partition");
         }
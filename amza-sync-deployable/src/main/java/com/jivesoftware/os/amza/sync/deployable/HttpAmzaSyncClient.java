@@ -3,6 +3,8 @@ package com.jivesoftware.os.amza.sync.deployable;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
 import com.jivesoftware.os.routing.bird.http.client.HttpClient;
 import com.jivesoftware.os.routing.bird.http.client.HttpResponse;
 import java.util.List;
@@ -13,20 +15,45 @@ import org.xerial.snappy.Snappy;
  */
 public class HttpAmzaSyncClient implements AmzaSyncClient {
 
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
     private final HttpClient httpClient;
     private final ObjectMapper mapper;
+    private final String binaryCommitPath;
     private final String commitPath;
     private final String ensurePartitionPath;
 
-    public HttpAmzaSyncClient(HttpClient httpClient, ObjectMapper mapper, String commitPath, String ensurePartitionPath) {
+    // receivers predating the binary endpoint answer 404, after which every batch goes over the json endpoint
+    private volatile boolean binaryCommit = true;
+
+    public HttpAmzaSyncClient(HttpClient httpClient,
+        ObjectMapper mapper,
+        String binaryCommitPath,
+        String commitPath,
+        String ensurePartitionPath) {
         this.httpClient = httpClient;
         this.mapper = mapper;
+        this.binaryCommitPath = binaryCommitPath;
         this.commitPath = commitPath;
         this.ensurePartitionPath = ensurePartitionPath;
     }
 
     @Override
     public void commitRows(PartitionName toPartitionName, List<Row> rows) throws Exception {
+        if (binaryCommit) {
+            byte[] bytes = RowsMarshaller.INSTANCE.toBytes(rows);
+            String endpoint = binaryCommitPath + '/' + toPartitionName.toBase64();
+            HttpResponse httpResponse = httpClient.postBytes(endpoint, bytes, null);
+            if (httpResponse.getStatusCode() != 404) {
+                if (!isSuccessStatusCode(httpResponse.getStatusCode())) {
+                    throw new SyncClientException("Empty response from sync receiver");
+                }
+                return;
+            }
+            LOG.warn("Sync receiver does not support {}, falling back to {}", binaryCommitPath, commitPath);
+            binaryCommit = false;
+        }
+
         byte[] bytes = Snappy.compress(mapper.writeValueAsBytes(rows));
         String endpoint = commitPath + '/' + toPartitionName.toBase64();
         HttpResponse httpResponse = httpClient.postBytes(endpoint, bytes, null);
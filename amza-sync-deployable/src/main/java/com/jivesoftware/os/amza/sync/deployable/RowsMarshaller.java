@@ -0,0 +1,84 @@
+package com.jivesoftware.os.amza.sync.deployable;
+
+import com.jivesoftware.os.amza.client.collection.AmzaMarshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Snappy compressed binary encoding of a batch of rows for the sync wire, which spares the receiver from parsing base64 keys and values out
+ * of JSON.
+ */
+public class RowsMarshaller implements AmzaMarshaller<Rows> {
+
+    public static final RowsMarshaller INSTANCE = new RowsMarshaller();
+
+    private static final byte VERSION = 1;
+
+    private RowsMarshaller() {
+    }
+
+    @Override
+    public Rows fromBytes(byte[] bytes) throws Exception {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(Snappy.uncompress(bytes)));
+        byte version = dis.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported rows version " + version);
+        }
+        int count = dis.readInt();
+        Rows rows = new Rows();
+        rows.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(new Row(readBytes(dis),
+                readBytes(dis),
+                readBytes(dis),
+                dis.readLong(),
+                dis.readBoolean()));
+        }
+        return rows;
+    }
+
+    @Override
+    public byte[] toBytes(Rows rows) throws Exception {
+        return toBytes((List<Row>) rows);
+    }
+
+    public byte[] toBytes(List<Row> rows) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytesOut);
+        dos.writeByte(VERSION);
+        dos.writeInt(rows.size());
+        for (Row row : rows) {
+            writeBytes(dos, row.prefix);
+            writeBytes(dos, row.key);
+            writeBytes(dos, row.value);
+            dos.writeLong(row.valueTimestamp);
+            dos.writeBoolean(row.valueTombstoned);
+        }
+        dos.flush();
+        return Snappy.compress(bytesOut.toByteArray());
+    }
+
+    private static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            dos.writeInt(-1);
+        } else {
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return bytes;
+    }
+}
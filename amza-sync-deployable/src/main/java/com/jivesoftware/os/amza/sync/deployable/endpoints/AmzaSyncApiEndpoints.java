@@ -16,11 +16,13 @@
 package com.jivesoftware.os.amza.sync.deployable.endpoints;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
 import com.jivesoftware.os.amza.api.AmzaInterner;
 import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
 import com.jivesoftware.os.amza.sync.deployable.AmzaSyncReceiver;
 import com.jivesoftware.os.amza.sync.deployable.Rows;
+import com.jivesoftware.os.amza.sync.deployable.RowsMarshaller;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
 import com.jivesoftware.os.routing.bird.shared.ResponseHelper;
@@ -83,6 +85,31 @@ public class AmzaSyncApiEndpoints {
         }
     }
 
+    @POST
+    @Path("/commit/binary/{partitionNameBase64}")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response commitBinaryRows(@PathParam("partitionNameBase64") String partitionNameBase64,
+        InputStream inputStream) throws Exception {
+        Rows rows;
+        try {
+            rows = RowsMarshaller.INSTANCE.fromBytes(ByteStreams.toByteArray(inputStream));
+        } catch (Exception x) {
+            LOG.error("Failed decoding commitBinaryRows({})",
+                new Object[] { partitionNameBase64 }, x);
+            return responseHelper.errorResponse("Server error", x);
+        }
+        try {
+            PartitionName partitionName = amzaInterner.internPartitionNameBase64(partitionNameBase64);
+            syncReceiver.commitRows(partitionName, rows);
+            return responseHelper.jsonResponse("ok");
+        } catch (Exception x) {
+            LOG.error("Failed calling commitBinaryRows({},count:{})",
+                new Object[] { partitionNameBase64, rows.size() }, x);
+            return responseHelper.errorResponse("Server error", x);
+        }
+    }
+
     @POST
     @Path("/ensure/partition/{partitionNameBase64}/{ringSize}")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -1,6 +1,7 @@
 package com.jivesoftware.os.amza.sync.deployable;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.jivesoftware.os.amza.api.AmzaInterner;
@@ -14,7 +15,10 @@ import com.jivesoftware.os.amza.api.partition.PartitionName;
 import com.jivesoftware.os.amza.api.partition.PartitionProperties;
 import com.jivesoftware.os.amza.api.ring.RingMember;
 import com.jivesoftware.os.amza.api.stream.RowType;
+import com.jivesoftware.os.amza.api.stream.TxKeyValueStream;
 import com.jivesoftware.os.amza.api.stream.TxKeyValueStream.TxResult;
+import com.jivesoftware.os.amza.api.take.Highwaters;
+import com.jivesoftware.os.amza.api.take.TakeResult;
 import com.jivesoftware.os.amza.api.wal.KeyUtil;
 import com.jivesoftware.os.amza.client.aquarium.AmzaClientAquariumProvider;
 import com.jivesoftware.os.amza.client.test.InMemoryPartitionClient;
@@ -29,11 +33,14 @@ import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProviderImpl;
 import com.jivesoftware.os.jive.utils.ordered.id.SnowflakeIdPacker;
 import com.jivesoftware.os.jive.utils.ordered.id.TimestampedOrderIdProvider;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import org.testng.Assert;
@@ -57,25 +64,6 @@ public class AmzaSyncSenderTest {
 
         PartitionClient partition = partitionClientProvider.getPartition(partitionName);
 
-        AmzaClientAquariumProvider amzaClientAquariumProvider = new AmzaClientAquariumProvider(new AquariumStats(),
-            "test",
-            partitionClientProvider,
-            orderIdProvider,
-            ringMember.asAquariumMember(),
-            count -> count == 1,
-            () -> Sets.newHashSet(ringMember.asAquariumMember()),
-            128,
-            128,
-            5_000L,
-            100L,
-            60_000L,
-            10_000L,
-            Executors.newSingleThreadExecutor(),
-            100L,
-            1_000L,
-            10_000L,
-            false);
-
         int[] rowCount = new int[1];
         AmzaSyncClient syncClient = new AmzaSyncClient() {
 
@@ -89,32 +77,8 @@ public class AmzaSyncSenderTest {
             }
         };
 
-
-        AmzaSyncSender syncSender = new AmzaSyncSender(
-            new AmzaSyncStats(),
-            new AmzaSyncSenderConfig("default",
-                true,
-                100L,
-                1_000,
-                false,
-                "",
-                "",
-                -1,
-                "",
-                "",
-                "",
-                true),
-            amzaClientAquariumProvider,
-            1,
-            Executors.newScheduledThreadPool(1),
-            partitionClientProvider,
-            syncClient,
-            (name) -> ImmutableMap.of(new AmzaSyncPartitionTuple(partitionName, partitionName),
-                new AmzaSyncPartitionConfig(0, 0, 0, 0, 0)),
-            new AmzaInterner());
-
-        amzaClientAquariumProvider.start();
-        syncSender.start();
+        AmzaSyncSender syncSender = startSyncSender(partitionClientProvider, orderIdProvider, ringMember, 1_000, 4, syncClient,
+            ImmutableMap.of(new AmzaSyncPartitionTuple(partitionName, partitionName), new AmzaSyncPartitionConfig(0, 0, 0, 0, 0)));
 
         AtomicInteger keyProvider = new AtomicInteger();
         AtomicLong valueProvider = new AtomicLong();
@@ -150,6 +114,239 @@ public class AmzaSyncSenderTest {
         Assert.assertEquals(rowCount[0], 10);
     }
 
+    @Test
+    public void testCommitFailureDoesNotAdvanceCursor() throws Exception {
+        byte[] partitionBytes = "partition1".getBytes(StandardCharsets.UTF_8);
+        PartitionName partitionName = new PartitionName(false, partitionBytes, partitionBytes);
+        RingMember ringMember = new RingMember("member1");
+
+        TimestampedOrderIdProvider orderIdProvider = new OrderIdProviderImpl(new ConstantWriterIdProvider(1),
+            new SnowflakeIdPacker(),
+            new JiveEpochTimestampProvider());
+        PartitionClientProvider partitionClientProvider = new InMemoryPartitionClientProvider(orderIdProvider, ringMember);
+        PartitionClient partition = partitionClientProvider.getPartition(partitionName);
+
+        long largestTxId = advancePartition(partition, 10, System.currentTimeMillis(), new AtomicInteger(), new AtomicLong());
+
+        // the second batch of 5 fails until the receiver recovers
+        AtomicBoolean failing = new AtomicBoolean(true);
+        AtomicInteger failures = new AtomicInteger();
+        List<Integer> committedKeys = Collections.synchronizedList(Lists.newArrayList());
+        AmzaSyncClient syncClient = new AmzaSyncClient() {
+
+            @Override
+            public void commitRows(PartitionName toPartitionName, List<Row> rows) throws Exception {
+                if (failing.get() && UIO.bytesInt(rows.get(0).key) > 5) {
+                    failures.incrementAndGet();
+                    throw new SyncClientException("Receiver unavailable");
+                }
+                for (Row row : rows) {
+                    committedKeys.add(UIO.bytesInt(row.key));
+                }
+            }
+
+            @Override
+            public void ensurePartition(PartitionName toPartitionName, PartitionProperties properties, int ringSize) throws Exception {
+            }
+        };
+
+        AmzaSyncSender syncSender = startSyncSender(partitionClientProvider, orderIdProvider, ringMember, 5, 4, syncClient,
+            ImmutableMap.of(new AmzaSyncPartitionTuple(partitionName, partitionName), new AmzaSyncPartitionConfig(0, 0, 0, 0, 0)));
+        try {
+            long failAfter = System.currentTimeMillis() + 60_000L;
+            while (failures.get() < 3) {
+                if (System.currentTimeMillis() > failAfter) {
+                    Assert.fail("Timed out awaiting commit failures");
+                }
+                Thread.sleep(10L);
+            }
+
+            Cursor cursor = awaitCursor(partitionName, syncSender, ringMember, 5L, failAfter);
+            Assert.assertEquals(cursor.memberTxIds.get(ringMember).longValue(), 5L);
+            Assert.assertTrue(cursor.taking);
+
+            failing.set(false);
+            cursor = awaitCursor(partitionName, syncSender, ringMember, largestTxId, failAfter);
+            Assert.assertFalse(cursor.taking);
+            Assert.assertEquals(cursor.memberTxIds.get(ringMember).longValue(), 10L);
+            Assert.assertEquals(Sets.newHashSet(committedKeys), Sets.newHashSet(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+        } finally {
+            syncSender.stop();
+        }
+    }
+
+    @Test
+    public void testBatchesCommittedInTakeOrder() throws Exception {
+        byte[] partitionBytes = "partition1".getBytes(StandardCharsets.UTF_8);
+        PartitionName partitionName = new PartitionName(false, partitionBytes, partitionBytes);
+        RingMember ringMember = new RingMember("member1");
+
+        TimestampedOrderIdProvider orderIdProvider = new OrderIdProviderImpl(new ConstantWriterIdProvider(1),
+            new SnowflakeIdPacker(),
+            new JiveEpochTimestampProvider());
+        InMemoryPartitionClientProvider partitionClientProvider = new InMemoryPartitionClientProvider(orderIdProvider, ringMember);
+        PartitionClient partition = partitionClientProvider.getPartition(partitionName);
+
+        long largestTxId = advancePartition(partition, 100, System.currentTimeMillis(), new AtomicInteger(), new AtomicLong());
+        AtomicInteger takes = partitionClientProvider.takes(partitionName);
+        int takesBefore = takes.get();
+
+        // each commit holds until the next take has started, so a sender that waits for its commit before taking never gets overlapped
+        List<Integer> committedKeys = Collections.synchronizedList(Lists.newArrayList());
+        AtomicInteger commits = new AtomicInteger();
+        AtomicInteger overlapped = new AtomicInteger();
+        AmzaSyncClient syncClient = new AmzaSyncClient() {
+
+            @Override
+            public void commitRows(PartitionName toPartitionName, List<Row> rows) throws Exception {
+                int batch = commits.getAndIncrement();
+                long waitUntil = System.currentTimeMillis() + 1_000L;
+                while (takes.get() < takesBefore + batch + 2 && System.currentTimeMillis() < waitUntil) {
+                    Thread.sleep(1L);
+                }
+                if (takes.get() >= takesBefore + batch + 2) {
+                    overlapped.incrementAndGet();
+                }
+                for (Row row : rows) {
+                    committedKeys.add(UIO.bytesInt(row.key));
+                }
+            }
+
+            @Override
+            public void ensurePartition(PartitionName toPartitionName, PartitionProperties properties, int ringSize) throws Exception {
+            }
+        };
+
+        AmzaSyncSender syncSender = startSyncSender(partitionClientProvider, orderIdProvider, ringMember, 10, 4, syncClient,
+            ImmutableMap.of(new AmzaSyncPartitionTuple(partitionName, partitionName), new AmzaSyncPartitionConfig(0, 0, 0, 0, 0)));
+        try {
+            Cursor cursor = awaitCursor(partitionName, syncSender, ringMember, largestTxId, System.currentTimeMillis() + 60_000L);
+            Assert.assertFalse(cursor.taking);
+        } finally {
+            syncSender.stop();
+        }
+
+        List<Integer> expectedKeys = Lists.newArrayList();
+        for (int i = 1; i <= 100; i++) {
+            expectedKeys.add(i);
+        }
+        Assert.assertEquals(committedKeys, expectedKeys);
+        Assert.assertEquals(commits.get(), 10);
+        // the take of the final batch reaches the end, so there is no further take for its commit to overlap
+        Assert.assertEquals(overlapped.get(), 9);
+    }
+
+    @Test
+    public void testPartitionConcurrencyBoundsParallelPartitions() throws Exception {
+        RingMember ringMember = new RingMember("member1");
+
+        TimestampedOrderIdProvider orderIdProvider = new OrderIdProviderImpl(new ConstantWriterIdProvider(1),
+            new SnowflakeIdPacker(),
+            new JiveEpochTimestampProvider());
+        PartitionClientProvider partitionClientProvider = new InMemoryPartitionClientProvider(orderIdProvider, ringMember);
+
+        Map<AmzaSyncPartitionTuple, AmzaSyncPartitionConfig> partitions = Maps.newHashMap();
+        Map<PartitionName, Long> largestTxIds = Maps.newHashMap();
+        for (int i = 0; i < 8; i++) {
+            byte[] partitionBytes = ("partition" + i).getBytes(StandardCharsets.UTF_8);
+            PartitionName partitionName = new PartitionName(false, partitionBytes, partitionBytes);
+            partitions.put(new AmzaSyncPartitionTuple(partitionName, partitionName), new AmzaSyncPartitionConfig(0, 0, 0, 0, 0));
+            largestTxIds.put(partitionName, advancePartition(partitionClientProvider.getPartition(partitionName),
+                10, System.currentTimeMillis(), new AtomicInteger(), new AtomicLong()));
+        }
+
+        // a partition has at most one commit in flight, so concurrent commits count concurrently syncing partitions
+        AtomicInteger inflight = new AtomicInteger();
+        AtomicInteger maxInflight = new AtomicInteger();
+        AtomicInteger rowCount = new AtomicInteger();
+        AmzaSyncClient syncClient = new AmzaSyncClient() {
+
+            @Override
+            public void commitRows(PartitionName toPartitionName, List<Row> rows) throws Exception {
+                maxInflight.accumulateAndGet(inflight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(50L);
+                    rowCount.addAndGet(rows.size());
+                } finally {
+                    inflight.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void ensurePartition(PartitionName toPartitionName, PartitionProperties properties, int ringSize) throws Exception {
+            }
+        };
+
+        AmzaSyncSender syncSender = startSyncSender(partitionClientProvider, orderIdProvider, ringMember, 5, 2, syncClient, partitions);
+        try {
+            long failAfter = System.currentTimeMillis() + 60_000L;
+            for (Entry<PartitionName, Long> entry : largestTxIds.entrySet()) {
+                awaitCursor(entry.getKey(), syncSender, ringMember, entry.getValue(), failAfter);
+            }
+        } finally {
+            syncSender.stop();
+        }
+
+        Assert.assertEquals(rowCount.get(), 80);
+        Assert.assertEquals(maxInflight.get(), 2);
+    }
+
+    private AmzaSyncSender startSyncSender(PartitionClientProvider partitionClientProvider,
+        TimestampedOrderIdProvider orderIdProvider,
+        RingMember ringMember,
+        int batchSize,
+        int partitionConcurrency,
+        AmzaSyncClient syncClient,
+        Map<AmzaSyncPartitionTuple, AmzaSyncPartitionConfig> partitions) throws Exception {
+
+        AmzaClientAquariumProvider amzaClientAquariumProvider = new AmzaClientAquariumProvider(new AquariumStats(),
+            "test",
+            partitionClientProvider,
+            orderIdProvider,
+            ringMember.asAquariumMember(),
+            count -> count == 1,
+            () -> Sets.newHashSet(ringMember.asAquariumMember()),
+            128,
+            128,
+            5_000L,
+            100L,
+            60_000L,
+            10_000L,
+            Executors.newSingleThreadExecutor(),
+            100L,
+            1_000L,
+            10_000L,
+            false);
+
+        AmzaSyncSender syncSender = new AmzaSyncSender(
+            new AmzaSyncStats(),
+            new AmzaSyncSenderConfig("default",
+                true,
+                100L,
+                batchSize,
+                false,
+                "",
+                "",
+                -1,
+                "",
+                "",
+                "",
+                true),
+            amzaClientAquariumProvider,
+            1,
+            Executors.newScheduledThreadPool(1),
+            Executors.newCachedThreadPool(),
+            partitionConcurrency,
+            partitionClientProvider,
+            syncClient,
+            (name) -> partitions,
+            new AmzaInterner());
+
+        amzaClientAquariumProvider.start();
+        syncSender.start();
+        return syncSender;
+    }
+
     private long advancePartition(PartitionClient partition,
         int rows,
         long currentTimeMillis,
@@ -215,12 +412,17 @@ public class AmzaSyncSenderTest {
         private final RingMember ringMember;
 
         private final Map<PartitionName, PartitionClient> clients = Maps.newConcurrentMap();
+        private final Map<PartitionName, AtomicInteger> takes = Maps.newConcurrentMap();
 
         public InMemoryPartitionClientProvider(OrderIdProvider orderIdProvider, RingMember ringMember) {
             this.orderIdProvider = orderIdProvider;
             this.ringMember = ringMember;
         }
 
+        public AtomicInteger takes(PartitionName partitionName) {
+            return takes.computeIfAbsent(partitionName, key -> new AtomicInteger());
+        }
+
         @Override
         public RingPartitionProperties getProperties(PartitionName partitionName) throws Exception {
             return new RingPartitionProperties(1,
@@ -234,7 +436,21 @@ public class AmzaSyncSenderTest {
                 partitionName1 -> new InMemoryPartitionClient(ringMember,
                     new ConcurrentSkipListMap<>(),
                     new ConcurrentSkipListMap<>(KeyUtil.lexicographicalComparator()),
-                    orderIdProvider));
+                    orderIdProvider) {
+                    @Override
+                    public TakeResult takeFromTransactionId(List<RingMember> membersInOrder,
+                        Map<RingMember, Long> memberTxIds,
+                        int limit,
+                        Highwaters highwaters,
+                        TxKeyValueStream stream,
+                        long additionalSolverAfterNMillis,
+                        long abandonSolutionAfterNMillis,
+                        Optional<List<String>> solutionLog) throws Exception {
+                        takes(partitionName).incrementAndGet();
+                        return super.takeFromTransactionId(membersInOrder, memberTxIds, limit, highwaters, stream,
+                            additionalSolverAfterNMillis, abandonSolutionAfterNMillis, solutionLog);
+                    }
+                });
         }
 
         @Override
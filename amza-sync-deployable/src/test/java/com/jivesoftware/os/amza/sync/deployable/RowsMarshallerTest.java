@@ -0,0 +1,41 @@
+package com.jivesoftware.os.amza.sync.deployable;
+
+import java.nio.charset.StandardCharsets;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class RowsMarshallerTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Rows rows = new Rows();
+        rows.add(new Row(null, bytes("k1"), bytes("v1"), 1L, false));
+        rows.add(new Row(bytes("p"), bytes("k2"), null, 2L, true));
+        rows.add(new Row(new byte[0], bytes("k3"), new byte[0], Long.MAX_VALUE, false));
+
+        Rows got = RowsMarshaller.INSTANCE.fromBytes(RowsMarshaller.INSTANCE.toBytes(rows));
+
+        Assert.assertEquals(got.size(), rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Row expected = rows.get(i);
+            Row row = got.get(i);
+            Assert.assertEquals(row.prefix, expected.prefix);
+            Assert.assertEquals(row.key, expected.key);
+            Assert.assertEquals(row.value, expected.value);
+            Assert.assertEquals(row.valueTimestamp, expected.valueTimestamp);
+            Assert.assertEquals(row.valueTombstoned, expected.valueTombstoned);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Assert.assertTrue(RowsMarshaller.INSTANCE.fromBytes(RowsMarshaller.INSTANCE.toBytes(new Rows())).isEmpty());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
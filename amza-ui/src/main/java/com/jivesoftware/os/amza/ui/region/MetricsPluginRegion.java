@@ -477,6 +477,8 @@ public class MetricsPluginRegion implements PageRegion<MetricsPluginRegion.Metri
         map.put("quorums", numberFormat.format(totals.quorums.longValue()));
         map.put("quorumsLag", getDurationBreakdown(totals.quorumsLatency));
         map.put("quorumTimeouts", numberFormat.format(totals.quorumTimeouts.longValue()));
+        map.put("throttles", numberFormat.format(totals.throttles.longValue()));
+        map.put("throttleRejections", numberFormat.format(totals.throttleRejections.longValue()));
 
         return map;
     }
@@ -505,6 +507,11 @@ public class MetricsPluginRegion implements PageRegion<MetricsPluginRegion.Metri
         sb.append("&nbsp;&nbsp;&nbsp;&nbsp;deltaRem1<span class=\"badge\">").append(amzaService.amzaStats.deltaFirstCheckRemoves.longValue()).append("</span>");
         sb.append("&nbsp;&nbsp;&nbsp;&nbsp;deltaRem2<span class=\"badge\">").append(amzaService.amzaStats.deltaSecondCheckRemoves.longValue()).append(
             "</span>");
+        sb.append("&nbsp;&nbsp;&nbsp;&nbsp;deltaGroups<span class=\"badge\">").append(amzaService.amzaStats.deltaGroupCommits.longValue()).append("</span>");
+        sb.append("&nbsp;&nbsp;&nbsp;&nbsp;deltaGrouped<span class=\"badge\">").append(amzaService.amzaStats.deltaGroupCommitted.longValue()).append(
+            "</span>");
+        sb.append("&nbsp;&nbsp;&nbsp;&nbsp;deltaThrottled<span class=\"badge\">")
+            .append(getDurationBreakdown(amzaService.amzaStats.deltaBackPressureMillis.longValue())).append("</span>");
         sb.append("&nbsp;&nbsp;&nbsp;&nbsp;baIntern<span class=\"badge\">").append(amzaInterner.size()).append("</span>");
 
         double processCpuLoad = getProcessCpuLoad();
@@ -618,6 +625,20 @@ public class MetricsPluginRegion implements PageRegion<MetricsPluginRegion.Metri
             (int) ((tombostoneCompaction / 10d) * 100), " total:" + amzaStats.getTotalCompactions(CompactionFamily.tombstone),
             null, null));
 
+        sb.append(progress("Tombstone Compaction Queue (" + numberFormat.format(amzaStats.compactionQueueDepth) + ")",
+            (int) Math.min(100, amzaStats.compactionQueueDepth),
+            " reclaimable:" + numberFormat.format(amzaStats.compactionQueueReclaimableBytes)
+                + " bytes/sec:" + numberFormat.format(amzaStats.compactionBytesPerSecond)
+                + " throttled:" + getDurationBreakdown(amzaStats.compactionThrottledMillis.longValue()),
+            null, null));
+
+        long hydratedValueCacheHits = amzaStats.hydratedValueCacheHits.longValue();
+        long hydratedValueCacheLookups = hydratedValueCacheHits + amzaStats.hydratedValueCacheMisses.longValue();
+        sb.append(progress("Hydrated Value Cache (" + numberFormat.format(hydratedValueCacheLookups) + ")",
+            hydratedValueCacheLookups == 0 ? 0 : (int) (hydratedValueCacheHits * 100 / hydratedValueCacheLookups),
+            " hits:" + numberFormat.format(hydratedValueCacheHits),
+            null, null));
+
         sb.append(progress("Merge Compactions (" + numberFormat.format(mergeCompaction) + ")",
             (int) ((mergeCompaction / 10d) * 100), " total:" + amzaStats.getTotalCompactions(CompactionFamily.merge),
             null, null));